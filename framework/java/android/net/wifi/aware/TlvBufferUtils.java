@@ -19,6 +19,7 @@ package android.net.wifi.aware;
 import android.annotation.Nullable;
 
 import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -557,8 +558,10 @@ public class TlvBufferUtils {
          */
         public List<byte[]> toList() {
             List<byte[]> list = new ArrayList<>();
-            for (TlvElement tlv : this) {
-                list.add(Arrays.copyOfRange(tlv.mRefArray, tlv.offset, tlv.offset + tlv.length));
+            TlvReader reader = new TlvReader(mTypeSize, mLengthSize).setByteOrder(mByteOrder)
+                    .reset(mArray);
+            while (reader.next()) {
+                list.add(reader.getRawData());
             }
 
             return list;
@@ -586,17 +589,17 @@ public class TlvBufferUtils {
 
                     int type = 0;
                     if (mTypeSize == 1) {
-                        type = mArray[mOffset];
+                        type = mArray[mOffset] & 0xff;
                     } else if (mTypeSize == 2) {
-                        type = peekShort(mArray, mOffset, mByteOrder);
+                        type = peekShort(mArray, mOffset, mByteOrder) & 0xffff;
                     }
                     mOffset += mTypeSize;
 
                     int length = 0;
                     if (mLengthSize == 1) {
-                        length = mArray[mOffset];
+                        length = mArray[mOffset] & 0xff;
                     } else if (mLengthSize == 2) {
-                        length = peekShort(mArray, mOffset, mByteOrder);
+                        length = peekShort(mArray, mOffset, mByteOrder) & 0xffff;
                     }
                     mOffset += mLengthSize;
 
@@ -614,6 +617,400 @@ public class TlvBufferUtils {
         }
     }
 
+    /**
+     * Cursor over a TLV formatted byte-array. Unlike {@link TlvIterable}, the reader doesn't
+     * allocate an element per entry: {@link TlvReader#next()} moves the cursor to the next entry,
+     * whose fields are then read in place. A reader can be reused for other arrays, or for the
+     * sub-elements of an entry, with {@link TlvReader#reset(byte[], int, int)}.
+     * <p>
+     * The Type and Length fields are read as unsigned values.
+     */
+    public static class TlvReader {
+        private final int mTypeSize;
+        private final int mLengthSize;
+        private ByteOrder mByteOrder = ByteOrder.BIG_ENDIAN;
+
+        private byte[] mArray;
+        private int mEnd;
+        private int mNextOffset;
+
+        private int mType;
+        private int mLength;
+        private int mOffset;
+
+        /**
+         * Define a TLV reader with the specified size of the Type (T) and Length (L) fields.
+         *
+         * @param typeSize Number of bytes used for the Type (T) field. Valid values are 0 (i.e.
+         *            indicating the format is LV rather than TLV), 1, and 2 bytes.
+         * @param lengthSize Number of bytes used for the Length (L) field. Valid values are 1 or
+         *            2 bytes.
+         */
+        public TlvReader(int typeSize, int lengthSize) {
+            if (typeSize < 0 || typeSize > 2 || lengthSize <= 0 || lengthSize > 2) {
+                throw new IllegalArgumentException(
+                        "Invalid sizes - typeSize=" + typeSize + ", lengthSize=" + lengthSize);
+            }
+            mTypeSize = typeSize;
+            mLengthSize = lengthSize;
+        }
+
+        /**
+         * Configure the TLV reader to use a particular byte order. Should be
+         * {@link ByteOrder#BIG_ENDIAN} (the default at construction) or
+         * {@link ByteOrder#LITTLE_ENDIAN}.
+         *
+         * @return The reader to facilitate chaining.
+         */
+        public TlvReader setByteOrder(ByteOrder byteOrder) {
+            mByteOrder = byteOrder;
+            return this;
+        }
+
+        /**
+         * Set the TLV formatted byte-array to parse, in full.
+         *
+         * @return The reader to facilitate chaining.
+         */
+        public TlvReader reset(@Nullable byte[] array) {
+            return reset(array, 0, (array == null) ? 0 : array.length);
+        }
+
+        /**
+         * Set the TLV formatted portion of a byte-array to parse.
+         *
+         * @param array The array containing the TLV formatted data.
+         * @param offset The offset of the TLV formatted data in the array.
+         * @param length The size of the TLV formatted data.
+         * @return The reader to facilitate chaining.
+         */
+        public TlvReader reset(@Nullable byte[] array, int offset, int length) {
+            int arrayLength = (array == null) ? 0 : array.length;
+            if (offset < 0 || length < 0 || offset + length > arrayLength) {
+                throw new IndexOutOfBoundsException("offset=" + offset + ", length=" + length
+                        + ", array.length=" + arrayLength);
+            }
+            mArray = array;
+            mNextOffset = offset;
+            mEnd = offset + length;
+            mType = 0;
+            mLength = 0;
+            mOffset = offset;
+            return this;
+        }
+
+        /**
+         * Moves the cursor to the next element.
+         *
+         * @return false if there is no more element.
+         * @throws BufferOverflowException if the next element doesn't fit in the TLV formatted
+         *            data.
+         */
+        public boolean next() {
+            if (mNextOffset >= mEnd) {
+                return false;
+            }
+            int offset = mNextOffset;
+            if (offset + mTypeSize + mLengthSize > mEnd) {
+                throw new BufferOverflowException();
+            }
+
+            int type = 0;
+            if (mTypeSize == 1) {
+                type = mArray[offset] & 0xff;
+            } else if (mTypeSize == 2) {
+                type = peekShort(mArray, offset, mByteOrder) & 0xffff;
+            }
+            offset += mTypeSize;
+
+            int length;
+            if (mLengthSize == 1) {
+                length = mArray[offset] & 0xff;
+            } else {
+                length = peekShort(mArray, offset, mByteOrder) & 0xffff;
+            }
+            offset += mLengthSize;
+
+            if (offset + length > mEnd) {
+                throw new BufferOverflowException();
+            }
+            mType = type;
+            mLength = length;
+            mOffset = offset;
+            mNextOffset = offset + length;
+            return true;
+        }
+
+        /**
+         * Returns the Type (T) field of the current element. Undefined for LV formatted data.
+         */
+        public int getType() {
+            return mType;
+        }
+
+        /**
+         * Returns the Length (L) field of the current element.
+         */
+        public int getLength() {
+            return mLength;
+        }
+
+        /**
+         * Returns the offset of the Value (V) field of the current element in
+         * {@link #getArray()}.
+         */
+        public int getOffset() {
+            return mOffset;
+        }
+
+        /**
+         * Returns the parsed byte-array, to read the Value (V) field of the current element in
+         * place.
+         */
+        public byte[] getArray() {
+            return mArray;
+        }
+
+        /**
+         * Returns the Value (V) field of the current element, of length 1, as a byte.
+         */
+        public byte getByte() {
+            checkValueLength(1);
+            return mArray[mOffset];
+        }
+
+        /**
+         * Returns the Value (V) field of the current element, of length 2, as a short.
+         */
+        public short getShort() {
+            checkValueLength(2);
+            return peekShort(mArray, mOffset, mByteOrder);
+        }
+
+        /**
+         * Returns the Value (V) field of the current element, of length 4, as an integer.
+         */
+        public int getInt() {
+            checkValueLength(4);
+            return peekInt(mArray, mOffset, mByteOrder);
+        }
+
+        /**
+         * Returns a String representation of the Value (V) field of the current element.
+         */
+        public String getString() {
+            return new String(mArray, mOffset, mLength);
+        }
+
+        /**
+         * Returns a copy of the Value (V) field of the current element.
+         */
+        public byte[] getRawData() {
+            return Arrays.copyOfRange(mArray, mOffset, mOffset + mLength);
+        }
+
+        private void checkValueLength(int length) {
+            if (mLength != length) {
+                throw new IllegalArgumentException(
+                        "Accessing " + length + " bytes from a TLV element of length " + mLength);
+            }
+        }
+    }
+
+    /**
+     * Utility class to write TLV formatted data into a {@link ByteBuffer} - e.g. a direct buffer
+     * or a buffer reused across calls - without the intermediate arrays of
+     * {@link TlvConstructor}. Elements are written at the position of the buffer, which is
+     * advanced past them.
+     * <p>
+     * Elements containing sub-elements are written in place with
+     * {@link TlvWriter#startElement(int)} and {@link TlvWriter#endElement(int)}.
+     */
+    public static class TlvWriter {
+        private final int mTypeSize;
+        private final int mLengthSize;
+        private ByteOrder mByteOrder = ByteOrder.BIG_ENDIAN;
+
+        private ByteBuffer mBuffer;
+
+        /**
+         * Define a TLV writer with the specified size of the Type (T) and Length (L) fields.
+         *
+         * @param typeSize Number of bytes used for the Type (T) field. Values of 0, 1, or 2 bytes
+         *            are allowed. A specification of 0 bytes implies that the field being
+         *            constructed has the LV format rather than the TLV format.
+         * @param lengthSize Number of bytes used for the Length (L) field. Values of 1 or 2 bytes
+         *            are allowed.
+         */
+        public TlvWriter(int typeSize, int lengthSize) {
+            if (typeSize < 0 || typeSize > 2 || lengthSize <= 0 || lengthSize > 2) {
+                throw new IllegalArgumentException(
+                        "Invalid sizes - typeSize=" + typeSize + ", lengthSize=" + lengthSize);
+            }
+            mTypeSize = typeSize;
+            mLengthSize = lengthSize;
+        }
+
+        /**
+         * Configure the TLV writer to use a particular byte order. Should be
+         * {@link ByteOrder#BIG_ENDIAN} (the default at construction) or
+         * {@link ByteOrder#LITTLE_ENDIAN}. Applies to the Type and Length fields, and to the
+         * shorts and integers written as values.
+         *
+         * @return The writer to facilitate chaining.
+         */
+        public TlvWriter setByteOrder(ByteOrder byteOrder) {
+            mByteOrder = byteOrder;
+            if (mBuffer != null) {
+                mBuffer.order(byteOrder);
+            }
+            return this;
+        }
+
+        /**
+         * Set the buffer to write the TLV into, starting at its current position. The byte
+         * order of the buffer is changed to the byte order of the writer.
+         *
+         * @return The writer to facilitate chaining.
+         */
+        public TlvWriter wrap(ByteBuffer buffer) {
+            mBuffer = buffer;
+            mBuffer.order(mByteOrder);
+            return this;
+        }
+
+        /**
+         * Writes a byte with the indicated type.
+         */
+        public TlvWriter putByte(int type, byte b) {
+            checkLength(mTypeSize + mLengthSize + 1);
+            putHeader(type, 1);
+            mBuffer.put(b);
+            return this;
+        }
+
+        /**
+         * Writes a short with the indicated type.
+         */
+        public TlvWriter putShort(int type, short data) {
+            checkLength(mTypeSize + mLengthSize + 2);
+            putHeader(type, 2);
+            mBuffer.putShort(data);
+            return this;
+        }
+
+        /**
+         * Writes an integer with the indicated type.
+         */
+        public TlvWriter putInt(int type, int data) {
+            checkLength(mTypeSize + mLengthSize + 4);
+            putHeader(type, 4);
+            mBuffer.putInt(data);
+            return this;
+        }
+
+        /**
+         * Writes |length| bytes of |array| from |offset| with the indicated type.
+         */
+        public TlvWriter putByteArray(int type, @Nullable byte[] array, int offset, int length) {
+            checkLength(mTypeSize + mLengthSize + length);
+            putHeader(type, length);
+            if (length != 0) {
+                mBuffer.put(array, offset, length);
+            }
+            return this;
+        }
+
+        /**
+         * Writes a byte array, in full, with the indicated type.
+         */
+        public TlvWriter putByteArray(int type, @Nullable byte[] array) {
+            return putByteArray(type, array, 0, (array == null) ? 0 : array.length);
+        }
+
+        /**
+         * Writes an element with a zero Length field and the indicated type.
+         */
+        public TlvWriter putZeroLengthElement(int type) {
+            checkLength(mTypeSize + mLengthSize);
+            putHeader(type, 0);
+            return this;
+        }
+
+        /**
+         * Writes a raw byte - without a type or a length.
+         */
+        public TlvWriter putRawByte(byte b) {
+            checkLength(1);
+            mBuffer.put(b);
+            return this;
+        }
+
+        /**
+         * Writes a raw byte array - without a type or a length.
+         */
+        public TlvWriter putRawByteArray(@Nullable byte[] array) {
+            if (array == null) return this;
+
+            checkLength(array.length);
+            mBuffer.put(array);
+            return this;
+        }
+
+        /**
+         * Writes the Type field of an element whose Value is written next, e.g. as raw bytes or
+         * sub-elements, and reserves its Length field.
+         *
+         * @return The position of the element, to be passed to
+         *         {@link TlvWriter#endElement(int)} once its Value is written.
+         */
+        public int startElement(int type) {
+            checkLength(mTypeSize + mLengthSize);
+            int position = mBuffer.position();
+            putHeader(type, 0);
+            return position;
+        }
+
+        /**
+         * Sets the Length field of the element started at |position| by
+         * {@link TlvWriter#startElement(int)} to the size of what was written since.
+         */
+        public TlvWriter endElement(int position) {
+            int valueOffset = position + mTypeSize + mLengthSize;
+            int length = mBuffer.position() - valueOffset;
+            int maxLength = (mLengthSize == 1) ? 0xff : 0xffff;
+            if (length < 0 || length > maxLength) {
+                throw new IllegalArgumentException("Invalid element length " + length);
+            }
+            if (mLengthSize == 1) {
+                mBuffer.put(position + mTypeSize, (byte) length);
+            } else {
+                mBuffer.putShort(position + mTypeSize, (short) length);
+            }
+            return this;
+        }
+
+        private void checkLength(int length) {
+            if (mBuffer.remaining() < length) {
+                throw new BufferOverflowException();
+            }
+        }
+
+        private void putHeader(int type, int length) {
+            if (mTypeSize == 1) {
+                mBuffer.put((byte) type);
+            } else if (mTypeSize == 2) {
+                mBuffer.putShort((short) type);
+            }
+
+            if (mLengthSize == 1) {
+                mBuffer.put((byte) length);
+            } else {
+                mBuffer.putShort((short) length);
+            }
+        }
+    }
+
     /**
      * Validates that a (T)LV array is constructed correctly. I.e. that its specified Length
      * fields correctly fill the specified length (and do not overshoot). Uses big-endian
@@ -657,9 +1054,9 @@ public class TlvBufferUtils {
         while (nextTlvIndex + typeSize + lengthSize <= array.length) {
             nextTlvIndex += typeSize;
             if (lengthSize == 1) {
-                nextTlvIndex += lengthSize + array[nextTlvIndex];
+                nextTlvIndex += lengthSize + (array[nextTlvIndex] & 0xff);
             } else {
-                nextTlvIndex += lengthSize + peekShort(array, nextTlvIndex, byteOrder);
+                nextTlvIndex += lengthSize + (peekShort(array, nextTlvIndex, byteOrder) & 0xffff);
             }
         }
 
@@ -25,7 +25,10 @@ import org.junit.Test;
 import org.junit.rules.ErrorCollector;
 
 import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 
@@ -305,6 +308,218 @@ public class TlvBufferUtilsTest {
         TlvBufferUtils.TlvIterable tlvIt10 = new TlvBufferUtils.TlvIterable(3, 1, testTlv);
     }
 
+    /**
+     * Validate that the TlvReader steps through the same elements as the TlvIterable, in both byte
+     * orders.
+     */
+    @Test
+    public void testTlvReaderMatchesIterable() {
+        for (ByteOrder byteOrder : new ByteOrder[]{ByteOrder.BIG_ENDIAN,
+                ByteOrder.LITTLE_ENDIAN}) {
+            TlvBufferUtils.TlvConstructor tlvc = new TlvBufferUtils.TlvConstructor(2, 2);
+            tlvc.setByteOrder(byteOrder);
+            tlvc.allocate(50);
+            tlvc.putByte(1, (byte) 7);
+            tlvc.putShort(2, (short) -1298);
+            tlvc.putInt(3, 0x12345678);
+            tlvc.putZeroLengthElement(4);
+            tlvc.putString(5, "ABC");
+            byte[] array = tlvc.getArray();
+
+            TlvBufferUtils.TlvIterable tlvi = new TlvBufferUtils.TlvIterable(2, 2, array);
+            tlvi.setByteOrder(byteOrder);
+            TlvBufferUtils.TlvReader tlvr = new TlvBufferUtils.TlvReader(2, 2);
+            tlvr.setByteOrder(byteOrder).reset(array);
+            for (TlvBufferUtils.TlvElement tlve : tlvi) {
+                collector.checkThat("next", tlvr.next(), equalTo(true));
+                collector.checkThat("type", tlvr.getType(), equalTo(tlve.type));
+                collector.checkThat("length", tlvr.getLength(), equalTo(tlve.length));
+                collector.checkThat("value", tlvr.getRawData(), equalTo(tlve.getRawData()));
+            }
+            collector.checkThat("end", tlvr.next(), equalTo(false));
+
+            tlvr.reset(array);
+            tlvr.next();
+            collector.checkThat("byte", tlvr.getByte(), equalTo((byte) 7));
+            tlvr.next();
+            collector.checkThat("short", tlvr.getShort(), equalTo((short) -1298));
+            tlvr.next();
+            collector.checkThat("int", tlvr.getInt(), equalTo(0x12345678));
+            tlvr.next();
+            tlvr.next();
+            collector.checkThat("string", tlvr.getString(), equalTo("ABC"));
+        }
+    }
+
+    /**
+     * Validate that TlvIterable and isValid read 1 byte Type and Length fields as unsigned values,
+     * like TlvReader.
+     */
+    @Test
+    public void testTlvIterableAndIsValidUnsignedFields() {
+        byte[] array = new byte[205];
+        array[0] = (byte) 0xdd;
+        array[1] = (byte) 200;
+        array[2] = 66;
+        array[202] = 9;
+        array[203] = 1;
+        array[204] = 77;
+
+        collector.checkThat("isValid", TlvBufferUtils.isValid(array, 1, 1), equalTo(true));
+        collector.checkThat("isValidEndian",
+                TlvBufferUtils.isValidEndian(array, 1, 1, ByteOrder.LITTLE_ENDIAN),
+                equalTo(true));
+
+        TlvBufferUtils.TlvIterable tlvi = new TlvBufferUtils.TlvIterable(1, 1, array);
+        List<TlvBufferUtils.TlvElement> elements = new ArrayList<>();
+        for (TlvBufferUtils.TlvElement tlv : tlvi) {
+            elements.add(tlv);
+        }
+        collector.checkThat("size", elements.size(), equalTo(2));
+        collector.checkThat("type", elements.get(0).type, equalTo(0xdd));
+        collector.checkThat("length", elements.get(0).length, equalTo(200));
+        collector.checkThat("value", elements.get(0).getRawData()[0], equalTo((byte) 66));
+        collector.checkThat("next type", elements.get(1).type, equalTo(9));
+        collector.checkThat("next value", elements.get(1).getByte(), equalTo((byte) 77));
+
+        List<byte[]> list = tlvi.toList();
+        collector.checkThat("toList size", list.size(), equalTo(2));
+        collector.checkThat("toList length", list.get(0).length, equalTo(200));
+
+        // A 1 byte Length field of 200 overshoots a shorter array.
+        collector.checkThat("isValid truncated",
+                TlvBufferUtils.isValid(Arrays.copyOf(array, 150), 1, 1), equalTo(false));
+    }
+
+    /**
+     * Validate that the TlvReader parses a portion of an array in place, and reads the Type and
+     * Length fields as unsigned values.
+     */
+    @Test
+    public void testTlvReaderSubArrayAndUnsignedFields() {
+        byte[] array = new byte[204];
+        array[0] = (byte) 0xdd;
+        array[1] = (byte) 200;
+        array[2] = 9;
+        array[3] = 1;
+        array[4] = 66;
+
+        TlvBufferUtils.TlvReader tlvr = new TlvBufferUtils.TlvReader(1, 1);
+        tlvr.reset(array, 0, 202);
+        collector.checkThat("next", tlvr.next(), equalTo(true));
+        collector.checkThat("type", tlvr.getType(), equalTo(0xdd));
+        collector.checkThat("length", tlvr.getLength(), equalTo(200));
+        collector.checkThat("offset", tlvr.getOffset(), equalTo(2));
+        collector.checkThat("end", tlvr.next(), equalTo(false));
+
+        tlvr.reset(tlvr.getArray(), tlvr.getOffset(), 3);
+        collector.checkThat("sub next", tlvr.next(), equalTo(true));
+        collector.checkThat("sub type", tlvr.getType(), equalTo(9));
+        collector.checkThat("sub value", tlvr.getByte(), equalTo((byte) 66));
+        collector.checkThat("sub end", tlvr.next(), equalTo(false));
+    }
+
+    /**
+     * Validate that the TlvReader throws on an element which overflows the array.
+     */
+    @Test(expected = BufferOverflowException.class)
+    public void testTlvReaderOverflow() {
+        byte[] invalidTlv01 = { 0, 1, 55, 2, 55, 66, 3 }; // bad data
+
+        TlvBufferUtils.TlvReader tlvr = new TlvBufferUtils.TlvReader(0, 1).reset(invalidTlv01);
+        while (tlvr.next()) {
+            // skip to the invalid element
+        }
+    }
+
+    /**
+     * Validate that the TlvReader throws on a truncated Type and Length header.
+     */
+    @Test(expected = BufferOverflowException.class)
+    public void testTlvReaderTruncatedHeader() {
+        byte[] invalidTlv12 = { 1, 0, 1, 55, 2, 0 }; // bad data
+
+        TlvBufferUtils.TlvReader tlvr = new TlvBufferUtils.TlvReader(1, 2).reset(invalidTlv12);
+        while (tlvr.next()) {
+            // skip to the invalid element
+        }
+    }
+
+    /**
+     * Validate that the TlvWriter produces the same bytes as the TlvConstructor, in both byte
+     * orders and into a direct buffer.
+     */
+    @Test
+    public void testTlvWriterMatchesConstructor() {
+        for (ByteOrder byteOrder : new ByteOrder[]{ByteOrder.BIG_ENDIAN,
+                ByteOrder.LITTLE_ENDIAN}) {
+            TlvBufferUtils.TlvConstructor tlvc = new TlvBufferUtils.TlvConstructor(2, 2);
+            tlvc.setByteOrder(byteOrder);
+            tlvc.allocate(50);
+            tlvc.putByte(1, (byte) 7);
+            tlvc.putShort(2, (short) -1298);
+            tlvc.putInt(3, 0x12345678);
+            tlvc.putZeroLengthElement(4);
+            tlvc.putByteArray(5, new byte[]{1, 2, 3});
+            tlvc.putRawByte((byte) 8);
+            tlvc.putRawByteArray(new byte[]{9, 10});
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(50);
+            TlvBufferUtils.TlvWriter tlvw = new TlvBufferUtils.TlvWriter(2, 2);
+            tlvw.setByteOrder(byteOrder).wrap(buffer);
+            tlvw.putByte(1, (byte) 7);
+            tlvw.putShort(2, (short) -1298);
+            tlvw.putInt(3, 0x12345678);
+            tlvw.putZeroLengthElement(4);
+            tlvw.putByteArray(5, new byte[]{1, 2, 3});
+            tlvw.putRawByte((byte) 8);
+            tlvw.putRawByteArray(new byte[]{9, 10});
+
+            byte[] written = new byte[buffer.position()];
+            buffer.flip();
+            buffer.get(written);
+            collector.checkThat("data " + byteOrder, written, equalTo(tlvc.getArray()));
+        }
+    }
+
+    /**
+     * Validate that the TlvWriter writes nested elements in place.
+     */
+    @Test
+    public void testTlvWriterNestedElement() {
+        ByteBuffer buffer = ByteBuffer.allocate(20);
+        TlvBufferUtils.TlvWriter tlvw = new TlvBufferUtils.TlvWriter(1, 2);
+        tlvw.setByteOrder(ByteOrder.LITTLE_ENDIAN).wrap(buffer);
+
+        int element = tlvw.startElement(1);
+        tlvw.putRawByte((byte) 2);
+        tlvw.putShort(0, (short) 7000);
+        tlvw.endElement(element);
+        tlvw.putByte(3, (byte) 4);
+
+        collector.checkThat("data", Arrays.copyOf(buffer.array(), buffer.position()),
+                equalTo(new byte[]{1, 6, 0, 2, 0, 2, 0, 0x58, 0x1b, 3, 1, 0, 4}));
+    }
+
+    /**
+     * Validate that the TlvWriter throws, without writing a partial element, when the buffer
+     * is too small.
+     */
+    @Test
+    public void testTlvWriterOverflow() {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        TlvBufferUtils.TlvWriter tlvw = new TlvBufferUtils.TlvWriter(1, 1).wrap(buffer);
+        tlvw.putByte(1, (byte) 2);
+
+        try {
+            tlvw.putShort(2, (short) 3);
+            collector.addError(new AssertionError("BufferOverflowException expected"));
+        } catch (BufferOverflowException e) {
+            // expected
+        }
+        collector.checkThat("position", buffer.position(), equalTo(3));
+    }
+
     /**
      * Validate that a malformed byte array fails the TLV validity test.
      */
@@ -3811,6 +3811,34 @@ public class ClientModeImpl extends StateMachine implements ClientMode {
         return getMacAddressFromBssidString(mLastBssid);
     }
 
+    /**
+     * Keeps the best candidates of the last network selection provisioned in supplicant besides
+     * the connected network, so that switching to one of them only needs to select it.
+     */
+    private void provisionCandidateNetworks() {
+        int poolSize = mContext.getResources().getInteger(
+                R.integer.config_wifiSupplicantNetworkPoolSize);
+        if (poolSize <= 0 || !isPrimary() || !mWifiNative.isProvisionNetworksSupported()) {
+            return;
+        }
+        List<WifiConfiguration> configs = new ArrayList<>();
+        for (int networkId : mWifiNetworkSelector.getLastCandidateNetworkIds(poolSize)) {
+            if (networkId == mLastNetworkId) {
+                continue;
+            }
+            WifiConfiguration config =
+                    mWifiConfigManager.getConfiguredNetworkWithoutMasking(networkId);
+            if (config == null
+                    || config.getNetworkSelectionStatus().getCandidateSecurityParams() == null) {
+                continue;
+            }
+            configs.add(config);
+        }
+        if (!mWifiNative.provisionNetworks(mInterfaceName, configs)) {
+            Log.w(getTag(), "Failed to provision all the candidate networks");
+        }
+    }
+
     private void connectToNetwork(WifiConfiguration config) {
         if ((config != null) && mWifiNative.connectToNetwork(mInterfaceName, config)) {
             // Update the internal config once the connection request is accepted.
@@ -6159,6 +6187,7 @@ public class ClientModeImpl extends StateMachine implements ClientMode {
             // too many places to record L3 failure with too many failure reasons.
             // So only record success here.
             mWifiMetrics.noteFirstL3ConnectionAfterBoot(true);
+            provisionCandidateNetworks();
         }
         @Override
         public boolean processMessage(Message message) {
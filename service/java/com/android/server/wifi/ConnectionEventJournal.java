@@ -0,0 +1,382 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.net.wifi.SupplicantState;
+import android.net.wifi.util.Environment;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Persistent journal of the connection events, for diagnosing connection failures without
+ * verbose logging.
+ *
+ * The events are written as fixed-size binary records to a circular buffer in a memory-mapped
+ * file, which is kept by the kernel if system_server crashes, and is appended to when the
+ * journal is opened again. The records are removed by {@link #clear()} on a network settings
+ * reset. Recording an event doesn't allocate, it only writes the raw event
+ * fields, which are decoded by {@link #dump(PrintWriter)}.
+ *
+ * Each record starts with its sequence number plus one, which is cleared while the record is
+ * written, so that a record torn by a crash is skipped when decoded.
+ */
+public class ConnectionEventJournal {
+    private static final String TAG = "ConnectionEventJournal";
+
+    /** Event reported to {@link WifiDiagnostics#reportConnectionEvent}. */
+    public static final int TYPE_CONNECTION_EVENT = 1;
+    /** Supplicant state change broadcast by {@link WifiMonitor}. */
+    public static final int TYPE_SUPPLICANT_STATE_CHANGE = 2;
+    /** Other event broadcast by {@link WifiMonitor}. */
+    public static final int TYPE_MONITOR_EVENT = 3;
+
+    /** Name of the journal file in the wifi shared directory. */
+    public static final String FILE_NAME = "WifiConnectionEventJournal.bin";
+    /** Default number of records of the journal. */
+    public static final int DEFAULT_CAPACITY = 2048;
+
+    private static final int MAGIC = 0x574a524e; // "WJRN"
+    private static final int VERSION = 1;
+
+    // Header: magic, version, record size, capacity, next sequence number.
+    private static final int HEADER_OFFSET_MAGIC = 0;
+    private static final int HEADER_OFFSET_VERSION = 4;
+    private static final int HEADER_OFFSET_RECORD_SIZE = 8;
+    private static final int HEADER_OFFSET_CAPACITY = 12;
+    private static final int HEADER_OFFSET_NEXT_SEQUENCE = 16;
+    @VisibleForTesting
+    static final int HEADER_SIZE_BYTES = 64;
+
+    // Record: sequence + 1, wall clock time, time since boot, type, code, 2 arguments, BSSID and
+    // interface name.
+    private static final int RECORD_OFFSET_SEQUENCE = 0;
+    private static final int RECORD_OFFSET_WALL_CLOCK_MILLIS = 8;
+    private static final int RECORD_OFFSET_ELAPSED_MILLIS = 16;
+    private static final int RECORD_OFFSET_TYPE = 24;
+    private static final int RECORD_OFFSET_CODE = 28;
+    private static final int RECORD_OFFSET_ARG1 = 32;
+    private static final int RECORD_OFFSET_ARG2 = 36;
+    private static final int RECORD_OFFSET_BSSID = 40;
+    private static final int RECORD_OFFSET_IFACE = 48;
+    private static final int IFACE_NAME_MAX_LENGTH = 16;
+    @VisibleForTesting
+    static final int RECORD_SIZE_BYTES = 64;
+
+    private static final long NO_BSSID = -1L;
+
+    private final Clock mClock;
+    private final int mCapacity;
+    private final File mFile;
+    @Nullable private MappedByteBuffer mBuffer;
+    private long mNextSequence;
+
+    /**
+     * Creates the journal of the default capacity in the wifi shared directory.
+     */
+    public ConnectionEventJournal(@NonNull Clock clock) {
+        this(clock, new File(Environment.getWifiSharedDirectory(), FILE_NAME), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates the journal of |capacity| records in |file|. The file is only opened by
+     * {@link #open()}, the events recorded before are dropped.
+     */
+    @VisibleForTesting
+    public ConnectionEventJournal(@NonNull Clock clock, @NonNull File file, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        mClock = clock;
+        mFile = file;
+        mCapacity = capacity;
+    }
+
+    /**
+     * Maps the journal file. The existing records are kept if the file holds a journal of the
+     * same format and capacity, otherwise the file is reset. If the file can't be mapped, the
+     * events are dropped.
+     *
+     * Note: This does file I/O, it should not be invoked from the constructor of WifiInjector.
+     */
+    public synchronized void open() {
+        if (mBuffer != null) {
+            return;
+        }
+        long size = HEADER_SIZE_BYTES + (long) mCapacity * RECORD_SIZE_BYTES;
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            boolean reset = raf.length() != size;
+            raf.setLength(size);
+            // The mapping stays valid after the channel is closed.
+            mBuffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            if (reset || !hasValidHeader()) {
+                resetLocked();
+            }
+            mNextSequence = mBuffer.getLong(HEADER_OFFSET_NEXT_SEQUENCE);
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Failed to open " + mFile + ": " + e);
+            mBuffer = null;
+        }
+    }
+
+    private boolean hasValidHeader() {
+        return mBuffer.getInt(HEADER_OFFSET_MAGIC) == MAGIC
+                && mBuffer.getInt(HEADER_OFFSET_VERSION) == VERSION
+                && mBuffer.getInt(HEADER_OFFSET_RECORD_SIZE) == RECORD_SIZE_BYTES
+                && mBuffer.getInt(HEADER_OFFSET_CAPACITY) == mCapacity
+                && mBuffer.getLong(HEADER_OFFSET_NEXT_SEQUENCE) >= 0;
+    }
+
+    private void resetLocked() {
+        for (int i = 0; i < HEADER_SIZE_BYTES + mCapacity * RECORD_SIZE_BYTES; i += 8) {
+            mBuffer.putLong(i, 0);
+        }
+        mBuffer.putInt(HEADER_OFFSET_MAGIC, MAGIC);
+        mBuffer.putInt(HEADER_OFFSET_VERSION, VERSION);
+        mBuffer.putInt(HEADER_OFFSET_RECORD_SIZE, RECORD_SIZE_BYTES);
+        mBuffer.putInt(HEADER_OFFSET_CAPACITY, mCapacity);
+        mBuffer.putLong(HEADER_OFFSET_NEXT_SEQUENCE, 0);
+        mNextSequence = 0;
+    }
+
+    /**
+     * Returns true if the journal file is mapped, and events are recorded.
+     */
+    public boolean isEnabled() {
+        return mBuffer != null;
+    }
+
+    /**
+     * Records a connection event, one of WifiDiagnostics.CONNECTION_EVENT_*.
+     */
+    public void recordConnectionEvent(String ifaceName, byte event) {
+        record(TYPE_CONNECTION_EVENT, ifaceName, event, 0, 0, null);
+    }
+
+    /**
+     * Records a supplicant state change.
+     */
+    public void recordSupplicantStateChange(String ifaceName, SupplicantState state,
+            int networkId, String bssid) {
+        record(TYPE_SUPPLICANT_STATE_CHANGE, ifaceName, state == null ? -1 : state.ordinal(),
+                networkId, 0, bssid);
+    }
+
+    /**
+     * Records an event broadcast by {@link WifiMonitor}.
+     * @param what the message code of the event, one of WifiMonitor.*_EVENT.
+     */
+    public void recordMonitorEvent(String ifaceName, int what, int arg1, int arg2,
+            String bssid) {
+        record(TYPE_MONITOR_EVENT, ifaceName, what, arg1, arg2, bssid);
+    }
+
+    private synchronized void record(int type, String ifaceName, int code, int arg1, int arg2,
+            String bssid) {
+        if (mBuffer == null) {
+            return;
+        }
+        long sequence = mNextSequence++;
+        int offset = getRecordOffset(sequence);
+        mBuffer.putLong(offset + RECORD_OFFSET_SEQUENCE, 0);
+        mBuffer.putLong(offset + RECORD_OFFSET_WALL_CLOCK_MILLIS, mClock.getWallClockMillis());
+        mBuffer.putLong(offset + RECORD_OFFSET_ELAPSED_MILLIS,
+                mClock.getElapsedSinceBootMillis());
+        mBuffer.putInt(offset + RECORD_OFFSET_TYPE, type);
+        mBuffer.putInt(offset + RECORD_OFFSET_CODE, code);
+        mBuffer.putInt(offset + RECORD_OFFSET_ARG1, arg1);
+        mBuffer.putInt(offset + RECORD_OFFSET_ARG2, arg2);
+        mBuffer.putLong(offset + RECORD_OFFSET_BSSID, parseBssid(bssid));
+        int length = ifaceName == null ? 0 : Math.min(ifaceName.length(), IFACE_NAME_MAX_LENGTH);
+        for (int i = 0; i < IFACE_NAME_MAX_LENGTH; i++) {
+            mBuffer.put(offset + RECORD_OFFSET_IFACE + i,
+                    i < length ? (byte) ifaceName.charAt(i) : 0);
+        }
+        mBuffer.putLong(offset + RECORD_OFFSET_SEQUENCE, sequence + 1);
+        mBuffer.putLong(HEADER_OFFSET_NEXT_SEQUENCE, mNextSequence);
+    }
+
+    private int getRecordOffset(long sequence) {
+        return HEADER_SIZE_BYTES + (int) (sequence % mCapacity) * RECORD_SIZE_BYTES;
+    }
+
+    /**
+     * Parses a MAC address in the xx:xx:xx:xx:xx:xx format without allocating.
+     * @return the address in the 48 low bits, or NO_BSSID if |bssid| isn't a MAC address.
+     */
+    @VisibleForTesting
+    static long parseBssid(String bssid) {
+        if (bssid == null || bssid.length() != 17) {
+            return NO_BSSID;
+        }
+        long value = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = bssid.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    return NO_BSSID;
+                }
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return NO_BSSID;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Returns the number of records held by the journal.
+     */
+    public synchronized int size() {
+        return (int) Math.min(mNextSequence, mCapacity);
+    }
+
+    /**
+     * Removes all the records, e.g on a network settings reset. If the journal isn't open, the
+     * file is deleted.
+     */
+    public synchronized void clear() {
+        if (mBuffer != null) {
+            resetLocked();
+            mBuffer.force();
+        } else if (mFile.exists() && !mFile.delete()) {
+            Log.e(TAG, "Failed to delete " + mFile);
+        }
+    }
+
+    /**
+     * Decodes the records, from the oldest to the most recent, one per line.
+     */
+    public synchronized void dump(PrintWriter pw) {
+        pw.println("ConnectionEventJournal: " + mFile);
+        if (mBuffer == null) {
+            pw.println("  disabled");
+            return;
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat("MM-dd HH:mm:ss.SSS", Locale.US);
+        StringBuilder sb = new StringBuilder();
+        for (long sequence = Math.max(0, mNextSequence - mCapacity); sequence < mNextSequence;
+                sequence++) {
+            int offset = getRecordOffset(sequence);
+            if (mBuffer.getLong(offset + RECORD_OFFSET_SEQUENCE) != sequence + 1) {
+                // Torn or overwritten record.
+                continue;
+            }
+            sb.setLength(0);
+            sb.append(dateFormat.format(
+                    new Date(mBuffer.getLong(offset + RECORD_OFFSET_WALL_CLOCK_MILLIS))));
+            sb.append(" (").append(mBuffer.getLong(offset + RECORD_OFFSET_ELAPSED_MILLIS))
+                    .append("ms) ");
+            for (int i = 0; i < IFACE_NAME_MAX_LENGTH; i++) {
+                byte c = mBuffer.get(offset + RECORD_OFFSET_IFACE + i);
+                if (c == 0) {
+                    break;
+                }
+                sb.append((char) c);
+            }
+            sb.append(' ');
+            formatRecord(sb, offset);
+            pw.println(sb);
+        }
+    }
+
+    private void formatRecord(StringBuilder sb, int offset) {
+        int code = mBuffer.getInt(offset + RECORD_OFFSET_CODE);
+        int arg1 = mBuffer.getInt(offset + RECORD_OFFSET_ARG1);
+        int arg2 = mBuffer.getInt(offset + RECORD_OFFSET_ARG2);
+        switch (mBuffer.getInt(offset + RECORD_OFFSET_TYPE)) {
+            case TYPE_CONNECTION_EVENT:
+                sb.append("CONNECTION_EVENT ").append(connectionEventToString(code));
+                break;
+            case TYPE_SUPPLICANT_STATE_CHANGE:
+                SupplicantState[] states = SupplicantState.values();
+                sb.append("SUPPLICANT_STATE ")
+                        .append(code >= 0 && code < states.length ? states[code] : code)
+                        .append(" networkId=").append(arg1);
+                break;
+            case TYPE_MONITOR_EVENT:
+                sb.append(monitorEventToString(code)).append(" arg1=").append(arg1)
+                        .append(" arg2=").append(arg2);
+                break;
+            default:
+                sb.append("UNKNOWN type=").append(mBuffer.getInt(offset + RECORD_OFFSET_TYPE));
+                break;
+        }
+        long bssid = mBuffer.getLong(offset + RECORD_OFFSET_BSSID);
+        if (bssid != NO_BSSID) {
+            sb.append(" bssid=");
+            for (int i = 5; i >= 0; i--) {
+                sb.append(String.format(Locale.US, "%02x", (bssid >> (8 * i)) & 0xff));
+                if (i > 0) {
+                    sb.append(':');
+                }
+            }
+        }
+    }
+
+    private static String connectionEventToString(int event) {
+        switch (event) {
+            case WifiDiagnostics.CONNECTION_EVENT_STARTED:
+                return "STARTED";
+            case WifiDiagnostics.CONNECTION_EVENT_SUCCEEDED:
+                return "SUCCEEDED";
+            case WifiDiagnostics.CONNECTION_EVENT_FAILED:
+                return "FAILED";
+            case WifiDiagnostics.CONNECTION_EVENT_TIMEOUT:
+                return "TIMEOUT";
+            default:
+                return Integer.toString(event);
+        }
+    }
+
+    private static String monitorEventToString(int what) {
+        switch (what) {
+            case WifiMonitor.NETWORK_CONNECTION_EVENT:
+                return "NETWORK_CONNECTION_EVENT";
+            case WifiMonitor.NETWORK_DISCONNECTION_EVENT:
+                return "NETWORK_DISCONNECTION_EVENT";
+            case WifiMonitor.AUTHENTICATION_FAILURE_EVENT:
+                return "AUTHENTICATION_FAILURE_EVENT";
+            case WifiMonitor.ASSOCIATION_REJECTION_EVENT:
+                return "ASSOCIATION_REJECTION_EVENT";
+            case WifiMonitor.ASSOCIATED_BSSID_EVENT:
+                return "ASSOCIATED_BSSID_EVENT";
+            case WifiMonitor.TARGET_BSSID_EVENT:
+                return "TARGET_BSSID_EVENT";
+            case WifiMonitor.NETWORK_NOT_FOUND_EVENT:
+                return "NETWORK_NOT_FOUND_EVENT";
+            default:
+                return "MONITOR_EVENT what=" + what;
+        }
+    }
+}
@@ -107,6 +107,23 @@ interface ISupplicantStaIfaceHal {
      */
     boolean connectToNetwork(@NonNull String ifaceName, @NonNull WifiConfiguration config);
 
+    /**
+     * Keeps the provided networks provisioned in wpa_supplicant besides the current network, so
+     * that {@link #connectToNetwork(String, WifiConfiguration)} can switch to any of them
+     * without saving it again.
+     *
+     * @param ifaceName Name of the interface.
+     * @param configs WifiConfiguration parameters of the networks, an empty list removes all the
+     *                provisioned networks.
+     * @return true if all the networks are provisioned, false otherwise.
+     */
+    boolean provisionNetworks(@NonNull String ifaceName, @NonNull List<WifiConfiguration> configs);
+
+    /**
+     * Returns whether {@link #provisionNetworks(String, List)} is supported.
+     */
+    boolean isProvisionNetworksSupported();
+
     /**
      * Initiates roaming to the already configured network in wpa_supplicant. If the network
      * configuration provided does not match the already configured network, then this triggers
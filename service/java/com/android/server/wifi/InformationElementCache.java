@@ -0,0 +1,186 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.net.wifi.ScanResult.InformationElement;
+
+import com.android.server.wifi.hotspot2.NetworkDetail;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of the data which {@link WifiNative} derives from the raw information elements of a
+ * scan result: the parsed {@link InformationElement}s, the {@link NetworkDetail} and the
+ * capabilities string. An AP usually reports the same information elements from one scan to the
+ * next, so these only need to be rebuilt when the raw information elements change.
+ *
+ * Entries are keyed by BSSID and only reused if the raw information elements, the capability
+ * bits and the frequency of the scan result are the same as when the entry was built. The cache
+ * holds at most a fixed number of BSSIDs, and drops the least recently used one when full.
+ * This class is thread-safe.
+ */
+public class InformationElementCache {
+    /** Default maximum number of BSSIDs in the cache, enough for a few scans of a dense area. */
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    /** Data derived from the raw information elements of a scan result. */
+    public static class Entry {
+        public final InformationElement[] informationElements;
+        public final NetworkDetail networkDetail;
+        public final String capabilities;
+
+        private final byte[] mRawInformationElements;
+        private final int mRawInformationElementsHash;
+        private final int mCapability;
+        private final int mFrequency;
+        private final boolean mIsEnhancedOpenSupported;
+
+        private Entry(byte[] rawInformationElements, int rawInformationElementsHash,
+                int capability, int frequency, boolean isEnhancedOpenSupported,
+                InformationElement[] informationElements, NetworkDetail networkDetail,
+                String capabilities) {
+            mRawInformationElements = rawInformationElements;
+            mRawInformationElementsHash = rawInformationElementsHash;
+            mCapability = capability;
+            mFrequency = frequency;
+            mIsEnhancedOpenSupported = isEnhancedOpenSupported;
+            this.informationElements = informationElements;
+            this.networkDetail = networkDetail;
+            this.capabilities = capabilities;
+        }
+
+        private boolean matches(byte[] rawInformationElements, int rawInformationElementsHash,
+                int capability, int frequency, boolean isEnhancedOpenSupported) {
+            return mRawInformationElementsHash == rawInformationElementsHash
+                    && mCapability == capability
+                    && mFrequency == frequency
+                    && mIsEnhancedOpenSupported == isEnhancedOpenSupported
+                    && Arrays.equals(mRawInformationElements, rawInformationElements);
+        }
+    }
+
+    private final int mMaxSize;
+    private final LinkedHashMap<String, Entry> mEntries;
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mEvictions = 0;
+
+    public InformationElementCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a cache holding at most |maxSize| BSSIDs.
+     */
+    public InformationElementCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Invalid max size: " + maxSize);
+        }
+        mMaxSize = maxSize;
+        mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > mMaxSize) {
+                    mEvictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the entry of |bssid| if it was built from the same raw information elements,
+     * capability bits and frequency, or null otherwise.
+     */
+    public @Nullable Entry get(@NonNull String bssid, @Nullable byte[] rawInformationElements,
+            int capability, int frequency, boolean isEnhancedOpenSupported) {
+        int hash = Arrays.hashCode(rawInformationElements);
+        synchronized (this) {
+            Entry entry = mEntries.get(bssid);
+            if (entry != null && entry.matches(rawInformationElements, hash, capability,
+                    frequency, isEnhancedOpenSupported)) {
+                mHits++;
+                return entry;
+            }
+            mMisses++;
+            return null;
+        }
+    }
+
+    /**
+     * Adds or replaces the entry of |bssid|. |rawInformationElements| must not be modified
+     * afterwards.
+     * @return the new entry.
+     */
+    public @NonNull Entry put(@NonNull String bssid, @Nullable byte[] rawInformationElements,
+            int capability, int frequency, boolean isEnhancedOpenSupported,
+            @Nullable InformationElement[] informationElements,
+            @NonNull NetworkDetail networkDetail, @NonNull String capabilities) {
+        Entry entry = new Entry(rawInformationElements, Arrays.hashCode(rawInformationElements),
+                capability, frequency, isEnhancedOpenSupported, informationElements,
+                networkDetail, capabilities);
+        synchronized (this) {
+            mEntries.put(bssid, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Removes all the entries. The hit and miss counts are kept.
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Returns the number of BSSIDs in the cache.
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns the number of lookups which found a matching entry.
+     */
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    /**
+     * Returns the number of lookups which didn't find a matching entry.
+     */
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Dump the internal state of the cache.
+     */
+    public synchronized void dump(PrintWriter pw) {
+        long lookups = mHits + mMisses;
+        pw.println("InformationElementCache: entries: " + mEntries.size() + "/" + mMaxSize
+                + ", hits: " + mHits + ", misses: " + mMisses + ", hit rate: "
+                + (lookups == 0 ? 0 : mHits * 100 / lookups) + "%, evictions: " + mEvictions);
+    }
+}
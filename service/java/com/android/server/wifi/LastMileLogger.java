@@ -56,6 +56,9 @@ public class LastMileLogger {
      * @param event an event defined in WifiDiagnostics
      */
     public void reportConnectionEvent(String ifaceName, byte event) {
+        if (mConnectionEventJournal != null) {
+            mConnectionEventJournal.recordConnectionEvent(ifaceName, event);
+        }
         boolean wasTracingEnabled = anyConnectionInProgress();
 
         mIfaceToConnectionStatus.put(ifaceName, event);
@@ -90,6 +93,9 @@ public class LastMileLogger {
     public void dump(PrintWriter pw) {
         dumpInternal(pw, "Last failed last-mile log", mLastMileLogForLastFailure);
         dumpInternal(pw, "Latest last-mile log", readTrace());
+        if (mConnectionEventJournal != null) {
+            mConnectionEventJournal.dump(pw);
+        }
     }
 
     private static final String TAG = "LastMileLogger";
@@ -110,6 +116,7 @@ public class LastMileLogger {
     private String mEventEnablePath;
     private String mEventReleasePath;
     private WifiLog mLog;
+    private ConnectionEventJournal mConnectionEventJournal;
     private byte[] mLastMileLogForLastFailure;
     private FileInputStream mLastMileTraceHandle;
     /**
@@ -121,6 +128,7 @@ public class LastMileLogger {
     private void initLastMileLogger(WifiInjector injector, String bufferPath, String enablePath,
                           String releasePath) {
         mLog = injector.makeLog(TAG);
+        mConnectionEventJournal = injector.getConnectionEventJournal();
         mEventBufferPath = bufferPath;
         mEventEnablePath = enablePath;
         mEventReleasePath = releasePath;
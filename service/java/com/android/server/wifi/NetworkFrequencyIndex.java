@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi;
+
+import android.annotation.NonNull;
+import android.text.TextUtils;
+import android.util.SparseLongArray;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of the frequencies on which each network was recently seen, by SSID, most recent first.
+ * Used to build the channel lists of the PNO and partial scans.
+ *
+ * The index is maintained by {@link WifiScoreCard} as the frequencies of its networks are added,
+ * read from the memory store, and as its networks are removed, e.g when they are removed from
+ * {@link WifiConfigManager}. The frequencies are kept in primitive arrays, so that building the
+ * channel lists doesn't box them or look up the {@link WifiScoreCard.PerNetwork} of each network.
+ */
+public class NetworkFrequencyIndex {
+    // Time of the frequencies read from the memory store, which don't have one.
+    private static final long NO_TIMESTAMP = 0L;
+
+    /**
+     * Set of frequencies, in insertion order, used to merge the frequencies of several networks
+     * into a scan channel list.
+     */
+    public static class FrequencySet {
+        private int[] mFrequencies = new int[16];
+        private int mSize = 0;
+
+        /**
+         * Adds |frequency| to the set.
+         * @return true if it wasn't in the set yet.
+         */
+        public boolean add(int frequency) {
+            if (contains(frequency)) {
+                return false;
+            }
+            if (mSize == mFrequencies.length) {
+                mFrequencies = Arrays.copyOf(mFrequencies, mSize * 2);
+            }
+            mFrequencies[mSize++] = frequency;
+            return true;
+        }
+
+        /**
+         * Returns true if |frequency| is in the set.
+         */
+        public boolean contains(int frequency) {
+            // Scan channel lists are short, a linear search is faster than hashing.
+            for (int i = 0; i < mSize; i++) {
+                if (mFrequencies[i] == frequency) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the number of frequencies in the set.
+         */
+        public int size() {
+            return mSize;
+        }
+
+        /**
+         * Returns the frequencies of the set, in insertion order.
+         */
+        public @NonNull int[] toArray() {
+            return Arrays.copyOf(mFrequencies, mSize);
+        }
+    }
+
+    /** Frequencies of a network, most recent first, with the time they were last seen. */
+    private static class Entry {
+        final int[] frequencies;
+        final long[] timestampsMillis;
+        int size = 0;
+
+        Entry(int maxFrequencies) {
+            frequencies = new int[maxFrequencies];
+            timestampsMillis = new long[maxFrequencies];
+        }
+
+        int indexOf(int frequency) {
+            for (int i = 0; i < size; i++) {
+                if (frequencies[i] == frequency) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    private final Clock mClock;
+    private final int mMaxFrequenciesPerNetwork;
+    private final Map<String, Entry> mEntries = new HashMap<>();
+
+    /**
+     * Creates an index which keeps the |maxFrequenciesPerNetwork| most recent frequencies of
+     * each network.
+     */
+    public NetworkFrequencyIndex(@NonNull Clock clock, int maxFrequenciesPerNetwork) {
+        if (maxFrequenciesPerNetwork < 1) {
+            throw new IllegalArgumentException(
+                    "Invalid max frequencies per network: " + maxFrequenciesPerNetwork);
+        }
+        mClock = clock;
+        mMaxFrequenciesPerNetwork = maxFrequenciesPerNetwork;
+    }
+
+    /**
+     * Adds |frequency| as the most recent frequency of |ssid|, seen now. The least recent
+     * frequency is dropped if the network has too many.
+     */
+    public void addFrequency(String ssid, int frequency) {
+        if (TextUtils.isEmpty(ssid)) {
+            return;
+        }
+        Entry entry = mEntries.get(ssid);
+        if (entry == null) {
+            entry = new Entry(mMaxFrequenciesPerNetwork);
+            mEntries.put(ssid, entry);
+        }
+        int index = entry.indexOf(frequency);
+        if (index < 0) {
+            index = Math.min(entry.size, mMaxFrequenciesPerNetwork - 1);
+            entry.size = index + 1;
+        }
+        System.arraycopy(entry.frequencies, 0, entry.frequencies, 1, index);
+        System.arraycopy(entry.timestampsMillis, 0, entry.timestampsMillis, 1, index);
+        entry.frequencies[0] = frequency;
+        entry.timestampsMillis[0] = mClock.getElapsedSinceBootMillis();
+    }
+
+    /**
+     * Replaces the frequencies of |ssid|.
+     * @param frequencies the frequencies, most recent first. Only the first ones are kept if
+     *                    there are too many.
+     * @param timestampsMillis the time since boot each frequency was last seen. Frequencies
+     *                         without a time are only returned for ages longer than the time
+     *                         since boot.
+     */
+    public void setFrequencies(String ssid, @NonNull List<Integer> frequencies,
+            @NonNull SparseLongArray timestampsMillis) {
+        if (TextUtils.isEmpty(ssid)) {
+            return;
+        }
+        if (frequencies.isEmpty()) {
+            mEntries.remove(ssid);
+            return;
+        }
+        Entry entry = new Entry(mMaxFrequenciesPerNetwork);
+        for (int frequency : frequencies) {
+            if (entry.size == mMaxFrequenciesPerNetwork) {
+                break;
+            }
+            if (entry.indexOf(frequency) >= 0) {
+                continue;
+            }
+            entry.frequencies[entry.size] = frequency;
+            entry.timestampsMillis[entry.size] = timestampsMillis.get(frequency, NO_TIMESTAMP);
+            entry.size++;
+        }
+        mEntries.put(ssid, entry);
+    }
+
+    /**
+     * Removes all the frequencies of |ssid|.
+     */
+    public void removeNetwork(String ssid) {
+        if (TextUtils.isEmpty(ssid)) {
+            return;
+        }
+        mEntries.remove(ssid);
+    }
+
+    /**
+     * Removes all the networks.
+     */
+    public void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * Returns the number of networks with frequencies.
+     */
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Returns the frequencies of |ssid| seen within |ageInMillis|, most recent first.
+     */
+    public @NonNull int[] getFrequencies(String ssid, long ageInMillis) {
+        Entry entry = ssid == null ? null : mEntries.get(ssid);
+        if (entry == null) {
+            return new int[0];
+        }
+        long nowMillis = mClock.getElapsedSinceBootMillis();
+        int[] frequencies = new int[entry.size];
+        int count = 0;
+        for (int i = 0; i < entry.size; i++) {
+            if (nowMillis - entry.timestampsMillis[i] <= ageInMillis) {
+                frequencies[count++] = entry.frequencies[i];
+            }
+        }
+        return count == frequencies.length ? frequencies : Arrays.copyOf(frequencies, count);
+    }
+
+    /**
+     * Adds the frequencies of |ssid| seen within |ageInMillis| to |frequencySet|, most recent
+     * first, until |frequencySet| has |maxCount| frequencies.
+     * @param maxCount maximum size of |frequencySet|, or 0 for no limit.
+     * @return true if all the frequencies were added, false if the limit was reached first.
+     */
+    public boolean addFrequenciesTo(@NonNull FrequencySet frequencySet, String ssid,
+            long ageInMillis, int maxCount) {
+        Entry entry = ssid == null ? null : mEntries.get(ssid);
+        if (entry == null) {
+            return true;
+        }
+        long nowMillis = mClock.getElapsedSinceBootMillis();
+        for (int i = 0; i < entry.size; i++) {
+            if (nowMillis - entry.timestampsMillis[i] > ageInMillis) {
+                continue;
+            }
+            if (maxCount > 0 && frequencySet.size() >= maxCount) {
+                return false;
+            }
+            frequencySet.add(entry.frequencies[i]);
+        }
+        return true;
+    }
+}
@@ -16,17 +16,26 @@
 
 package com.android.server.wifi;
 
+import android.annotation.NonNull;
+import android.annotation.Nullable;
 import android.net.MacAddress;
 import android.net.wifi.WifiConfiguration;
 import android.os.Handler;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.wifi.util.WifiConfigStoreEncryptionUtil;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.PriorityQueue;
 
 /** Utilities for storing PMK cache. */
 public class PmkCacheManager {
@@ -39,13 +48,39 @@ public class PmkCacheManager {
     private final Handler mEventHandler;
 
     private boolean mVerboseLoggingEnabled = false;
-    private SparseArray<List<PmkCacheStoreData>> mPmkCacheEntries = new SparseArray<>();
+    // PMK caches indexed by network ID, then by the interface MAC address.
+    private final SparseArray<Map<MacAddress, List<PmkCacheEntry>>> mPmkCacheEntries =
+            new SparseArray<>();
+    // All the PMK caches, including the restored ones, the first to expire first.
+    private final PriorityQueue<PmkCacheEntry> mExpirationQueue = new PriorityQueue<>(
+            Comparator.comparingLong(entry -> entry.expirationTimeInSec));
+    // PMK caches restored from the config store, until their network ID is known.
+    private final List<PmkCacheEntry> mRestoredEntries = new ArrayList<>();
+    private @Nullable WifiConfigManager mWifiConfigManager;
+    private boolean mHasNewDataToSerialize = false;
 
     public PmkCacheManager(Clock clock, Handler eventHandler) {
         mClock = clock;
         mEventHandler = eventHandler;
     }
 
+    /**
+     * Persist the PMK caches of the saved networks in the config store, so that they survive a
+     * restart of the wifi stack or of the device. The PMK caches are stored by config key, and
+     * are restored to the network of |wifiConfigManager| with the same config key.
+     *
+     * @param wifiConfigStore the config store to register the PMK cache store data with.
+     * @param wifiConfigManager the config manager to map network IDs to config keys.
+     * @param encryptionUtil the util to encrypt the PMK caches with.
+     */
+    public synchronized void enablePersistence(@NonNull WifiConfigStore wifiConfigStore,
+            @NonNull WifiConfigManager wifiConfigManager,
+            @NonNull WifiConfigStoreEncryptionUtil encryptionUtil) {
+        mWifiConfigManager = wifiConfigManager;
+        wifiConfigStore.registerStoreData(
+                new PmkCacheStoreData(new PmkCacheStoreDataSource(), encryptionUtil));
+    }
+
     /**
      * Add a PMK cache entry to the store.
      *
@@ -55,8 +90,8 @@ public class PmkCacheManager {
      * @param serializedEntry the opaque data of the PMK cache.
      * @return true when PMK cache is added; otherwise, false.
      */
-    public boolean add(MacAddress macAddress, int networkId,
-            long expirationTimeInSec, ArrayList<Byte> serializedEntry) {
+    public synchronized boolean add(MacAddress macAddress, int networkId,
+            long expirationTimeInSec, byte[] serializedEntry) {
         if (WifiConfiguration.INVALID_NETWORK_ID == networkId) return false;
         if (macAddress == null) {
             Log.w(TAG, "Omit PMK cache due to no valid MAC address");
@@ -72,18 +107,16 @@ public class PmkCacheManager {
             return false;
         }
 
-        PmkCacheStoreData newStoreData =
-                new PmkCacheStoreData(macAddress, serializedEntry, expirationTimeInSec);
-        List<PmkCacheStoreData> pmkDataList = mPmkCacheEntries.get(networkId);
-        if (pmkDataList == null) {
-            pmkDataList = new ArrayList<>();
-            mPmkCacheEntries.put(networkId, pmkDataList);
-        } else {
-            PmkCacheStoreData existStoreData = pmkDataList.stream()
-                    .filter(storeData -> Objects.equals(storeData, newStoreData))
-                    .findAny()
-                    .orElse(null);
-            if (null != existStoreData) {
+        Map<MacAddress, List<PmkCacheEntry>> pmkDataByMac = mPmkCacheEntries.get(networkId);
+        if (pmkDataByMac == null) {
+            pmkDataByMac = new ArrayMap<>();
+            mPmkCacheEntries.put(networkId, pmkDataByMac);
+        }
+        List<PmkCacheEntry> pmkDataList =
+                pmkDataByMac.computeIfAbsent(macAddress, k -> new ArrayList<>());
+        for (PmkCacheEntry pmkData : pmkDataList) {
+            if (pmkData.expirationTimeInSec == expirationTimeInSec
+                    && Arrays.equals(pmkData.data, serializedEntry)) {
                 if (mVerboseLoggingEnabled) {
                     Log.d(TAG, "PMK entry exists, skip it.");
                 }
@@ -91,7 +124,11 @@ public class PmkCacheManager {
             }
         }
 
-        pmkDataList.add(newStoreData);
+        PmkCacheEntry newEntry = new PmkCacheEntry(
+                networkId, null, macAddress, expirationTimeInSec, serializedEntry);
+        pmkDataList.add(newEntry);
+        mExpirationQueue.add(newEntry);
+        mHasNewDataToSerialize = true;
         if (mVerboseLoggingEnabled) {
             Log.d(TAG, "Network " + networkId + " PmkCache Count: " + pmkDataList.size());
         }
@@ -105,11 +142,17 @@ public class PmkCacheManager {
      * @param networkId the network ID of PMK caches to be removed.
      * @return true when PMK caches are removed; otherwise, false.
      */
-    public boolean remove(int networkId) {
+    public synchronized boolean remove(int networkId) {
         if (WifiConfiguration.INVALID_NETWORK_ID == networkId) return false;
-        if (!mPmkCacheEntries.contains(networkId)) return false;
+        boolean removed = removeRestoredEntries(networkId);
+        if (mPmkCacheEntries.contains(networkId)) {
+            mPmkCacheEntries.remove(networkId);
+            mExpirationQueue.removeIf(pmkData -> pmkData.networkId == networkId);
+            removed = true;
+        }
+        if (!removed) return false;
 
-        mPmkCacheEntries.remove(networkId);
+        mHasNewDataToSerialize = true;
         updatePmkCacheExpiration();
         return true;
     }
@@ -123,14 +166,19 @@ public class PmkCacheManager {
      * @return true when PMK caches are removed; otherwise, false.
      */
 
-    public boolean remove(int networkId, MacAddress curMacAddress) {
+    public synchronized boolean remove(int networkId, MacAddress curMacAddress) {
         if (WifiConfiguration.INVALID_NETWORK_ID == networkId) return false;
-        List<PmkCacheStoreData> pmkDataList = mPmkCacheEntries.get(networkId);
-        if (null == pmkDataList) return false;
-
-        pmkDataList.removeIf(pmkData -> !Objects.equals(curMacAddress, pmkData.macAddress));
+        Map<MacAddress, List<PmkCacheEntry>> pmkDataByMac = mPmkCacheEntries.get(networkId);
+        if (null == pmkDataByMac) return false;
+
+        if (pmkDataByMac.keySet().removeIf(
+                macAddress -> !Objects.equals(curMacAddress, macAddress))) {
+            mExpirationQueue.removeIf(pmkData -> pmkData.networkId == networkId
+                    && !Objects.equals(curMacAddress, pmkData.macAddress));
+            mHasNewDataToSerialize = true;
+        }
 
-        if (pmkDataList.size() == 0) {
+        if (pmkDataByMac.size() == 0) {
             remove(networkId);
         }
         return true;
@@ -143,16 +191,19 @@ public class PmkCacheManager {
      * @return A list of PMK caches associated with the network ID.
      *         If none of PMK cache is associated with the network ID, return null.
      */
-    public List<ArrayList<Byte>> get(int networkId) {
-        List<PmkCacheStoreData> pmkDataList = mPmkCacheEntries.get(networkId);
+    public synchronized List<byte[]> get(int networkId) {
         if (WifiConfiguration.INVALID_NETWORK_ID == networkId) return null;
-        if (null == pmkDataList) return null;
+        resolveRestoredEntries(networkId);
+        Map<MacAddress, List<PmkCacheEntry>> pmkDataByMac = mPmkCacheEntries.get(networkId);
+        if (null == pmkDataByMac) return null;
 
         final long elapseTimeInSecond = mClock.getElapsedSinceBootMillis() / 1000;
-        List<ArrayList<Byte>> dataList = new ArrayList<>();
-        for (PmkCacheStoreData pmkData: pmkDataList) {
-            if (pmkData.isValid(elapseTimeInSecond)) {
-                dataList.add(pmkData.data);
+        List<byte[]> dataList = new ArrayList<>();
+        for (List<PmkCacheEntry> pmkDataList : pmkDataByMac.values()) {
+            for (PmkCacheEntry pmkData : pmkDataList) {
+                if (pmkData.isValid(elapseTimeInSecond)) {
+                    dataList.add(pmkData.data);
+                }
             }
         }
         return dataList;
@@ -168,37 +219,26 @@ public class PmkCacheManager {
     }
 
     @VisibleForTesting
-    void updatePmkCacheExpiration() {
+    synchronized void updatePmkCacheExpiration() {
         mEventHandler.removeCallbacksAndMessages(PMK_CACHE_EXPIRATION_ALARM_TAG);
 
         long elapseTimeInSecond = mClock.getElapsedSinceBootMillis() / 1000;
-        long nextUpdateTimeInSecond = Long.MAX_VALUE;
         if (mVerboseLoggingEnabled) {
             Log.d(TAG, "Update PMK cache expiration at " + elapseTimeInSecond);
         }
 
-        List<Integer> emptyStoreDataList = new ArrayList<>();
-        for (int i = 0; i < mPmkCacheEntries.size(); i++) {
-            int networkId = mPmkCacheEntries.keyAt(i);
-            List<PmkCacheStoreData> list = mPmkCacheEntries.get(networkId);
-            list.removeIf(pmkData -> !pmkData.isValid(elapseTimeInSecond));
-            if (list.size() == 0) {
-                emptyStoreDataList.add(networkId);
-                continue;
-            }
-            for (PmkCacheStoreData pmkData: list) {
-                if (nextUpdateTimeInSecond > pmkData.expirationTimeInSec) {
-                    nextUpdateTimeInSecond = pmkData.expirationTimeInSec;
-                }
-            }
+        while (!mExpirationQueue.isEmpty()
+                && !mExpirationQueue.peek().isValid(elapseTimeInSecond)) {
+            removeExpiredEntry(mExpirationQueue.poll());
+            mHasNewDataToSerialize = true;
         }
-        emptyStoreDataList.forEach(networkId -> mPmkCacheEntries.remove(networkId));
 
         // No need to arrange next update since there is no valid PMK in the cache.
-        if (nextUpdateTimeInSecond == Long.MAX_VALUE) {
+        if (mExpirationQueue.isEmpty()) {
             return;
         }
 
+        long nextUpdateTimeInSecond = mExpirationQueue.peek().expirationTimeInSec;
         if (mVerboseLoggingEnabled) {
             Log.d(TAG, "PMK cache next expiration time: " + nextUpdateTimeInSecond);
         }
@@ -211,16 +251,162 @@ public class PmkCacheManager {
                 (delayedTimeInMs > 0) ? delayedTimeInMs : 0);
     }
 
-    private static class PmkCacheStoreData {
+    private void removeExpiredEntry(PmkCacheEntry pmkData) {
+        if (pmkData.networkId == WifiConfiguration.INVALID_NETWORK_ID) {
+            mRestoredEntries.remove(pmkData);
+            return;
+        }
+        Map<MacAddress, List<PmkCacheEntry>> pmkDataByMac =
+                mPmkCacheEntries.get(pmkData.networkId);
+        if (pmkDataByMac == null) return;
+        List<PmkCacheEntry> pmkDataList = pmkDataByMac.get(pmkData.macAddress);
+        if (pmkDataList == null) return;
+        pmkDataList.remove(pmkData);
+        if (pmkDataList.isEmpty()) {
+            pmkDataByMac.remove(pmkData.macAddress);
+        }
+        if (pmkDataByMac.isEmpty()) {
+            mPmkCacheEntries.remove(pmkData.networkId);
+        }
+    }
 
-        public MacAddress macAddress;
-        public ArrayList<Byte> data;
-        public long expirationTimeInSec;
+    /**
+     * Moves the restored PMK caches of the config key of |networkId| to the network.
+     */
+    private void resolveRestoredEntries(int networkId) {
+        if (mRestoredEntries.isEmpty() || mWifiConfigManager == null) return;
+        WifiConfiguration config = mWifiConfigManager.getConfiguredNetwork(networkId);
+        if (config == null) return;
+        String configKey = config.getProfileKey();
+        Iterator<PmkCacheEntry> iter = mRestoredEntries.iterator();
+        while (iter.hasNext()) {
+            PmkCacheEntry pmkData = iter.next();
+            if (!configKey.equals(pmkData.configKey)) continue;
+            iter.remove();
+            pmkData.networkId = networkId;
+            Map<MacAddress, List<PmkCacheEntry>> pmkDataByMac = mPmkCacheEntries.get(networkId);
+            if (pmkDataByMac == null) {
+                pmkDataByMac = new ArrayMap<>();
+                mPmkCacheEntries.put(networkId, pmkDataByMac);
+            }
+            pmkDataByMac.computeIfAbsent(pmkData.macAddress, k -> new ArrayList<>())
+                    .add(pmkData);
+        }
+    }
 
-        PmkCacheStoreData(MacAddress macAddr, ArrayList<Byte> serializedData, long timeInSec) {
-            macAddress = macAddr;
-            data = serializedData;
-            expirationTimeInSec = timeInSec;
+    /**
+     * Removes the restored PMK caches of the config key of |networkId|, and those of the config
+     * keys which no longer map to a saved network, e.g because the network was just removed.
+     *
+     * @return true when restored PMK caches are removed; otherwise, false.
+     */
+    private boolean removeRestoredEntries(int networkId) {
+        if (mRestoredEntries.isEmpty() || mWifiConfigManager == null) return false;
+        WifiConfiguration config = mWifiConfigManager.getConfiguredNetwork(networkId);
+        String configKey = config == null ? null : config.getProfileKey();
+        boolean removed = false;
+        Iterator<PmkCacheEntry> iter = mRestoredEntries.iterator();
+        while (iter.hasNext()) {
+            PmkCacheEntry pmkData = iter.next();
+            if (pmkData.configKey.equals(configKey) || !isSavedNetwork(pmkData.configKey)) {
+                iter.remove();
+                mExpirationQueue.remove(pmkData);
+                removed = true;
+            }
+        }
+        return removed;
+    }
+
+    private boolean isSavedNetwork(String configKey) {
+        WifiConfiguration config = mWifiConfigManager.getConfiguredNetwork(configKey);
+        return config != null && !config.ephemeral;
+    }
+
+    /**
+     * Data source of {@link PmkCacheStoreData}. The expiration times are stored as wall clock
+     * times, since the time since boot restarts with the device.
+     */
+    private class PmkCacheStoreDataSource implements PmkCacheStoreData.DataSource {
+        @Override
+        public List<PmkCacheStoreData.Entry> toSerialize() {
+            synchronized (PmkCacheManager.this) {
+                final long elapsedTimeMillis = mClock.getElapsedSinceBootMillis();
+                final long wallClockMillis = mClock.getWallClockMillis();
+                List<PmkCacheStoreData.Entry> entries = new ArrayList<>();
+                for (PmkCacheEntry pmkData : mExpirationQueue) {
+                    if (!pmkData.isValid(elapsedTimeMillis / 1000)) continue;
+                    String configKey = pmkData.configKey;
+                    if (pmkData.networkId != WifiConfiguration.INVALID_NETWORK_ID) {
+                        WifiConfiguration config =
+                                mWifiConfigManager.getConfiguredNetwork(pmkData.networkId);
+                        // Ephemeral networks don't survive a restart.
+                        if (config == null || config.ephemeral) continue;
+                        configKey = config.getProfileKey();
+                    } else if (!isSavedNetwork(configKey)) {
+                        // The network of the restored PMK cache was removed.
+                        continue;
+                    }
+                    entries.add(new PmkCacheStoreData.Entry(configKey, pmkData.macAddress,
+                            wallClockMillis + pmkData.expirationTimeInSec * 1000
+                                    - elapsedTimeMillis,
+                            pmkData.data));
+                }
+                mHasNewDataToSerialize = false;
+                return entries;
+            }
+        }
+
+        @Override
+        public void fromDeserialized(List<PmkCacheStoreData.Entry> entries) {
+            synchronized (PmkCacheManager.this) {
+                final long elapsedTimeMillis = mClock.getElapsedSinceBootMillis();
+                final long wallClockMillis = mClock.getWallClockMillis();
+                for (PmkCacheStoreData.Entry entry : entries) {
+                    long expirationTimeInSec = (elapsedTimeMillis
+                            + entry.expirationTimeMillis - wallClockMillis) / 1000;
+                    if (expirationTimeInSec <= elapsedTimeMillis / 1000) continue;
+                    PmkCacheEntry pmkData = new PmkCacheEntry(WifiConfiguration.INVALID_NETWORK_ID,
+                            entry.configKey, entry.macAddress, expirationTimeInSec, entry.data);
+                    mRestoredEntries.add(pmkData);
+                    mExpirationQueue.add(pmkData);
+                }
+                updatePmkCacheExpiration();
+            }
+        }
+
+        @Override
+        public void reset() {
+            synchronized (PmkCacheManager.this) {
+                mExpirationQueue.removeIf(pmkData ->
+                        pmkData.networkId == WifiConfiguration.INVALID_NETWORK_ID);
+                mRestoredEntries.clear();
+            }
+        }
+
+        @Override
+        public boolean hasNewDataToSerialize() {
+            synchronized (PmkCacheManager.this) {
+                return mHasNewDataToSerialize;
+            }
+        }
+    }
+
+    private static class PmkCacheEntry {
+        // INVALID_NETWORK_ID for a restored PMK cache until its network is known.
+        public int networkId;
+        // Only set for a restored PMK cache.
+        public final @Nullable String configKey;
+        public final MacAddress macAddress;
+        public final long expirationTimeInSec;
+        public final byte[] data;
+
+        PmkCacheEntry(int networkId, @Nullable String configKey, MacAddress macAddress,
+                long expirationTimeInSec, byte[] data) {
+            this.networkId = networkId;
+            this.configKey = configKey;
+            this.macAddress = macAddress;
+            this.expirationTimeInSec = expirationTimeInSec;
+            this.data = data;
         }
 
         /**
@@ -232,20 +418,5 @@ public class PmkCacheManager {
         public boolean isValid(long currentTimeInSec) {
             return expirationTimeInSec > 0 && expirationTimeInSec > currentTimeInSec;
         }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (!(o instanceof PmkCacheStoreData)) return false;
-            PmkCacheStoreData storeData = (PmkCacheStoreData) o;
-            return expirationTimeInSec == storeData.expirationTimeInSec
-                    && Objects.equals(macAddress, storeData.macAddress)
-                    && Objects.equals(data, storeData.data);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(macAddress, data, expirationTimeInSec);
-        }
     }
 }
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.net.MacAddress;
+import android.util.Log;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.wifi.util.EncryptedData;
+import com.android.server.wifi.util.WifiConfigStoreEncryptionUtil;
+import com.android.server.wifi.util.XmlUtil;
+import com.android.server.wifi.util.XmlUtil.EncryptedDataXmlUtil;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class performs serialization and parsing of XML data block that contain the PMK caches
+ * of the saved networks (XML block data inside <PmkCacheList> tag).
+ *
+ * The PMK caches are always encrypted, with their own key rather than the key of the store
+ * file, which only encrypts credentials on some devices.
+ */
+public class PmkCacheStoreData implements WifiConfigStore.StoreData {
+    private static final String TAG = "PmkCacheStoreData";
+
+    /** Name of the data encrypted by the {@link WifiConfigStoreEncryptionUtil} of PMK caches. */
+    public static final String ENCRYPTION_DATA_NAME = "PmkCache";
+
+    private static final String XML_TAG_SECTION_HEADER_PMK_CACHE_LIST = "PmkCacheList";
+    private static final String XML_TAG_SECTION_HEADER_PMK_CACHE = "PmkCache";
+    private static final String XML_TAG_CONFIG_KEY = "ConfigKey";
+    private static final String XML_TAG_MAC_ADDRESS = "MacAddress";
+    private static final String XML_TAG_EXPIRATION_TIME_MILLIS = "ExpirationTimeMillis";
+    private static final String XML_TAG_DATA = "Data";
+
+    /**
+     * A PMK cache as stored.
+     */
+    public static class Entry {
+        public final String configKey;
+        public final MacAddress macAddress;
+        /** Wall clock time at which the PMK cache expires. */
+        public final long expirationTimeMillis;
+        public final byte[] data;
+
+        public Entry(@NonNull String configKey, @NonNull MacAddress macAddress,
+                long expirationTimeMillis, @NonNull byte[] data) {
+            this.configKey = configKey;
+            this.macAddress = macAddress;
+            this.expirationTimeMillis = expirationTimeMillis;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Interface define the data source for the PMK cache store data.
+     */
+    public interface DataSource {
+        /**
+         * Retrieve the PMK caches from the data source to serialize them to disk.
+         */
+        List<Entry> toSerialize();
+
+        /**
+         * Set the PMK caches in the data source after serializing them from disk.
+         */
+        void fromDeserialized(List<Entry> entries);
+
+        /**
+         * Clear internal data structure in preparation for user switch or initial store read.
+         */
+        void reset();
+
+        /**
+         * Indicates whether there is new data to serialize.
+         */
+        boolean hasNewDataToSerialize();
+    }
+
+    private final DataSource mDataSource;
+    private final WifiConfigStoreEncryptionUtil mEncryptionUtil;
+
+    public PmkCacheStoreData(@NonNull DataSource dataSource,
+            @NonNull WifiConfigStoreEncryptionUtil encryptionUtil) {
+        mDataSource = dataSource;
+        mEncryptionUtil = encryptionUtil;
+    }
+
+    @Override
+    public void serializeData(XmlSerializer out,
+            @Nullable WifiConfigStoreEncryptionUtil encryptionUtil)
+            throws XmlPullParserException, IOException {
+        for (Entry entry : mDataSource.toSerialize()) {
+            EncryptedData encryptedData = mEncryptionUtil.encrypt(entry.data);
+            if (encryptedData == null) {
+                // Never store a PMK in clear.
+                Log.e(TAG, "Encryption of PMK cache failed, skipping it");
+                continue;
+            }
+            XmlUtil.writeNextSectionStart(out, XML_TAG_SECTION_HEADER_PMK_CACHE);
+            XmlUtil.writeNextValue(out, XML_TAG_CONFIG_KEY, entry.configKey);
+            XmlUtil.writeNextValue(out, XML_TAG_MAC_ADDRESS, entry.macAddress.toString());
+            XmlUtil.writeNextValue(out, XML_TAG_EXPIRATION_TIME_MILLIS,
+                    entry.expirationTimeMillis);
+            XmlUtil.writeNextSectionStart(out, XML_TAG_DATA);
+            EncryptedDataXmlUtil.writeToXml(out, encryptedData);
+            XmlUtil.writeNextSectionEnd(out, XML_TAG_DATA);
+            XmlUtil.writeNextSectionEnd(out, XML_TAG_SECTION_HEADER_PMK_CACHE);
+        }
+    }
+
+    @Override
+    public void deserializeData(XmlPullParser in, int outerTagDepth,
+            @WifiConfigStore.Version int version,
+            @Nullable WifiConfigStoreEncryptionUtil encryptionUtil)
+            throws XmlPullParserException, IOException {
+        // Ignore empty reads.
+        if (in == null) {
+            return;
+        }
+        List<Entry> entries = new ArrayList<>();
+        while (XmlUtil.gotoNextSectionWithNameOrEnd(
+                in, XML_TAG_SECTION_HEADER_PMK_CACHE, outerTagDepth)) {
+            // Try/catch only runtime exceptions (like illegal args), any XML/IO exceptions are
+            // fatal and should abort the entire loading process.
+            try {
+                Entry entry = parsePmkCache(in, outerTagDepth + 1);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            } catch (RuntimeException e) {
+                // Failed to parse this PMK cache, skip it.
+                Log.e(TAG, "Failed to parse PMK cache. Skipping...", e);
+            }
+        }
+        mDataSource.fromDeserialized(entries);
+    }
+
+    /**
+     * Parse a PMK cache from an input stream in XML format.
+     *
+     * @return the PMK cache, or null if it can't be decrypted.
+     * @throws XmlPullParserException
+     * @throws IOException
+     */
+    private @Nullable Entry parsePmkCache(XmlPullParser in, int outerTagDepth)
+            throws XmlPullParserException, IOException {
+        String configKey = null;
+        MacAddress macAddress = null;
+        long expirationTimeMillis = -1;
+        byte[] data = null;
+
+        // Loop through and parse out all the elements from the stream within this section.
+        while (!XmlUtil.isNextSectionEnd(in, outerTagDepth)) {
+            if (in.getAttributeValue(null, "name") != null) {
+                String[] valueName = new String[1];
+                Object value = XmlUtil.readCurrentValue(in, valueName);
+                switch (valueName[0]) {
+                    case XML_TAG_CONFIG_KEY:
+                        configKey = (String) value;
+                        break;
+                    case XML_TAG_MAC_ADDRESS:
+                        macAddress = MacAddress.fromString((String) value);
+                        break;
+                    case XML_TAG_EXPIRATION_TIME_MILLIS:
+                        expirationTimeMillis = (long) value;
+                        break;
+                    default:
+                        Log.w(TAG, "Ignoring unknown value name found: " + valueName[0]);
+                        break;
+                }
+            } else if (XML_TAG_DATA.equals(in.getName())) {
+                data = mEncryptionUtil.decrypt(
+                        EncryptedDataXmlUtil.parseFromXml(in, outerTagDepth + 1));
+            } else {
+                throw new XmlPullParserException("Unknown tag found: " + in.getName());
+            }
+        }
+        if (configKey == null) {
+            throw new XmlPullParserException("XML parsing of config key failed");
+        }
+        if (macAddress == null) {
+            throw new XmlPullParserException("XML parsing of MAC address failed");
+        }
+        if (expirationTimeMillis == -1) {
+            throw new XmlPullParserException("XML parsing of expiration time failed");
+        }
+        if (data == null) {
+            Log.e(TAG, "Decryption of PMK cache failed, skipping it");
+            return null;
+        }
+        return new Entry(configKey, macAddress, expirationTimeMillis, data);
+    }
+
+    @VisibleForTesting
+    DataSource getDataSource() {
+        return mDataSource;
+    }
+
+    @Override
+    public void resetData() {
+        mDataSource.reset();
+    }
+
+    @Override
+    public boolean hasNewDataToSerialize() {
+        return mDataSource.hasNewDataToSerialize();
+    }
+
+    @Override
+    public String getName() {
+        return XML_TAG_SECTION_HEADER_PMK_CACHE_LIST;
+    }
+
+    @Override
+    public @WifiConfigStore.StoreFileId int getStoreFileId() {
+        // User general store, along with the saved networks the PMK caches belong to.
+        return WifiConfigStore.STORE_FILE_USER_GENERAL;
+    }
+}
@@ -26,10 +26,14 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 /**
  * Maps BSSIDs to their individual ScanDetails for a given WifiConfiguration.
+ *
+ * Entries are kept in the order they were last put, so that the oldest ones can be evicted
+ * without sorting the whole cache, and the most recent scan result is tracked on insertion.
  */
 public class ScanDetailCache {
 
@@ -39,14 +43,34 @@ public class ScanDetailCache {
     private final WifiConfiguration mConfig;
     private final int mMaxSize;
     private final int mTrimSize;
-    private final HashMap<String, ScanDetail> mMap;
+    // BSSID -> ScanDetail, in the order the BSSIDs were last put (oldest first).
+    private final LinkedHashMap<String, ScanDetail> mMap;
+
+    // Most recent entry as defined by MOST_RECENT_COMPARATOR, or null if it needs to be looked
+    // up again. The seen timestamp and level it had when it was put are kept separately since
+    // the scan result may be updated in place.
+    private ScanDetail mMostRecent;
+    private long mMostRecentSeen;
+    private int mMostRecentLevel;
+
+    private long mNumHits = 0;
+    private long mNumMisses = 0;
+    private long mNumEvictions = 0;
+
+    // Descending order of timestamp, followed by descending order of RSSI.
+    private static final Comparator<ScanDetail> MOST_RECENT_COMPARATOR = (o1, o2) -> {
+        ScanResult a = o1.getScanResult();
+        ScanResult b = o2.getScanResult();
+        return compareMostRecent(a.seen, a.level, a.BSSID, b.seen, b.level, b.BSSID);
+    };
 
     /**
      * Scan Detail cache associated with each configured network.
      *
-     * The cache size is trimmed down to |trimSize| once it crosses the provided |maxSize|.
-     * Since this operation is relatively expensive, ensure that |maxSize| and |trimSize| are not
-     * too close to each other. |trimSize| should always be <= |maxSize|.
+     * The cache size is trimmed down to |trimSize| once it crosses the provided |maxSize|, by
+     * evicting the least recently put entries. Keep |maxSize| and |trimSize| apart so that the
+     * cost of eviction is amortized over several insertions. |trimSize| should always be
+     * <= |maxSize|.
      *
      * @param config   WifiConfiguration object corresponding to the network.
      * @param maxSize  Max size desired for the cache.
@@ -56,16 +80,44 @@ public class ScanDetailCache {
         mConfig = config;
         mMaxSize = maxSize;
         mTrimSize = trimSize;
-        mMap = new HashMap(16, 0.75f);
+        mMap = new LinkedHashMap<>(16, 0.75f);
     }
 
+    /**
+     * Add or replace the ScanDetail for its BSSID, and mark it as the newest entry. Should also
+     * be invoked after a cached ScanDetail is updated in place.
+     */
     void put(ScanDetail scanDetail) {
+        String bssid = scanDetail.getBSSIDString();
+        // Remove first so that the entry moves to the end of the insertion order.
+        ScanDetail previous = mMap.remove(bssid);
+        boolean replacesMostRecent = previous != null && isMostRecent(bssid);
         // First check if we have reached |maxSize|. if yes, trim it down to |trimSize|.
         if (mMap.size() >= mMaxSize) {
             trim();
         }
 
-        mMap.put(scanDetail.getBSSIDString(), scanDetail);
+        mMap.put(bssid, scanDetail);
+        ScanResult result = scanDetail.getScanResult();
+        if (replacesMostRecent) {
+            // Every other entry is at most as recent as the replaced one, so the new entry is
+            // still the most recent unless it got older.
+            if (compareMostRecent(result.seen, result.level, bssid, mMostRecentSeen,
+                    mMostRecentLevel, bssid) <= 0) {
+                setMostRecent(scanDetail);
+            } else {
+                mMostRecent = null;
+            }
+            return;
+        }
+        if (mMostRecent == null && mMap.size() > 1) {
+            // The previous most recent entry was replaced or evicted, look it up lazily.
+            return;
+        }
+        if (mMostRecent == null || compareMostRecent(result.seen, result.level, result.BSSID,
+                mMostRecentSeen, mMostRecentLevel, mMostRecent.getBSSIDString()) < 0) {
+            setMostRecent(scanDetail);
+        }
     }
 
     /**
@@ -86,11 +138,19 @@ public class ScanDetailCache {
      * @return {@code null} if no match ScanDetail is found.
      */
     public ScanDetail getScanDetail(@NonNull String bssid) {
-        return mMap.get(bssid);
+        ScanDetail scanDetail = mMap.get(bssid);
+        if (scanDetail == null) {
+            mNumMisses++;
+        } else {
+            mNumHits++;
+        }
+        return scanDetail;
     }
 
     void remove(@NonNull String bssid) {
-        mMap.remove(bssid);
+        if (mMap.remove(bssid) != null && isMostRecent(bssid)) {
+            mMostRecent = null;
+        }
     }
 
     int size() {
@@ -111,46 +171,69 @@ public class ScanDetailCache {
 
     /**
      * Method to reduce the cache to |mTrimSize| size by removing the oldest entries.
-     * TODO: Investigate if this method can be further optimized.
      */
     private void trim() {
-        int currentSize = mMap.size();
-        if (currentSize < mTrimSize) {
-            return; // Nothing to trim
+        int numToRemove = mMap.size() - mTrimSize;
+        Iterator<ScanDetail> it = mMap.values().iterator();
+        while (numToRemove-- > 0 && it.hasNext()) {
+            // Remove oldest results from scan cache
+            ScanDetail scanDetail = it.next();
+            it.remove();
+            mNumEvictions++;
+            if (scanDetail == mMostRecent) {
+                mMostRecent = null;
+            }
         }
-        ArrayList<ScanDetail> list = new ArrayList<ScanDetail>(mMap.values());
-        if (list.size() != 0) {
-            // Sort by ascending timestamp (oldest scan results first)
-            Collections.sort(list, new Comparator() {
-                public int compare(Object o1, Object o2) {
-                    ScanDetail a = (ScanDetail) o1;
-                    ScanDetail b = (ScanDetail) o2;
-                    if (a.getSeen() > b.getSeen()) {
-                        return 1;
-                    }
-                    if (a.getSeen() < b.getSeen()) {
-                        return -1;
-                    }
-                    return a.getBSSIDString().compareTo(b.getBSSIDString());
-                }
-            });
+    }
+
+    private boolean isMostRecent(String bssid) {
+        return mMostRecent != null && mMostRecent.getBSSIDString().equals(bssid);
+    }
+
+    private void setMostRecent(ScanDetail scanDetail) {
+        mMostRecent = scanDetail;
+        mMostRecentSeen = scanDetail.getScanResult().seen;
+        mMostRecentLevel = scanDetail.getScanResult().level;
+    }
+
+    private static int compareMostRecent(long seenA, int levelA, String bssidA, long seenB,
+            int levelB, String bssidB) {
+        if (seenA != seenB) {
+            return seenA > seenB ? -1 : 1;
         }
-        for (int i = 0; i < currentSize - mTrimSize; i++) {
-            // Remove oldest results from scan cache
-            ScanDetail result = list.get(i);
-            mMap.remove(result.getBSSIDString());
+        if (levelA != levelB) {
+            return levelA > levelB ? -1 : 1;
         }
+        return bssidA.compareTo(bssidB);
     }
 
     /**
      * Return the most recent ScanResult for this network, or null if non exists.
      */
     public ScanResult getMostRecentScanResult() {
-        ArrayList<ScanDetail> list = sort();
-        if (list.size() == 0) {
-            return null;
+        if (mMostRecent == null) {
+            if (mMap.isEmpty()) {
+                return null;
+            }
+            // Only needed after the most recent entry was replaced or evicted.
+            setMostRecent(Collections.min(mMap.values(), MOST_RECENT_COMPARATOR));
         }
-        return list.get(0).getScanResult();
+        return mMostRecent.getScanResult();
+    }
+
+    /** Number of {@link #getScanDetail(String)} lookups which found an entry. */
+    long getNumHits() {
+        return mNumHits;
+    }
+
+    /** Number of {@link #getScanDetail(String)} lookups which did not find an entry. */
+    long getNumMisses() {
+        return mNumMisses;
+    }
+
+    /** Number of entries evicted because the cache reached its max size. */
+    long getNumEvictions() {
+        return mNumEvictions;
     }
 
     /**
@@ -160,27 +243,7 @@ public class ScanDetailCache {
      **/
     private ArrayList<ScanDetail> sort() {
         ArrayList<ScanDetail> list = new ArrayList<ScanDetail>(mMap.values());
-        if (list.size() != 0) {
-            Collections.sort(list, new Comparator() {
-                public int compare(Object o1, Object o2) {
-                    ScanResult a = ((ScanDetail) o1).getScanResult();
-                    ScanResult b = ((ScanDetail) o2).getScanResult();
-                    if (a.seen > b.seen) {
-                        return -1;
-                    }
-                    if (a.seen < b.seen) {
-                        return 1;
-                    }
-                    if (a.level > b.level) {
-                        return -1;
-                    }
-                    if (a.level < b.level) {
-                        return 1;
-                    }
-                    return a.BSSID.compareTo(b.BSSID);
-                }
-            });
-        }
+        Collections.sort(list, MOST_RECENT_COMPARATOR);
         return list;
     }
 
@@ -28,7 +28,6 @@ import android.net.wifi.IScanResultsCallback;
 import android.net.wifi.ScanResult;
 import android.net.wifi.WifiManager;
 import android.net.wifi.WifiScanner;
-import android.net.wifi.util.ScanResultUtil;
 import android.os.Handler;
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
@@ -45,13 +44,9 @@ import com.android.modules.utils.build.SdkLevel;
 import com.android.server.wifi.util.WifiPermissionsUtil;
 import com.android.wifi.resources.R;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 import javax.annotation.concurrent.NotThreadSafe;
 
@@ -114,9 +109,9 @@ public class ScanRequestProxy {
     private final ArrayMap<Pair<Integer, String>, LinkedList<Long>> mLastScanTimestampsForFgApps =
             new ArrayMap();
     // Scan results cached from the last full single scan request.
-    // Stored as a map of bssid -> ScanResult to allow other clients to perform ScanResult lookup
-    // for bssid more efficiently.
-    private final Map<String, ScanResult> mLastScanResultsMap = new HashMap<>();
+    // Indexed by bssid and by (ssid, security type) to allow other clients to perform lookups
+    // more efficiently. Rebuilt once per scan.
+    private ScanResultStore mLastScanResults = ScanResultStore.empty();
     // external ScanResultCallback tracker
     private final RemoteCallbackList<IScanResultsCallback> mRegisteredScanResultsCallbacks;
     // Global scan listener for listening to all scan requests.
@@ -150,8 +145,7 @@ public class ScanRequestProxy {
             // Only process full band scan results.
             if (WifiScanner.isFullBandScan(scanData.getScannedBandsInternal(), false)) {
                 // Store the last scan results & send out the scan completion broadcast.
-                mLastScanResultsMap.clear();
-                Arrays.stream(scanResults).forEach(s -> mLastScanResultsMap.put(s.BSSID, s));
+                mLastScanResults = new ScanResultStore(scanResults);
                 sendScanResultBroadcast(true);
                 sendScanResultsAvailableToCallbacks();
             }
@@ -503,11 +497,10 @@ public class ScanRequestProxy {
     /**
      * Return the results of the most recent access point scan, in the form of
      * a list of {@link ScanResult} objects.
-     * @return the list of results
+     * @return the list of results. The list is an immutable snapshot shared between callers.
      */
     public List<ScanResult> getScanResults() {
-        // return a copy to prevent external modification
-        return new ArrayList<>(mLastScanResultsMap.values());
+        return mLastScanResults.getScanResults();
     }
 
     /**
@@ -517,7 +510,7 @@ public class ScanRequestProxy {
      * @return ScanResult for the corresponding bssid if found, null otherwise.
      */
     public @Nullable ScanResult getScanResult(@NonNull String bssid) {
-        ScanResult scanResult = mLastScanResultsMap.get(bssid);
+        ScanResult scanResult = mLastScanResults.getScanResult(bssid);
         if (scanResult == null) return null;
         // return a copy to prevent external modification
         return new ScanResult(scanResult);
@@ -528,7 +521,7 @@ public class ScanRequestProxy {
      * Clear the stored scan results.
      */
     private void clearScanResults() {
-        mLastScanResultsMap.clear();
+        mLastScanResults = ScanResultStore.empty();
         mLastScanTimestampForBgApps = 0;
         mLastScanTimestampsForFgApps.clear();
     }
@@ -599,58 +592,41 @@ public class ScanRequestProxy {
 
     /** Indicate whether there are WPA2 personal only networks. */
     public boolean isWpa2PersonalOnlyNetworkInRange(String ssid) {
-        return mLastScanResultsMap.values().stream().anyMatch(r ->
-                TextUtils.equals(ssid, r.getWifiSsid().toString())
-                && ScanResultUtil.isScanResultForPskNetwork(r)
-                && !ScanResultUtil.isScanResultForSaeNetwork(r));
+        return mLastScanResults.isNetworkInRange(ssid,
+                ScanResultStore.SECURITY_WPA2_PERSONAL_ONLY);
     }
 
     /** Indicate whether there are WPA3 only networks. */
     public boolean isWpa3PersonalOnlyNetworkInRange(String ssid) {
-        return mLastScanResultsMap.values().stream().anyMatch(r ->
-                TextUtils.equals(ssid, r.getWifiSsid().toString())
-                && ScanResultUtil.isScanResultForSaeNetwork(r)
-                && !ScanResultUtil.isScanResultForPskNetwork(r));
+        return mLastScanResults.isNetworkInRange(ssid,
+                ScanResultStore.SECURITY_WPA3_PERSONAL_ONLY);
     }
 
     /** Indicate whether there are WPA2/WPA3 transition mode networks. */
     public boolean isWpa2Wpa3PersonalTransitionNetworkInRange(String ssid) {
-        return mLastScanResultsMap.values().stream().anyMatch(r ->
-                TextUtils.equals(ssid, ScanResultUtil.createQuotedSsid(r.SSID))
-                && ScanResultUtil.isScanResultForPskSaeTransitionNetwork(r));
+        return mLastScanResults.isNetworkInRange(ssid,
+                ScanResultStore.SECURITY_WPA2_WPA3_PERSONAL_TRANSITION);
     }
 
     /** Indicate whether there are OPEN only networks. */
     public boolean isOpenOnlyNetworkInRange(String ssid) {
-        return mLastScanResultsMap.values().stream().anyMatch(r ->
-                TextUtils.equals(ssid, r.getWifiSsid().toString())
-                && ScanResultUtil.isScanResultForOpenNetwork(r)
-                && !ScanResultUtil.isScanResultForOweNetwork(r));
+        return mLastScanResults.isNetworkInRange(ssid, ScanResultStore.SECURITY_OPEN_ONLY);
     }
 
     /** Indicate whether there are OWE only networks. */
     public boolean isOweOnlyNetworkInRange(String ssid) {
-        return mLastScanResultsMap.values().stream().anyMatch(r ->
-                TextUtils.equals(ssid, r.getWifiSsid().toString())
-                && ScanResultUtil.isScanResultForOweNetwork(r)
-                && !ScanResultUtil.isScanResultForOweTransitionNetwork(r));
+        return mLastScanResults.isNetworkInRange(ssid, ScanResultStore.SECURITY_OWE_ONLY);
     }
 
     /** Indicate whether there are WPA2 Enterprise only networks. */
     public boolean isWpa2EnterpriseOnlyNetworkInRange(String ssid) {
-        return mLastScanResultsMap.values().stream().anyMatch(r ->
-                TextUtils.equals(ssid, r.getWifiSsid().toString())
-                && ScanResultUtil.isScanResultForEapNetwork(r)
-                && !ScanResultUtil.isScanResultForWpa3EnterpriseTransitionNetwork(r)
-                && !ScanResultUtil.isScanResultForWpa3EnterpriseOnlyNetwork(r));
+        return mLastScanResults.isNetworkInRange(ssid,
+                ScanResultStore.SECURITY_WPA2_ENTERPRISE_ONLY);
     }
 
     /** Indicate whether there are WPA3 Enterprise only networks. */
     public boolean isWpa3EnterpriseOnlyNetworkInRange(String ssid) {
-        return mLastScanResultsMap.values().stream().anyMatch(r ->
-                TextUtils.equals(ssid, r.getWifiSsid().toString())
-                && ScanResultUtil.isScanResultForWpa3EnterpriseOnlyNetwork(r)
-                && !ScanResultUtil.isScanResultForWpa3EnterpriseTransitionNetwork(r)
-                && !ScanResultUtil.isScanResultForEapNetwork(r));
+        return mLastScanResults.isNetworkInRange(ssid,
+                ScanResultStore.SECURITY_WPA3_ENTERPRISE_ONLY);
     }
 }
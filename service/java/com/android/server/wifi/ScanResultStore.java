@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiSsid;
+import android.net.wifi.util.ScanResultUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of the results of a single full band scan.
+ *
+ * The store is built once when the scan results arrive and indexes the results by BSSID and by
+ * (SSID, security type), so that the "network in range" queries used on every user connect are
+ * O(1) lookups which don't allocate.
+ */
+public class ScanResultStore {
+    /** Scan results with PSK, but without SAE. */
+    public static final int SECURITY_WPA2_PERSONAL_ONLY = 1 << 0;
+    /** Scan results with SAE, but without PSK. */
+    public static final int SECURITY_WPA3_PERSONAL_ONLY = 1 << 1;
+    /** Scan results which are open, but not OWE. */
+    public static final int SECURITY_OPEN_ONLY = 1 << 2;
+    /** Scan results with OWE, but not in OWE transition mode. */
+    public static final int SECURITY_OWE_ONLY = 1 << 3;
+    /** Scan results with EAP, but without WPA3-Enterprise. */
+    public static final int SECURITY_WPA2_ENTERPRISE_ONLY = 1 << 4;
+    /** Scan results with WPA3-Enterprise only. */
+    public static final int SECURITY_WPA3_ENTERPRISE_ONLY = 1 << 5;
+    /** Scan results in PSK/SAE transition mode. */
+    public static final int SECURITY_WPA2_WPA3_PERSONAL_TRANSITION = 1 << 6;
+
+    private static final ScanResultStore EMPTY = new ScanResultStore(new ScanResult[0]);
+
+    private final List<ScanResult> mScanResults;
+    private final Map<String, ScanResult> mScanResultsByBssid;
+    // Key: SSID as returned by WifiSsid#toString(), i.e quoted for UTF-8 SSIDs.
+    // Value: bitmask of SECURITY_* types seen for that SSID.
+    private final Map<String, Integer> mSecurityTypesBySsid;
+    // The PSK/SAE transition check has historically matched against the quoted
+    // ScanResult#SSID instead of WifiSsid#toString(), keep that behavior in its own index.
+    private final Map<String, Integer> mSecurityTypesByQuotedSsid;
+
+    /**
+     * Get the store which contains no scan results.
+     */
+    public static @NonNull ScanResultStore empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Build a store from the scan results of a single scan.
+     *
+     * @param scanResults results of the scan. If the same BSSID is found more than once, the last
+     *                    one wins.
+     */
+    public ScanResultStore(@NonNull ScanResult[] scanResults) {
+        mScanResultsByBssid = new HashMap<>(scanResults.length * 2);
+        mSecurityTypesBySsid = new HashMap<>();
+        mSecurityTypesByQuotedSsid = new HashMap<>();
+        for (ScanResult scanResult : scanResults) {
+            mScanResultsByBssid.put(scanResult.BSSID, scanResult);
+        }
+        List<ScanResult> results = new ArrayList<>(mScanResultsByBssid.size());
+        for (ScanResult scanResult : mScanResultsByBssid.values()) {
+            results.add(scanResult);
+            indexSecurityTypes(scanResult);
+        }
+        mScanResults = Collections.unmodifiableList(results);
+    }
+
+    private void indexSecurityTypes(ScanResult scanResult) {
+        WifiSsid wifiSsid = scanResult.getWifiSsid();
+        if (wifiSsid != null) {
+            int types = getSecurityTypes(scanResult);
+            if (types != 0) {
+                String ssid = wifiSsid.toString();
+                Integer existing = mSecurityTypesBySsid.get(ssid);
+                mSecurityTypesBySsid.put(ssid, existing == null ? types : existing | types);
+            }
+        }
+        if (ScanResultUtil.isScanResultForPskSaeTransitionNetwork(scanResult)) {
+            mSecurityTypesByQuotedSsid.put(ScanResultUtil.createQuotedSsid(scanResult.SSID),
+                    SECURITY_WPA2_WPA3_PERSONAL_TRANSITION);
+        }
+    }
+
+    private static int getSecurityTypes(ScanResult r) {
+        int types = 0;
+        boolean isPsk = ScanResultUtil.isScanResultForPskNetwork(r);
+        boolean isSae = ScanResultUtil.isScanResultForSaeNetwork(r);
+        boolean isEap = ScanResultUtil.isScanResultForEapNetwork(r);
+        boolean isWpa3EnterpriseTransition =
+                ScanResultUtil.isScanResultForWpa3EnterpriseTransitionNetwork(r);
+        boolean isWpa3EnterpriseOnly = ScanResultUtil.isScanResultForWpa3EnterpriseOnlyNetwork(r);
+        boolean isOwe = ScanResultUtil.isScanResultForOweNetwork(r);
+        if (isPsk && !isSae) {
+            types |= SECURITY_WPA2_PERSONAL_ONLY;
+        }
+        if (isSae && !isPsk) {
+            types |= SECURITY_WPA3_PERSONAL_ONLY;
+        }
+        if (ScanResultUtil.isScanResultForOpenNetwork(r) && !isOwe) {
+            types |= SECURITY_OPEN_ONLY;
+        }
+        if (isOwe && !ScanResultUtil.isScanResultForOweTransitionNetwork(r)) {
+            types |= SECURITY_OWE_ONLY;
+        }
+        if (isEap && !isWpa3EnterpriseTransition && !isWpa3EnterpriseOnly) {
+            types |= SECURITY_WPA2_ENTERPRISE_ONLY;
+        }
+        if (isWpa3EnterpriseOnly && !isWpa3EnterpriseTransition && !isEap) {
+            types |= SECURITY_WPA3_ENTERPRISE_ONLY;
+        }
+        return types;
+    }
+
+    /**
+     * Get all the scan results in this store. The returned list is shared and cannot be
+     * modified.
+     */
+    public @NonNull List<ScanResult> getScanResults() {
+        return mScanResults;
+    }
+
+    /**
+     * Get the scan result for the provided BSSID, or null if not found. The returned
+     * scan result is shared and must not be modified.
+     */
+    public @Nullable ScanResult getScanResult(@Nullable String bssid) {
+        return mScanResultsByBssid.get(bssid);
+    }
+
+    /**
+     * Number of scan results in this store.
+     */
+    public int size() {
+        return mScanResults.size();
+    }
+
+    /**
+     * Whether this store contains any scan result for |ssid| with the given security type.
+     *
+     * @param ssid SSID in the format returned by {@link WifiSsid#toString()}.
+     * @param securityType one of the SECURITY_* constants.
+     */
+    public boolean isNetworkInRange(@Nullable String ssid, int securityType) {
+        if (ssid == null) return false;
+        Integer types = securityType == SECURITY_WPA2_WPA3_PERSONAL_TRANSITION
+                ? mSecurityTypesByQuotedSsid.get(ssid) : mSecurityTypesBySsid.get(ssid);
+        return types != null && (types & securityType) != 0;
+    }
+}
@@ -68,7 +68,6 @@ import com.android.server.wifi.hotspot2.AnqpEvent;
 import com.android.server.wifi.hotspot2.IconEvent;
 import com.android.server.wifi.hotspot2.WnmData;
 import com.android.server.wifi.hotspot2.anqp.ANQPElement;
-import com.android.server.wifi.hotspot2.anqp.ANQPParser;
 import com.android.server.wifi.hotspot2.anqp.Constants;
 import com.android.server.wifi.util.NativeUtil;
 
@@ -192,9 +191,7 @@ class SupplicantStaIfaceCallbackAidlImpl extends ISupplicantStaIfaceCallback.Stu
     private ANQPElement parseAnqpElement(Constants.ANQPElementType infoID, byte[] payload) {
         synchronized (mLock) {
             try {
-                return Constants.getANQPElementID(infoID) != null
-                        ? ANQPParser.parseElement(infoID, ByteBuffer.wrap(payload))
-                        : ANQPParser.parseHS20Element(infoID, ByteBuffer.wrap(payload));
+                return mStaIfaceHal.getAnqpParser().parse(infoID, ByteBuffer.wrap(payload));
             } catch (IOException | BufferUnderflowException e) {
                 Log.e(TAG, "Failed parsing ANQP element payload: " + infoID, e);
                 return null;
@@ -555,7 +552,7 @@ class SupplicantStaIfaceCallbackAidlImpl extends ISupplicantStaIfaceCallback.Stu
         }
 
         mStaIfaceHal.addPmkCacheEntry(mIfaceName, curConfig.networkId, expirationTimeInSec,
-                NativeUtil.byteArrayToArrayList(serializedEntry));
+                serializedEntry);
         mStaIfaceHal.logCallback(
                 "onPmkCacheAdded: update pmk cache for config id "
                         + curConfig.networkId + " on " + mIfaceName);
@@ -52,6 +52,7 @@ public class SupplicantStaIfaceHal {
     private final Clock mClock;
     private final WifiMetrics mWifiMetrics;
     private final WifiGlobals mWifiGlobals;
+    private final PmkCacheManager mPmkCacheManager;
 
     // HAL interface object - might be implemented by HIDL or AIDL
     private ISupplicantStaIfaceHal mStaIfaceHal;
@@ -757,7 +758,7 @@ public class SupplicantStaIfaceHal {
     public SupplicantStaIfaceHal(Context context, WifiMonitor monitor,
             FrameworkFacade frameworkFacade, Handler handler,
             Clock clock, WifiMetrics wifiMetrics,
-            WifiGlobals wifiGlobals) {
+            WifiGlobals wifiGlobals, PmkCacheManager pmkCacheManager) {
         mContext = context;
         mWifiMonitor = monitor;
         mFrameworkFacade = frameworkFacade;
@@ -765,6 +766,7 @@ public class SupplicantStaIfaceHal {
         mClock = clock;
         mWifiMetrics = wifiMetrics;
         mWifiGlobals = wifiGlobals;
+        mPmkCacheManager = pmkCacheManager;
         mStaIfaceHal = createStaIfaceHalMockable();
         if (mStaIfaceHal == null) {
             Log.wtf(TAG, "Failed to get internal ISupplicantStaIfaceHal instance.");
@@ -815,12 +817,12 @@ public class SupplicantStaIfaceHal {
             if (SupplicantStaIfaceHalAidlImpl.serviceDeclared()) {
                 Log.i(TAG, "Initializing SupplicantStaIfaceHal using AIDL implementation.");
                 return new SupplicantStaIfaceHalAidlImpl(mContext, mWifiMonitor,
-                        mEventHandler, mClock, mWifiMetrics, mWifiGlobals);
+                        mEventHandler, mClock, mWifiMetrics, mWifiGlobals, mPmkCacheManager);
 
             } else if (SupplicantStaIfaceHalHidlImpl.serviceDeclared()) {
                 Log.i(TAG, "Initializing SupplicantStaIfaceHal using HIDL implementation.");
                 return new SupplicantStaIfaceHalHidlImpl(mContext, mWifiMonitor, mFrameworkFacade,
-                        mEventHandler, mClock, mWifiMetrics, mWifiGlobals);
+                        mEventHandler, mClock, mWifiMetrics, mWifiGlobals, mPmkCacheManager);
             }
             Log.e(TAG, "No HIDL or AIDL service available for SupplicantStaIfaceHal.");
             return null;
@@ -963,6 +965,41 @@ public class SupplicantStaIfaceHal {
         }
     }
 
+    /**
+     * Keeps the provided networks provisioned in wpa_supplicant besides the current network, so
+     * that {@link #connectToNetwork(String, WifiConfiguration)} can switch to any of them
+     * without saving it again.
+     *
+     * @param ifaceName Name of the interface.
+     * @param configs WifiConfiguration parameters of the networks, an empty list removes all the
+     *                provisioned networks.
+     * @return {@code true} if all the networks are provisioned, {@code false} otherwise
+     */
+    public boolean provisionNetworks(@NonNull String ifaceName,
+            @NonNull List<WifiConfiguration> configs) {
+        synchronized (mLock) {
+            String methodStr = "provisionNetworks";
+            if (mStaIfaceHal == null) {
+                return handleNullHal(methodStr);
+            }
+            return mStaIfaceHal.provisionNetworks(ifaceName, configs);
+        }
+    }
+
+    /**
+     * Returns whether {@link #provisionNetworks(String, List)} is supported by the supplicant
+     * HAL.
+     */
+    public boolean isProvisionNetworksSupported() {
+        synchronized (mLock) {
+            String methodStr = "isProvisionNetworksSupported";
+            if (mStaIfaceHal == null) {
+                return handleNullHal(methodStr);
+            }
+            return mStaIfaceHal.isProvisionNetworksSupported();
+        }
+    }
+
     /**
      * Initiates roaming to the already configured network in wpa_supplicant. If the network
      * configuration provided does not match the already configured network, then this triggers
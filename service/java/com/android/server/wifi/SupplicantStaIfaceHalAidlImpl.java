@@ -75,11 +75,13 @@ import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.os.ServiceSpecificException;
 import android.text.TextUtils;
+import android.util.ArraySet;
 import android.util.Log;
 import android.util.Pair;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.build.SdkLevel;
+import com.android.server.wifi.hotspot2.anqp.ANQPParser;
 import com.android.server.wifi.util.NativeUtil;
 
 import java.nio.ByteBuffer;
@@ -90,6 +92,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Objects;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -129,6 +132,9 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
     private Map<String, WifiConfiguration> mCurrentNetworkLocalConfigs = new HashMap<>();
     private Map<String, List<Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration>>>
             mLinkedNetworkLocalAndRemoteConfigs = new HashMap<>();
+    // Networks provisioned besides the current network, by framework network id.
+    private Map<String, Map<Integer, Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration>>>
+            mProvisionedNetworks = new HashMap<>();
     @VisibleForTesting
     PmkCacheManager mPmkCacheManager;
     private WifiNative.SupplicantDeathEventHandler mDeathEventHandler;
@@ -140,6 +146,7 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
     private final Clock mClock;
     private final WifiMetrics mWifiMetrics;
     private final WifiGlobals mWifiGlobals;
+    private final ANQPParser mAnqpParser;
 
     private class SupplicantDeathRecipient implements DeathRecipient {
         @Override
@@ -169,15 +176,17 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
     }
 
     public SupplicantStaIfaceHalAidlImpl(Context context, WifiMonitor monitor, Handler handler,
-            Clock clock, WifiMetrics wifiMetrics, WifiGlobals wifiGlobals) {
+            Clock clock, WifiMetrics wifiMetrics, WifiGlobals wifiGlobals,
+            PmkCacheManager pmkCacheManager) {
         mContext = context;
         mWifiMonitor = monitor;
         mEventHandler = handler;
         mClock = clock;
         mWifiMetrics = wifiMetrics;
         mWifiGlobals = wifiGlobals;
+        mAnqpParser = new ANQPParser(wifiGlobals.isPasspointAnqpCachePersistenceEnabled());
         mSupplicantDeathRecipient = new SupplicantDeathRecipient();
-        mPmkCacheManager = new PmkCacheManager(mClock, mEventHandler);
+        mPmkCacheManager = pmkCacheManager;
     }
 
     /**
@@ -200,6 +209,13 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
         }
     }
 
+    /**
+     * Parser for the ANQP elements received from supplicant.
+     */
+    protected ANQPParser getAnqpParser() {
+        return mAnqpParser;
+    }
+
     /**
      * Checks whether the ISupplicant service is declared, and therefore should be available.
      *
@@ -388,6 +404,7 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
             mCurrentNetworkLocalConfigs.clear();
             mCurrentNetworkRemoteHandles.clear();
             mLinkedNetworkLocalAndRemoteConfigs.clear();
+            mProvisionedNetworks.clear();
         }
     }
 
@@ -555,8 +572,9 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
     /**
      * Add the provided network configuration to wpa_supplicant and initiate connection to it.
      * This method does the following:
-     * 1. If |config| is different to the current supplicant network, removes all supplicant
-     * networks and saves |config|.
+     * 1. If |config| is different to the current supplicant network, makes the network
+     * provisioned for |config| by {@link #provisionNetworks(String, List)} the current network
+     * if there is one, or else removes all supplicant networks and saves |config|.
      * 2. Select the new network in wpa_supplicant.
      *
      * @param ifaceName Name of the interface.
@@ -566,6 +584,8 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
     public boolean connectToNetwork(@NonNull String ifaceName, @NonNull WifiConfiguration config) {
         synchronized (mLock) {
             Log.d(TAG, "connectToNetwork " + config.getProfileKey());
+            long startNanos = mClock.getElapsedSinceBootNanos();
+            boolean fromProvisionedNetwork = false;
             WifiConfiguration currentConfig = getCurrentNetworkLocalConfig(ifaceName);
             if (WifiConfigurationUtil.isSameNetwork(config, currentConfig)) {
                 String networkSelectionBSSID = config.getNetworkSelectionStatus()
@@ -584,6 +604,9 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
                     }
                     mCurrentNetworkLocalConfigs.put(ifaceName, new WifiConfiguration(config));
                 }
+            } else if (switchToProvisionedNetwork(ifaceName, config)) {
+                Log.d(TAG, "Network is already provisioned, will not trigger remove and add.");
+                fromProvisionedNetwork = true;
             } else {
                 mCurrentNetworkRemoteHandles.remove(ifaceName);
                 mCurrentNetworkLocalConfigs.remove(ifaceName);
@@ -615,11 +638,11 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
                     .getCandidateSecurityParams();
             if (params != null && !(params.isSecurityType(WifiConfiguration.SECURITY_TYPE_PSK)
                     || params.isSecurityType(WifiConfiguration.SECURITY_TYPE_DPP))) {
-                List<ArrayList<Byte>> pmkDataList = mPmkCacheManager.get(config.networkId);
+                List<byte[]> pmkDataList = mPmkCacheManager.get(config.networkId);
                 if (pmkDataList != null) {
                     Log.i(TAG, "Set PMK cache for config id " + config.networkId);
                     pmkDataList.forEach(pmkData -> {
-                        if (networkHandle.setPmkCache(NativeUtil.byteArrayFromArrayList(pmkData))) {
+                        if (networkHandle.setPmkCache(pmkData)) {
                             mWifiMetrics.setConnectionPmkCache(ifaceName, true);
                         }
                     });
@@ -630,10 +653,195 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
                 Log.e(TAG, "Failed to select network configuration: " + config.getProfileKey());
                 return false;
             }
+            mWifiMetrics.logSupplicantConnectSetupLatency(fromProvisionedNetwork,
+                    (int) ((mClock.getElapsedSinceBootNanos() - startNanos) / 1000));
             return true;
         }
     }
 
+    /**
+     * Keeps the provided networks provisioned in wpa_supplicant besides the current network, so
+     * that {@link #connectToNetwork(String, WifiConfiguration)} can switch to any of them by
+     * selecting its existing network instead of removing all networks and saving it again.
+     * The networks which are already provisioned are only sent the fields which changed, and
+     * the previously provisioned networks which are not in |configs| are removed.
+     *
+     * @param ifaceName Name of the interface.
+     * @param configs WifiConfiguration parameters of the networks, an empty list removes all the
+     *                provisioned networks.
+     * @return true if all the networks are provisioned, false otherwise.
+     */
+    public boolean provisionNetworks(@NonNull String ifaceName,
+            @NonNull List<WifiConfiguration> configs) {
+        synchronized (mLock) {
+            Map<Integer, Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration>> oldNetworks =
+                    mProvisionedNetworks.remove(ifaceName);
+            if (oldNetworks == null) {
+                oldNetworks = new HashMap<>();
+            }
+            Map<Integer, Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration>> networks =
+                    new HashMap<>();
+            WifiConfiguration currentConfig = getCurrentNetworkLocalConfig(ifaceName);
+            boolean success = true;
+            for (WifiConfiguration config : configs) {
+                if ((currentConfig != null && currentConfig.networkId == config.networkId)
+                        || networks.containsKey(config.networkId)) {
+                    continue;
+                }
+                Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration> pair =
+                        oldNetworks.get(config.networkId);
+                if (pair != null && WifiConfigurationUtil.isSameNetwork(config, pair.second)) {
+                    oldNetworks.remove(config.networkId);
+                    pair = updateNetworkAndSaveConfig(ifaceName, pair, config);
+                } else {
+                    pair = addProvisionedNetworkAndSaveConfig(ifaceName, config);
+                }
+                if (pair == null) {
+                    Log.e(TAG, "Failed to provision network: " + config.getProfileKey());
+                    success = false;
+                    continue;
+                }
+                networks.put(config.networkId, pair);
+            }
+            for (Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration> pair
+                    : oldNetworks.values()) {
+                if (!removeNetwork(ifaceName, pair.first.getNetworkId())) {
+                    Log.e(TAG, "Failed to remove provisioned network: "
+                            + pair.second.getProfileKey());
+                }
+            }
+            if (!networks.isEmpty()) {
+                mProvisionedNetworks.put(ifaceName, networks);
+            }
+            return success;
+        }
+    }
+
+    /**
+     * Returns whether {@link #provisionNetworks(String, List)} is supported.
+     */
+    public boolean isProvisionNetworksSupported() {
+        return true;
+    }
+
+    /**
+     * Add a network configuration to wpa_supplicant, without removing the other networks if it
+     * fails.
+     *
+     * @return a Pair object including SupplicantStaNetworkHal and WifiConfiguration objects
+     * for the network, or null if it fails.
+     */
+    private Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration>
+            addProvisionedNetworkAndSaveConfig(@NonNull String ifaceName,
+            @NonNull WifiConfiguration config) {
+        SupplicantStaNetworkHalAidlImpl network = addNetwork(ifaceName);
+        if (network == null) {
+            Log.e(TAG, "Failed to add network.");
+            return null;
+        }
+        return saveProvisionedNetworkConfig(ifaceName, network, config);
+    }
+
+    /**
+     * Saves |config| to the provisioned network of |pair|, which only sends the fields which
+     * changed since its configuration was saved.
+     *
+     * @return a Pair object including SupplicantStaNetworkHal and WifiConfiguration objects
+     * for the network, or null if it fails.
+     */
+    private Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration>
+            updateNetworkAndSaveConfig(@NonNull String ifaceName,
+            @NonNull Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration> pair,
+            @NonNull WifiConfiguration config) {
+        // saveWifiConfiguration() leaves the BSSID unchanged when there is none.
+        if (config.getNetworkSelectionStatus().getNetworkSelectionBSSID() == null
+                && pair.second.getNetworkSelectionStatus().getNetworkSelectionBSSID() != null
+                && !pair.first.setBssid(ClientModeImpl.SUPPLICANT_BSSID_ANY)) {
+            Log.e(TAG, "Failed to clear BSSID of network: " + config.getProfileKey());
+            removeNetwork(ifaceName, pair.first.getNetworkId());
+            return null;
+        }
+        return saveProvisionedNetworkConfig(ifaceName, pair.first, config);
+    }
+
+    private Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration>
+            saveProvisionedNetworkConfig(@NonNull String ifaceName,
+            @NonNull SupplicantStaNetworkHalAidlImpl network, @NonNull WifiConfiguration config) {
+        boolean saveSuccess = false;
+        try {
+            saveSuccess = network.saveWifiConfiguration(config);
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Exception while saving config params: " + config, e);
+        }
+        if (!saveSuccess) {
+            Log.e(TAG, "Failed to save variables for: " + config.getProfileKey());
+            if (!removeNetwork(ifaceName, network.getNetworkId())) {
+                Log.e(TAG, "Failed to remove network on failure.");
+            }
+            return null;
+        }
+        return new Pair(network, new WifiConfiguration(config));
+    }
+
+    /**
+     * Makes the network provisioned for |config| the current network, if there is one. The
+     * previous current network stays provisioned, and its linked networks are removed.
+     *
+     * @return true if the provisioned network is now the current network, false otherwise.
+     */
+    private boolean switchToProvisionedNetwork(@NonNull String ifaceName,
+            @NonNull WifiConfiguration config) {
+        Map<Integer, Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration>> networks =
+                mProvisionedNetworks.get(ifaceName);
+        if (networks == null || !networks.containsKey(config.networkId)) {
+            return false;
+        }
+        Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration> pair =
+                networks.remove(config.networkId);
+        if (!WifiConfigurationUtil.isSameNetwork(config, pair.second)) {
+            removeNetwork(ifaceName, pair.first.getNetworkId());
+            return false;
+        }
+        pair = updateNetworkAndSaveConfig(ifaceName, pair, config);
+        if (pair == null) {
+            return false;
+        }
+        SupplicantStaNetworkHalAidlImpl currentHandle = getCurrentNetworkRemoteHandle(ifaceName);
+        WifiConfiguration currentConfig = getCurrentNetworkLocalConfig(ifaceName);
+        List<Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration>> linkedNetworkHandles =
+                mLinkedNetworkLocalAndRemoteConfigs.remove(ifaceName);
+        if (linkedNetworkHandles != null) {
+            for (Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration> linkedPair
+                    : linkedNetworkHandles) {
+                if (linkedPair.first != currentHandle) {
+                    removeNetwork(ifaceName, linkedPair.first.getNetworkId());
+                }
+            }
+        }
+        if (currentHandle != null && currentConfig != null) {
+            networks.put(currentConfig.networkId, new Pair(currentHandle, currentConfig));
+        }
+        mCurrentNetworkRemoteHandles.put(ifaceName, pair.first);
+        mCurrentNetworkLocalConfigs.put(ifaceName, pair.second);
+        return true;
+    }
+
+    /**
+     * Removes the provisioned networks of |networkId| on all the interfaces.
+     */
+    private void removeProvisionedNetworks(int networkId) {
+        for (Map.Entry<String, Map<Integer,
+                Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration>>> entry
+                : mProvisionedNetworks.entrySet()) {
+            Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration> pair =
+                    entry.getValue().remove(networkId);
+            if (pair != null && !removeNetwork(entry.getKey(), pair.first.getNetworkId())) {
+                Log.e(TAG, "Failed to remove provisioned network: "
+                        + pair.second.getProfileKey());
+            }
+        }
+    }
+
     /**
      * Initiates roaming to the already configured network in wpa_supplicant. If the network
      * configuration provided does not match the already configured network, then this triggers
@@ -690,6 +898,7 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
         synchronized (mLock) {
             Log.d(TAG, "Remove cached HAL data for config id " + networkId);
             removePmkCacheEntry(networkId);
+            removeProvisionedNetworks(networkId);
         }
     }
 
@@ -728,6 +937,7 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
             mCurrentNetworkRemoteHandles.remove(ifaceName);
             mCurrentNetworkLocalConfigs.remove(ifaceName);
             mLinkedNetworkLocalAndRemoteConfigs.remove(ifaceName);
+            mProvisionedNetworks.remove(ifaceName);
             return true;
         }
     }
@@ -2370,7 +2580,7 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
 
     protected void addPmkCacheEntry(
             String ifaceName, int networkId,
-            long expirationTimeInSec, ArrayList<Byte> serializedEntry) {
+            long expirationTimeInSec, byte[] serializedEntry) {
         synchronized (mLock) {
             String macAddressStr = getMacAddress(ifaceName);
             try {
@@ -3192,7 +3402,8 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
     }
 
     /**
-     * Remove all networks except the supplied network ID from supplicant
+     * Remove all networks except the supplied network ID and the provisioned networks from
+     * supplicant
      *
      * @param ifaceName Name of the interface
      * @param networkId network id to keep
@@ -3204,8 +3415,17 @@ public class SupplicantStaIfaceHalAidlImpl implements ISupplicantStaIfaceHal {
                 Log.e(TAG, "removeAllNetworksExcept failed, got null networks");
                 return false;
             }
+            Set<Integer> provisionedNetworkIds = new ArraySet<>();
+            Map<Integer, Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration>>
+                    provisionedNetworks = mProvisionedNetworks.get(ifaceName);
+            if (provisionedNetworks != null) {
+                for (Pair<SupplicantStaNetworkHalAidlImpl, WifiConfiguration> pair
+                        : provisionedNetworks.values()) {
+                    provisionedNetworkIds.add(pair.first.getNetworkId());
+                }
+            }
             for (int id : networks) {
-                if (networkId == id) {
+                if (networkId == id || provisionedNetworkIds.contains(id)) {
                     continue;
                 }
                 if (!removeNetwork(ifaceName, id)) {
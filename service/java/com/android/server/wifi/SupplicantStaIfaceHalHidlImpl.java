@@ -67,6 +67,7 @@ import android.util.Pair;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.wifi.WifiNative.DppEventCallback;
 import com.android.server.wifi.WifiNative.SupplicantDeathEventHandler;
+import com.android.server.wifi.hotspot2.anqp.ANQPParser;
 import com.android.server.wifi.util.GeneralUtil.Mutable;
 import com.android.server.wifi.util.NativeUtil;
 
@@ -136,6 +137,7 @@ public class SupplicantStaIfaceHalHidlImpl implements ISupplicantStaIfaceHal {
     private final Clock mClock;
     private final WifiMetrics mWifiMetrics;
     private final WifiGlobals mWifiGlobals;
+    private final ANQPParser mAnqpParser;
 
     private final IServiceNotification mServiceNotificationCallback =
             new IServiceNotification.Stub() {
@@ -181,7 +183,7 @@ public class SupplicantStaIfaceHalHidlImpl implements ISupplicantStaIfaceHal {
     public SupplicantStaIfaceHalHidlImpl(Context context, WifiMonitor monitor,
             FrameworkFacade frameworkFacade, Handler handler,
             Clock clock, WifiMetrics wifiMetrics,
-            WifiGlobals wifiGlobals) {
+            WifiGlobals wifiGlobals, PmkCacheManager pmkCacheManager) {
         mContext = context;
         mWifiMonitor = monitor;
         mFrameworkFacade = frameworkFacade;
@@ -189,10 +191,11 @@ public class SupplicantStaIfaceHalHidlImpl implements ISupplicantStaIfaceHal {
         mClock = clock;
         mWifiMetrics = wifiMetrics;
         mWifiGlobals = wifiGlobals;
+        mAnqpParser = new ANQPParser(wifiGlobals.isPasspointAnqpCachePersistenceEnabled());
 
         mServiceManagerDeathRecipient = new ServiceManagerDeathRecipient();
         mSupplicantDeathRecipient = new SupplicantDeathRecipient();
-        mPmkCacheManager = new PmkCacheManager(mClock, mEventHandler);
+        mPmkCacheManager = pmkCacheManager;
     }
 
     /**
@@ -212,6 +215,13 @@ public class SupplicantStaIfaceHalHidlImpl implements ISupplicantStaIfaceHal {
         return mVerboseLoggingEnabled;
     }
 
+    /**
+     * Parser for the ANQP elements received from supplicant.
+     */
+    protected ANQPParser getAnqpParser() {
+        return mAnqpParser;
+    }
+
     private boolean linkToServiceManagerDeath() {
         synchronized (mLock) {
             if (mIServiceManager == null) return false;
@@ -998,6 +1008,27 @@ public class SupplicantStaIfaceHalHidlImpl implements ISupplicantStaIfaceHal {
         }
     }
 
+    /**
+     * Keeps the provided networks provisioned in wpa_supplicant besides the current network.
+     *
+     * @param ifaceName Name of the interface.
+     * @param configs WifiConfiguration parameters of the networks.
+     * @return false without action since this is not a supported feature.
+     */
+    public boolean provisionNetworks(@NonNull String ifaceName,
+            @NonNull List<WifiConfiguration> configs) {
+        return false;
+    }
+
+    /**
+     * Returns whether {@link #provisionNetworks(String, List)} is supported.
+     *
+     * @return false since this is not a supported feature.
+     */
+    public boolean isProvisionNetworksSupported() {
+        return false;
+    }
+
     /**
      * Add the provided network configuration to wpa_supplicant and initiate connection to it.
      * This method does the following:
@@ -1059,11 +1090,11 @@ public class SupplicantStaIfaceHalHidlImpl implements ISupplicantStaIfaceHal {
             SecurityParams params = config.getNetworkSelectionStatus()
                     .getCandidateSecurityParams();
             if (params != null && !params.isSecurityType(WifiConfiguration.SECURITY_TYPE_PSK)) {
-                List<ArrayList<Byte>> pmkDataList = mPmkCacheManager.get(config.networkId);
+                List<byte[]> pmkDataList = mPmkCacheManager.get(config.networkId);
                 if (pmkDataList != null) {
                     logi("Set PMK cache for config id " + config.networkId);
                     pmkDataList.forEach(pmkData -> {
-                        if (networkHandle.setPmkCache(pmkData)) {
+                        if (networkHandle.setPmkCache(NativeUtil.byteArrayToArrayList(pmkData))) {
                             mWifiMetrics.setConnectionPmkCache(ifaceName, true);
                         }
                     });
@@ -2859,7 +2890,8 @@ public class SupplicantStaIfaceHalHidlImpl implements ISupplicantStaIfaceHal {
         String macAddressStr = getMacAddress(ifaceName);
         try {
             if (!mPmkCacheManager.add(MacAddress.fromString(macAddressStr),
-                    networkId, expirationTimeInSec, serializedEntry)) {
+                    networkId, expirationTimeInSec,
+                    NativeUtil.byteArrayFromArrayList(serializedEntry))) {
                 Log.w(TAG, "Cannot add PMK cache for " + ifaceName);
             }
         } catch (IllegalArgumentException ex) {
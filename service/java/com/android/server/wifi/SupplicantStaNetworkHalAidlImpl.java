@@ -57,6 +57,7 @@ import java.util.BitSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Objects;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -106,6 +107,11 @@ public class SupplicantStaNetworkHalAidlImpl {
     private final WifiGlobals mWifiGlobals;
     private ISupplicantStaNetwork mISupplicantStaNetwork;
     private ISupplicantStaNetworkCallback mISupplicantStaNetworkCallback;
+    private int mCallbackNetworkId;
+    private String mCallbackSsid;
+    // Values set in wpa_supplicant by the setters used to save a configuration, by setter, so
+    // that saving a configuration again only sends the values which changed.
+    private final Map<String, Object> mSetValues = new HashMap<>();
 
     private boolean mVerboseLoggingEnabled = false;
     // Network variables read from wpa_supplicant.
@@ -1271,6 +1277,11 @@ public class SupplicantStaNetworkHalAidlImpl {
 
     private boolean registerNewCallback(int networkId, String ssid) {
         synchronized (mLock) {
+            if (mISupplicantStaNetworkCallback != null && mCallbackNetworkId == networkId
+                    && Objects.equals(mCallbackSsid, ssid)) {
+                // Saved again, the registered callback still applies.
+                return true;
+            }
             ISupplicantStaNetworkCallback callback =
                     new SupplicantStaNetworkCallbackAidlImpl(
                             SupplicantStaNetworkHalAidlImpl.this,
@@ -1280,10 +1291,26 @@ public class SupplicantStaNetworkHalAidlImpl {
                 return false;
             }
             mISupplicantStaNetworkCallback = callback;
+            mCallbackNetworkId = networkId;
+            mCallbackSsid = ssid;
             return true;
         }
     }
 
+    /**
+     * Returns true if |value| is the value last set in wpa_supplicant with the setter |key|.
+     */
+    private boolean isValueSet(String key, Object value) {
+        return mSetValues.containsKey(key) && Objects.deepEquals(mSetValues.get(key), value);
+    }
+
+    /**
+     * Notes that |value| was set in wpa_supplicant with the setter |key|.
+     */
+    private void noteValueSet(String key, Object value) {
+        mSetValues.put(key, value);
+    }
+
     /**
      * Set SSID for this network.
      *
@@ -1297,9 +1324,13 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, ssid)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setSsid(ssid);
                 Log.i(TAG, "Successfully set SSID");
+                noteValueSet(methodStr, ssid);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1333,8 +1364,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, bssid)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setBssid(bssid);
+                noteValueSet(methodStr, bssid);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1357,8 +1392,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, enable)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setScanSsid(enable);
+                noteValueSet(methodStr, enable);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1382,8 +1421,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, keyMgmtMask)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setKeyMgmt(keyMgmtMask);
+                noteValueSet(methodStr, keyMgmtMask);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1407,8 +1450,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, protoMask)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setProto(protoMask);
+                noteValueSet(methodStr, protoMask);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1432,8 +1479,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, authAlgMask)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setAuthAlg(authAlgMask);
+                noteValueSet(methodStr, authAlgMask);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1457,8 +1508,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, groupCipherMask)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setGroupCipher(groupCipherMask);
+                noteValueSet(methodStr, groupCipherMask);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1529,8 +1584,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, pairwiseCipherMask)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setPairwiseCipher(pairwiseCipherMask);
+                noteValueSet(methodStr, pairwiseCipherMask);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1554,8 +1613,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, groupMgmtCipherMask)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setGroupMgmtCipher(groupMgmtCipherMask);
+                noteValueSet(methodStr, groupMgmtCipherMask);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1581,8 +1644,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, psk)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setPskPassphrase(psk);
+                noteValueSet(methodStr, psk);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1606,8 +1673,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, psk)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setPsk(psk);
+                noteValueSet(methodStr, psk);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1637,8 +1708,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr + keyIdx, wepKey)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setWepKey(keyIdx, wepKey);
+                noteValueSet(methodStr + keyIdx, wepKey);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1662,8 +1737,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, keyIdx)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setWepTxKeyIdx(keyIdx);
+                noteValueSet(methodStr, keyIdx);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1686,8 +1765,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, enable)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setRequirePmf(enable);
+                noteValueSet(methodStr, enable);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1711,8 +1794,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, identifier)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setUpdateIdentifier(identifier);
+                noteValueSet(methodStr, identifier);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1735,8 +1822,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, certSuite)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setWapiCertSuite(certSuite);
+                noteValueSet(methodStr, certSuite);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1760,8 +1851,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, method)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setEapMethod(method);
+                noteValueSet(methodStr, method);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1787,8 +1882,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, method)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setEapPhase2Method(method);
+                noteValueSet(methodStr, method);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1811,8 +1910,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, identity)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setEapIdentity(identity);
+                noteValueSet(methodStr, identity);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1835,6 +1938,8 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            // Always sent, unlike the other values: wpa_supplicant can change the anonymous
+            // identity on its own, e.g. with a pseudonym from EAP-SIM/AKA authentication.
             try {
                 mISupplicantStaNetwork.setEapAnonymousIdentity(identity);
                 return true;
@@ -1859,8 +1964,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, password)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setEapPassword(password);
+                noteValueSet(methodStr, password);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1883,8 +1992,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, path)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setEapCACert(path);
+                noteValueSet(methodStr, path);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1907,8 +2020,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, path)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setEapCAPath(path);
+                noteValueSet(methodStr, path);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1931,8 +2048,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, path)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setEapClientCert(path);
+                noteValueSet(methodStr, path);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1957,8 +2078,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, id)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setEapPrivateKeyId(id);
+                noteValueSet(methodStr, id);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -1981,8 +2106,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, match)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setEapSubjectMatch(match);
+                noteValueSet(methodStr, match);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -2005,8 +2134,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, match)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setEapAltSubjectMatch(match);
+                noteValueSet(methodStr, match);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -2029,8 +2162,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, enable)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setEapEngine(enable);
+                noteValueSet(methodStr, enable);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -2053,8 +2190,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, id)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setEapEngineID(id);
+                noteValueSet(methodStr, id);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -2077,8 +2218,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, match)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setEapDomainSuffixMatch(match);
+                noteValueSet(methodStr, match);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -2110,8 +2255,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, enable)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setProactiveKeyCaching(enable);
+                noteValueSet(methodStr, enable);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -2135,8 +2284,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, idString)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setIdStr(idString);
+                noteValueSet(methodStr, idString);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -2159,8 +2312,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, saePassword)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setSaePassword(saePassword);
+                noteValueSet(methodStr, saePassword);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -2183,8 +2340,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, enable)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setEapErp(enable);
+                noteValueSet(methodStr, enable);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -3291,6 +3452,9 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, ocsp)) {
+                return true;
+            }
 
             int halOcspValue = OcspType.NONE;
             switch (ocsp) {
@@ -3307,6 +3471,7 @@ public class SupplicantStaNetworkHalAidlImpl {
 
             try {
                 mISupplicantStaNetwork.setOcsp(halOcspValue);
+                noteValueSet(methodStr, ocsp);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -3393,8 +3558,12 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, mode)) {
+                return true;
+            }
             try {
                 mISupplicantStaNetwork.setSaeH2eMode(mode);
+                noteValueSet(methodStr, mode);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -3686,10 +3855,14 @@ public class SupplicantStaNetworkHalAidlImpl {
             if (!checkStaNetworkAndLogFailure(methodStr)) {
                 return false;
             }
+            if (isValueSet(methodStr, selectedRcoi)) {
+                return true;
+            }
 
             try {
                 mISupplicantStaNetwork
                         .setRoamingConsortiumSelection(rcoiToByteArray(selectedRcoi));
+                noteValueSet(methodStr, selectedRcoi);
                 return true;
             } catch (RemoteException e) {
                 handleRemoteException(e, methodStr);
@@ -34,6 +34,7 @@ import android.util.Log;
 import android.util.SparseArray;
 
 import com.android.internal.annotations.VisibleForTesting;
+import com.android.server.wifi.util.EventRingBuffer;
 import com.android.server.wifi.util.WifiPermissionsUtil;
 import com.android.wifi.resources.R;
 
@@ -45,7 +46,6 @@ import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -785,19 +785,28 @@ public class WifiBlocklistMonitor {
         }
 
         // plumb down to HAL
-        String message = "set firmware roaming configurations. "
-                + "bssidBlocklist=";
-        if (bssidBlocklist.size() == 0) {
-            message += "<EMPTY>";
-        } else {
-            message += String.join(", ", bssidBlocklist);
-        }
-        if (!mConnectivityHelper.setFirmwareRoamingConfiguration(bssidBlocklist, ssidAllowlist)) {
-            Log.e(TAG, "Failed to " + message);
-            mBssidBlocklistMonitorLogger.log("Failed to " + message);
-        } else {
-            mBssidBlocklistMonitorLogger.log("Successfully " + message);
+        boolean success =
+                mConnectivityHelper.setFirmwareRoamingConfiguration(bssidBlocklist, ssidAllowlist);
+        if (!success) {
+            Log.e(TAG, "Failed to set firmware roaming configurations. bssidBlocklist="
+                    + formatBssidBlocklist(bssidBlocklist));
         }
+        mBssidBlocklistMonitorLogger.logFirmwareRoamingConfiguration(bssidBlocklist, success);
+    }
+
+    private static String formatBssidBlocklist(List<String> bssidBlocklist) {
+        return bssidBlocklist.isEmpty() ? "<EMPTY>" : String.join(", ", bssidBlocklist);
+    }
+
+    private static void appendLogTime(StringBuilder sb, long wallClockMillis) {
+        Calendar c = Calendar.getInstance();
+        c.setTimeInMillis(wallClockMillis);
+        sb.append(c.get(Calendar.MONTH)).append("-")
+                .append(c.get(Calendar.DAY_OF_MONTH)).append(" ")
+                .append(c.get(Calendar.HOUR_OF_DAY)).append(":")
+                .append(c.get(Calendar.MINUTE)).append(":")
+                .append(c.get(Calendar.SECOND)).append(".")
+                .append(c.get(Calendar.MILLISECOND));
     }
 
     @VisibleForTesting
@@ -805,12 +814,33 @@ public class WifiBlocklistMonitor {
         return mBssidBlocklistMonitorLogger.size();
     }
 
+    /**
+     * Rotating history of BSSID unblock and firmware roaming events, for dumps. The events are
+     * only formatted when dumped.
+     */
     private class BssidBlocklistMonitorLogger {
-        private LinkedList<String> mLogBuffer = new LinkedList<>();
-        private int mBufferSize;
+        private static final int EVENT_BSSID_UNBLOCKED = 0;
+        private static final int EVENT_FIRMWARE_ROAMING_CONFIGURATION = 1;
+
+        private static final int INT_FIELD_EVENT_TYPE = 0;
+        // Block reason of an unblocked BSSID, or 1 for a successful firmware configuration.
+        private static final int INT_FIELD_REASON_OR_SUCCESS = 1;
+        private static final int INT_FIELD_LAST_RSSI = 2;
+        private static final int NUM_INT_FIELDS = 3;
+        private static final int LONG_FIELD_BLOCKLIST_START_TIME = 0;
+        private static final int LONG_FIELD_BLOCKLIST_END_TIME = 1;
+        private static final int NUM_LONG_FIELDS = 2;
+        // Unblock reason, or firmware BSSID blocklist.
+        private static final int OBJECT_FIELD_REASON_OR_BLOCKLIST = 0;
+        private static final int OBJECT_FIELD_BSSID = 1;
+        private static final int OBJECT_FIELD_SSID = 2;
+        private static final int NUM_OBJECT_FIELDS = 3;
+
+        private final EventRingBuffer mLogBuffer;
 
         BssidBlocklistMonitorLogger(int bufferSize) {
-            mBufferSize = bufferSize;
+            mLogBuffer = new EventRingBuffer(bufferSize, NUM_INT_FIELDS, NUM_LONG_FIELDS,
+                    NUM_OBJECT_FIELDS);
         }
 
         public void logBssidUnblocked(BssidStatus bssidStatus, String unblockReason) {
@@ -818,40 +848,59 @@ public class WifiBlocklistMonitor {
             if (bssidStatus == null || !bssidStatus.isInBlocklist) {
                 return;
             }
-            StringBuilder sb = createStringBuilderWithLogTime();
-            sb.append(", Bssid unblocked, Reason=" + unblockReason);
-            sb.append(", Unblocked BssidStatus={" + bssidStatus.toString() + "}");
-            logInternal(sb.toString());
+            int index = mLogBuffer.add(mClock.getWallClockMillis());
+            mLogBuffer.setInt(index, INT_FIELD_EVENT_TYPE, EVENT_BSSID_UNBLOCKED);
+            mLogBuffer.setInt(index, INT_FIELD_REASON_OR_SUCCESS, bssidStatus.blockReason);
+            mLogBuffer.setInt(index, INT_FIELD_LAST_RSSI, bssidStatus.lastRssi);
+            mLogBuffer.setLong(index, LONG_FIELD_BLOCKLIST_START_TIME,
+                    bssidStatus.blocklistStartTimeMs);
+            mLogBuffer.setLong(index, LONG_FIELD_BLOCKLIST_END_TIME,
+                    bssidStatus.blocklistEndTimeMs);
+            mLogBuffer.setObject(index, OBJECT_FIELD_REASON_OR_BLOCKLIST, unblockReason);
+            mLogBuffer.setObject(index, OBJECT_FIELD_BSSID, bssidStatus.bssid);
+            mLogBuffer.setObject(index, OBJECT_FIELD_SSID, bssidStatus.ssid);
         }
 
-        // cache a single line of log message in the rotating buffer
-        public void log(String message) {
-            if (message == null) {
-                return;
-            }
-            StringBuilder sb = createStringBuilderWithLogTime();
-            sb.append(" " + message);
-            logInternal(sb.toString());
-        }
-
-        private StringBuilder createStringBuilderWithLogTime() {
-            StringBuilder sb = new StringBuilder();
-            Calendar c = Calendar.getInstance();
-            c.setTimeInMillis(mClock.getWallClockMillis());
-            sb.append("logTime=").append(c.get(Calendar.MONTH)).append("-")
-                    .append(c.get(Calendar.DAY_OF_MONTH)).append(" ")
-                    .append(c.get(Calendar.HOUR_OF_DAY)).append(":")
-                    .append(c.get(Calendar.MINUTE)).append(":")
-                    .append(c.get(Calendar.SECOND)).append(".")
-                    .append(c.get(Calendar.MILLISECOND));
-            return sb;
+        /**
+         * Logs the BSSID blocklist sent to the firmware. |bssidBlocklist| must not be modified
+         * afterwards.
+         */
+        public void logFirmwareRoamingConfiguration(List<String> bssidBlocklist,
+                boolean success) {
+            int index = mLogBuffer.add(mClock.getWallClockMillis());
+            mLogBuffer.setInt(index, INT_FIELD_EVENT_TYPE, EVENT_FIRMWARE_ROAMING_CONFIGURATION);
+            mLogBuffer.setInt(index, INT_FIELD_REASON_OR_SUCCESS, success ? 1 : 0);
+            mLogBuffer.setObject(index, OBJECT_FIELD_REASON_OR_BLOCKLIST, bssidBlocklist);
         }
 
-        private void logInternal(String message) {
-            mLogBuffer.add(message);
-            if (mLogBuffer.size() > mBufferSize) {
-                mLogBuffer.removeFirst();
+        private void formatEvent(StringBuilder sb, EventRingBuffer logBuffer, int index) {
+            sb.append("logTime=");
+            appendLogTime(sb, logBuffer.getTimestampMillis(index));
+            if (logBuffer.getInt(index, INT_FIELD_EVENT_TYPE)
+                    == EVENT_FIRMWARE_ROAMING_CONFIGURATION) {
+                boolean success = logBuffer.getInt(index, INT_FIELD_REASON_OR_SUCCESS) == 1;
+                List<String> bssidBlocklist =
+                        logBuffer.getObject(index, OBJECT_FIELD_REASON_OR_BLOCKLIST);
+                sb.append(success ? " Successfully" : " Failed to")
+                        .append(" set firmware roaming configurations. bssidBlocklist=")
+                        .append(formatBssidBlocklist(bssidBlocklist));
+                return;
             }
+            String unblockReason = logBuffer.getObject(index, OBJECT_FIELD_REASON_OR_BLOCKLIST);
+            sb.append(", Bssid unblocked, Reason=").append(unblockReason);
+            sb.append(", Unblocked BssidStatus={BSSID=")
+                    .append((String) logBuffer.getObject(index, OBJECT_FIELD_BSSID))
+                    .append(", SSID=")
+                    .append((String) logBuffer.getObject(index, OBJECT_FIELD_SSID))
+                    .append(", isInBlocklist=true, blockReason=")
+                    .append(getFailureReasonString(
+                            logBuffer.getInt(index, INT_FIELD_REASON_OR_SUCCESS)))
+                    .append(", lastRssi=").append(logBuffer.getInt(index, INT_FIELD_LAST_RSSI))
+                    .append(", blocklistStartTime=");
+            appendLogTime(sb, logBuffer.getLong(index, LONG_FIELD_BLOCKLIST_START_TIME));
+            sb.append(", blocklistEndTime=");
+            appendLogTime(sb, logBuffer.getLong(index, LONG_FIELD_BLOCKLIST_END_TIME));
+            sb.append("}");
         }
 
         @VisibleForTesting
@@ -861,9 +910,7 @@ public class WifiBlocklistMonitor {
 
         public void dump(PrintWriter pw) {
             pw.println("WifiBlocklistMonitor - Bssid blocklist logs begin ----");
-            for (String line : mLogBuffer) {
-                pw.println(line);
-            }
+            mLogBuffer.dump(pw, this::formatEvent);
             pw.println("List of SSIDs to never block:");
             for (WifiSsid ssid : mSsidsAllowlistForNetworkSelection) {
                 pw.println(ssid.toString());
@@ -925,21 +972,10 @@ public class WifiBlocklistMonitor {
             if (isInBlocklist) {
                 sb.append(", blockReason=" + getFailureReasonString(blockReason));
                 sb.append(", lastRssi=" + lastRssi);
-                Calendar c = Calendar.getInstance();
-                c.setTimeInMillis(blocklistStartTimeMs);
-                sb.append(", blocklistStartTime=").append(c.get(Calendar.MONTH)).append("-")
-                        .append(c.get(Calendar.DAY_OF_MONTH)).append(" ")
-                        .append(c.get(Calendar.HOUR_OF_DAY)).append(":")
-                        .append(c.get(Calendar.MINUTE)).append(":")
-                        .append(c.get(Calendar.SECOND)).append(".")
-                        .append(c.get(Calendar.MILLISECOND));
-                c.setTimeInMillis(blocklistEndTimeMs);
-                sb.append(", blocklistEndTime=").append(c.get(Calendar.MONTH)).append("-")
-                        .append(c.get(Calendar.DAY_OF_MONTH)).append(" ")
-                        .append(c.get(Calendar.HOUR_OF_DAY)).append(":")
-                        .append(c.get(Calendar.MINUTE)).append(":")
-                        .append(c.get(Calendar.SECOND)).append(".")
-                        .append(c.get(Calendar.MILLISECOND));
+                sb.append(", blocklistStartTime=");
+                appendLogTime(sb, blocklistStartTimeMs);
+                sb.append(", blocklistEndTime=");
+                appendLogTime(sb, blocklistEndTimeMs);
             }
             return sb.toString();
         }
@@ -2714,6 +2714,8 @@ public class WifiConfigManager {
                     result.level = (int) ((double) result.level * (1 - alpha)
                                         + (double) previousRssi * alpha);
                 }
+                // Refresh the position of the updated entry in the cache.
+                scanDetailCache.put(scanDetail);
                 if (mVerboseLoggingEnabled) {
                     Log.v(TAG, "Updating scan detail cache freq=" + result.frequency
                             + " BSSID=" + result.BSSID
@@ -3669,11 +3671,28 @@ public class WifiConfigManager {
                 + mContext.getResources().getBoolean(R.bool.config_wifiPnoFrequencyCullingEnabled));
         pw.println("WifiConfigManager - PNO scan recency sorting enabled = "
                 + mContext.getResources().getBoolean(R.bool.config_wifiPnoRecencySortingEnabled));
+        dumpScanDetailCaches(pw);
         mWifiConfigStore.dump(fd, pw, args);
         mWifiCarrierInfoManager.dump(fd, pw, args);
         mNonCarrierMergedNetworksStatusTracker.dump(fd, pw, args);
     }
 
+    private void dumpScanDetailCaches(PrintWriter pw) {
+        int numEntries = 0;
+        long numHits = 0;
+        long numMisses = 0;
+        long numEvictions = 0;
+        for (ScanDetailCache cache : mScanDetailCaches.values()) {
+            numEntries += cache.size();
+            numHits += cache.getNumHits();
+            numMisses += cache.getNumMisses();
+            numEvictions += cache.getNumEvictions();
+        }
+        pw.println("WifiConfigManager - Scan detail caches: networks=" + mScanDetailCaches.size()
+                + " entries=" + numEntries + " hits=" + numHits + " misses=" + numMisses
+                + " evictions=" + numEvictions);
+    }
+
     /**
      * Returns true if the given uid has permission to add, update or remove proxy settings
      */
@@ -35,7 +35,8 @@ import android.util.Xml;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.FastXmlSerializer;
 import com.android.internal.util.Preconditions;
-import com.android.server.wifi.util.EncryptedData;
+import com.android.server.wifi.util.BinaryXmlPullParser;
+import com.android.server.wifi.util.BinaryXmlSerializer;
 import com.android.server.wifi.util.FileUtils;
 import com.android.server.wifi.util.WifiConfigStoreEncryptionUtil;
 import com.android.server.wifi.util.XmlUtil;
@@ -56,11 +57,16 @@ import java.io.PrintWriter;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -78,6 +84,10 @@ import java.util.stream.Stream;
  * <li>{@link WifiConfigManager} controls {@link WifiConfigStore} and initiates read at bootup and
  * store file changes on user switch.</li>
  * <li>Not thread safe!</li>
+ *
+ * By default, all the data of a {@link StoreFile} is written to that file in XML, and the whole
+ * file is rewritten whenever any of its {@link StoreData} has new data. See {@link StorageMode}
+ * for the segmented modes, where each {@link StoreData} is written to its own segment file.
  */
 public class WifiConfigStore {
     /**
@@ -106,8 +116,32 @@ public class WifiConfigStore {
     @Retention(RetentionPolicy.SOURCE)
     public @interface StoreFileId { }
 
+    /**
+     * Store all the data of a {@link StoreFile} in that file, in XML.
+     */
+    public static final int STORAGE_MODE_SINGLE_FILE = 0;
+    /**
+     * Store the data of each {@link StoreData} in its own segment of the {@link StoreFile}, in
+     * XML. Only the segments whose data changed since they were last written are rewritten.
+     */
+    public static final int STORAGE_MODE_SEGMENTED_XML = 1;
+    /**
+     * Same as {@link #STORAGE_MODE_SEGMENTED_XML}, with the segments written in the compact
+     * binary encoding of {@link BinaryXmlSerializer}.
+     */
+    public static final int STORAGE_MODE_SEGMENTED_BINARY = 2;
+
+    @IntDef(prefix = { "STORAGE_MODE_" }, value = {
+            STORAGE_MODE_SINGLE_FILE,
+            STORAGE_MODE_SEGMENTED_XML,
+            STORAGE_MODE_SEGMENTED_BINARY
+    })
+    @Retention(RetentionPolicy.SOURCE)
+    public @interface StorageMode { }
+
     private static final String XML_TAG_DOCUMENT_HEADER = "WifiConfigStoreData";
     private static final String XML_TAG_VERSION = "Version";
+    private static final String XML_TAG_GENERATION = "Generation";
     private static final String XML_TAG_HEADER_INTEGRITY = "Integrity";
     /**
      * Current config store data version. This will be incremented for any additions.
@@ -229,6 +263,35 @@ public class WifiConfigStore {
      * List of data containers.
      */
     private final List<StoreData> mStoreDataList;
+    /**
+     * Layout of the data in the store files.
+     */
+    private @StorageMode int mStorageMode = STORAGE_MODE_SINGLE_FILE;
+    /**
+     * Store files which were read from a layout other than |mStorageMode|. All their data is
+     * rewritten in the current layout on the next write, after which the old layout is deleted.
+     */
+    private final Set<StoreFile> mStoreFilesToMigrate = new HashSet<>();
+    /**
+     * Store files whose data was serialized in the current layout for migration, and whose old
+     * layout can be deleted once that data is written.
+     */
+    private final Set<StoreFile> mStoreFilesMigrating = new HashSet<>();
+    /**
+     * Manifest of the segments last read from or written to each store file.
+     */
+    private final Map<StoreFile, SegmentManifest> mManifests = new HashMap<>();
+    /**
+     * Manifest of the segments buffered for each store file, committed once they are written.
+     */
+    private final Map<StoreFile, SegmentManifest> mPendingManifests = new HashMap<>();
+    /**
+     * Generation recorded in each store file which was written while its segments still existed,
+     * i.e. by a migration from the segmented layout.
+     */
+    private final Map<StoreFile, Long> mStoreFileGenerations = new HashMap<>();
+    private long mNumSegmentsWritten = 0;
+    private long mNumSegmentWritesSkipped = 0;
 
     /**
      * Create a new instance of WifiConfigStore.
@@ -269,6 +332,21 @@ public class WifiConfigStore {
         mUserStores = userStores;
     }
 
+    /**
+     * Set the layout of the data in the store files. This needs to be set before the first read.
+     *
+     * Store files written in a different layout are still read, and migrated to the new layout
+     * on the next write.
+     */
+    public void setStorageMode(@StorageMode int storageMode) {
+        if (storageMode < STORAGE_MODE_SINGLE_FILE
+                || storageMode > STORAGE_MODE_SEGMENTED_BINARY) {
+            Log.e(TAG, "Invalid storage mode " + storageMode + ", using a single file");
+            storageMode = STORAGE_MODE_SINGLE_FILE;
+        }
+        mStorageMode = storageMode;
+    }
+
     /**
      * Register a {@link StoreData} to read/write data from/to a store. A {@link StoreData} is
      * responsible for a block of data in the store file, and provides serialization/deserialization
@@ -407,19 +485,11 @@ public class WifiConfigStore {
         // Serialize the provided data and send it to the respective stores. The actual write will
         // be performed later depending on the |forceSync| flag .
         for (StoreFile sharedStoreFile : mSharedStores) {
-            if (hasNewDataToSerialize(sharedStoreFile)) {
-                byte[] sharedDataBytes = serializeData(sharedStoreFile);
-                sharedStoreFile.storeRawDataToWrite(sharedDataBytes);
-                hasAnyNewData = true;
-            }
+            hasAnyNewData |= serializeStoreFile(sharedStoreFile);
         }
         if (mUserStores != null) {
             for (StoreFile userStoreFile : mUserStores) {
-                if (hasNewDataToSerialize(userStoreFile)) {
-                    byte[] userDataBytes = serializeData(userStoreFile);
-                    userStoreFile.storeRawDataToWrite(userDataBytes);
-                    hasAnyNewData = true;
-                }
+                hasAnyNewData |= serializeStoreFile(userStoreFile);
             }
         }
 
@@ -438,23 +508,104 @@ public class WifiConfigStore {
         }
     }
 
+    private boolean isSegmented() {
+        return mStorageMode != STORAGE_MODE_SINGLE_FILE;
+    }
+
     /**
-     * Serialize all the data from all the {@link StoreData} clients registered for the provided
-     * {@link StoreFile}.
+     * Serialize the new data of the {@link StoreData} clients registered for the provided
+     * {@link StoreFile} and buffer it in the store file, or in its segments.
      *
-     * This method also computes the integrity of the data being written and serializes the computed
-     * {@link EncryptedData} to the output.
+     * @return true if any data needs to be written.
+     */
+    private boolean serializeStoreFile(@NonNull StoreFile storeFile)
+            throws XmlPullParserException, IOException {
+        boolean migrate = mStoreFilesToMigrate.contains(storeFile);
+        if (migrate) {
+            mStoreFilesMigrating.add(storeFile);
+        }
+        if (!isSegmented()) {
+            if (!migrate && !hasNewDataToSerialize(storeFile)) {
+                return false;
+            }
+            // Only needed to tell which layout is newer while the segments still exist.
+            long generation = mManifests.containsKey(storeFile) ? nextGeneration(storeFile) : 0;
+            storeFile.storeRawDataToWrite(serializeData(storeFile,
+                    retrieveStoreDataListForStoreFile(storeFile), false, generation));
+            return true;
+        }
+        SegmentManifest manifest = mPendingManifests.get(storeFile);
+        if (manifest == null) {
+            SegmentManifest committed = mManifests.get(storeFile);
+            if (committed == null || migrate) {
+                // All the segments are written again, the ones of the other layout are dropped.
+                manifest = new SegmentManifest(nextGeneration(storeFile));
+            } else {
+                manifest = committed.next();
+            }
+        }
+        boolean hasNewData = false;
+        for (StoreData storeData : retrieveStoreDataListForStoreFile(storeFile)) {
+            if (!migrate && !storeData.hasNewDataToSerialize()) {
+                continue;
+            }
+            String name = storeData.getName();
+            byte[] data = serializeData(storeFile, Collections.singletonList(storeData),
+                    mStorageMode == STORAGE_MODE_SEGMENTED_BINARY, 0);
+            byte[] digest = computeDigest(data);
+            if (!migrate && digest != null && Arrays.equals(digest, manifest.getDigest(name))) {
+                // Same data as on disk, e.g because the store data always reports new data.
+                mNumSegmentWritesSkipped++;
+                continue;
+            }
+            // Each version of a segment goes to a new file, so that the committed manifest keeps
+            // pointing to complete segments until the new one is written.
+            String segmentName = manifest.newSegmentName(name);
+            storeFile.getSegment(segmentName).storeRawDataToWrite(data);
+            manifest.put(name, segmentName, digest);
+            hasNewData = true;
+        }
+        if (hasNewData) {
+            mPendingManifests.put(storeFile, manifest);
+        }
+        return hasNewData;
+    }
+
+    /**
+     * @return Generation of the next write of the provided {@link StoreFile}, in either layout:
+     * higher than the generation of its committed segments and of the store file.
+     */
+    private long nextGeneration(@NonNull StoreFile storeFile) {
+        SegmentManifest committed = mManifests.get(storeFile);
+        long generation = committed == null ? 0 : committed.getGeneration();
+        return Math.max(generation, mStoreFileGenerations.getOrDefault(storeFile, 0L)) + 1;
+    }
+
+    private static @Nullable byte[] computeDigest(@NonNull byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            Log.wtf(TAG, "SHA-256 not available", e);
+            return null;
+        }
+    }
+
+    /**
+     * Serialize all the data from the provided {@link StoreData} clients registered for the
+     * provided {@link StoreFile}.
      *
      * @param storeFile StoreFile that we want to write to.
+     * @param storeDataList StoreData clients to serialize.
+     * @param binary Whether to use the binary encoding instead of XML.
+     * @param generation Generation to record in the header, or 0 for none.
      * @return byte[] of serialized bytes
      * @throws XmlPullParserException
      * @throws IOException
      */
-    private byte[] serializeData(@NonNull StoreFile storeFile)
+    private byte[] serializeData(@NonNull StoreFile storeFile,
+            @NonNull List<StoreData> storeDataList, boolean binary, long generation)
             throws XmlPullParserException, IOException {
-        List<StoreData> storeDataList = retrieveStoreDataListForStoreFile(storeFile);
-
-        final XmlSerializer out = new FastXmlSerializer();
+        final XmlSerializer out = binary ? new BinaryXmlSerializer() : new FastXmlSerializer();
         final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         out.setOutput(outputStream, StandardCharsets.UTF_8.name());
 
@@ -462,6 +613,9 @@ public class WifiConfigStore {
         XmlUtil.writeDocumentStart(out, XML_TAG_DOCUMENT_HEADER);
         // Next version.
         XmlUtil.writeNextValue(out, XML_TAG_VERSION, CURRENT_CONFIG_STORE_DATA_VERSION);
+        if (generation > 0) {
+            XmlUtil.writeNextValue(out, XML_TAG_GENERATION, generation);
+        }
         for (StoreData storeData : storeDataList) {
             String tag = storeData.getName();
             XmlUtil.writeNextSectionStart(out, tag);
@@ -503,11 +657,11 @@ public class WifiConfigStore {
 
         long writeStartTime = mClock.getElapsedSinceBootMillis();
         for (StoreFile sharedStoreFile : mSharedStores) {
-            sharedStoreFile.writeBufferedRawData();
+            writeBufferedStoreFile(sharedStoreFile);
         }
         if (mUserStores != null) {
             for (StoreFile userStoreFile : mUserStores) {
-                userStoreFile.writeBufferedRawData();
+                writeBufferedStoreFile(userStoreFile);
             }
         }
         long writeTime = mClock.getElapsedSinceBootMillis() - writeStartTime;
@@ -519,6 +673,58 @@ public class WifiConfigStore {
         Log.d(TAG, "Writing to stores completed in " + writeTime + " ms.");
     }
 
+    /**
+     * Write the data buffered for the provided {@link StoreFile}, or for its segments. Once a
+     * store file which needs to be migrated is written, its old layout is deleted.
+     */
+    private void writeBufferedStoreFile(@NonNull StoreFile storeFile) throws IOException {
+        if (!isSegmented()) {
+            storeFile.writeBufferedRawData();
+        } else {
+            SegmentManifest manifest = mPendingManifests.get(storeFile);
+            if (manifest != null) {
+                writeSegments(storeFile, manifest);
+            }
+        }
+        if (mStoreFilesMigrating.remove(storeFile)) {
+            mStoreFilesToMigrate.remove(storeFile);
+            if (isSegmented()) {
+                storeFile.delete();
+            } else {
+                storeFile.deleteSegments();
+                mManifests.remove(storeFile);
+            }
+            mStoreFileGenerations.remove(storeFile);
+            Log.i(TAG, "Migrated " + storeFile.getName() + " to storage mode " + mStorageMode);
+        }
+    }
+
+    /**
+     * Write the buffered segments of the provided {@link StoreFile}, then commit them by writing
+     * their manifest. The segments replaced by the new manifest are deleted once it is written.
+     */
+    private void writeSegments(@NonNull StoreFile storeFile, @NonNull SegmentManifest manifest)
+            throws IOException {
+        SegmentManifest committed = mManifests.get(storeFile);
+        for (String segmentName : manifest.getSegmentNames()) {
+            if (committed != null && committed.containsSegment(segmentName)) continue;
+            storeFile.getSegment(segmentName).writeBufferedRawData();
+            mNumSegmentsWritten++;
+        }
+        StoreFile manifestFile = storeFile.getSegment(SegmentManifest.FILE_NAME);
+        manifestFile.storeRawDataToWrite(manifest.toBytes());
+        manifestFile.writeBufferedRawData();
+        mPendingManifests.remove(storeFile);
+        mManifests.put(storeFile, manifest);
+        if (committed != null) {
+            for (String segmentName : committed.getSegmentNames()) {
+                if (!manifest.containsSegment(segmentName)) {
+                    storeFile.deleteSegment(segmentName);
+                }
+            }
+        }
+    }
+
     /**
      * Note: This is a copy of {@link AtomicFile#readFully()} modified to use the passed in
      * {@link InputStream} which was returned using {@link AtomicFile#openRead()}.
@@ -689,6 +895,11 @@ public class WifiConfigStore {
 
         // Stop any pending buffered writes, if any.
         stopBufferedWriteAlarm();
+        if (mUserStores != null) {
+            for (StoreFile userStoreFile : mUserStores) {
+                forgetStoreFile(userStoreFile);
+            }
+        }
         mUserStores = userStores;
 
         // Now read from the user store files.
@@ -699,6 +910,17 @@ public class WifiConfigStore {
         Log.d(TAG, "Reading from user stores completed in " + readTime + " ms.");
     }
 
+    /**
+     * Drop the migration and segment state kept for a {@link StoreFile} which is no longer used.
+     */
+    private void forgetStoreFile(@NonNull StoreFile storeFile) {
+        mStoreFilesToMigrate.remove(storeFile);
+        mStoreFilesMigrating.remove(storeFile);
+        mManifests.remove(storeFile);
+        mPendingManifests.remove(storeFile);
+        mStoreFileGenerations.remove(storeFile);
+    }
+
     /**
      * Reset data for all {@link StoreData} instances registered for this {@link StoreFile}.
      */
@@ -720,26 +942,117 @@ public class WifiConfigStore {
     /**
      * Deserialize data from a {@link StoreFile} for all {@link StoreData} instances registered.
      *
-     * This method also computes the integrity of the incoming |dataBytes| and compare with
-     * {@link EncryptedData} parsed from |dataBytes|. If the integrity check fails, the data
-     * is discarded.
+     * The data is read from the segments listed in the manifest of the store file instead, if
+     * there is one and its generation is higher than the one recorded in the store file. Both
+     * layouts only exist together if a migration between them was interrupted, and the newer one
+     * is then the complete one. The
+     * store file is marked for migration if its data is not in the layout of the current storage
+     * mode, or if the other layout also exists.
      *
-     * @param dataBytes The data to parse
+     * Segments which are not listed in the manifest were left by an interrupted write, and are
+     * deleted.
+     *
+     * @param dataBytes The data of the store file, null if it does not exist.
      * @param storeFile StoreFile that we read from. Will be used to retrieve the list of clients
      *                  who have data to deserialize from this file.
      *
      * @throws XmlPullParserException
      * @throws IOException
      */
-    private void deserializeData(@NonNull byte[] dataBytes, @NonNull StoreFile storeFile)
+    private void deserializeData(@Nullable byte[] dataBytes, @NonNull StoreFile storeFile)
             throws XmlPullParserException, IOException {
         List<StoreData> storeDataList = retrieveStoreDataListForStoreFile(storeFile);
-        if (dataBytes == null) {
-            indicateNoDataForStoreDatas(storeDataList, -1 /* unknown */,
-                    storeFile.getEncryptionUtil());
-            return;
+        Set<StoreData> storeDatasInvoked = new HashSet<>();
+        @Version int version = -1 /* unknown */;
+        boolean needsMigration = false;
+        forgetStoreFile(storeFile);
+        StoreFile manifestFile = storeFile.getSegment(SegmentManifest.FILE_NAME);
+        byte[] manifestBytes = manifestFile.readRawData();
+        SegmentManifest manifest = null;
+        if (manifestBytes != null) {
+            manifest = SegmentManifest.fromBytes(manifestBytes);
+            // Kept even if the store file is newer, so that the next generation is higher.
+            mManifests.put(storeFile, manifest);
+        }
+        if (manifest != null && dataBytes != null) {
+            long storeFileGeneration = parseGenerationFromXml(dataBytes);
+            if (storeFileGeneration > 0) {
+                mStoreFileGenerations.put(storeFile, storeFileGeneration);
+            }
+        }
+        if (manifest != null && (dataBytes == null
+                || manifest.getGeneration() > mStoreFileGenerations.getOrDefault(storeFile, 0L))) {
+            for (String name : manifest.getStoreDataNames()) {
+                String segmentName = manifest.getSegmentName(name);
+                byte[] segmentBytes = storeFile.getSegment(segmentName).readRawData();
+                if (segmentBytes == null) {
+                    Log.e(TAG, "Missing segment " + segmentName + " of " + storeFile.getName());
+                    continue;
+                }
+                version = deserializeSections(segmentBytes, storeFile, storeDataList,
+                        storeDatasInvoked);
+                boolean binary = BinaryXmlPullParser.isBinaryXml(segmentBytes);
+                if (!isSegmented()
+                        || binary != (mStorageMode == STORAGE_MODE_SEGMENTED_BINARY)) {
+                    needsMigration = true;
+                } else {
+                    manifest.put(name, segmentName, computeDigest(segmentBytes));
+                }
+            }
+            // Also clean up the store file, if a migration from it was interrupted.
+            needsMigration |= dataBytes != null;
+            deleteOrphanedSegments(storeFile, manifest);
+        } else if (dataBytes != null) {
+            version = deserializeSections(dataBytes, storeFile, storeDataList, storeDatasInvoked);
+            // Also clean up any segments left over from the segmented mode.
+            needsMigration = isSegmented() || !storeFile.listSegments().isEmpty();
+        } else {
+            deleteOrphanedSegments(storeFile, null);
+        }
+        // Without any registered client, the data would not be written back in the new layout.
+        if (needsMigration && !storeDataList.isEmpty()) {
+            mStoreFilesToMigrate.add(storeFile);
+        }
+        // Inform all the other registered store data clients that there is nothing in the store
+        // for them.
+        Set<StoreData> storeDatasNotInvoked = new HashSet<>(storeDataList);
+        storeDatasNotInvoked.removeAll(storeDatasInvoked);
+        indicateNoDataForStoreDatas(storeDatasNotInvoked, version, storeFile.getEncryptionUtil());
+    }
+
+    /**
+     * Delete the segments of a store file which are not listed in its manifest, i.e which were
+     * written but never committed.
+     */
+    private void deleteOrphanedSegments(@NonNull StoreFile storeFile,
+            @Nullable SegmentManifest manifest) {
+        for (String segmentName : storeFile.listSegments()) {
+            if (SegmentManifest.FILE_NAME.equals(segmentName)
+                    || (manifest != null && manifest.containsSegment(segmentName))) {
+                continue;
+            }
+            Log.w(TAG, "Deleting orphaned segment " + segmentName + " of "
+                    + storeFile.getName());
+            storeFile.deleteSegment(segmentName);
         }
-        final XmlPullParser in = Xml.newPullParser();
+    }
+
+    /**
+     * Deserialize the sections of a single document, written as XML or with
+     * {@link BinaryXmlSerializer}.
+     *
+     * @param dataBytes The data to parse
+     * @param storeFile StoreFile that we read from.
+     * @param storeDataList Clients registered for the store file.
+     * @param storeDatasInvoked Set to add the clients which found their section to.
+     * @return version of the document.
+     */
+    private @Version int deserializeSections(@NonNull byte[] dataBytes,
+            @NonNull StoreFile storeFile, @NonNull List<StoreData> storeDataList,
+            @NonNull Set<StoreData> storeDatasInvoked)
+            throws XmlPullParserException, IOException {
+        final XmlPullParser in = BinaryXmlPullParser.isBinaryXml(dataBytes)
+                ? new BinaryXmlPullParser() : Xml.newPullParser();
         final ByteArrayInputStream inputStream = new ByteArrayInputStream(dataBytes);
         in.setInput(inputStream, StandardCharsets.UTF_8.name());
 
@@ -754,8 +1067,11 @@ public class WifiConfigStore {
         }
 
         String[] headerName = new String[1];
-        Set<StoreData> storeDatasInvoked = new HashSet<>();
         while (XmlUtil.gotoNextSectionOrEnd(in, headerName, rootTagDepth)) {
+            if (XML_TAG_GENERATION.equals(in.getAttributeValue(null, "name"))) {
+                // Parsed with the header, see parseGenerationFromXml().
+                continue;
+            }
             // There can only be 1 store data matching the tag, O indicates a previous StoreData
             // module that no longer exists (ignore this XML section).
             StoreData storeData = storeDataList.stream()
@@ -771,11 +1087,7 @@ public class WifiConfigStore {
                     storeFile.getEncryptionUtil(), headerName[0]);
             storeDatasInvoked.add(storeData);
         }
-        // Inform all the other registered store data clients that there is nothing in the store
-        // for them.
-        Set<StoreData> storeDatasNotInvoked = new HashSet<>(storeDataList);
-        storeDatasNotInvoked.removeAll(storeDatasInvoked);
-        indicateNoDataForStoreDatas(storeDatasNotInvoked, version, storeFile.getEncryptionUtil());
+        return version;
     }
 
     /**
@@ -795,6 +1107,29 @@ public class WifiConfigStore {
         return version;
     }
 
+    /**
+     * Parse the generation recorded in the header of a store file, which is only there if the
+     * store file was written while its segments still existed.
+     *
+     * @param dataBytes The data of the store file.
+     * @return generation of the store file, or 0 if none is recorded.
+     */
+    private static long parseGenerationFromXml(@NonNull byte[] dataBytes)
+            throws XmlPullParserException, IOException {
+        final XmlPullParser in = BinaryXmlPullParser.isBinaryXml(dataBytes)
+                ? new BinaryXmlPullParser() : Xml.newPullParser();
+        in.setInput(new ByteArrayInputStream(dataBytes), StandardCharsets.UTF_8.name());
+
+        int rootTagDepth = in.getDepth() + 1;
+        XmlUtil.gotoDocumentStart(in, XML_TAG_DOCUMENT_HEADER);
+        parseVersionFromXml(in);
+        if (XmlUtil.nextElementWithin(in, rootTagDepth)
+                && XML_TAG_GENERATION.equals(in.getAttributeValue(null, "name"))) {
+            return XmlUtil.readCurrentLongValue(in);
+        }
+        return 0;
+    }
+
     /**
      * Parse the integrity data structure from the XML stream and discard it.
      *
@@ -812,6 +1147,9 @@ public class WifiConfigStore {
      */
     public void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
         pw.println("Dump of WifiConfigStore");
+        pw.println("WifiConfigStore - Storage mode: " + mStorageMode);
+        pw.println("WifiConfigStore - Segments written: " + mNumSegmentsWritten
+                + ", segment writes skipped: " + mNumSegmentWritesSkipped);
         pw.println("WifiConfigStore - Store File Begin ----");
         Stream.of(mSharedStores, mUserStores)
                 .filter(Objects::nonNull)
@@ -835,6 +1173,122 @@ public class WifiConfigStore {
         pw.println("WifiConfigStore - Store Data End ----");
     }
 
+    /**
+     * Manifest of the segments of a {@link StoreFile}, which commits them.
+     *
+     * Each version of a segment is written to a new file, named after its {@link StoreData} and
+     * the generation of the manifest it was written for. The segments only replace the previous
+     * ones once the manifest listing them is written, so an interrupted write never leaves a mix
+     * of old and new segments.
+     */
+    private static class SegmentManifest {
+        /**
+         * Name of the manifest in the segments of a store file.
+         */
+        static final String FILE_NAME = "manifest";
+
+        private final long mGeneration;
+        /**
+         * Name of the segment file of each {@link StoreData}, by name of the store data.
+         */
+        private final Map<String, String> mSegmentNames = new HashMap<>();
+        /**
+         * Digest of the data of each segment, if known, by name of the store data.
+         */
+        private final Map<String, byte[]> mDigests = new HashMap<>();
+
+        SegmentManifest(long generation) {
+            mGeneration = generation;
+        }
+
+        long getGeneration() {
+            return mGeneration;
+        }
+
+        /**
+         * @return Manifest of the next generation, listing the same segments.
+         */
+        SegmentManifest next() {
+            SegmentManifest next = new SegmentManifest(mGeneration + 1);
+            next.mSegmentNames.putAll(mSegmentNames);
+            next.mDigests.putAll(mDigests);
+            return next;
+        }
+
+        /**
+         * @return Name of the file to write a new version of the segment of |storeDataName| to.
+         */
+        String newSegmentName(@NonNull String storeDataName) {
+            return storeDataName + "." + mGeneration;
+        }
+
+        void put(@NonNull String storeDataName, @NonNull String segmentName,
+                @Nullable byte[] digest) {
+            mSegmentNames.put(storeDataName, segmentName);
+            if (digest != null) {
+                mDigests.put(storeDataName, digest);
+            } else {
+                mDigests.remove(storeDataName);
+            }
+        }
+
+        @Nullable String getSegmentName(@NonNull String storeDataName) {
+            return mSegmentNames.get(storeDataName);
+        }
+
+        @Nullable byte[] getDigest(@NonNull String storeDataName) {
+            return mDigests.get(storeDataName);
+        }
+
+        Collection<String> getStoreDataNames() {
+            return mSegmentNames.keySet();
+        }
+
+        Collection<String> getSegmentNames() {
+            return mSegmentNames.values();
+        }
+
+        boolean containsSegment(@NonNull String segmentName) {
+            return mSegmentNames.containsValue(segmentName);
+        }
+
+        /**
+         * Serialize the manifest: the generation, then the name of each segment file, one per
+         * line.
+         */
+        byte[] toBytes() {
+            StringBuilder sb = new StringBuilder().append(mGeneration).append('\n');
+            for (String segmentName : mSegmentNames.values()) {
+                sb.append(segmentName).append('\n');
+            }
+            return sb.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Parse a manifest serialized with {@link #toBytes()}.
+         *
+         * @throws IOException if the manifest is malformed.
+         */
+        static SegmentManifest fromBytes(@NonNull byte[] data) throws IOException {
+            String[] lines = new String(data, StandardCharsets.UTF_8).split("\n");
+            SegmentManifest manifest;
+            try {
+                manifest = new SegmentManifest(Long.parseLong(lines[0]));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed segment manifest", e);
+            }
+            for (int i = 1; i < lines.length; i++) {
+                String segmentName = lines[i];
+                int generation = segmentName.lastIndexOf('.');
+                if (generation <= 0) {
+                    throw new IOException("Malformed segment name " + segmentName);
+                }
+                manifest.mSegmentNames.put(segmentName.substring(0, generation), segmentName);
+            }
+            return manifest;
+        }
+    }
+
     /**
      * Class to encapsulate all file writes. This is a wrapper over {@link AtomicFile} to write/read
      * raw data from the persistent file with integrity. This class provides helper methods to
@@ -847,6 +1301,11 @@ public class WifiConfigStore {
          * File permissions to lock down the file.
          */
         private static final int FILE_MODE = 0600;
+        /**
+         * Suffix of the directory holding the segments of the store file, which replaces the
+         * extension of the store file.
+         */
+        private static final String SEGMENT_DIR_SUFFIX = ".segments";
         /**
          * The store file to be written to.
          */
@@ -871,6 +1330,10 @@ public class WifiConfigStore {
          * Integrity checking for the store file.
          */
         private final WifiConfigStoreEncryptionUtil mEncryptionUtil;
+        /**
+         * Segments of the store file, by name.
+         */
+        private final Map<String, StoreFile> mSegments = new HashMap<>();
 
         public StoreFile(File file, @StoreFileId int fileId,
                 @NonNull UserHandle userHandle,
@@ -950,6 +1413,80 @@ public class WifiConfigStore {
             // Reset the pending write data after write.
             mWriteData = null;
         }
+
+        /**
+         * Delete the store file.
+         */
+        public void delete() {
+            mAtomicFile.delete();
+        }
+
+        private File getSegmentDirectory() {
+            File baseFile = mAtomicFile.getBaseFile();
+            String name = baseFile.getName();
+            int extension = name.lastIndexOf('.');
+            if (extension > 0) {
+                name = name.substring(0, extension);
+            }
+            return new File(baseFile.getParentFile(), name + SEGMENT_DIR_SUFFIX);
+        }
+
+        /**
+         * Get the segment of this store file with the provided name. Segments are store files
+         * of their own, in a directory next to this store file, sharing its encryption util.
+         *
+         * @param name Name of the segment file.
+         */
+        public @NonNull StoreFile getSegment(@NonNull String name) {
+            StoreFile segment = mSegments.get(name);
+            if (segment == null) {
+                segment = new StoreFile(new File(getSegmentDirectory(), name), mFileId,
+                        mUserHandle, mEncryptionUtil);
+                mSegments.put(name, segment);
+            }
+            return segment;
+        }
+
+        /**
+         * @return Names of the segments of this store file present on disk.
+         */
+        public @NonNull List<String> listSegments() {
+            String[] names = getSegmentDirectory().list();
+            if (names == null) {
+                return Collections.emptyList();
+            }
+            List<String> segments = new ArrayList<>();
+            for (String name : names) {
+                // Skip the backup and temporary files of AtomicFile.
+                if (!name.endsWith(".bak") && !name.endsWith(".new")) {
+                    segments.add(name);
+                }
+            }
+            return segments;
+        }
+
+        /**
+         * Delete the segment of this store file with the provided name.
+         */
+        public void deleteSegment(@NonNull String name) {
+            getSegment(name).delete();
+            mSegments.remove(name);
+        }
+
+        /**
+         * Delete all the segments of this store file. The manifest is deleted first, so that a
+         * partially deleted set of segments is never read back.
+         */
+        public void deleteSegments() {
+            deleteSegment(SegmentManifest.FILE_NAME);
+            for (String name : listSegments()) {
+                deleteSegment(name);
+            }
+            File segmentDir = getSegmentDirectory();
+            if (segmentDir.exists() && !segmentDir.delete()) {
+                Log.w(TAG, "Could not delete segment directory " + segmentDir);
+            }
+        }
     }
 
     /**
@@ -62,6 +62,7 @@ import android.util.Log;
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.modules.utils.HandlerExecutor;
 import com.android.modules.utils.build.SdkLevel;
+import com.android.server.wifi.NetworkFrequencyIndex.FrequencySet;
 import com.android.server.wifi.hotspot2.PasspointManager;
 import com.android.wifi.resources.R;
 
@@ -562,6 +563,9 @@ public class WifiConnectivityManager {
 
         localLog(listenerName + " onResults: start network selection");
 
+        // Drop the ANQP requests queued for the previous scan results, once per scan, before the
+        // network nominators match the new ones with the Passpoint providers.
+        mPasspointManager.onNewScanResults();
         List<WifiCandidates.Candidate> candidates = mNetworkSelector.getCandidatesFromScan(
                 scanDetails, bssidBlocklist, cmmStates, mUntrustedConnectionAllowed,
                 mOemPaidConnectionAllowed, mOemPrivateConnectionAllowed,
@@ -1679,7 +1683,7 @@ public class WifiConnectivityManager {
     // If connected, return channels used for the connected network
     // If disconnected, return channels used for any network.
     private boolean setScanChannels(ScanSettings settings) {
-        Set<Integer> freqs;
+        int[] freqs;
 
         WifiConfiguration config = getPrimaryClientModeManager().getConnectedWifiConfiguration();
         if (config == null) {
@@ -1692,11 +1696,10 @@ public class WifiConnectivityManager {
             freqs = fetchChannelSetForNetworkForPartialScan(config.networkId);
         }
 
-        if (freqs != null && freqs.size() != 0) {
-            int index = 0;
-            settings.channels = new WifiScanner.ChannelSpec[freqs.size()];
-            for (Integer freq : freqs) {
-                settings.channels[index++] = new WifiScanner.ChannelSpec(freq);
+        if (freqs != null && freqs.length != 0) {
+            settings.channels = new WifiScanner.ChannelSpec[freqs.length];
+            for (int i = 0; i < freqs.length; i++) {
+                settings.channels[i] = new WifiScanner.ChannelSpec(freqs[i]);
             }
             return true;
         } else {
@@ -1709,21 +1712,18 @@ public class WifiConnectivityManager {
      * Add the channels into the channel set with a size limit.
      * If maxCount equals to 0, will add all available channels into the set.
      * @param channelSet Target set for adding channel to.
-     * @param ssid Identifies the network to obtain from WifiScoreCard.
+     * @param ssid Identifies the network to obtain from the WifiScoreCard frequency index.
      * @param maxCount Size limit of the set. If equals to 0, means no limit.
      * @param ageInMillis Only consider channel info whose timestamps are younger than this value.
      * @return True if all available channels for this network are added, otherwise false.
      */
-    private boolean addChannelFromWifiScoreCard(@NonNull Set<Integer> channelSet,
+    private boolean addChannelFromWifiScoreCard(@NonNull FrequencySet channelSet,
             @NonNull String ssid, int maxCount, long ageInMillis) {
-        WifiScoreCard.PerNetwork network = mWifiScoreCard.lookupNetwork(ssid);
-        for (Integer channel : network.getFrequencies(ageInMillis)) {
-            if (maxCount > 0 && channelSet.size() >= maxCount) {
-                localLog("addChannelFromWifiScoreCard: size limit reached for network:"
-                        + ssid);
-                return false;
-            }
-            channelSet.add(channel);
+        if (!mWifiScoreCard.getFrequencyIndex().addFrequenciesTo(channelSet, ssid, ageInMillis,
+                maxCount)) {
+            localLog("addChannelFromWifiScoreCard: size limit reached for network:"
+                    + ssid);
+            return false;
         }
         return true;
     }
@@ -1732,14 +1732,14 @@ public class WifiConnectivityManager {
      * Fetch channel set for target network.
      */
     @VisibleForTesting
-    public Set<Integer> fetchChannelSetForNetworkForPartialScan(int networkId) {
+    public int[] fetchChannelSetForNetworkForPartialScan(int networkId) {
         WifiConfiguration config = mConfigManager.getConfiguredNetwork(networkId);
         if (config == null) {
             return null;
         }
         final int maxNumActiveChannelsForPartialScans = mContext.getResources().getInteger(
                 R.integer.config_wifi_framework_associated_partial_scan_max_num_active_channels);
-        Set<Integer> channelSet = new HashSet<>();
+        FrequencySet channelSet = new FrequencySet();
         WifiInfo wifiInfo = getPrimaryWifiInfo();
         // First add the currently connected network channel.
         if (wifiInfo.getFrequency() > 0) {
@@ -1748,14 +1748,14 @@ public class WifiConnectivityManager {
         // Then get channels for the network.
         addChannelFromWifiScoreCard(channelSet, config.SSID, maxNumActiveChannelsForPartialScans,
                 CHANNEL_LIST_AGE_MS);
-        return channelSet;
+        return channelSet.toArray();
     }
 
     /**
      * Fetch channel set for all saved and suggestion non-passpoint network for partial scan.
      */
     @VisibleForTesting
-    public Set<Integer> fetchChannelSetForPartialScan(int maxCount, long ageInMillis) {
+    public int[] fetchChannelSetForPartialScan(int maxCount, long ageInMillis) {
         List<WifiConfiguration> networks = getAllScanOptimizationNetworks();
         if (networks.isEmpty()) {
             return null;
@@ -1764,15 +1764,15 @@ public class WifiConnectivityManager {
         // Sort the networks with the most frequent ones at the front of the network list.
         Collections.sort(networks, mConfigManager.getScanListComparator());
 
-        Set<Integer> channelSet = new HashSet<>();
+        FrequencySet channelSet = new FrequencySet();
 
         for (WifiConfiguration config : networks) {
             if (!addChannelFromWifiScoreCard(channelSet, config.SSID, maxCount, ageInMillis)) {
-                return channelSet;
+                break;
             }
         }
 
-        return channelSet;
+        return channelSet.toArray();
     }
 
     // Watchdog timer handler
@@ -2271,11 +2271,13 @@ public class WifiConnectivityManager {
             if (!pnoFrequencyCullingEnabled) {
                 continue;
             }
-            Set<Integer> channelList = new HashSet<>();
+            FrequencySet channelList = new FrequencySet();
             addChannelFromWifiScoreCard(channelList, ssid, 0,
                     MAX_PNO_SCAN_FREQUENCY_AGE_MS);
-            channelList.addAll(externalRequestedPnoFrequencies);
-            pnoNetwork.frequencies = channelList.stream().mapToInt(Integer::intValue).toArray();
+            for (int frequency : externalRequestedPnoFrequencies) {
+                channelList.add(frequency);
+            }
+            pnoNetwork.frequencies = channelList.toArray();
         }
         for (WifiConfiguration config : networks) {
             if (pnoSet.contains(config.SSID)) {
@@ -2288,10 +2290,9 @@ public class WifiConnectivityManager {
             if (!pnoFrequencyCullingEnabled) {
                 continue;
             }
-            Set<Integer> channelList = new HashSet<>();
-            addChannelFromWifiScoreCard(channelList, config.SSID, 0,
-                    MAX_PNO_SCAN_FREQUENCY_AGE_MS);
-            pnoNetwork.frequencies = channelList.stream().mapToInt(Integer::intValue).toArray();
+            // The frequencies of a network are distinct, most recent first.
+            pnoNetwork.frequencies = mWifiScoreCard.getFrequencyIndex().getFrequencies(
+                    config.SSID, MAX_PNO_SCAN_FREQUENCY_AGE_MS);
         }
         return pnoList;
     }
@@ -30,6 +30,7 @@ import android.util.SparseLongArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.server.wifi.util.ByteArrayRingBuffer;
+import com.android.server.wifi.util.CompressedByteArrayRingBuffer;
 import com.android.server.wifi.util.StringUtil;
 import com.android.wifi.resources.R;
 
@@ -151,6 +152,7 @@ public class WifiDiagnostics {
     private String mDriverVersion;
     private int mSupportedFeatureSet;
     private int mMaxRingBufferSizeBytes;
+    private boolean mRingBufferCompressionEnabled;
 
     /** Interfaces started logging */
     private final Set<String> mActiveInterfaces = new ArraySet<>();
@@ -385,6 +387,8 @@ public class WifiDiagnostics {
         long kernelTimeNanos;
         int errorCode;
         HashMap<String, byte[][]> ringBuffers = new HashMap();
+        // zlib streams of the compressed ring buffers.
+        HashMap<String, byte[]> compressedRingBuffers = new HashMap<>();
         byte[] fwMemoryDump;
         byte[] mDriverStateDump;
         byte[] alertData;
@@ -458,6 +462,12 @@ public class WifiDiagnostics {
                 builder.append("\n");
             }
 
+            for (HashMap.Entry<String, byte[]> e : compressedRingBuffers.entrySet()) {
+                builder.append("ring-buffer = ").append(e.getKey()).append("\n");
+                builder.append(Base64.encodeToString(e.getValue(), Base64.DEFAULT));
+                builder.append("\n");
+            }
+
             if (fwMemoryDump != null) {
                 builder.append(FIRMWARE_DUMP_SECTION_HEADER);
                 builder.append("\n");
@@ -509,6 +519,8 @@ public class WifiDiagnostics {
     private final LimitedCircularArray<BugReport> mLastBugReports =
             new LimitedCircularArray<BugReport>(MAX_BUG_REPORTS);
     private final HashMap<String, ByteArrayRingBuffer> mRingBufferData = new HashMap();
+    private final HashMap<String, CompressedByteArrayRingBuffer> mCompressedRingBufferData =
+            new HashMap<>();
 
     private final WifiNative.WifiLoggerEventHandler mHandler =
             new WifiNative.WifiLoggerEventHandler() {
@@ -524,6 +536,11 @@ public class WifiDiagnostics {
     };
 
     synchronized void onRingBufferData(WifiNative.RingBufferStatus status, byte[] buffer) {
+        CompressedByteArrayRingBuffer compressedRing = mCompressedRingBufferData.get(status.name);
+        if (compressedRing != null) {
+            compressedRing.appendBuffer(buffer);
+            return;
+        }
         ByteArrayRingBuffer ring = mRingBufferData.get(status.name);
         if (ring != null) {
             ring.appendBuffer(buffer);
@@ -584,9 +601,16 @@ public class WifiDiagnostics {
 
         mRingBuffers = mWifiNative.getRingBufferStatus();
         if (mRingBuffers != null) {
+            mRingBufferCompressionEnabled = mContext.getResources().getBoolean(
+                    R.bool.config_wifiLoggerRingBufferCompressionEnabled);
             for (WifiNative.RingBufferStatus buffer : mRingBuffers) {
                 if (DBG) mLog.trace("RingBufferStatus is: %").c(buffer.name).flush();
-                if (mRingBufferData.containsKey(buffer.name) == false) {
+                if (mRingBufferCompressionEnabled) {
+                    if (!mCompressedRingBufferData.containsKey(buffer.name)) {
+                        mCompressedRingBufferData.put(buffer.name,
+                                new CompressedByteArrayRingBuffer(mMaxRingBufferSizeBytes));
+                    }
+                } else if (mRingBufferData.containsKey(buffer.name) == false) {
                     mRingBufferData.put(buffer.name,
                             new ByteArrayRingBuffer(mMaxRingBufferSizeBytes));
                 }
@@ -605,6 +629,10 @@ public class WifiDiagnostics {
         for (ByteArrayRingBuffer byteArrayRingBuffer : mRingBufferData.values()) {
             byteArrayRingBuffer.resize(mMaxRingBufferSizeBytes);
         }
+        for (CompressedByteArrayRingBuffer compressedRingBuffer
+                : mCompressedRingBufferData.values()) {
+            compressedRingBuffer.resize(mMaxRingBufferSizeBytes);
+        }
     }
 
     private void startLoggingRingBuffers() {
@@ -707,6 +735,12 @@ public class WifiDiagnostics {
                 for (WifiNative.RingBufferStatus buffer : mRingBuffers) {
                     /* this will push data in mRingBuffers */
                     mWifiNative.getRingBufferData(buffer.name);
+                    if (mRingBufferCompressionEnabled) {
+                        // Already compressed, only the current frame needs to be compressed.
+                        report.compressedRingBuffers.put(buffer.name,
+                                mCompressedRingBufferData.get(buffer.name).getCompressedData());
+                        continue;
+                    }
                     ByteArrayRingBuffer data = mRingBufferData.get(buffer.name);
                     byte[][] buffers = new byte[data.getNumBuffers()][];
                     for (int i = 0; i < data.getNumBuffers(); i++) {
@@ -55,6 +55,8 @@ public class WifiGlobals {
     // This is read from the overlay, cache it after boot up.
     private final boolean mFlushAnqpCacheOnWifiToggleOffEvent;
     // This is read from the overlay, cache it after boot up.
+    private final boolean mPasspointAnqpCachePersistenceEnabled;
+    // This is read from the overlay, cache it after boot up.
     private final boolean mIsWpa3SaeH2eSupported;
     // This is read from the overlay, cache it after boot up.
     private final String mP2pDeviceNamePrefix;
@@ -84,6 +86,8 @@ public class WifiGlobals {
                 .getBoolean(R.bool.config_wifiOweUpgradeEnabled);
         mFlushAnqpCacheOnWifiToggleOffEvent = mContext.getResources()
                 .getBoolean(R.bool.config_wifiFlushAnqpCacheOnWifiToggleOffEvent);
+        mPasspointAnqpCachePersistenceEnabled = mContext.getResources()
+                .getBoolean(R.bool.config_wifiPasspointAnqpCachePersistenceEnabled);
         mIsWpa3SaeH2eSupported = mContext.getResources()
                 .getBoolean(R.bool.config_wifiSaeH2eSupported);
         mP2pDeviceNamePrefix = mContext.getResources()
@@ -198,6 +202,16 @@ public class WifiGlobals {
         return mFlushAnqpCacheOnWifiToggleOffEvent;
     }
 
+    /**
+     * Helper method to check if the Passpoint ANQP cache is persisted, in which case the ANQP
+     * elements need to keep the payload they were parsed from.
+     *
+     * @return boolean true if the ANQP cache is persisted, false otherwise.
+     */
+    public boolean isPasspointAnqpCachePersistenceEnabled() {
+        return mPasspointAnqpCachePersistenceEnabled;
+    }
+
     /*
      * Help method to check if WPA3 SAE Hash-to-Element is supported on this device.
      *
@@ -272,6 +286,8 @@ public class WifiGlobals {
         pw.println("mIsWpa3SaeUpgradeOffloadEnabled=" + mIsWpa3SaeUpgradeOffloadEnabled);
         pw.println("mIsOweUpgradeEnabled=" + mIsOweUpgradeEnabled);
         pw.println("mFlushAnqpCacheOnWifiToggleOffEvent=" + mFlushAnqpCacheOnWifiToggleOffEvent);
+        pw.println("mPasspointAnqpCachePersistenceEnabled="
+                + mPasspointAnqpCachePersistenceEnabled);
         pw.println("mIsWpa3SaeH2eSupported=" + mIsWpa3SaeH2eSupported);
         pw.println("mP2pDeviceNamePrefix=" + mP2pDeviceNamePrefix);
         pw.println("mP2pDeviceNamePostfixNumDigits=" + mP2pDeviceNamePostfixNumDigits);
@@ -64,6 +64,7 @@ import com.android.server.wifi.util.LastCallerInfoManager;
 import com.android.server.wifi.util.LruConnectionTracker;
 import com.android.server.wifi.util.NetdWrapper;
 import com.android.server.wifi.util.SettingsMigrationDataHolder;
+import com.android.server.wifi.util.WifiConfigStoreEncryptionUtil;
 import com.android.server.wifi.util.WifiPermissionsUtil;
 import com.android.server.wifi.util.WifiPermissionsWrapper;
 import com.android.server.wifi.util.WorkSourceHelper;
@@ -153,8 +154,10 @@ public class WifiInjector {
     private final WifiApConfigStore mWifiApConfigStore;
     private final WifiNative mWifiNative;
     private final WifiMonitor mWifiMonitor;
+    @Nullable private final ConnectionEventJournal mConnectionEventJournal;
     private final WifiP2pNative mWifiP2pNative;
     private final WifiP2pMonitor mWifiP2pMonitor;
+    private final PmkCacheManager mPmkCacheManager;
     private final SupplicantStaIfaceHal mSupplicantStaIfaceHal;
     private final SupplicantP2pIfaceHal mSupplicantP2pIfaceHal;
     private final HostapdHal mHostapdHal;
@@ -294,6 +297,10 @@ public class WifiInjector {
         mWifiP2pMetrics = new WifiP2pMetrics(mClock);
         mDppMetrics = new DppMetrics();
         mWifiMonitor = new WifiMonitor();
+        mConnectionEventJournal = mContext.getResources().getBoolean(
+                R.bool.config_wifiConnectionEventJournalEnabled)
+                ? new ConnectionEventJournal(mClock) : null;
+        mWifiMonitor.setConnectionEventJournal(mConnectionEventJournal);
         mWifiMetrics = new WifiMetrics(mContext, mFrameworkFacade, mClock, wifiLooper,
                 awareMetrics, rttMetrics, new WifiPowerMetrics(mBatteryStats), mWifiP2pMetrics,
                 mDppMetrics, mWifiMonitor);
@@ -306,9 +313,10 @@ public class WifiInjector {
         mInterfaceConflictManager = new InterfaceConflictManager(mContext, mFrameworkFacade,
                 mHalDeviceManager, mWifiThreadRunner, mWifiDialogManager);
         mWifiVendorHal = new WifiVendorHal(mContext, mHalDeviceManager, wifiHandler, mWifiGlobals);
+        mPmkCacheManager = new PmkCacheManager(mClock, wifiHandler);
         mSupplicantStaIfaceHal = new SupplicantStaIfaceHal(
                 mContext, mWifiMonitor, mFrameworkFacade, wifiHandler, mClock, mWifiMetrics,
-                mWifiGlobals);
+                mWifiGlobals, mPmkCacheManager);
         mHostapdHal = new HostapdHal(mContext, wifiHandler);
         mWifiCondManager = (WifiNl80211Manager) mContext.getSystemService(
                 Context.WIFI_NL80211_SERVICE);
@@ -344,11 +352,13 @@ public class WifiInjector {
         // New config store
         mWifiConfigStore = new WifiConfigStore(mContext, wifiHandler, mClock, mWifiMetrics,
                 WifiConfigStore.createSharedFiles(mFrameworkFacade.isNiapModeOn(mContext)));
+        mWifiConfigStore.setStorageMode(mContext.getResources().getInteger(
+                R.integer.config_wifiConfigStoreStorageMode));
         mWifiCarrierInfoManager = new WifiCarrierInfoManager(makeTelephonyManager(),
                 subscriptionManager, this, mFrameworkFacade, mContext,
                 mWifiConfigStore, wifiHandler, mWifiMetrics, mClock);
         String l2KeySeed = Secure.getString(mContext.getContentResolver(), Secure.ANDROID_ID);
-        mWifiScoreCard = new WifiScoreCard(mClock, l2KeySeed, mDeviceConfigFacade,
+        mWifiScoreCard = new WifiScoreCard(mClock, wifiHandler, l2KeySeed, mDeviceConfigFacade,
                 mContext);
         mWifiMetrics.setWifiScoreCard(mWifiScoreCard);
         mLruConnectionTracker = new LruConnectionTracker(MAX_RECENTLY_CONNECTED_NETWORK,
@@ -378,6 +388,11 @@ public class WifiInjector {
                 new NetworkListUserStoreData(mContext),
                 new RandomizedMacStoreData(),
                 mLruConnectionTracker, this);
+        if (mContext.getResources().getBoolean(R.bool.config_wifiPmkCachePersistenceEnabled)) {
+            mPmkCacheManager.enablePersistence(mWifiConfigStore, mWifiConfigManager,
+                    new WifiConfigStoreEncryptionUtil(
+                            PmkCacheStoreData.ENCRYPTION_DATA_NAME));
+        }
         mSettingsConfigStore = new WifiSettingsConfigStore(context, wifiHandler,
                 mSettingsMigrationDataHolder, mWifiConfigManager, mWifiConfigStore);
         mSettingsStore = new WifiSettingsStore(mContext, mSettingsConfigStore);
@@ -1059,6 +1074,14 @@ public class WifiInjector {
         return mWifiDiagnostics;
     }
 
+    /**
+     * Returns the journal of the connection events, or null if it is disabled.
+     */
+    @Nullable
+    public ConnectionEventJournal getConnectionEventJournal() {
+        return mConnectionEventJournal;
+    }
+
     public WifiP2pConnection getWifiP2pConnection() {
         return mWifiP2pConnection;
     }
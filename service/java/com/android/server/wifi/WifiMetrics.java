@@ -123,6 +123,8 @@ import com.android.server.wifi.proto.nano.WifiMetricsProto.WifiUsabilityStats;
 import com.android.server.wifi.proto.nano.WifiMetricsProto.WifiUsabilityStatsEntry;
 import com.android.server.wifi.rtt.RttMetrics;
 import com.android.server.wifi.scanner.KnownBandsChannelHelper;
+import com.android.server.wifi.util.AtomicIntCounter;
+import com.android.server.wifi.util.EventRingBuffer;
 import com.android.server.wifi.util.InformationElementUtil;
 import com.android.server.wifi.util.IntCounter;
 import com.android.server.wifi.util.IntHistogram;
@@ -183,6 +185,14 @@ public class WifiMetrics {
     @VisibleForTesting
     static final int LOW_WIFI_USABILITY_SCORE = 50; // Mobile data score
     private final Object mLock = new Object();
+    /**
+     * Guards the state updated on every RSSI poll: the RSSI, link speed, score, throughput and
+     * channel utilization counters, the connection duration stats, the WifiUsabilityStats and the
+     * WifiIsUnusableEvents. The RSSI poll never acquires mLock, so that it never waits for a dump.
+     * Can be acquired while holding mLock, never the other way around, and is only held for
+     * short updates and snapshots.
+     */
+    private final Object mPollLock = new Object();
     private static final int MAX_CONNECTION_EVENTS = 256;
     // Largest bucket in the NumConnectableNetworkCount histogram,
     // anything large will be stored in this bucket
@@ -275,7 +285,9 @@ public class WifiMetrics {
 
     public static final int MAX_STA_EVENTS = 768;
     @VisibleForTesting static final int MAX_USER_ACTION_EVENTS = 200;
-    private LinkedList<StaEventWithTime> mStaEventList = new LinkedList<>();
+    /** StaEvents, with their wall clock time as timestamp. */
+    private final EventRingBuffer mStaEventList = new EventRingBuffer(MAX_STA_EVENTS, 0, 0, 1);
+    private static final int STA_EVENT_FIELD_EVENT = 0;
     private LinkedList<UserActionEventWithTime> mUserActionEventList = new LinkedList<>();
     private WifiStatusBuilder mWifiStatusBuilder = new WifiStatusBuilder();
     private int mLastPollRssi = -127;
@@ -315,11 +327,18 @@ public class WifiMetrics {
      * combination. Indexed by WifiLog.WifiState * (1 + screenOn)
      */
     private final SparseIntArray mWifiSystemStateEntries = new SparseIntArray();
-    /** Mapping of channel frequency to its RSSI distribution histogram **/
-    private final Map<Integer, SparseIntArray> mRssiPollCountsMap = new HashMap<>();
+    /**
+     * Mapping of channel frequency to its RSSI distribution histogram. Guarded by mPollLock, only
+     * for adding frequencies: the histograms are updated and drained without a lock.
+     **/
+    private final SparseArray<AtomicIntCounter> mRssiPollCountsMap = new SparseArray<>();
     /** Mapping of RSSI scan-poll delta values to counts. */
-    private final SparseIntArray mRssiDeltaCounts = new SparseIntArray();
-    /** Mapping of link speed values to LinkSpeedCount objects. */
+    private final AtomicIntCounter mRssiDeltaCounts =
+            new AtomicIntCounter(MIN_RSSI_DELTA, MAX_RSSI_DELTA);
+    /**
+     * Mapping of link speed values to LinkSpeedCount objects. Guarded by mPollLock, like the
+     * per-band Tx/Rx link speed counters below.
+     */
     private final SparseArray<LinkSpeedCount> mLinkSpeedCounts = new SparseArray<>();
 
     private final IntCounter mTxLinkSpeedCount2g = new IntCounter();
@@ -340,7 +359,7 @@ public class WifiMetrics {
 
     private final IntCounter mMakeBeforeBreakLingeringDurationSeconds = new IntCounter();
 
-    /** RSSI of the scan result for the last connection event*/
+    /** RSSI of the scan result for the last connection event. Guarded by mPollLock. */
     private int mScanResultRssi = 0;
     /** Boot-relative timestamp when the last candidate scanresult was received, used to calculate
         RSSI deltas. -1 designates no candidate scanResult being tracked */
@@ -419,6 +438,13 @@ public class WifiMetrics {
     private final IntHistogram mLinkProbeSuccessElapsedTimeMsHistogram = new IntHistogram(
             LINK_PROBE_ELAPSED_TIME_MS_HISTOGRAM_BUCKETS);
     private final IntCounter mLinkProbeFailureReasonCounts = new IntCounter();
+
+    private static final int[] SUPPLICANT_CONNECT_SETUP_LATENCY_US_HISTOGRAM_BUCKETS =
+            {500, 1000, 2000, 5000, 10000, 20000, 50000, 100000};
+    private final IntHistogram mSupplicantConnectSetupLatencyUsHistogram = new IntHistogram(
+            SUPPLICANT_CONNECT_SETUP_LATENCY_US_HISTOGRAM_BUCKETS);
+    private final IntHistogram mSupplicantConnectSetupLatencyUsFromPoolHistogram =
+            new IntHistogram(SUPPLICANT_CONNECT_SETUP_LATENCY_US_HISTOGRAM_BUCKETS);
     private final MeteredNetworkStatsBuilder mMeteredNetworkStatsBuilder =
             new MeteredNetworkStatsBuilder();
 
@@ -432,8 +458,15 @@ public class WifiMetrics {
 
     private final LinkedList<WifiUsabilityStatsEntry> mWifiUsabilityStatsEntriesList =
             new LinkedList<>();
-    private final LinkedList<WifiUsabilityStats> mWifiUsabilityStatsListBad = new LinkedList<>();
-    private final LinkedList<WifiUsabilityStats> mWifiUsabilityStatsListGood = new LinkedList<>();
+    /**
+     * WifiUsabilityStats by label, with the timestamp of their last WifiUsabilityStatsEntry as
+     * timestamp.
+     */
+    private final EventRingBuffer mWifiUsabilityStatsListBad =
+            new EventRingBuffer(MAX_WIFI_USABILITY_STATS_LIST_SIZE_PER_TYPE, 0, 0, 1);
+    private final EventRingBuffer mWifiUsabilityStatsListGood =
+            new EventRingBuffer(MAX_WIFI_USABILITY_STATS_LIST_SIZE_PER_TYPE, 0, 0, 1);
+    private static final int USABILITY_STATS_FIELD_STATS = 0;
     private int mWifiUsabilityStatsCounter = 0;
     private final Random mRand = new Random();
     private final RemoteCallbackList<IOnWifiUsabilityStatsListener> mOnWifiUsabilityListeners;
@@ -1843,7 +1876,9 @@ public class WifiMetrics {
                     mFirstConnectionAfterBoot;
             mFirstConnectionAfterBoot = false;
             mConnectionEventList.add(currentConnectionEvent);
-            mScanResultRssiTimestampMillis = -1;
+            synchronized (mPollLock) {
+                mScanResultRssiTimestampMillis = -1;
+            }
             if (config != null) {
                 try {
                     currentConnectionEvent.mAuthType = config.getAuthType();
@@ -1867,8 +1902,10 @@ public class WifiMetrics {
                     // Cache the RSSI of the candidate, as the connection event level is updated
                     // from other sources (polls, bssid_associations) and delta requires the
                     // scanResult rssi
-                    mScanResultRssi = candidate.level;
-                    mScanResultRssiTimestampMillis = mClock.getElapsedSinceBootMillis();
+                    synchronized (mPollLock) {
+                        mScanResultRssi = candidate.level;
+                        mScanResultRssiTimestampMillis = mClock.getElapsedSinceBootMillis();
+                    }
                 }
                 currentConnectionEvent.mConnectionEvent.numBssidInBlocklist =
                         mWifiBlocklistMonitor.updateAndGetNumBlockedBssidsForSsid(config.SSID);
@@ -2061,7 +2098,9 @@ public class WifiMetrics {
                 // ConnectionEvent already added to ConnectionEvents List. Safe to remove here.
                 mCurrentConnectionEventPerIface.remove(ifaceName);
                 if (!connectionSucceeded) {
-                    mScanResultRssiTimestampMillis = -1;
+                    synchronized (mPollLock) {
+                        mScanResultRssiTimestampMillis = -1;
+                    }
                 }
                 mWifiStatusBuilder.setConnected(connectionSucceeded);
             }
@@ -2577,15 +2616,17 @@ public class WifiMetrics {
         if (!isPrimary(ifaceName)) {
             return;
         }
-        mLastPollRssi = wifiInfo.getRssi();
-        mLastPollLinkSpeed = wifiInfo.getLinkSpeed();
-        mLastPollFreq = wifiInfo.getFrequency();
-        incrementRssiPollRssiCount(mLastPollFreq, mLastPollRssi);
-        incrementLinkSpeedCount(mLastPollLinkSpeed, mLastPollRssi);
-        mLastPollRxLinkSpeed = wifiInfo.getRxLinkSpeedMbps();
-        incrementTxLinkSpeedBandCount(mLastPollLinkSpeed, mLastPollFreq);
-        incrementRxLinkSpeedBandCount(mLastPollRxLinkSpeed, mLastPollFreq);
-        mWifiStatusBuilder.setRssi(mLastPollRssi);
+        synchronized (mPollLock) {
+            mLastPollRssi = wifiInfo.getRssi();
+            mLastPollLinkSpeed = wifiInfo.getLinkSpeed();
+            mLastPollFreq = wifiInfo.getFrequency();
+            incrementRssiPollRssiCount(mLastPollFreq, mLastPollRssi);
+            incrementLinkSpeedCount(mLastPollLinkSpeed, mLastPollRssi);
+            mLastPollRxLinkSpeed = wifiInfo.getRxLinkSpeedMbps();
+            incrementTxLinkSpeedBandCount(mLastPollLinkSpeed, mLastPollFreq);
+            incrementRxLinkSpeedBandCount(mLastPollRxLinkSpeed, mLastPollFreq);
+        }
+        mWifiStatusBuilder.setRssi(wifiInfo.getRssi());
         mWifiStatusBuilder.setNetworkId(wifiInfo.getNetworkId());
     }
 
@@ -2599,33 +2640,38 @@ public class WifiMetrics {
         if (!(rssi >= MIN_RSSI_POLL && rssi <= MAX_RSSI_POLL)) {
             return;
         }
-        synchronized (mLock) {
-            if (!mRssiPollCountsMap.containsKey(frequency)) {
-                mRssiPollCountsMap.put(frequency, new SparseIntArray());
+        AtomicIntCounter rssiPollCounts;
+        synchronized (mPollLock) {
+            rssiPollCounts = mRssiPollCountsMap.get(frequency);
+            if (rssiPollCounts == null) {
+                rssiPollCounts = new AtomicIntCounter(MIN_RSSI_POLL, MAX_RSSI_POLL);
+                mRssiPollCountsMap.put(frequency, rssiPollCounts);
             }
-            SparseIntArray sparseIntArray = mRssiPollCountsMap.get(frequency);
-            int count = sparseIntArray.get(rssi);
-            sparseIntArray.put(rssi, count + 1);
-            maybeIncrementRssiDeltaCount(rssi - mScanResultRssi);
         }
+        rssiPollCounts.increment(rssi);
+        maybeIncrementRssiDeltaCount(rssi);
     }
 
     /**
      * Increment occurence count of difference between scan result RSSI and the first RSSI poll.
      * Ignores rssi values outside the bounds of [MIN_RSSI_DELTA, MAX_RSSI_DELTA]
-     * mLock must be held when calling this method.
      */
-    private void maybeIncrementRssiDeltaCount(int rssi) {
-        // Check if this RSSI poll is close enough to a scan result RSSI to log a delta value
-        if (mScanResultRssiTimestampMillis >= 0) {
-            long timeDelta = mClock.getElapsedSinceBootMillis() - mScanResultRssiTimestampMillis;
-            if (timeDelta <= TIMEOUT_RSSI_DELTA_MILLIS) {
-                if (rssi >= MIN_RSSI_DELTA && rssi <= MAX_RSSI_DELTA) {
-                    int count = mRssiDeltaCounts.get(rssi);
-                    mRssiDeltaCounts.put(rssi, count + 1);
-                }
+    private void maybeIncrementRssiDeltaCount(int pollRssi) {
+        int rssi;
+        synchronized (mPollLock) {
+            // Check if this RSSI poll is close enough to a scan result RSSI to log a delta value
+            if (mScanResultRssiTimestampMillis < 0) {
+                return;
             }
+            long timeDelta = mClock.getElapsedSinceBootMillis() - mScanResultRssiTimestampMillis;
             mScanResultRssiTimestampMillis = -1;
+            if (timeDelta > TIMEOUT_RSSI_DELTA_MILLIS) {
+                return;
+            }
+            rssi = pollRssi - mScanResultRssi;
+        }
+        if (rssi >= MIN_RSSI_DELTA && rssi <= MAX_RSSI_DELTA) {
+            mRssiDeltaCounts.increment(rssi);
         }
     }
 
@@ -2642,7 +2688,7 @@ public class WifiMetrics {
                 && rssi <= MAX_RSSI_POLL)) {
             return;
         }
-        synchronized (mLock) {
+        synchronized (mPollLock) {
             LinkSpeedCount linkSpeedCount = mLinkSpeedCounts.get(linkSpeed);
             if (linkSpeedCount == null) {
                 linkSpeedCount = new LinkSpeedCount();
@@ -2655,6 +2701,34 @@ public class WifiMetrics {
         }
     }
 
+    /**
+     * Returns a copy of the RSSI poll counters per frequency. The counters themselves are shared.
+     */
+    private SparseArray<AtomicIntCounter> getRssiPollCountsSnapshot() {
+        synchronized (mPollLock) {
+            return mRssiPollCountsMap.clone();
+        }
+    }
+
+    /**
+     * Returns a copy of the link speed counts, in increasing link speed order.
+     */
+    private LinkSpeedCount[] getLinkSpeedCountsSnapshot() {
+        synchronized (mPollLock) {
+            LinkSpeedCount[] linkSpeedCounts = new LinkSpeedCount[mLinkSpeedCounts.size()];
+            for (int i = 0; i < mLinkSpeedCounts.size(); i++) {
+                LinkSpeedCount linkSpeedCount = mLinkSpeedCounts.valueAt(i);
+                LinkSpeedCount copy = new LinkSpeedCount();
+                copy.linkSpeedMbps = linkSpeedCount.linkSpeedMbps;
+                copy.count = linkSpeedCount.count;
+                copy.rssiSumDbm = linkSpeedCount.rssiSumDbm;
+                copy.rssiSumOfSquaresDbmSq = linkSpeedCount.rssiSumOfSquaresDbmSq;
+                linkSpeedCounts[i] = copy;
+            }
+            return linkSpeedCounts;
+        }
+    }
+
     /**
      * Increment occurrence count of Tx link speed for operating sub-band
      * Ignores link speed values that are lower than MIN_LINK_SPEED_MBPS
@@ -2667,7 +2741,7 @@ public class WifiMetrics {
                 && txLinkSpeed >= MIN_LINK_SPEED_MBPS)) {
             return;
         }
-        synchronized (mLock) {
+        synchronized (mPollLock) {
             if (ScanResult.is24GHz(frequency)) {
                 mTxLinkSpeedCount2g.increment(txLinkSpeed);
             } else if (frequency <= KnownBandsChannelHelper.BAND_5_GHZ_LOW_END_FREQ) {
@@ -2698,7 +2772,7 @@ public class WifiMetrics {
                 && rxLinkSpeed >= MIN_LINK_SPEED_MBPS)) {
             return;
         }
-        synchronized (mLock) {
+        synchronized (mPollLock) {
             if (ScanResult.is24GHz(frequency)) {
                 mRxLinkSpeedCount2g.increment(rxLinkSpeed);
             } else if (frequency <= KnownBandsChannelHelper.BAND_5_GHZ_LOW_END_FREQ) {
@@ -2728,7 +2802,7 @@ public class WifiMetrics {
                 || channelUtilization > InformationElementUtil.BssLoad.MAX_CHANNEL_UTILIZATION) {
             return;
         }
-        synchronized (mLock) {
+        synchronized (mPollLock) {
             if (ScanResult.is24GHz(frequency)) {
                 mChannelUtilizationHistogram2G.increment(channelUtilization);
             } else {
@@ -2746,7 +2820,7 @@ public class WifiMetrics {
     @VisibleForTesting
     public void incrementThroughputKbpsCount(int txThroughputKbps, int rxThroughputKbps,
             int frequency) {
-        synchronized (mLock) {
+        synchronized (mPollLock) {
             if (ScanResult.is24GHz(frequency)) {
                 if (txThroughputKbps >= 0) {
                     mTxThroughputMbpsHistogram2G.increment(txThroughputKbps / 1000);
@@ -2943,7 +3017,7 @@ public class WifiMetrics {
         if (score < MIN_WIFI_SCORE || score > MAX_WIFI_SCORE) {
             return;
         }
-        synchronized (mLock) {
+        synchronized (mPollLock) {
             int count = mWifiScoreCounts.get(score);
             mWifiScoreCounts.put(score, count + 1);
 
@@ -3818,9 +3892,10 @@ public class WifiMetrics {
 
                 try {
                     JSONObject rssiMap = new JSONObject();
-                    for (Map.Entry<Integer, SparseIntArray> entry : mRssiPollCountsMap.entrySet()) {
-                        int frequency = entry.getKey();
-                        final SparseIntArray histogram = entry.getValue();
+                    SparseArray<AtomicIntCounter> rssiPollCountsMap = getRssiPollCountsSnapshot();
+                    for (int j = 0; j < rssiPollCountsMap.size(); j++) {
+                        int frequency = rssiPollCountsMap.keyAt(j);
+                        final AtomicIntCounter histogram = rssiPollCountsMap.valueAt(j);
                         JSONArray histogramElements = new JSONArray();
                         for (int i = MIN_RSSI_POLL; i <= MAX_RSSI_POLL; i++) {
                             int count = histogram.get(i);
@@ -3847,8 +3922,7 @@ public class WifiMetrics {
                 pw.println("  " + sb.toString());
                 pw.println("mWifiLogProto.linkSpeedCounts: ");
                 sb.setLength(0);
-                for (int i = 0; i < mLinkSpeedCounts.size(); i++) {
-                    LinkSpeedCount linkSpeedCount = mLinkSpeedCounts.valueAt(i);
+                for (LinkSpeedCount linkSpeedCount : getLinkSpeedCountsSnapshot()) {
                     sb.append(linkSpeedCount.linkSpeedMbps).append(":{")
                             .append(linkSpeedCount.count).append(", ")
                             .append(linkSpeedCount.rssiSumDbm).append(", ")
@@ -3934,16 +4008,22 @@ public class WifiMetrics {
                         + mRecentFailureAssociationStatus.toString());
 
                 pw.println("mWifiLogProto.numScans=" + mWifiLogProto.numScans);
+                SparseIntArray wifiScoreCounts;
+                SparseIntArray wifiUsabilityScoreCounts;
+                synchronized (mPollLock) {
+                    wifiScoreCounts = mWifiScoreCounts.clone();
+                    wifiUsabilityScoreCounts = mWifiUsabilityScoreCounts.clone();
+                }
                 pw.println("mWifiLogProto.WifiScoreCount: [" + MIN_WIFI_SCORE + ", "
                         + MAX_WIFI_SCORE + "]");
                 for (int i = 0; i <= MAX_WIFI_SCORE; i++) {
-                    pw.print(mWifiScoreCounts.get(i) + " ");
+                    pw.print(wifiScoreCounts.get(i) + " ");
                 }
                 pw.println(); // add a line after wifi scores
                 pw.println("mWifiLogProto.WifiUsabilityScoreCount: [" + MIN_WIFI_USABILITY_SCORE
                         + ", " + MAX_WIFI_USABILITY_SCORE + "]");
                 for (int i = MIN_WIFI_USABILITY_SCORE; i <= MAX_WIFI_USABILITY_SCORE; i++) {
-                    pw.print(mWifiUsabilityScoreCounts.get(i) + " ");
+                    pw.print(wifiUsabilityScoreCounts.get(i) + " ");
                 }
                 pw.println(); // add a line after wifi usability scores
                 pw.println("mWifiLogProto.SoftApManagerReturnCodeCounts:");
@@ -3979,8 +4059,8 @@ public class WifiMetrics {
                 pw.println("mWifiLogProto.numSetupSoftApInterfaceFailureDueToHostapd="
                         + mWifiLogProto.numSetupSoftApInterfaceFailureDueToHostapd);
                 pw.println("StaEventList:");
-                for (StaEventWithTime event : mStaEventList) {
-                    pw.println(event);
+                synchronized (mStaEventList) {
+                    mStaEventList.dump(pw, WifiMetrics::formatStaEvent);
                 }
                 pw.println("UserActionEvents:");
                 for (UserActionEventWithTime event : mUserActionEventList) {
@@ -4223,33 +4303,33 @@ public class WifiMetrics {
                         + mExperimentValues.dataStallTxPerThr);
                 pw.println("mExperimentValues.dataStallCcaLevelThr="
                         + mExperimentValues.dataStallCcaLevelThr);
+                List<WifiIsUnusableWithTime> wifiIsUnusableList;
+                List<WifiUsabilityStatsEntry> wifiUsabilityStatsEntries = new ArrayList<>();
+                List<WifiUsabilityStats> wifiUsabilityStatsGood;
+                List<WifiUsabilityStats> wifiUsabilityStatsBad;
+                synchronized (mPollLock) {
+                    wifiIsUnusableList = new ArrayList<>(mWifiIsUnusableList);
+                    // The entries are recycled by the RSSI poll, so copy them.
+                    for (WifiUsabilityStatsEntry stats : mWifiUsabilityStatsEntriesList) {
+                        wifiUsabilityStatsEntries.add(createNewWifiUsabilityStatsEntry(stats));
+                    }
+                    wifiUsabilityStatsGood =
+                            getWifiUsabilityStatsList(mWifiUsabilityStatsListGood);
+                    wifiUsabilityStatsBad = getWifiUsabilityStatsList(mWifiUsabilityStatsListBad);
+                }
                 pw.println("WifiIsUnusableEventList: ");
-                for (WifiIsUnusableWithTime event : mWifiIsUnusableList) {
+                for (WifiIsUnusableWithTime event : wifiIsUnusableList) {
                     pw.println(event);
                 }
                 pw.println("Hardware Version: " + SystemProperties.get("ro.boot.revision", ""));
 
                 pw.println("mWifiUsabilityStatsEntriesList:");
-                for (WifiUsabilityStatsEntry stats : mWifiUsabilityStatsEntriesList) {
+                for (WifiUsabilityStatsEntry stats : wifiUsabilityStatsEntries) {
                     printWifiUsabilityStatsEntry(pw, stats);
                 }
                 pw.println("mWifiUsabilityStatsList:");
-                for (WifiUsabilityStats stats : mWifiUsabilityStatsListGood) {
-                    pw.println("\nlabel=" + stats.label);
-                    pw.println("\ntrigger_type=" + stats.triggerType);
-                    pw.println("\ntime_stamp_ms=" + stats.timeStampMs);
-                    for (WifiUsabilityStatsEntry entry : stats.stats) {
-                        printWifiUsabilityStatsEntry(pw, entry);
-                    }
-                }
-                for (WifiUsabilityStats stats : mWifiUsabilityStatsListBad) {
-                    pw.println("\nlabel=" + stats.label);
-                    pw.println("\ntrigger_type=" + stats.triggerType);
-                    pw.println("\ntime_stamp_ms=" + stats.timeStampMs);
-                    for (WifiUsabilityStatsEntry entry : stats.stats) {
-                        printWifiUsabilityStatsEntry(pw, entry);
-                    }
-                }
+                printWifiUsabilityStatsList(pw, wifiUsabilityStatsGood);
+                printWifiUsabilityStatsList(pw, wifiUsabilityStatsBad);
 
                 pw.println("mMobilityStatePnoStatsMap:");
                 for (int i = 0; i < mMobilityStatePnoStatsMap.size(); i++) {
@@ -4276,6 +4356,10 @@ public class WifiMetrics {
                 pw.println("mLinkProbeSuccessElapsedTimeMsHistogram:"
                         + mLinkProbeSuccessElapsedTimeMsHistogram);
                 pw.println("mLinkProbeFailureReasonCounts:" + mLinkProbeFailureReasonCounts);
+                pw.println("mSupplicantConnectSetupLatencyUsHistogram:"
+                        + mSupplicantConnectSetupLatencyUsHistogram);
+                pw.println("mSupplicantConnectSetupLatencyUsFromPoolHistogram:"
+                        + mSupplicantConnectSetupLatencyUsFromPoolHistogram);
                 pw.println("mLinkProbeExperimentProbeCounts:" + mLinkProbeExperimentProbeCounts);
 
                 pw.println("mNetworkSelectionExperimentPairNumChoicesCounts:"
@@ -4318,44 +4402,53 @@ public class WifiMetrics {
                 pw.println("mWifiLogProto.numEnableNetworkCalls="
                         + mWifiLogProto.numEnableNetworkCalls);
 
-                pw.println("mWifiLogProto.txLinkSpeedCount2g=" + mTxLinkSpeedCount2g);
-                pw.println("mWifiLogProto.txLinkSpeedCount5gLow=" + mTxLinkSpeedCount5gLow);
-                pw.println("mWifiLogProto.txLinkSpeedCount5gMid=" + mTxLinkSpeedCount5gMid);
-                pw.println("mWifiLogProto.txLinkSpeedCount5gHigh=" + mTxLinkSpeedCount5gHigh);
-                pw.println("mWifiLogProto.txLinkSpeedCount6gLow=" + mTxLinkSpeedCount6gLow);
-                pw.println("mWifiLogProto.txLinkSpeedCount6gMid=" + mTxLinkSpeedCount6gMid);
-                pw.println("mWifiLogProto.txLinkSpeedCount6gHigh=" + mTxLinkSpeedCount6gHigh);
-
-                pw.println("mWifiLogProto.rxLinkSpeedCount2g=" + mRxLinkSpeedCount2g);
-                pw.println("mWifiLogProto.rxLinkSpeedCount5gLow=" + mRxLinkSpeedCount5gLow);
-                pw.println("mWifiLogProto.rxLinkSpeedCount5gMid=" + mRxLinkSpeedCount5gMid);
-                pw.println("mWifiLogProto.rxLinkSpeedCount5gHigh=" + mRxLinkSpeedCount5gHigh);
-                pw.println("mWifiLogProto.rxLinkSpeedCount6gLow=" + mRxLinkSpeedCount6gLow);
-                pw.println("mWifiLogProto.rxLinkSpeedCount6gMid=" + mRxLinkSpeedCount6gMid);
-                pw.println("mWifiLogProto.rxLinkSpeedCount6gHigh=" + mRxLinkSpeedCount6gHigh);
+                synchronized (mPollLock) {
+                    pw.println("mWifiLogProto.txLinkSpeedCount2g=" + mTxLinkSpeedCount2g);
+                    pw.println("mWifiLogProto.txLinkSpeedCount5gLow=" + mTxLinkSpeedCount5gLow);
+                    pw.println("mWifiLogProto.txLinkSpeedCount5gMid=" + mTxLinkSpeedCount5gMid);
+                    pw.println("mWifiLogProto.txLinkSpeedCount5gHigh=" + mTxLinkSpeedCount5gHigh);
+                    pw.println("mWifiLogProto.txLinkSpeedCount6gLow=" + mTxLinkSpeedCount6gLow);
+                    pw.println("mWifiLogProto.txLinkSpeedCount6gMid=" + mTxLinkSpeedCount6gMid);
+                    pw.println("mWifiLogProto.txLinkSpeedCount6gHigh=" + mTxLinkSpeedCount6gHigh);
+
+                    pw.println("mWifiLogProto.rxLinkSpeedCount2g=" + mRxLinkSpeedCount2g);
+                    pw.println("mWifiLogProto.rxLinkSpeedCount5gLow=" + mRxLinkSpeedCount5gLow);
+                    pw.println("mWifiLogProto.rxLinkSpeedCount5gMid=" + mRxLinkSpeedCount5gMid);
+                    pw.println("mWifiLogProto.rxLinkSpeedCount5gHigh=" + mRxLinkSpeedCount5gHigh);
+                    pw.println("mWifiLogProto.rxLinkSpeedCount6gLow=" + mRxLinkSpeedCount6gLow);
+                    pw.println("mWifiLogProto.rxLinkSpeedCount6gMid=" + mRxLinkSpeedCount6gMid);
+                    pw.println("mWifiLogProto.rxLinkSpeedCount6gHigh=" + mRxLinkSpeedCount6gHigh);
+                }
 
                 pw.println("mWifiLogProto.numIpRenewalFailure="
                         + mWifiLogProto.numIpRenewalFailure);
-                pw.println("mWifiLogProto.connectionDurationStats="
-                        + mConnectionDurationStats.toString());
+                String connectionDurationStats;
+                String channelUtilizationHistograms;
+                String throughputHistograms;
+                synchronized (mPollLock) {
+                    connectionDurationStats = mConnectionDurationStats.toString();
+                    channelUtilizationHistograms = "mChannelUtilizationHistogram2G:\n"
+                            + mChannelUtilizationHistogram2G
+                            + "\nmChannelUtilizationHistogramAbove2G:\n"
+                            + mChannelUtilizationHistogramAbove2G;
+                    throughputHistograms = "mTxThroughputMbpsHistogram2G:\n"
+                            + mTxThroughputMbpsHistogram2G
+                            + "\nmRxThroughputMbpsHistogram2G:\n"
+                            + mRxThroughputMbpsHistogram2G
+                            + "\nmTxThroughputMbpsHistogramAbove2G:\n"
+                            + mTxThroughputMbpsHistogramAbove2G
+                            + "\nmRxThroughputMbpsHistogramAbove2G:\n"
+                            + mRxThroughputMbpsHistogramAbove2G;
+                }
+                pw.println("mWifiLogProto.connectionDurationStats=" + connectionDurationStats);
                 pw.println("mWifiLogProto.isExternalWifiScorerOn="
                         + mWifiLogProto.isExternalWifiScorerOn);
                 pw.println("mWifiLogProto.wifiOffMetrics="
                         + mWifiOffMetrics.toString());
                 pw.println("mWifiLogProto.softApConfigLimitationMetrics="
                         + mSoftApConfigLimitationMetrics.toString());
-                pw.println("mChannelUtilizationHistogram2G:\n"
-                        + mChannelUtilizationHistogram2G);
-                pw.println("mChannelUtilizationHistogramAbove2G:\n"
-                        + mChannelUtilizationHistogramAbove2G);
-                pw.println("mTxThroughputMbpsHistogram2G:\n"
-                        + mTxThroughputMbpsHistogram2G);
-                pw.println("mRxThroughputMbpsHistogram2G:\n"
-                        + mRxThroughputMbpsHistogram2G);
-                pw.println("mTxThroughputMbpsHistogramAbove2G:\n"
-                        + mTxThroughputMbpsHistogramAbove2G);
-                pw.println("mRxThroughputMbpsHistogramAbove2G:\n"
-                        + mRxThroughputMbpsHistogramAbove2G);
+                pw.println(channelUtilizationHistograms);
+                pw.println(throughputHistograms);
                 pw.println("mCarrierWifiMetrics:\n"
                         + mCarrierWifiMetrics);
                 pw.println(firstConnectAfterBootStatsToString(mFirstConnectAfterBootStats));
@@ -4678,9 +4771,10 @@ public class WifiMetrics {
              * Convert the SparseIntArrays of RSSI poll rssi, counts, and frequency to the
              * proto's repeated IntKeyVal array.
              */
-            for (Map.Entry<Integer, SparseIntArray> entry : mRssiPollCountsMap.entrySet()) {
-                int frequency = entry.getKey();
-                SparseIntArray histogram = entry.getValue();
+            SparseArray<AtomicIntCounter> rssiPollCountsMap = getRssiPollCountsSnapshot();
+            for (int j = 0; j < rssiPollCountsMap.size(); j++) {
+                int frequency = rssiPollCountsMap.keyAt(j);
+                IntCounter histogram = rssiPollCountsMap.valueAt(j).toIntCounterAndClear();
                 for (int i = 0; i < histogram.size(); i++) {
                     WifiMetricsProto.RssiPollCount keyVal = new WifiMetricsProto.RssiPollCount();
                     keyVal.rssi = histogram.keyAt(i);
@@ -4695,21 +4789,21 @@ public class WifiMetrics {
              * Convert the SparseIntArray of RSSI delta rssi's and counts to the proto's repeated
              * IntKeyVal array.
              */
+            IntCounter rssiDeltaCounts = mRssiDeltaCounts.toIntCounterAndClear();
             mWifiLogProto.rssiPollDeltaCount =
-                    new WifiMetricsProto.RssiPollCount[mRssiDeltaCounts.size()];
-            for (int i = 0; i < mRssiDeltaCounts.size(); i++) {
+                    new WifiMetricsProto.RssiPollCount[rssiDeltaCounts.size()];
+            for (int i = 0; i < rssiDeltaCounts.size(); i++) {
                 mWifiLogProto.rssiPollDeltaCount[i] = new WifiMetricsProto.RssiPollCount();
-                mWifiLogProto.rssiPollDeltaCount[i].rssi = mRssiDeltaCounts.keyAt(i);
-                mWifiLogProto.rssiPollDeltaCount[i].count = mRssiDeltaCounts.valueAt(i);
+                mWifiLogProto.rssiPollDeltaCount[i].rssi = rssiDeltaCounts.keyAt(i);
+                mWifiLogProto.rssiPollDeltaCount[i].count = rssiDeltaCounts.valueAt(i);
             }
 
             /**
              * Add LinkSpeedCount objects from mLinkSpeedCounts to proto.
              */
-            mWifiLogProto.linkSpeedCounts =
-                    new WifiMetricsProto.LinkSpeedCount[mLinkSpeedCounts.size()];
-            for (int i = 0; i < mLinkSpeedCounts.size(); i++) {
-                mWifiLogProto.linkSpeedCounts[i] = mLinkSpeedCounts.valueAt(i);
+            synchronized (mPollLock) {
+                mWifiLogProto.linkSpeedCounts = getLinkSpeedCountsSnapshot();
+                mLinkSpeedCounts.clear();
             }
 
             /**
@@ -4728,27 +4822,33 @@ public class WifiMetrics {
             *  Convert the SparseIntArray of Wifi Score and counts to proto's repeated
             * IntKeyVal array.
             */
-            mWifiLogProto.wifiScoreCount =
-                    new WifiMetricsProto.WifiScoreCount[mWifiScoreCounts.size()];
-            for (int score = 0; score < mWifiScoreCounts.size(); score++) {
-                mWifiLogProto.wifiScoreCount[score] = new WifiMetricsProto.WifiScoreCount();
-                mWifiLogProto.wifiScoreCount[score].score = mWifiScoreCounts.keyAt(score);
-                mWifiLogProto.wifiScoreCount[score].count = mWifiScoreCounts.valueAt(score);
+            synchronized (mPollLock) {
+                mWifiLogProto.wifiScoreCount =
+                        new WifiMetricsProto.WifiScoreCount[mWifiScoreCounts.size()];
+                for (int score = 0; score < mWifiScoreCounts.size(); score++) {
+                    mWifiLogProto.wifiScoreCount[score] = new WifiMetricsProto.WifiScoreCount();
+                    mWifiLogProto.wifiScoreCount[score].score = mWifiScoreCounts.keyAt(score);
+                    mWifiLogProto.wifiScoreCount[score].count = mWifiScoreCounts.valueAt(score);
+                }
+                mWifiScoreCounts.clear();
             }
 
             /**
              * Convert the SparseIntArray of Wifi Usability Score and counts to proto's repeated
              * IntKeyVal array.
              */
-            mWifiLogProto.wifiUsabilityScoreCount =
-                new WifiMetricsProto.WifiUsabilityScoreCount[mWifiUsabilityScoreCounts.size()];
-            for (int scoreIdx = 0; scoreIdx < mWifiUsabilityScoreCounts.size(); scoreIdx++) {
-                mWifiLogProto.wifiUsabilityScoreCount[scoreIdx] =
-                    new WifiMetricsProto.WifiUsabilityScoreCount();
-                mWifiLogProto.wifiUsabilityScoreCount[scoreIdx].score =
-                    mWifiUsabilityScoreCounts.keyAt(scoreIdx);
-                mWifiLogProto.wifiUsabilityScoreCount[scoreIdx].count =
-                    mWifiUsabilityScoreCounts.valueAt(scoreIdx);
+            synchronized (mPollLock) {
+                mWifiLogProto.wifiUsabilityScoreCount =
+                    new WifiMetricsProto.WifiUsabilityScoreCount[mWifiUsabilityScoreCounts.size()];
+                for (int scoreIdx = 0; scoreIdx < mWifiUsabilityScoreCounts.size(); scoreIdx++) {
+                    mWifiLogProto.wifiUsabilityScoreCount[scoreIdx] =
+                        new WifiMetricsProto.WifiUsabilityScoreCount();
+                    mWifiLogProto.wifiUsabilityScoreCount[scoreIdx].score =
+                        mWifiUsabilityScoreCounts.keyAt(scoreIdx);
+                    mWifiLogProto.wifiUsabilityScoreCount[scoreIdx].count =
+                        mWifiUsabilityScoreCounts.valueAt(scoreIdx);
+                }
+                mWifiUsabilityScoreCounts.clear();
             }
 
             /**
@@ -4769,9 +4869,13 @@ public class WifiMetrics {
             /**
              * Convert StaEventList to array of StaEvents
              */
-            mWifiLogProto.staEventList = new StaEvent[mStaEventList.size()];
-            for (int i = 0; i < mStaEventList.size(); i++) {
-                mWifiLogProto.staEventList[i] = mStaEventList.get(i).staEvent;
+            synchronized (mStaEventList) {
+                mWifiLogProto.staEventList = new StaEvent[mStaEventList.size()];
+                for (int i = 0; i < mStaEventList.size(); i++) {
+                    mWifiLogProto.staEventList[i] =
+                            mStaEventList.getObject(i, STA_EVENT_FIELD_EVENT);
+                }
+                mStaEventList.clear();
             }
             mWifiLogProto.userActionEvents = new UserActionEvent[mUserActionEventList.size()];
             for (int i = 0; i < mUserActionEventList.size(); i++) {
@@ -4916,29 +5020,37 @@ public class WifiMetrics {
                     mContext.getResources().getInteger(
                             R.integer.config_wifiDataStallMinTxSuccessWithoutRx);
             mWifiLogProto.experimentValues = mExperimentValues;
-            mWifiLogProto.wifiIsUnusableEventList =
-                    new WifiIsUnusableEvent[mWifiIsUnusableList.size()];
-            for (int i = 0; i < mWifiIsUnusableList.size(); i++) {
-                mWifiLogProto.wifiIsUnusableEventList[i] = mWifiIsUnusableList.get(i).event;
+            synchronized (mPollLock) {
+                mWifiLogProto.wifiIsUnusableEventList =
+                        new WifiIsUnusableEvent[mWifiIsUnusableList.size()];
+                for (int i = 0; i < mWifiIsUnusableList.size(); i++) {
+                    mWifiLogProto.wifiIsUnusableEventList[i] = mWifiIsUnusableList.get(i).event;
+                }
+                mWifiIsUnusableList.clear();
             }
             mWifiLogProto.hardwareRevision = SystemProperties.get("ro.boot.revision", "");
 
-            // Postprocessing on WifiUsabilityStats to upload an equal number of LABEL_GOOD and
-            // LABEL_BAD WifiUsabilityStats
-            final int numUsabilityStats = Math.min(
-                    Math.min(mWifiUsabilityStatsListBad.size(),
-                            mWifiUsabilityStatsListGood.size()),
-                    MAX_WIFI_USABILITY_STATS_PER_TYPE_TO_UPLOAD);
-            LinkedList<WifiUsabilityStats> usabilityStatsGoodCopy =
-                    new LinkedList<>(mWifiUsabilityStatsListGood);
-            LinkedList<WifiUsabilityStats> usabilityStatsBadCopy =
-                    new LinkedList<>(mWifiUsabilityStatsListBad);
-            mWifiLogProto.wifiUsabilityStatsList = new WifiUsabilityStats[numUsabilityStats * 2];
-            for (int i = 0; i < numUsabilityStats; i++) {
-                mWifiLogProto.wifiUsabilityStatsList[2 * i] = usabilityStatsGoodCopy.remove(
-                        mRand.nextInt(usabilityStatsGoodCopy.size()));
-                mWifiLogProto.wifiUsabilityStatsList[2 * i + 1] = usabilityStatsBadCopy.remove(
-                        mRand.nextInt(usabilityStatsBadCopy.size()));
+            synchronized (mPollLock) {
+                // Postprocessing on WifiUsabilityStats to upload an equal number of LABEL_GOOD and
+                // LABEL_BAD WifiUsabilityStats
+                final int numUsabilityStats = Math.min(
+                        Math.min(mWifiUsabilityStatsListBad.size(),
+                                mWifiUsabilityStatsListGood.size()),
+                        MAX_WIFI_USABILITY_STATS_PER_TYPE_TO_UPLOAD);
+                List<WifiUsabilityStats> usabilityStatsGoodCopy =
+                        getWifiUsabilityStatsList(mWifiUsabilityStatsListGood);
+                List<WifiUsabilityStats> usabilityStatsBadCopy =
+                        getWifiUsabilityStatsList(mWifiUsabilityStatsListBad);
+                mWifiLogProto.wifiUsabilityStatsList =
+                        new WifiUsabilityStats[numUsabilityStats * 2];
+                for (int i = 0; i < numUsabilityStats; i++) {
+                    mWifiLogProto.wifiUsabilityStatsList[2 * i] = usabilityStatsGoodCopy.remove(
+                            mRand.nextInt(usabilityStatsGoodCopy.size()));
+                    mWifiLogProto.wifiUsabilityStatsList[2 * i + 1] = usabilityStatsBadCopy.remove(
+                            mRand.nextInt(usabilityStatsBadCopy.size()));
+                }
+                mWifiUsabilityStatsListGood.clear();
+                mWifiUsabilityStatsListBad.clear();
             }
             mWifiLogProto.mobilityStatePnoStatsList =
                     new DeviceMobilityStatePnoScanStats[mMobilityStatePnoStatsMap.size()];
@@ -5049,46 +5161,71 @@ public class WifiMetrics {
                                 return entry;
                             });
             // 'G' is due to that 1st Letter after _ becomes capital during protobuff compilation
-            mWifiLogProto.txLinkSpeedCount2G = mTxLinkSpeedCount2g.toProto();
-            mWifiLogProto.txLinkSpeedCount5GLow = mTxLinkSpeedCount5gLow.toProto();
-            mWifiLogProto.txLinkSpeedCount5GMid = mTxLinkSpeedCount5gMid.toProto();
-            mWifiLogProto.txLinkSpeedCount5GHigh = mTxLinkSpeedCount5gHigh.toProto();
-            mWifiLogProto.txLinkSpeedCount6GLow = mTxLinkSpeedCount6gLow.toProto();
-            mWifiLogProto.txLinkSpeedCount6GMid = mTxLinkSpeedCount6gMid.toProto();
-            mWifiLogProto.txLinkSpeedCount6GHigh = mTxLinkSpeedCount6gHigh.toProto();
-
-            mWifiLogProto.rxLinkSpeedCount2G = mRxLinkSpeedCount2g.toProto();
-            mWifiLogProto.rxLinkSpeedCount5GLow = mRxLinkSpeedCount5gLow.toProto();
-            mWifiLogProto.rxLinkSpeedCount5GMid = mRxLinkSpeedCount5gMid.toProto();
-            mWifiLogProto.rxLinkSpeedCount5GHigh = mRxLinkSpeedCount5gHigh.toProto();
-            mWifiLogProto.rxLinkSpeedCount6GLow = mRxLinkSpeedCount6gLow.toProto();
-            mWifiLogProto.rxLinkSpeedCount6GMid = mRxLinkSpeedCount6gMid.toProto();
-            mWifiLogProto.rxLinkSpeedCount6GHigh = mRxLinkSpeedCount6gHigh.toProto();
+            synchronized (mPollLock) {
+                mWifiLogProto.txLinkSpeedCount2G = mTxLinkSpeedCount2g.toProto();
+                mWifiLogProto.txLinkSpeedCount5GLow = mTxLinkSpeedCount5gLow.toProto();
+                mWifiLogProto.txLinkSpeedCount5GMid = mTxLinkSpeedCount5gMid.toProto();
+                mWifiLogProto.txLinkSpeedCount5GHigh = mTxLinkSpeedCount5gHigh.toProto();
+                mWifiLogProto.txLinkSpeedCount6GLow = mTxLinkSpeedCount6gLow.toProto();
+                mWifiLogProto.txLinkSpeedCount6GMid = mTxLinkSpeedCount6gMid.toProto();
+                mWifiLogProto.txLinkSpeedCount6GHigh = mTxLinkSpeedCount6gHigh.toProto();
+
+                mWifiLogProto.rxLinkSpeedCount2G = mRxLinkSpeedCount2g.toProto();
+                mWifiLogProto.rxLinkSpeedCount5GLow = mRxLinkSpeedCount5gLow.toProto();
+                mWifiLogProto.rxLinkSpeedCount5GMid = mRxLinkSpeedCount5gMid.toProto();
+                mWifiLogProto.rxLinkSpeedCount5GHigh = mRxLinkSpeedCount5gHigh.toProto();
+                mWifiLogProto.rxLinkSpeedCount6GLow = mRxLinkSpeedCount6gLow.toProto();
+                mWifiLogProto.rxLinkSpeedCount6GMid = mRxLinkSpeedCount6gMid.toProto();
+                mWifiLogProto.rxLinkSpeedCount6GHigh = mRxLinkSpeedCount6gHigh.toProto();
+                mTxLinkSpeedCount2g.clear();
+                mTxLinkSpeedCount5gLow.clear();
+                mTxLinkSpeedCount5gMid.clear();
+                mTxLinkSpeedCount5gHigh.clear();
+                mTxLinkSpeedCount6gLow.clear();
+                mTxLinkSpeedCount6gMid.clear();
+                mTxLinkSpeedCount6gHigh.clear();
+                mRxLinkSpeedCount2g.clear();
+                mRxLinkSpeedCount5gLow.clear();
+                mRxLinkSpeedCount5gMid.clear();
+                mRxLinkSpeedCount5gHigh.clear();
+                mRxLinkSpeedCount6gLow.clear();
+                mRxLinkSpeedCount6gMid.clear();
+                mRxLinkSpeedCount6gHigh.clear();
+            }
 
             HealthMonitorMetrics healthMonitorMetrics = mWifiHealthMonitor.buildProto();
             if (healthMonitorMetrics != null) {
                 mWifiLogProto.healthMonitorMetrics = healthMonitorMetrics;
             }
             mWifiLogProto.bssidBlocklistStats = mBssidBlocklistStats.toProto();
-            mWifiLogProto.connectionDurationStats = mConnectionDurationStats.toProto();
             mWifiLogProto.wifiOffMetrics = mWifiOffMetrics.toProto();
             mWifiLogProto.softApConfigLimitationMetrics = mSoftApConfigLimitationMetrics.toProto();
-            mWifiLogProto.channelUtilizationHistogram =
-                    new WifiMetricsProto.ChannelUtilizationHistogram();
-            mWifiLogProto.channelUtilizationHistogram.utilization2G =
-                    mChannelUtilizationHistogram2G.toProto();
-            mWifiLogProto.channelUtilizationHistogram.utilizationAbove2G =
-                    mChannelUtilizationHistogramAbove2G.toProto();
-            mWifiLogProto.throughputMbpsHistogram =
-                    new WifiMetricsProto.ThroughputMbpsHistogram();
-            mWifiLogProto.throughputMbpsHistogram.tx2G =
-                    mTxThroughputMbpsHistogram2G.toProto();
-            mWifiLogProto.throughputMbpsHistogram.txAbove2G =
-                    mTxThroughputMbpsHistogramAbove2G.toProto();
-            mWifiLogProto.throughputMbpsHistogram.rx2G =
-                    mRxThroughputMbpsHistogram2G.toProto();
-            mWifiLogProto.throughputMbpsHistogram.rxAbove2G =
-                    mRxThroughputMbpsHistogramAbove2G.toProto();
+            synchronized (mPollLock) {
+                mWifiLogProto.connectionDurationStats = mConnectionDurationStats.toProto();
+                mWifiLogProto.channelUtilizationHistogram =
+                        new WifiMetricsProto.ChannelUtilizationHistogram();
+                mWifiLogProto.channelUtilizationHistogram.utilization2G =
+                        mChannelUtilizationHistogram2G.toProto();
+                mWifiLogProto.channelUtilizationHistogram.utilizationAbove2G =
+                        mChannelUtilizationHistogramAbove2G.toProto();
+                mWifiLogProto.throughputMbpsHistogram =
+                        new WifiMetricsProto.ThroughputMbpsHistogram();
+                mWifiLogProto.throughputMbpsHistogram.tx2G =
+                        mTxThroughputMbpsHistogram2G.toProto();
+                mWifiLogProto.throughputMbpsHistogram.txAbove2G =
+                        mTxThroughputMbpsHistogramAbove2G.toProto();
+                mWifiLogProto.throughputMbpsHistogram.rx2G =
+                        mRxThroughputMbpsHistogram2G.toProto();
+                mWifiLogProto.throughputMbpsHistogram.rxAbove2G =
+                        mRxThroughputMbpsHistogramAbove2G.toProto();
+                mConnectionDurationStats.clear();
+                mChannelUtilizationHistogram2G.clear();
+                mChannelUtilizationHistogramAbove2G.clear();
+                mTxThroughputMbpsHistogram2G.clear();
+                mRxThroughputMbpsHistogram2G.clear();
+                mTxThroughputMbpsHistogramAbove2G.clear();
+                mRxThroughputMbpsHistogramAbove2G.clear();
+            }
             mWifiLogProto.meteredNetworkStatsSaved = mMeteredNetworkStatsBuilder.toProto(false);
             mWifiLogProto.meteredNetworkStatsSuggestion = mMeteredNetworkStatsBuilder.toProto(true);
 
@@ -5215,31 +5352,10 @@ public class WifiMetrics {
             mScanReturnEntries.clear();
             mWifiSystemStateEntries.clear();
             mRecordStartTimeSec = mClock.getElapsedSinceBootMillis() / 1000;
-            mRssiPollCountsMap.clear();
-            mRssiDeltaCounts.clear();
-            mLinkSpeedCounts.clear();
-            mTxLinkSpeedCount2g.clear();
-            mTxLinkSpeedCount5gLow.clear();
-            mTxLinkSpeedCount5gMid.clear();
-            mTxLinkSpeedCount5gHigh.clear();
-            mTxLinkSpeedCount6gLow.clear();
-            mTxLinkSpeedCount6gMid.clear();
-            mTxLinkSpeedCount6gHigh.clear();
-            mRxLinkSpeedCount2g.clear();
-            mRxLinkSpeedCount5gLow.clear();
-            mRxLinkSpeedCount5gMid.clear();
-            mRxLinkSpeedCount5gHigh.clear();
-            mRxLinkSpeedCount6gLow.clear();
-            mRxLinkSpeedCount6gMid.clear();
-            mRxLinkSpeedCount6gHigh.clear();
             mWifiAlertReasonCounts.clear();
             mMakeBeforeBreakLingeringDurationSeconds.clear();
-            mWifiScoreCounts.clear();
-            mWifiUsabilityScoreCounts.clear();
             mWifiLogProto.clear();
-            mScanResultRssiTimestampMillis = -1;
             mSoftApManagerReturnCodeCounts.clear();
-            mStaEventList.clear();
             mUserActionEventList.clear();
             mWifiAwareMetrics.clear();
             mRttMetrics.clear();
@@ -5274,29 +5390,31 @@ public class WifiMetrics {
             mSoftApEventListLocalOnly.clear();
             mWifiWakeMetrics.clear();
             mObserved80211mcApInScanHistogram.clear();
-            mWifiIsUnusableList.clear();
             mInstalledPasspointProfileTypeForR1.clear();
             mInstalledPasspointProfileTypeForR2.clear();
-            mWifiUsabilityStatsListGood.clear();
-            mWifiUsabilityStatsListBad.clear();
-            mWifiUsabilityStatsEntriesList.clear();
             mMobilityStatePnoStatsMap.clear();
             mWifiP2pMetrics.clear();
             mDppMetrics.clear();
-            mWifiUsabilityStatsCounter = 0;
-            mLastBssid = null;
-            mLastFrequency = -1;
-            mSeqNumInsideFramework = 0;
-            mLastWifiUsabilityScore = -1;
-            mLastWifiUsabilityScoreNoReset = -1;
-            mLastPredictionHorizonSec = -1;
-            mLastPredictionHorizonSecNoReset = -1;
-            mSeqNumToFramework = -1;
-            mProbeStatusSinceLastUpdate =
-                    android.net.wifi.WifiUsabilityStatsEntry.PROBE_STATUS_NO_PROBE;
-            mProbeElapsedTimeSinceLastUpdateMs = -1;
-            mProbeMcsRateSinceLastUpdate = -1;
-            mScoreBreachLowTimeMillis = -1;
+            // The counters updated by the RSSI poll were already reset by consolidateProto(), as
+            // they were added to the proto.
+            synchronized (mPollLock) {
+                mScanResultRssiTimestampMillis = -1;
+                mWifiUsabilityStatsEntriesList.clear();
+                mWifiUsabilityStatsCounter = 0;
+                mLastBssid = null;
+                mLastFrequency = -1;
+                mSeqNumInsideFramework = 0;
+                mLastWifiUsabilityScore = -1;
+                mLastWifiUsabilityScoreNoReset = -1;
+                mLastPredictionHorizonSec = -1;
+                mLastPredictionHorizonSecNoReset = -1;
+                mSeqNumToFramework = -1;
+                mProbeStatusSinceLastUpdate =
+                        android.net.wifi.WifiUsabilityStatsEntry.PROBE_STATUS_NO_PROBE;
+                mProbeElapsedTimeSinceLastUpdateMs = -1;
+                mProbeMcsRateSinceLastUpdate = -1;
+                mScoreBreachLowTimeMillis = -1;
+            }
             mMeteredNetworkStatsBuilder.clear();
             mWifiConfigStoreReadDurationHistogram.clear();
             mWifiConfigStoreWriteDurationHistogram.clear();
@@ -5308,6 +5426,8 @@ public class WifiMetrics {
             mLinkProbeFailureSecondsSinceLastTxSuccessHistogram.clear();
             mLinkProbeSuccessElapsedTimeMsHistogram.clear();
             mLinkProbeFailureReasonCounts.clear();
+            mSupplicantConnectSetupLatencyUsHistogram.clear();
+            mSupplicantConnectSetupLatencyUsFromPoolHistogram.clear();
             mLinkProbeExperimentProbeCounts.clear();
             mLinkProbeStaEventCount = 0;
             mNetworkSelectionExperimentPairNumChoicesCounts.clear();
@@ -5326,16 +5446,9 @@ public class WifiMetrics {
             mWifiLockLowLatencyActiveSessionDurationSecHistogram.clear();
             mWifiLockStats.clear();
             mWifiToggleStats.clear();
-            mChannelUtilizationHistogram2G.clear();
-            mChannelUtilizationHistogramAbove2G.clear();
-            mTxThroughputMbpsHistogram2G.clear();
-            mRxThroughputMbpsHistogram2G.clear();
-            mTxThroughputMbpsHistogramAbove2G.clear();
-            mRxThroughputMbpsHistogramAbove2G.clear();
             mPasspointProvisionFailureCounts.clear();
             mNumProvisionSuccess = 0;
             mBssidBlocklistStats = new BssidBlocklistStats();
-            mConnectionDurationStats.clear();
             mWifiLogProto.isExternalWifiScorerOn = false;
             mWifiOffMetrics.clear();
             mSoftApConfigLimitationMetrics.clear();
@@ -5376,8 +5489,10 @@ public class WifiMetrics {
             mWifiState = wifiState;
             // set wifi priority over setting when any STA gets connected.
             if (wifiState == WifiMetricsProto.WifiLog.WIFI_ASSOCIATED) {
-                mWifiWins = true;
-                mWifiWinsUsabilityScore = true;
+                synchronized (mPollLock) {
+                    mWifiWins = true;
+                    mWifiWinsUsabilityScore = true;
+                }
             }
             if (isPrimary(ifaceName) && (wifiState == WifiMetricsProto.WifiLog.WIFI_DISCONNECTED
                     || wifiState == WifiMetricsProto.WifiLog.WIFI_DISABLED)) {
@@ -5524,13 +5639,22 @@ public class WifiMetrics {
         staEvent.interfaceName = ifaceName;
         staEvent.interfaceRole = convertIfaceToEnum(ifaceName);
         staEvent.startTimeMillis = mClock.getElapsedSinceBootMillis();
-        staEvent.lastRssi = mLastPollRssi;
-        staEvent.lastFreq = mLastPollFreq;
-        staEvent.lastLinkSpeed = mLastPollLinkSpeed;
+        synchronized (mPollLock) {
+            staEvent.lastRssi = mLastPollRssi;
+            staEvent.lastFreq = mLastPollFreq;
+            staEvent.lastLinkSpeed = mLastPollLinkSpeed;
+            staEvent.lastScore = mLastScore;
+            staEvent.lastWifiUsabilityScore = mLastWifiUsabilityScore;
+            staEvent.lastPredictionHorizonSec = mLastPredictionHorizonSec;
+            mLastPollRssi = -127;
+            mLastPollFreq = -1;
+            mLastPollLinkSpeed = -1;
+            mLastPollRxLinkSpeed = -1;
+            mLastScore = -1;
+            mLastWifiUsabilityScore = -1;
+            mLastPredictionHorizonSec = -1;
+        }
         staEvent.supplicantStateChangesBitmask = mSupplicantStateChangeBitmask;
-        staEvent.lastScore = mLastScore;
-        staEvent.lastWifiUsabilityScore = mLastWifiUsabilityScore;
-        staEvent.lastPredictionHorizonSec = mLastPredictionHorizonSec;
         staEvent.mobileTxBytes = mFacade.getMobileTxBytes();
         staEvent.mobileRxBytes = mFacade.getMobileRxBytes();
         staEvent.totalTxBytes = mFacade.getTotalTxBytes();
@@ -5541,17 +5665,12 @@ public class WifiMetrics {
         }
         staEvent.isAdaptiveConnectivityEnabled = mAdaptiveConnectivityEnabled;
         mSupplicantStateChangeBitmask = 0;
-        mLastPollRssi = -127;
-        mLastPollFreq = -1;
-        mLastPollLinkSpeed = -1;
-        mLastPollRxLinkSpeed = -1;
-        mLastScore = -1;
-        mLastWifiUsabilityScore = -1;
-        mLastPredictionHorizonSec = -1;
-        synchronized (mLock) {
-            mStaEventList.add(new StaEventWithTime(staEvent, mClock.getWallClockMillis()));
-            // Prune StaEventList if it gets too long
-            if (mStaEventList.size() > MAX_STA_EVENTS) mStaEventList.remove();
+        // Guarded by itself rather than by mLock, since score breaches are logged by the RSSI
+        // poll.
+        synchronized (mStaEventList) {
+            // The oldest event is dropped once MAX_STA_EVENTS is reached.
+            int index = mStaEventList.add(mClock.getWallClockMillis());
+            mStaEventList.setObject(index, STA_EVENT_FIELD_EVENT, staEvent);
         }
     }
 
@@ -5929,27 +6048,18 @@ public class WifiMetrics {
         sia.put(element, count + 1);
     }
 
-    private static class StaEventWithTime {
-        public StaEvent staEvent;
-        public long wallClockMillis;
-
-        StaEventWithTime(StaEvent event, long wallClockMillis) {
-            staEvent = event;
-            this.wallClockMillis = wallClockMillis;
-        }
-
-        public String toString() {
-            StringBuilder sb = new StringBuilder();
+    private static void formatStaEvent(StringBuilder sb, EventRingBuffer staEventList,
+            int index) {
+        long wallClockMillis = staEventList.getTimestampMillis(index);
+        if (wallClockMillis != 0) {
             Calendar c = Calendar.getInstance();
             c.setTimeInMillis(wallClockMillis);
-            if (wallClockMillis != 0) {
-                sb.append(String.format("%tm-%td %tH:%tM:%tS.%tL", c, c, c, c, c, c));
-            } else {
-                sb.append("                  ");
-            }
-            sb.append(" ").append(staEventToString(staEvent));
-            return sb.toString();
+            sb.append(String.format("%tm-%td %tH:%tM:%tS.%tL", c, c, c, c, c, c));
+        } else {
+            sb.append("                  ");
         }
+        StaEvent staEvent = staEventList.getObject(index, STA_EVENT_FIELD_EVENT);
+        sb.append(" ").append(staEventToString(staEvent));
     }
 
     private LinkedList<WifiIsUnusableWithTime> mWifiIsUnusableList =
@@ -6165,25 +6275,29 @@ public class WifiMetrics {
      */
     public void updateWifiIsUnusableLinkLayerStats(long txSuccessDelta, long txRetriesDelta,
             long txBadDelta, long rxSuccessDelta, long updateTimeDelta) {
-        mTxScucessDelta = txSuccessDelta;
-        mTxRetriesDelta = txRetriesDelta;
-        mTxBadDelta = txBadDelta;
-        mRxSuccessDelta = rxSuccessDelta;
-        mLlStatsUpdateTimeDelta = updateTimeDelta;
-        mLlStatsLastUpdateTime = mClock.getElapsedSinceBootMillis();
+        synchronized (mPollLock) {
+            mTxScucessDelta = txSuccessDelta;
+            mTxRetriesDelta = txRetriesDelta;
+            mTxBadDelta = txBadDelta;
+            mRxSuccessDelta = rxSuccessDelta;
+            mLlStatsUpdateTimeDelta = updateTimeDelta;
+            mLlStatsLastUpdateTime = mClock.getElapsedSinceBootMillis();
+        }
     }
 
     /**
      * Clear the saved difference between the last two WifiLinkLayerStats
      */
     public void resetWifiIsUnusableLinkLayerStats() {
-        mTxScucessDelta = 0;
-        mTxRetriesDelta = 0;
-        mTxBadDelta = 0;
-        mRxSuccessDelta = 0;
-        mLlStatsUpdateTimeDelta = 0;
-        mLlStatsLastUpdateTime = 0;
-        mLastDataStallTime = Long.MIN_VALUE;
+        synchronized (mPollLock) {
+            mTxScucessDelta = 0;
+            mTxRetriesDelta = 0;
+            mTxBadDelta = 0;
+            mRxSuccessDelta = 0;
+            mLlStatsUpdateTimeDelta = 0;
+            mLlStatsLastUpdateTime = 0;
+            mLastDataStallTime = Long.MIN_VALUE;
+        }
     }
 
     /**
@@ -6205,55 +6319,59 @@ public class WifiMetrics {
         if (!isPrimary(ifaceName)) {
             return;
         }
-        mScoreBreachLowTimeMillis = -1;
-        if (!mContext.getResources().getBoolean(R.bool.config_wifiIsUnusableEventMetricsEnabled)) {
-            return;
-        }
+        synchronized (mPollLock) {
+            mScoreBreachLowTimeMillis = -1;
+            if (!mContext.getResources().getBoolean(
+                    R.bool.config_wifiIsUnusableEventMetricsEnabled)) {
+                return;
+            }
 
-        long currentBootTime = mClock.getElapsedSinceBootMillis();
-        switch (triggerType) {
-            case WifiIsUnusableEvent.TYPE_DATA_STALL_BAD_TX:
-            case WifiIsUnusableEvent.TYPE_DATA_STALL_TX_WITHOUT_RX:
-            case WifiIsUnusableEvent.TYPE_DATA_STALL_BOTH:
-                // Have a time-based throttle for generating WifiIsUnusableEvent from data stalls
-                if (currentBootTime < mLastDataStallTime + MIN_DATA_STALL_WAIT_MS) {
+            long currentBootTime = mClock.getElapsedSinceBootMillis();
+            switch (triggerType) {
+                case WifiIsUnusableEvent.TYPE_DATA_STALL_BAD_TX:
+                case WifiIsUnusableEvent.TYPE_DATA_STALL_TX_WITHOUT_RX:
+                case WifiIsUnusableEvent.TYPE_DATA_STALL_BOTH:
+                    // Have a time-based throttle for generating WifiIsUnusableEvent from data
+                    // stalls
+                    if (currentBootTime < mLastDataStallTime + MIN_DATA_STALL_WAIT_MS) {
+                        return;
+                    }
+                    mLastDataStallTime = currentBootTime;
+                    break;
+                case WifiIsUnusableEvent.TYPE_FIRMWARE_ALERT:
+                    break;
+                case WifiIsUnusableEvent.TYPE_IP_REACHABILITY_LOST:
+                    break;
+                default:
+                    Log.e(TAG, "Unknown WifiIsUnusableEvent: " + triggerType);
                     return;
-                }
-                mLastDataStallTime = currentBootTime;
-                break;
-            case WifiIsUnusableEvent.TYPE_FIRMWARE_ALERT:
-                break;
-            case WifiIsUnusableEvent.TYPE_IP_REACHABILITY_LOST:
-                break;
-            default:
-                Log.e(TAG, "Unknown WifiIsUnusableEvent: " + triggerType);
-                return;
-        }
+            }
 
-        WifiIsUnusableEvent event = new WifiIsUnusableEvent();
-        event.type = triggerType;
-        if (triggerType == WifiIsUnusableEvent.TYPE_FIRMWARE_ALERT) {
-            event.firmwareAlertCode = firmwareAlertCode;
-        }
-        event.startTimeMillis = currentBootTime;
-        event.lastScore = mLastScoreNoReset;
-        event.lastWifiUsabilityScore = mLastWifiUsabilityScoreNoReset;
-        event.lastPredictionHorizonSec = mLastPredictionHorizonSecNoReset;
-        event.txSuccessDelta = mTxScucessDelta;
-        event.txRetriesDelta = mTxRetriesDelta;
-        event.txBadDelta = mTxBadDelta;
-        event.rxSuccessDelta = mRxSuccessDelta;
-        event.packetUpdateTimeDelta = mLlStatsUpdateTimeDelta;
-        event.lastLinkLayerStatsUpdateTime = mLlStatsLastUpdateTime;
-        event.screenOn = mScreenOn;
-        event.mobileTxBytes = mFacade.getMobileTxBytes();
-        event.mobileRxBytes = mFacade.getMobileRxBytes();
-        event.totalTxBytes = mFacade.getTotalTxBytes();
-        event.totalRxBytes = mFacade.getTotalRxBytes();
+            WifiIsUnusableEvent event = new WifiIsUnusableEvent();
+            event.type = triggerType;
+            if (triggerType == WifiIsUnusableEvent.TYPE_FIRMWARE_ALERT) {
+                event.firmwareAlertCode = firmwareAlertCode;
+            }
+            event.startTimeMillis = currentBootTime;
+            event.lastScore = mLastScoreNoReset;
+            event.lastWifiUsabilityScore = mLastWifiUsabilityScoreNoReset;
+            event.lastPredictionHorizonSec = mLastPredictionHorizonSecNoReset;
+            event.txSuccessDelta = mTxScucessDelta;
+            event.txRetriesDelta = mTxRetriesDelta;
+            event.txBadDelta = mTxBadDelta;
+            event.rxSuccessDelta = mRxSuccessDelta;
+            event.packetUpdateTimeDelta = mLlStatsUpdateTimeDelta;
+            event.lastLinkLayerStatsUpdateTime = mLlStatsLastUpdateTime;
+            event.screenOn = mScreenOn;
+            event.mobileTxBytes = mFacade.getMobileTxBytes();
+            event.mobileRxBytes = mFacade.getMobileRxBytes();
+            event.totalTxBytes = mFacade.getTotalTxBytes();
+            event.totalRxBytes = mFacade.getTotalRxBytes();
 
-        mWifiIsUnusableList.add(new WifiIsUnusableWithTime(event, mClock.getWallClockMillis()));
-        if (mWifiIsUnusableList.size() > MAX_UNUSABLE_EVENTS) {
-            mWifiIsUnusableList.removeFirst();
+            mWifiIsUnusableList.add(new WifiIsUnusableWithTime(event, mClock.getWallClockMillis()));
+            if (mWifiIsUnusableList.size() > MAX_UNUSABLE_EVENTS) {
+                mWifiIsUnusableList.removeFirst();
+            }
         }
     }
 
@@ -6268,7 +6386,7 @@ public class WifiMetrics {
             WifiLinkLayerStats stats) {
         // This is only collected for primary STA currently because RSSI polling is disabled for
         // non-primary STAs.
-        synchronized (mLock) {
+        synchronized (mPollLock) {
             if (info == null) {
                 return;
             }
@@ -6771,7 +6889,7 @@ public class WifiMetrics {
      */
     public void addToWifiUsabilityStatsList(String ifaceName, int label, int triggerType,
             int firmwareAlertCode) {
-        synchronized (mLock) {
+        synchronized (mPollLock) {
             if (!isPrimary(ifaceName)) {
                 return;
             }
@@ -6782,16 +6900,11 @@ public class WifiMetrics {
                 // Only add a good event if at least |MIN_WIFI_GOOD_USABILITY_STATS_PERIOD_MS|
                 // has passed.
                 if (mWifiUsabilityStatsListGood.isEmpty()
-                        || mWifiUsabilityStatsListGood.getLast().stats[mWifiUsabilityStatsListGood
-                        .getLast().stats.length - 1].timeStampMs
+                        || mWifiUsabilityStatsListGood.getTimestampMillis(
+                                mWifiUsabilityStatsListGood.size() - 1)
                         + MIN_WIFI_GOOD_USABILITY_STATS_PERIOD_MS
                         < mWifiUsabilityStatsEntriesList.getLast().timeStampMs) {
-                    while (mWifiUsabilityStatsListGood.size()
-                            >= MAX_WIFI_USABILITY_STATS_LIST_SIZE_PER_TYPE) {
-                        mWifiUsabilityStatsListGood.remove(
-                                mRand.nextInt(mWifiUsabilityStatsListGood.size()));
-                    }
-                    mWifiUsabilityStatsListGood.add(
+                    addToWifiUsabilityStatsList(mWifiUsabilityStatsListGood,
                             createWifiUsabilityStatsWithLabel(label, triggerType,
                                     firmwareAlertCode));
                 }
@@ -6800,16 +6913,11 @@ public class WifiMetrics {
                 // has passed.
                 mScoreBreachLowTimeMillis = -1;
                 if (mWifiUsabilityStatsListBad.isEmpty()
-                        || (mWifiUsabilityStatsListBad.getLast().stats[mWifiUsabilityStatsListBad
-                        .getLast().stats.length - 1].timeStampMs
+                        || (mWifiUsabilityStatsListBad.getTimestampMillis(
+                                mWifiUsabilityStatsListBad.size() - 1)
                         + MIN_DATA_STALL_WAIT_MS
                         < mWifiUsabilityStatsEntriesList.getLast().timeStampMs)) {
-                    while (mWifiUsabilityStatsListBad.size()
-                            >= MAX_WIFI_USABILITY_STATS_LIST_SIZE_PER_TYPE) {
-                        mWifiUsabilityStatsListBad.remove(
-                                mRand.nextInt(mWifiUsabilityStatsListBad.size()));
-                    }
-                    mWifiUsabilityStatsListBad.add(
+                    addToWifiUsabilityStatsList(mWifiUsabilityStatsListBad,
                             createWifiUsabilityStatsWithLabel(label, triggerType,
                                     firmwareAlertCode));
                 }
@@ -6819,6 +6927,39 @@ public class WifiMetrics {
         }
     }
 
+    /**
+     * Adds |stats| to |statsList|, replacing a random element if the list is full.
+     * mPollLock must be held when calling this method.
+     */
+    private void addToWifiUsabilityStatsList(EventRingBuffer statsList,
+            WifiUsabilityStats stats) {
+        if (statsList.size() >= statsList.capacity()) {
+            statsList.remove(mRand.nextInt(statsList.size()));
+        }
+        int index = statsList.add(stats.stats[stats.stats.length - 1].timeStampMs);
+        statsList.setObject(index, USABILITY_STATS_FIELD_STATS, stats);
+    }
+
+    private static List<WifiUsabilityStats> getWifiUsabilityStatsList(
+            EventRingBuffer statsList) {
+        List<WifiUsabilityStats> list = new ArrayList<>(statsList.size());
+        for (int i = 0; i < statsList.size(); i++) {
+            list.add(statsList.getObject(i, USABILITY_STATS_FIELD_STATS));
+        }
+        return list;
+    }
+
+    private void printWifiUsabilityStatsList(PrintWriter pw, List<WifiUsabilityStats> statsList) {
+        for (WifiUsabilityStats stats : statsList) {
+            pw.println("\nlabel=" + stats.label);
+            pw.println("\ntrigger_type=" + stats.triggerType);
+            pw.println("\ntime_stamp_ms=" + stats.timeStampMs);
+            for (WifiUsabilityStatsEntry entry : stats.stats) {
+                printWifiUsabilityStatsEntry(pw, entry);
+            }
+        }
+    }
+
     private DeviceMobilityStatePnoScanStats getOrCreateDeviceMobilityStatePnoScanStats(
             @DeviceMobilityState int deviceMobilityState) {
         DeviceMobilityStatePnoScanStats stats = mMobilityStatePnoStatsMap.get(deviceMobilityState);
@@ -6872,7 +7013,9 @@ public class WifiMetrics {
 
             if (newState == mCurrentDeviceMobilityState) return;
 
-            mCurrentDeviceMobilityState = newState;
+            synchronized (mPollLock) {
+                mCurrentDeviceMobilityState = newState;
+            }
             DeviceMobilityStatePnoScanStats stats =
                     getOrCreateDeviceMobilityStatePnoScanStats(mCurrentDeviceMobilityState);
             stats.numTimesEnteredState++;
@@ -6967,7 +7110,7 @@ public class WifiMetrics {
         if (score < MIN_WIFI_USABILITY_SCORE || score > MAX_WIFI_USABILITY_SCORE) {
             return;
         }
-        synchronized (mLock) {
+        synchronized (mPollLock) {
             mSeqNumToFramework = seqNum;
             mLastWifiUsabilityScore = score;
             mLastWifiUsabilityScoreNoReset = score;
@@ -6996,6 +7139,24 @@ public class WifiMetrics {
         }
     }
 
+    /**
+     * Logs the time taken by supplicant to set up a connection, from the connect request to the
+     * selection of the network.
+     *
+     * @param fromNetworkPool true if the network was already provisioned in supplicant by
+     *                        {@link WifiNative#provisionNetworks}, false otherwise.
+     * @param latencyUs The connect setup time in microseconds.
+     */
+    public void logSupplicantConnectSetupLatency(boolean fromNetworkPool, int latencyUs) {
+        synchronized (mLock) {
+            if (fromNetworkPool) {
+                mSupplicantConnectSetupLatencyUsFromPoolHistogram.increment(latencyUs);
+            } else {
+                mSupplicantConnectSetupLatencyUsHistogram.increment(latencyUs);
+            }
+        }
+    }
+
     /**
      * Reports stats for a successful link probe.
      *
@@ -7012,9 +7173,11 @@ public class WifiMetrics {
     public void logLinkProbeSuccess(String ifaceName, long timeSinceLastTxSuccessMs,
             int rssi, int linkSpeed, int elapsedTimeMs) {
         synchronized (mLock) {
-            mProbeStatusSinceLastUpdate =
-                    android.net.wifi.WifiUsabilityStatsEntry.PROBE_STATUS_SUCCESS;
-            mProbeElapsedTimeSinceLastUpdateMs = elapsedTimeMs;
+            synchronized (mPollLock) {
+                mProbeStatusSinceLastUpdate =
+                        android.net.wifi.WifiUsabilityStatsEntry.PROBE_STATUS_SUCCESS;
+                mProbeElapsedTimeSinceLastUpdateMs = elapsedTimeMs;
+            }
 
             mLinkProbeSuccessSecondsSinceLastTxSuccessHistogram.increment(
                     (int) (timeSinceLastTxSuccessMs / 1000));
@@ -7047,9 +7210,11 @@ public class WifiMetrics {
     public void logLinkProbeFailure(String ifaceName, long timeSinceLastTxSuccessMs,
             int rssi, int linkSpeed, int reason) {
         synchronized (mLock) {
-            mProbeStatusSinceLastUpdate =
-                    android.net.wifi.WifiUsabilityStatsEntry.PROBE_STATUS_FAILURE;
-            mProbeElapsedTimeSinceLastUpdateMs = Integer.MAX_VALUE;
+            synchronized (mPollLock) {
+                mProbeStatusSinceLastUpdate =
+                        android.net.wifi.WifiUsabilityStatsEntry.PROBE_STATUS_FAILURE;
+                mProbeElapsedTimeSinceLastUpdateMs = Integer.MAX_VALUE;
+            }
 
             mLinkProbeFailureSecondsSinceLastTxSuccessHistogram.increment(
                     (int) (timeSinceLastTxSuccessMs / 1000));
@@ -7689,7 +7854,7 @@ public class WifiMetrics {
      */
     public void incrementConnectionDuration(int timeDeltaLastTwoPollsMs,
             boolean isThroughputSufficient, boolean isCellularDataAvailable) {
-        synchronized (mLock) {
+        synchronized (mPollLock) {
             mConnectionDurationStats.incrementDurationCount(timeDeltaLastTwoPollsMs,
                     isThroughputSufficient, isCellularDataAvailable, mWifiWins);
 
@@ -7867,10 +8032,12 @@ public class WifiMetrics {
      * Get total beacon receive count
      */
     public long getTotalBeaconRxCount() {
-        if (mWifiUsabilityStatsEntriesList.isEmpty()) {
-            return -1;
-        } else {
-            return mWifiUsabilityStatsEntriesList.getLast().totalBeaconRx;
+        synchronized (mPollLock) {
+            if (mWifiUsabilityStatsEntriesList.isEmpty()) {
+                return -1;
+            } else {
+                return mWifiUsabilityStatsEntriesList.getLast().totalBeaconRx;
+            }
         }
     }
 
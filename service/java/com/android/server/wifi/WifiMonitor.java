@@ -17,6 +17,7 @@
 package com.android.server.wifi;
 
 import android.annotation.IntDef;
+import android.annotation.Nullable;
 import android.net.MacAddress;
 import android.net.wifi.SupplicantState;
 import android.net.wifi.WifiEnterpriseConfig;
@@ -24,6 +25,7 @@ import android.net.wifi.WifiManager;
 import android.net.wifi.WifiSsid;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
@@ -38,12 +40,16 @@ import com.android.server.wifi.hotspot2.AnqpEvent;
 import com.android.server.wifi.hotspot2.IconEvent;
 import com.android.server.wifi.hotspot2.WnmData;
 
+import java.io.PrintWriter;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * Listen for events from the wpa_supplicant & wificond and broadcast them on
@@ -159,7 +165,28 @@ public class WifiMonitor {
         mVerboseLoggingEnabled = verbose;
     }
 
+    @Nullable private ConnectionEventJournal mConnectionEventJournal;
+
+    /**
+     * Sets the journal the broadcast events are recorded to, or null to not record them.
+     */
+    public void setConnectionEventJournal(@Nullable ConnectionEventJournal journal) {
+        mConnectionEventJournal = journal;
+    }
+
+    /**
+     * Handlers registered for each iface and message what. Only modified with the WifiMonitor
+     * class lock held; each modification publishes a new snapshot to {@link #mDispatchTable}.
+     */
     private final Map<String, SparseArray<Set<Handler>>> mHandlerMap = new HashMap<>();
+    /**
+     * Immutable snapshot of {@link #mHandlerMap}, read without locking by the supplicant
+     * callback threads. A modification only copies the table of the modified iface and the
+     * handlers of the modified message what, the other ifaces and whats are shared between
+     * snapshots.
+     */
+    private volatile Map<String, SparseArray<Handler[]>> mDispatchTable = Collections.emptyMap();
+
     public synchronized void registerHandler(String iface, int what, Handler handler) {
         SparseArray<Set<Handler>> ifaceHandlers = mHandlerMap.get(iface);
         if (ifaceHandlers == null) {
@@ -171,7 +198,9 @@ public class WifiMonitor {
             ifaceWhatHandlers = new ArraySet<>();
             ifaceHandlers.put(what, ifaceWhatHandlers);
         }
-        ifaceWhatHandlers.add(handler);
+        if (ifaceWhatHandlers.add(handler)) {
+            publishHandlers(iface, what, ifaceWhatHandlers);
+        }
     }
 
     /**
@@ -189,10 +218,25 @@ public class WifiMonitor {
         if (ifaceWhatHandlers == null) {
             return;
         }
-        ifaceWhatHandlers.remove(handler);
+        if (ifaceWhatHandlers.remove(handler)) {
+            publishHandlers(iface, what, ifaceWhatHandlers);
+        }
+    }
+
+    /**
+     * Publishes a new dispatch table snapshot with |handlers| as the handlers of |iface| and
+     * |what|. Must be called with the WifiMonitor class lock held.
+     */
+    private void publishHandlers(String iface, int what, Set<Handler> handlers) {
+        Map<String, SparseArray<Handler[]>> dispatchTable = new HashMap<>(mDispatchTable);
+        SparseArray<Handler[]> ifaceHandlers = dispatchTable.get(iface);
+        ifaceHandlers = ifaceHandlers == null ? new SparseArray<>() : ifaceHandlers.clone();
+        ifaceHandlers.put(what, handlers.toArray(new Handler[0]));
+        dispatchTable.put(iface, ifaceHandlers);
+        mDispatchTable = Collections.unmodifiableMap(dispatchTable);
     }
 
-    private final Map<String, Boolean> mMonitoringMap = new HashMap<>();
+    private final Map<String, Boolean> mMonitoringMap = new ConcurrentHashMap<>();
     private boolean isMonitoring(String iface) {
         Boolean val = mMonitoringMap.get(iface);
         if (val == null) {
@@ -235,10 +279,70 @@ public class WifiMonitor {
     }
 
 
+    /**
+     * Lock-free counters of the time taken by {@link #sendMessage(String, Message)} to dispatch
+     * each event to its handlers, for dumps.
+     */
+    private static class DispatchStats {
+        // Events with a what outside of [BASE, BASE + NUM_EVENTS) are counted together.
+        private static final int NUM_EVENTS = 128;
+
+        private final AtomicLongArray mCounts = new AtomicLongArray(NUM_EVENTS + 1);
+        private final AtomicLongArray mTotalNanos = new AtomicLongArray(NUM_EVENTS + 1);
+        private final AtomicLongArray mMaxNanos = new AtomicLongArray(NUM_EVENTS + 1);
+
+        private static int getIndex(int what) {
+            int index = what - BASE;
+            return index >= 0 && index < NUM_EVENTS ? index : NUM_EVENTS;
+        }
+
+        void record(int what, long nanos) {
+            int index = getIndex(what);
+            mCounts.incrementAndGet(index);
+            mTotalNanos.addAndGet(index, nanos);
+            mMaxNanos.accumulateAndGet(index, nanos, Math::max);
+        }
+
+        void dump(PrintWriter pw) {
+            pw.println("Event dispatch latency:");
+            for (int i = 0; i <= NUM_EVENTS; i++) {
+                long count = mCounts.get(i);
+                if (count == 0) {
+                    continue;
+                }
+                pw.println("  event=" + (i == NUM_EVENTS ? "other" : (BASE + i))
+                        + " count=" + count
+                        + " avgUs=" + mTotalNanos.get(i) / count / 1000
+                        + " maxUs=" + mMaxNanos.get(i) / 1000);
+            }
+        }
+    }
+
+    private final DispatchStats mDispatchStats = new DispatchStats();
+
+    /**
+     * Dump the registered handlers and the event dispatch latencies.
+     */
+    public void dump(PrintWriter pw) {
+        pw.println("Dump of WifiMonitor");
+        Map<String, SparseArray<Handler[]>> dispatchTable = mDispatchTable;
+        for (Map.Entry<String, SparseArray<Handler[]>> entry : dispatchTable.entrySet()) {
+            SparseArray<Handler[]> ifaceHandlers = entry.getValue();
+            int numHandlers = 0;
+            for (int i = 0; i < ifaceHandlers.size(); i++) {
+                numHandlers += ifaceHandlers.valueAt(i).length;
+            }
+            pw.println("Iface " + entry.getKey() + ": monitoring=" + isMonitoring(entry.getKey())
+                    + " handlers=" + numHandlers);
+        }
+        mDispatchStats.dump(pw);
+    }
+
     /**
      * Similar functions to Handler#sendMessage that send the message to the registered handler
      * for the given interface and message what.
-     * All of these should be called with the WifiMonitor class lock
+     * These don't take the WifiMonitor class lock, the handlers are read from the current
+     * snapshot of the dispatch table.
      */
     private void sendMessage(String iface, int what) {
         sendMessage(iface, Message.obtain(null, what));
@@ -261,17 +365,14 @@ public class WifiMonitor {
     }
 
     private void sendMessage(String iface, Message message) {
-        SparseArray<Set<Handler>> ifaceHandlers = mHandlerMap.get(iface);
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        int what = message.what;
+        recordEvent(iface, message);
+        Map<String, SparseArray<Handler[]>> dispatchTable = mDispatchTable;
+        SparseArray<Handler[]> ifaceHandlers = dispatchTable.get(iface);
         if (iface != null && ifaceHandlers != null) {
             if (isMonitoring(iface)) {
-                Set<Handler> ifaceWhatHandlers = ifaceHandlers.get(message.what);
-                if (ifaceWhatHandlers != null) {
-                    for (Handler handler : ifaceWhatHandlers) {
-                        if (handler != null) {
-                            sendMessage(iface, handler, Message.obtain(message));
-                        }
-                    }
-                }
+                sendMessage(iface, ifaceHandlers.get(what), message);
             } else {
                 if (mVerboseLoggingEnabled) {
                     Log.d(TAG, "Dropping event because (" + iface + ") is stopped");
@@ -281,21 +382,83 @@ public class WifiMonitor {
             if (mVerboseLoggingEnabled) {
                 Log.d(TAG, "Sending to all monitors because there's no matching iface");
             }
-            for (Map.Entry<String, SparseArray<Set<Handler>>> entry : mHandlerMap.entrySet()) {
+            for (Map.Entry<String, SparseArray<Handler[]>> entry : dispatchTable.entrySet()) {
                 iface = entry.getKey();
                 if (isMonitoring(iface)) {
-                    Set<Handler> ifaceWhatHandlers = entry.getValue().get(message.what);
-                    if (ifaceWhatHandlers == null) continue;
-                    for (Handler handler : ifaceWhatHandlers) {
-                        if (handler != null) {
-                            sendMessage(iface, handler, Message.obtain(message));
-                        }
-                    }
+                    sendMessage(iface, entry.getValue().get(what), message);
                 }
             }
         }
 
         message.recycle();
+        mDispatchStats.record(what, SystemClock.elapsedRealtimeNanos() - startNanos);
+    }
+
+    private void sendMessage(String iface, @Nullable Handler[] handlers, Message message) {
+        if (handlers == null) {
+            return;
+        }
+        for (Handler handler : handlers) {
+            if (handler != null) {
+                sendMessage(iface, handler, Message.obtain(message));
+            }
+        }
+    }
+
+    /**
+     * Records the event to the connection event journal, with the fields of the connection
+     * related events which are only in the message object.
+     */
+    private void recordEvent(String iface, Message message) {
+        ConnectionEventJournal journal = mConnectionEventJournal;
+        if (journal == null) {
+            return;
+        }
+        int arg1 = message.arg1;
+        int arg2 = message.arg2;
+        String bssid = null;
+        switch (message.what) {
+            case SUPPLICANT_STATE_CHANGE_EVENT: {
+                StateChangeResult result = (StateChangeResult) message.obj;
+                journal.recordSupplicantStateChange(iface, result.state, result.networkId,
+                        result.bssid);
+                return;
+            }
+            case NETWORK_CONNECTION_EVENT: {
+                NetworkConnectionEventInfo info = (NetworkConnectionEventInfo) message.obj;
+                arg1 = info.networkId;
+                bssid = info.bssid;
+                break;
+            }
+            case NETWORK_DISCONNECTION_EVENT: {
+                DisconnectEventInfo info = (DisconnectEventInfo) message.obj;
+                arg1 = info.reasonCode;
+                arg2 = info.locallyGenerated ? 1 : 0;
+                bssid = info.bssid;
+                break;
+            }
+            case AUTHENTICATION_FAILURE_EVENT: {
+                AuthenticationFailureEventInfo info =
+                        (AuthenticationFailureEventInfo) message.obj;
+                arg1 = info.reasonCode;
+                arg2 = info.errorCode;
+                break;
+            }
+            case ASSOCIATION_REJECTION_EVENT: {
+                AssocRejectEventInfo info = (AssocRejectEventInfo) message.obj;
+                arg1 = info.statusCode;
+                arg2 = info.timedOut ? 1 : 0;
+                bssid = info.bssid;
+                break;
+            }
+            case ASSOCIATED_BSSID_EVENT:
+            case TARGET_BSSID_EVENT:
+                bssid = (String) message.obj;
+                break;
+            default:
+                break;
+        }
+        journal.recordMonitorEvent(iface, message.what, arg1, arg2, bssid);
     }
 
     private void sendMessage(String iface, Handler handler, Message message) {
@@ -27,9 +27,11 @@ import android.annotation.IntDef;
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.net.MacAddress;
+import android.net.NetworkCapabilities;
 import android.net.TrafficStats;
 import android.net.apf.ApfCapabilities;
 import android.net.wifi.CoexUnsafeChannel;
+import android.net.wifi.MloLink;
 import android.net.wifi.ScanResult;
 import android.net.wifi.SecurityParams;
 import android.net.wifi.SoftApConfiguration;
@@ -55,6 +57,7 @@ import android.util.Log;
 import android.util.SparseArray;
 
 import com.android.internal.annotations.Immutable;
+import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.util.HexDump;
 import com.android.modules.utils.build.SdkLevel;
 import com.android.server.wifi.SupplicantStaIfaceHal.QosPolicyStatus;
@@ -85,6 +88,12 @@ import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Native calls for bring up/shut down of the supplicant daemon and for
@@ -94,6 +103,11 @@ import java.util.TimeZone;
  */
 public class WifiNative {
     private static final String TAG = "WifiNative";
+    /** Minimum number of scan results for the conversion to be split across threads. */
+    @VisibleForTesting
+    static final int MIN_SCAN_RESULTS_FOR_PARALLEL_CONVERSION = 64;
+    private static final int MAX_SCAN_RESULT_CONVERSION_THREADS = 4;
+    private static final long SCAN_RESULT_CONVERSION_THREAD_KEEP_ALIVE_MS = 60_000;
 
     private final SupplicantStaIfaceHal mSupplicantStaIfaceHal;
     private final HostapdHal mHostapdHal;
@@ -116,6 +130,11 @@ public class WifiNative {
     private boolean mUseFakeScanDetails;
     private final ArrayList<ScanDetail> mFakeScanDetails = new ArrayList<>();
     private long mCachedFeatureSet;
+    // Number of threads converting the scan results, read from the overlay on first use.
+    private int mScanResultConversionThreads;
+    private ExecutorService mScanResultConversionExecutor;
+    private final InformationElementCache mInformationElementCache =
+            new InformationElementCache();
 
     public WifiNative(WifiVendorHal vendorHal,
                       SupplicantStaIfaceHal staIfaceHal, HostapdHal hostapdHal,
@@ -1762,22 +1781,151 @@ public class WifiNative {
         }
     }
 
-    private ArrayList<ScanDetail> convertNativeScanResults(@NonNull String ifaceName,
+    /**
+     * Converts the scan results reported by wificond to {@link ScanDetail}s, in the same order,
+     * skipping the invalid ones.
+     *
+     * Large scans are split in contiguous ranges which are converted concurrently by the calling
+     * thread and the scan result conversion threads, see
+     * {@link R.integer#config_wifiScanResultConversionThreads}.
+     */
+    @VisibleForTesting
+    ArrayList<ScanDetail> convertNativeScanResults(@NonNull String ifaceName,
             List<NativeScanResult> nativeResults) {
-        ArrayList<ScanDetail> results = new ArrayList<>();
-        for (NativeScanResult result : nativeResults) {
-            WifiSsid wifiSsid = WifiSsid.fromBytes(result.getSsid());
-            MacAddress bssidMac = result.getBssid();
-            if (bssidMac == null) {
-                Log.e(TAG, "Invalid MAC (BSSID) for SSID " + wifiSsid);
-                continue;
+        ArrayList<ScanDetail> results;
+        ExecutorService executor = getScanResultConversionExecutor();
+        if (executor != null
+                && nativeResults.size() >= MIN_SCAN_RESULTS_FOR_PARALLEL_CONVERSION) {
+            results = convertNativeScanResultsInParallel(ifaceName, nativeResults, executor);
+        } else {
+            results = new ArrayList<>(nativeResults.size());
+            for (NativeScanResult result : nativeResults) {
+                ScanDetail scanDetail = convertNativeScanResult(ifaceName, result);
+                if (scanDetail != null) {
+                    results.add(scanDetail);
+                }
+            }
+        }
+        if (mVerboseLoggingEnabled) {
+            Log.d(TAG, "get " + results.size() + " scan results from wificond");
+        }
+
+        return results;
+    }
+
+    private ArrayList<ScanDetail> convertNativeScanResultsInParallel(@NonNull String ifaceName,
+            List<NativeScanResult> nativeResults, ExecutorService executor) {
+        int numResults = nativeResults.size();
+        // Each range is converted into its own slots, so that the order doesn't depend on which
+        // range completes first.
+        ScanDetail[] scanDetails = new ScanDetail[numResults];
+        int numRanges = mScanResultConversionThreads;
+        int rangeSize = (numResults + numRanges - 1) / numRanges;
+        List<Future<?>> futures = new ArrayList<>(numRanges - 1);
+        for (int start = rangeSize; start < numResults; start += rangeSize) {
+            final int rangeStart = start;
+            final int rangeEnd = Math.min(start + rangeSize, numResults);
+            futures.add(executor.submit(() -> convertNativeScanResultRange(
+                    ifaceName, nativeResults, scanDetails, rangeStart, rangeEnd)));
+        }
+        convertNativeScanResultRange(ifaceName, nativeResults, scanDetails, 0,
+                Math.min(rangeSize, numResults));
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Log.e(TAG, "Interrupted while converting scan results, converting them serially");
+            Thread.currentThread().interrupt();
+            for (Future<?> future : futures) {
+                future.cancel(false);
+            }
+            // Don't reuse the slots, a cancelled range may still be running.
+            scanDetails = new ScanDetail[numResults];
+            convertNativeScanResultRange(ifaceName, nativeResults, scanDetails, 0, numResults);
+        } catch (ExecutionException e) {
+            // Same failure as if the range was converted on the calling thread.
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+        ArrayList<ScanDetail> results = new ArrayList<>(numResults);
+        for (ScanDetail scanDetail : scanDetails) {
+            if (scanDetail != null) {
+                results.add(scanDetail);
+            }
+        }
+        return results;
+    }
+
+    private void convertNativeScanResultRange(@NonNull String ifaceName,
+            List<NativeScanResult> nativeResults, ScanDetail[] scanDetails, int start, int end) {
+        for (int i = start; i < end; i++) {
+            scanDetails[i] = convertNativeScanResult(ifaceName, nativeResults.get(i));
+        }
+    }
+
+    @VisibleForTesting
+    InformationElementCache getInformationElementCache() {
+        return mInformationElementCache;
+    }
+
+    /**
+     * Returns the executor used to convert large scans concurrently, or null if the scan results
+     * are converted on the calling thread only. The executor is created on first use, and its
+     * threads stop when idle.
+     */
+    private synchronized @Nullable ExecutorService getScanResultConversionExecutor() {
+        if (mScanResultConversionThreads == 0) {
+            mScanResultConversionThreads = Math.max(1, Math.min(MAX_SCAN_RESULT_CONVERSION_THREADS,
+                    mContext.getResources().getInteger(
+                            R.integer.config_wifiScanResultConversionThreads)));
+            if (mScanResultConversionThreads > 1) {
+                // The calling thread converts a range too.
+                int numWorkers = mScanResultConversionThreads - 1;
+                ThreadPoolExecutor executor = new ThreadPoolExecutor(numWorkers, numWorkers,
+                        SCAN_RESULT_CONVERSION_THREAD_KEEP_ALIVE_MS, TimeUnit.MILLISECONDS,
+                        new LinkedBlockingQueue<>(), runnable -> {
+                            Thread thread = new Thread(runnable, "WifiScanResultConversion");
+                            thread.setDaemon(true);
+                            return thread;
+                        });
+                executor.allowCoreThreadTimeOut(true);
+                mScanResultConversionExecutor = executor;
             }
-            String bssid = bssidMac.toString();
+        }
+        return mScanResultConversionExecutor;
+    }
+
+    /**
+     * Converts a scan result reported by wificond to a {@link ScanDetail}, or returns null if it
+     * is invalid. Must be thread-safe, see {@link #convertNativeScanResults(String, List)}.
+     */
+    private @Nullable ScanDetail convertNativeScanResult(@NonNull String ifaceName,
+            NativeScanResult result) {
+        WifiSsid wifiSsid = WifiSsid.fromBytes(result.getSsid());
+        MacAddress bssidMac = result.getBssid();
+        if (bssidMac == null) {
+            Log.e(TAG, "Invalid MAC (BSSID) for SSID " + wifiSsid);
+            return null;
+        }
+        String bssid = bssidMac.toString();
+        byte[] rawIes = result.getInformationElements();
+        boolean isEnhancedOpenSupported = mIsEnhancedOpenSupported;
+        // The IEs of an AP rarely change between scans, only re-parse them if they did.
+        InformationElementCache.Entry cacheEntry = mInformationElementCache.get(bssid, rawIes,
+                result.getCapabilities(), result.getFrequencyMhz(), isEnhancedOpenSupported);
+        if (cacheEntry == null) {
             ScanResult.InformationElement[] ies =
-                    InformationElementUtil.parseInformationElements(result.getInformationElements());
+                    InformationElementUtil.parseInformationElements(rawIes);
             InformationElementUtil.Capabilities capabilities =
                     new InformationElementUtil.Capabilities();
-            capabilities.from(ies, result.getCapabilities(), mIsEnhancedOpenSupported,
+            capabilities.from(ies, result.getCapabilities(), isEnhancedOpenSupported,
                               result.getFrequencyMhz());
             String flags = capabilities.generateCapabilitiesString();
             NetworkDetail networkDetail;
@@ -1785,43 +1933,52 @@ public class WifiNative {
                 networkDetail = new NetworkDetail(bssid, ies, null, result.getFrequencyMhz());
             } catch (IllegalArgumentException e) {
                 Log.e(TAG, "Illegal argument for scan result with bssid: " + bssid, e);
-                continue;
-            }
-
-            ScanDetail scanDetail = new ScanDetail(networkDetail, wifiSsid, bssid, flags,
-                    result.getSignalMbm() / 100, result.getFrequencyMhz(), result.getTsf(), ies,
-                    null, result.getInformationElements());
-            ScanResult scanResult = scanDetail.getScanResult();
-            scanResult.setWifiStandard(wifiModeToWifiStandard(networkDetail.getWifiMode()));
-            scanResult.ifaceName = ifaceName;
-
-            // Fill up the radio chain info.
-            scanResult.radioChainInfos =
-                    new ScanResult.RadioChainInfo[result.getRadioChainInfos().size()];
-            int idx = 0;
-            for (RadioChainInfo nativeRadioChainInfo : result.getRadioChainInfos()) {
-                scanResult.radioChainInfos[idx] = new ScanResult.RadioChainInfo();
-                scanResult.radioChainInfos[idx].id = nativeRadioChainInfo.getChainId();
-                scanResult.radioChainInfos[idx].level = nativeRadioChainInfo.getLevelDbm();
-                idx++;
+                return null;
             }
-
-            // Fill MLO Attributes
-            scanResult.setApMldMacAddress(networkDetail.getMldMacAddress());
-            scanResult.setApMloLinkId(networkDetail.getMloLinkId());
-            scanResult.setAffiliatedMloLinks(networkDetail.getAffiliatedMloLinks());
-
-            results.add(scanDetail);
-        }
-        if (mVerboseLoggingEnabled) {
-            Log.d(TAG, "get " + results.size() + " scan results from wificond");
-        }
-
-        return results;
-    }
-
+            cacheEntry = mInformationElementCache.put(bssid, rawIes, result.getCapabilities(),
+                    result.getFrequencyMhz(), isEnhancedOpenSupported, ies, networkDetail, flags);
+        }
+        ScanResult.InformationElement[] ies = cacheEntry.informationElements;
+        NetworkDetail networkDetail = cacheEntry.networkDetail;
+        String flags = cacheEntry.capabilities;
+
+        // The signal level and TSF are always taken from the new scan result.
+        ScanDetail scanDetail = new ScanDetail(networkDetail, wifiSsid, bssid, flags,
+                result.getSignalMbm() / 100, result.getFrequencyMhz(), result.getTsf(), ies,
+                null, rawIes);
+        ScanResult scanResult = scanDetail.getScanResult();
+        scanResult.setWifiStandard(wifiModeToWifiStandard(networkDetail.getWifiMode()));
+        scanResult.ifaceName = ifaceName;
+
+        // Fill up the radio chain info.
+        scanResult.radioChainInfos =
+                new ScanResult.RadioChainInfo[result.getRadioChainInfos().size()];
+        int idx = 0;
+        for (RadioChainInfo nativeRadioChainInfo : result.getRadioChainInfos()) {
+            scanResult.radioChainInfos[idx] = new ScanResult.RadioChainInfo();
+            scanResult.radioChainInfos[idx].id = nativeRadioChainInfo.getChainId();
+            scanResult.radioChainInfos[idx].level = nativeRadioChainInfo.getLevelDbm();
+            idx++;
+        }
+
+        // Fill MLO Attributes
+        scanResult.setApMldMacAddress(networkDetail.getMldMacAddress());
+        scanResult.setApMloLinkId(networkDetail.getMloLinkId());
+        // The network detail may be shared with other scan results of the BSSID through the
+        // cache, and the links of a scan result are updated once connected to it, so each scan
+        // result gets its own copy of the links.
+        List<MloLink> affiliatedMloLinks = new ArrayList<>();
+        for (MloLink link : networkDetail.getAffiliatedMloLinks()) {
+            affiliatedMloLinks.add(new MloLink(link, NetworkCapabilities.REDACT_NONE));
+        }
+        scanResult.setAffiliatedMloLinks(affiliatedMloLinks);
+
+        return scanDetail;
+    }
+
+    @VisibleForTesting
     @WifiAnnotations.WifiStandard
-    private static int wifiModeToWifiStandard(int wifiMode) {
+    static int wifiModeToWifiStandard(int wifiMode) {
         switch (wifiMode) {
             case InformationElementUtil.WifiMode.MODE_11A:
             case InformationElementUtil.WifiMode.MODE_11B:
@@ -2683,6 +2840,29 @@ public class WifiNative {
         return mSupplicantStaIfaceHal.connectToNetwork(ifaceName, configuration);
     }
 
+    /**
+     * Keeps the provided networks provisioned in wpa_supplicant besides the current network, so
+     * that a later {@link #connectToNetwork(String, WifiConfiguration)} to any of them only
+     * needs to select it.
+     *
+     * @param ifaceName Name of the interface.
+     * @param configs WifiConfiguration parameters of the networks, an empty list removes all the
+     *                provisioned networks.
+     * @return {@code true} if all the networks are provisioned, {@code false} otherwise
+     */
+    public boolean provisionNetworks(@NonNull String ifaceName,
+            @NonNull List<WifiConfiguration> configs) {
+        return mSupplicantStaIfaceHal.provisionNetworks(ifaceName, configs);
+    }
+
+    /**
+     * Returns whether the supplicant HAL supports
+     * {@link #provisionNetworks(String, List)}.
+     */
+    public boolean isProvisionNetworksSupported() {
+        return mSupplicantStaIfaceHal.isProvisionNetworksSupported();
+    }
+
     /**
      * Initiates roaming to the already configured network in wpa_supplicant. If the network
      * configuration provided does not match the already configured network, then this triggers
@@ -3770,6 +3950,8 @@ public class WifiNative {
      */
     protected void dump(PrintWriter pw) {
         mHostapdHal.dump(pw);
+        mInformationElementCache.dump(pw);
+        mWifiMonitor.dump(pw);
     }
 
     //---------------------------------------------------------------------------------
@@ -103,6 +103,8 @@ public class WifiNetworkSelector {
     private boolean mVerboseLoggingEnabled = false;
     private final WifiMetrics mWifiMetrics;
     private long mLastNetworkSelectionTimeStamp = INVALID_TIME_STAMP;
+    // Network ids of the candidates of the last network selection, best scored first.
+    private List<Integer> mLastCandidateNetworkIds = new ArrayList<>();
     // Buffer of filtered scan results (Scan results considered by network selection) & associated
     // WifiConfiguration (if any).
     private final List<Pair<ScanDetail, WifiConfiguration>> mConnectableNetworks =
@@ -1218,9 +1220,13 @@ public class WifiNetworkSelector {
         // This is needed for the legacy user connect choice, at least
         Collection<Collection<WifiCandidates.Candidate>> groupedCandidates =
                 wifiCandidates.getGroupedCandidates();
+        List<WifiCandidates.ScoredCandidate> groupChoices = new ArrayList<>();
         for (Collection<WifiCandidates.Candidate> group : groupedCandidates) {
             WifiCandidates.ScoredCandidate choice = activeScorer.scoreCandidates(group);
             if (choice == null) continue;
+            if (choice.candidateKey != null) {
+                groupChoices.add(choice);
+            }
             ScanDetail scanDetail = getScanDetailForCandidateKey(choice.candidateKey);
             if (scanDetail == null) continue;
             WifiConfiguration config = mWifiConfigManager
@@ -1229,6 +1235,12 @@ public class WifiNetworkSelector {
             updateNetworkCandidateSecurityParams(config, scanDetail);
         }
 
+        groupChoices.sort((a, b) -> Double.compare(b.value, a.value));
+        mLastCandidateNetworkIds = new ArrayList<>();
+        for (WifiCandidates.ScoredCandidate choice : groupChoices) {
+            mLastCandidateNetworkIds.add(choice.candidateKey.networkId);
+        }
+
         for (Collection<WifiCandidates.Candidate> group : groupedCandidates) {
             for (WifiCandidates.Candidate candidate : group.stream()
                     .sorted((a, b) -> (b.getScanRssi() - a.getScanRssi())) // decreasing rssi
@@ -1293,6 +1305,16 @@ public class WifiNetworkSelector {
         return selectedNetwork;
     }
 
+    /**
+     * Returns the network ids of the best |maxCount| candidates of the last network selection,
+     * best scored first.
+     */
+    @NonNull
+    public List<Integer> getLastCandidateNetworkIds(int maxCount) {
+        return new ArrayList<>(mLastCandidateNetworkIds.subList(0,
+                Math.min(maxCount, mLastCandidateNetworkIds.size())));
+    }
+
     /**
      * Returns the ScanDetail given the candidate key, using the saved list of connectible networks.
      */
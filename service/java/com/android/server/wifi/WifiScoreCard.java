@@ -39,9 +39,12 @@ import android.net.MacAddress;
 import android.net.wifi.ScanResult;
 import android.net.wifi.SupplicantState;
 import android.net.wifi.WifiManager;
+import android.os.Handler;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Base64;
 import android.util.LocalLog;
+import android.util.LongSparseArray;
 import android.util.Log;
 import android.util.Pair;
 import android.util.SparseLongArray;
@@ -84,6 +87,7 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -110,7 +114,17 @@ public class WifiScoreCard {
     @VisibleForTesting
     boolean mPersistentHistograms = true;
 
-    private static final int TARGET_IN_MEMORY_ENTRIES = 50;
+    @VisibleForTesting
+    static final int TARGET_IN_MEMORY_ENTRIES = 50;
+    /**
+     * Delay of the writes issued after connection events, so that the changes of a burst of
+     * events are written to the MemoryStore together.
+     */
+    @VisibleForTesting
+    static final long WRITE_BEHIND_DELAY_MS = 5_000;
+    /** Bucket boundaries of the histogram of the time spent issuing a batch of writes. */
+    private static final int[] WRITE_LATENCY_BUCKETS_MICROS =
+            {0, 100, 200, 500, 1_000, 2_000, 5_000, 10_000, 20_000};
     private static final int UNKNOWN_REASON = -1;
 
     public static final String PER_BSSID_DATA_NAME = "scorecard.proto";
@@ -124,8 +138,19 @@ public class WifiScoreCard {
     private static final int MAX_TRAFFIC_STATS_POLL_TIME_DELTA_MS = 6_000;
 
     private final Clock mClock;
+    private final Handler mHandler;
     private final String mL2KeySeed;
     private MemoryStore mMemoryStore;
+    private boolean mWritesScheduled = false;
+    private final Runnable mScheduledWrites = () -> {
+        mWritesScheduled = false;
+        doWrites();
+    };
+    // MemoryStore write stats, dump only.
+    private long mNumWrites = 0;
+    private long mNumBytesWritten = 0;
+    private final IntHistogram mWriteLatencyHistogramMicros =
+            new IntHistogram(WRITE_LATENCY_BUCKETS_MICROS);
     private final DeviceConfigFacade mDeviceConfigFacade;
     private final Context mContext;
     private final LocalLog mLocalLog = new LocalLog(256);
@@ -271,16 +296,27 @@ public class WifiScoreCard {
 
     /**
      * @param clock is the time source
+     * @param handler is the handler of the wifi thread, on which delayed writes are done
      * @param l2KeySeed is for making our L2Keys usable only on this device
      */
-    public WifiScoreCard(Clock clock, String l2KeySeed, DeviceConfigFacade deviceConfigFacade,
-            Context context) {
+    public WifiScoreCard(Clock clock, Handler handler, String l2KeySeed,
+            DeviceConfigFacade deviceConfigFacade, Context context) {
         mClock = clock;
+        mHandler = handler;
         mContext = context;
         mL2KeySeed = l2KeySeed;
         mPlaceholderPerBssid = new PerBssid("", MacAddress.fromString(DEFAULT_MAC_ADDRESS));
         mPlaceholderPerNetwork = new PerNetwork("");
         mDeviceConfigFacade = deviceConfigFacade;
+        mFrequencyIndex = new NetworkFrequencyIndex(clock, MAX_FREQUENCIES_PER_SSID);
+    }
+
+    /**
+     * Returns the index of the frequencies on which each network was recently seen, kept up to
+     * date by the score card.
+     */
+    public @NonNull NetworkFrequencyIndex getFrequencyIndex() {
+        return mFrequencyIndex;
     }
 
     /**
@@ -366,7 +402,9 @@ public class WifiScoreCard {
                 wifiInfo.getLinkSpeed(),
                 wifiInfo.getIfaceName());
         perBssid.setNetworkConfigId(wifiInfo.getNetworkId());
-        logd("BSSID update " + event + " ID: " + perBssid.id + " " + wifiInfo);
+        if (mVerboseLoggingEnabled) {
+            logd("BSSID update " + event + " ID: " + perBssid.id + " " + wifiInfo);
+        }
     }
 
     /**
@@ -376,8 +414,10 @@ public class WifiScoreCard {
     private void updatePerNetwork(WifiScoreCardProto.Event event, String ssid, int rssi,
             int txSpeed, int failureReason, IfaceInfo ifaceInfo) {
         PerNetwork perNetwork = lookupNetwork(ssid);
-        logd("network update " + event + ((ssid == null) ? " " : " "
+        if (mVerboseLoggingEnabled) {
+            logd("network update " + event + ((ssid == null) ? " " : " "
                     + ssid) + " ID: " + perNetwork.id + " RSSI " + rssi + " txSpeed " + txSpeed);
+        }
         perNetwork.updateEventStats(event, rssi, txSpeed, failureReason, ifaceInfo);
     }
 
@@ -401,7 +441,7 @@ public class WifiScoreCard {
             if (duration >= SUCCESS_MILLIS_SINCE_ROAM) {
                 updatePerBssid(Event.ROAM_SUCCESS, wifiInfo);
                 ifaceInfo.tsRoam = TS_NONE;
-                doWritesBssid();
+                scheduleWrites();
             }
         }
     }
@@ -411,7 +451,7 @@ public class WifiScoreCard {
                 + wifiInfo.getLostTxPacketsPerSecond()
                 + wifiInfo.getRetriedTxPacketsPerSecond());
         int txSpeed = wifiInfo.getTxLinkSpeedMbps();
-        logd("txRate: " + txRate + " txSpeed: " + txSpeed);
+        if (mVerboseLoggingEnabled) logd("txRate: " + txRate + " txSpeed: " + txSpeed);
         return (txRate >= HEALTH_MONITOR_MIN_TX_PACKET_PER_SEC) ? txSpeed : LINK_SPEED_UNKNOWN;
     }
 
@@ -431,7 +471,7 @@ public class WifiScoreCard {
         PerNetwork perNetwork = lookupNetwork(wifiInfo.getSSID());
         perNetwork.initBandwidthFilter(wifiInfo);
         ifaceInfo.attemptingSwitch = false;
-        doWrites();
+        scheduleWrites();
     }
 
     /**
@@ -444,7 +484,7 @@ public class WifiScoreCard {
         if (ifaceInfo.validatedThisConnectionAtLeastOnce) return; // Only once per connection
         updatePerBssid(Event.VALIDATION_SUCCESS, wifiInfo);
         ifaceInfo.validatedThisConnectionAtLeastOnce = true;
-        doWrites();
+        scheduleWrites();
     }
 
     /**
@@ -551,7 +591,7 @@ public class WifiScoreCard {
         }
         // No need to call resetConnectionStateInternal() because
         // resetConnectionState() will be called after WifiNative.disconnect() in ClientModeImpl
-        doWrites();
+        scheduleWrites();
     }
 
     /**
@@ -769,13 +809,15 @@ public class WifiScoreCard {
         // The wall clock time in milliseconds for the last successful l2 connection.
         public long lastConnectionTimestampMs;
         public boolean changed;
-        public boolean referenced;
 
         private SecurityType mSecurityType = null;
         private int mNetworkAgentId = Integer.MIN_VALUE;
         private int mNetworkConfigId = Integer.MIN_VALUE;
-        private final Map<Pair<Event, Integer>, PerSignal>
-                mSignalForEventAndFrequency = new ArrayMap<>();
+        // Keyed by signalKey(event, frequency), so that lookups don't allocate.
+        private final LongSparseArray<PerSignal> mSignalForEventAndFrequency =
+                new LongSparseArray<>();
+        // Whether this entry is the one in mApForBssid for its BSSID.
+        private boolean mCached = false;
 
         PerBssid(String ssid, MacAddress bssid) {
             super(computeHashLong(ssid, bssid, mL2KeySeed));
@@ -783,18 +825,29 @@ public class WifiScoreCard {
             this.bssid = bssid;
             this.id = idFromLong();
             this.changed = false;
-            this.referenced = false;
+        }
+
+        /**
+         * Marks this entry as having changes to write to the MemoryStore.
+         */
+        void markChanged() {
+            changed = true;
+            // Entries which are not cached, e.g the placeholder or the ones which were replaced
+            // or evicted, are never written.
+            if (mCached) {
+                mChangedBssids.add(this);
+            }
         }
         void updateEventStats(Event event, int frequency, int rssi, int linkspeed,
                 String ifaceName) {
             PerSignal perSignal = lookupSignal(event, frequency);
             if (rssi != INVALID_RSSI) {
                 perSignal.rssi.update(rssi);
-                changed = true;
+                markChanged();
             }
             if (linkspeed > 0) {
                 perSignal.linkspeed.update(linkspeed);
-                changed = true;
+                markChanged();
             }
             IfaceInfo ifaceInfo = getIfaceInfo(ifaceName);
             if (perSignal.elapsedMs != null && ifaceInfo.tsConnectionAttemptStart > TS_NONE) {
@@ -802,13 +855,13 @@ public class WifiScoreCard {
                         mClock.getElapsedSinceBootMillis() - ifaceInfo.tsConnectionAttemptStart;
                 if (millis >= 0) {
                     perSignal.elapsedMs.update(millis);
-                    changed = true;
+                    markChanged();
                 }
             }
         }
         PerSignal lookupSignal(Event event, int frequency) {
             finishPendingRead();
-            Pair<Event, Integer> key = new Pair<>(event, frequency);
+            long key = signalKey(event, frequency);
             PerSignal ans = mSignalForEventAndFrequency.get(key);
             if (ans == null) {
                 ans = new PerSignal(event, frequency);
@@ -824,7 +877,7 @@ public class WifiScoreCard {
             finishPendingRead();
             if (!Objects.equals(securityType, mSecurityType)) {
                 mSecurityType = securityType;
-                changed = true;
+                markChanged();
             }
         }
         void setNetworkConfigId(int networkConfigId) {
@@ -846,8 +899,8 @@ public class WifiScoreCard {
             if (mSecurityType != null) {
                 builder.setSecurityType(mSecurityType);
             }
-            for (PerSignal sig: mSignalForEventAndFrequency.values()) {
-                builder.addEventStats(sig.toSignal());
+            for (int i = 0; i < mSignalForEventAndFrequency.size(); i++) {
+                builder.addEventStats(mSignalForEventAndFrequency.valueAt(i).toSignal());
             }
             builder.setBandwidthStatsAll(toBandwidthStatsAll(
                     bandwidthStatsValue, bandwidthStatsCount));
@@ -866,19 +919,20 @@ public class WifiScoreCard {
                         Log.i(TAG, "ID: " + id
                                 + "SecurityType changed: " + prev + " to " + mSecurityType);
                     }
-                    changed = true;
+                    markChanged();
                 }
             }
             for (Signal signal: ap.getEventStatsList()) {
-                Pair<Event, Integer> key = new Pair<>(signal.getEvent(), signal.getFrequency());
+                long key = signalKey(signal.getEvent(), signal.getFrequency());
                 PerSignal perSignal = mSignalForEventAndFrequency.get(key);
                 if (perSignal == null) {
                     mSignalForEventAndFrequency.put(key,
-                            new PerSignal(key.first, key.second).merge(signal));
+                            new PerSignal(signal.getEvent(), signal.getFrequency())
+                                    .merge(signal));
                     // No need to set changed for this, since we are in sync with what's stored
                 } else {
                     perSignal.merge(signal);
-                    changed = true;
+                    markChanged();
                 }
             }
             if (ap.hasBandwidthStatsAll()) {
@@ -920,7 +974,8 @@ public class WifiScoreCard {
             int trials = 2;
             int successes = 1;
             // Aggregate over all of the frequencies
-            for (PerSignal s : mSignalForEventAndFrequency.values()) {
+            for (int i = 0; i < mSignalForEventAndFrequency.size(); i++) {
+                PerSignal s = mSignalForEventAndFrequency.valueAt(i);
                 switch (s.event) {
                     case IP_CONFIGURATION_SUCCESS:
                         if (s.elapsedMs != null) {
@@ -1091,6 +1146,17 @@ public class WifiScoreCard {
             mFreqTimestamp = new SparseLongArray();
         }
 
+        /**
+         * Marks this entry as having changes to write to the MemoryStore.
+         */
+        void markChanged() {
+            changed = true;
+            // Entries which are not cached, e.g the placeholder, are never written.
+            if (mApForNetwork.get(ssid) == this) {
+                mChangedNetworks.add(this);
+            }
+        }
+
         void updateEventStats(Event event, int rssi, int txSpeed, int failureReason,
                 IfaceInfo ifaceInfo) {
             finishPendingRead();
@@ -1100,7 +1166,7 @@ public class WifiScoreCard {
                     mLastRssiPoll = rssi;
                     mLastRssiPollTimeMs = currTimeMs;
                     mLastTxSpeedPoll = txSpeed;
-                    changed = true;
+                    markChanged();
                     break;
                 case CONNECTION_ATTEMPT:
                     logd(" scan rssi: " + rssi);
@@ -1108,7 +1174,7 @@ public class WifiScoreCard {
                         mRecentStats.incrementCount(CNT_CONNECTION_ATTEMPT);
                     }
                     mConnectionSessionStartTimeMs = currTimeMs;
-                    changed = true;
+                    markChanged();
                     break;
                 case CONNECTION_FAILURE:
                     mConnectionSessionStartTimeMs = TS_NONE;
@@ -1140,13 +1206,13 @@ public class WifiScoreCard {
                                 break;
                         }
                     }
-                    changed = true;
+                    markChanged();
                     break;
                 case IP_CONFIGURATION_SUCCESS:
                     // Reset CNT_CONSECUTIVE_CONNECTION_FAILURE since L3 is also connected
                     mRecentStats.clearCount(CNT_CONSECUTIVE_CONNECTION_FAILURE);
                     mRecentStats.clearCount(CNT_CONSECUTIVE_WRONG_PASSWORD_FAILURE);
-                    changed = true;
+                    markChanged();
                     logd(this.toString());
                     break;
                 case WIFI_DISABLED:
@@ -1161,7 +1227,7 @@ public class WifiScoreCard {
                     mFilterKbps[LINK_RX] = 0;
                     mBandwidthUpdateRssiDbm = -1;
                     mBandwidthUpdateBandIdx = -1;
-                    changed = true;
+                    markChanged();
                     break;
                 default:
                     break;
@@ -1275,6 +1341,15 @@ public class WifiScoreCard {
         void addFrequency(int frequency) {
             mFrequencyList.add(frequency);
             mFreqTimestamp.put(frequency, mClock.getElapsedSinceBootMillis());
+            if (isIndexed()) {
+                mFrequencyIndex.addFrequency(ssid, frequency);
+            }
+        }
+
+        // Only the networks tracked by the score card are in the frequency index, not the
+        // placeholder or the networks only parsed from the memory store.
+        private boolean isIndexed() {
+            return mApForNetwork.get(ssid) == this;
         }
 
         /**
@@ -1394,7 +1469,7 @@ public class WifiScoreCard {
                 return;
             }
             int linkBandwidthKbps = (int) speedKbps;
-            changed = true;
+            markChanged();
             mBandwidthSampleValid[link] = true;
             mBandwidthSampleKbps[link] = linkBandwidthKbps;
             // Update SSID level stats
@@ -1403,7 +1478,7 @@ public class WifiScoreCard {
             // Update BSSID level stats
             PerBssid perBssid = lookupBssid(ssid, mBssid);
             if (perBssid != mPlaceholderPerBssid) {
-                perBssid.changed = true;
+                perBssid.markChanged();
                 perBssid.bandwidthStatsValue[mBandIdx][link][mSignalLevel] += linkBandwidthKbps;
                 perBssid.bandwidthStatsCount[mBandIdx][link][mSignalLevel]++;
             }
@@ -1769,7 +1844,7 @@ public class WifiScoreCard {
             if (!isRecentConnectionStatsSufficient()) return;
             mStatsCurrBuild.accumulateAll(mRecentStats);
             mRecentStats.clear();
-            changed = true;
+            markChanged();
         }
 
         // Refresh StatsPrevBuild with StatsCurrBuild which is cleared afterwards
@@ -1778,7 +1853,7 @@ public class WifiScoreCard {
             mStatsPrevBuild.copy(mStatsCurrBuild);
             mRecentStats.clear();
             mStatsCurrBuild.clear();
-            changed = true;
+            markChanged();
         }
 
         NetworkStats toNetworkStats() {
@@ -1823,7 +1898,7 @@ public class WifiScoreCard {
                 return;
             }
             mergeNetworkStatsFromMemory(ns);
-            changed = true;
+            markChanged();
         }
 
         PerNetwork mergeNetworkStatsFromMemory(@NonNull NetworkStats ns) {
@@ -1853,6 +1928,10 @@ public class WifiScoreCard {
                 for (int i = mergedFrequencyList.size() - 1; i >= 0; i--) {
                     mFrequencyList.add(mergedFrequencyList.get(i));
                 }
+                if (isIndexed()) {
+                    mFrequencyIndex.setFrequencies(ssid, mFrequencyList.getEntries(),
+                            mFreqTimestamp);
+                }
             }
             if (ns.hasBandwidthStatsAll()) {
                 mergeBandwidthStatsAll(ns.getBandwidthStatsAll(),
@@ -2054,6 +2133,8 @@ public class WifiScoreCard {
         private final long mHash;
         private static final String TAG = "WifiMemoryStoreAccessBase";
         private final AtomicReference<byte[]> mPendingReadFromStore = new AtomicReference<>();
+        // Whether the cluster of this entry was already set in the MemoryStore.
+        boolean clusterSet = false;
         MemoryStoreAccessBase(long hash) {
             mHash = hash;
             mL2Key = l2KeyFromLong();
@@ -2112,9 +2193,12 @@ public class WifiScoreCard {
     // for instance when we are not associated.
     private final PerBssid mPlaceholderPerBssid;
 
-    private final Map<MacAddress, PerBssid> mApForBssid = new ArrayMap<>();
+    // In access order, from the least to the most recently used.
+    private final LinkedHashMap<MacAddress, PerBssid> mApForBssid =
+            new LinkedHashMap<>(16, 0.75f, /* accessOrder */ true);
     private int mApForBssidTargetSize = TARGET_IN_MEMORY_ENTRIES;
-    private int mApForBssidReferenced = 0;
+    // Cached entries with changes not yet written to the MemoryStore.
+    private final ArraySet<PerBssid> mChangedBssids = new ArraySet<>();
 
     // TODO should be private, but WifiCandidates needs it
     @NonNull PerBssid lookupBssid(String ssid, String bssid) {
@@ -2133,16 +2217,14 @@ public class WifiScoreCard {
         PerBssid ans = mApForBssid.get(mac);
         if (ans == null || !ans.ssid.equals(ssid)) {
             ans = new PerBssid(ssid, mac);
+            ans.mCached = true;
             PerBssid old = mApForBssid.put(mac, ans);
             if (old != null) {
                 Log.i(TAG, "Discarding stats for score card (ssid changed) ID: " + old.id);
-                if (old.referenced) mApForBssidReferenced--;
+                old.mCached = false;
+                mChangedBssids.remove(old);
             }
             requestReadBssid(ans);
-        }
-        if (!ans.referenced) {
-            ans.referenced = true;
-            mApForBssidReferenced++;
             clean();
         }
         return ans;
@@ -2167,6 +2249,9 @@ public class WifiScoreCard {
     // for instance when we are not associated.
     private final PerNetwork mPlaceholderPerNetwork;
     private final Map<String, PerNetwork> mApForNetwork = new ArrayMap<>();
+    // Cached entries with changes not yet written to the MemoryStore.
+    private final ArraySet<PerNetwork> mChangedNetworks = new ArraySet<>();
+    private final NetworkFrequencyIndex mFrequencyIndex;
     @NonNull PerNetwork lookupNetwork(String ssid) {
         if (ssid == null || WifiManager.UNKNOWN_SSID.equals(ssid)) {
             return mPlaceholderPerNetwork;
@@ -2189,8 +2274,17 @@ public class WifiScoreCard {
         if (ssid == null || WifiManager.UNKNOWN_SSID.equals(ssid)) {
             return;
         }
-        mApForNetwork.remove(ssid);
-        mApForBssid.entrySet().removeIf(entry -> ssid.equals(entry.getValue().ssid));
+        PerNetwork perNetwork = mApForNetwork.remove(ssid);
+        if (perNetwork != null) {
+            mChangedNetworks.remove(perNetwork);
+        }
+        mFrequencyIndex.removeNetwork(ssid);
+        mApForBssid.values().removeIf(perBssid -> {
+            if (!ssid.equals(perBssid.ssid)) return false;
+            perBssid.mCached = false;
+            return true;
+        });
+        mChangedBssids.removeIf(perBssid -> ssid.equals(perBssid.ssid));
         if (mMemoryStore == null) return;
         mMemoryStore.removeCluster(groupHintFromSsid(ssid));
     }
@@ -2212,78 +2306,100 @@ public class WifiScoreCard {
      * @returns number of writes issued.
      */
     public int doWrites() {
-        return doWritesBssid() + doWritesNetwork();
-    }
-
-    private int doWritesBssid() {
+        if (mWritesScheduled) {
+            mHandler.removeCallbacks(mScheduledWrites);
+            mWritesScheduled = false;
+        }
         if (mMemoryStore == null) return 0;
-        int count = 0;
+        long startNanos = mClock.getElapsedSinceBootNanos();
         int bytes = 0;
-        for (PerBssid perBssid : mApForBssid.values()) {
-            if (perBssid.changed) {
-                perBssid.finishPendingRead();
-                byte[] serialized = perBssid.toAccessPoint(/* No BSSID */ true).toByteArray();
-                mMemoryStore.setCluster(perBssid.getL2Key(), groupHintFromSsid(perBssid.ssid));
-                mMemoryStore.write(perBssid.getL2Key(), PER_BSSID_DATA_NAME, serialized);
-
-                perBssid.changed = false;
-                count++;
-                bytes += serialized.length;
-            }
+        int count = 0;
+        for (PerBssid perBssid : mChangedBssids.toArray(new PerBssid[0])) {
+            bytes += writeBssid(perBssid);
+            count++;
         }
-        if (mVerboseLoggingEnabled && count > 0) {
-            Log.v(TAG, "Write count: " + count + ", bytes: " + bytes);
+        for (PerNetwork perNetwork : mChangedNetworks.toArray(new PerNetwork[0])) {
+            bytes += writeNetwork(perNetwork);
+            count++;
         }
+        noteWrites(count, bytes, startNanos);
         return count;
     }
 
-    private int doWritesNetwork() {
-        if (mMemoryStore == null) return 0;
-        int count = 0;
-        int bytes = 0;
-        for (PerNetwork perNetwork : mApForNetwork.values()) {
-            if (perNetwork.changed) {
-                perNetwork.finishPendingRead();
-                byte[] serialized = perNetwork.toNetworkStats().toByteArray();
-                mMemoryStore.setCluster(perNetwork.getL2Key(), groupHintFromSsid(perNetwork.ssid));
-                mMemoryStore.write(perNetwork.getL2Key(), PER_NETWORK_DATA_NAME, serialized);
-                perNetwork.changed = false;
-                count++;
-                bytes += serialized.length;
-            }
+    /**
+     * Issues write requests for all changed entries after {@link #WRITE_BEHIND_DELAY_MS}, unless
+     * already scheduled, so that the changes of the following events are written together.
+     */
+    private void scheduleWrites() {
+        if (mMemoryStore == null || mWritesScheduled) return;
+        mWritesScheduled = mHandler.postDelayed(mScheduledWrites, WRITE_BEHIND_DELAY_MS);
+    }
+
+    /**
+     * Writes a changed entry, and returns the number of bytes written.
+     */
+    private int writeBssid(PerBssid perBssid) {
+        perBssid.finishPendingRead();
+        byte[] serialized = perBssid.toAccessPoint(/* No BSSID */ true).toByteArray();
+        if (!perBssid.clusterSet) {
+            mMemoryStore.setCluster(perBssid.getL2Key(), groupHintFromSsid(perBssid.ssid));
+            perBssid.clusterSet = true;
         }
-        if (mVerboseLoggingEnabled && count > 0) {
-            Log.v(TAG, "Write count: " + count + ", bytes: " + bytes);
+        mMemoryStore.write(perBssid.getL2Key(), PER_BSSID_DATA_NAME, serialized);
+        perBssid.changed = false;
+        mChangedBssids.remove(perBssid);
+        return serialized.length;
+    }
+
+    /**
+     * Writes a changed entry, and returns the number of bytes written.
+     */
+    private int writeNetwork(PerNetwork perNetwork) {
+        perNetwork.finishPendingRead();
+        byte[] serialized = perNetwork.toNetworkStats().toByteArray();
+        if (!perNetwork.clusterSet) {
+            mMemoryStore.setCluster(perNetwork.getL2Key(), groupHintFromSsid(perNetwork.ssid));
+            perNetwork.clusterSet = true;
+        }
+        mMemoryStore.write(perNetwork.getL2Key(), PER_NETWORK_DATA_NAME, serialized);
+        perNetwork.changed = false;
+        mChangedNetworks.remove(perNetwork);
+        return serialized.length;
+    }
+
+    private void noteWrites(int count, int bytes, long startNanos) {
+        if (count == 0) return;
+        long latencyMicros = (mClock.getElapsedSinceBootNanos() - startNanos) / 1000;
+        mNumWrites += count;
+        mNumBytesWritten += bytes;
+        mWriteLatencyHistogramMicros.increment((int) Math.min(latencyMicros, Integer.MAX_VALUE));
+        if (mVerboseLoggingEnabled) {
+            Log.v(TAG, "Write count: " + count + ", bytes: " + bytes
+                    + ", latency us: " + latencyMicros);
         }
-        return count;
     }
 
     /**
-     * Evicts older entries from memory.
-     *
-     * This uses an approximate least-recently-used method. When the number of
-     * referenced entries exceeds the target value, any items that have not been
-     * referenced since the last round are evicted, and the remaining entries
-     * are marked as unreferenced. The total count varies between the target
-     * value and twice the target value.
+     * Evicts the least recently used entries from memory, once there are more than the target
+     * number of entries. Changed entries are written before being evicted.
      */
     private void clean() {
-        if (mMemoryStore == null) return;
-        if (mApForBssidReferenced >= mApForBssidTargetSize) {
-            doWritesBssid(); // Do not want to evict changed items
-            // Evict the unreferenced ones, and clear all the referenced bits for the next round.
-            Iterator<Map.Entry<MacAddress, PerBssid>> it = mApForBssid.entrySet().iterator();
-            while (it.hasNext()) {
-                PerBssid perBssid = it.next().getValue();
-                if (perBssid.referenced) {
-                    perBssid.referenced = false;
-                } else {
-                    it.remove();
-                    if (mVerboseLoggingEnabled) Log.v(TAG, "Evict " + perBssid.id);
-                }
+        if (mMemoryStore == null || mApForBssid.size() <= mApForBssidTargetSize) return;
+        long startNanos = mClock.getElapsedSinceBootNanos();
+        int bytes = 0;
+        int count = 0;
+        Iterator<PerBssid> it = mApForBssid.values().iterator();
+        while (mApForBssid.size() > mApForBssidTargetSize) {
+            PerBssid perBssid = it.next();
+            if (perBssid.changed) {
+                bytes += writeBssid(perBssid);
+                count++;
             }
-            mApForBssidReferenced = 0;
+            it.remove();
+            perBssid.mCached = false;
+            if (mVerboseLoggingEnabled) Log.v(TAG, "Evict " + perBssid.id);
         }
+        noteWrites(count, bytes, startNanos);
     }
 
     /**
@@ -2335,6 +2451,10 @@ public class WifiScoreCard {
         return buffer.getLong();
     }
 
+    private static long signalKey(Event event, int frequency) {
+        return ((long) event.getNumber() << 32) | (frequency & 0xffffffffL);
+    }
+
     private static String groupHintFromLong(long hash) {
         return "G" + Long.toHexString(hash);
     }
@@ -2582,8 +2702,14 @@ public class WifiScoreCard {
      * received the factoryReset.
      */
     public void clear() {
+        for (PerBssid perBssid : mApForBssid.values()) {
+            perBssid.mCached = false;
+        }
         mApForBssid.clear();
         mApForNetwork.clear();
+        mChangedBssids.clear();
+        mChangedNetworks.clear();
+        mFrequencyIndex.clear();
         resetAllConnectionStatesInternal();
     }
 
@@ -2677,6 +2803,9 @@ public class WifiScoreCard {
                 printAvgStats(mL2ErrorAccPercent[i][j], mBwEstCount[i][j], pw);
             }
         }
+        pw.println(" MemoryStore writes: " + mNumWrites + ", bytes: " + mNumBytesWritten
+                + ", pending: " + (mChangedBssids.size() + mChangedNetworks.size()));
+        pw.println(" MemoryStore write batch latency (us): " + mWriteLatencyHistogramMicros);
         pw.println();
     }
 
@@ -546,6 +546,11 @@ public class WifiServiceImpl extends BaseWifiService {
                 Log.e(TAG, "Failed to load from config store");
             }
             mWifiConfigManager.incrementNumRebootsSinceLastUse();
+            ConnectionEventJournal connectionEventJournal =
+                    mWifiInjector.getConnectionEventJournal();
+            if (connectionEventJournal != null) {
+                connectionEventJournal.open();
+            }
             // config store is read, check if verbose logging is enabled.
             enableVerboseLoggingInternal(
                     mWifiInjector.getSettingsConfigStore().get(WIFI_VERBOSE_LOGGING_ENABLED)
@@ -5082,6 +5087,11 @@ public class WifiServiceImpl extends BaseWifiService {
             mWifiInjector.getWifiScoreCard().clear();
             mWifiHealthMonitor.clear();
             mWifiCarrierInfoManager.clear();
+            ConnectionEventJournal connectionEventJournal =
+                    mWifiInjector.getConnectionEventJournal();
+            if (connectionEventJournal != null) {
+                connectionEventJournal.clear();
+            }
             notifyFactoryReset();
         });
     }
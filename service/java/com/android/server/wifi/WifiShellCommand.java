@@ -184,6 +184,7 @@ public class WifiShellCommand extends BasicShellCommandHandler {
     private final WifiCarrierInfoManager mWifiCarrierInfoManager;
     private final WifiNetworkFactory mWifiNetworkFactory;
     private final SelfRecovery mSelfRecovery;
+    private final ConnectionEventJournal mConnectionEventJournal;
     private final WifiThreadRunner mWifiThreadRunner;
     private final WifiApConfigStore mWifiApConfigStore;
     private int mSapState = WifiManager.WIFI_STATE_UNKNOWN;
@@ -406,6 +407,7 @@ public class WifiShellCommand extends BasicShellCommandHandler {
         mWifiCarrierInfoManager = wifiInjector.getWifiCarrierInfoManager();
         mWifiNetworkFactory = wifiInjector.getWifiNetworkFactory();
         mSelfRecovery = wifiInjector.getSelfRecovery();
+        mConnectionEventJournal = wifiInjector.getConnectionEventJournal();
         mWifiApConfigStore = wifiInjector.getWifiApConfigStore();
         mScanRequestProxy = wifiInjector.getScanRequestProxy();
         mWifiDialogManager = wifiInjector.getWifiDialogManager();
@@ -1209,6 +1211,14 @@ public class WifiShellCommand extends BasicShellCommandHandler {
                     mSelfRecovery.trigger(REASON_API_CALL);
                     return 0;
                 }
+                case "dump-connection-event-journal": {
+                    if (mConnectionEventJournal == null) {
+                        pw.println("The connection event journal is disabled");
+                        return -1;
+                    }
+                    mConnectionEventJournal.dump(pw);
+                    return 0;
+                }
                 case "add-fake-scan": {
                     String option = getNextOption();
                     boolean isHex = (option != null && option.equals("-x"));
@@ -2468,6 +2478,9 @@ public class WifiShellCommand extends BasicShellCommandHandler {
                 + " approval will be deleted, it is the same as uninstalling this app.");
         pw.println("  trigger-recovery");
         pw.println("    Trigger Wi-Fi subsystem restart.");
+        pw.println("  dump-connection-event-journal");
+        pw.println("    Decode the journal of the connection events, which is kept across "
+                + "restarts.");
         pw.println("  start-faking-scans");
         pw.println("    Start faking scan results into the framework (configured with "
                 + "'add-fake-scan'), stop with 'stop-faking-scans'.");
@@ -68,6 +68,7 @@ import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.util.Arrays;
 import java.util.Enumeration;
@@ -1720,26 +1721,23 @@ public class WifiAwareDataPathStateManager {
                 return null;
             }
 
-            TlvBufferUtils.TlvConstructor tlvc = new TlvBufferUtils.TlvConstructor(1, 2);
-            tlvc.setByteOrder(ByteOrder.LITTLE_ENDIAN);
-            tlvc.allocate(20); // safe size for now
-
-            tlvc.putRawByteArray(WFA_OUI);
-            tlvc.putRawByte((byte) GENERIC_SERVICE_PROTOCOL_TYPE);
+            ByteBuffer buffer = ByteBuffer.allocate(20); // safe size for now
+            TlvBufferUtils.TlvWriter tlvw = new TlvBufferUtils.TlvWriter(1, 2);
+            tlvw.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+            tlvw.wrap(buffer);
 
+            int serviceInfo = tlvw.startElement(SERVICE_INFO_TYPE);
+            tlvw.putRawByteArray(WFA_OUI);
+            tlvw.putRawByte((byte) GENERIC_SERVICE_PROTOCOL_TYPE);
             if (port != 0) {
-                tlvc.putShort(SUB_TYPE_PORT, (short) port);
+                tlvw.putShort(SUB_TYPE_PORT, (short) port);
             }
             if (transportProtocol != -1) {
-                tlvc.putByte(SUB_TYPE_TRANSPORT_PROTOCOL, (byte) transportProtocol);
+                tlvw.putByte(SUB_TYPE_TRANSPORT_PROTOCOL, (byte) transportProtocol);
             }
+            tlvw.endElement(serviceInfo);
 
-            byte[] subTypes = tlvc.getArray();
-
-            tlvc.allocate(20);
-            tlvc.putByteArray(SERVICE_INFO_TYPE, subTypes);
-
-            return tlvc.getArray();
+            return Arrays.copyOf(buffer.array(), buffer.position());
         }
 
         static class ParsedResults {
@@ -1765,21 +1763,22 @@ public class WifiAwareDataPathStateManager {
             byte[] ipv6Override = null;
 
             try {
-                TlvBufferUtils.TlvIterable tlvi = new TlvBufferUtils.TlvIterable(1, 2, tlvs);
-                tlvi.setByteOrder(ByteOrder.LITTLE_ENDIAN);
-                for (TlvBufferUtils.TlvElement tlve : tlvi) {
-                    switch (tlve.type) {
+                TlvBufferUtils.TlvReader tlvr = new TlvBufferUtils.TlvReader(1, 2);
+                tlvr.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+                tlvr.reset(tlvs);
+                while (tlvr.next()) {
+                    switch (tlvr.getType()) {
                         case IPV6_LL_TYPE:
-                            if (tlve.length != 8) { // 8 bytes in IPv6 address
+                            if (tlvr.getLength() != 8) { // 8 bytes in IPv6 address
                                 Log.e(TAG, "NetworkInformationData: invalid IPv6 TLV -- length: "
-                                        + tlve.length);
+                                        + tlvr.getLength());
                                 return null;
                             }
-                            ipv6Override = tlve.getRawData();
+                            ipv6Override = tlvr.getRawData();
                             break;
                         case SERVICE_INFO_TYPE:
                             Pair<Integer, Integer> serviceInfo = parseServiceInfoTlv(
-                                    tlve.getRawData());
+                                    tlvr.getArray(), tlvr.getOffset(), tlvr.getLength());
                             if (serviceInfo == null) {
                                 return null;
                             }
@@ -1788,7 +1787,8 @@ public class WifiAwareDataPathStateManager {
                             break;
                         default:
                             Log.w(TAG,
-                                    "NetworkInformationData: ignoring unknown T -- " + tlve.type);
+                                    "NetworkInformationData: ignoring unknown T -- "
+                                            + tlvr.getType());
                             break;
                     }
                 }
@@ -1800,39 +1800,41 @@ public class WifiAwareDataPathStateManager {
         }
 
         /**
-         * Parse the Service Info TLV:
+         * Parse the Service Info TLV, of |length| bytes at |offset| of |array|:
          * - Returns null on error
          * - Returns <port | 0, transport-protocol | -1> otherwise
          */
-        private static Pair<Integer, Integer> parseServiceInfoTlv(byte[] tlv) {
+        private static Pair<Integer, Integer> parseServiceInfoTlv(byte[] array, int offset,
+                int length) {
             int port = 0;
             int transportProtocol = -1;
 
-            if (tlv.length < 4) {
+            if (length < 4) {
                 Log.e(TAG, "NetworkInformationData: invalid SERVICE_INFO_TYPE length");
                 return null;
             }
-            if (tlv[0] != WFA_OUI[0] || tlv[1] != WFA_OUI[1] || tlv[2] != WFA_OUI[2]) {
+            if (array[offset] != WFA_OUI[0] || array[offset + 1] != WFA_OUI[1]
+                    || array[offset + 2] != WFA_OUI[2]) {
                 Log.e(TAG, "NetworkInformationData: unexpected OUI");
                 return null;
             }
-            if (tlv[3] != GENERIC_SERVICE_PROTOCOL_TYPE) {
-                Log.e(TAG, "NetworkInformationData: invalid type -- " + tlv[3]);
+            if (array[offset + 3] != GENERIC_SERVICE_PROTOCOL_TYPE) {
+                Log.e(TAG, "NetworkInformationData: invalid type -- " + array[offset + 3]);
                 return null;
             }
-            TlvBufferUtils.TlvIterable subTlvi = new TlvBufferUtils.TlvIterable(1,
-                    2, Arrays.copyOfRange(tlv, 4, tlv.length));
-            subTlvi.setByteOrder(ByteOrder.LITTLE_ENDIAN);
-            for (TlvBufferUtils.TlvElement subTlve : subTlvi) {
-                switch (subTlve.type) {
+            TlvBufferUtils.TlvReader subTlvr = new TlvBufferUtils.TlvReader(1, 2);
+            subTlvr.setByteOrder(ByteOrder.LITTLE_ENDIAN);
+            subTlvr.reset(array, offset + 4, length - 4);
+            while (subTlvr.next()) {
+                switch (subTlvr.getType()) {
                     case SUB_TYPE_PORT:
-                        if (subTlve.length != 2) {
+                        if (subTlvr.getLength() != 2) {
                             Log.e(TAG,
                                     "NetworkInformationData: invalid port TLV "
-                                            + "length -- " + subTlve.length);
+                                            + "length -- " + subTlvr.getLength());
                             return null;
                         }
-                        port = subTlve.getShort();
+                        port = subTlvr.getShort();
                         if (port < 0) {
                             port += -2 * (int) Short.MIN_VALUE;
                         }
@@ -1843,19 +1845,19 @@ public class WifiAwareDataPathStateManager {
                         }
                         break;
                     case SUB_TYPE_TRANSPORT_PROTOCOL:
-                        if (subTlve.length != 1) {
+                        if (subTlvr.getLength() != 1) {
                             Log.e(TAG,  "NetworkInformationData: invalid transport "
-                                    + "protocol TLV length -- " + subTlve.length);
+                                    + "protocol TLV length -- " + subTlvr.getLength());
                             return null;
                         }
-                        transportProtocol = subTlve.getByte();
+                        transportProtocol = subTlvr.getByte();
                         if (transportProtocol < 0) {
                             transportProtocol += -2 * (int) Byte.MIN_VALUE;
                         }
                         break;
                     default:
                         Log.w(TAG,  "NetworkInformationData: ignoring unknown "
-                                + "SERVICE_INFO.T -- " + subTlve.type);
+                                + "SERVICE_INFO.T -- " + subTlvr.getType());
                         break;
                 }
             }
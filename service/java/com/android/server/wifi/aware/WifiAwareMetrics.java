@@ -35,6 +35,7 @@ import com.android.server.wifi.util.MetricsUtils;
 
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -68,6 +69,19 @@ public class WifiAwareMetrics {
     //   >= 100
     private static final int[] RANGING_LIMIT_METERS = { 10, 30, 60, 100 };
 
+    // Histogram for the depth of the host send message queue. Indicates the following 6 buckets:
+    //   < 5
+    //   [5, 10)
+    //   [10, 25)
+    //   [25, 50)
+    //   [50, 100)
+    //   >= 100
+    private static final int[] SEND_QUEUE_DEPTH_BUCKETS = { 5, 10, 25, 50, 100 };
+
+    // Number of the most recent message send latencies kept to compute percentiles.
+    @VisibleForTesting
+    static final int NUM_SEND_LATENCY_SAMPLES = 1000;
+
     private final Object mLock = new Object();
     private final Clock mClock;
 
@@ -137,6 +151,14 @@ public class WifiAwareMetrics {
     private SparseIntArray mHistogramNdpDuration = new SparseIntArray();
     private SparseIntArray mHistogramNdpRequestType = new SparseIntArray();
 
+    // message send data
+    private int mMaxSendQueueDepth = 0;
+    private SparseIntArray mHistogramSendQueueDepth = new SparseIntArray();
+    private SparseIntArray mHistogramSendLatencyMs = new SparseIntArray();
+    private final long[] mSendLatencySamplesMs = new long[NUM_SEND_LATENCY_SAMPLES];
+    private int mNumSendLatencySamples = 0;
+    private int mNumSendMessagesExpired = 0;
+
     public WifiAwareMetrics(Clock clock) {
         mClock = clock;
     }
@@ -496,6 +518,57 @@ public class WifiAwareMetrics {
         }
     }
 
+    /**
+     * Record the depth of the host send message queue, after a message is added to it.
+     */
+    public void recordSendQueueDepth(int depth) {
+        synchronized (mLock) {
+            mMaxSendQueueDepth = Math.max(mMaxSendQueueDepth, depth);
+            MetricsUtils.addValueToLinearHistogram(depth, mHistogramSendQueueDepth,
+                    SEND_QUEUE_DEPTH_BUCKETS);
+        }
+    }
+
+    /**
+     * Record the latency of a successfully sent message, from its arrival in the host queue to
+     * its transmission over-the-air, including any retransmission.
+     */
+    public void recordMessageSendLatency(long latencyMs) {
+        synchronized (mLock) {
+            MetricsUtils.addValueToLogHistogram(latencyMs, mHistogramSendLatencyMs,
+                    DURATION_LOG_HISTOGRAM);
+            mSendLatencySamplesMs[mNumSendLatencySamples % NUM_SEND_LATENCY_SAMPLES] = latencyMs;
+            mNumSendLatencySamples++;
+        }
+    }
+
+    /**
+     * Record a message which was dropped since it waited in the host queue past its deadline.
+     */
+    public void recordMessageSendExpired() {
+        synchronized (mLock) {
+            mNumSendMessagesExpired++;
+        }
+    }
+
+    /**
+     * Returns the nearest-rank percentile of the latencies of the most recent
+     * {@link #NUM_SEND_LATENCY_SAMPLES} successfully sent messages, or -1 if there is none.
+     */
+    @VisibleForTesting
+    long getMessageSendLatencyPercentileMs(int percentile) {
+        synchronized (mLock) {
+            int numSamples = Math.min(mNumSendLatencySamples, NUM_SEND_LATENCY_SAMPLES);
+            if (numSamples == 0) {
+                return -1;
+            }
+            long[] samples = Arrays.copyOf(mSendLatencySamplesMs, numSamples);
+            Arrays.sort(samples);
+            int rank = (int) Math.ceil(percentile / 100.0 * numSamples);
+            return samples[Math.max(rank, 1) - 1];
+        }
+    }
+
     /**
      * Consolidate all metrics into the proto.
      */
@@ -658,6 +731,12 @@ public class WifiAwareMetrics {
 
             mHistogramNdpDuration.clear();
             mHistogramNdpRequestType.clear();
+
+            mMaxSendQueueDepth = 0;
+            mHistogramSendQueueDepth.clear();
+            mHistogramSendLatencyMs.clear();
+            mNumSendLatencySamples = 0;
+            mNumSendMessagesExpired = 0;
         }
     }
 
@@ -798,6 +877,23 @@ public class WifiAwareMetrics {
                 pw.println("  " + mHistogramNdpRequestType.keyAt(i) + ": "
                         + mHistogramNdpRequestType.valueAt(i));
             }
+
+            pw.println("mMaxSendQueueDepth:" + mMaxSendQueueDepth);
+            pw.println("mHistogramSendQueueDepth:");
+            for (int i = 0; i < mHistogramSendQueueDepth.size(); ++i) {
+                pw.println("  " + mHistogramSendQueueDepth.keyAt(i) + ": "
+                        + mHistogramSendQueueDepth.valueAt(i));
+            }
+            pw.println("mHistogramSendLatencyMs:");
+            for (int i = 0; i < mHistogramSendLatencyMs.size(); ++i) {
+                pw.println("  " + mHistogramSendLatencyMs.keyAt(i) + ": "
+                        + mHistogramSendLatencyMs.valueAt(i));
+            }
+            pw.println("mSendLatencyMs: p50=" + getMessageSendLatencyPercentileMs(50)
+                    + ", p90=" + getMessageSendLatencyPercentileMs(90)
+                    + ", p99=" + getMessageSendLatencyPercentileMs(99)
+                    + ", numSamples=" + mNumSendLatencySamples);
+            pw.println("mNumSendMessagesExpired:" + mNumSendMessagesExpired);
         }
     }
 
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi.aware;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.util.SparseArray;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.function.Consumer;
+
+/**
+ * Host-side queue of the messages waiting to be transmitted to the firmware by
+ * {@link WifiAwareStateManager}.
+ *
+ * The queue serves the UIDs in round-robin order, and the discovery sessions of each UID in
+ * round-robin order, so that an app with many queued messages can't delay the messages of the
+ * other apps by more than one message per turn. Within a session, messages are served in
+ * increasing sequence number order, so that a message put back in the queue (e.g. to be
+ * retransmitted) is served before the messages of the session which arrived after it.
+ *
+ * Each message has a deadline, after which it should be removed with
+ * {@link #removeExpired(long, List)} instead of being transmitted.
+ *
+ * This class is not thread-safe.
+ */
+public class WifiAwareSendQueue<T> {
+    private static class Entry<T> {
+        public final T item;
+        public final int sequence;
+        public final long deadlineMs;
+
+        Entry(T item, int sequence, long deadlineMs) {
+            this.item = item;
+            this.sequence = sequence;
+            this.deadlineMs = deadlineMs;
+        }
+    }
+
+    private static class SessionQueue<T> {
+        public final int sessionId;
+        public final LinkedList<Entry<T>> entries = new LinkedList<>();
+
+        SessionQueue(int sessionId) {
+            this.sessionId = sessionId;
+        }
+    }
+
+    private static class UidQueue<T> {
+        public final int uid;
+        public final SparseArray<SessionQueue<T>> sessions = new SparseArray<>();
+        // Sessions with queued messages, the next one to be served first.
+        public final ArrayDeque<SessionQueue<T>> rotation = new ArrayDeque<>();
+        public int size = 0;
+
+        UidQueue(int uid) {
+            this.uid = uid;
+        }
+    }
+
+    private final SparseArray<UidQueue<T>> mUids = new SparseArray<>();
+    // UIDs with queued messages, the next one to be served first.
+    private final ArrayDeque<UidQueue<T>> mRotation = new ArrayDeque<>();
+    private int mSize = 0;
+
+    /**
+     * Adds a new message of |uid| and |sessionId| to the queue. If the UID or session has no other
+     * queued message, it is served after the UIDs or sessions which are already queued.
+     */
+    public void add(int uid, int sessionId, int sequence, long deadlineMs, @NonNull T item) {
+        insert(uid, sessionId, new Entry<>(item, sequence, deadlineMs), false);
+    }
+
+    /**
+     * Puts back a message which was removed with {@link #poll()} but couldn't be transmitted. If
+     * the UID or session has no other queued message, it is served first, since it already lost
+     * its turn.
+     */
+    public void putBack(int uid, int sessionId, int sequence, long deadlineMs, @NonNull T item) {
+        insert(uid, sessionId, new Entry<>(item, sequence, deadlineMs), true);
+    }
+
+    private void insert(int uid, int sessionId, Entry<T> entry, boolean first) {
+        UidQueue<T> uidQueue = mUids.get(uid);
+        if (uidQueue == null) {
+            uidQueue = new UidQueue<>(uid);
+            mUids.put(uid, uidQueue);
+            if (first) {
+                mRotation.addFirst(uidQueue);
+            } else {
+                mRotation.addLast(uidQueue);
+            }
+        }
+        SessionQueue<T> sessionQueue = uidQueue.sessions.get(sessionId);
+        if (sessionQueue == null) {
+            sessionQueue = new SessionQueue<>(sessionId);
+            uidQueue.sessions.put(sessionId, sessionQueue);
+            if (first) {
+                uidQueue.rotation.addFirst(sessionQueue);
+            } else {
+                uidQueue.rotation.addLast(sessionQueue);
+            }
+        }
+
+        // New messages have the highest sequence number, so the search is only needed for the
+        // messages which are put back.
+        ListIterator<Entry<T>> it = sessionQueue.entries.listIterator(
+                sessionQueue.entries.size());
+        while (it.hasPrevious()) {
+            if (it.previous().sequence < entry.sequence) {
+                it.next();
+                break;
+            }
+        }
+        it.add(entry);
+        uidQueue.size++;
+        mSize++;
+    }
+
+    /**
+     * Removes and returns the next message to transmit, or null if the queue is empty.
+     */
+    public @Nullable T poll() {
+        UidQueue<T> uidQueue = mRotation.pollFirst();
+        if (uidQueue == null) {
+            return null;
+        }
+        SessionQueue<T> sessionQueue = uidQueue.rotation.pollFirst();
+        Entry<T> entry = sessionQueue.entries.removeFirst();
+        uidQueue.size--;
+        mSize--;
+
+        if (sessionQueue.entries.isEmpty()) {
+            uidQueue.sessions.remove(sessionQueue.sessionId);
+        } else {
+            uidQueue.rotation.addLast(sessionQueue);
+        }
+        if (uidQueue.size == 0) {
+            mUids.remove(uidQueue.uid);
+        } else {
+            mRotation.addLast(uidQueue);
+        }
+        return entry.item;
+    }
+
+    /**
+     * Removes the messages with a deadline at or before |nowMs|, and adds them to |expired|.
+     */
+    public void removeExpired(long nowMs, @NonNull List<T> expired) {
+        Iterator<UidQueue<T>> uidIt = mRotation.iterator();
+        while (uidIt.hasNext()) {
+            UidQueue<T> uidQueue = uidIt.next();
+            Iterator<SessionQueue<T>> sessionIt = uidQueue.rotation.iterator();
+            while (sessionIt.hasNext()) {
+                SessionQueue<T> sessionQueue = sessionIt.next();
+                Iterator<Entry<T>> entryIt = sessionQueue.entries.iterator();
+                while (entryIt.hasNext()) {
+                    Entry<T> entry = entryIt.next();
+                    if (entry.deadlineMs <= nowMs) {
+                        expired.add(entry.item);
+                        entryIt.remove();
+                        uidQueue.size--;
+                        mSize--;
+                    }
+                }
+                if (sessionQueue.entries.isEmpty()) {
+                    uidQueue.sessions.remove(sessionQueue.sessionId);
+                    sessionIt.remove();
+                }
+            }
+            if (uidQueue.size == 0) {
+                mUids.remove(uidQueue.uid);
+                uidIt.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of queued messages.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the number of queued messages of |uid|.
+     */
+    public int size(int uid) {
+        UidQueue<T> uidQueue = mUids.get(uid);
+        return uidQueue == null ? 0 : uidQueue.size;
+    }
+
+    /**
+     * Returns true if there is no queued message.
+     */
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Performs |action| on each queued message, in no particular order.
+     */
+    public void forEach(@NonNull Consumer<? super T> action) {
+        for (UidQueue<T> uidQueue : mRotation) {
+            for (SessionQueue<T> sessionQueue : uidQueue.rotation) {
+                for (Entry<T> entry : sessionQueue.entries) {
+                    action.accept(entry.item);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes all the queued messages.
+     */
+    public void clear() {
+        mUids.clear();
+        mRotation.clear();
+        mSize = 0;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("size=").append(mSize).append(", uids={");
+        boolean first = true;
+        for (UidQueue<T> uidQueue : mRotation) {
+            if (!first) {
+                sb.append(", ");
+            }
+            first = false;
+            sb.append(uidQueue.uid).append(": ").append(uidQueue.size);
+        }
+        return sb.append("}").toString();
+    }
+}
@@ -205,6 +205,9 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
     private static final String MESSAGE_BUNDLE_KEY_MESSAGE_DATA = "message_data";
     private static final String MESSAGE_BUNDLE_KEY_REQ_INSTANCE_ID = "req_instance_id";
     private static final String MESSAGE_BUNDLE_KEY_SEND_MESSAGE_ENQUEUE_TIME = "message_queue_time";
+    private static final String MESSAGE_BUNDLE_KEY_SEND_MESSAGE_ARRIVAL_TIME =
+            "message_arrival_time";
+    private static final String MESSAGE_BUNDLE_KEY_SEND_MESSAGE_DEADLINE = "message_deadline";
     private static final String MESSAGE_BUNDLE_KEY_RETRY_COUNT = "retry_count";
     private static final String MESSAGE_BUNDLE_KEY_SUCCESS_FLAG = "success_flag";
     private static final String MESSAGE_BUNDLE_KEY_STATUS_CODE = "status_code";
@@ -1466,10 +1469,14 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
         private short mCurrentTransactionId = TRANSACTION_ID_IGNORE;
 
         private static final long AWARE_SEND_MESSAGE_TIMEOUT = 10_000;
+        // Maximum time a message waits in the host queue before being transmitted to the firmware.
+        private static final long AWARE_SEND_MESSAGE_QUEUE_DEADLINE = 10_000;
         private static final int MESSAGE_QUEUE_DEPTH_PER_UID = 50;
         private int mSendArrivalSequenceCounter = 0;
         private boolean mSendQueueBlocked = false;
-        private final SparseArray<Message> mHostQueuedSendMessages = new SparseArray<>();
+        private final WifiAwareSendQueue<Message> mHostQueuedSendMessages =
+                new WifiAwareSendQueue<>();
+        private final List<Message> mExpiredSendMessages = new ArrayList<>();
         private final Map<Short, Message> mFwQueuedSendMessages = new LinkedHashMap<>();
         private WakeupMessage mSendMessageTimeoutMessage = new WakeupMessage(mContext, getHandler(),
                 HAL_SEND_MESSAGE_TIMEOUT_TAG, MESSAGE_TYPE_SEND_MESSAGE_TIMEOUT);
@@ -1713,6 +1720,9 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
                     } else {
                         mFwQueuedSendMessages.remove(transactionId);
                         updateSendMessageTimeout();
+                        mAwareMetrics.recordMessageSendLatency(SystemClock.elapsedRealtime()
+                                - queuedSendCommand.getData().getLong(
+                                        MESSAGE_BUNDLE_KEY_SEND_MESSAGE_ARRIVAL_TIME));
                         onMessageSendSuccessLocal(queuedSendCommand);
                     }
                     mSendQueueBlocked = false;
@@ -1748,10 +1758,11 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
                             }
                             sentMessage.getData().putInt(MESSAGE_BUNDLE_KEY_RETRY_COUNT,
                                     retryCount - 1);
-
-                            int arrivalSeq = sentMessage.getData().getInt(
-                                    MESSAGE_BUNDLE_KEY_MESSAGE_ARRIVAL_SEQ);
-                            mHostQueuedSendMessages.put(arrivalSeq, sentMessage);
+                            // The retransmission waits in the host queue again.
+                            sentMessage.getData().putLong(MESSAGE_BUNDLE_KEY_SEND_MESSAGE_DEADLINE,
+                                    SystemClock.elapsedRealtime()
+                                            + AWARE_SEND_MESSAGE_QUEUE_DEADLINE);
+                            putBackHostQueuedSendMessage(sentMessage);
                         } else {
                             onMessageSendFailLocal(sentMessage, reason);
                         }
@@ -1972,10 +1983,18 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
                     }
                     Message sendMsg = obtainMessage(msg.what);
                     sendMsg.copyFrom(msg);
+                    long arrivalTime = SystemClock.elapsedRealtime();
+                    long deadline = arrivalTime + AWARE_SEND_MESSAGE_QUEUE_DEADLINE;
                     sendMsg.getData().putInt(MESSAGE_BUNDLE_KEY_MESSAGE_ARRIVAL_SEQ,
                             mSendArrivalSequenceCounter);
-                    mHostQueuedSendMessages.put(mSendArrivalSequenceCounter, sendMsg);
+                    sendMsg.getData().putLong(MESSAGE_BUNDLE_KEY_SEND_MESSAGE_ARRIVAL_TIME,
+                            arrivalTime);
+                    sendMsg.getData().putLong(MESSAGE_BUNDLE_KEY_SEND_MESSAGE_DEADLINE, deadline);
+                    mHostQueuedSendMessages.add(uid,
+                            sendMsg.getData().getInt(MESSAGE_BUNDLE_KEY_SESSION_ID),
+                            mSendArrivalSequenceCounter, deadline, sendMsg);
                     mSendArrivalSequenceCounter++;
+                    mAwareMetrics.recordSendQueueDepth(mHostQueuedSendMessages.size());
                     waitForResponse = false;
 
                     if (!mSendQueueBlocked) {
@@ -1985,20 +2004,21 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
                     break;
                 }
                 case COMMAND_TYPE_TRANSMIT_NEXT_MESSAGE: {
-                    if (mSendQueueBlocked || mHostQueuedSendMessages.size() == 0) {
+                    expireHostQueuedSendMessages();
+                    if (mSendQueueBlocked || isFwSendQueueFull()
+                            || mHostQueuedSendMessages.isEmpty()) {
                         if (VDBG) {
-                            Log.v(TAG, "processCommand: SEND_TOP_OF_QUEUE_MESSAGE - blocked or "
-                                    + "empty host queue");
+                            Log.v(TAG, "processCommand: SEND_TOP_OF_QUEUE_MESSAGE - blocked, full "
+                                    + "firmware queue or empty host queue");
                         }
                         waitForResponse = false;
                     } else {
+                        Message sendMessage = mHostQueuedSendMessages.poll();
                         if (VDBG) {
                             Log.v(TAG, "processCommand: SEND_TOP_OF_QUEUE_MESSAGE - "
-                                    + "sendArrivalSequenceCounter="
-                                    + mHostQueuedSendMessages.keyAt(0));
+                                    + "sendArrivalSequenceCounter=" + sendMessage.getData().getInt(
+                                    MESSAGE_BUNDLE_KEY_MESSAGE_ARRIVAL_SEQ));
                         }
-                        Message sendMessage = mHostQueuedSendMessages.valueAt(0);
-                        mHostQueuedSendMessages.removeAt(0);
 
                         Bundle data = sendMessage.getData();
                         int clientId = sendMessage.arg2;
@@ -2176,14 +2196,13 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
                     if (reason == NanStatusType.FOLLOWUP_TX_QUEUE_FULL) {
                         Message sentMessage = mCurrentCommand.getData().getParcelable(
                                 MESSAGE_BUNDLE_KEY_SENT_MESSAGE);
-                        int arrivalSeq = sentMessage.getData().getInt(
-                                MESSAGE_BUNDLE_KEY_MESSAGE_ARRIVAL_SEQ);
-                        mHostQueuedSendMessages.put(arrivalSeq, sentMessage);
+                        putBackHostQueuedSendMessage(sentMessage);
                         mSendQueueBlocked = true;
 
                         if (VDBG) {
                             Log.v(TAG, "processResponse: ON_MESSAGE_SEND_QUEUED_FAIL - arrivalSeq="
-                                    + arrivalSeq + " -- blocking");
+                                    + sentMessage.getData().getInt(
+                                    MESSAGE_BUNDLE_KEY_MESSAGE_ARRIVAL_SEQ) + " -- blocking");
                         }
                     } else {
                         Message sentMessage = mCurrentCommand.getData().getParcelable(
@@ -2430,21 +2449,42 @@ public class WifiAwareStateManager implements WifiAwareShellCommand.DelegatedShe
         }
 
         private boolean isUidExceededMessageQueueDepthLimit(int uid) {
-            int size = mHostQueuedSendMessages.size();
-            int numOfMessages = 0;
-            if (size < MESSAGE_QUEUE_DEPTH_PER_UID) {
-                return false;
-            }
-            for (int i = 0; i < size; ++i) {
-                if (mHostQueuedSendMessages.valueAt(i).getData()
-                        .getInt(MESSAGE_BUNDLE_KEY_UID) == uid) {
-                    numOfMessages++;
-                    if (numOfMessages >= MESSAGE_QUEUE_DEPTH_PER_UID) {
-                        return true;
-                    }
+            return mHostQueuedSendMessages.size(uid) >= MESSAGE_QUEUE_DEPTH_PER_UID;
+        }
+
+        /**
+         * Returns true if the firmware already holds as many messages as it reported it can queue.
+         * Firmwares which don't report a limit are only throttled by FOLLOWUP_TX_QUEUE_FULL
+         * responses, which block the host queue until a queued message completes.
+         */
+        private boolean isFwSendQueueFull() {
+            return mCapabilities != null && mCapabilities.maxQueuedTransmitMessages > 0
+                    && mFwQueuedSendMessages.size() >= mCapabilities.maxQueuedTransmitMessages;
+        }
+
+        private void putBackHostQueuedSendMessage(Message sendMessage) {
+            Bundle data = sendMessage.getData();
+            mHostQueuedSendMessages.putBack(data.getInt(MESSAGE_BUNDLE_KEY_UID),
+                    data.getInt(MESSAGE_BUNDLE_KEY_SESSION_ID),
+                    data.getInt(MESSAGE_BUNDLE_KEY_MESSAGE_ARRIVAL_SEQ),
+                    data.getLong(MESSAGE_BUNDLE_KEY_SEND_MESSAGE_DEADLINE), sendMessage);
+        }
+
+        /**
+         * Fails the messages which waited in the host queue past their deadline: they are
+         * unlikely to still be relevant to the peer.
+         */
+        private void expireHostQueuedSendMessages() {
+            mHostQueuedSendMessages.removeExpired(SystemClock.elapsedRealtime(),
+                    mExpiredSendMessages);
+            for (Message message : mExpiredSendMessages) {
+                if (mDbg) {
+                    Log.v(TAG, "expireHostQueuedSendMessages: message=" + message);
                 }
+                mAwareMetrics.recordMessageSendExpired();
+                onMessageSendFailLocal(message, NanStatusType.INTERNAL_FAILURE);
             }
-            return false;
+            mExpiredSendMessages.clear();
         }
 
         @Override
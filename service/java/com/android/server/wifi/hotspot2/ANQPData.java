@@ -66,6 +66,18 @@ public class ANQPData {
         mExpiryTime = mClock.getElapsedSinceBootMillis() + dataLifetime;
     }
 
+    /**
+     * Create an entry with the given expiry time, e.g for an entry restored from storage.
+     *
+     * @param expiryTime Expiry time of the entry, in milliseconds since boot
+     */
+    public ANQPData(Clock clock, Map<Constants.ANQPElementType, ANQPElement> anqpElements,
+            long expiryTime) {
+        mClock = clock;
+        mANQPElements = new HashMap<>(anqpElements);
+        mExpiryTime = expiryTime;
+    }
+
     /**
      * Update an entry with post association ANQP elelemtns
      *
@@ -95,6 +107,13 @@ public class ANQPData {
         return mExpiryTime <= at;
     }
 
+    /**
+     * Return the expiry time of this entry, in milliseconds since boot.
+     */
+    public long getExpiryTime() {
+        return mExpiryTime;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
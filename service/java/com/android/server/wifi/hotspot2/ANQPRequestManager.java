@@ -16,6 +16,7 @@
 
 package com.android.server.wifi.hotspot2;
 
+import android.net.wifi.WifiInfo;
 import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
@@ -33,6 +34,13 @@ import java.util.Map;
  * Class for managing sending of ANQP requests.  This manager will ignore ANQP requests for a
  * period of time (hold off time) to a specified AP if the previous request to that AP goes
  * unanswered or failed.  The hold off time will increase exponentially until the max is reached.
+ *
+ * At most {@link #MAX_IN_FLIGHT_REQUESTS} requests are sent at a time.  The other requests are
+ * queued, and sent as the in-flight requests complete, from the AP with the highest score first:
+ * the RSSI of the AP, plus a bonus if it advertises a roaming consortium OI of a provider.
+ * A request isn't sent or queued while another request with the same {@link ANQPNetworkKey} is in
+ * flight or queued, since the response for either AP provides the ANQP data of both.  The queued
+ * requests are dropped when new scan results are available, see {@link #onNewScanResults()}.
  */
 public class ANQPRequestManager {
     private static final String TAG = "ANQPRequestManager";
@@ -59,6 +67,33 @@ public class ANQPRequestManager {
     @VisibleForTesting
     public static final int BASE_HOLDOFF_TIME_MILLISECONDS = 10000;
 
+    /**
+     * Maximum number of requests sent at a time.
+     */
+    @VisibleForTesting
+    public static final int MAX_IN_FLIGHT_REQUESTS = 2;
+
+    /**
+     * Maximum number of queued requests.  When full, the request with the lowest score is
+     * dropped.
+     */
+    @VisibleForTesting
+    public static final int MAX_QUEUED_REQUESTS = 32;
+
+    /**
+     * Time after which an in-flight request which didn't complete is considered lost, and no
+     * longer counts against {@link #MAX_IN_FLIGHT_REQUESTS}.  Not longer than the hold off time,
+     * so that a new request to the same AP isn't blocked by a lost one.
+     */
+    @VisibleForTesting
+    public static final int REQUEST_TIMEOUT_MILLISECONDS = BASE_HOLDOFF_TIME_MILLISECONDS;
+
+    /**
+     * Score bonus, in dBm, of an AP which advertises a roaming consortium OI of a provider.
+     */
+    @VisibleForTesting
+    public static final int LIKELY_MATCH_SCORE_BONUS = 20;
+
     /**
      * Max value for the hold off counter for unanswered/failed queries.  This limits the maximum
      * hold off time to:
@@ -96,11 +131,52 @@ public class ANQPRequestManager {
         public long holdOffExpirationTime;
     }
 
+    /**
+     * An ANQP request, either in flight or queued.
+     */
+    private static class Request {
+        public final long bssid;
+        public final ANQPNetworkKey anqpNetworkKey;
+        public final boolean rcOIs;
+        public final NetworkDetail.HSRelease hsReleaseVer;
+        public final int score;
+        /**
+         * The time stamp in milliseconds when the request was sent, if in flight.
+         */
+        public long sendTime;
+
+        Request(long bssid, ANQPNetworkKey anqpNetworkKey, boolean rcOIs,
+                NetworkDetail.HSRelease hsReleaseVer, int score) {
+            this.bssid = bssid;
+            this.anqpNetworkKey = anqpNetworkKey;
+            this.rcOIs = rcOIs;
+            this.hsReleaseVer = hsReleaseVer;
+            this.score = score;
+        }
+
+        @Override
+        public String toString() {
+            return Utils.macToString(bssid) + " " + anqpNetworkKey + " score=" + score;
+        }
+    }
+
+    /**
+     * In-flight requests for ANQP elements, by BSSID.
+     */
+    private final Map<Long, Request> mInFlightRequests;
+
+    /**
+     * Queued requests for ANQP elements, by network key.
+     */
+    private final Map<ANQPNetworkKey, Request> mQueuedRequests;
+
     public ANQPRequestManager(PasspointEventHandler handler, Clock clock) {
         mPasspointHandler = handler;
         mClock = clock;
         mPendingQueries = new HashMap<>();
         mHoldOffInfo = new HashMap<>();
+        mInFlightRequests = new HashMap<>();
+        mQueuedRequests = new HashMap<>();
     }
 
     /**
@@ -115,25 +191,55 @@ public class ANQPRequestManager {
      *              Roaming Consortium ANQP element will be requested
      * @param hsReleaseVer Indicates Hotspot 2.0 Release version. When set to R2 or higher,
      *              the Release 2 ANQP elements {@link #R2_ANQP_BASE_SET} will be requested
-     * @return true if a request was sent successfully
+     * @return true if the request was sent successfully, or queued
      */
     public boolean requestANQPElements(long bssid, ANQPNetworkKey anqpNetworkKey, boolean rcOIs,
             NetworkDetail.HSRelease hsReleaseVer) {
+        return requestANQPElements(bssid, anqpNetworkKey, rcOIs, hsReleaseVer,
+                WifiInfo.INVALID_RSSI, false);
+    }
+
+    /**
+     * Request ANQP elements from the specified AP, see
+     * {@link #requestANQPElements(long, ANQPNetworkKey, boolean, NetworkDetail.HSRelease)}.
+     * If the request can't be sent now, it is queued and ranked by the RSSI of the AP and
+     * |likelyMatch|.
+     *
+     * @param rssi The RSSI of the AP in the latest scan results
+     * @param likelyMatch Flag indicating that the AP advertises a roaming consortium OI of a
+     *              provider in its beacon
+     * @return true if the request was sent successfully, or queued
+     */
+    public boolean requestANQPElements(long bssid, ANQPNetworkKey anqpNetworkKey, boolean rcOIs,
+            NetworkDetail.HSRelease hsReleaseVer, int rssi, boolean likelyMatch) {
         // Check if we are allow to send the request now.
         if (!canSendRequestNow(bssid)) {
             return false;
         }
-
-        // No need to hold off future requests for send failures.
-        if (!mPasspointHandler.requestANQP(bssid, getRequestElementIDs(rcOIs, hsReleaseVer))) {
+        expireInFlightRequests();
+        if (isInFlight(anqpNetworkKey)) {
+            // The response of the in-flight request will provide the same ANQP data.
             return false;
         }
 
-        // Update hold off info on when we are allowed to send the next ANQP request to
-        // the given AP.
-        updateHoldOffInfo(bssid);
-
-        mPendingQueries.put(bssid, anqpNetworkKey);
+        Request request = new Request(bssid, anqpNetworkKey, rcOIs, hsReleaseVer,
+                rssi + (likelyMatch ? LIKELY_MATCH_SCORE_BONUS : 0));
+        if (mQueuedRequests.isEmpty() && mInFlightRequests.size() < MAX_IN_FLIGHT_REQUESTS) {
+            return sendRequest(request);
+        }
+        Request queued = mQueuedRequests.get(anqpNetworkKey);
+        if (queued != null && queued.score >= request.score) {
+            return true;
+        }
+        if (queued == null && mQueuedRequests.size() >= MAX_QUEUED_REQUESTS) {
+            Request lowest = getLowestScoreQueuedRequest();
+            if (lowest.score >= request.score) {
+                return false;
+            }
+            mQueuedRequests.remove(lowest.anqpNetworkKey);
+        }
+        mQueuedRequests.put(anqpNetworkKey, request);
+        sendQueuedRequests();
         return true;
     }
 
@@ -165,7 +271,88 @@ public class ANQPRequestManager {
             // Query succeeded.  No need to hold off request to the given AP.
             mHoldOffInfo.remove(bssid);
         }
-        return mPendingQueries.remove(bssid);
+        ANQPNetworkKey anqpNetworkKey = mPendingQueries.remove(bssid);
+        if (mInFlightRequests.remove(bssid) != null) {
+            sendQueuedRequests();
+        }
+        return anqpNetworkKey;
+    }
+
+    /**
+     * Notify that new scan results are available.  The queued requests are dropped, since they
+     * were ranked with the previous scan results, and may be for APs which are out of range.
+     * The requests for the APs still in range are queued again when the new scan results are
+     * matched.
+     */
+    public void onNewScanResults() {
+        mQueuedRequests.clear();
+    }
+
+    /**
+     * Send a request for ANQP elements, and track it as in flight if it was sent successfully.
+     */
+    private boolean sendRequest(Request request) {
+        // No need to hold off future requests for send failures.
+        if (!mPasspointHandler.requestANQP(request.bssid,
+                getRequestElementIDs(request.rcOIs, request.hsReleaseVer))) {
+            return false;
+        }
+
+        // Update hold off info on when we are allowed to send the next ANQP request to
+        // the given AP.
+        updateHoldOffInfo(request.bssid);
+
+        mPendingQueries.put(request.bssid, request.anqpNetworkKey);
+        request.sendTime = mClock.getElapsedSinceBootMillis();
+        mInFlightRequests.put(request.bssid, request);
+        return true;
+    }
+
+    /**
+     * Send the queued requests with the highest scores, until {@link #MAX_IN_FLIGHT_REQUESTS}
+     * requests are in flight.
+     */
+    private void sendQueuedRequests() {
+        while (mInFlightRequests.size() < MAX_IN_FLIGHT_REQUESTS && !mQueuedRequests.isEmpty()) {
+            Request highest = null;
+            for (Request request : mQueuedRequests.values()) {
+                if (highest == null || request.score > highest.score) {
+                    highest = request;
+                }
+            }
+            mQueuedRequests.remove(highest.anqpNetworkKey);
+            if (canSendRequestNow(highest.bssid) && !isInFlight(highest.anqpNetworkKey)) {
+                sendRequest(highest);
+            }
+        }
+    }
+
+    private Request getLowestScoreQueuedRequest() {
+        Request lowest = null;
+        for (Request request : mQueuedRequests.values()) {
+            if (lowest == null || request.score < lowest.score) {
+                lowest = request;
+            }
+        }
+        return lowest;
+    }
+
+    private boolean isInFlight(ANQPNetworkKey anqpNetworkKey) {
+        for (Request request : mInFlightRequests.values()) {
+            if (request.anqpNetworkKey.equals(anqpNetworkKey)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stop tracking the in-flight requests which didn't complete in time, and are probably lost.
+     */
+    private void expireInFlightRequests() {
+        long currentTime = mClock.getElapsedSinceBootMillis();
+        mInFlightRequests.values().removeIf(
+                request -> currentTime - request.sendTime >= REQUEST_TIMEOUT_MILLISECONDS);
     }
 
     /**
@@ -240,6 +427,16 @@ public class ANQPRequestManager {
      */
     public void dump(PrintWriter pw) {
         pw.println("ANQPRequestManager - Begin ---");
+        pw.println("In-flight requests:");
+        for (Request request : mInFlightRequests.values()) {
+            pw.println(request + " sent "
+                    + (mClock.getElapsedSinceBootMillis() - request.sendTime) / 1000
+                    + " seconds ago");
+        }
+        pw.println("Queued requests:");
+        for (Request request : mQueuedRequests.values()) {
+            pw.println(request);
+        }
         for (Map.Entry<Long, HoldOffInfo> holdOffInfo : mHoldOffInfo.entrySet()) {
             long bssid = holdOffInfo.getKey();
             pw.println("For BBSID: " + Utils.macToString(bssid));
@@ -257,5 +454,7 @@ public class ANQPRequestManager {
     public void clear() {
         mPendingQueries.clear();
         mHoldOffInfo.clear();
+        mInFlightRequests.clear();
+        mQueuedRequests.clear();
     }
 }
@@ -22,27 +22,62 @@ import com.android.server.wifi.hotspot2.anqp.ANQPElement;
 import com.android.server.wifi.hotspot2.anqp.Constants;
 
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * Cache for storing ANQP data.  This is simply a data cache, all the logic related to
  * ANQP data query will be handled elsewhere (e.g. the consumer of the cache).
+ *
+ * The cache holds at most {@link #MAX_CACHE_SIZE} entries, and evicts the least recently used
+ * entry when full. Expired entries are never returned, and are removed when looked up or swept.
  */
 public class AnqpCache {
     @VisibleForTesting
     public static final long CACHE_SWEEP_INTERVAL_MILLISECONDS = 60000L;
+    @VisibleForTesting
+    public static final int MAX_CACHE_SIZE = 500;
+    /**
+     * Maximum number of entries returned by {@link #getEntriesToPersist()}, to bound the size of
+     * the store file.
+     */
+    @VisibleForTesting
+    public static final int MAX_PERSISTED_ENTRIES = 100;
 
     private long mLastSweep;
     private Clock mClock;
 
-    private final Map<ANQPNetworkKey, ANQPData> mANQPCache;
+    private final int mMaxSize;
+    // Entries in access order, from the least to the most recently used.
+    private final LinkedHashMap<ANQPNetworkKey, ANQPData> mANQPCache;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mExpiredCount;
+    private int mEvictionCount;
+    // Whether entries were added, updated or flushed since the last call to
+    // getEntriesToPersist(). Expired entries are not persisted anyway, so they don't count.
+    private boolean mHasNewDataToSerialize = false;
 
     public AnqpCache(Clock clock) {
+        this(clock, MAX_CACHE_SIZE);
+    }
+
+    @VisibleForTesting
+    AnqpCache(Clock clock, int maxSize) {
         mClock = clock;
-        mANQPCache = new HashMap<>();
+        mMaxSize = maxSize;
+        mANQPCache = new LinkedHashMap<ANQPNetworkKey, ANQPData>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ANQPNetworkKey, ANQPData> eldest) {
+                if (size() <= mMaxSize) {
+                    return false;
+                }
+                mEvictionCount++;
+                return true;
+            }
+        };
         mLastSweep = mClock.getElapsedSinceBootMillis();
     }
 
@@ -56,6 +91,7 @@ public class AnqpCache {
             Map<Constants.ANQPElementType, ANQPElement> anqpElements) {
         ANQPData data = new ANQPData(mClock, anqpElements);
         mANQPCache.put(key, data);
+        mHasNewDataToSerialize = true;
     }
 
     /**
@@ -68,22 +104,36 @@ public class AnqpCache {
      */
     public void addOrUpdateEntry(ANQPNetworkKey key,
             Map<Constants.ANQPElementType, ANQPElement> anqpElements) {
-        if (!mANQPCache.containsKey(key)) {
+        ANQPData data = mANQPCache.get(key);
+        if (data == null || data.expired(mClock.getElapsedSinceBootMillis())) {
             // Create a new entry
             addEntry(key, anqpElements);
             return;
         }
-        mANQPCache.get(key).update(anqpElements);
+        data.update(anqpElements);
+        mHasNewDataToSerialize = true;
     }
 
     /**
      * Get the ANQP data associated with the given AP.
      *
      * @param key The key that's associated with the entry
-     * @return {@link ANQPData}
+     * @return {@link ANQPData}, or null if there is no valid entry.
      */
     public ANQPData getEntry(ANQPNetworkKey key) {
-        return mANQPCache.get(key);
+        ANQPData data = mANQPCache.get(key);
+        if (data == null) {
+            mMissCount++;
+            return null;
+        }
+        if (data.expired(mClock.getElapsedSinceBootMillis())) {
+            mANQPCache.remove(key);
+            mExpiredCount++;
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return data;
     }
 
     /**
@@ -96,24 +146,65 @@ public class AnqpCache {
             return;
         }
 
-        // Get all expired keys.
-        List<ANQPNetworkKey> expiredKeys = new ArrayList<>();
+        Iterator<ANQPData> iter = mANQPCache.values().iterator();
+        while (iter.hasNext()) {
+            if (iter.next().expired(now)) {
+                iter.remove();
+                mExpiredCount++;
+            }
+        }
+        mLastSweep = now;
+    }
+
+    /**
+     * Return the most recently used valid entries, at most
+     * {@link #MAX_PERSISTED_ENTRIES}, from the least to the most recently used.
+     * This clears {@link #hasNewDataToSerialize()}.
+     */
+    public Map<ANQPNetworkKey, ANQPData> getEntriesToPersist() {
+        long now = mClock.getElapsedSinceBootMillis();
+        Map<ANQPNetworkKey, ANQPData> entries = new LinkedHashMap<>();
+        int toSkip = mANQPCache.size() - MAX_PERSISTED_ENTRIES;
         for (Map.Entry<ANQPNetworkKey, ANQPData> entry : mANQPCache.entrySet()) {
-            if (entry.getValue().expired(now)) {
-                expiredKeys.add(entry.getKey());
+            if (toSkip-- > 0) {
+                continue;
+            }
+            ANQPData data = entry.getValue();
+            if (!data.expired(now)) {
+                entries.put(entry.getKey(), data);
             }
         }
+        mHasNewDataToSerialize = false;
+        return entries;
+    }
 
-        // Remove all expired entries.
-        for (ANQPNetworkKey key : expiredKeys) {
-            mANQPCache.remove(key);
+    /**
+     * Whether entries were added, updated or flushed since the last call to
+     * {@link #getEntriesToPersist()}.
+     */
+    public boolean hasNewDataToSerialize() {
+        return mHasNewDataToSerialize;
+    }
+
+    /**
+     * Add entries restored from storage, from the least to the most recently used, except the
+     * expired ones and the ones already in the cache, which are more recent.
+     */
+    public void restoreEntries(Map<ANQPNetworkKey, ANQPData> entries) {
+        long now = mClock.getElapsedSinceBootMillis();
+        for (Map.Entry<ANQPNetworkKey, ANQPData> entry : entries.entrySet()) {
+            if (!entry.getValue().expired(now)) {
+                mANQPCache.putIfAbsent(entry.getKey(), entry.getValue());
+            }
         }
-        mLastSweep = now;
     }
 
     public void dump(PrintWriter out) {
         out.println("Last sweep " + Utils.toHMS(mClock.getElapsedSinceBootMillis() - mLastSweep)
                 + " ago.");
+        out.println("Entries: " + mANQPCache.size() + "/" + mMaxSize + ", hits: " + mHitCount
+                + ", misses: " + mMissCount
+                + ", expired: " + mExpiredCount + ", evictions: " + mEvictionCount);
         for (Map.Entry<ANQPNetworkKey, ANQPData> entry : mANQPCache.entrySet()) {
             out.println(entry.getKey() + ": " + entry.getValue());
         }
@@ -124,6 +215,7 @@ public class AnqpCache {
      */
     public void flush() {
         mANQPCache.clear();
+        mHasNewDataToSerialize = true;
         mLastSweep = mClock.getElapsedSinceBootMillis();
     }
 }
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.hotspot2;
+
+import android.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.android.server.wifi.Clock;
+import com.android.server.wifi.WifiConfigStore;
+import com.android.server.wifi.hotspot2.anqp.ANQPElement;
+import com.android.server.wifi.hotspot2.anqp.ANQPParser;
+import com.android.server.wifi.hotspot2.anqp.Constants;
+import com.android.server.wifi.util.WifiConfigStoreEncryptionUtil;
+import com.android.server.wifi.util.XmlUtil;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Responsible for persisting the {@link AnqpCache} across reboots, so that the APs which were
+ * recently queried don't need to be queried again after a reboot.
+ *
+ * Each element is stored as the payload it was parsed from, see {@link ANQPElement#getPayload()},
+ * and parsed again when read. The expiry time of the entries is stored as a wall clock time,
+ * and the entries which expired while the device was off are dropped when read.
+ */
+public class AnqpCacheStoreData implements WifiConfigStore.StoreData {
+    private static final String TAG = "AnqpCacheStoreData";
+    private static final String XML_TAG_SECTION_HEADER_ANQP_CACHE = "AnqpCache";
+    private static final String XML_TAG_SECTION_HEADER_ENTRY = "Entry";
+    private static final String XML_TAG_SECTION_HEADER_ELEMENT = "Element";
+    private static final String XML_TAG_SSID = "SSID";
+    private static final String XML_TAG_BSSID = "BSSID";
+    private static final String XML_TAG_HESSID = "HESSID";
+    private static final String XML_TAG_ANQP_DOMAIN_ID = "AnqpDomainId";
+    private static final String XML_TAG_EXPIRY_WALL_CLOCK_MILLIS = "ExpiryWallClockMillis";
+    private static final String XML_TAG_TYPE = "Type";
+    private static final String XML_TAG_PAYLOAD = "Payload";
+
+    private final DataSource mDataSource;
+    private final Clock mClock;
+    // Keeps the payloads of the restored elements, so that they can be persisted again.
+    private final ANQPParser mAnqpParser = new ANQPParser(true);
+
+    /**
+     * Interface define the data source for the ANQP cache store data.
+     */
+    public interface DataSource {
+        /**
+         * Retrieve the entries of the cache to persist.
+         *
+         * @return Map of the entries, from the least to the most recently used
+         */
+        Map<ANQPNetworkKey, ANQPData> getEntries();
+
+        /**
+         * Restore the entries read from the store.
+         *
+         * @param entries Map of the entries, from the least to the most recently used
+         */
+        void restoreEntries(Map<ANQPNetworkKey, ANQPData> entries);
+
+        /**
+         * Indicates whether there is new data to serialize.
+         */
+        boolean hasNewDataToSerialize();
+    }
+
+    AnqpCacheStoreData(DataSource dataSource, Clock clock) {
+        mDataSource = dataSource;
+        mClock = clock;
+    }
+
+    @Override
+    public void serializeData(XmlSerializer out,
+            @Nullable WifiConfigStoreEncryptionUtil encryptionUtil)
+            throws XmlPullParserException, IOException {
+        long elapsedNow = mClock.getElapsedSinceBootMillis();
+        long wallClockNow = mClock.getWallClockMillis();
+        for (Map.Entry<ANQPNetworkKey, ANQPData> entry : mDataSource.getEntries().entrySet()) {
+            serializeEntry(out, entry.getKey(), entry.getValue(),
+                    wallClockNow + entry.getValue().getExpiryTime() - elapsedNow);
+        }
+    }
+
+    @Override
+    public void deserializeData(XmlPullParser in, int outerTagDepth,
+            @WifiConfigStore.Version int version,
+            @Nullable WifiConfigStoreEncryptionUtil encryptionUtil)
+            throws XmlPullParserException, IOException {
+        // Ignore empty reads.
+        if (in == null) {
+            return;
+        }
+        Map<ANQPNetworkKey, ANQPData> entries = new LinkedHashMap<>();
+        while (XmlUtil.gotoNextSectionWithNameOrEnd(in, XML_TAG_SECTION_HEADER_ENTRY,
+                outerTagDepth)) {
+            deserializeEntry(in, outerTagDepth + 1, entries);
+        }
+        mDataSource.restoreEntries(entries);
+    }
+
+    /**
+     * Entries read from the store are only added to the cache, so there is nothing to reset.
+     */
+    @Override
+    public void resetData() {
+    }
+
+    @Override
+    public boolean hasNewDataToSerialize() {
+        return mDataSource.hasNewDataToSerialize();
+    }
+
+    @Override
+    public String getName() {
+        return XML_TAG_SECTION_HEADER_ANQP_CACHE;
+    }
+
+    @Override
+    public @WifiConfigStore.StoreFileId int getStoreFileId() {
+        // User general store, the ANQP elements reveal the locations the user visited.
+        return WifiConfigStore.STORE_FILE_USER_GENERAL;
+    }
+
+    /**
+     * Serialize an entry of the cache to a XML block. The elements without a payload are
+     * skipped, and so is the entry if none of its elements has a payload.
+     */
+    private void serializeEntry(XmlSerializer out, ANQPNetworkKey key, ANQPData data,
+            long expiryWallClockMillis) throws XmlPullParserException, IOException {
+        boolean hasPayload = false;
+        for (ANQPElement element : data.getElements().values()) {
+            if (element.getPayload() != null) {
+                hasPayload = true;
+                break;
+            }
+        }
+        if (!hasPayload) {
+            return;
+        }
+        XmlUtil.writeNextSectionStart(out, XML_TAG_SECTION_HEADER_ENTRY);
+        XmlUtil.writeNextValue(out, XML_TAG_SSID, key.getSsid());
+        XmlUtil.writeNextValue(out, XML_TAG_BSSID, key.getBssid());
+        XmlUtil.writeNextValue(out, XML_TAG_HESSID, key.getHessid());
+        XmlUtil.writeNextValue(out, XML_TAG_ANQP_DOMAIN_ID, key.getAnqpDomainId());
+        XmlUtil.writeNextValue(out, XML_TAG_EXPIRY_WALL_CLOCK_MILLIS, expiryWallClockMillis);
+        for (Map.Entry<Constants.ANQPElementType, ANQPElement> element
+                : data.getElements().entrySet()) {
+            byte[] payload = element.getValue().getPayload();
+            if (payload == null) {
+                continue;
+            }
+            XmlUtil.writeNextSectionStart(out, XML_TAG_SECTION_HEADER_ELEMENT);
+            XmlUtil.writeNextValue(out, XML_TAG_TYPE, element.getKey().name());
+            XmlUtil.writeNextValue(out, XML_TAG_PAYLOAD, payload);
+            XmlUtil.writeNextSectionEnd(out, XML_TAG_SECTION_HEADER_ELEMENT);
+        }
+        XmlUtil.writeNextSectionEnd(out, XML_TAG_SECTION_HEADER_ENTRY);
+    }
+
+    /**
+     * Deserialize an entry of the cache from the input stream, and add it to |entries| unless
+     * it is expired.
+     */
+    private void deserializeEntry(XmlPullParser in, int outerTagDepth,
+            Map<ANQPNetworkKey, ANQPData> entries) throws XmlPullParserException, IOException {
+        String ssid = null;
+        long bssid = 0;
+        long hessid = 0;
+        int anqpDomainId = 0;
+        long expiryWallClockMillis = 0;
+        Map<Constants.ANQPElementType, ANQPElement> elements = new HashMap<>();
+        while (XmlUtil.nextElementWithin(in, outerTagDepth)) {
+            if (in.getAttributeValue(null, "name") != null) {
+                // Value elements.
+                String[] name = new String[1];
+                Object value = XmlUtil.readCurrentValue(in, name);
+                switch (name[0]) {
+                    case XML_TAG_SSID:
+                        ssid = (String) value;
+                        break;
+                    case XML_TAG_BSSID:
+                        bssid = (long) value;
+                        break;
+                    case XML_TAG_HESSID:
+                        hessid = (long) value;
+                        break;
+                    case XML_TAG_ANQP_DOMAIN_ID:
+                        anqpDomainId = (int) value;
+                        break;
+                    case XML_TAG_EXPIRY_WALL_CLOCK_MILLIS:
+                        expiryWallClockMillis = (long) value;
+                        break;
+                    default:
+                        Log.w(TAG, "Ignoring unknown value name found " + name[0]);
+                        break;
+                }
+            } else if (TextUtils.equals(in.getName(), XML_TAG_SECTION_HEADER_ELEMENT)) {
+                deserializeElement(in, outerTagDepth + 1, elements);
+            } else {
+                Log.w(TAG, "Ignoring unexpected section under Entry: " + in.getName());
+            }
+        }
+        long remainingLifetime = expiryWallClockMillis - mClock.getWallClockMillis();
+        // Also drop the entries which would outlive a fresh entry, e.g after a clock change.
+        if (remainingLifetime <= 0 || remainingLifetime > ANQPData.DATA_LIFETIME_MILLISECONDS
+                || elements.isEmpty()) {
+            return;
+        }
+        entries.put(new ANQPNetworkKey(ssid, bssid, hessid, anqpDomainId),
+                new ANQPData(mClock, elements,
+                        mClock.getElapsedSinceBootMillis() + remainingLifetime));
+    }
+
+    /**
+     * Deserialize an element of an entry from the input stream, and add it to |elements| if its
+     * payload can be parsed.
+     */
+    private static void deserializeElement(XmlPullParser in, int outerTagDepth,
+            Map<Constants.ANQPElementType, ANQPElement> elements)
+            throws XmlPullParserException, IOException {
+        String type = null;
+        byte[] payload = null;
+        while (!XmlUtil.isNextSectionEnd(in, outerTagDepth)) {
+            String[] name = new String[1];
+            Object value = XmlUtil.readCurrentValue(in, name);
+            switch (name[0]) {
+                case XML_TAG_TYPE:
+                    type = (String) value;
+                    break;
+                case XML_TAG_PAYLOAD:
+                    payload = (byte[]) value;
+                    break;
+                default:
+                    Log.w(TAG, "Ignoring unknown value name found " + name[0]);
+                    break;
+            }
+        }
+        if (type == null || payload == null) {
+            return;
+        }
+        try {
+            Constants.ANQPElementType infoID = Constants.ANQPElementType.valueOf(type);
+            ANQPElement element = mAnqpParser.parse(infoID, ByteBuffer.wrap(payload));
+            elements.put(infoID, element);
+        } catch (IllegalArgumentException | ProtocolException | BufferUnderflowException e) {
+            Log.w(TAG, "Failed parsing stored ANQP element " + type + ": " + e);
+        }
+    }
+}
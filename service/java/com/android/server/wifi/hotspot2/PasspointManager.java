@@ -36,6 +36,7 @@ import android.net.wifi.WifiSsid;
 import android.net.wifi.hotspot2.IProvisioningCallback;
 import android.net.wifi.hotspot2.OsuProvider;
 import android.net.wifi.hotspot2.PasspointConfiguration;
+import android.net.wifi.hotspot2.pps.HomeSp;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Process;
@@ -66,6 +67,7 @@ import com.android.server.wifi.hotspot2.anqp.VenueUrlElement;
 import com.android.server.wifi.proto.nano.WifiMetricsProto.UserActionEvent;
 import com.android.server.wifi.util.InformationElementUtil;
 import com.android.server.wifi.util.WifiPermissionsUtil;
+import com.android.wifi.resources.R;
 
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -108,6 +110,14 @@ import java.util.stream.Collectors;
 public class PasspointManager {
     private static final String TAG = "PasspointManager";
 
+    /**
+     * Minimum number of providers for which the providers matching an AP are looked up in a
+     * {@link PasspointProviderMatchIndex}. Below, matching all the providers is as cheap as
+     * building and querying the index.
+     */
+    @VisibleForTesting
+    static final int MIN_PROVIDERS_FOR_MATCH_INDEX = 8;
+
     /**
      * Handle for the current {@link PasspointManager} instance.  This is needed to avoid
      * circular dependency with the WifiConfigManger, it will be used for adding the
@@ -125,6 +135,8 @@ public class PasspointManager {
     private final PasspointObjectFactory mObjectFactory;
 
     private final Map<String, PasspointProvider> mProviders;
+    /** Index of mProviders, built on demand. Must be reset to null when mProviders changes. */
+    private PasspointProviderMatchIndex mProviderMatchIndex;
     private final AnqpCache mAnqpCache;
     private final ANQPRequestManager mAnqpRequestManager;
     private final WifiConfigManager mWifiConfigManager;
@@ -213,6 +225,7 @@ public class PasspointManager {
         @Override
         public void setProviders(List<PasspointProvider> providers) {
             mProviders.clear();
+            mProviderMatchIndex = null;
             for (PasspointProvider provider : providers) {
                 provider.enableVerboseLogging(mVerboseLoggingEnabled);
                 mProviders.put(provider.getConfig().getUniqueId(), provider);
@@ -240,6 +253,26 @@ public class PasspointManager {
         }
     }
 
+    /**
+     * Data source for the persisted ANQP cache.
+     */
+    private class AnqpCacheDataSourceHandler implements AnqpCacheStoreData.DataSource {
+        @Override
+        public Map<ANQPNetworkKey, ANQPData> getEntries() {
+            return mAnqpCache.getEntriesToPersist();
+        }
+
+        @Override
+        public void restoreEntries(Map<ANQPNetworkKey, ANQPData> entries) {
+            mAnqpCache.restoreEntries(entries);
+        }
+
+        @Override
+        public boolean hasNewDataToSerialize() {
+            return mAnqpCache.hasNewDataToSerialize();
+        }
+    }
+
     /**
      * Listener for app-ops changes for apps to remove the corresponding Passpoint profiles.
      */
@@ -380,6 +413,13 @@ public class PasspointManager {
                 mKeyStore, mWifiCarrierInfoManager, new UserDataSourceHandler(), clock));
         wifiConfigStore.registerStoreData(objectFactory.makePasspointConfigSharedStoreData(
                 new SharedDataSourceHandler()));
+        // The supplicant HAL keeps the payloads of the ANQP elements when they are persisted,
+        // see WifiGlobals#isPasspointAnqpCachePersistenceEnabled().
+        if (context.getResources().getBoolean(
+                R.bool.config_wifiPasspointAnqpCachePersistenceEnabled)) {
+            wifiConfigStore.registerStoreData(objectFactory.makeAnqpCacheStoreData(
+                    new AnqpCacheDataSourceHandler(), clock));
+        }
         mPasspointProvisioner = objectFactory.makePasspointProvisioner(context, wifiNative,
                 this, wifiMetrics);
         ActivityManager activityManager = context.getSystemService(ActivityManager.class);
@@ -566,6 +606,7 @@ public class PasspointManager {
         }
         newProvider.enableVerboseLogging(mVerboseLoggingEnabled);
         mProviders.put(config.getUniqueId(), newProvider);
+        mProviderMatchIndex = null;
         if (!isFromSuggestion) {
             // Suggestions will be handled by the WifiNetworkSuggestionsManager
             mWifiConfigManager.saveToStore(true /* forceWrite */);
@@ -616,6 +657,7 @@ public class PasspointManager {
         }
         String uniqueId = provider.getConfig().getUniqueId();
         mProviders.remove(uniqueId);
+        mProviderMatchIndex = null;
         mWifiConfigManager.removeConnectChoiceFromAllNetworks(uniqueId);
         if (!provider.isFromSuggestion()) {
             // Suggestions will be handled by the WifiNetworkSuggestionsManager
@@ -913,17 +955,22 @@ public class PasspointManager {
         if (anqpEntry == null) {
             if (anqpRequestAllowed) {
                 mAnqpRequestManager.requestANQPElements(bssid, anqpKey,
-                        roamingConsortium.anqpOICount > 0, vsa.hsRelease);
+                        roamingConsortium.anqpOICount > 0, vsa.hsRelease, scanResult.level,
+                        isAnyProviderOiAdvertised(roamingConsortium));
             }
             Log.d(TAG, "ANQP entry not found for: " + anqpKey);
             return allMatches;
         }
+        Set<PasspointProvider> candidates = getMatchCandidates(anqpEntry, roamingConsortium);
         boolean anyProviderUpdated = false;
         for (Map.Entry<String, PasspointProvider> entry : mProviders.entrySet()) {
             PasspointProvider provider = entry.getValue();
             if (provider.tryUpdateCarrierId()) {
                 anyProviderUpdated = true;
             }
+            if (candidates != null && !candidates.contains(provider)) {
+                continue;
+            }
             if (mVerboseLoggingEnabled) {
                 Log.d(TAG, "Matching provider " + provider.getConfig().getHomeSp().getFqdn()
                         + " with "
@@ -954,6 +1001,21 @@ public class PasspointManager {
         return allMatches;
     }
 
+    /**
+     * Returns the providers which may match an AP with the given ANQP data, or null if all the
+     * providers need to be matched.
+     */
+    private @Nullable Set<PasspointProvider> getMatchCandidates(ANQPData anqpEntry,
+            InformationElementUtil.RoamingConsortium roamingConsortium) {
+        if (mProviders.size() < MIN_PROVIDERS_FOR_MATCH_INDEX) {
+            return null;
+        }
+        if (mProviderMatchIndex == null) {
+            mProviderMatchIndex = new PasspointProviderMatchIndex(mProviders.values());
+        }
+        return mProviderMatchIndex.getCandidates(anqpEntry.getElements(), roamingConsortium);
+    }
+
     /**
      * Add a legacy Passpoint configuration represented by a {@link WifiConfiguration} to the
      * current {@link PasspointManager}.
@@ -981,6 +1043,49 @@ public class PasspointManager {
         mAnqpCache.sweep();
     }
 
+    /**
+     * Notify that new scan results are available, before they are matched with the providers.
+     * Drops the ANQP requests queued for the previous scan results.
+     */
+    public void onNewScanResults() {
+        mAnqpRequestManager.onNewScanResults();
+    }
+
+    /**
+     * Check if the AP advertises, in its Roaming Consortium information element, an OI of any
+     * provider, which makes it likely to match that provider.
+     */
+    private boolean isAnyProviderOiAdvertised(
+            InformationElementUtil.RoamingConsortium roamingConsortium) {
+        long[] advertisedOis = roamingConsortium.getRoamingConsortiums();
+        if (advertisedOis == null || advertisedOis.length == 0) {
+            return false;
+        }
+        for (PasspointProvider provider : mProviders.values()) {
+            HomeSp homeSp = provider.getConfig().getHomeSp();
+            if (containsAny(homeSp.getMatchAllOis(), advertisedOis)
+                    || containsAny(homeSp.getMatchAnyOis(), advertisedOis)
+                    || containsAny(homeSp.getRoamingConsortiumOis(), advertisedOis)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsAny(@Nullable long[] ois, long[] advertisedOis) {
+        if (ois == null) {
+            return false;
+        }
+        for (long oi : ois) {
+            for (long advertisedOi : advertisedOis) {
+                if (oi == advertisedOi) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Notify the completion of an ANQP request.
      * TODO(zqiu): currently the notification is done through WifiMonitor,
@@ -1317,6 +1422,7 @@ public class PasspointManager {
                 enterpriseConfig.getClientCertificateAlias(), null, false, false, mClock);
         provider.enableVerboseLogging(mVerboseLoggingEnabled);
         mProviders.put(passpointConfig.getUniqueId(), provider);
+        mProviderMatchIndex = null;
         return true;
     }
 
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.hotspot2;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.net.wifi.hotspot2.PasspointConfiguration;
+import android.net.wifi.hotspot2.pps.Credential;
+import android.net.wifi.hotspot2.pps.HomeSp;
+import android.text.TextUtils;
+
+import com.android.server.wifi.IMSIParameter;
+import com.android.server.wifi.hotspot2.anqp.ANQPElement;
+import com.android.server.wifi.hotspot2.anqp.CellularNetwork;
+import com.android.server.wifi.hotspot2.anqp.Constants.ANQPElementType;
+import com.android.server.wifi.hotspot2.anqp.DomainNameElement;
+import com.android.server.wifi.hotspot2.anqp.NAIRealmData;
+import com.android.server.wifi.hotspot2.anqp.NAIRealmElement;
+import com.android.server.wifi.hotspot2.anqp.RoamingConsortiumElement;
+import com.android.server.wifi.hotspot2.anqp.ThreeGPPNetworkElement;
+import com.android.server.wifi.util.InformationElementUtil.RoamingConsortium;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the installed Passpoint providers by the keys that {@link PasspointProvider#match}
+ * can match against the ANQP elements of an AP, so that the providers which can't match an AP
+ * are found in one pass over the ANQP elements, instead of being matched one by one.
+ *
+ * The index is conservative: every provider that can match an AP is a candidate, but a
+ * candidate still needs to be matched with {@link PasspointProvider#match} to know whether it
+ * matches and how. The index is built from the provider configurations, and must be rebuilt
+ * when the set of providers changes.
+ */
+public class PasspointProviderMatchIndex {
+    /**
+     * Tree of domain labels, starting from the top-level domain, as in {@link DomainMatcher}.
+     * Each label holds the providers with a FQDN, other home partner or realm ending at that
+     * label, which match any domain or realm in its subtree.
+     */
+    private static class Label {
+        private final Map<String, Label> mSubDomains = new HashMap<>();
+        private final List<PasspointProvider> mProviders = new ArrayList<>();
+    }
+
+    private final Label mRoot = new Label();
+    private final Map<Long, List<PasspointProvider>> mProvidersByOi = new HashMap<>();
+    private final Map<String, List<PasspointProvider>> mProvidersByMccMnc = new HashMap<>();
+
+    public PasspointProviderMatchIndex(@NonNull Collection<PasspointProvider> providers) {
+        for (PasspointProvider provider : providers) {
+            addProvider(provider);
+        }
+    }
+
+    private void addProvider(PasspointProvider provider) {
+        PasspointConfiguration config = provider.getConfig();
+        HomeSp homeSp = config.getHomeSp();
+        Credential credential = config.getCredential();
+        addDomain(homeSp.getFqdn(), provider);
+        if (homeSp.getOtherHomePartners() != null) {
+            for (String otherHomePartner : homeSp.getOtherHomePartners()) {
+                addDomain(otherHomePartner, provider);
+            }
+        }
+        if (credential != null) {
+            addDomain(credential.getRealm(), provider);
+        }
+
+        addOis(homeSp.getMatchAllOis(), provider);
+        addOis(homeSp.getMatchAnyOis(), provider);
+        addOis(homeSp.getRoamingConsortiumOis(), provider);
+
+        if (credential != null && credential.getSimCredential() != null) {
+            IMSIParameter imsiParam =
+                    IMSIParameter.build(credential.getSimCredential().getImsi());
+            if (imsiParam != null) {
+                // Same MCC-MNC strings as accepted by IMSIParameter#matchesMccMnc().
+                String imsi = imsiParam.toString();
+                if (imsiParam.isFullImsi()) {
+                    // A full IMSI may be shorter than the MCC-MNC.
+                    if (imsi.length() >= IMSIParameter.MCC_MNC_LENGTH_5) {
+                        addMccMnc(imsi.substring(0, IMSIParameter.MCC_MNC_LENGTH_5), provider);
+                    }
+                    if (imsi.length() >= IMSIParameter.MCC_MNC_LENGTH_6) {
+                        addMccMnc(imsi.substring(0, IMSIParameter.MCC_MNC_LENGTH_6), provider);
+                    }
+                } else {
+                    addMccMnc(imsi.substring(0, imsi.length() - 1), provider);
+                }
+            }
+        }
+    }
+
+    private void addDomain(String domain, PasspointProvider provider) {
+        if (TextUtils.isEmpty(domain)) {
+            return;
+        }
+        Label label = mRoot;
+        for (String labelString : Utils.splitDomain(domain)) {
+            Label subLabel = label.mSubDomains.get(labelString);
+            if (subLabel == null) {
+                subLabel = new Label();
+                label.mSubDomains.put(labelString, subLabel);
+            }
+            label = subLabel;
+        }
+        label.mProviders.add(provider);
+    }
+
+    private void addOis(long[] ois, PasspointProvider provider) {
+        if (ois == null) {
+            return;
+        }
+        for (long oi : ois) {
+            mProvidersByOi.computeIfAbsent(oi, k -> new ArrayList<>()).add(provider);
+        }
+    }
+
+    private void addMccMnc(String mccMnc, PasspointProvider provider) {
+        mProvidersByMccMnc.computeIfAbsent(mccMnc, k -> new ArrayList<>()).add(provider);
+    }
+
+    /**
+     * Returns the providers that may match an AP with the given ANQP elements and Roaming
+     * Consortium information element.
+     */
+    public @NonNull Set<PasspointProvider> getCandidates(
+            @NonNull Map<ANQPElementType, ANQPElement> anqpElements,
+            @Nullable RoamingConsortium roamingConsortiumFromAp) {
+        Set<PasspointProvider> candidates = new HashSet<>();
+
+        DomainNameElement domainNameElement =
+                (DomainNameElement) anqpElements.get(ANQPElementType.ANQPDomName);
+        if (domainNameElement != null) {
+            for (String domain : domainNameElement.getDomains()) {
+                addDomainCandidates(domain, candidates);
+                if (!TextUtils.isEmpty(domain)) {
+                    addCandidates(mProvidersByMccMnc.get(
+                            Utils.getMccMnc(Utils.splitDomain(domain))), candidates);
+                }
+            }
+        }
+
+        NAIRealmElement naiRealmElement =
+                (NAIRealmElement) anqpElements.get(ANQPElementType.ANQPNAIRealm);
+        if (naiRealmElement != null) {
+            for (NAIRealmData realmData : naiRealmElement.getRealmDataList()) {
+                for (String realm : realmData.getRealms()) {
+                    addDomainCandidates(realm, candidates);
+                }
+            }
+        }
+
+        RoamingConsortiumElement roamingConsortiumElement =
+                (RoamingConsortiumElement) anqpElements.get(
+                        ANQPElementType.ANQPRoamingConsortium);
+        if (roamingConsortiumElement != null) {
+            for (long oi : roamingConsortiumElement.getOIs()) {
+                addCandidates(mProvidersByOi.get(oi), candidates);
+            }
+        }
+        if (roamingConsortiumFromAp != null
+                && roamingConsortiumFromAp.getRoamingConsortiums() != null) {
+            for (long oi : roamingConsortiumFromAp.getRoamingConsortiums()) {
+                addCandidates(mProvidersByOi.get(oi), candidates);
+            }
+        }
+
+        ThreeGPPNetworkElement threeGPPNetworkElement =
+                (ThreeGPPNetworkElement) anqpElements.get(ANQPElementType.ANQP3GPPNetwork);
+        if (threeGPPNetworkElement != null) {
+            for (CellularNetwork network : threeGPPNetworkElement.getNetworks()) {
+                for (String plmn : network.getPlmns()) {
+                    addCandidates(mProvidersByMccMnc.get(plmn), candidates);
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Adds the providers with a domain or realm of which |domain| is the same or a sub-domain,
+     * see {@link DomainMatcher#arg2SubdomainOfArg1(String, String)}.
+     */
+    private void addDomainCandidates(String domain, Set<PasspointProvider> candidates) {
+        if (TextUtils.isEmpty(domain)) {
+            return;
+        }
+        Label label = mRoot;
+        for (String labelString : Utils.splitDomain(domain)) {
+            label = label.mSubDomains.get(labelString);
+            if (label == null) {
+                return;
+            }
+            candidates.addAll(label.mProviders);
+        }
+    }
+
+    private static void addCandidates(@Nullable List<PasspointProvider> providers,
+            Set<PasspointProvider> candidates) {
+        if (providers != null) {
+            candidates.addAll(providers);
+        }
+    }
+}
@@ -5,6 +5,7 @@ package com.android.server.wifi.hotspot2.anqp;
  */
 public abstract class ANQPElement {
     private final Constants.ANQPElementType mID;
+    private byte[] mPayload;
 
     protected ANQPElement(Constants.ANQPElementType id) {
         mID = id;
@@ -13,4 +14,20 @@ public abstract class ANQPElement {
     public Constants.ANQPElementType getID() {
         return mID;
     }
+
+    /**
+     * Set the payload this element was parsed from, see {@link #getPayload()}.
+     */
+    void setPayload(byte[] payload) {
+        mPayload = payload;
+    }
+
+    /**
+     * Return the payload this element was parsed from by {@link ANQPParser}, which can be parsed
+     * again to rebuild the element, or null if the element wasn't parsed from a payload.
+     * The returned array must not be modified.
+     */
+    public byte[] getPayload() {
+        return mPayload;
+    }
 }
@@ -26,6 +26,9 @@ import java.nio.ByteOrder;
 
 /**
  * Factory to build a collection of 802.11u ANQP elements from a byte buffer.
+ *
+ * The static methods never keep the payload of the parsed elements, an instance can be created
+ * to keep them, see {@link ANQPElement#getPayload()}.
  */
 public class ANQPParser {
     /**
@@ -40,6 +43,33 @@ public class ANQPParser {
     @VisibleForTesting
     public static final int VENDOR_SPECIFIC_HS20_TYPE = 0x11;
 
+    private final boolean mKeepPayloads;
+
+    /**
+     * @param keepPayloads Whether the parsed elements keep the payload they were parsed from.
+     *                     Only needed to persist the ANQP cache.
+     */
+    public ANQPParser(boolean keepPayloads) {
+        mKeepPayloads = keepPayloads;
+    }
+
+    /**
+     * Parse an ANQP or Hotspot 2.0 Release 2 ANQP element from the pass-in byte buffer,
+     * depending on its type.
+     *
+     * @param infoID The ANQP element type
+     * @param payload The buffer to read from
+     * @return {@link com.android.server.wifi.hotspot2.anqp.ANQPElement}
+     * @throws BufferUnderflowException
+     * @throws ProtocolException
+     */
+    public ANQPElement parse(Constants.ANQPElementType infoID, ByteBuffer payload)
+            throws ProtocolException {
+        return Constants.getANQPElementID(infoID) != null
+                ? parseElement(infoID, payload, mKeepPayloads)
+                : parseHS20Element(infoID, payload, mKeepPayloads);
+    }
+
     /**
      * Parse an ANQP element from the pass-in byte buffer.
      *
@@ -57,26 +87,43 @@ public class ANQPParser {
      */
     public static ANQPElement parseElement(Constants.ANQPElementType infoID, ByteBuffer payload)
             throws ProtocolException {
+        return parseElement(infoID, payload, false);
+    }
+
+    private static ANQPElement parseElement(Constants.ANQPElementType infoID, ByteBuffer payload,
+            boolean keepPayload) throws ProtocolException {
+        byte[] rawPayload = keepPayload ? getRemainingBytes(payload) : null;
+        ANQPElement element;
         switch (infoID) {
             case ANQPVenueName:
-                return VenueNameElement.parse(payload);
+                element = VenueNameElement.parse(payload);
+                break;
             case ANQPRoamingConsortium:
-                return RoamingConsortiumElement.parse(payload);
+                element = RoamingConsortiumElement.parse(payload);
+                break;
             case ANQPIPAddrAvailability:
-                return IPAddressTypeAvailabilityElement.parse(payload);
+                element = IPAddressTypeAvailabilityElement.parse(payload);
+                break;
             case ANQPNAIRealm:
-                return NAIRealmElement.parse(payload);
+                element = NAIRealmElement.parse(payload);
+                break;
             case ANQP3GPPNetwork:
-                return ThreeGPPNetworkElement.parse(payload);
+                element = ThreeGPPNetworkElement.parse(payload);
+                break;
             case ANQPDomName:
-                return DomainNameElement.parse(payload);
+                element = DomainNameElement.parse(payload);
+                break;
             case ANQPVendorSpec:
-                return parseVendorSpecificElement(payload);
+                // Keeps the payload of the Hotspot 2.0 element, which matches its ID.
+                return parseVendorSpecificElement(payload, keepPayload);
             case ANQPVenueUrl:
-                return VenueUrlElement.parse(payload);
+                element = VenueUrlElement.parse(payload);
+                break;
             default:
                 throw new ProtocolException("Unknown element ID: " + infoID);
         }
+        element.setPayload(rawPayload);
+        return element;
     }
 
     /**
@@ -90,18 +137,31 @@ public class ANQPParser {
      */
     public static ANQPElement parseHS20Element(Constants.ANQPElementType infoID,
             ByteBuffer payload) throws ProtocolException {
+        return parseHS20Element(infoID, payload, false);
+    }
+
+    private static ANQPElement parseHS20Element(Constants.ANQPElementType infoID,
+            ByteBuffer payload, boolean keepPayload) throws ProtocolException {
+        byte[] rawPayload = keepPayload ? getRemainingBytes(payload) : null;
+        ANQPElement element;
         switch (infoID) {
             case HSFriendlyName:
-                return HSFriendlyNameElement.parse(payload);
+                element = HSFriendlyNameElement.parse(payload);
+                break;
             case HSWANMetrics:
-                return HSWanMetricsElement.parse(payload);
+                element = HSWanMetricsElement.parse(payload);
+                break;
             case HSConnCapability:
-                return HSConnectionCapabilityElement.parse(payload);
+                element = HSConnectionCapabilityElement.parse(payload);
+                break;
             case HSOSUProviders:
-                return HSOsuProvidersElement.parse(payload);
+                element = HSOsuProvidersElement.parse(payload);
+                break;
             default:
                 throw new ProtocolException("Unknown element ID: " + infoID);
         }
+        element.setPayload(rawPayload);
+        return element;
     }
 
     /**
@@ -113,12 +173,13 @@ public class ANQPParser {
      *   3     1        1         1       variable
      *
      * @param payload The buffer to read from
+     * @param keepPayload Whether the element keeps the payload it was parsed from
      * @return {@link ANQPElement}
      * @throws BufferUnderflowException
      * @throws ProtocolException
      */
-    private static ANQPElement parseVendorSpecificElement(ByteBuffer payload)
-            throws ProtocolException {
+    private static ANQPElement parseVendorSpecificElement(ByteBuffer payload,
+            boolean keepPayload) throws ProtocolException {
         int oi = (int) ByteBufferReader.readInteger(payload, ByteOrder.BIG_ENDIAN, 3);
         int type = payload.get() & 0xFF;
 
@@ -132,6 +193,15 @@ public class ANQPParser {
             throw new ProtocolException("Unsupported subtype: " + subType);
         }
         payload.get();     // Skip the reserved byte
-        return parseHS20Element(hs20ID, payload);
+        return parseHS20Element(hs20ID, payload, keepPayload);
+    }
+
+    /**
+     * Copy the remaining bytes of |payload|, without changing its position.
+     */
+    private static byte[] getRemainingBytes(ByteBuffer payload) {
+        byte[] bytes = new byte[payload.remaining()];
+        payload.duplicate().get(bytes);
+        return bytes;
     }
 }
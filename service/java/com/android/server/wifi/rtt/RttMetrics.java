@@ -83,6 +83,11 @@ public class RttMetrics {
     private static final int[] MEASUREMENT_DURATION_HISTOGRAM_AWARE =
             {2 * 1000, 4 * 1000, 6 * 1000, 8 * 1000};
 
+    // Histogram for the time spent by requests in the queue before being dispatched to the HAL.
+    // Indicates 6 buckets (in ms): < 10, < 100, < 1000, < 5000, < 20000, >= 20000.
+    private static final int[] QUEUEING_LATENCY_MS_HISTOGRAM =
+            {10, 100, 1000, 5 * 1000, 20 * 1000};
+
     private static final int PEER_AP = 0;
     private static final int PEER_AWARE = 1;
 
@@ -91,6 +96,10 @@ public class RttMetrics {
     private SparseIntArray mMeasurementDurationApOnlyHistogram = new SparseIntArray();
     private SparseIntArray mMeasurementDurationWithAwareHistogram = new SparseIntArray();
     private PerPeerTypeInfo[] mPerPeerTypeInfo;
+    private int mNumHalRangingCalls = 0;
+    private int mNumDispatchedRequests = 0;
+    private SparseIntArray mQueueingLatencyHistogram = new SparseIntArray();
+    private SparseIntArray mRequestsPerHalCallHistogram = new SparseIntArray();
 
     public RttMetrics(Clock clock) {
         mClock = clock;
@@ -221,6 +230,25 @@ public class RttMetrics {
         mOverallStatusHistogram.put(status, mOverallStatusHistogram.get(status) + 1);
     }
 
+    /**
+     * Record metrics for a ranging operation dispatched to the HAL, which serves one or more
+     * merged requests.
+     *
+     * @param queueingLatenciesMs Time spent in the queue by each of the requests served.
+     */
+    public void recordDispatch(int[] queueingLatenciesMs) {
+        synchronized (mLock) {
+            mNumHalRangingCalls++;
+            mNumDispatchedRequests += queueingLatenciesMs.length;
+            mRequestsPerHalCallHistogram.put(queueingLatenciesMs.length,
+                    mRequestsPerHalCallHistogram.get(queueingLatenciesMs.length) + 1);
+            for (int latencyMs : queueingLatenciesMs) {
+                addValueToLinearHistogram(latencyMs, mQueueingLatencyHistogram,
+                        QUEUEING_LATENCY_MS_HISTOGRAM);
+            }
+        }
+    }
+
     private void updatePeerInfoWithRequestInfo(PerPeerTypeInfo peerInfo, WorkSource ws,
             int numIndividualCalls) {
         if (numIndividualCalls == 0) {
@@ -387,6 +415,12 @@ public class RttMetrics {
                     + mMeasurementDurationWithAwareHistogram);
             pw.println("AP:" + mPerPeerTypeInfo[PEER_AP]);
             pw.println("AWARE:" + mPerPeerTypeInfo[PEER_AWARE]);
+            pw.println("mNumHalRangingCalls:" + mNumHalRangingCalls);
+            pw.println("mNumDispatchedRequests:" + mNumDispatchedRequests);
+            pw.println("mergeRatio:" + (mNumHalRangingCalls == 0 ? 0
+                    : (float) mNumDispatchedRequests / mNumHalRangingCalls));
+            pw.println("mRequestsPerHalCallHistogram:" + mRequestsPerHalCallHistogram);
+            pw.println("mQueueingLatencyHistogram:" + mQueueingLatencyHistogram);
         }
     }
 
@@ -401,6 +435,10 @@ public class RttMetrics {
             mPerPeerTypeInfo[PEER_AWARE] = new PerPeerTypeInfo();
             mMeasurementDurationApOnlyHistogram.clear();
             mMeasurementDurationWithAwareHistogram.clear();
+            mNumHalRangingCalls = 0;
+            mNumDispatchedRequests = 0;
+            mQueueingLatencyHistogram.clear();
+            mRequestsPerHalCallHistogram.clear();
         }
     }
 
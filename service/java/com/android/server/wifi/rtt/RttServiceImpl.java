@@ -73,11 +73,14 @@ import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * Implementation of the IWifiRttManager AIDL interface and of the RttService state manager.
@@ -107,6 +110,9 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
     public static final long HAL_RANGING_TIMEOUT_MS = 5_000; // 5 sec
     @VisibleForTesting
     public static final long HAL_AWARE_RANGING_TIMEOUT_MS = 10_000; // 10 sec
+    // Deadline for a queued request to be dispatched, after which its results would be stale.
+    @VisibleForTesting
+    public static final long QUEUED_REQUEST_TIMEOUT_MS = 30_000; // 30 sec
 
     // Default value for RTT background throttling interval.
     private static final long DEFAULT_BACKGROUND_PROCESS_EXEC_GAP_MS = 1_800_000; // 30 min
@@ -580,6 +586,9 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
         private int mNextCommandId = 1000;
         private Map<Integer, RttRequesterInfo> mRttRequesterInfo = new HashMap<>();
         private List<RttRequestInfo> mRttRequestQueue = new LinkedList<>();
+        // Number of queued requests (including the ones being executed) per UID of their
+        // work source, to throttle spamming requestors without scanning the queue.
+        private SparseIntArray mNumQueuedPerUid = new SparseIntArray();
         private WakeupMessage mRangingTimeoutMessage = null;
 
         RttServiceSynchronized(Looper looper, RttNative rttNative) {
@@ -604,22 +613,17 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
         private void cleanUpOnDisable() {
             if (VDBG) Log.v(TAG, "RttServiceSynchronized.cleanUpOnDisable");
             for (RttRequestInfo rri : mRttRequestQueue) {
-                try {
-                    if (rri.dispatchedToNative) {
-                        // may not be necessary in some cases (e.g. Wi-Fi disable may already clear
-                        // up active RTT), but in other cases will be needed (doze disabling RTT
-                        // but Wi-Fi still up). Doesn't hurt - worst case will fail.
-                        cancelRanging(rri);
-                    }
-                    mRttMetrics.recordOverallStatus(
-                            WifiMetricsProto.WifiRttLog.OVERALL_RTT_NOT_AVAILABLE);
-                    rri.callback.onRangingFailure(
+                if (rri.dispatchedToNative) {
+                    // may not be necessary in some cases (e.g. Wi-Fi disable may already clear
+                    // up active RTT), but in other cases will be needed (doze disabling RTT
+                    // but Wi-Fi still up). Doesn't hurt - worst case will fail.
+                    cancelRanging(rri);
+                }
+                for (RttRequestInfo request : withMergedRequests(rri)) {
+                    failRequest(request, WifiMetricsProto.WifiRttLog.OVERALL_RTT_NOT_AVAILABLE,
                             RangingResultCallback.STATUS_CODE_FAIL_RTT_NOT_AVAILABLE);
-                } catch (RemoteException e) {
-                    Log.e(TAG, "RttServiceSynchronized.startRanging: disabled, callback failed -- "
-                            + e);
+                    releaseRequest(request);
                 }
-                rri.binder.unlinkToDeath(rri.dr, 0);
             }
             mRttRequestQueue.clear();
             mRangingTimeoutMessage.cancel();
@@ -643,24 +647,30 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
             while (it.hasNext()) {
                 RttRequestInfo rri = it.next();
 
-                boolean match = rri.uid == uid; // original UID will never be 0
-                if (rri.workSource != null && workSource != null) {
-                    rri.workSource.remove(workSource);
-                    if (rri.workSource.isEmpty()) {
-                        match = true;
+                // the operation continues for the other requests merged into it
+                ListIterator<RttRequestInfo> mergedIt = rri.mergedRequests.listIterator();
+                while (mergedIt.hasNext()) {
+                    RttRequestInfo merged = mergedIt.next();
+                    if (isClientRequest(merged, uid, workSource)) {
+                        mergedIt.remove();
+                        releaseRequest(merged);
                     }
                 }
 
-                if (match) {
-                    if (!rri.dispatchedToNative) {
-                        it.remove();
-                        rri.binder.unlinkToDeath(rri.dr, 0);
-                    } else {
+                if (isClientRequest(rri, uid, workSource)) {
+                    it.remove();
+                    releaseRequest(rri);
+                    if (rri.dispatchedToNative) {
                         dispatchedRequestAborted = true;
                         Log.d(TAG, "Client death - cancelling RTT operation in progress: cmdId="
                                 + rri.cmdId);
                         mRangingTimeoutMessage.cancel();
                         cancelRanging(rri);
+                        // the remaining merged requests go back to the top of the queue
+                        for (RttRequestInfo merged : rri.mergedRequests) {
+                            it.add(merged);
+                        }
+                        rri.mergedRequests.clear();
                     }
                 }
             }
@@ -672,10 +682,26 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
             }
 
             if (dispatchedRequestAborted) {
-                executeNextRangingRequestIfPossible(true);
+                executeNextRangingRequestIfPossible(false);
             }
         }
 
+        /**
+         * Returns true if the request was made by the specified client, see
+         * {@link #cleanUpClientRequests(int, WorkSource)}. The WorkSource is cleared from the
+         * work-source of the request.
+         */
+        private boolean isClientRequest(RttRequestInfo rri, int uid, WorkSource workSource) {
+            boolean match = rri.uid == uid; // original UID will never be 0
+            if (rri.workSource != null && workSource != null) {
+                rri.workSource.remove(workSource);
+                if (rri.workSource.isEmpty()) {
+                    match = true;
+                }
+            }
+            return match;
+        }
+
         private void timeoutRangingRequest() {
             if (VDBG) {
                 Log.v(TAG, "RttServiceSynchronized.timeoutRangingRequest mRttRequestQueue="
@@ -692,11 +718,9 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                 return;
             }
             cancelRanging(rri);
-            try {
-                mRttMetrics.recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_TIMEOUT);
-                rri.callback.onRangingFailure(RangingResultCallback.STATUS_CODE_FAIL);
-            } catch (RemoteException e) {
-                Log.e(TAG, "RttServiceSynchronized.timeoutRangingRequest: callback failed: " + e);
+            for (RttRequestInfo request : withMergedRequests(rri)) {
+                failRequest(request, WifiMetricsProto.WifiRttLog.OVERALL_TIMEOUT,
+                        RangingResultCallback.STATUS_CODE_FAIL);
             }
             executeNextRangingRequestIfPossible(true);
         }
@@ -707,7 +731,8 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                 boolean isCalledFromPrivilegedContext, Object attributionSource) {
             mRttMetrics.recordRequest(workSource, request);
 
-            if (isRequestorSpamming(workSource)) {
+            int[] queuedUids = getQueuedUids(workSource);
+            if (isRequestorSpamming(queuedUids)) {
                 Log.w(TAG,
                         "Work source " + workSource + " is spamming, dropping request: " + request);
                 binder.unlinkToDeath(dr, 0);
@@ -732,7 +757,11 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
             newRequest.callback = callback;
             newRequest.isCalledFromPrivilegedContext = isCalledFromPrivilegedContext;
             newRequest.attributionSource = attributionSource;
+            newRequest.queuedUids = queuedUids;
+            newRequest.queuedTimestampMs = mClock.getElapsedSinceBootMillis();
+            newRequest.deadlineMs = newRequest.queuedTimestampMs + QUEUED_REQUEST_TIMEOUT_MS;
             mRttRequestQueue.add(newRequest);
+            updateNumQueued(queuedUids, 1);
 
             if (VDBG) {
                 Log.v(TAG, "RttServiceSynchronized.queueRangingRequest: newRequest=" + newRequest);
@@ -741,48 +770,81 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
             executeNextRangingRequestIfPossible(false);
         }
 
-        private boolean isRequestorSpamming(WorkSource ws) {
-            if (VDBG) Log.v(TAG, "isRequestorSpamming: ws" + ws);
-
-            SparseIntArray counts = new SparseIntArray();
-
-            for (RttRequestInfo rri : mRttRequestQueue) {
-                for (int i = 0; i < rri.workSource.size(); ++i) {
-                    int uid = rri.workSource.getUid(i);
-                    counts.put(uid, counts.get(uid) + 1);
-                }
-
-                final List<WorkChain> workChains = rri.workSource.getWorkChains();
-                if (workChains != null) {
-                    for (int i = 0; i < workChains.size(); ++i) {
-                        final int uid = workChains.get(i).getAttributionUid();
-                        counts.put(uid, counts.get(uid) + 1);
-                    }
-                }
+        /**
+         * Returns the UIDs against which a request from the specified work source is counted:
+         * the UIDs of the work source and the attribution UIDs of its work chains.
+         */
+        private int[] getQueuedUids(WorkSource ws) {
+            final List<WorkChain> workChains = ws.getWorkChains();
+            int numWorkChains = workChains == null ? 0 : workChains.size();
+            int[] uids = new int[ws.size() + numWorkChains];
+            for (int i = 0; i < ws.size(); ++i) {
+                uids[i] = ws.getUid(i);
+            }
+            for (int i = 0; i < numWorkChains; ++i) {
+                uids[ws.size() + i] = workChains.get(i).getAttributionUid();
             }
+            return uids;
+        }
 
-            for (int i = 0; i < ws.size(); ++i) {
-                if (counts.get(ws.getUid(i)) < MAX_QUEUED_PER_UID) {
-                    return false;
+        private void updateNumQueued(int[] uids, int delta) {
+            for (int uid : uids) {
+                int count = mNumQueuedPerUid.get(uid) + delta;
+                if (count > 0) {
+                    mNumQueuedPerUid.put(uid, count);
+                } else {
+                    mNumQueuedPerUid.delete(uid);
                 }
             }
+        }
 
-            final List<WorkChain> workChains = ws.getWorkChains();
-            if (workChains != null) {
-                for (int i = 0; i < workChains.size(); ++i) {
-                    final int uid = workChains.get(i).getAttributionUid();
-                    if (counts.get(uid) < MAX_QUEUED_PER_UID) {
-                        return false;
-                    }
+        private boolean isRequestorSpamming(int[] uids) {
+            if (VDBG) Log.v(TAG, "isRequestorSpamming: uids=" + Arrays.toString(uids));
+
+            for (int uid : uids) {
+                if (mNumQueuedPerUid.get(uid) < MAX_QUEUED_PER_UID) {
+                    return false;
                 }
             }
 
             if (mDbg) {
-                Log.v(TAG, "isRequestorSpamming: ws=" + ws + ", someone is spamming: " + counts);
+                Log.v(TAG, "isRequestorSpamming: uids=" + Arrays.toString(uids)
+                        + ", someone is spamming: " + mNumQueuedPerUid);
             }
             return true;
         }
 
+        /**
+         * Releases a request which left the queue: completed, failed or aborted.
+         */
+        private void releaseRequest(RttRequestInfo rri) {
+            rri.binder.unlinkToDeath(rri.dr, 0);
+            updateNumQueued(rri.queuedUids, -1);
+        }
+
+        /**
+         * Returns the request and the requests merged into it, which are all served by the same
+         * ranging operation.
+         */
+        private List<RttRequestInfo> withMergedRequests(RttRequestInfo rri) {
+            if (rri.mergedRequests.isEmpty()) {
+                return Collections.singletonList(rri);
+            }
+            List<RttRequestInfo> requests = new ArrayList<>(rri.mergedRequests.size() + 1);
+            requests.add(rri);
+            requests.addAll(rri.mergedRequests);
+            return requests;
+        }
+
+        private void failRequest(RttRequestInfo rri, int overallStatus, int statusCode) {
+            try {
+                mRttMetrics.recordOverallStatus(overallStatus);
+                rri.callback.onRangingFailure(statusCode);
+            } catch (RemoteException e) {
+                Log.e(TAG, "RttServiceSynchronized.failRequest: callback failed -- " + e);
+            }
+        }
+
         private void executeNextRangingRequestIfPossible(boolean popFirst) {
             if (VDBG) Log.v(TAG, "executeNextRangingRequestIfPossible: popFirst=" + popFirst);
 
@@ -792,10 +854,14 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                             + "queue!? Ignoring pop.");
                 } else {
                     RttRequestInfo topOfQueueRequest = mRttRequestQueue.remove(0);
-                    topOfQueueRequest.binder.unlinkToDeath(topOfQueueRequest.dr, 0);
+                    for (RttRequestInfo rri : withMergedRequests(topOfQueueRequest)) {
+                        releaseRequest(rri);
+                    }
                 }
             }
 
+            failExpiredRequests();
+
             if (mRttRequestQueue.size() == 0) {
                 if (VDBG) Log.v(TAG, "executeNextRangingRequestIfPossible: no requests pending");
                 return;
@@ -814,6 +880,30 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
             startRanging(nextRequest);
         }
 
+        /**
+         * Fail the queued requests which weren't dispatched before their deadline. Checked each
+         * time the queue advances, i.e. at least once per HAL ranging timeout while requests are
+         * waiting.
+         *
+         * Requests are otherwise still executed in FIFO order: fairness between requestors only
+         * relies on the per-UID queue limit and on merging the requests for the same responders.
+         */
+        private void failExpiredRequests() {
+            long nowMs = mClock.getElapsedSinceBootMillis();
+            ListIterator<RttRequestInfo> it = mRttRequestQueue.listIterator();
+            while (it.hasNext()) {
+                RttRequestInfo rri = it.next();
+                if (rri.dispatchedToNative || rri.peerHandlesTranslated || nowMs < rri.deadlineMs) {
+                    continue;
+                }
+                Log.w(TAG, "failExpiredRequests: not dispatched before its deadline - " + rri);
+                it.remove();
+                failRequest(rri, WifiMetricsProto.WifiRttLog.OVERALL_TIMEOUT,
+                        RangingResultCallback.STATUS_CODE_FAIL);
+                releaseRequest(rri);
+            }
+        }
+
         private void startRanging(RttRequestInfo nextRequest) {
             if (VDBG) {
                 Log.v(TAG, "RttServiceSynchronized.startRanging: nextRequest=" + nextRequest);
@@ -842,7 +932,7 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                 return;
             }
 
-            if (!preExecThrottleCheck(nextRequest.workSource)) {
+            if (!nextRequest.executionPermitted && !preExecThrottleCheck(nextRequest.workSource)) {
                 Log.w(TAG, "RttServiceSynchronized.startRanging: execution throttled - nextRequest="
                         + nextRequest + ", mRttRequesterInfo=" + mRttRequesterInfo);
                 try {
@@ -855,11 +945,14 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                 executeNextRangingRequestIfPossible(true);
                 return;
             }
+            nextRequest.executionPermitted = true;
 
+            mergeQueuedRequests(nextRequest);
             nextRequest.cmdId = mNextCommandId++;
             mLastRequestTimestamp = mClock.getWallClockMillis();
             if (mRttNative.rangeRequest(nextRequest.cmdId, nextRequest.request,
                     nextRequest.isCalledFromPrivilegedContext)) {
+                recordDispatch(nextRequest);
                 long timeout = HAL_RANGING_TIMEOUT_MS;
                 for (ResponderConfig responderConfig : nextRequest.request.mRttPeers) {
                     if (responderConfig.responderType == ResponderConfig.RESPONDER_AWARE) {
@@ -870,19 +963,60 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                 mRangingTimeoutMessage.schedule(mClock.getElapsedSinceBootMillis() + timeout);
             } else {
                 Log.w(TAG, "RttServiceSynchronized.startRanging: native rangeRequest call failed");
-                try {
-                    mRttMetrics.recordOverallStatus(
-                            WifiMetricsProto.WifiRttLog.OVERALL_HAL_FAILURE);
-                    nextRequest.callback.onRangingFailure(RangingResultCallback.STATUS_CODE_FAIL);
-                } catch (RemoteException e) {
-                    Log.e(TAG, "RttServiceSynchronized.startRanging: HAL request failed, callback "
-                            + "failed -- " + e);
+                for (RttRequestInfo request : withMergedRequests(nextRequest)) {
+                    failRequest(request, WifiMetricsProto.WifiRttLog.OVERALL_HAL_FAILURE,
+                            RangingResultCallback.STATUS_CODE_FAIL);
                 }
                 executeNextRangingRequestIfPossible(true);
             }
             nextRequest.dispatchedToNative = true;
         }
 
+        /**
+         * Merge into the top of queue request the queued requests which only range with a subset
+         * of its responders, with the same parameters, so that they are served by the same HAL
+         * ranging operation instead of waiting for their turn. The merged requests are still
+         * subject to the execution throttling of their requestors: the ones which aren't
+         * permitted to execute yet are left in the queue. Requests which were already merged
+         * before, and put back in the queue when the request they were merged into was
+         * cancelled, were already charged and aren't throttled again.
+         */
+        private void mergeQueuedRequests(RttRequestInfo topOfQueueRequest) {
+            if (mRttRequestQueue.size() < 2 || mRttRequestQueue.get(0) != topOfQueueRequest) {
+                return;
+            }
+            Set<ResponderConfig> responders = new HashSet<>(topOfQueueRequest.request.mRttPeers);
+            ListIterator<RttRequestInfo> it = mRttRequestQueue.listIterator(1);
+            while (it.hasNext()) {
+                RttRequestInfo rri = it.next();
+                if (rri.isCalledFromPrivilegedContext
+                        != topOfQueueRequest.isCalledFromPrivilegedContext
+                        || rri.request.mRttBurstSize != topOfQueueRequest.request.mRttBurstSize
+                        || !responders.containsAll(rri.request.mRttPeers)) {
+                    continue;
+                }
+                if (!rri.executionPermitted && !preExecThrottleCheck(rri.workSource)) {
+                    continue;
+                }
+                if (VDBG) {
+                    Log.v(TAG, "mergeQueuedRequests: merging " + rri);
+                }
+                rri.executionPermitted = true;
+                it.remove();
+                topOfQueueRequest.mergedRequests.add(rri);
+            }
+        }
+
+        private void recordDispatch(RttRequestInfo rri) {
+            long nowMs = mClock.getElapsedSinceBootMillis();
+            List<RttRequestInfo> requests = withMergedRequests(rri);
+            int[] queueingLatenciesMs = new int[requests.size()];
+            for (int i = 0; i < requests.size(); ++i) {
+                queueingLatenciesMs[i] = (int) (nowMs - requests.get(i).queuedTimestampMs);
+            }
+            mRttMetrics.recordDispatch(queueingLatenciesMs);
+        }
+
         /**
          * Perform pre-execution throttling checks:
          * - If all uids in ws are in background then check last execution and block if request is
@@ -1097,50 +1231,66 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                 return;
             }
 
-            boolean onlyAwareApRanged = topOfQueueRequest.request.mRttPeers.stream().allMatch(
+            for (RttRequestInfo rri : withMergedRequests(topOfQueueRequest)) {
+                dispatchRangingResults(rri, results, rri == topOfQueueRequest);
+            }
+
+            executeNextRangingRequestIfPossible(true);
+        }
+
+        /**
+         * Dispatch the results of a ranging operation to a request it served, if the requestor
+         * still has the permission to receive them.
+         *
+         * @param recordResultMetrics true to record the result metrics: only once per HAL ranging
+         *                            operation, for the request dispatched to the HAL.
+         */
+        private void dispatchRangingResults(RttRequestInfo rri, List<RangingResult> results,
+                boolean recordResultMetrics) {
+            boolean onlyAwareApRanged = rri.request.mRttPeers.stream().allMatch(
                     config -> config.responderType == ResponderConfig.RESPONDER_AWARE);
             boolean permissionGranted = false;
             if (onlyAwareApRanged && SdkLevel.isAtLeastT()) {
                 // Special case: if only aware APs are ranged, then allow this request if the caller
                 // has nearby permission.
                 permissionGranted = mWifiPermissionsUtil.checkNearbyDevicesPermission(
-                        (AttributionSource) topOfQueueRequest.attributionSource, true,
+                        (AttributionSource) rri.attributionSource, true,
                         "wifi aware on ranging result");
             }
             if (!permissionGranted) {
                 permissionGranted =
                         mWifiPermissionsUtil.checkCallersLocationPermission(
-                                topOfQueueRequest.callingPackage,
-                                topOfQueueRequest.callingFeatureId,
-                                topOfQueueRequest.uid, /* coarseForTargetSdkLessThanQ */ false,
+                                rri.callingPackage,
+                                rri.callingFeatureId,
+                                rri.uid, /* coarseForTargetSdkLessThanQ */ false,
                                 null) && mWifiPermissionsUtil.isLocationModeEnabled();
             }
             try {
                 if (permissionGranted) {
-                    List<RangingResult> finalResults = postProcessResults(topOfQueueRequest.request,
-                            results, topOfQueueRequest.isCalledFromPrivilegedContext);
+                    List<RangingResult> finalResults = postProcessResults(rri.request,
+                            results, rri.isCalledFromPrivilegedContext);
                     mRttMetrics.recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
-                    mRttMetrics.recordResult(topOfQueueRequest.request, results,
-                            (int) (mClock.getWallClockMillis() - mLastRequestTimestamp));
+                    if (recordResultMetrics) {
+                        mRttMetrics.recordResult(rri.request, results,
+                                (int) (mClock.getWallClockMillis() - mLastRequestTimestamp));
+                    }
                     if (VDBG) {
-                        Log.v(TAG, "RttServiceSynchronized.onRangingResults: finalResults="
+                        Log.v(TAG, "RttServiceSynchronized.dispatchRangingResults: finalResults="
                                 + finalResults);
                     }
-                    topOfQueueRequest.callback.onRangingResults(finalResults);
+                    rri.callback.onRangingResults(finalResults);
                 } else {
-                    Log.w(TAG, "RttServiceSynchronized.onRangingResults: location permission "
+                    Log.w(TAG, "RttServiceSynchronized.dispatchRangingResults: location permission "
                             + "revoked - not forwarding results");
                     mRttMetrics.recordOverallStatus(
                             WifiMetricsProto.WifiRttLog.OVERALL_LOCATION_PERMISSION_MISSING);
-                    topOfQueueRequest.callback.onRangingFailure(
+                    rri.callback.onRangingFailure(
                             RangingResultCallback.STATUS_CODE_FAIL);
                 }
             } catch (RemoteException e) {
-                Log.e(TAG,
-                        "RttServiceSynchronized.onRangingResults: callback exception -- " + e);
+                Log.e(TAG, "RttServiceSynchronized.dispatchRangingResults: callback exception -- "
+                        + e);
             }
-
-            executeNextRangingRequestIfPossible(true);
         }
 
         /*
@@ -1230,6 +1380,7 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
             pw.println("  mNextCommandId: " + mNextCommandId);
             pw.println("  mRttRequesterInfo: " + mRttRequesterInfo);
             pw.println("  mRttRequestQueue: " + mRttRequestQueue);
+            pw.println("  mNumQueuedPerUid: " + mNumQueuedPerUid);
             pw.println("  mRangingTimeoutMessage: " + mRangingTimeoutMessage);
             mRttMetrics.dump(fd, pw, args);
             mRttNative.dump(fd, pw, args);
@@ -1253,6 +1404,13 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
         public int cmdId = 0; // uninitialized cmdId value
         public boolean dispatchedToNative = false;
         public boolean peerHandlesTranslated = false;
+        public int[] queuedUids;
+        public long queuedTimestampMs;
+        public long deadlineMs;
+        // passed the execution throttling, which must only be charged once per request
+        public boolean executionPermitted = false;
+        // requests served by the same ranging operation, dispatched with this request
+        public List<RttRequestInfo> mergedRequests = new ArrayList<>();
 
         @Override
         public String toString() {
@@ -1263,7 +1421,11 @@ public class RttServiceImpl extends IWifiRttManager.Stub {
                     request.toString()).append(", callback=").append(callback).append(
                     ", cmdId=").append(cmdId).append(", peerHandlesTranslated=").append(
                     peerHandlesTranslated).append(", isCalledFromPrivilegedContext=").append(
-                    isCalledFromPrivilegedContext).toString();
+                    isCalledFromPrivilegedContext).append(", queuedTimestampMs=").append(
+                    queuedTimestampMs).append(", deadlineMs=").append(deadlineMs).append(
+                    ", executionPermitted=").append(executionPermitted).append(
+                    ", mergedRequests=").append(
+                    mergedRequests).toString();
         }
     }
 
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import com.android.server.wifi.proto.nano.WifiMetricsProto.Int32Count;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Lock-free counter of occurrences of int keys within a small, fixed range, e.g RSSI values.
+ * Use this instead of {@link IntCounter} for counters updated on a hot path which must not wait
+ * for the threads reading them, e.g the RSSI poll while the metrics are dumped.
+ *
+ * Keys outside of [keyLowerBound, keyUpperBound] are attributed to the closest bound, like
+ * {@link IntCounter}. Reading the counts is not atomic across keys: a snapshot taken while the
+ * counter is being updated may include only some of the concurrent increments.
+ */
+public class AtomicIntCounter {
+    /** Maximum number of keys, to keep the preallocated counts small. */
+    private static final int MAX_NUM_KEYS = 4096;
+
+    /**
+     * Calls to {@link #add(int, int)}/{@link #increment(int)} for all keys < keyLowerBound are
+     * instead attributed to keyLowerBound.
+     */
+    public final int keyLowerBound;
+    /**
+     * Calls to {@link #add(int, int)}/{@link #increment(int)} for all keys > keyUpperBound are
+     * instead attributed to keyUpperBound.
+     */
+    public final int keyUpperBound;
+    private final AtomicIntegerArray mCounts;
+
+    /**
+     * Creates a counter for the keys between keyLowerBound and keyUpperBound, inclusive.
+     */
+    public AtomicIntCounter(int keyLowerBound, int keyUpperBound) {
+        long numKeys = (long) keyUpperBound - keyLowerBound + 1;
+        if (numKeys < 1 || numKeys > MAX_NUM_KEYS) {
+            throw new IllegalArgumentException("Invalid key range [" + keyLowerBound + ", "
+                    + keyUpperBound + "]");
+        }
+        this.keyLowerBound = keyLowerBound;
+        this.keyUpperBound = keyUpperBound;
+        mCounts = new AtomicIntegerArray((int) numKeys);
+    }
+
+    /**
+     * Increments the count of a key by 1.
+     */
+    public void increment(int key) {
+        add(key, 1);
+    }
+
+    /**
+     * Increments the count of a key by <code>count</code>.
+     */
+    public void add(int key, int count) {
+        key = Math.max(keyLowerBound, Math.min(key, keyUpperBound));
+        mCounts.addAndGet(key - keyLowerBound, count);
+    }
+
+    /**
+     * Returns the count of a key, or 0 if the key is out of range.
+     */
+    public int get(int key) {
+        if (key < keyLowerBound || key > keyUpperBound) {
+            return 0;
+        }
+        return mCounts.get(key - keyLowerBound);
+    }
+
+    /**
+     * Resets all the counts to 0.
+     */
+    public void clear() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+    }
+
+    /**
+     * Returns a snapshot of the non-zero counts, in increasing key order.
+     */
+    public IntCounter toIntCounter() {
+        IntCounter counter = new IntCounter(keyLowerBound, keyUpperBound);
+        for (int i = 0; i < mCounts.length(); i++) {
+            int count = mCounts.get(i);
+            if (count != 0) {
+                counter.put(keyLowerBound + i, count);
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Returns the non-zero counts, in increasing key order, and resets them to 0. Unlike
+     * {@link #toIntCounter()} followed by {@link #clear()}, no concurrent increment is lost: each
+     * one is either included in the returned counts or kept for the next snapshot.
+     */
+    public IntCounter toIntCounterAndClear() {
+        IntCounter counter = new IntCounter(keyLowerBound, keyUpperBound);
+        for (int i = 0; i < mCounts.length(); i++) {
+            int count = mCounts.getAndSet(i, 0);
+            if (count != 0) {
+                counter.put(keyLowerBound + i, count);
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Converts a snapshot of this counter to a standard Protobuf representation.
+     */
+    public Int32Count[] toProto() {
+        return toIntCounter().toProto();
+    }
+
+    @Override
+    public String toString() {
+        return toIntCounter().toString();
+    }
+}
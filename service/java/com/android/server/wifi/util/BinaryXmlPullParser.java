@@ -0,0 +1,415 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import android.annotation.NonNull;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * {@link XmlPullParser} reading the binary encoding written by {@link BinaryXmlSerializer}.
+ *
+ * Only the subset of {@link XmlPullParser} needed to read back a serialized stream is supported:
+ * start tags with their attributes, text and end tags. Namespaces are not supported.
+ */
+public class BinaryXmlPullParser implements XmlPullParser {
+    private static final int INITIAL_NUM_ATTRIBUTES = 4;
+
+    private DataInputStream mIn;
+    private final ArrayList<String> mInterned = new ArrayList<>();
+    private final ArrayList<String> mTagStack = new ArrayList<>();
+
+    private int mEventType = START_DOCUMENT;
+    private String mName;
+    private String mText;
+    private boolean mPopTagOnNext;
+    // Attributes of the current start tag, as name/value pairs.
+    private String[] mAttributes = new String[INITIAL_NUM_ATTRIBUTES * 2];
+    private int mNumAttributes;
+    // Token read ahead while collecting the attributes of a start tag, or -1 if none.
+    private int mNextToken = -1;
+
+    /**
+     * Check whether the provided data is a binary XML stream, i.e starts with
+     * {@link BinaryXmlSerializer#PROTOCOL_MAGIC}.
+     */
+    public static boolean isBinaryXml(@NonNull byte[] data) {
+        return data.length >= 4
+                && ((data[0] & 0xFF) << 24 | (data[1] & 0xFF) << 16 | (data[2] & 0xFF) << 8
+                        | (data[3] & 0xFF)) == BinaryXmlSerializer.PROTOCOL_MAGIC;
+    }
+
+    @Override
+    public void setInput(InputStream is, String encoding) throws XmlPullParserException {
+        mIn = new DataInputStream(new BufferedInputStream(is));
+        mInterned.clear();
+        mTagStack.clear();
+        mEventType = START_DOCUMENT;
+        mName = null;
+        mText = null;
+        mPopTagOnNext = false;
+        mNumAttributes = 0;
+        mNextToken = -1;
+        try {
+            int magic = mIn.readInt();
+            if (magic != BinaryXmlSerializer.PROTOCOL_MAGIC) {
+                throw new XmlPullParserException("Unexpected magic " + Integer.toHexString(magic));
+            }
+        } catch (IOException e) {
+            throw new XmlPullParserException("Failed to read magic: " + e);
+        }
+    }
+
+    @Override
+    public void setInput(Reader in) {
+        throw new UnsupportedOperationException("Binary XML requires an InputStream");
+    }
+
+    @Override
+    public int next() throws XmlPullParserException, IOException {
+        if (mPopTagOnNext) {
+            mTagStack.remove(mTagStack.size() - 1);
+            mPopTagOnNext = false;
+        }
+        mName = null;
+        mText = null;
+        mNumAttributes = 0;
+        int token = readToken();
+        switch (token) {
+            case -1:
+                if (!mTagStack.isEmpty()) {
+                    throw new XmlPullParserException("Unexpected end of document in "
+                            + mTagStack.get(mTagStack.size() - 1));
+                }
+                mEventType = END_DOCUMENT;
+                break;
+            case START_TAG:
+                mName = readInterned();
+                mTagStack.add(mName);
+                readAttributes();
+                mEventType = START_TAG;
+                break;
+            case END_TAG:
+                mName = readInterned();
+                if (mTagStack.isEmpty()
+                        || !mTagStack.get(mTagStack.size() - 1).equals(mName)) {
+                    throw new XmlPullParserException("Mismatched end tag " + mName);
+                }
+                mPopTagOnNext = true;
+                mEventType = END_TAG;
+                break;
+            case TEXT:
+                mText = readString();
+                mEventType = TEXT;
+                break;
+            default:
+                throw new XmlPullParserException("Unexpected token " + token);
+        }
+        return mEventType;
+    }
+
+    private int readToken() throws IOException {
+        if (mNextToken != -1) {
+            int token = mNextToken;
+            mNextToken = -1;
+            return token;
+        }
+        return mIn.read();
+    }
+
+    private void readAttributes() throws XmlPullParserException, IOException {
+        int token;
+        while ((token = mIn.read()) == BinaryXmlSerializer.ATTRIBUTE) {
+            if (mNumAttributes * 2 == mAttributes.length) {
+                String[] attributes = new String[mAttributes.length * 2];
+                System.arraycopy(mAttributes, 0, attributes, 0, mAttributes.length);
+                mAttributes = attributes;
+            }
+            mAttributes[mNumAttributes * 2] = readInterned();
+            mAttributes[mNumAttributes * 2 + 1] = readString();
+            mNumAttributes++;
+        }
+        mNextToken = token;
+    }
+
+    private String readInterned() throws XmlPullParserException, IOException {
+        int index = mIn.readUnsignedShort();
+        if (index != BinaryXmlSerializer.INTERNED_NEW) {
+            if (index >= mInterned.size()) {
+                throw new XmlPullParserException("Invalid interned string " + index);
+            }
+            return mInterned.get(index);
+        }
+        String name = mIn.readUTF();
+        if (mInterned.size() < BinaryXmlSerializer.INTERNED_NEW) {
+            mInterned.add(name);
+        }
+        return name;
+    }
+
+    private String readString() throws XmlPullParserException, IOException {
+        int length = mIn.readUnsignedShort();
+        if (length == BinaryXmlSerializer.LENGTH_LARGE) {
+            length = mIn.readInt();
+            if (length < 0) {
+                throw new XmlPullParserException("Invalid string length " + length);
+            }
+        }
+        byte[] bytes = new byte[length];
+        try {
+            mIn.readFully(bytes);
+        } catch (EOFException e) {
+            throw new XmlPullParserException("Truncated string");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int nextToken() throws XmlPullParserException, IOException {
+        return next();
+    }
+
+    @Override
+    public int nextTag() throws XmlPullParserException, IOException {
+        int eventType = next();
+        if (eventType == TEXT && isWhitespace()) {
+            eventType = next();
+        }
+        if (eventType != START_TAG && eventType != END_TAG) {
+            throw new XmlPullParserException("Expected start or end tag", this, null);
+        }
+        return eventType;
+    }
+
+    @Override
+    public String nextText() throws XmlPullParserException, IOException {
+        if (mEventType != START_TAG) {
+            throw new XmlPullParserException("Expected start tag", this, null);
+        }
+        int eventType = next();
+        if (eventType == END_TAG) {
+            return "";
+        }
+        if (eventType != TEXT) {
+            throw new XmlPullParserException("Expected text", this, null);
+        }
+        String text = mText;
+        if (next() != END_TAG) {
+            throw new XmlPullParserException("Expected end tag", this, null);
+        }
+        return text;
+    }
+
+    @Override
+    public void require(int type, String namespace, String name)
+            throws XmlPullParserException {
+        if (type != mEventType || (name != null && !name.equals(mName))
+                || (namespace != null && !namespace.isEmpty())) {
+            throw new XmlPullParserException("Expected " + TYPES[type] + " " + name, this, null);
+        }
+    }
+
+    @Override
+    public int getEventType() {
+        return mEventType;
+    }
+
+    @Override
+    public int getDepth() {
+        return mTagStack.size();
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    @Override
+    public String getText() {
+        return mText;
+    }
+
+    @Override
+    public char[] getTextCharacters(int[] holderForStartAndLength) {
+        if (mText == null) {
+            holderForStartAndLength[0] = -1;
+            holderForStartAndLength[1] = -1;
+            return null;
+        }
+        holderForStartAndLength[0] = 0;
+        holderForStartAndLength[1] = mText.length();
+        return mText.toCharArray();
+    }
+
+    @Override
+    public boolean isWhitespace() throws XmlPullParserException {
+        if (mEventType != TEXT) {
+            throw new XmlPullParserException("Not a text event", this, null);
+        }
+        return mText.trim().isEmpty();
+    }
+
+    @Override
+    public boolean isEmptyElementTag() {
+        return false;
+    }
+
+    @Override
+    public int getAttributeCount() {
+        return mEventType == START_TAG ? mNumAttributes : -1;
+    }
+
+    @Override
+    public String getAttributeName(int index) {
+        checkAttributeIndex(index);
+        return mAttributes[index * 2];
+    }
+
+    @Override
+    public String getAttributeValue(int index) {
+        checkAttributeIndex(index);
+        return mAttributes[index * 2 + 1];
+    }
+
+    @Override
+    public String getAttributeValue(String namespace, String name) {
+        for (int i = 0; i < mNumAttributes; i++) {
+            if (mAttributes[i * 2].equals(name)) {
+                return mAttributes[i * 2 + 1];
+            }
+        }
+        return null;
+    }
+
+    private void checkAttributeIndex(int index) {
+        if (index < 0 || index >= mNumAttributes) {
+            throw new IndexOutOfBoundsException("index=" + index + " count=" + mNumAttributes);
+        }
+    }
+
+    @Override
+    public String getAttributeNamespace(int index) {
+        checkAttributeIndex(index);
+        return NO_NAMESPACE;
+    }
+
+    @Override
+    public String getAttributePrefix(int index) {
+        checkAttributeIndex(index);
+        return null;
+    }
+
+    @Override
+    public String getAttributeType(int index) {
+        checkAttributeIndex(index);
+        return "CDATA";
+    }
+
+    @Override
+    public boolean isAttributeDefault(int index) {
+        checkAttributeIndex(index);
+        return false;
+    }
+
+    @Override
+    public String getNamespace() {
+        return NO_NAMESPACE;
+    }
+
+    @Override
+    public String getNamespace(String prefix) {
+        return null;
+    }
+
+    @Override
+    public int getNamespaceCount(int depth) {
+        return 0;
+    }
+
+    @Override
+    public String getNamespacePrefix(int pos) {
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    public String getNamespaceUri(int pos) {
+        throw new IndexOutOfBoundsException();
+    }
+
+    @Override
+    public String getPrefix() {
+        return null;
+    }
+
+    @Override
+    public String getInputEncoding() {
+        return StandardCharsets.UTF_8.name();
+    }
+
+    @Override
+    public void defineEntityReplacementText(String entityName, String replacementText) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setFeature(String name, boolean state) throws XmlPullParserException {
+        if (state) {
+            throw new XmlPullParserException("Unsupported feature " + name);
+        }
+    }
+
+    @Override
+    public boolean getFeature(String name) {
+        return false;
+    }
+
+    @Override
+    public void setProperty(String name, Object value) throws XmlPullParserException {
+        throw new XmlPullParserException("Unsupported property " + name);
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    @Override
+    public int getLineNumber() {
+        return -1;
+    }
+
+    @Override
+    public int getColumnNumber() {
+        return -1;
+    }
+
+    @Override
+    public String getPositionDescription() {
+        return TYPES[mEventType] + (mName != null ? " " + mName : "") + " at depth "
+                + getDepth();
+    }
+}
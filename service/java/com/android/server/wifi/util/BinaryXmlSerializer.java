@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import android.annotation.NonNull;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * {@link XmlSerializer} writing a compact binary encoding of the XML stream, which can be read
+ * back with {@link BinaryXmlPullParser}.
+ *
+ * The stream starts with {@link #PROTOCOL_MAGIC}, followed by one token per event:
+ * <li>Start tag: {@link XmlPullParser#START_TAG} followed by the interned tag name.</li>
+ * <li>Attribute: {@link #ATTRIBUTE} followed by the interned name and the value.</li>
+ * <li>Text: {@link XmlPullParser#TEXT} followed by the text.</li>
+ * <li>End tag: {@link XmlPullParser#END_TAG} followed by the interned tag name.</li>
+ *
+ * Tag and attribute names are interned: the first occurrence of a name is written in full and
+ * assigned the next index, subsequent occurrences only write that index. Other strings are written
+ * as their UTF-8 length and bytes, without any escaping.
+ *
+ * Namespaces are not supported.
+ */
+public class BinaryXmlSerializer implements XmlSerializer {
+    /** Magic number at the start of every binary XML stream, "WBX" and version 1. */
+    public static final int PROTOCOL_MAGIC = 0x57425801;
+
+    /** Token type for an attribute of the preceding start tag. */
+    static final int ATTRIBUTE = 15;
+
+    /** Interned string index indicating that the string is written in full. */
+    static final int INTERNED_NEW = 0xFFFF;
+    /** Length indicating that the actual length is written as an int. */
+    static final int LENGTH_LARGE = 0xFFFF;
+
+    private DataOutputStream mOut;
+    private final HashMap<String, Integer> mInterned = new HashMap<>();
+    private final ArrayList<String> mTagStack = new ArrayList<>();
+
+    @Override
+    public void setOutput(@NonNull OutputStream os, String encoding) throws IOException {
+        mOut = new DataOutputStream(new BufferedOutputStream(os));
+        mInterned.clear();
+        mTagStack.clear();
+        mOut.writeInt(PROTOCOL_MAGIC);
+    }
+
+    @Override
+    public void setOutput(Writer writer) {
+        throw new UnsupportedOperationException("Binary XML requires an OutputStream");
+    }
+
+    @Override
+    public void startDocument(String encoding, Boolean standalone) {
+        // Implied by the magic number.
+    }
+
+    @Override
+    public void endDocument() throws IOException {
+        flush();
+    }
+
+    @Override
+    public void setFeature(String name, boolean state) {
+        // Formatting features, e.g indentation, don't apply.
+    }
+
+    @Override
+    public boolean getFeature(String name) {
+        return false;
+    }
+
+    @Override
+    public void setProperty(String name, Object value) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return null;
+    }
+
+    @Override
+    public void setPrefix(String prefix, String namespace) {
+        throw new UnsupportedOperationException("Namespaces are not supported");
+    }
+
+    @Override
+    public String getPrefix(String namespace, boolean generatePrefix) {
+        throw new UnsupportedOperationException("Namespaces are not supported");
+    }
+
+    @Override
+    public int getDepth() {
+        return mTagStack.size();
+    }
+
+    @Override
+    public String getNamespace() {
+        return null;
+    }
+
+    @Override
+    public String getName() {
+        return mTagStack.isEmpty() ? null : mTagStack.get(mTagStack.size() - 1);
+    }
+
+    @Override
+    public XmlSerializer startTag(String namespace, String name) throws IOException {
+        checkNoNamespace(namespace);
+        mOut.writeByte(XmlPullParser.START_TAG);
+        writeInterned(name);
+        mTagStack.add(name);
+        return this;
+    }
+
+    @Override
+    public XmlSerializer attribute(String namespace, String name, String value)
+            throws IOException {
+        checkNoNamespace(namespace);
+        mOut.writeByte(ATTRIBUTE);
+        writeInterned(name);
+        writeString(value);
+        return this;
+    }
+
+    @Override
+    public XmlSerializer endTag(String namespace, String name) throws IOException {
+        checkNoNamespace(namespace);
+        if (mTagStack.isEmpty() || !mTagStack.remove(mTagStack.size() - 1).equals(name)) {
+            throw new IllegalArgumentException("Mismatched end tag " + name);
+        }
+        mOut.writeByte(XmlPullParser.END_TAG);
+        writeInterned(name);
+        return this;
+    }
+
+    @Override
+    public XmlSerializer text(String text) throws IOException {
+        // Like the XML serializer, an empty text doesn't produce any event.
+        if (text.isEmpty()) return this;
+        mOut.writeByte(XmlPullParser.TEXT);
+        writeString(text);
+        return this;
+    }
+
+    @Override
+    public XmlSerializer text(char[] buf, int start, int len) throws IOException {
+        return text(new String(buf, start, len));
+    }
+
+    @Override
+    public void cdsect(String text) throws IOException {
+        text(text);
+    }
+
+    @Override
+    public void entityRef(String text) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void processingInstruction(String text) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void comment(String text) {
+        // Comments are dropped.
+    }
+
+    @Override
+    public void docdecl(String text) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void ignorableWhitespace(String text) {
+        // Whitespace is dropped.
+    }
+
+    @Override
+    public void flush() throws IOException {
+        mOut.flush();
+    }
+
+    private static void checkNoNamespace(String namespace) {
+        if (namespace != null && !namespace.isEmpty()) {
+            throw new UnsupportedOperationException("Namespaces are not supported");
+        }
+    }
+
+    private void writeInterned(String name) throws IOException {
+        Integer index = mInterned.get(name);
+        if (index != null) {
+            mOut.writeShort(index);
+            return;
+        }
+        mOut.writeShort(INTERNED_NEW);
+        mOut.writeUTF(name);
+        // Keep INTERNED_NEW reserved, names past the table size are always written in full.
+        if (mInterned.size() < INTERNED_NEW) {
+            mInterned.put(name, mInterned.size());
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < LENGTH_LARGE) {
+            mOut.writeShort(bytes.length);
+        } else {
+            mOut.writeShort(LENGTH_LARGE);
+            mOut.writeInt(bytes.length);
+        }
+        mOut.write(bytes);
+    }
+}
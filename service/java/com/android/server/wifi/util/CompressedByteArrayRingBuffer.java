@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi.util;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.Arrays;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * A ring buffer of byte data which is compressed as it is appended, so that the same amount of
+ * memory holds several times more history than a {@link ByteArrayRingBuffer}.
+ *
+ * The data is compressed in frames of up to |frameSizeBytes| of uncompressed data. Each frame is
+ * a sequence of raw deflate blocks ending at a full flush, so it doesn't refer to the data of
+ * the previous frames, and any run of consecutive frames is a valid deflate stream. The frames
+ * are stored in a circular buffer allocated at construction, and the oldest frames are dropped
+ * to make room. The data of the frame being filled is kept uncompressed, and is compressed when
+ * the frame is full or when the data is read.
+ *
+ * {@link #getCompressedData()} returns all the data as a zlib stream, assembled from the
+ * compressed frames without compressing them again.
+ */
+public class CompressedByteArrayRingBuffer {
+    /** Default maximum amount of uncompressed data per frame. */
+    public static final int DEFAULT_FRAME_SIZE_BYTES = 16 * 1024;
+
+    // Compressed length, uncompressed length and Adler-32 checksum of the uncompressed data.
+    private static final int FRAME_HEADER_SIZE_BYTES = 12;
+    // Deflate compression method with a 32K window and the fastest compression level.
+    private static final byte[] ZLIB_HEADER = {0x78, 0x01};
+    // Final deflate block, with fixed Huffman codes and no data.
+    private static final byte[] DEFLATE_FINAL_EMPTY_BLOCK = {0x03, 0x00};
+    private static final int ZLIB_TRAILER_SIZE_BYTES = 4;
+    private static final int ADLER32_BASE = 65521;
+
+    private final Deflater mDeflater = new Deflater(Deflater.BEST_SPEED, true);
+    private final Adler32 mAdler32 = new Adler32();
+    private final byte[] mPendingData;
+    private int mPendingBytes = 0;
+    private byte[] mDeflateBuffer;
+    private byte[] mData;
+    // Offset of the oldest frame in mData.
+    private int mHead = 0;
+    private int mBytesUsed = 0;
+    private int mNumFrames = 0;
+    private long mUncompressedBytes = 0;
+
+    /**
+     * Creates a ring buffer that holds at most |maxBytes| of compressed data, in addition to the
+     * uncompressed data of the frame being filled.
+     */
+    public CompressedByteArrayRingBuffer(int maxBytes) {
+        this(maxBytes, DEFAULT_FRAME_SIZE_BYTES);
+    }
+
+    /**
+     * Creates a ring buffer that holds at most |maxBytes| of compressed data, compressed in
+     * frames of up to |frameSizeBytes| of uncompressed data.
+     */
+    @VisibleForTesting
+    public CompressedByteArrayRingBuffer(int maxBytes, int frameSizeBytes) {
+        if (maxBytes < 1 || frameSizeBytes < 1) {
+            throw new IllegalArgumentException();
+        }
+        mData = new byte[maxBytes];
+        mPendingData = new byte[frameSizeBytes];
+        mDeflateBuffer = new byte[frameSizeBytes + 64];
+    }
+
+    /**
+     * Adds |newData| to the ring buffer. Removes the oldest frames to make room, if necessary.
+     * <p><b>Note:</b> a frame which is larger than the buffer once compressed is dropped, along
+     * with all the existing frames. (This guarantees that the ring buffer always represents a
+     * contiguous sequence of data.)
+     */
+    public void appendBuffer(byte[] newData) {
+        int offset = 0;
+        while (offset < newData.length) {
+            int length = Math.min(newData.length - offset,
+                    mPendingData.length - mPendingBytes);
+            System.arraycopy(newData, offset, mPendingData, mPendingBytes, length);
+            mPendingBytes += length;
+            offset += length;
+            if (mPendingBytes == mPendingData.length) {
+                compressPendingData();
+            }
+        }
+    }
+
+    /**
+     * Resize the buffer, removing the oldest frames if necessary.
+     * @param maxBytes upper bound on the amount of compressed data to hold
+     */
+    public void resize(int maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException();
+        }
+        if (maxBytes == mData.length) {
+            return;
+        }
+        while (mBytesUsed > maxBytes) {
+            dropOldestFrame();
+        }
+        byte[] data = new byte[maxBytes];
+        copyFrom(mHead, data, 0, mBytesUsed);
+        mData = data;
+        mHead = 0;
+    }
+
+    /**
+     * Removes all the data.
+     */
+    public void clear() {
+        mPendingBytes = 0;
+        mHead = 0;
+        mBytesUsed = 0;
+        mNumFrames = 0;
+        mUncompressedBytes = 0;
+    }
+
+    /**
+     * Returns all the data of the ring buffer, from the oldest to the most recent, as a zlib
+     * stream. The data of the frame being filled is compressed first.
+     */
+    public byte[] getCompressedData() {
+        compressPendingData();
+        int length = ZLIB_HEADER.length + mBytesUsed - mNumFrames * FRAME_HEADER_SIZE_BYTES
+                + DEFLATE_FINAL_EMPTY_BLOCK.length + ZLIB_TRAILER_SIZE_BYTES;
+        byte[] result = new byte[length];
+        System.arraycopy(ZLIB_HEADER, 0, result, 0, ZLIB_HEADER.length);
+        int resultOffset = ZLIB_HEADER.length;
+        int adler32 = 1;
+        int frameOffset = mHead;
+        for (int i = 0; i < mNumFrames; i++) {
+            int compressedLength = readInt(frameOffset);
+            int uncompressedLength = readInt(frameOffset + 4);
+            adler32 = combineAdler32(adler32, readInt(frameOffset + 8), uncompressedLength);
+            copyFrom(frameOffset + FRAME_HEADER_SIZE_BYTES, result, resultOffset,
+                    compressedLength);
+            resultOffset += compressedLength;
+            frameOffset = (frameOffset + FRAME_HEADER_SIZE_BYTES + compressedLength)
+                    % mData.length;
+        }
+        System.arraycopy(DEFLATE_FINAL_EMPTY_BLOCK, 0, result, resultOffset,
+                DEFLATE_FINAL_EMPTY_BLOCK.length);
+        resultOffset += DEFLATE_FINAL_EMPTY_BLOCK.length;
+        for (int i = 0; i < ZLIB_TRAILER_SIZE_BYTES; i++) {
+            result[resultOffset + i] = (byte) (adler32 >>> (24 - 8 * i));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of compressed frames, not including the frame being filled.
+     */
+    public int getNumFrames() {
+        return mNumFrames;
+    }
+
+    /**
+     * Returns the amount of compressed data held, including the frame headers.
+     */
+    public int getCompressedSize() {
+        return mBytesUsed;
+    }
+
+    /**
+     * Returns the amount of data held, once uncompressed.
+     */
+    public long getUncompressedSize() {
+        return mUncompressedBytes + mPendingBytes;
+    }
+
+    private void compressPendingData() {
+        if (mPendingBytes == 0) {
+            return;
+        }
+        mDeflater.setInput(mPendingData, 0, mPendingBytes);
+        int compressedLength = 0;
+        while (true) {
+            compressedLength += mDeflater.deflate(mDeflateBuffer, compressedLength,
+                    mDeflateBuffer.length - compressedLength, Deflater.FULL_FLUSH);
+            if (compressedLength < mDeflateBuffer.length) {
+                break;
+            }
+            // The frame didn't compress, flush it into a larger buffer.
+            mDeflateBuffer = Arrays.copyOf(mDeflateBuffer, mDeflateBuffer.length * 2);
+        }
+        mAdler32.reset();
+        mAdler32.update(mPendingData, 0, mPendingBytes);
+        storeFrame(compressedLength, mPendingBytes, (int) mAdler32.getValue());
+        mPendingBytes = 0;
+    }
+
+    private void storeFrame(int compressedLength, int uncompressedLength, int adler32) {
+        int frameSize = FRAME_HEADER_SIZE_BYTES + compressedLength;
+        if (frameSize > mData.length) {
+            clear();
+            return;
+        }
+        while (mData.length - mBytesUsed < frameSize) {
+            dropOldestFrame();
+        }
+        int tail = (mHead + mBytesUsed) % mData.length;
+        writeInt(tail, compressedLength);
+        writeInt(tail + 4, uncompressedLength);
+        writeInt(tail + 8, adler32);
+        copyTo(mDeflateBuffer, 0, tail + FRAME_HEADER_SIZE_BYTES, compressedLength);
+        mBytesUsed += frameSize;
+        mNumFrames++;
+        mUncompressedBytes += uncompressedLength;
+    }
+
+    private void dropOldestFrame() {
+        int frameSize = FRAME_HEADER_SIZE_BYTES + readInt(mHead);
+        mUncompressedBytes -= readInt(mHead + 4);
+        mHead = (mHead + frameSize) % mData.length;
+        mBytesUsed -= frameSize;
+        mNumFrames--;
+    }
+
+    private int readInt(int offset) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (mData[(offset + i) % mData.length] & 0xff);
+        }
+        return value;
+    }
+
+    private void writeInt(int offset, int value) {
+        for (int i = 0; i < 4; i++) {
+            mData[(offset + i) % mData.length] = (byte) (value >>> (24 - 8 * i));
+        }
+    }
+
+    /** Copies |length| bytes of mData from |offset|, wrapping around, to |dest|. */
+    private void copyFrom(int offset, byte[] dest, int destOffset, int length) {
+        offset %= mData.length;
+        int firstLength = Math.min(length, mData.length - offset);
+        System.arraycopy(mData, offset, dest, destOffset, firstLength);
+        System.arraycopy(mData, 0, dest, destOffset + firstLength, length - firstLength);
+    }
+
+    /** Copies |length| bytes of |src| to mData from |offset|, wrapping around. */
+    private void copyTo(byte[] src, int srcOffset, int offset, int length) {
+        offset %= mData.length;
+        int firstLength = Math.min(length, mData.length - offset);
+        System.arraycopy(src, srcOffset, mData, offset, firstLength);
+        System.arraycopy(src, srcOffset + firstLength, mData, 0, length - firstLength);
+    }
+
+    /**
+     * Returns the Adler-32 checksum of the concatenation of two byte sequences, from their
+     * checksums and the length of the second one, as adler32_combine() of zlib.
+     */
+    @VisibleForTesting
+    static int combineAdler32(int adler1, int adler2, int length2) {
+        long remainder = length2 % ADLER32_BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (remainder * sum1) % ADLER32_BASE;
+        sum1 += (adler2 & 0xffff) + ADLER32_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) + ADLER32_BASE
+                - remainder;
+        sum1 %= ADLER32_BASE;
+        sum2 %= ADLER32_BASE;
+        return (int) (sum1 | (sum2 << 16));
+    }
+}
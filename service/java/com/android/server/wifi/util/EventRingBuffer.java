@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * A fixed-capacity log of the most recent events, which drops the oldest event once full.
+ *
+ * Each event has a timestamp and a fixed number of int, long and object fields. All the fields
+ * are stored in arrays allocated at construction, so that logging an event doesn't allocate.
+ * Events should be logged with their raw fields and only formatted at dump time, by an
+ * {@link EventFormatter}.
+ *
+ * Events are indexed from 0, the oldest, to {@link #size()} - 1, the most recent.
+ * This class is not thread-safe.
+ */
+public class EventRingBuffer {
+    /**
+     * Formats an event of the buffer, for dumps.
+     */
+    public interface EventFormatter {
+        /**
+         * Appends the event at |index| of |buffer| to |sb|.
+         */
+        void format(StringBuilder sb, EventRingBuffer buffer, int index);
+    }
+
+    private final int mCapacity;
+    private final int mNumIntFields;
+    private final int mNumLongFields;
+    private final int mNumObjectFields;
+    private final long[] mTimestampsMillis;
+    private final int[] mIntFields;
+    private final long[] mLongFields;
+    private final Object[] mObjectFields;
+    // Slot of the oldest event.
+    private int mHead = 0;
+    private int mSize = 0;
+
+    /**
+     * Creates a buffer holding at most |capacity| events, with the provided number of fields per
+     * event of each type.
+     */
+    public EventRingBuffer(int capacity, int numIntFields, int numLongFields,
+            int numObjectFields) {
+        if (capacity < 1 || numIntFields < 0 || numLongFields < 0 || numObjectFields < 0) {
+            throw new IllegalArgumentException();
+        }
+        mCapacity = capacity;
+        mNumIntFields = numIntFields;
+        mNumLongFields = numLongFields;
+        mNumObjectFields = numObjectFields;
+        mTimestampsMillis = new long[capacity];
+        mIntFields = new int[capacity * numIntFields];
+        mLongFields = new long[capacity * numLongFields];
+        mObjectFields = new Object[capacity * numObjectFields];
+    }
+
+    /**
+     * Logs a new event, dropping the oldest event if the buffer is full. The fields of the new
+     * event are all 0 or null, and are set with the setters below.
+     * @return the index of the new event, which is {@link #size()} - 1.
+     */
+    public int add(long timestampMillis) {
+        if (mSize == mCapacity) {
+            mHead = (mHead + 1) % mCapacity;
+        } else {
+            mSize++;
+        }
+        int index = mSize - 1;
+        int slot = getSlot(index);
+        mTimestampsMillis[slot] = timestampMillis;
+        Arrays.fill(mIntFields, slot * mNumIntFields, (slot + 1) * mNumIntFields, 0);
+        Arrays.fill(mLongFields, slot * mNumLongFields, (slot + 1) * mNumLongFields, 0L);
+        Arrays.fill(mObjectFields, slot * mNumObjectFields, (slot + 1) * mNumObjectFields, null);
+        return index;
+    }
+
+    /**
+     * Removes the event at |index|. The following events are moved back by one index.
+     */
+    public void remove(int index) {
+        checkIndex(index);
+        for (int i = index; i < mSize - 1; i++) {
+            int slot = getSlot(i);
+            int nextSlot = getSlot(i + 1);
+            mTimestampsMillis[slot] = mTimestampsMillis[nextSlot];
+            System.arraycopy(mIntFields, nextSlot * mNumIntFields, mIntFields,
+                    slot * mNumIntFields, mNumIntFields);
+            System.arraycopy(mLongFields, nextSlot * mNumLongFields, mLongFields,
+                    slot * mNumLongFields, mNumLongFields);
+            System.arraycopy(mObjectFields, nextSlot * mNumObjectFields, mObjectFields,
+                    slot * mNumObjectFields, mNumObjectFields);
+        }
+        int lastSlot = getSlot(mSize - 1);
+        // Don't retain references to removed objects.
+        Arrays.fill(mObjectFields, lastSlot * mNumObjectFields,
+                (lastSlot + 1) * mNumObjectFields, null);
+        mSize--;
+    }
+
+    /**
+     * Removes all the events.
+     */
+    public void clear() {
+        Arrays.fill(mObjectFields, null);
+        mHead = 0;
+        mSize = 0;
+    }
+
+    /**
+     * Returns the number of events in the buffer.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns true if the buffer has no event.
+     */
+    public boolean isEmpty() {
+        return mSize == 0;
+    }
+
+    /**
+     * Returns the maximum number of events in the buffer.
+     */
+    public int capacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Returns the timestamp of the event at |index|.
+     */
+    public long getTimestampMillis(int index) {
+        checkIndex(index);
+        return mTimestampsMillis[getSlot(index)];
+    }
+
+    /**
+     * Sets the int field |field| of the event at |index|.
+     */
+    public void setInt(int index, int field, int value) {
+        mIntFields[getFieldOffset(index, field, mNumIntFields)] = value;
+    }
+
+    /**
+     * Returns the int field |field| of the event at |index|.
+     */
+    public int getInt(int index, int field) {
+        return mIntFields[getFieldOffset(index, field, mNumIntFields)];
+    }
+
+    /**
+     * Sets the long field |field| of the event at |index|.
+     */
+    public void setLong(int index, int field, long value) {
+        mLongFields[getFieldOffset(index, field, mNumLongFields)] = value;
+    }
+
+    /**
+     * Returns the long field |field| of the event at |index|.
+     */
+    public long getLong(int index, int field) {
+        return mLongFields[getFieldOffset(index, field, mNumLongFields)];
+    }
+
+    /**
+     * Sets the object field |field| of the event at |index|. The object must not be modified
+     * afterwards, since it is only formatted at dump time.
+     */
+    public void setObject(int index, int field, Object value) {
+        mObjectFields[getFieldOffset(index, field, mNumObjectFields)] = value;
+    }
+
+    /**
+     * Returns the object field |field| of the event at |index|.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T getObject(int index, int field) {
+        return (T) mObjectFields[getFieldOffset(index, field, mNumObjectFields)];
+    }
+
+    /**
+     * Prints all the events from the oldest to the most recent, one per line.
+     */
+    public void dump(PrintWriter pw, EventFormatter formatter) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mSize; i++) {
+            sb.setLength(0);
+            formatter.format(sb, this, i);
+            pw.println(sb);
+        }
+    }
+
+    private int getSlot(int index) {
+        return (mHead + index) % mCapacity;
+    }
+
+    private int getFieldOffset(int index, int field, int numFields) {
+        checkIndex(index);
+        if (field < 0 || field >= numFields) {
+            throw new IndexOutOfBoundsException("field=" + field + ", numFields=" + numFields);
+        }
+        return getSlot(index) * numFields + field;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index=" + index + ", size=" + mSize);
+        }
+    }
+}
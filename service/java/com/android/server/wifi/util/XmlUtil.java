@@ -313,6 +313,216 @@ public class XmlUtil {
         XmlUtilHelper.writeValueXml(value, name, out);
     }
 
+    /**
+     * Read the value attribute of the current primitive value tag, ensuring that the tag is of the
+     * provided type.
+     */
+    private static String readCurrentPrimitiveValueAttribute(XmlPullParser in, String typeName)
+            throws XmlPullParserException {
+        if (!typeName.equals(in.getName())) {
+            throw new XmlPullParserException(
+                    "Expected <" + typeName + "> value, but got: <" + in.getName() + ">");
+        }
+        String value = in.getAttributeValue(null, "value");
+        if (value == null) {
+            throw new XmlPullParserException("Need value attribute in <" + typeName + ">");
+        }
+        return value;
+    }
+
+    /**
+     * Read the current int value in the XML stream, without boxing it. This is the typed
+     * equivalent of {@link #readCurrentValue(XmlPullParser, String[])}, and moves the stream to
+     * the end tag of the value.
+     *
+     * @param in XmlPullParser instance pointing to the start tag of the value.
+     * @return value retrieved from the XML stream.
+     * @throws XmlPullParserException if the value is not an int, or if parsing errors occur.
+     */
+    public static int readCurrentIntValue(XmlPullParser in)
+            throws XmlPullParserException, IOException {
+        int value;
+        try {
+            value = Integer.parseInt(readCurrentPrimitiveValueAttribute(in, "int"));
+        } catch (NumberFormatException e) {
+            throw new XmlPullParserException("Not a number in value attribute in <int>");
+        }
+        gotoEndTag(in);
+        return value;
+    }
+
+    /**
+     * Read the current long value in the XML stream, without boxing it.
+     *
+     * @see #readCurrentIntValue(XmlPullParser)
+     */
+    public static long readCurrentLongValue(XmlPullParser in)
+            throws XmlPullParserException, IOException {
+        long value;
+        try {
+            value = Long.parseLong(readCurrentPrimitiveValueAttribute(in, "long"));
+        } catch (NumberFormatException e) {
+            throw new XmlPullParserException("Not a number in value attribute in <long>");
+        }
+        gotoEndTag(in);
+        return value;
+    }
+
+    /**
+     * Read the current boolean value in the XML stream, without boxing it.
+     *
+     * @see #readCurrentIntValue(XmlPullParser)
+     */
+    public static boolean readCurrentBooleanValue(XmlPullParser in)
+            throws XmlPullParserException, IOException {
+        boolean value = Boolean.parseBoolean(readCurrentPrimitiveValueAttribute(in, "boolean"));
+        gotoEndTag(in);
+        return value;
+    }
+
+    /**
+     * Read the current string value in the XML stream, which may be null.
+     *
+     * @see #readCurrentIntValue(XmlPullParser)
+     */
+    public static @Nullable String readCurrentStringValue(XmlPullParser in)
+            throws XmlPullParserException, IOException {
+        String tagName = in.getName();
+        if ("null".equals(tagName)) {
+            gotoEndTag(in);
+            return null;
+        }
+        if (!"string".equals(tagName)) {
+            throw new XmlPullParserException(
+                    "Expected <string> value, but got: <" + tagName + ">");
+        }
+        String value = null;
+        int eventType;
+        while ((eventType = in.next()) != XmlPullParser.END_TAG) {
+            if (eventType == XmlPullParser.TEXT) {
+                // The text is almost always reported as a single event.
+                value = value == null ? in.getText() : value + in.getText();
+            } else if (eventType == XmlPullParser.START_TAG) {
+                throw new XmlPullParserException(
+                        "Unexpected start tag in <string>: " + in.getName());
+            } else if (eventType == XmlPullParser.END_DOCUMENT) {
+                throw new XmlPullParserException("Unexpected end of document in <string>");
+            }
+        }
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Read the current byte array value in the XML stream, which may be null.
+     *
+     * @see #readCurrentIntValue(XmlPullParser)
+     */
+    public static @Nullable byte[] readCurrentByteArrayValue(XmlPullParser in)
+            throws XmlPullParserException, IOException {
+        String tagName = in.getName();
+        if ("null".equals(tagName)) {
+            gotoEndTag(in);
+            return null;
+        }
+        if (!"byte-array".equals(tagName)) {
+            throw new XmlPullParserException(
+                    "Expected <byte-array> value, but got: <" + tagName + ">");
+        }
+        return XmlUtilHelper.readThisByteArrayXml(in, "byte-array", null);
+    }
+
+    /**
+     * Move the XML stream to the next value and ensure that it matches the provided name.
+     */
+    private static void gotoNextValueWithName(XmlPullParser in, String expectedName)
+            throws XmlPullParserException, IOException {
+        XmlUtilHelper.nextElement(in);
+        String valueName = in.getAttributeValue(null, "name");
+        if (!expectedName.equals(valueName)) {
+            throw new XmlPullParserException(
+                    "Value not found. Expected: " + expectedName + ", but got: " + valueName);
+        }
+    }
+
+    /**
+     * Read the next string value in the XML stream and ensure that it matches the provided name.
+     * This is the typed equivalent of {@link #readNextValueWithName(XmlPullParser, String)}.
+     */
+    public static @Nullable String readNextStringValueWithName(
+            XmlPullParser in, String expectedName) throws XmlPullParserException, IOException {
+        gotoNextValueWithName(in, expectedName);
+        return readCurrentStringValue(in);
+    }
+
+    /**
+     * Read the next int value in the XML stream and ensure that it matches the provided name.
+     * This is the typed equivalent of {@link #readNextValueWithName(XmlPullParser, String)}.
+     */
+    public static int readNextIntValueWithName(XmlPullParser in, String expectedName)
+            throws XmlPullParserException, IOException {
+        gotoNextValueWithName(in, expectedName);
+        return readCurrentIntValue(in);
+    }
+
+    /**
+     * Parser of one value of a section, decoding it straight into the object being parsed.
+     *
+     * @param <T> type of the object being parsed.
+     */
+    public interface ValueParser<T> {
+        /**
+         * Parse the value at the current start tag of the XML stream into |target|, and move the
+         * stream to the end tag of the value.
+         */
+        void parse(XmlPullParser in, T target) throws XmlPullParserException, IOException;
+    }
+
+    /**
+     * Table of the {@link ValueParser}s of a section, keyed by value name.
+     *
+     * The table is built once per section type, so dispatching a value costs a single hash lookup
+     * instead of a switch over all the value names, and the parsers read primitives with the typed
+     * readers (e.g {@link #readCurrentIntValue(XmlPullParser)}) instead of going through the boxed
+     * objects returned by {@link #readCurrentValue(XmlPullParser, String[])}.
+     *
+     * @param <T> type of the object being parsed.
+     */
+    public static class ValueParserTable<T> {
+        private final HashMap<String, ValueParser<T>> mParsers = new HashMap<>();
+
+        /**
+         * Add the parser for the value with the provided name.
+         *
+         * @return this table, to chain calls.
+         */
+        public ValueParserTable<T> add(String valueName, ValueParser<T> parser) {
+            if (mParsers.put(valueName, parser) != null) {
+                throw new IllegalArgumentException("Duplicate value name: " + valueName);
+            }
+            return this;
+        }
+
+        /**
+         * Parse the value at the current start tag of the XML stream into |target|, and move the
+         * stream to the end tag of the value. Values with an unknown name are skipped.
+         *
+         * @param in        XmlPullParser instance pointing to the start tag of the value.
+         * @param valueName name attribute of the value's tag.
+         * @param target    object being parsed.
+         * @throws XmlPullParserException if parsing errors occur.
+         */
+        public void parseCurrentValue(XmlPullParser in, String valueName, T target)
+                throws XmlPullParserException, IOException {
+            ValueParser<T> parser = mParsers.get(valueName);
+            if (parser == null) {
+                Log.w(TAG, "Ignoring unknown value name found: " + valueName);
+                readCurrentValue(in, new String[1]);
+                return;
+            }
+            parser.parse(in, target);
+        }
+    }
+
     /**
      * Utility class to serialize and deserialize {@link WifiConfiguration} object to XML &
      * vice versa.
@@ -388,6 +598,166 @@ public class XmlUtil {
         public static final String XML_TAG_DPP_CSIGN_KEY = "DppCSignKey";
         public static final String XML_TAG_DPP_NET_ACCESS_KEY = "DppNetAccessKey";
 
+        /**
+         * State of the configuration being parsed by
+         * {@link #parseFromXml(XmlPullParser, int, boolean, WifiConfigStoreEncryptionUtil,
+         * boolean)}.
+         */
+        private static class ParseState {
+            public final WifiConfiguration configuration = new WifiConfiguration();
+            public String configKeyInData;
+            public boolean macRandomizationSettingExists;
+            public byte[] dppConnector;
+            public byte[] dppCSign;
+            public byte[] dppNetAccessKey;
+        }
+
+        private static final ValueParserTable<ParseState> VALUE_PARSERS =
+                new ValueParserTable<ParseState>()
+                        .add(XML_TAG_CONFIG_KEY, (in, s) ->
+                                s.configKeyInData = XmlUtil.readCurrentStringValue(in))
+                        .add(XML_TAG_SSID, (in, s) ->
+                                s.configuration.SSID = XmlUtil.readCurrentStringValue(in))
+                        .add(XML_TAG_BSSID, (in, s) ->
+                                s.configuration.BSSID = XmlUtil.readCurrentStringValue(in))
+                        .add(XML_TAG_PRE_SHARED_KEY, (in, s) ->
+                                s.configuration.preSharedKey = XmlUtil.readCurrentStringValue(in))
+                        .add(XML_TAG_WEP_KEYS, (in, s) -> populateWepKeysFromXmlValue(
+                                XmlUtil.readCurrentValue(in, new String[1]),
+                                s.configuration.wepKeys))
+                        .add(XML_TAG_WEP_TX_KEY_INDEX, (in, s) ->
+                                s.configuration.wepTxKeyIndex = XmlUtil.readCurrentIntValue(in))
+                        .add(XML_TAG_HIDDEN_SSID, (in, s) ->
+                                s.configuration.hiddenSSID = XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_REQUIRE_PMF, (in, s) ->
+                                s.configuration.requirePmf = XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_ALLOWED_KEY_MGMT, (in, s) ->
+                                s.configuration.allowedKeyManagement =
+                                        BitSet.valueOf(XmlUtil.readCurrentByteArrayValue(in)))
+                        .add(XML_TAG_ALLOWED_PROTOCOLS, (in, s) ->
+                                s.configuration.allowedProtocols =
+                                        BitSet.valueOf(XmlUtil.readCurrentByteArrayValue(in)))
+                        .add(XML_TAG_ALLOWED_AUTH_ALGOS, (in, s) ->
+                                s.configuration.allowedAuthAlgorithms =
+                                        BitSet.valueOf(XmlUtil.readCurrentByteArrayValue(in)))
+                        .add(XML_TAG_ALLOWED_GROUP_CIPHERS, (in, s) ->
+                                s.configuration.allowedGroupCiphers =
+                                        BitSet.valueOf(XmlUtil.readCurrentByteArrayValue(in)))
+                        .add(XML_TAG_ALLOWED_PAIRWISE_CIPHERS, (in, s) ->
+                                s.configuration.allowedPairwiseCiphers =
+                                        BitSet.valueOf(XmlUtil.readCurrentByteArrayValue(in)))
+                        .add(XML_TAG_ALLOWED_GROUP_MGMT_CIPHERS, (in, s) ->
+                                s.configuration.allowedGroupManagementCiphers =
+                                        BitSet.valueOf(XmlUtil.readCurrentByteArrayValue(in)))
+                        .add(XML_TAG_ALLOWED_SUITE_B_CIPHERS, (in, s) ->
+                                s.configuration.allowedSuiteBCiphers =
+                                        BitSet.valueOf(XmlUtil.readCurrentByteArrayValue(in)))
+                        .add(XML_TAG_SHARED, (in, s) ->
+                                s.configuration.shared = XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_STATUS, (in, s) -> {
+                            int status = XmlUtil.readCurrentIntValue(in);
+                            // Any network which was CURRENT before reboot needs
+                            // to be restored to ENABLED.
+                            if (status == WifiConfiguration.Status.CURRENT) {
+                                status = WifiConfiguration.Status.ENABLED;
+                            }
+                            s.configuration.status = status;
+                        })
+                        .add(XML_TAG_FQDN, (in, s) ->
+                                s.configuration.FQDN = XmlUtil.readCurrentStringValue(in))
+                        .add(XML_TAG_PROVIDER_FRIENDLY_NAME, (in, s) ->
+                                s.configuration.providerFriendlyName =
+                                        XmlUtil.readCurrentStringValue(in))
+                        .add(XML_TAG_LINKED_NETWORKS_LIST, (in, s) ->
+                                s.configuration.linkedConfigurations = (HashMap<String, Integer>)
+                                        XmlUtil.readCurrentValue(in, new String[1]))
+                        .add(XML_TAG_DEFAULT_GW_MAC_ADDRESS, (in, s) ->
+                                s.configuration.defaultGwMacAddress =
+                                        XmlUtil.readCurrentStringValue(in))
+                        .add(XML_TAG_VALIDATED_INTERNET_ACCESS, (in, s) ->
+                                s.configuration.validatedInternetAccess =
+                                        XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_NO_INTERNET_ACCESS_EXPECTED, (in, s) ->
+                                s.configuration.noInternetAccessExpected =
+                                        XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_METERED_HINT, (in, s) ->
+                                s.configuration.meteredHint = XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_METERED_OVERRIDE, (in, s) ->
+                                s.configuration.meteredOverride = XmlUtil.readCurrentIntValue(in))
+                        .add(XML_TAG_USE_EXTERNAL_SCORES, (in, s) ->
+                                s.configuration.useExternalScores =
+                                        XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_CREATOR_UID, (in, s) ->
+                                s.configuration.creatorUid = XmlUtil.readCurrentIntValue(in))
+                        .add(XML_TAG_CREATOR_NAME, (in, s) ->
+                                s.configuration.creatorName = XmlUtil.readCurrentStringValue(in))
+                        .add(XML_TAG_LAST_UPDATE_UID, (in, s) ->
+                                s.configuration.lastUpdateUid = XmlUtil.readCurrentIntValue(in))
+                        .add(XML_TAG_LAST_UPDATE_NAME, (in, s) ->
+                                s.configuration.lastUpdateName =
+                                        XmlUtil.readCurrentStringValue(in))
+                        .add(XML_TAG_LAST_CONNECT_UID, (in, s) ->
+                                s.configuration.lastConnectUid = XmlUtil.readCurrentIntValue(in))
+                        .add(XML_TAG_IS_LEGACY_PASSPOINT_CONFIG, (in, s) ->
+                                s.configuration.isLegacyPasspointConfig =
+                                        XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_ROAMING_CONSORTIUM_OIS, (in, s) ->
+                                s.configuration.roamingConsortiumIds =
+                                        (long[]) XmlUtil.readCurrentValue(in, new String[1]))
+                        .add(XML_TAG_RANDOMIZED_MAC_ADDRESS, (in, s) ->
+                                s.configuration.setRandomizedMacAddress(MacAddress.fromString(
+                                        XmlUtil.readCurrentStringValue(in))))
+                        .add(XML_TAG_MAC_RANDOMIZATION_SETTING, (in, s) -> {
+                            s.configuration.macRandomizationSetting =
+                                    XmlUtil.readCurrentIntValue(in);
+                            s.macRandomizationSettingExists = true;
+                        })
+                        .add(XML_TAG_CARRIER_ID, (in, s) ->
+                                s.configuration.carrierId = XmlUtil.readCurrentIntValue(in))
+                        .add(XML_TAG_SUBSCRIPTION_ID, (in, s) ->
+                                s.configuration.subscriptionId = XmlUtil.readCurrentIntValue(in))
+                        .add(XML_TAG_IS_AUTO_JOIN, (in, s) ->
+                                s.configuration.allowAutojoin = XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_DELETION_PRIORITY, (in, s) ->
+                                s.configuration.setDeletionPriority(
+                                        XmlUtil.readCurrentIntValue(in)))
+                        .add(XML_TAG_NUM_REBOOTS_SINCE_LAST_USE, (in, s) ->
+                                s.configuration.numRebootsSinceLastUse =
+                                        XmlUtil.readCurrentIntValue(in))
+                        .add(XML_TAG_IS_TRUSTED, (in, s) ->
+                                s.configuration.trusted = XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_IS_OEM_PAID, (in, s) ->
+                                s.configuration.oemPaid = XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_IS_OEM_PRIVATE, (in, s) ->
+                                s.configuration.oemPrivate = XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_IS_MOST_RECENTLY_CONNECTED, (in, s) ->
+                                s.configuration.isMostRecentlyConnected =
+                                        XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_IS_CARRIER_MERGED, (in, s) ->
+                                s.configuration.carrierMerged =
+                                        XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_IS_RESTRICTED, (in, s) ->
+                                s.configuration.restricted = XmlUtil.readCurrentBooleanValue(in))
+                        .add(XML_TAG_SUBSCRIPTION_GROUP, (in, s) ->
+                                s.configuration.setSubscriptionGroup(ParcelUuid.fromString(
+                                        XmlUtil.readCurrentStringValue(in))))
+                        .add(XML_TAG_BSSID_ALLOW_LIST, (in, s) ->
+                                s.configuration.setBssidAllowlist(covertStringListToMacAddressList(
+                                        (List<String>) XmlUtil.readCurrentValue(
+                                                in, new String[1]))))
+                        .add(XML_TAG_IS_REPEATER_ENABLED, (in, s) ->
+                                s.configuration.setRepeaterEnabled(
+                                        XmlUtil.readCurrentBooleanValue(in)))
+                        .add(XML_TAG_DPP_PRIVATE_EC_KEY, (in, s) ->
+                                s.configuration.setDppConfigurator(
+                                        XmlUtil.readCurrentByteArrayValue(in)))
+                        .add(XML_TAG_DPP_CONNECTOR, (in, s) ->
+                                s.dppConnector = XmlUtil.readCurrentByteArrayValue(in))
+                        .add(XML_TAG_DPP_CSIGN_KEY, (in, s) ->
+                                s.dppCSign = XmlUtil.readCurrentByteArrayValue(in))
+                        .add(XML_TAG_DPP_NET_ACCESS_KEY, (in, s) ->
+                                s.dppNetAccessKey = XmlUtil.readCurrentByteArrayValue(in));
+
         /**
          * Write WepKeys to the XML stream.
          * WepKeys array is intialized in WifiConfiguration constructor, but all of the elements
@@ -789,207 +1159,15 @@ public class XmlUtil {
                 XmlPullParser in, int outerTagDepth, boolean shouldExpectEncryptedCredentials,
                 @Nullable WifiConfigStoreEncryptionUtil encryptionUtil, boolean fromSuggestion)
                 throws XmlPullParserException, IOException {
-            WifiConfiguration configuration = new WifiConfiguration();
-            String configKeyInData = null;
-            boolean macRandomizationSettingExists = false;
-            byte[] dppConnector = null;
-            byte[] dppCSign = null;
-            byte[] dppNetAccessKey = null;
+            ParseState state = new ParseState();
+            WifiConfiguration configuration = state.configuration;
 
             // Loop through and parse out all the elements from the stream within this section.
             while (!XmlUtil.isNextSectionEnd(in, outerTagDepth)) {
-                if (in.getAttributeValue(null, "name") != null) {
+                String valueName = in.getAttributeValue(null, "name");
+                if (valueName != null) {
                     // Value elements.
-                    String[] valueName = new String[1];
-                    Object value = XmlUtil.readCurrentValue(in, valueName);
-                    if (valueName[0] == null) {
-                        throw new XmlPullParserException("Missing value name");
-                    }
-                    switch (valueName[0]) {
-                        case XML_TAG_CONFIG_KEY:
-                            configKeyInData = (String) value;
-                            break;
-                        case XML_TAG_SSID:
-                            configuration.SSID = (String) value;
-                            break;
-                        case XML_TAG_BSSID:
-                            configuration.BSSID = (String) value;
-                            break;
-                        case XML_TAG_PRE_SHARED_KEY:
-                            configuration.preSharedKey = (String) value;
-                            break;
-                        case XML_TAG_WEP_KEYS:
-                            populateWepKeysFromXmlValue(value, configuration.wepKeys);
-                            break;
-                        case XML_TAG_WEP_TX_KEY_INDEX:
-                            configuration.wepTxKeyIndex = (int) value;
-                            break;
-                        case XML_TAG_HIDDEN_SSID:
-                            configuration.hiddenSSID = (boolean) value;
-                            break;
-                        case XML_TAG_REQUIRE_PMF:
-                            configuration.requirePmf = (boolean) value;
-                            break;
-                        case XML_TAG_ALLOWED_KEY_MGMT:
-                            byte[] allowedKeyMgmt = (byte[]) value;
-                            configuration.allowedKeyManagement = BitSet.valueOf(allowedKeyMgmt);
-                            break;
-                        case XML_TAG_ALLOWED_PROTOCOLS:
-                            byte[] allowedProtocols = (byte[]) value;
-                            configuration.allowedProtocols = BitSet.valueOf(allowedProtocols);
-                            break;
-                        case XML_TAG_ALLOWED_AUTH_ALGOS:
-                            byte[] allowedAuthAlgorithms = (byte[]) value;
-                            configuration.allowedAuthAlgorithms = BitSet.valueOf(
-                                    allowedAuthAlgorithms);
-                            break;
-                        case XML_TAG_ALLOWED_GROUP_CIPHERS:
-                            byte[] allowedGroupCiphers = (byte[]) value;
-                            configuration.allowedGroupCiphers = BitSet.valueOf(allowedGroupCiphers);
-                            break;
-                        case XML_TAG_ALLOWED_PAIRWISE_CIPHERS:
-                            byte[] allowedPairwiseCiphers = (byte[]) value;
-                            configuration.allowedPairwiseCiphers =
-                                    BitSet.valueOf(allowedPairwiseCiphers);
-                            break;
-                        case XML_TAG_ALLOWED_GROUP_MGMT_CIPHERS:
-                            byte[] allowedGroupMgmtCiphers = (byte[]) value;
-                            configuration.allowedGroupManagementCiphers =
-                                    BitSet.valueOf(allowedGroupMgmtCiphers);
-                            break;
-                        case XML_TAG_ALLOWED_SUITE_B_CIPHERS:
-                            byte[] allowedSuiteBCiphers = (byte[]) value;
-                            configuration.allowedSuiteBCiphers =
-                                    BitSet.valueOf(allowedSuiteBCiphers);
-                            break;
-                        case XML_TAG_SHARED:
-                            configuration.shared = (boolean) value;
-                            break;
-                        case XML_TAG_STATUS:
-                            int status = (int) value;
-                            // Any network which was CURRENT before reboot needs
-                            // to be restored to ENABLED.
-                            if (status == WifiConfiguration.Status.CURRENT) {
-                                status = WifiConfiguration.Status.ENABLED;
-                            }
-                            configuration.status = status;
-                            break;
-                        case XML_TAG_FQDN:
-                            configuration.FQDN = (String) value;
-                            break;
-                        case XML_TAG_PROVIDER_FRIENDLY_NAME:
-                            configuration.providerFriendlyName = (String) value;
-                            break;
-                        case XML_TAG_LINKED_NETWORKS_LIST:
-                            configuration.linkedConfigurations = (HashMap<String, Integer>) value;
-                            break;
-                        case XML_TAG_DEFAULT_GW_MAC_ADDRESS:
-                            configuration.defaultGwMacAddress = (String) value;
-                            break;
-                        case XML_TAG_VALIDATED_INTERNET_ACCESS:
-                            configuration.validatedInternetAccess = (boolean) value;
-                            break;
-                        case XML_TAG_NO_INTERNET_ACCESS_EXPECTED:
-                            configuration.noInternetAccessExpected = (boolean) value;
-                            break;
-                        case XML_TAG_METERED_HINT:
-                            configuration.meteredHint = (boolean) value;
-                            break;
-                        case XML_TAG_METERED_OVERRIDE:
-                            configuration.meteredOverride = (int) value;
-                            break;
-                        case XML_TAG_USE_EXTERNAL_SCORES:
-                            configuration.useExternalScores = (boolean) value;
-                            break;
-                        case XML_TAG_CREATOR_UID:
-                            configuration.creatorUid = (int) value;
-                            break;
-                        case XML_TAG_CREATOR_NAME:
-                            configuration.creatorName = (String) value;
-                            break;
-                        case XML_TAG_LAST_UPDATE_UID:
-                            configuration.lastUpdateUid = (int) value;
-                            break;
-                        case XML_TAG_LAST_UPDATE_NAME:
-                            configuration.lastUpdateName = (String) value;
-                            break;
-                        case XML_TAG_LAST_CONNECT_UID:
-                            configuration.lastConnectUid = (int) value;
-                            break;
-                        case XML_TAG_IS_LEGACY_PASSPOINT_CONFIG:
-                            configuration.isLegacyPasspointConfig = (boolean) value;
-                            break;
-                        case XML_TAG_ROAMING_CONSORTIUM_OIS:
-                            configuration.roamingConsortiumIds = (long[]) value;
-                            break;
-                        case XML_TAG_RANDOMIZED_MAC_ADDRESS:
-                            configuration.setRandomizedMacAddress(
-                                    MacAddress.fromString((String) value));
-                            break;
-                        case XML_TAG_MAC_RANDOMIZATION_SETTING:
-                            configuration.macRandomizationSetting = (int) value;
-                            macRandomizationSettingExists = true;
-                            break;
-                        case XML_TAG_CARRIER_ID:
-                            configuration.carrierId = (int) value;
-                            break;
-                        case XML_TAG_SUBSCRIPTION_ID:
-                            configuration.subscriptionId = (int) value;
-                            break;
-                        case XML_TAG_IS_AUTO_JOIN:
-                            configuration.allowAutojoin = (boolean) value;
-                            break;
-                        case XML_TAG_DELETION_PRIORITY:
-                            configuration.setDeletionPriority((int) value);
-                            break;
-                        case XML_TAG_NUM_REBOOTS_SINCE_LAST_USE:
-                            configuration.numRebootsSinceLastUse = (int) value;
-                            break;
-                        case XML_TAG_IS_TRUSTED:
-                            configuration.trusted = (boolean) value;
-                            break;
-                        case XML_TAG_IS_OEM_PAID:
-                            configuration.oemPaid = (boolean) value;
-                            break;
-                        case XML_TAG_IS_OEM_PRIVATE:
-                            configuration.oemPrivate = (boolean) value;
-                            break;
-                        case XML_TAG_IS_MOST_RECENTLY_CONNECTED:
-                            configuration.isMostRecentlyConnected = (boolean) value;
-                            break;
-                        case XML_TAG_IS_CARRIER_MERGED:
-                            configuration.carrierMerged = (boolean) value;
-                            break;
-                        case XML_TAG_IS_RESTRICTED:
-                            configuration.restricted = (boolean) value;
-                            break;
-                        case XML_TAG_SUBSCRIPTION_GROUP:
-                            configuration.setSubscriptionGroup(
-                                    ParcelUuid.fromString((String) value));
-                            break;
-                        case XML_TAG_BSSID_ALLOW_LIST:
-                            configuration.setBssidAllowlist(
-                                    covertStringListToMacAddressList((List<String>) value));
-                            break;
-                        case XML_TAG_IS_REPEATER_ENABLED:
-                            configuration.setRepeaterEnabled((boolean) value);
-                            break;
-                        case XML_TAG_DPP_PRIVATE_EC_KEY:
-                            configuration.setDppConfigurator((byte[]) value);
-                            break;
-                        case XML_TAG_DPP_CONNECTOR:
-                            dppConnector = (byte[]) value;
-                            break;
-                        case XML_TAG_DPP_CSIGN_KEY:
-                            dppCSign = (byte[]) value;
-                            break;
-                        case XML_TAG_DPP_NET_ACCESS_KEY:
-                            dppNetAccessKey = (byte[]) value;
-                            break;
-                        default:
-                            Log.w(TAG, "Ignoring unknown value name found: " + valueName[0]);
-                            break;
-                    }
+                    VALUE_PARSERS.parseCurrentValue(in, valueName, state);
                 } else {
                     String tagName = in.getName();
                     if (tagName == null) {
@@ -1018,16 +1196,16 @@ public class XmlUtil {
                                     encryptionUtil, in, outerTagDepth));
                             break;
                         case XML_TAG_DPP_CONNECTOR:
-                            dppConnector = readEncrytepdBytesFromXml(encryptionUtil, in,
+                            state.dppConnector = readEncrytepdBytesFromXml(encryptionUtil, in,
                                     outerTagDepth);
                             break;
                         case XML_TAG_DPP_CSIGN_KEY:
-                            dppCSign = readEncrytepdBytesFromXml(encryptionUtil, in,
+                            state.dppCSign = readEncrytepdBytesFromXml(encryptionUtil, in,
                                     outerTagDepth);
                             break;
                         case XML_TAG_DPP_NET_ACCESS_KEY:
-                            dppNetAccessKey = readEncrytepdBytesFromXml(encryptionUtil, in,
-                                    outerTagDepth);
+                            state.dppNetAccessKey = readEncrytepdBytesFromXml(encryptionUtil,
+                                    in, outerTagDepth);
                             break;
                         default:
                             Log.w(TAG, "Ignoring unknown tag found: " + tagName);
@@ -1035,7 +1213,7 @@ public class XmlUtil {
                     }
                 }
             }
-            if (!macRandomizationSettingExists) {
+            if (!state.macRandomizationSettingExists) {
                 configuration.macRandomizationSetting = WifiConfiguration.RANDOMIZATION_NONE;
             }
             if (configuration.macRandomizationSetting
@@ -1043,8 +1221,9 @@ public class XmlUtil {
                 configuration.macRandomizationSetting = WifiConfiguration.RANDOMIZATION_AUTO;
             }
             configuration.convertLegacyFieldsToSecurityParamsIfNeeded();
-            configuration.setDppConnectionKeys(dppConnector, dppCSign, dppNetAccessKey);
-            return Pair.create(configKeyInData, configuration);
+            configuration.setDppConnectionKeys(state.dppConnector, state.dppCSign,
+                    state.dppNetAccessKey);
+            return Pair.create(state.configKeyInData, configuration);
         }
     }
 
@@ -1240,7 +1419,7 @@ public class XmlUtil {
 
             // Parse out the IP assignment info first.
             String ipAssignmentString =
-                    (String) XmlUtil.readNextValueWithName(in, XML_TAG_IP_ASSIGNMENT);
+                    XmlUtil.readNextStringValueWithName(in, XML_TAG_IP_ASSIGNMENT);
             IpAssignment ipAssignment = IpAssignment.valueOf(ipAssignmentString);
             ipConfiguration.setIpAssignment(ipAssignment);
             switch (ipAssignment) {
@@ -1257,17 +1436,17 @@ public class XmlUtil {
 
             // Parse out the proxy settings next.
             String proxySettingsString =
-                    (String) XmlUtil.readNextValueWithName(in, XML_TAG_PROXY_SETTINGS);
+                    XmlUtil.readNextStringValueWithName(in, XML_TAG_PROXY_SETTINGS);
             ProxySettings proxySettings = ProxySettings.valueOf(proxySettingsString);
             ipConfiguration.setProxySettings(proxySettings);
             switch (proxySettings) {
                 case STATIC:
                     String proxyHost =
-                            (String) XmlUtil.readNextValueWithName(in, XML_TAG_PROXY_HOST);
+                            XmlUtil.readNextStringValueWithName(in, XML_TAG_PROXY_HOST);
                     int proxyPort =
-                            (int) XmlUtil.readNextValueWithName(in, XML_TAG_PROXY_PORT);
+                            XmlUtil.readNextIntValueWithName(in, XML_TAG_PROXY_PORT);
                     String proxyExclusionList =
-                            (String) XmlUtil.readNextValueWithName(
+                            XmlUtil.readNextStringValueWithName(
                                     in, XML_TAG_PROXY_EXCLUSION_LIST);
                     ipConfiguration.setHttpProxy(
                             ProxyInfo.buildDirectProxy(
@@ -1276,7 +1455,7 @@ public class XmlUtil {
                     break;
                 case PAC:
                     String proxyPacFile =
-                            (String) XmlUtil.readNextValueWithName(in, XML_TAG_PROXY_PAC_FILE);
+                            XmlUtil.readNextStringValueWithName(in, XML_TAG_PROXY_PAC_FILE);
                     ipConfiguration.setHttpProxy(
                             ProxyInfo.buildPacProxy(Uri.parse(proxyPacFile)));
                     break;
@@ -1308,6 +1487,34 @@ public class XmlUtil {
                 "CaptivePortalNeverDetected";
         public static final String XML_TAG_CONNECT_CHOICE_RSSI = "ConnectChoiceRssi";
 
+        /**
+         * State of the status being parsed by {@link #parseFromXml(XmlPullParser, int)}.
+         */
+        private static class ParseState {
+            public final NetworkSelectionStatus selectionStatus = new NetworkSelectionStatus();
+            public String statusString = "";
+            public String disableReasonString = "";
+        }
+
+        private static final ValueParserTable<ParseState> VALUE_PARSERS =
+                new ValueParserTable<ParseState>()
+                        .add(XML_TAG_SELECTION_STATUS, (in, s) ->
+                                s.statusString = XmlUtil.readCurrentStringValue(in))
+                        .add(XML_TAG_DISABLE_REASON, (in, s) ->
+                                s.disableReasonString = XmlUtil.readCurrentStringValue(in))
+                        .add(XML_TAG_CONNECT_CHOICE, (in, s) ->
+                                s.selectionStatus.setConnectChoice(
+                                        XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_CONNECT_CHOICE_RSSI, (in, s) ->
+                                s.selectionStatus.setConnectChoiceRssi(
+                                        XmlUtil.readCurrentIntValue(in)))
+                        .add(XML_TAG_HAS_EVER_CONNECTED, (in, s) ->
+                                s.selectionStatus.setHasEverConnected(
+                                        XmlUtil.readCurrentBooleanValue(in)))
+                        .add(XML_TAG_IS_CAPTIVE_PORTAL_NEVER_DETECTED, (in, s) ->
+                                s.selectionStatus.setHasNeverDetectedCaptivePortal(
+                                        XmlUtil.readCurrentBooleanValue(in)));
+
         /**
          * Write the NetworkSelectionStatus data elements from the provided status to the XML
          * stream.
@@ -1341,50 +1548,27 @@ public class XmlUtil {
          */
         public static NetworkSelectionStatus parseFromXml(XmlPullParser in, int outerTagDepth)
                 throws XmlPullParserException, IOException {
-            NetworkSelectionStatus selectionStatus = new NetworkSelectionStatus();
-            String statusString = "";
-            String disableReasonString = "";
+            ParseState state = new ParseState();
+            NetworkSelectionStatus selectionStatus = state.selectionStatus;
             // Initialize hasNeverDetectedCaptivePortal to "false" for upgrading legacy configs
             // which do not have the XML_TAG_IS_CAPTIVE_PORTAL_NEVER_DETECTED tag.
             selectionStatus.setHasNeverDetectedCaptivePortal(false);
 
             // Loop through and parse out all the elements from the stream within this section.
             while (!XmlUtil.isNextSectionEnd(in, outerTagDepth)) {
-                String[] valueName = new String[1];
-                Object value = XmlUtil.readCurrentValue(in, valueName);
-                if (valueName[0] == null) {
+                String valueName = in.getAttributeValue(null, "name");
+                if (valueName == null) {
                     throw new XmlPullParserException("Missing value name");
                 }
-                switch (valueName[0]) {
-                    case XML_TAG_SELECTION_STATUS:
-                        statusString = (String) value;
-                        break;
-                    case XML_TAG_DISABLE_REASON:
-                        disableReasonString = (String) value;
-                        break;
-                    case XML_TAG_CONNECT_CHOICE:
-                        selectionStatus.setConnectChoice((String) value);
-                        break;
-                    case XML_TAG_CONNECT_CHOICE_RSSI:
-                        selectionStatus.setConnectChoiceRssi((int) value);
-                        break;
-                    case XML_TAG_HAS_EVER_CONNECTED:
-                        selectionStatus.setHasEverConnected((boolean) value);
-                        break;
-                    case XML_TAG_IS_CAPTIVE_PORTAL_NEVER_DETECTED:
-                        selectionStatus.setHasNeverDetectedCaptivePortal((boolean) value);
-                    default:
-                        Log.w(TAG, "Ignoring unknown value name found: " + valueName[0]);
-                        break;
-                }
+                VALUE_PARSERS.parseCurrentValue(in, valueName, state);
             }
             // Now figure out the network selection status codes from |selectionStatusString| &
             // |disableReasonString|.
             int status =
                     Arrays.asList(NetworkSelectionStatus.QUALITY_NETWORK_SELECTION_STATUS)
-                            .indexOf(statusString);
+                            .indexOf(state.statusString);
             int disableReason =
-                    NetworkSelectionStatus.getDisableReasonByString(disableReasonString);
+                    NetworkSelectionStatus.getDisableReasonByString(state.disableReasonString);
 
             // If either of the above codes are invalid or if the network was temporarily disabled
             // (blacklisted), restore the status as enabled. We don't want to persist blacklists
@@ -1438,6 +1622,79 @@ public class XmlUtil {
         public static final String XML_TAG_TRUST_ON_FIRST_USE = "TrustOnFirstUse";
         public static final String XML_TAG_USER_APPROVE_NO_CA_CERT = "UserApproveNoCaCert";
 
+        /**
+         * Parsers of the value elements, except for the password which depends on whether
+         * credentials are expected to be encrypted.
+         */
+        private static final ValueParserTable<WifiEnterpriseConfig> VALUE_PARSERS =
+                new ValueParserTable<WifiEnterpriseConfig>()
+                        .add(XML_TAG_IDENTITY, (in, c) -> c.setFieldValue(
+                                WifiEnterpriseConfig.IDENTITY_KEY,
+                                XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_ANON_IDENTITY, (in, c) -> c.setFieldValue(
+                                WifiEnterpriseConfig.ANON_IDENTITY_KEY,
+                                XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_CLIENT_CERT, (in, c) -> c.setFieldValue(
+                                WifiEnterpriseConfig.CLIENT_CERT_KEY,
+                                XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_CA_CERT, (in, c) -> c.setFieldValue(
+                                WifiEnterpriseConfig.CA_CERT_KEY,
+                                XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_SUBJECT_MATCH, (in, c) -> c.setFieldValue(
+                                WifiEnterpriseConfig.SUBJECT_MATCH_KEY,
+                                XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_ENGINE, (in, c) -> c.setFieldValue(
+                                WifiEnterpriseConfig.ENGINE_KEY,
+                                XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_ENGINE_ID, (in, c) -> c.setFieldValue(
+                                WifiEnterpriseConfig.ENGINE_ID_KEY,
+                                XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_PRIVATE_KEY_ID, (in, c) -> c.setFieldValue(
+                                WifiEnterpriseConfig.PRIVATE_KEY_ID_KEY,
+                                XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_ALT_SUBJECT_MATCH, (in, c) -> c.setFieldValue(
+                                WifiEnterpriseConfig.ALTSUBJECT_MATCH_KEY,
+                                XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_DOM_SUFFIX_MATCH, (in, c) -> c.setFieldValue(
+                                WifiEnterpriseConfig.DOM_SUFFIX_MATCH_KEY,
+                                XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_CA_PATH, (in, c) -> c.setFieldValue(
+                                WifiEnterpriseConfig.CA_PATH_KEY,
+                                XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_OCSP, (in, c) ->
+                                c.setOcsp(XmlUtil.readCurrentIntValue(in)))
+                        .add(XML_TAG_EAP_METHOD, (in, c) ->
+                                c.setEapMethod(XmlUtil.readCurrentIntValue(in)))
+                        .add(XML_TAG_PHASE2_METHOD, (in, c) ->
+                                c.setPhase2Method(XmlUtil.readCurrentIntValue(in)))
+                        .add(XML_TAG_PLMN, (in, c) ->
+                                c.setPlmn(XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_REALM, (in, c) ->
+                                c.setRealm(XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_WAPI_CERT_SUITE, (in, c) ->
+                                c.setWapiCertSuite(XmlUtil.readCurrentStringValue(in)))
+                        .add(XML_TAG_APP_INSTALLED_ROOT_CA_CERT, (in, c) ->
+                                c.initIsAppInstalledCaCert(XmlUtil.readCurrentBooleanValue(in)))
+                        .add(XML_TAG_APP_INSTALLED_PRIVATE_KEY, (in, c) ->
+                                c.initIsAppInstalledDeviceKeyAndCert(
+                                        XmlUtil.readCurrentBooleanValue(in)))
+                        .add(XML_TAG_KEYCHAIN_KEY_ALIAS, (in, c) -> {
+                            String alias = XmlUtil.readCurrentStringValue(in);
+                            if (SdkLevel.isAtLeastS()) {
+                                c.setClientKeyPairAlias(alias);
+                            }
+                        })
+                        .add(XML_TAG_DECORATED_IDENTITY_PREFIX, (in, c) -> {
+                            String prefix = XmlUtil.readCurrentStringValue(in);
+                            if (SdkLevel.isAtLeastS()) {
+                                c.setDecoratedIdentityPrefix(prefix);
+                            }
+                        })
+                        .add(XML_TAG_TRUST_ON_FIRST_USE, (in, c) ->
+                                c.enableTrustOnFirstUse(XmlUtil.readCurrentBooleanValue(in)))
+                        .add(XML_TAG_USER_APPROVE_NO_CA_CERT, (in, c) ->
+                                c.setUserApproveNoCaCert(XmlUtil.readCurrentBooleanValue(in)));
+
         /**
          * Write password key to the XML stream.
          *
@@ -1543,113 +1800,21 @@ public class XmlUtil {
 
             // Loop through and parse out all the elements from the stream within this section.
             while (XmlUtilHelper.nextElementWithin(in, outerTagDepth)) {
-                if (in.getAttributeValue(null, "name") != null) {
-                    // Value elements.
-                    String[] valueName = new String[1];
-                    Object value = XmlUtil.readCurrentValue(in, valueName);
-                    if (valueName[0] == null) {
-                        throw new XmlPullParserException("Missing value name");
-                    }
-                    switch (valueName[0]) {
-                        case XML_TAG_IDENTITY:
-                            enterpriseConfig.setFieldValue(
-                                    WifiEnterpriseConfig.IDENTITY_KEY, (String) value);
-                            break;
-                        case XML_TAG_ANON_IDENTITY:
-                            enterpriseConfig.setFieldValue(
-                                    WifiEnterpriseConfig.ANON_IDENTITY_KEY, (String) value);
-                            break;
-                        case XML_TAG_PASSWORD:
-                            enterpriseConfig.setFieldValue(
-                                    WifiEnterpriseConfig.PASSWORD_KEY, (String) value);
-                            if (shouldExpectEncryptedCredentials
-                                    && !TextUtils.isEmpty(enterpriseConfig.getFieldValue(
-                                    WifiEnterpriseConfig.PASSWORD_KEY))) {
-                                // Indicates that encryption of password failed when it was last
-                                // written.
-                                Log.e(TAG, "password value not expected");
-                            }
-                            break;
-                        case XML_TAG_CLIENT_CERT:
-                            enterpriseConfig.setFieldValue(
-                                    WifiEnterpriseConfig.CLIENT_CERT_KEY, (String) value);
-                            break;
-                        case XML_TAG_CA_CERT:
-                            enterpriseConfig.setFieldValue(
-                                    WifiEnterpriseConfig.CA_CERT_KEY, (String) value);
-                            break;
-                        case XML_TAG_SUBJECT_MATCH:
-                            enterpriseConfig.setFieldValue(
-                                    WifiEnterpriseConfig.SUBJECT_MATCH_KEY, (String) value);
-                            break;
-                        case XML_TAG_ENGINE:
-                            enterpriseConfig.setFieldValue(
-                                    WifiEnterpriseConfig.ENGINE_KEY, (String) value);
-                            break;
-                        case XML_TAG_ENGINE_ID:
-                            enterpriseConfig.setFieldValue(
-                                    WifiEnterpriseConfig.ENGINE_ID_KEY, (String) value);
-                            break;
-                        case XML_TAG_PRIVATE_KEY_ID:
-                            enterpriseConfig.setFieldValue(
-                                    WifiEnterpriseConfig.PRIVATE_KEY_ID_KEY, (String) value);
-                            break;
-                        case XML_TAG_ALT_SUBJECT_MATCH:
-                            enterpriseConfig.setFieldValue(
-                                    WifiEnterpriseConfig.ALTSUBJECT_MATCH_KEY, (String) value);
-                            break;
-                        case XML_TAG_DOM_SUFFIX_MATCH:
-                            enterpriseConfig.setFieldValue(
-                                    WifiEnterpriseConfig.DOM_SUFFIX_MATCH_KEY, (String) value);
-                            break;
-                        case XML_TAG_CA_PATH:
-                            enterpriseConfig.setFieldValue(
-                                    WifiEnterpriseConfig.CA_PATH_KEY, (String) value);
-                            break;
-                        case XML_TAG_OCSP:
-                            enterpriseConfig.setOcsp((int) value);
-                            break;
-                        case XML_TAG_EAP_METHOD:
-                            enterpriseConfig.setEapMethod((int) value);
-                            break;
-                        case XML_TAG_PHASE2_METHOD:
-                            enterpriseConfig.setPhase2Method((int) value);
-                            break;
-                        case XML_TAG_PLMN:
-                            enterpriseConfig.setPlmn((String) value);
-                            break;
-                        case XML_TAG_REALM:
-                            enterpriseConfig.setRealm((String) value);
-                            break;
-                        case XML_TAG_WAPI_CERT_SUITE:
-                            enterpriseConfig.setWapiCertSuite((String) value);
-                            break;
-                        case XML_TAG_APP_INSTALLED_ROOT_CA_CERT:
-                            enterpriseConfig.initIsAppInstalledCaCert((boolean) value);
-                            break;
-                        case XML_TAG_APP_INSTALLED_PRIVATE_KEY:
-                            enterpriseConfig.initIsAppInstalledDeviceKeyAndCert((boolean) value);
-                            break;
-                        case XML_TAG_KEYCHAIN_KEY_ALIAS:
-                            if (SdkLevel.isAtLeastS()) {
-                                enterpriseConfig.setClientKeyPairAlias((String) value);
-                            }
-                            break;
-                        case XML_TAG_DECORATED_IDENTITY_PREFIX:
-                            if (SdkLevel.isAtLeastS()) {
-                                enterpriseConfig.setDecoratedIdentityPrefix((String) value);
-                            }
-                            break;
-                        case XML_TAG_TRUST_ON_FIRST_USE:
-                            enterpriseConfig.enableTrustOnFirstUse((boolean) value);
-                            break;
-                        case XML_TAG_USER_APPROVE_NO_CA_CERT:
-                            enterpriseConfig.setUserApproveNoCaCert((boolean) value);
-                            break;
-                        default:
-                            Log.w(TAG, "Ignoring unknown value name found: " + valueName[0]);
-                            break;
+                String valueName = in.getAttributeValue(null, "name");
+                if (XML_TAG_PASSWORD.equals(valueName)) {
+                    enterpriseConfig.setFieldValue(
+                            WifiEnterpriseConfig.PASSWORD_KEY,
+                            XmlUtil.readCurrentStringValue(in));
+                    if (shouldExpectEncryptedCredentials
+                            && !TextUtils.isEmpty(enterpriseConfig.getFieldValue(
+                            WifiEnterpriseConfig.PASSWORD_KEY))) {
+                        // Indicates that encryption of password failed when it was last
+                        // written.
+                        Log.e(TAG, "password value not expected");
                     }
+                } else if (valueName != null) {
+                    // Value elements.
+                    VALUE_PARSERS.parseCurrentValue(in, valueName, enterpriseConfig);
                 } else {
                     String tagName = in.getName();
                     if (tagName == null) {
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import com.android.server.wifi.NetworkFrequencyIndex.FrequencySet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Benchmarks for the channel lists of the PNO and partial scans, built from the
+ * {@link NetworkFrequencyIndex} of {@link WifiScoreCard}.
+ *
+ * One op is the channel lists of all the 500 saved networks, as in
+ * WifiConnectivityManager#retrievePnoNetworkList, or the channel set of the partial scan over
+ * all of them. The boxed variants build the same lists the way they were built before the
+ * index, from per-network lists of boxed frequencies.
+ */
+@LargeTest
+public class NetworkFrequencyIndexBenchmark {
+    private static final int NUM_NETWORKS = 500;
+    private static final int NUM_FREQUENCIES_PER_NETWORK = 6;
+    private static final int MAX_FREQUENCIES_PER_NETWORK = 10;
+    private static final long AGE_MS = 24 * 60 * 60 * 1000L;
+    private static final int[] FREQUENCIES = {2412, 2437, 2462, 5180, 5200, 5220, 5240, 5745,
+            5765, 5785, 5805, 5955, 5975, 6035, 6115};
+
+    @Rule public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private final List<String> mSsids = new ArrayList<>();
+    private final Map<String, List<Integer>> mBoxedFrequencies = new HashMap<>();
+    private NetworkFrequencyIndex mIndex;
+
+    @Before
+    public void setUp() {
+        Clock clock = mock(Clock.class, withSettings().stubOnly());
+        when(clock.getElapsedSinceBootMillis()).thenReturn(AGE_MS);
+        mIndex = new NetworkFrequencyIndex(clock, MAX_FREQUENCIES_PER_NETWORK);
+        for (int i = 0; i < NUM_NETWORKS; i++) {
+            String ssid = ScanFixtures.quotedSsid(i);
+            List<Integer> frequencies = new ArrayList<>();
+            for (int j = 0; j < NUM_FREQUENCIES_PER_NETWORK; j++) {
+                int frequency = FREQUENCIES[(i + 2 * j) % FREQUENCIES.length];
+                mIndex.addFrequency(ssid, frequency);
+                frequencies.add(0, frequency);
+            }
+            mSsids.add(ssid);
+            mBoxedFrequencies.put(ssid, frequencies);
+        }
+    }
+
+    /**
+     * Frequencies of each saved network for the PNO scan, from the index.
+     */
+    @Test
+    public void pnoFrequencies() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        int count = 0;
+        while (state.keepRunning()) {
+            count = 0;
+            for (String ssid : mSsids) {
+                count += mIndex.getFrequencies(ssid, AGE_MS).length;
+            }
+        }
+        assertEquals(NUM_NETWORKS * NUM_FREQUENCIES_PER_NETWORK, count);
+    }
+
+    /**
+     * Frequencies of each saved network for the PNO scan, from boxed lists through a
+     * {@link HashSet} and a stream.
+     */
+    @Test
+    public void pnoFrequenciesBoxed() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        int count = 0;
+        while (state.keepRunning()) {
+            count = 0;
+            for (String ssid : mSsids) {
+                Set<Integer> channelList = new HashSet<>(mBoxedFrequencies.get(ssid));
+                count += channelList.stream().mapToInt(Integer::intValue).toArray().length;
+            }
+        }
+        assertEquals(NUM_NETWORKS * NUM_FREQUENCIES_PER_NETWORK, count);
+    }
+
+    /**
+     * Channel set of the partial scan over all the saved networks, from the index.
+     */
+    @Test
+    public void partialScanChannels() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        int[] channels = null;
+        while (state.keepRunning()) {
+            FrequencySet channelSet = new FrequencySet();
+            for (String ssid : mSsids) {
+                mIndex.addFrequenciesTo(channelSet, ssid, AGE_MS, 0);
+            }
+            channels = channelSet.toArray();
+        }
+        assertEquals(FREQUENCIES.length, channels.length);
+    }
+
+    /**
+     * Channel set of the partial scan over all the saved networks, from boxed lists into a
+     * {@link HashSet}.
+     */
+    @Test
+    public void partialScanChannelsBoxed() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        Set<Integer> channels = null;
+        while (state.keepRunning()) {
+            channels = new HashSet<>();
+            for (String ssid : mSsids) {
+                for (Integer channel : mBoxedFrequencies.get(ssid)) {
+                    channels.add(channel);
+                }
+            }
+        }
+        assertEquals(FREQUENCIES.length, channels.size());
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiConfiguration;
+import android.net.wifi.nl80211.DeviceWiphyCapabilities;
+import android.os.Handler;
+import android.util.LocalLog;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Benchmarks for {@link WifiNetworkSelector#getCandidatesFromScan} and
+ * {@link WifiCandidates#choose} with the {@link ThroughputScorer}.
+ *
+ * One op is a whole network selection over a scan of |numBssids| BSSIDs, spread over
+ * {@link ScanFixtures#NUM_SSIDS} saved networks. The collaborators of the network selector which
+ * don't take part in the selection itself (WifiConfigManager, WifiMetrics...) are stub-only mocks,
+ * so the numbers cover the selector, the nominator callbacks, throughput prediction and scoring.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class NetworkSelectionBenchmark {
+    private static final int RSSI_DELTA = 3;
+
+    @Rule public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public int mNumBssids;
+
+    private final Map<String, WifiConfiguration> mConfigsBySsid = new HashMap<>();
+    private final List<WifiConfiguration> mConfigs = new ArrayList<>();
+    private WifiNetworkSelector mNetworkSelector;
+    private WifiScoreCard mWifiScoreCard;
+    private Context mContext;
+    private ThroughputScorer mThroughputScorer;
+    private List<ScanDetail> mScanDetails;
+    private List<ScanDetail> mMovedScanDetails;
+    private List<WifiNetworkSelector.ClientModeManagerState> mCmmStates;
+
+    @Parameterized.Parameters(name = "bssids={0}")
+    public static Collection<Object[]> data() {
+        return ScanFixtures.bssidCounts();
+    }
+
+    /**
+     * Nominates the saved network matching the SSID of each scan detail, the same way
+     * {@link SavedNetworkNominator} does for the networks without special handling.
+     */
+    private class BenchmarkNominator implements WifiNetworkSelector.NetworkNominator {
+        @Override
+        public int getId() {
+            return NOMINATOR_ID_SAVED;
+        }
+
+        @Override
+        public String getName() {
+            return "BenchmarkNominator";
+        }
+
+        @Override
+        public void update(List<ScanDetail> scanDetails) {
+        }
+
+        @Override
+        public void nominateNetworks(List<ScanDetail> scanDetails,
+                boolean untrustedNetworkAllowed, boolean oemPaidNetworkAllowed,
+                boolean oemPrivateNetworkAllowed, Set<Integer> restrictedNetworkAllowedUids,
+                OnConnectableListener onConnectableListener) {
+            for (ScanDetail scanDetail : scanDetails) {
+                WifiConfiguration config = mConfigsBySsid.get(
+                        "\"" + scanDetail.getScanResult().SSID + "\"");
+                if (config != null) {
+                    onConnectableListener.onConnectable(scanDetail, config);
+                }
+            }
+        }
+    }
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < ScanFixtures.NUM_SSIDS; i++) {
+            WifiConfiguration config = new WifiConfiguration();
+            config.SSID = ScanFixtures.quotedSsid(i);
+            config.networkId = i;
+            config.setSecurityParams(WifiConfiguration.SECURITY_TYPE_PSK);
+            config.addSecurityParams(WifiConfiguration.SECURITY_TYPE_SAE);
+            mConfigs.add(config);
+            mConfigsBySsid.put(config.SSID, config);
+        }
+
+        Resources resources = mock(Resources.class, withSettings().stubOnly());
+        mContext = mock(Context.class, withSettings().stubOnly());
+        when(mContext.getResources()).thenReturn(resources);
+
+        Clock clock = mock(Clock.class, withSettings().stubOnly());
+        when(clock.getElapsedSinceBootMillis()).thenReturn(1000L);
+        when(clock.getWallClockMillis()).thenReturn(1000L);
+
+        WifiConfigManager wifiConfigManager =
+                mock(WifiConfigManager.class, withSettings().stubOnly());
+        when(wifiConfigManager.getConfiguredNetworks()).thenReturn(mConfigs);
+        when(wifiConfigManager.getConfiguredNetwork(anyInt())).thenAnswer(
+                invocation -> {
+                    int networkId = invocation.getArgument(0);
+                    return networkId >= 0 && networkId < mConfigs.size()
+                            ? mConfigs.get(networkId) : null;
+                });
+        when(wifiConfigManager.getLastSelectedNetwork())
+                .thenReturn(WifiConfiguration.INVALID_NETWORK_ID);
+
+        DeviceWiphyCapabilities capabilities = new DeviceWiphyCapabilities();
+        capabilities.setWifiStandardSupport(ScanResult.WIFI_STANDARD_11N, true);
+        capabilities.setWifiStandardSupport(ScanResult.WIFI_STANDARD_11AC, true);
+        capabilities.setWifiStandardSupport(ScanResult.WIFI_STANDARD_11AX, true);
+        capabilities.setWifiStandardSupport(ScanResult.WIFI_STANDARD_11BE, true);
+        capabilities.setChannelWidthSupported(ScanResult.CHANNEL_WIDTH_160MHZ, true);
+        capabilities.setMaxNumberTxSpatialStreams(2);
+        capabilities.setMaxNumberRxSpatialStreams(2);
+        ClientModeManager clientModeManager =
+                mock(ClientModeManager.class, withSettings().stubOnly());
+        when(clientModeManager.getDeviceWiphyCapabilities()).thenReturn(capabilities);
+        ActiveModeWarden activeModeWarden =
+                mock(ActiveModeWarden.class, withSettings().stubOnly());
+        when(activeModeWarden.getPrimaryClientModeManager()).thenReturn(clientModeManager);
+        WifiInjector wifiInjector = mock(WifiInjector.class, withSettings().stubOnly());
+        when(wifiInjector.getActiveModeWarden()).thenReturn(activeModeWarden);
+
+        ScoringParams scoringParams = new ScoringParams();
+        mWifiScoreCard = new WifiScoreCard(clock, mock(Handler.class, withSettings().stubOnly()),
+                "benchmark",
+                mock(DeviceConfigFacade.class, withSettings().stubOnly()), mContext);
+        mNetworkSelector = new WifiNetworkSelector(mContext, mWifiScoreCard, scoringParams,
+                wifiConfigManager, clock, new LocalLog(512),
+                mock(WifiMetrics.class, withSettings().stubOnly()), wifiInjector,
+                new ThroughputPredictor(mContext),
+                mock(WifiChannelUtilization.class, withSettings().stubOnly()),
+                mock(WifiGlobals.class, withSettings().stubOnly()),
+                mock(ScanRequestProxy.class, withSettings().stubOnly()));
+        mNetworkSelector.registerNetworkNominator(new BenchmarkNominator());
+        mThroughputScorer = new ThroughputScorer(scoringParams);
+        mNetworkSelector.registerCandidateScorer(mThroughputScorer);
+
+        List<ScanFixtures.Ap> aps = ScanFixtures.generateAps(mNumBssids);
+        mScanDetails = ScanFixtures.toScanDetails(aps);
+        mMovedScanDetails = ScanFixtures.toScanDetails(
+                ScanFixtures.withHalfMoved(aps, RSSI_DELTA));
+        mCmmStates = Collections.singletonList(new WifiNetworkSelector.ClientModeManagerState());
+    }
+
+    private List<WifiCandidates.Candidate> getCandidates(List<ScanDetail> scanDetails) {
+        return mNetworkSelector.getCandidatesFromScan(scanDetails, Collections.emptySet(),
+                mCmmStates, false, false, false, Collections.emptySet(), false);
+    }
+
+    /**
+     * Consecutive scans with the same results, e.g while the device is stationary.
+     */
+    @Test
+    public void getCandidatesFromScan_unchangedScan() {
+        getCandidates(mScanDetails);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            getCandidates(mScanDetails);
+        }
+    }
+
+    /**
+     * Consecutive scans in which half of the BSSIDs changed RSSI, e.g while the device is moving.
+     */
+    @Test
+    public void getCandidatesFromScan_halfChanged() {
+        boolean moved = false;
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            getCandidates(moved ? mMovedScanDetails : mScanDetails);
+            moved = !moved;
+        }
+    }
+
+    /**
+     * Choosing the best candidate with the {@link ThroughputScorer}, as done by
+     * {@link WifiNetworkSelector#selectNetwork}.
+     */
+    @Test
+    public void chooseWithThroughputScorer() {
+        List<WifiCandidates.Candidate> candidates = getCandidates(mScanDetails);
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            new WifiCandidates(mWifiScoreCard, mContext, candidates).choose(mThroughputScorer);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi;
+
+import android.net.wifi.WifiConfiguration;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Benchmarks for {@link ScanDetailCache}, sized the same way as the caches
+ * {@link WifiConfigManager} keeps for each saved network.
+ *
+ * One op is the insertion of a whole scan of |numBssids| BSSIDs, scans larger than
+ * {@link WifiConfigManager#SCAN_CACHE_ENTRIES_MAX_SIZE} trim the cache along the way.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class ScanDetailCacheBenchmark {
+    @Rule public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public int mNumBssids;
+
+    private WifiConfiguration mConfig;
+    private List<ScanDetail> mScanDetails;
+
+    @Parameterized.Parameters(name = "bssids={0}")
+    public static Collection<Object[]> data() {
+        return ScanFixtures.bssidCounts();
+    }
+
+    @Before
+    public void setUp() {
+        mConfig = new WifiConfiguration();
+        mConfig.SSID = ScanFixtures.quotedSsid(0);
+        mScanDetails = ScanFixtures.toScanDetails(ScanFixtures.generateAps(mNumBssids));
+        for (ScanDetail scanDetail : mScanDetails) {
+            scanDetail.setSeen();
+        }
+    }
+
+    private ScanDetailCache newCache() {
+        return new ScanDetailCache(mConfig, WifiConfigManager.SCAN_CACHE_ENTRIES_MAX_SIZE,
+                WifiConfigManager.SCAN_CACHE_ENTRIES_TRIM_SIZE);
+    }
+
+    /**
+     * Filling an empty cache.
+     */
+    @Test
+    public void putIntoEmptyCache() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            ScanDetailCache cache = newCache();
+            for (ScanDetail scanDetail : mScanDetails) {
+                cache.put(scanDetail);
+            }
+        }
+    }
+
+    /**
+     * Updating a cache which already holds the BSSIDs of the previous scan, which is the common
+     * case for a saved network that stays in range.
+     */
+    @Test
+    public void putIntoWarmCache() {
+        ScanDetailCache cache = newCache();
+        for (ScanDetail scanDetail : mScanDetails) {
+            cache.put(scanDetail);
+        }
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (ScanDetail scanDetail : mScanDetails) {
+                cache.put(scanDetail);
+            }
+        }
+    }
+}
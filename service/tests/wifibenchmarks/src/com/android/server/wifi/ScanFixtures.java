@@ -0,0 +1,383 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi;
+
+import android.net.MacAddress;
+import android.net.wifi.ScanResult;
+import android.net.wifi.ScanResult.InformationElement;
+import android.net.wifi.WifiSsid;
+
+import com.android.server.wifi.hotspot2.NetworkDetail;
+import com.android.server.wifi.util.InformationElementUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Synthetic scan results for the benchmarks.
+ *
+ * Every BSSID gets a raw IE blob modelled on the beacon of a real AP of one of the generations
+ * below, the generations are assigned round robin so that any scan size has the same mix. The
+ * fixtures are deterministic, the same index always produces the same AP.
+ */
+public final class ScanFixtures {
+    /** Scan sizes the benchmarks are parameterized with. */
+    public static final int[] BSSID_COUNTS = {10, 50, 100, 500, 1000, 2000};
+
+    /** Number of distinct SSIDs the BSSIDs are spread over. */
+    public static final int NUM_SSIDS = 20;
+
+    /** 802.11n AP on 2.4GHz. */
+    public static final int AP_TYPE_HT = 0;
+    /** 802.11ac AP on 5GHz. */
+    public static final int AP_TYPE_VHT = 1;
+    /** 802.11ax AP on 5GHz. */
+    public static final int AP_TYPE_HE = 2;
+    /** 802.11ax AP on 6GHz. */
+    public static final int AP_TYPE_HE_6GHZ = 3;
+    /** 802.11be AP on 6GHz, affiliated with an MLD and advertising its other link in the RNR. */
+    public static final int AP_TYPE_EHT = 4;
+    /** Passpoint AP on 5GHz, with the Interworking and HS2.0 indication IEs. */
+    public static final int AP_TYPE_PASSPOINT = 5;
+    private static final int NUM_AP_TYPES = 6;
+
+    private static final int BEACON_CAP_ESS = 0x0001;
+    private static final int BEACON_CAP_PRIVACY = 0x0010;
+
+    private static final int EID_SSID = 0;
+    private static final int EID_SUPPORTED_RATES = 1;
+    private static final int EID_TIM = 5;
+    private static final int EID_COUNTRY = 7;
+    private static final int EID_BSS_LOAD = 11;
+    private static final int EID_HT_CAPABILITIES = 45;
+    private static final int EID_RSN = 48;
+    private static final int EID_HT_OPERATION = 61;
+    private static final int EID_INTERWORKING = 107;
+    private static final int EID_EXTENDED_CAPS = 127;
+    private static final int EID_VHT_CAPABILITIES = 191;
+    private static final int EID_VHT_OPERATION = 192;
+    private static final int EID_RNR = 201;
+    private static final int EID_VSA = 221;
+    private static final int EID_EXTENSION_PRESENT = 255;
+    private static final int EID_EXT_HE_CAPABILITIES = 35;
+    private static final int EID_EXT_HE_OPERATION = 36;
+    private static final int EID_EXT_EHT_OPERATION = 106;
+    private static final int EID_EXT_MULTI_LINK = 107;
+    private static final int EID_EXT_EHT_CAPABILITIES = 108;
+
+    private static final int AKM_PSK = 2;
+    private static final int AKM_EAP = 1;
+    private static final int AKM_SAE = 8;
+
+    /** A single synthetic AP as reported by wificond. */
+    public static class Ap {
+        public final int type;
+        public final byte[] ssid;
+        public final MacAddress bssid;
+        public final int frequency;
+        public final int level;
+        public final int capability;
+        public final byte[] ies;
+
+        Ap(int type, byte[] ssid, MacAddress bssid, int frequency, int level, int capability,
+                byte[] ies) {
+            this.type = type;
+            this.ssid = ssid;
+            this.bssid = bssid;
+            this.frequency = frequency;
+            this.level = level;
+            this.capability = capability;
+            this.ies = ies;
+        }
+    }
+
+    private ScanFixtures() {
+    }
+
+    /**
+     * Parameters for {@link org.junit.runners.Parameterized} benchmarks, one per scan size.
+     */
+    public static Collection<Object[]> bssidCounts() {
+        List<Object[]> params = new ArrayList<>();
+        for (int count : BSSID_COUNTS) {
+            params.add(new Object[] {count});
+        }
+        return params;
+    }
+
+    /**
+     * Quoted SSID of the |index|th synthetic network, as found in WifiConfiguration#SSID.
+     */
+    public static String quotedSsid(int index) {
+        return "\"" + ssid(index) + "\"";
+    }
+
+    private static String ssid(int index) {
+        return "bench-" + index;
+    }
+
+    /**
+     * Generate |numBssids| synthetic APs.
+     */
+    public static List<Ap> generateAps(int numBssids) {
+        List<Ap> aps = new ArrayList<>(numBssids);
+        for (int i = 0; i < numBssids; i++) {
+            aps.add(generateAp(i));
+        }
+        return aps;
+    }
+
+    /**
+     * Generate the |index|th synthetic AP.
+     */
+    public static Ap generateAp(int index) {
+        int type = index % NUM_AP_TYPES;
+        byte[] ssid = ssid(index % NUM_SSIDS).getBytes(StandardCharsets.UTF_8);
+        MacAddress bssid = bssid(0x02, index);
+        int level = -40 - (index % 50);
+        int channel;
+        int frequency;
+        switch (type) {
+            case AP_TYPE_HT:
+                channel = 1 + 5 * (index % 3);
+                frequency = 2407 + 5 * channel;
+                break;
+            case AP_TYPE_HE_6GHZ:
+            case AP_TYPE_EHT:
+                channel = 5 + 16 * (index % 4);
+                frequency = 5950 + 5 * channel;
+                break;
+            default:
+                channel = 36 + 16 * (index % 4);
+                frequency = 5000 + 5 * channel;
+                break;
+        }
+
+        ByteArrayOutputStream ies = new ByteArrayOutputStream(512);
+        writeIe(ies, EID_SSID, ssid);
+        writeIe(ies, EID_SUPPORTED_RATES, type == AP_TYPE_HT
+                ? bytes(0x82, 0x84, 0x8b, 0x96, 0x0c, 0x12, 0x18, 0x24)
+                : bytes(0x8c, 0x12, 0x98, 0x24, 0xb0, 0x48, 0x60, 0x6c));
+        writeIe(ies, EID_TIM, bytes(0x00, 0x01, 0x00, 0x00));
+        writeIe(ies, EID_COUNTRY, type == AP_TYPE_HT
+                ? bytes('U', 'S', 0x20, 1, 11, 30) : bytes('U', 'S', 0x20, 36, 8, 23));
+        writeIe(ies, EID_BSS_LOAD, bytes(index % 30, 0x00, index % 256, 0x00, 0x00));
+        writeIe(ies, EID_RSN, rsn(type == AP_TYPE_PASSPOINT ? AKM_EAP
+                : type == AP_TYPE_HE_6GHZ || type == AP_TYPE_EHT ? AKM_SAE : AKM_PSK));
+        if (type != AP_TYPE_HE_6GHZ && type != AP_TYPE_EHT) {
+            writeIe(ies, EID_HT_CAPABILITIES, htCapabilities());
+            writeIe(ies, EID_HT_OPERATION, htOperation(channel));
+        }
+        writeIe(ies, EID_EXTENDED_CAPS,
+                bytes(0x04, 0x00, 0x08, 0x00, 0x00, 0x00, 0x00, 0x40));
+        if (type == AP_TYPE_VHT || type == AP_TYPE_HE || type == AP_TYPE_PASSPOINT) {
+            writeIe(ies, EID_VHT_CAPABILITIES, vhtCapabilities());
+            writeIe(ies, EID_VHT_OPERATION, bytes(0x01, channel + 6, 0x00, 0xfa, 0xff));
+        }
+        if (type == AP_TYPE_HE || type == AP_TYPE_HE_6GHZ || type == AP_TYPE_EHT) {
+            writeExtIe(ies, EID_EXT_HE_CAPABILITIES, heCapabilities());
+            writeExtIe(ies, EID_EXT_HE_OPERATION, heOperation(type != AP_TYPE_HE, channel));
+        }
+        if (type == AP_TYPE_EHT) {
+            writeExtIe(ies, EID_EXT_EHT_CAPABILITIES, new byte[11]);
+            writeExtIe(ies, EID_EXT_EHT_OPERATION, bytes(0x00, 0xfc, 0xff, 0xfc, 0xff));
+            writeIe(ies, EID_RNR, rnr(index));
+            writeExtIe(ies, EID_EXT_MULTI_LINK, multiLink(index));
+        }
+        if (type == AP_TYPE_PASSPOINT) {
+            // Access network type: chargeable public, internet available.
+            writeIe(ies, EID_INTERWORKING, bytes(0x12));
+            // WFA OUI, HS2.0 indication, release 2.
+            writeIe(ies, EID_VSA, bytes(0x50, 0x6f, 0x9a, 0x10, 0x10));
+        }
+
+        return new Ap(type, ssid, bssid, frequency, level, BEACON_CAP_ESS | BEACON_CAP_PRIVACY,
+                ies.toByteArray());
+    }
+
+    /**
+     * Convert an AP to a ScanDetail, the same way WifiNative#convertNativeScanResults does.
+     */
+    public static ScanDetail toScanDetail(Ap ap) {
+        WifiSsid wifiSsid = WifiSsid.fromBytes(ap.ssid);
+        String bssid = ap.bssid.toString();
+        InformationElement[] ies = InformationElementUtil.parseInformationElements(ap.ies);
+        InformationElementUtil.Capabilities capabilities =
+                new InformationElementUtil.Capabilities();
+        capabilities.from(ies, ap.capability, true, ap.frequency);
+        String flags = capabilities.generateCapabilitiesString();
+        NetworkDetail networkDetail = new NetworkDetail(bssid, ies, null, ap.frequency);
+        ScanDetail scanDetail = new ScanDetail(networkDetail, wifiSsid, bssid, flags, ap.level,
+                ap.frequency, 0, ies, null, ap.ies);
+        ScanResult scanResult = scanDetail.getScanResult();
+        scanResult.setWifiStandard(
+                WifiNative.wifiModeToWifiStandard(networkDetail.getWifiMode()));
+        scanResult.setApMldMacAddress(networkDetail.getMldMacAddress());
+        scanResult.setApMloLinkId(networkDetail.getMloLinkId());
+        scanResult.setAffiliatedMloLinks(networkDetail.getAffiliatedMloLinks());
+        return scanDetail;
+    }
+
+    /**
+     * Convert APs to ScanDetails, see {@link #toScanDetail(Ap)}.
+     */
+    public static List<ScanDetail> toScanDetails(List<Ap> aps) {
+        List<ScanDetail> scanDetails = new ArrayList<>(aps.size());
+        for (Ap ap : aps) {
+            scanDetails.add(toScanDetail(ap));
+        }
+        return scanDetails;
+    }
+
+    /**
+     * Make a copy of |aps| in which every other AP has moved, i.e the RSSI changed, to model
+     * the scans in between which only some BSSIDs change.
+     */
+    public static List<Ap> withHalfMoved(List<Ap> aps, int delta) {
+        List<Ap> moved = new ArrayList<>(aps.size());
+        for (int i = 0; i < aps.size(); i++) {
+            Ap ap = aps.get(i);
+            moved.add(i % 2 == 0 ? ap : new Ap(ap.type, ap.ssid, ap.bssid, ap.frequency,
+                    ap.level + delta, ap.capability, Arrays.copyOf(ap.ies, ap.ies.length)));
+        }
+        return moved;
+    }
+
+    private static MacAddress bssid(int prefix, int index) {
+        return MacAddress.fromBytes(new byte[] {(byte) prefix, 0x11, 0x22, (byte) (index >> 16),
+                (byte) (index >> 8), (byte) index});
+    }
+
+    private static byte[] rsn(int akm) {
+        boolean sae = akm == AKM_SAE;
+        return bytes(
+                0x01, 0x00, // version
+                0x00, 0x0f, 0xac, 0x04, // group cipher: CCMP
+                0x01, 0x00, 0x00, 0x0f, 0xac, 0x04, // pairwise ciphers: CCMP
+                0x01, 0x00, 0x00, 0x0f, 0xac, akm, // AKMs
+                sae ? 0xc0 : 0x00, 0x00); // RSN capabilities: MFPR and MFPC for SAE
+    }
+
+    private static byte[] htCapabilities() {
+        byte[] ie = new byte[26];
+        ie[0] = (byte) 0xef;
+        ie[1] = 0x09;
+        // Rx MCS bitmask, 2 spatial streams.
+        ie[3] = (byte) 0xff;
+        ie[4] = (byte) 0xff;
+        return ie;
+    }
+
+    private static byte[] htOperation(int primaryChannel) {
+        byte[] ie = new byte[22];
+        ie[0] = (byte) primaryChannel;
+        // Secondary channel above for 5GHz, 20MHz only for 2.4GHz.
+        ie[1] = (byte) (primaryChannel > 14 ? 0x05 : 0x00);
+        return ie;
+    }
+
+    private static byte[] vhtCapabilities() {
+        byte[] ie = new byte[12];
+        ie[0] = (byte) 0x92;
+        ie[1] = 0x01;
+        ie[2] = (byte) 0x80;
+        ie[3] = 0x33;
+        // Rx MCS map, 2 spatial streams.
+        ie[4] = (byte) 0xfa;
+        ie[5] = (byte) 0xff;
+        ie[8] = (byte) 0xfa;
+        ie[9] = (byte) 0xff;
+        return ie;
+    }
+
+    private static byte[] heCapabilities() {
+        byte[] ie = new byte[21];
+        ie[0] = 0x05;
+        ie[6] = 0x06;
+        // Rx HE-MCS map <= 80MHz, 2 spatial streams.
+        ie[17] = (byte) 0xfa;
+        ie[18] = (byte) 0xff;
+        ie[19] = (byte) 0xfa;
+        ie[20] = (byte) 0xff;
+        return ie;
+    }
+
+    private static byte[] heOperation(boolean is6Ghz, int primaryChannel) {
+        if (!is6Ghz) {
+            return bytes(0xf4, 0x01, 0x00, 0x21, 0xfc, 0xff);
+        }
+        return bytes(0xf4, 0x01, 0x02, 0x21, 0xfc, 0xff,
+                // 6GHz operation information: primary channel, 80MHz, CCFS0, CCFS1, min rate
+                primaryChannel, 0x02, primaryChannel + 2, 0x00, 0x00);
+    }
+
+    private static byte[] rnr(int index) {
+        MacAddress affiliatedBssid = bssid(0x06, index);
+        byte[] ie = new byte[4 + 16];
+        // TBTT info count 1, TBTT info length 16.
+        ie[0] = 0x00;
+        ie[1] = 16;
+        // Operating class 128 (5GHz, 80MHz), channel 36.
+        ie[2] = (byte) 128;
+        ie[3] = 36;
+        // TBTT offset, BSSID, short SSID, BSS params, PSD, MLD params.
+        ie[4] = (byte) 0xff;
+        System.arraycopy(affiliatedBssid.toByteArray(), 0, ie, 5, 6);
+        ie[17] = 0x00; // MLD ID 0: affiliated with the reporting AP's MLD
+        ie[18] = 0x01; // link ID
+        ie[19] = 0x00;
+        return ie;
+    }
+
+    private static byte[] multiLink(int index) {
+        MacAddress mldAddress = bssid(0x0a, index);
+        byte[] ie = new byte[2 + 8];
+        // Control: type basic, link ID info present.
+        ie[0] = 0x10;
+        ie[1] = 0x00;
+        // Common info: length, MLD MAC address, link ID.
+        ie[2] = 8;
+        System.arraycopy(mldAddress.toByteArray(), 0, ie, 3, 6);
+        ie[9] = 0x00;
+        return ie;
+    }
+
+    private static void writeIe(ByteArrayOutputStream out, int id, byte[] payload) {
+        out.write(id);
+        out.write(payload.length);
+        out.write(payload, 0, payload.length);
+    }
+
+    private static void writeExtIe(ByteArrayOutputStream out, int idExt, byte[] payload) {
+        out.write(EID_EXTENSION_PRESENT);
+        out.write(payload.length + 1);
+        out.write(idExt);
+        out.write(payload, 0, payload.length);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi;
+
+import android.net.wifi.ScanResult.InformationElement;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import com.android.server.wifi.hotspot2.NetworkDetail;
+import com.android.server.wifi.util.InformationElementUtil;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Benchmarks for the conversion of raw scan results to {@link ScanDetail}s.
+ *
+ * One op is the processing of a whole scan of |numBssids| BSSIDs.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class ScanParsingBenchmark {
+    @Rule public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public int mNumBssids;
+
+    private List<ScanFixtures.Ap> mAps;
+    private InformationElement[][] mParsedIes;
+
+    @Parameterized.Parameters(name = "bssids={0}")
+    public static Collection<Object[]> data() {
+        return ScanFixtures.bssidCounts();
+    }
+
+    @Before
+    public void setUp() {
+        mAps = ScanFixtures.generateAps(mNumBssids);
+        mParsedIes = new InformationElement[mNumBssids][];
+        for (int i = 0; i < mNumBssids; i++) {
+            mParsedIes[i] = InformationElementUtil.parseInformationElements(mAps.get(i).ies);
+        }
+    }
+
+    /**
+     * Splitting the raw IE blobs into {@link InformationElement}s.
+     */
+    @Test
+    public void parseInformationElements() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (ScanFixtures.Ap ap : mAps) {
+                InformationElementUtil.parseInformationElements(ap.ies);
+            }
+        }
+    }
+
+    /**
+     * Building the capabilities string from already parsed IEs.
+     */
+    @Test
+    public void generateCapabilitiesString() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (int i = 0; i < mNumBssids; i++) {
+                ScanFixtures.Ap ap = mAps.get(i);
+                InformationElementUtil.Capabilities capabilities =
+                        new InformationElementUtil.Capabilities();
+                capabilities.from(mParsedIes[i], ap.capability, true, ap.frequency);
+                capabilities.generateCapabilitiesString();
+            }
+        }
+    }
+
+    /**
+     * Constructing {@link NetworkDetail}s from already parsed IEs.
+     */
+    @Test
+    public void constructNetworkDetail() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            for (int i = 0; i < mNumBssids; i++) {
+                ScanFixtures.Ap ap = mAps.get(i);
+                new NetworkDetail(ap.bssid.toString(), mParsedIes[i], null, ap.frequency);
+            }
+        }
+    }
+
+    /**
+     * The whole conversion, as done by WifiNative#convertNativeScanResults.
+     */
+    @Test
+    public void convertScanResults() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            ScanFixtures.toScanDetails(mAps);
+        }
+    }
+}
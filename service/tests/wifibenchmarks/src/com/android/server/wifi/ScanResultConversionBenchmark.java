@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import android.content.res.Resources;
+import android.net.wifi.WifiContext;
+import android.net.wifi.nl80211.NativeScanResult;
+import android.net.wifi.nl80211.WifiNl80211Manager;
+import android.os.Handler;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import com.android.wifi.resources.R;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks for {@link WifiNative#convertNativeScanResults(String, List)}, with the scan
+ * results converted on the calling thread only and split across 2 and 4 threads, and with and
+ * without reuse of the data derived from unchanged IEs.
+ *
+ * One op is the conversion of a whole scan of |numBssids| BSSIDs.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class ScanResultConversionBenchmark {
+    private static final int[] BSSID_COUNTS = {50, 200, 500, 1000};
+    private static final int[] THREAD_COUNTS = {1, 2, 4};
+    private static final String IFACE_NAME = "wlan0";
+
+    @Rule public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public int mNumBssids;
+
+    @Parameterized.Parameter(1)
+    public int mNumThreads;
+
+    private WifiNative mWifiNative;
+    private List<NativeScanResult> mNativeScanResults;
+
+    @Parameterized.Parameters(name = "bssids={0},threads={1}")
+    public static Collection<Object[]> data() {
+        List<Object[]> params = new ArrayList<>();
+        for (int numBssids : BSSID_COUNTS) {
+            for (int numThreads : THREAD_COUNTS) {
+                params.add(new Object[] {numBssids, numThreads});
+            }
+        }
+        return params;
+    }
+
+    @Before
+    public void setUp() {
+        Resources resources = mock(Resources.class, withSettings().stubOnly());
+        when(resources.getInteger(R.integer.config_wifiScanResultConversionThreads))
+                .thenReturn(mNumThreads);
+        WifiContext context = mock(WifiContext.class, withSettings().stubOnly());
+        when(context.getResources()).thenReturn(resources);
+        WifiInjector wifiInjector = mock(WifiInjector.class, withSettings().stubOnly());
+        when(wifiInjector.getContext()).thenReturn(context);
+        mWifiNative = new WifiNative(
+                mock(WifiVendorHal.class, withSettings().stubOnly()),
+                mock(SupplicantStaIfaceHal.class, withSettings().stubOnly()),
+                mock(HostapdHal.class, withSettings().stubOnly()),
+                mock(WifiNl80211Manager.class, withSettings().stubOnly()),
+                mock(WifiMonitor.class, withSettings().stubOnly()),
+                mock(PropertyService.class, withSettings().stubOnly()),
+                mock(WifiMetrics.class, withSettings().stubOnly()),
+                mock(Handler.class, withSettings().stubOnly()), new Random(),
+                mock(BuildProperties.class, withSettings().stubOnly()), wifiInjector);
+
+        mNativeScanResults = new ArrayList<>(mNumBssids);
+        for (ScanFixtures.Ap ap : ScanFixtures.generateAps(mNumBssids)) {
+            mNativeScanResults.add(toNativeScanResult(ap));
+        }
+    }
+
+    private static NativeScanResult toNativeScanResult(ScanFixtures.Ap ap) {
+        NativeScanResult result = new NativeScanResult();
+        result.ssid = ap.ssid;
+        result.bssid = ap.bssid.toByteArray();
+        result.infoElement = ap.ies;
+        result.frequency = ap.frequency;
+        result.signalMbm = ap.level * 100;
+        result.capability = ap.capability;
+        result.radioChainInfos = new ArrayList<>();
+        return result;
+    }
+
+    /**
+     * Conversion of a whole scan of APs which were not seen before, i.e. without any hit in the
+     * {@link InformationElementCache}.
+     */
+    @Test
+    public void convertNativeScanResults() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        List<ScanDetail> scanDetails = null;
+        while (state.keepRunning()) {
+            mWifiNative.getInformationElementCache().clear();
+            scanDetails = mWifiNative.convertNativeScanResults(IFACE_NAME, mNativeScanResults);
+        }
+        assertEquals(mNumBssids, scanDetails.size());
+    }
+
+    /**
+     * Conversion of a whole scan of APs whose IEs didn't change since the previous scan, i.e.
+     * with only hits in the {@link InformationElementCache}.
+     */
+    @Test
+    public void convertUnchangedNativeScanResults() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        List<ScanDetail> scanDetails = null;
+        while (state.keepRunning()) {
+            scanDetails = mWifiNative.convertNativeScanResults(IFACE_NAME, mNativeScanResults);
+        }
+        assertEquals(mNumBssids, scanDetails.size());
+    }
+}
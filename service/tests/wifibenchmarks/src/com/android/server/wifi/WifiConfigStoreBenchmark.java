@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi;
+
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.net.wifi.WifiConfiguration;
+import android.os.Process;
+import android.os.UserHandle;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Benchmarks for {@link WifiConfigStore} reads and writes of the saved networks, in each
+ * {@link WifiConfigStore.StorageMode}.
+ *
+ * The store files are real files in the cache directory of the benchmark app, one op is a forced
+ * write or a full read of the shared store.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class WifiConfigStoreBenchmark {
+    private static final int[] NETWORK_COUNTS = {10, 100, 1000};
+    private static final String CREATOR_NAME = "com.android.server.wifi.benchmarks";
+
+    @Rule public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public int mNumNetworks;
+
+    @Parameterized.Parameter(1)
+    public @WifiConfigStore.StorageMode int mStorageMode;
+
+    private File mStoreDir;
+    private WifiConfigStore mWifiConfigStore;
+    private NetworkListSharedStoreData mNetworkListStoreData;
+    private List<WifiConfiguration> mConfigs;
+
+    @Parameterized.Parameters(name = "networks={0},mode={1}")
+    public static Collection<Object[]> data() {
+        List<Object[]> data = new ArrayList<>();
+        for (int numNetworks : NETWORK_COUNTS) {
+            data.add(new Object[] {numNetworks, WifiConfigStore.STORAGE_MODE_SINGLE_FILE});
+            data.add(new Object[] {numNetworks, WifiConfigStore.STORAGE_MODE_SEGMENTED_XML});
+            data.add(new Object[] {numNetworks, WifiConfigStore.STORAGE_MODE_SEGMENTED_BINARY});
+        }
+        return data;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mStoreDir = new File(InstrumentationRegistry.getInstrumentation().getTargetContext()
+                .getCacheDir(), "WifiConfigStoreBenchmark");
+        deleteRecursively(mStoreDir);
+        mStoreDir.mkdirs();
+
+        Context context = mock(Context.class, withSettings().stubOnly());
+        PackageManager packageManager = mock(PackageManager.class, withSettings().stubOnly());
+        when(context.getPackageManager()).thenReturn(packageManager);
+        when(packageManager.getNameForUid(anyInt())).thenReturn(CREATOR_NAME);
+
+        WifiConfigStore.StoreFile storeFile = new WifiConfigStore.StoreFile(
+                new File(mStoreDir, "WifiConfigStore.xml"),
+                WifiConfigStore.STORE_FILE_SHARED_GENERAL, UserHandle.ALL, null);
+        mWifiConfigStore = new WifiConfigStore(context, null, new Clock(),
+                mock(WifiMetrics.class, withSettings().stubOnly()), List.of(storeFile));
+        mWifiConfigStore.setStorageMode(mStorageMode);
+        mNetworkListStoreData = new NetworkListSharedStoreData(context);
+        mWifiConfigStore.registerStoreData(mNetworkListStoreData);
+
+        mConfigs = new ArrayList<>();
+        for (int i = 0; i < mNumNetworks; i++) {
+            mConfigs.add(generatePskNetwork(i));
+        }
+        mNetworkListStoreData.setConfigurations(mConfigs);
+        mWifiConfigStore.write(true);
+    }
+
+    @After
+    public void tearDown() {
+        deleteRecursively(mStoreDir);
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static WifiConfiguration generatePskNetwork(int index) {
+        WifiConfiguration config = new WifiConfiguration();
+        config.SSID = "\"network" + index + "\"";
+        config.setSecurityParams(WifiConfiguration.SECURITY_TYPE_PSK);
+        config.preSharedKey = "\"password" + index + "\"";
+        config.networkId = index;
+        config.creatorUid = Process.SYSTEM_UID;
+        config.creatorName = CREATOR_NAME;
+        return config;
+    }
+
+    /**
+     * Writing the store after the status of one network changed, e.g after a connection.
+     */
+    @Test
+    public void writeOneNetworkChanged() throws Exception {
+        WifiConfiguration.NetworkSelectionStatus status =
+                mConfigs.get(0).getNetworkSelectionStatus();
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            status.setHasEverConnected(!status.hasEverConnected());
+            mWifiConfigStore.write(true);
+        }
+    }
+
+    /**
+     * Writing the store when none of the networks changed, e.g because another module asked for
+     * the write.
+     */
+    @Test
+    public void writeUnchanged() throws Exception {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mWifiConfigStore.write(true);
+        }
+    }
+
+    /**
+     * Reading the store, as done at boot.
+     */
+    @Test
+    public void read() throws Exception {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mWifiConfigStore.read();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.net.wifi.WifiConfiguration;
+import android.os.Process;
+import android.util.Xml;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import com.android.internal.util.FastXmlSerializer;
+import com.android.server.wifi.util.BinaryXmlPullParser;
+import com.android.server.wifi.util.BinaryXmlSerializer;
+import com.android.server.wifi.util.XmlUtil;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Benchmarks for the parsing of the saved networks of {@link WifiConfigStore} at boot, with
+ * {@link XmlUtil}.
+ *
+ * One op is the parsing of the network list section of an in-memory store of 1000 networks, so
+ * that the results don't include any file I/O.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class XmlUtilBenchmark {
+    private static final int NUM_NETWORKS = 1000;
+    private static final String CREATOR_NAME = "com.android.server.wifi.benchmarks";
+    private static final String DOCUMENT_HEADER = "WifiConfigStoreData";
+
+    @Rule public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public boolean mBinary;
+
+    private NetworkListSharedStoreData mNetworkListStoreData;
+    private byte[] mData;
+
+    @Parameterized.Parameters(name = "binary={0}")
+    public static Collection<Object[]> data() {
+        return Arrays.asList(new Object[][] {{false}, {true}});
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = mock(Context.class, withSettings().stubOnly());
+        PackageManager packageManager = mock(PackageManager.class, withSettings().stubOnly());
+        when(context.getPackageManager()).thenReturn(packageManager);
+        when(packageManager.getNameForUid(anyInt())).thenReturn(CREATOR_NAME);
+        mNetworkListStoreData = new NetworkListSharedStoreData(context);
+
+        List<WifiConfiguration> configs = new ArrayList<>();
+        for (int i = 0; i < NUM_NETWORKS; i++) {
+            configs.add(generatePskNetwork(i));
+        }
+        mNetworkListStoreData.setConfigurations(configs);
+
+        XmlSerializer out = mBinary ? new BinaryXmlSerializer() : new FastXmlSerializer();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        out.setOutput(outputStream, StandardCharsets.UTF_8.name());
+        XmlUtil.writeDocumentStart(out, DOCUMENT_HEADER);
+        XmlUtil.writeNextSectionStart(out, mNetworkListStoreData.getName());
+        mNetworkListStoreData.serializeData(out, null);
+        XmlUtil.writeNextSectionEnd(out, mNetworkListStoreData.getName());
+        XmlUtil.writeDocumentEnd(out, DOCUMENT_HEADER);
+        mData = outputStream.toByteArray();
+    }
+
+    private static WifiConfiguration generatePskNetwork(int index) {
+        WifiConfiguration config = new WifiConfiguration();
+        config.SSID = "\"network" + index + "\"";
+        config.setSecurityParams(WifiConfiguration.SECURITY_TYPE_PSK);
+        config.preSharedKey = "\"password" + index + "\"";
+        config.networkId = index;
+        config.creatorUid = Process.SYSTEM_UID;
+        config.creatorName = CREATOR_NAME;
+        return config;
+    }
+
+    private XmlPullParser gotoNetworkListSection() throws XmlPullParserException, IOException {
+        XmlPullParser in = mBinary ? new BinaryXmlPullParser() : Xml.newPullParser();
+        in.setInput(new ByteArrayInputStream(mData), StandardCharsets.UTF_8.name());
+        XmlUtil.gotoDocumentStart(in, DOCUMENT_HEADER);
+        XmlUtil.gotoNextSectionWithName(in, mNetworkListStoreData.getName(), in.getDepth());
+        return in;
+    }
+
+    /**
+     * Parsing of the network list into {@link WifiConfiguration}s, as done at boot.
+     */
+    @Test
+    public void parseNetworkList() throws Exception {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            XmlPullParser in = gotoNetworkListSection();
+            mNetworkListStoreData.deserializeData(in, in.getDepth(),
+                    WifiConfigStore.ENCRYPT_CREDENTIALS_CONFIG_STORE_DATA_VERSION, null);
+        }
+        assertEquals(NUM_NETWORKS, mNetworkListStoreData.getConfigurations().size());
+    }
+
+    /**
+     * Reading all the values of the network list as boxed objects with
+     * {@link XmlUtil#readCurrentValue(XmlPullParser, String[])}, without building any
+     * configuration. Baseline for the cost of generic value decoding.
+     */
+    @Test
+    public void readAllValuesBoxed() throws Exception {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            XmlPullParser in = gotoNetworkListSection();
+            readAllValues(in, in.getDepth());
+        }
+    }
+
+    private static void readAllValues(XmlPullParser in, int depth)
+            throws XmlPullParserException, IOException {
+        while (!XmlUtil.isNextSectionEnd(in, depth)) {
+            if (in.getAttributeValue(null, "name") != null) {
+                XmlUtil.readCurrentValue(in, new String[1]);
+            } else {
+                readAllValues(in, in.getDepth());
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi.aware;
+
+import static org.junit.Assert.assertEquals;
+
+import android.net.wifi.aware.TlvBufferUtils;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Benchmarks for the encoding and decoding of Aware TLVs with {@link TlvBufferUtils}.
+ *
+ * One op is the parsing or the building of a match filter of {@link #NUM_ELEMENTS} elements, as
+ * received with each discovery match.
+ */
+@LargeTest
+public class TlvBufferUtilsBenchmark {
+    private static final int NUM_ELEMENTS = 16;
+    private static final int ELEMENT_LENGTH = 8;
+
+    @Rule public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    private final byte[] mValue = new byte[ELEMENT_LENGTH];
+    private byte[] mMatchFilter;
+
+    @Before
+    public void setUp() {
+        for (int i = 0; i < ELEMENT_LENGTH; i++) {
+            mValue[i] = (byte) i;
+        }
+        TlvBufferUtils.TlvConstructor tlvc = new TlvBufferUtils.TlvConstructor(0, 1);
+        tlvc.allocate(NUM_ELEMENTS * (ELEMENT_LENGTH + 1));
+        for (int i = 0; i < NUM_ELEMENTS; i++) {
+            tlvc.putByteArray(0, mValue);
+        }
+        mMatchFilter = tlvc.getArray();
+    }
+
+    /**
+     * Parsing with {@link TlvBufferUtils.TlvIterable}, which allocates an element and its value
+     * for each TLV.
+     */
+    @Test
+    public void parseWithIterable() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        int numElements = 0;
+        while (state.keepRunning()) {
+            numElements = 0;
+            for (TlvBufferUtils.TlvElement tlve : new TlvBufferUtils.TlvIterable(0, 1,
+                    mMatchFilter)) {
+                numElements += tlve.getRawData().length > 0 ? 1 : 0;
+            }
+        }
+        assertEquals(NUM_ELEMENTS, numElements);
+    }
+
+    /**
+     * Parsing in place with a reused {@link TlvBufferUtils.TlvReader}.
+     */
+    @Test
+    public void parseWithReader() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        TlvBufferUtils.TlvReader tlvr = new TlvBufferUtils.TlvReader(0, 1);
+        int numElements = 0;
+        while (state.keepRunning()) {
+            numElements = 0;
+            tlvr.reset(mMatchFilter);
+            while (tlvr.next()) {
+                numElements += tlvr.getLength() > 0 ? 1 : 0;
+            }
+        }
+        assertEquals(NUM_ELEMENTS, numElements);
+    }
+
+    /**
+     * Building with a {@link TlvBufferUtils.TlvConstructor}, which allocates its array.
+     */
+    @Test
+    public void buildWithConstructor() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            TlvBufferUtils.TlvConstructor tlvc = new TlvBufferUtils.TlvConstructor(0, 1);
+            tlvc.allocate(NUM_ELEMENTS * (ELEMENT_LENGTH + 1));
+            for (int i = 0; i < NUM_ELEMENTS; i++) {
+                tlvc.putByteArray(0, mValue);
+            }
+            tlvc.getArray();
+        }
+    }
+
+    /**
+     * Building into a reused buffer with a {@link TlvBufferUtils.TlvWriter}.
+     */
+    @Test
+    public void buildWithWriter() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        ByteBuffer buffer = ByteBuffer.allocate(NUM_ELEMENTS * (ELEMENT_LENGTH + 1));
+        TlvBufferUtils.TlvWriter tlvw = new TlvBufferUtils.TlvWriter(0, 1);
+        tlvw.setByteOrder(ByteOrder.BIG_ENDIAN);
+        while (state.keepRunning()) {
+            buffer.clear();
+            tlvw.wrap(buffer);
+            for (int i = 0; i < NUM_ELEMENTS; i++) {
+                tlvw.putByteArray(0, mValue);
+            }
+        }
+        assertEquals(mMatchFilter.length, buffer.position());
+    }
+}
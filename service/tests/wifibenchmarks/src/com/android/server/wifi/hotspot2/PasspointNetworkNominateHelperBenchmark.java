@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.hotspot2;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiConfiguration;
+import android.util.LocalLog;
+import android.util.Pair;
+
+import androidx.benchmark.BenchmarkState;
+import androidx.benchmark.junit4.BenchmarkRule;
+import androidx.test.filters.LargeTest;
+
+import com.android.server.wifi.NetworkUpdateResult;
+import com.android.server.wifi.ScanDetail;
+import com.android.server.wifi.ScanFixtures;
+import com.android.server.wifi.WifiCarrierInfoManager;
+import com.android.server.wifi.WifiConfigManager;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Benchmarks for {@link PasspointNetworkNominateHelper}.
+ *
+ * One op is the nomination over a scan of |numBssids| BSSIDs, of which one in six is a
+ * Passpoint AP (see {@link ScanFixtures#AP_TYPE_PASSPOINT}). Provider matching is stubbed to
+ * match every Passpoint AP with one of {@link #NUM_PROVIDERS} home providers, so the numbers
+ * cover the filtering, grouping and config creation done by the helper.
+ */
+@LargeTest
+@RunWith(Parameterized.class)
+public class PasspointNetworkNominateHelperBenchmark {
+    private static final int NUM_PROVIDERS = 4;
+
+    @Rule public BenchmarkRule mBenchmarkRule = new BenchmarkRule();
+
+    @Parameterized.Parameter(0)
+    public int mNumBssids;
+
+    private PasspointNetworkNominateHelper mNominateHelper;
+    private List<ScanDetail> mScanDetails;
+
+    @Parameterized.Parameters(name = "bssids={0}")
+    public static Collection<Object[]> data() {
+        return ScanFixtures.bssidCounts();
+    }
+
+    private static WifiConfiguration createProviderConfig(int index) {
+        WifiConfiguration config = new WifiConfiguration();
+        config.FQDN = "bench" + index + ".example.com";
+        config.providerFriendlyName = "Benchmark provider " + index;
+        config.setSecurityParams(WifiConfiguration.SECURITY_TYPE_PASSPOINT_R1_R2);
+        return config;
+    }
+
+    @Before
+    public void setUp() {
+        List<Pair<PasspointProvider, PasspointMatch>> matches = new ArrayList<>();
+        for (int i = 0; i < NUM_PROVIDERS; i++) {
+            final int index = i;
+            PasspointProvider provider = mock(PasspointProvider.class, withSettings().stubOnly());
+            when(provider.getWifiConfig()).thenAnswer(invocation -> createProviderConfig(index));
+            matches.add(Pair.create(provider, PasspointMatch.HomeProvider));
+        }
+
+        PasspointManager passpointManager =
+                mock(PasspointManager.class, withSettings().stubOnly());
+        when(passpointManager.isProvidersListEmpty()).thenReturn(false);
+        when(passpointManager.isWifiPasspointEnabled()).thenReturn(true);
+        when(passpointManager.matchProvider(any(ScanResult.class))).thenAnswer(invocation -> {
+            ScanResult scanResult = invocation.getArgument(0);
+            int index = Math.floorMod(scanResult.BSSID.hashCode(), NUM_PROVIDERS);
+            return Collections.singletonList(matches.get(index));
+        });
+
+        WifiConfiguration savedConfig = createProviderConfig(0);
+        WifiConfigManager wifiConfigManager =
+                mock(WifiConfigManager.class, withSettings().stubOnly());
+        when(wifiConfigManager.addOrUpdateNetwork(any(), anyInt(), any(), anyBoolean()))
+                .thenReturn(new NetworkUpdateResult(0));
+        when(wifiConfigManager.getConfiguredNetwork(anyString())).thenReturn(null);
+        when(wifiConfigManager.getConfiguredNetwork(anyInt())).thenReturn(savedConfig);
+
+        mNominateHelper = new PasspointNetworkNominateHelper(passpointManager, wifiConfigManager,
+                new LocalLog(512), mock(WifiCarrierInfoManager.class, withSettings().stubOnly()));
+        mScanDetails = ScanFixtures.toScanDetails(ScanFixtures.generateAps(mNumBssids));
+    }
+
+    /**
+     * Nominating the Passpoint candidates, as done by the saved network nominator.
+     */
+    @Test
+    public void getPasspointNetworkCandidates() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mNominateHelper.getPasspointNetworkCandidates(mScanDetails, false);
+        }
+    }
+
+    /**
+     * Updating the configs of the matched providers, as done on every scan result.
+     */
+    @Test
+    public void updatePasspointConfig() {
+        final BenchmarkState state = mBenchmarkRule.getState();
+        while (state.keepRunning()) {
+            mNominateHelper.updatePasspointConfig(mScanDetails);
+        }
+    }
+}
@@ -1061,6 +1061,42 @@ public class ClientModeImplTest extends WifiBaseTest {
     @Test
     public void testConnect() throws Exception {
         connect(null);
+        verify(mWifiNative, never()).provisionNetworks(any(), any());
+    }
+
+    /**
+     * Verify that the other candidates of the last network selection are provisioned in
+     * supplicant once connected, when the supplicant network pool is enabled.
+     */
+    @Test
+    public void testConnectProvisionsCandidateNetworks() throws Exception {
+        mResources.setInteger(R.integer.config_wifiSupplicantNetworkPoolSize, 2);
+        WifiConfiguration candidateConfig = WifiConfigurationTestUtil.createPskNetwork();
+        candidateConfig.networkId = FRAMEWORK_NETWORK_ID + 1;
+        candidateConfig.getNetworkSelectionStatus().setCandidateSecurityParams(
+                candidateConfig.getDefaultSecurityParams());
+        when(mWifiNetworkSelector.getLastCandidateNetworkIds(2)).thenReturn(
+                Arrays.asList(FRAMEWORK_NETWORK_ID, candidateConfig.networkId));
+        when(mWifiConfigManager.getConfiguredNetworkWithoutMasking(candidateConfig.networkId))
+                .thenReturn(candidateConfig);
+        when(mWifiNative.isProvisionNetworksSupported()).thenReturn(true);
+        when(mWifiNative.provisionNetworks(any(), any())).thenReturn(true);
+
+        connect();
+        verify(mWifiNative).provisionNetworks(WIFI_IFACE_NAME, Arrays.asList(candidateConfig));
+    }
+
+    /**
+     * Verify that the candidates are not provisioned when the supplicant HAL does not support
+     * it, even if the supplicant network pool is enabled.
+     */
+    @Test
+    public void testConnectDoesNotProvisionCandidateNetworksIfUnsupported() throws Exception {
+        mResources.setInteger(R.integer.config_wifiSupplicantNetworkPoolSize, 2);
+        when(mWifiNative.isProvisionNetworksSupported()).thenReturn(false);
+
+        connect();
+        verify(mWifiNative, never()).provisionNetworks(any(), any());
     }
 
     private void connect() throws Exception {
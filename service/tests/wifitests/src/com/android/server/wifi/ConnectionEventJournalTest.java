@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import android.net.wifi.SupplicantState;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+
+/**
+ * Unit tests for {@link ConnectionEventJournal}.
+ */
+@SmallTest
+public class ConnectionEventJournalTest extends WifiBaseTest {
+    private static final String TEST_IFACE = "wlan0";
+    private static final String TEST_BSSID = "12:34:56:78:9a:bc";
+    private static final int CAPACITY = 4;
+
+    @Mock private Clock mClock;
+    private File mFile;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(1234L);
+        when(mClock.getWallClockMillis()).thenReturn(1_600_000_000_000L);
+        mFile = File.createTempFile("ConnectionEventJournalTest", null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        mFile.delete();
+    }
+
+    private ConnectionEventJournal openJournal(int capacity) {
+        ConnectionEventJournal journal = new ConnectionEventJournal(mClock, mFile, capacity);
+        journal.open();
+        return journal;
+    }
+
+    private static String dump(ConnectionEventJournal journal) {
+        StringWriter sw = new StringWriter();
+        journal.dump(new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    /**
+     * Verifies that the recorded events are decoded.
+     */
+    @Test
+    public void recordAndDecodeEvents() {
+        ConnectionEventJournal journal = openJournal(CAPACITY);
+        assertTrue(journal.isEnabled());
+        journal.recordConnectionEvent(TEST_IFACE, WifiDiagnostics.CONNECTION_EVENT_STARTED);
+        journal.recordSupplicantStateChange(TEST_IFACE, SupplicantState.ASSOCIATING, 3,
+                TEST_BSSID);
+        journal.recordMonitorEvent(TEST_IFACE, WifiMonitor.NETWORK_DISCONNECTION_EVENT, 15, 1,
+                TEST_BSSID);
+        assertEquals(3, journal.size());
+
+        String[] lines = dump(journal).split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[1].contains("(1234ms) wlan0 CONNECTION_EVENT STARTED"));
+        assertTrue(lines[2].contains("SUPPLICANT_STATE ASSOCIATING networkId=3 bssid="
+                + TEST_BSSID));
+        assertTrue(lines[3].contains("NETWORK_DISCONNECTION_EVENT arg1=15 arg2=1 bssid="
+                + TEST_BSSID));
+    }
+
+    /**
+     * Verifies that the oldest records are overwritten once the journal is full.
+     */
+    @Test
+    public void overwritesOldestRecords() {
+        ConnectionEventJournal journal = openJournal(CAPACITY);
+        for (int i = 0; i < CAPACITY + 2; i++) {
+            journal.recordMonitorEvent(TEST_IFACE, WifiMonitor.SCAN_RESULTS_EVENT, i, 0, null);
+        }
+        assertEquals(CAPACITY, journal.size());
+        String dump = dump(journal);
+        assertFalse(dump.contains("arg1=1 "));
+        assertTrue(dump.contains("arg1=2 "));
+        assertTrue(dump.contains("arg1=5 "));
+        assertFalse(dump.contains("bssid="));
+    }
+
+    /**
+     * Verifies that the records are kept when the journal is opened again, e.g after a crash,
+     * and that new records are appended.
+     */
+    @Test
+    public void recordsAreKeptAcrossReopen() {
+        ConnectionEventJournal journal = openJournal(CAPACITY);
+        journal.recordConnectionEvent(TEST_IFACE, WifiDiagnostics.CONNECTION_EVENT_STARTED);
+
+        journal = openJournal(CAPACITY);
+        assertEquals(1, journal.size());
+        journal.recordConnectionEvent(TEST_IFACE, WifiDiagnostics.CONNECTION_EVENT_FAILED);
+        String dump = dump(journal);
+        assertTrue(dump.indexOf("STARTED") < dump.indexOf("FAILED"));
+
+        // The file is reset if its format doesn't match.
+        journal = openJournal(CAPACITY + 1);
+        assertEquals(0, journal.size());
+    }
+
+    /**
+     * Verifies that a record which was not completely written is skipped.
+     */
+    @Test
+    public void tornRecordIsSkipped() throws Exception {
+        ConnectionEventJournal journal = openJournal(CAPACITY);
+        journal.recordConnectionEvent(TEST_IFACE, WifiDiagnostics.CONNECTION_EVENT_STARTED);
+        journal.recordConnectionEvent(TEST_IFACE, WifiDiagnostics.CONNECTION_EVENT_TIMEOUT);
+        try (RandomAccessFile raf = new RandomAccessFile(mFile, "rw")) {
+            // Clear the sequence number of the second record.
+            raf.seek(ConnectionEventJournal.HEADER_SIZE_BYTES
+                    + ConnectionEventJournal.RECORD_SIZE_BYTES);
+            raf.writeLong(0);
+        }
+
+        String dump = dump(openJournal(CAPACITY));
+        assertTrue(dump.contains("STARTED"));
+        assertFalse(dump.contains("TIMEOUT"));
+    }
+
+    /**
+     * Verifies that the events are dropped if the file can't be opened.
+     */
+    @Test
+    public void disabledIfFileCannotBeOpened() {
+        ConnectionEventJournal journal = new ConnectionEventJournal(mClock,
+                new File(mFile, "invalid"), CAPACITY);
+        journal.open();
+        assertFalse(journal.isEnabled());
+        journal.recordConnectionEvent(TEST_IFACE, WifiDiagnostics.CONNECTION_EVENT_STARTED);
+        assertEquals(0, journal.size());
+        assertTrue(dump(journal).contains("disabled"));
+    }
+
+    /**
+     * Verifies that the events recorded before the journal is opened are dropped.
+     */
+    @Test
+    public void eventsBeforeOpenAreDropped() {
+        ConnectionEventJournal journal = new ConnectionEventJournal(mClock, mFile, CAPACITY);
+        assertFalse(journal.isEnabled());
+        journal.recordConnectionEvent(TEST_IFACE, WifiDiagnostics.CONNECTION_EVENT_STARTED);
+        assertEquals(0, journal.size());
+
+        journal.open();
+        assertTrue(journal.isEnabled());
+        assertEquals(0, journal.size());
+    }
+
+    /**
+     * Verifies that clearing the journal removes the records from the file.
+     */
+    @Test
+    public void clearRemovesRecordsFromFile() {
+        ConnectionEventJournal journal = openJournal(CAPACITY);
+        journal.recordConnectionEvent(TEST_IFACE, WifiDiagnostics.CONNECTION_EVENT_STARTED);
+        journal.clear();
+        assertEquals(0, journal.size());
+        assertEquals(0, openJournal(CAPACITY).size());
+
+        // A journal which isn't open deletes the file.
+        new ConnectionEventJournal(mClock, mFile, CAPACITY).clear();
+        assertFalse(mFile.exists());
+    }
+
+    @Test
+    public void parseBssid() {
+        assertEquals(0x123456789abcL, ConnectionEventJournal.parseBssid(TEST_BSSID));
+        assertEquals(-1L, ConnectionEventJournal.parseBssid(null));
+        assertEquals(-1L, ConnectionEventJournal.parseBssid("any"));
+        assertEquals(-1L, ConnectionEventJournal.parseBssid("12-34-56-78-9a-bc"));
+        assertEquals(-1L, ConnectionEventJournal.parseBssid("12:34:56:78:9a:bz"));
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import android.net.wifi.ScanResult.InformationElement;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.server.wifi.hotspot2.NetworkDetail;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Unit tests for {@link InformationElementCache}.
+ */
+@SmallTest
+public class InformationElementCacheTest extends WifiBaseTest {
+    private static final String TEST_BSSID_1 = "12:34:56:78:9a:bc";
+    private static final String TEST_BSSID_2 = "12:34:56:78:9a:bd";
+    private static final String TEST_BSSID_3 = "12:34:56:78:9a:be";
+    private static final byte[] TEST_RAW_IES = {0x00, 0x04, 't', 'e', 's', 't'};
+    private static final int TEST_CAPABILITY = 0x0011;
+    private static final int TEST_FREQUENCY = 5180;
+    private static final String TEST_CAPABILITIES = "[WPA2-PSK-CCMP][RSN-PSK-CCMP][ESS]";
+
+    private final InformationElement[] mInformationElements = new InformationElement[0];
+    private final NetworkDetail mNetworkDetail = mock(NetworkDetail.class);
+    private InformationElementCache mCache;
+
+    @Before
+    public void setUp() throws Exception {
+        mCache = new InformationElementCache(2);
+    }
+
+    private InformationElementCache.Entry putEntry(String bssid) {
+        return mCache.put(bssid, TEST_RAW_IES, TEST_CAPABILITY, TEST_FREQUENCY, false,
+                mInformationElements, mNetworkDetail, TEST_CAPABILITIES);
+    }
+
+    /**
+     * Verifies that an entry is reused for the same raw information elements, capability bits
+     * and frequency, even if the raw information elements are a different array.
+     */
+    @Test
+    public void getEntryWithSameInformationElements() {
+        InformationElementCache.Entry entry = putEntry(TEST_BSSID_1);
+
+        InformationElementCache.Entry cachedEntry = mCache.get(TEST_BSSID_1,
+                TEST_RAW_IES.clone(), TEST_CAPABILITY, TEST_FREQUENCY, false);
+        assertSame(entry, cachedEntry);
+        assertSame(mInformationElements, cachedEntry.informationElements);
+        assertSame(mNetworkDetail, cachedEntry.networkDetail);
+        assertEquals(TEST_CAPABILITIES, cachedEntry.capabilities);
+        assertEquals(1, mCache.getHitCount());
+        assertEquals(0, mCache.getMissCount());
+    }
+
+    /**
+     * Verifies that an entry isn't reused once any of its inputs changes.
+     */
+    @Test
+    public void getEntryWithChangedInputs() {
+        putEntry(TEST_BSSID_1);
+        byte[] changedRawIes = TEST_RAW_IES.clone();
+        changedRawIes[changedRawIes.length - 1]++;
+
+        assertNull(mCache.get(TEST_BSSID_2, TEST_RAW_IES, TEST_CAPABILITY, TEST_FREQUENCY,
+                false));
+        assertNull(mCache.get(TEST_BSSID_1, changedRawIes, TEST_CAPABILITY, TEST_FREQUENCY,
+                false));
+        assertNull(mCache.get(TEST_BSSID_1, null, TEST_CAPABILITY, TEST_FREQUENCY, false));
+        assertNull(mCache.get(TEST_BSSID_1, TEST_RAW_IES, TEST_CAPABILITY + 1, TEST_FREQUENCY,
+                false));
+        assertNull(mCache.get(TEST_BSSID_1, TEST_RAW_IES, TEST_CAPABILITY, TEST_FREQUENCY + 20,
+                false));
+        assertNull(mCache.get(TEST_BSSID_1, TEST_RAW_IES, TEST_CAPABILITY, TEST_FREQUENCY,
+                true));
+        assertEquals(0, mCache.getHitCount());
+        assertEquals(6, mCache.getMissCount());
+    }
+
+    /**
+     * Verifies that the least recently used BSSID is dropped when the cache is full.
+     */
+    @Test
+    public void leastRecentlyUsedEntryEvicted() {
+        putEntry(TEST_BSSID_1);
+        putEntry(TEST_BSSID_2);
+        assertNotNull(mCache.get(TEST_BSSID_1, TEST_RAW_IES, TEST_CAPABILITY, TEST_FREQUENCY,
+                false));
+
+        putEntry(TEST_BSSID_3);
+
+        assertEquals(2, mCache.size());
+        assertNull(mCache.get(TEST_BSSID_2, TEST_RAW_IES, TEST_CAPABILITY, TEST_FREQUENCY,
+                false));
+        assertNotNull(mCache.get(TEST_BSSID_1, TEST_RAW_IES, TEST_CAPABILITY, TEST_FREQUENCY,
+                false));
+        assertNotNull(mCache.get(TEST_BSSID_3, TEST_RAW_IES, TEST_CAPABILITY, TEST_FREQUENCY,
+                false));
+    }
+
+    /**
+     * Verifies that putting an entry for a BSSID replaces its previous entry.
+     */
+    @Test
+    public void putReplacesEntry() {
+        putEntry(TEST_BSSID_1);
+        byte[] changedRawIes = TEST_RAW_IES.clone();
+        changedRawIes[0]++;
+        mCache.put(TEST_BSSID_1, changedRawIes, TEST_CAPABILITY, TEST_FREQUENCY, false,
+                mInformationElements, mNetworkDetail, TEST_CAPABILITIES);
+
+        assertEquals(1, mCache.size());
+        assertNull(mCache.get(TEST_BSSID_1, TEST_RAW_IES, TEST_CAPABILITY, TEST_FREQUENCY,
+                false));
+        assertNotNull(mCache.get(TEST_BSSID_1, changedRawIes, TEST_CAPABILITY, TEST_FREQUENCY,
+                false));
+    }
+
+    /**
+     * Verifies that clear() removes all the entries.
+     */
+    @Test
+    public void clearRemovesEntries() {
+        putEntry(TEST_BSSID_1);
+        mCache.clear();
+
+        assertEquals(0, mCache.size());
+        assertNull(mCache.get(TEST_BSSID_1, TEST_RAW_IES, TEST_CAPABILITY, TEST_FREQUENCY,
+                false));
+    }
+
+    /**
+     * Verifies that the dump includes the hit rate.
+     */
+    @Test
+    public void dumpHitRate() {
+        putEntry(TEST_BSSID_1);
+        for (int i = 0; i < 3; i++) {
+            mCache.get(TEST_BSSID_1, TEST_RAW_IES, TEST_CAPABILITY, TEST_FREQUENCY, false);
+        }
+        mCache.get(TEST_BSSID_2, TEST_RAW_IES, TEST_CAPABILITY, TEST_FREQUENCY, false);
+
+        StringWriter sw = new StringWriter();
+        mCache.dump(new PrintWriter(sw));
+        String dump = sw.toString();
+        assertTrue(dump, dump.contains("entries: 1/2"));
+        assertTrue(dump, dump.contains("hits: 3, misses: 1, hit rate: 75%"));
+    }
+
+    /**
+     * Verifies that the max size must be positive.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidMaxSize() {
+        new InformationElementCache(0);
+    }
+}
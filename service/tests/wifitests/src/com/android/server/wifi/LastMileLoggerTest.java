@@ -18,6 +18,7 @@ package com.android.server.wifi;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyString;
 import static org.mockito.Matchers.contains;
 import static org.mockito.Mockito.verify;
@@ -52,6 +53,7 @@ public class LastMileLoggerTest extends WifiBaseTest {
 
     @Mock WifiInjector mWifiInjector;
     @Spy FakeWifiLog mLog;
+    @Mock ConnectionEventJournal mConnectionEventJournal;
 
     @Before
     public void setUp() throws Exception {
@@ -85,6 +87,19 @@ public class LastMileLoggerTest extends WifiBaseTest {
         assertEquals("1", readFileAsString(mTraceEnableFile));
     }
 
+    @Test
+    public void connectionEventsAreRecordedToJournal() throws Exception {
+        when(mWifiInjector.getConnectionEventJournal()).thenReturn(mConnectionEventJournal);
+        mLastMileLogger = new LastMileLogger(mWifiInjector, mTraceDataFile.getPath(),
+                mTraceEnableFile.getPath(),  mTraceReleaseFile.getPath());
+        mLastMileLogger.reportConnectionEvent(WLAN0, WifiDiagnostics.CONNECTION_EVENT_STARTED);
+        verify(mConnectionEventJournal).recordConnectionEvent(
+                WLAN0, WifiDiagnostics.CONNECTION_EVENT_STARTED);
+
+        mLastMileLogger.dump(new PrintWriter(new StringWriter()));
+        verify(mConnectionEventJournal).dump(any());
+    }
+
     @Test
     public void connectionEventStartedDoesNotCrashIfReleaseFileIsMissing() throws Exception {
         mTraceReleaseFile.delete();
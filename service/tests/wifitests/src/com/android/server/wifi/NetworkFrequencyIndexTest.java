@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+import android.util.SparseLongArray;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.server.wifi.NetworkFrequencyIndex.FrequencySet;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Unit tests for {@link NetworkFrequencyIndex}.
+ */
+@SmallTest
+public class NetworkFrequencyIndexTest extends WifiBaseTest {
+    private static final String TEST_SSID_1 = "\"ssid1\"";
+    private static final String TEST_SSID_2 = "\"ssid2\"";
+    private static final int MAX_FREQUENCIES_PER_NETWORK = 3;
+
+    @Mock private Clock mClock;
+    private NetworkFrequencyIndex mIndex;
+    private long mNowMillis = 100_000L;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mClock.getElapsedSinceBootMillis()).thenAnswer(invocation -> mNowMillis);
+        mIndex = new NetworkFrequencyIndex(mClock, MAX_FREQUENCIES_PER_NETWORK);
+    }
+
+    /**
+     * Verifies that the frequencies of a network are returned most recent first, and that the
+     * least recent frequency is dropped once the network has too many.
+     */
+    @Test
+    public void addFrequencyKeepsMostRecentFirst() {
+        mIndex.addFrequency(TEST_SSID_1, 2412);
+        mIndex.addFrequency(TEST_SSID_1, 5180);
+        mIndex.addFrequency(TEST_SSID_1, 2437);
+        assertArrayEquals(new int[] {2437, 5180, 2412},
+                mIndex.getFrequencies(TEST_SSID_1, Long.MAX_VALUE));
+
+        // Adding an existing frequency moves it to the front.
+        mIndex.addFrequency(TEST_SSID_1, 2412);
+        assertArrayEquals(new int[] {2412, 2437, 5180},
+                mIndex.getFrequencies(TEST_SSID_1, Long.MAX_VALUE));
+
+        // Adding a new frequency drops the least recent one.
+        mIndex.addFrequency(TEST_SSID_1, 5745);
+        assertArrayEquals(new int[] {5745, 2412, 2437},
+                mIndex.getFrequencies(TEST_SSID_1, Long.MAX_VALUE));
+        assertEquals(0, mIndex.getFrequencies(TEST_SSID_2, Long.MAX_VALUE).length);
+        assertEquals(0, mIndex.getFrequencies(null, Long.MAX_VALUE).length);
+    }
+
+    /**
+     * Verifies that frequencies older than the requested age are filtered out.
+     */
+    @Test
+    public void getFrequenciesFiltersByAge() {
+        mIndex.addFrequency(TEST_SSID_1, 2412);
+        mNowMillis += 1000;
+        mIndex.addFrequency(TEST_SSID_1, 5180);
+        mNowMillis += 500;
+
+        assertArrayEquals(new int[] {5180, 2412}, mIndex.getFrequencies(TEST_SSID_1, 1500));
+        assertArrayEquals(new int[] {5180}, mIndex.getFrequencies(TEST_SSID_1, 1499));
+        assertEquals(0, mIndex.getFrequencies(TEST_SSID_1, 499).length);
+    }
+
+    /**
+     * Verifies that setFrequencies() replaces the frequencies of a network, and that the
+     * frequencies without a timestamp are only returned for long ages.
+     */
+    @Test
+    public void setFrequencies() {
+        mIndex.addFrequency(TEST_SSID_1, 2412);
+        SparseLongArray timestamps = new SparseLongArray();
+        timestamps.put(5180, mNowMillis);
+
+        mIndex.setFrequencies(TEST_SSID_1, Arrays.asList(5180, 2437, 5180, 5745, 2462),
+                timestamps);
+        assertArrayEquals(new int[] {5180, 2437, 5745},
+                mIndex.getFrequencies(TEST_SSID_1, Long.MAX_VALUE));
+        assertArrayEquals(new int[] {5180}, mIndex.getFrequencies(TEST_SSID_1, 1000));
+
+        mIndex.setFrequencies(TEST_SSID_1, Collections.emptyList(), timestamps);
+        assertEquals(0, mIndex.size());
+    }
+
+    /**
+     * Verifies that networks can be removed.
+     */
+    @Test
+    public void removeNetworkAndClear() {
+        mIndex.addFrequency(TEST_SSID_1, 2412);
+        mIndex.addFrequency(TEST_SSID_2, 5180);
+        mIndex.addFrequency("", 5180);
+        mIndex.addFrequency(null, 5180);
+        assertEquals(2, mIndex.size());
+
+        mIndex.removeNetwork(TEST_SSID_1);
+        assertEquals(0, mIndex.getFrequencies(TEST_SSID_1, Long.MAX_VALUE).length);
+        assertEquals(1, mIndex.size());
+
+        mIndex.clear();
+        assertEquals(0, mIndex.size());
+    }
+
+    /**
+     * Verifies that the frequencies of several networks are merged without duplicates, until
+     * the set has the max number of frequencies.
+     */
+    @Test
+    public void addFrequenciesToSet() {
+        mIndex.addFrequency(TEST_SSID_1, 2412);
+        mIndex.addFrequency(TEST_SSID_1, 5180);
+        mIndex.addFrequency(TEST_SSID_2, 5180);
+        mIndex.addFrequency(TEST_SSID_2, 2437);
+
+        FrequencySet frequencySet = new FrequencySet();
+        assertTrue(mIndex.addFrequenciesTo(frequencySet, TEST_SSID_1, Long.MAX_VALUE, 0));
+        assertTrue(mIndex.addFrequenciesTo(frequencySet, TEST_SSID_2, Long.MAX_VALUE, 0));
+        assertArrayEquals(new int[] {5180, 2412, 2437}, frequencySet.toArray());
+
+        frequencySet = new FrequencySet();
+        assertTrue(mIndex.addFrequenciesTo(frequencySet, TEST_SSID_1, Long.MAX_VALUE, 2));
+        assertFalse(mIndex.addFrequenciesTo(frequencySet, TEST_SSID_2, Long.MAX_VALUE, 2));
+        assertArrayEquals(new int[] {5180, 2412}, frequencySet.toArray());
+    }
+
+    /**
+     * Verifies that a frequency set keeps the insertion order and grows as needed.
+     */
+    @Test
+    public void frequencySet() {
+        FrequencySet frequencySet = new FrequencySet();
+        for (int i = 0; i < 40; i++) {
+            assertTrue(frequencySet.add(5000 + i * 5));
+        }
+        assertFalse(frequencySet.add(5000));
+        assertEquals(40, frequencySet.size());
+        assertTrue(frequencySet.contains(5195));
+        assertFalse(frequencySet.contains(2412));
+        int[] frequencies = frequencySet.toArray();
+        for (int i = 0; i < 40; i++) {
+            assertEquals(5000 + i * 5, frequencies[i]);
+        }
+    }
+
+    /**
+     * Verifies that the index keeps at least one frequency per network.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidMaxFrequencies() {
+        new NetworkFrequencyIndex(mClock, 0);
+    }
+}
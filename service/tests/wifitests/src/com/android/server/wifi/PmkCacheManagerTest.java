@@ -16,30 +16,36 @@
 
 package com.android.server.wifi;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import android.net.MacAddress;
+import android.net.wifi.WifiConfiguration;
 import android.os.Handler;
 import android.text.TextUtils;
 
 import androidx.test.filters.SmallTest;
 
-import com.android.server.wifi.util.NativeUtil;
+import com.android.server.wifi.util.WifiConfigStoreEncryptionUtil;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -55,6 +61,7 @@ public class PmkCacheManagerTest extends WifiBaseTest {
 
     @Mock private Clock mClock;
     @Mock private Handler mHandler;
+    @Mock private WifiConfigManager mWifiConfigManager;
 
     private PmkCacheManager mPmkCacheManager;
 
@@ -89,7 +96,7 @@ public class PmkCacheManagerTest extends WifiBaseTest {
     public void testGet() throws Exception {
         preparePmkCache();
 
-        List<ArrayList<Byte>> pmkDataList;
+        List<byte[]> pmkDataList;
 
         pmkDataList = mPmkCacheManager.get(0);
         assertEquals(1, pmkDataList.size());
@@ -107,7 +114,7 @@ public class PmkCacheManagerTest extends WifiBaseTest {
         preparePmkCache();
 
         mPmkCacheManager.remove(1);
-        List<ArrayList<Byte>> pmkDataList = mPmkCacheManager.get(1);
+        List<byte[]> pmkDataList = mPmkCacheManager.get(1);
         assertNull(pmkDataList);
 
         // Remove non-existent cache should not crash.
@@ -118,7 +125,7 @@ public class PmkCacheManagerTest extends WifiBaseTest {
     public void testRemoveIfNeeded() throws Exception {
         preparePmkCache();
 
-        List<ArrayList<Byte>> pmkDataList;
+        List<byte[]> pmkDataList;
 
         // MAC address is not changed, do nothing.
         pmkDataList = mPmkCacheManager.get(1);
@@ -172,7 +179,7 @@ public class PmkCacheManagerTest extends WifiBaseTest {
     @Test
     public void testPmkCacheExpiration() throws Exception {
 
-        List<ArrayList<Byte>> pmkDataList;
+        List<byte[]> pmkDataList;
 
         mPmkCacheManager.add(TEST_MAC_ADDRESS, 0, 1500, generatePmkDataFromString("Cache"));
 
@@ -203,8 +210,134 @@ public class PmkCacheManagerTest extends WifiBaseTest {
 
     }
 
-    private ArrayList<Byte> generatePmkDataFromString(String dataStr) {
-        if (TextUtils.isEmpty(dataStr)) return new ArrayList<Byte>();
-        return NativeUtil.byteArrayToArrayList(dataStr.getBytes());
+    /**
+     * Verify that the PMK caches are stored by config key with a wall clock expiration time,
+     * and restored to the network with the same config key.
+     */
+    @Test
+    public void testPmkCachePersistence() throws Exception {
+        final long elapsedTimeMillis = 100 * 1000L;
+        final long wallClockMillis = 1_700_000_000_000L;
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(elapsedTimeMillis);
+        when(mClock.getWallClockMillis()).thenReturn(wallClockMillis);
+        WifiConfiguration config = WifiConfigurationTestUtil.createEapNetwork();
+        config.networkId = 1;
+        WifiConfiguration ephemeralConfig = WifiConfigurationTestUtil.createEapNetwork();
+        ephemeralConfig.networkId = 2;
+        ephemeralConfig.ephemeral = true;
+        when(mWifiConfigManager.getConfiguredNetwork(1)).thenReturn(config);
+        when(mWifiConfigManager.getConfiguredNetwork(2)).thenReturn(ephemeralConfig);
+        PmkCacheStoreData.DataSource dataSource = enablePersistence(mPmkCacheManager);
+        assertFalse(dataSource.hasNewDataToSerialize());
+
+        mPmkCacheManager.add(TEST_MAC_ADDRESS, 1, 1000, generatePmkDataFromString("HelloWorld"));
+        mPmkCacheManager.add(TEST_MAC_ADDRESS, 2, 1000, generatePmkDataFromString("Ephemeral"));
+        assertTrue(dataSource.hasNewDataToSerialize());
+        List<PmkCacheStoreData.Entry> entries = dataSource.toSerialize();
+        assertFalse(dataSource.hasNewDataToSerialize());
+        assertEquals(1, entries.size());
+        PmkCacheStoreData.Entry entry = entries.get(0);
+        assertEquals(config.getProfileKey(), entry.configKey);
+        assertEquals(TEST_MAC_ADDRESS, entry.macAddress);
+        assertEquals(wallClockMillis + (1000 - 100) * 1000L, entry.expirationTimeMillis);
+        assertArrayEquals(generatePmkDataFromString("HelloWorld"), entry.data);
+
+        // Restore after a reboot, 50s after boot and 200s later, to another network ID.
+        PmkCacheManager restoredPmkCacheManager = new PmkCacheManager(mClock, mHandler);
+        PmkCacheStoreData.DataSource restoredDataSource =
+                enablePersistence(restoredPmkCacheManager);
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(50 * 1000L);
+        when(mClock.getWallClockMillis()).thenReturn(wallClockMillis + 200 * 1000L);
+        when(mWifiConfigManager.getConfiguredNetwork(1)).thenReturn(null);
+        when(mWifiConfigManager.getConfiguredNetwork(5)).thenReturn(config);
+        restoredDataSource.reset();
+        restoredDataSource.fromDeserialized(entries);
+        verify(mHandler).postDelayed(
+                /* private listener */ any(),
+                eq(PmkCacheManager.PMK_CACHE_EXPIRATION_ALARM_TAG),
+                eq((1000 - 100 - 200) * 1000L));
+
+        assertNull(restoredPmkCacheManager.get(1));
+        List<byte[]> pmkDataList = restoredPmkCacheManager.get(5);
+        assertEquals(1, pmkDataList.size());
+        assertArrayEquals(generatePmkDataFromString("HelloWorld"), pmkDataList.get(0));
+
+        // The restored PMK cache expires at the same wall clock time.
+        when(mClock.getElapsedSinceBootMillis()).thenReturn((50 + 700) * 1000L);
+        restoredPmkCacheManager.updatePmkCacheExpiration();
+        assertNull(restoredPmkCacheManager.get(5));
+    }
+
+    /**
+     * Verify that an expired PMK cache is not restored.
+     */
+    @Test
+    public void testExpiredPmkCacheIsNotRestored() throws Exception {
+        when(mClock.getWallClockMillis()).thenReturn(1_700_000_000_000L);
+        WifiConfiguration config = WifiConfigurationTestUtil.createEapNetwork();
+        when(mWifiConfigManager.getConfiguredNetwork(1)).thenReturn(config);
+        PmkCacheStoreData.DataSource dataSource = enablePersistence(mPmkCacheManager);
+
+        dataSource.fromDeserialized(Arrays.asList(new PmkCacheStoreData.Entry(
+                config.getProfileKey(), TEST_MAC_ADDRESS, 1_700_000_000_000L,
+                generatePmkDataFromString("HelloWorld"))));
+        assertNull(mPmkCacheManager.get(1));
+        assertTrue(dataSource.toSerialize().isEmpty());
+    }
+
+    /**
+     * Verify that the restored PMK caches of a removed network are removed, and not stored
+     * again.
+     */
+    @Test
+    public void testRestoredPmkCacheOfRemovedNetwork() throws Exception {
+        final long wallClockMillis = 1_700_000_000_000L;
+        when(mClock.getWallClockMillis()).thenReturn(wallClockMillis);
+        WifiConfiguration config = WifiConfigurationTestUtil.createEapNetwork();
+        config.networkId = 1;
+        WifiConfiguration otherConfig = WifiConfigurationTestUtil.createEapNetwork();
+        otherConfig.networkId = 2;
+        when(mWifiConfigManager.getConfiguredNetwork(config.getProfileKey())).thenReturn(config);
+        when(mWifiConfigManager.getConfiguredNetwork(otherConfig.getProfileKey()))
+                .thenReturn(otherConfig);
+        PmkCacheStoreData.DataSource dataSource = enablePersistence(mPmkCacheManager);
+        dataSource.fromDeserialized(Arrays.asList(
+                new PmkCacheStoreData.Entry(config.getProfileKey(), TEST_MAC_ADDRESS,
+                        wallClockMillis + 1000 * 1000L, generatePmkDataFromString("Removed")),
+                new PmkCacheStoreData.Entry(otherConfig.getProfileKey(), TEST_MAC_ADDRESS,
+                        wallClockMillis + 1000 * 1000L, generatePmkDataFromString("Kept"))));
+        assertEquals(2, dataSource.toSerialize().size());
+
+        // The network is removed before it had a chance to use its restored PMK cache.
+        when(mWifiConfigManager.getConfiguredNetwork(config.getProfileKey())).thenReturn(null);
+        List<PmkCacheStoreData.Entry> entries = dataSource.toSerialize();
+        assertEquals(1, entries.size());
+        assertEquals(otherConfig.getProfileKey(), entries.get(0).configKey);
+
+        assertTrue(mPmkCacheManager.remove(config.networkId));
+        assertTrue(dataSource.hasNewDataToSerialize());
+        when(mWifiConfigManager.getConfiguredNetwork(1)).thenReturn(config);
+        assertNull(mPmkCacheManager.get(1));
+
+        // The restored PMK cache of the other network is still restored.
+        when(mWifiConfigManager.getConfiguredNetwork(2)).thenReturn(otherConfig);
+        List<byte[]> pmkDataList = mPmkCacheManager.get(2);
+        assertEquals(1, pmkDataList.size());
+        assertArrayEquals(generatePmkDataFromString("Kept"), pmkDataList.get(0));
+    }
+
+    private PmkCacheStoreData.DataSource enablePersistence(PmkCacheManager pmkCacheManager) {
+        WifiConfigStore wifiConfigStore = mock(WifiConfigStore.class);
+        pmkCacheManager.enablePersistence(wifiConfigStore, mWifiConfigManager,
+                mock(WifiConfigStoreEncryptionUtil.class));
+        ArgumentCaptor<WifiConfigStore.StoreData> storeDataCaptor =
+                ArgumentCaptor.forClass(WifiConfigStore.StoreData.class);
+        verify(wifiConfigStore).registerStoreData(storeDataCaptor.capture());
+        return ((PmkCacheStoreData) storeDataCaptor.getValue()).getDataSource();
+    }
+
+    private byte[] generatePmkDataFromString(String dataStr) {
+        if (TextUtils.isEmpty(dataStr)) return new byte[0];
+        return dataStr.getBytes();
     }
 }
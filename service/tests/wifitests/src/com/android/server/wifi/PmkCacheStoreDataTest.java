@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.net.MacAddress;
+import android.util.Xml;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.internal.util.FastXmlSerializer;
+import com.android.server.wifi.util.EncryptedData;
+import com.android.server.wifi.util.WifiConfigStoreEncryptionUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Unit tests for {@link com.android.server.wifi.PmkCacheStoreData}.
+ */
+@SmallTest
+public class PmkCacheStoreDataTest extends WifiBaseTest {
+    private static final String TEST_CONFIG_KEY = "\"TestSsid\"WPA_EAP";
+    private static final MacAddress TEST_MAC_ADDRESS =
+            MacAddress.fromString("aa:bb:cc:dd:ee:ff");
+    private static final long TEST_EXPIRATION_TIME_MILLIS = 1_700_000_000_000L;
+    private static final byte[] TEST_PMK_DATA = "deadbeef".getBytes();
+    private static final byte[] TEST_ENCRYPTED_PMK_DATA = "encrypted".getBytes();
+    private static final byte[] TEST_IV = "iv".getBytes();
+
+    private @Mock PmkCacheStoreData.DataSource mDataSource;
+    private @Mock WifiConfigStoreEncryptionUtil mEncryptionUtil;
+    private PmkCacheStoreData mPmkCacheStoreData;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mEncryptionUtil.encrypt(TEST_PMK_DATA))
+                .thenReturn(new EncryptedData(TEST_ENCRYPTED_PMK_DATA, TEST_IV));
+        when(mEncryptionUtil.decrypt(any())).thenAnswer(invocation -> {
+            EncryptedData encryptedData = invocation.getArgument(0);
+            return Arrays.equals(TEST_ENCRYPTED_PMK_DATA, encryptedData.getEncryptedData())
+                    && Arrays.equals(TEST_IV, encryptedData.getIv()) ? TEST_PMK_DATA : null;
+        });
+        mPmkCacheStoreData = new PmkCacheStoreData(mDataSource, mEncryptionUtil);
+    }
+
+    /**
+     * Helper function for serializing configuration data to a XML block.
+     */
+    private byte[] serializeData() throws Exception {
+        final XmlSerializer out = new FastXmlSerializer();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        out.setOutput(outputStream, StandardCharsets.UTF_8.name());
+        // The PMK caches don't depend on the encryption of the store file.
+        mPmkCacheStoreData.serializeData(out, null);
+        out.flush();
+        return outputStream.toByteArray();
+    }
+
+    /**
+     * Helper function for parsing configuration data from a XML block.
+     */
+    private List<PmkCacheStoreData.Entry> deserializeData(byte[] data) throws Exception {
+        final XmlPullParser in = Xml.newPullParser();
+        final ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
+        in.setInput(inputStream, StandardCharsets.UTF_8.name());
+        mPmkCacheStoreData.deserializeData(in, in.getDepth(),
+                WifiConfigStore.ENCRYPT_CREDENTIALS_CONFIG_STORE_DATA_VERSION, null);
+        ArgumentCaptor<List<PmkCacheStoreData.Entry>> entriesCaptor =
+                ArgumentCaptor.forClass(List.class);
+        verify(mDataSource).fromDeserialized(entriesCaptor.capture());
+        return entriesCaptor.getValue();
+    }
+
+    /**
+     * Verify store file Id.
+     */
+    @Test
+    public void verifyStoreFileId() throws Exception {
+        assertEquals(WifiConfigStore.STORE_FILE_USER_GENERAL,
+                mPmkCacheStoreData.getStoreFileId());
+    }
+
+    /**
+     * Serialize/Deserialize a PMK cache, and verify that it is stored encrypted.
+     */
+    @Test
+    public void serializeDeserializePmkCache() throws Exception {
+        when(mDataSource.toSerialize()).thenReturn(Arrays.asList(new PmkCacheStoreData.Entry(
+                TEST_CONFIG_KEY, TEST_MAC_ADDRESS, TEST_EXPIRATION_TIME_MILLIS, TEST_PMK_DATA)));
+        byte[] data = serializeData();
+        assertFalse(new String(data, StandardCharsets.UTF_8).contains(
+                new String(TEST_PMK_DATA, StandardCharsets.UTF_8)));
+
+        List<PmkCacheStoreData.Entry> entries = deserializeData(data);
+        assertEquals(1, entries.size());
+        PmkCacheStoreData.Entry entry = entries.get(0);
+        assertEquals(TEST_CONFIG_KEY, entry.configKey);
+        assertEquals(TEST_MAC_ADDRESS, entry.macAddress);
+        assertEquals(TEST_EXPIRATION_TIME_MILLIS, entry.expirationTimeMillis);
+        assertArrayEquals(TEST_PMK_DATA, entry.data);
+    }
+
+    /**
+     * Verify that a PMK cache which can't be encrypted is not stored.
+     */
+    @Test
+    public void serializeSkipsPmkCacheOnEncryptionFailure() throws Exception {
+        when(mEncryptionUtil.encrypt(any())).thenReturn(null);
+        when(mDataSource.toSerialize()).thenReturn(Arrays.asList(new PmkCacheStoreData.Entry(
+                TEST_CONFIG_KEY, TEST_MAC_ADDRESS, TEST_EXPIRATION_TIME_MILLIS, TEST_PMK_DATA)));
+        assertEquals(0, serializeData().length);
+    }
+
+    /**
+     * Verify that a PMK cache which can't be decrypted is skipped.
+     */
+    @Test
+    public void deserializeSkipsPmkCacheOnDecryptionFailure() throws Exception {
+        when(mDataSource.toSerialize()).thenReturn(Arrays.asList(new PmkCacheStoreData.Entry(
+                TEST_CONFIG_KEY, TEST_MAC_ADDRESS, TEST_EXPIRATION_TIME_MILLIS, TEST_PMK_DATA)));
+        byte[] data = serializeData();
+        when(mEncryptionUtil.decrypt(any())).thenReturn(null);
+        assertTrue(deserializeData(data).isEmpty());
+    }
+
+    /**
+     * Verify that an empty read doesn't update the data source.
+     */
+    @Test
+    public void deserializeEmptyData() throws Exception {
+        mPmkCacheStoreData.deserializeData(null, 0,
+                WifiConfigStore.ENCRYPT_CREDENTIALS_CONFIG_STORE_DATA_VERSION,
+                mock(WifiConfigStoreEncryptionUtil.class));
+        verify(mDataSource, never()).fromDeserialized(any());
+    }
+
+    /**
+     * Verify that the data source is consulted for new data and reset.
+     */
+    @Test
+    public void verifyDataSourceCalls() throws Exception {
+        when(mDataSource.hasNewDataToSerialize()).thenReturn(true);
+        assertTrue(mPmkCacheStoreData.hasNewDataToSerialize());
+        mPmkCacheStoreData.resetData();
+        verify(mDataSource).reset();
+        when(mDataSource.toSerialize()).thenReturn(Collections.emptyList());
+        assertEquals(0, serializeData().length);
+    }
+}
@@ -93,6 +93,112 @@ public class ScanDetailCacheTest {
         assertEquals(s4, mScanDetailCache.getScanDetail(TEST_BSSID_4));
     }
 
+    /**
+     * Verify that the least recently put entries are evicted once the cache reaches its max size.
+     */
+    @Test
+    public void testTrimEvictsOldestEntries() {
+        for (int i = 0; i < TEST_MAX_SIZE; i++) {
+            setClockTime(1000 + i);
+            mScanDetailCache.put(createScanDetailForNetwork(mWifiConfiguration, bssid(i),
+                    TEST_RSSI, TEST_FREQUENCY));
+        }
+        // Putting BSSID 0 again makes BSSID 1 the oldest entry.
+        setClockTime(2000);
+        mScanDetailCache.put(createScanDetailForNetwork(mWifiConfiguration, bssid(0),
+                TEST_RSSI, TEST_FREQUENCY));
+        assertEquals(TEST_MAX_SIZE, mScanDetailCache.size());
+        assertEquals(0, mScanDetailCache.getNumEvictions());
+
+        setClockTime(3000);
+        ScanDetail newest = createScanDetailForNetwork(mWifiConfiguration, bssid(TEST_MAX_SIZE),
+                TEST_RSSI, TEST_FREQUENCY);
+        mScanDetailCache.put(newest);
+
+        assertEquals(TEST_TRIM_SIZE + 1, mScanDetailCache.size());
+        assertEquals(TEST_MAX_SIZE - TEST_TRIM_SIZE, mScanDetailCache.getNumEvictions());
+        assertNotNull(mScanDetailCache.getScanDetail(bssid(0)));
+        assertNotNull(mScanDetailCache.getScanDetail(bssid(TEST_MAX_SIZE - 1)));
+        assertNull(mScanDetailCache.getScanDetail(bssid(1)));
+        assertEquals(newest.getScanResult(), mScanDetailCache.getMostRecentScanResult());
+        assertEquals(2, mScanDetailCache.getNumHits());
+        assertEquals(1, mScanDetailCache.getNumMisses());
+    }
+
+    /**
+     * Verify that the most recent scan result is looked up again once it is replaced by an older
+     * one or removed.
+     */
+    @Test
+    public void testGetMostRecentScanResultAfterReplaceAndRemove() {
+        setClockTime(1000);
+        ScanDetail s1 = createScanDetailForNetwork(mWifiConfiguration, TEST_BSSID_1,
+                TEST_RSSI, TEST_FREQUENCY);
+        setClockTime(2000);
+        ScanDetail s2 = createScanDetailForNetwork(mWifiConfiguration, TEST_BSSID_2,
+                TEST_RSSI, TEST_FREQUENCY);
+        setClockTime(3000);
+        ScanDetail s3 = createScanDetailForNetwork(mWifiConfiguration, TEST_BSSID_3,
+                TEST_RSSI, TEST_FREQUENCY);
+        mScanDetailCache.put(s1);
+        mScanDetailCache.put(s2);
+        mScanDetailCache.put(s3);
+        assertEquals(s3.getScanResult(), mScanDetailCache.getMostRecentScanResult());
+
+        // Replace s3 with an older scan result for the same BSSID.
+        setClockTime(500);
+        ScanDetail oldS3 = createScanDetailForNetwork(mWifiConfiguration, TEST_BSSID_3,
+                TEST_RSSI, TEST_FREQUENCY);
+        mScanDetailCache.put(oldS3);
+        assertEquals(s2.getScanResult(), mScanDetailCache.getMostRecentScanResult());
+
+        // Update s1 in place, as done on RSSI polls.
+        s1.getScanResult().seen = 4000;
+        mScanDetailCache.put(s1);
+        assertEquals(s1.getScanResult(), mScanDetailCache.getMostRecentScanResult());
+
+        mScanDetailCache.remove(TEST_BSSID_1);
+        assertEquals(s2.getScanResult(), mScanDetailCache.getMostRecentScanResult());
+        mScanDetailCache.remove(TEST_BSSID_2);
+        mScanDetailCache.remove(TEST_BSSID_3);
+        assertNull(mScanDetailCache.getMostRecentScanResult());
+    }
+
+    /**
+     * Verify that putting the most recent BSSID again with a newer scan result keeps it as the
+     * most recent entry without looking through the other entries.
+     */
+    @Test
+    public void testGetMostRecentScanResultAfterRefreshingMostRecent() {
+        setClockTime(1000);
+        ScanDetail s1 = createScanDetailForNetwork(mWifiConfiguration, TEST_BSSID_1,
+                TEST_RSSI, TEST_FREQUENCY);
+        setClockTime(2000);
+        ScanDetail s2 = createScanDetailForNetwork(mWifiConfiguration, TEST_BSSID_2,
+                TEST_RSSI, TEST_FREQUENCY);
+        mScanDetailCache.put(s1);
+        mScanDetailCache.put(s2);
+        assertEquals(s2.getScanResult(), mScanDetailCache.getMostRecentScanResult());
+
+        // Make s1 look newer without putting it again, so that a full lookup would pick it.
+        s1.getScanResult().seen = 5000;
+
+        setClockTime(3000);
+        ScanDetail newS2 = createScanDetailForNetwork(mWifiConfiguration, TEST_BSSID_2,
+                TEST_RSSI, TEST_FREQUENCY);
+        mScanDetailCache.put(newS2);
+        assertEquals(newS2.getScanResult(), mScanDetailCache.getMostRecentScanResult());
+
+        // Update the most recent entry in place, as done on RSSI polls.
+        newS2.getScanResult().seen = 4000;
+        mScanDetailCache.put(newS2);
+        assertEquals(newS2.getScanResult(), mScanDetailCache.getMostRecentScanResult());
+    }
+
+    private static String bssid(int i) {
+        return String.format("0a:08:5c:67:8a:%02x", i);
+    }
+
     private void setClockTime(long millis) {
         when(mClock.getUptimeSinceBootMillis()).thenReturn(millis);
         when(mClock.getWallClockMillis()).thenReturn(millis);
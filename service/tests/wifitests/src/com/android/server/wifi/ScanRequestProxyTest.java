@@ -1149,17 +1149,34 @@ public class ScanRequestProxyTest extends WifiBaseTest {
         verify(mScanResultsCallback, never()).onScanResultsAvailable();
     }
 
-    /** Test that modifying the returned scan results list does not change the original. */
+    /** Test that the returned scan results list cannot be modified. */
     @Test
-    public void testGetScanResults_modifyReturnedList_doesNotChangeOriginal() {
+    public void testGetScanResults_returnedListIsUnmodifiable() {
         // initialize scan results
         testStartScanSuccess();
 
         List<ScanResult> scanResults = mScanRequestProxy.getScanResults();
         int scanResultsOriginalSize = scanResults.size();
 
-        scanResults.add(new ScanResult());
+        assertThrows(UnsupportedOperationException.class,
+                () -> scanResults.add(new ScanResult()));
 
         assertThat(mScanRequestProxy.getScanResults()).hasSize(scanResultsOriginalSize);
     }
+
+    /** Test that the same snapshot is returned until new scan results are received. */
+    @Test
+    public void testGetScanResults_returnsSnapshotUntilNextScan() {
+        testStartScanSuccess();
+        mGlobalScanListenerArgumentCaptor.getValue().onResults(mTestScanDatas1);
+
+        List<ScanResult> scanResults = mScanRequestProxy.getScanResults();
+        assertSame(scanResults, mScanRequestProxy.getScanResults());
+
+        mGlobalScanListenerArgumentCaptor.getValue().onResults(mTestScanDatas2);
+        assertNotSame(scanResults, mScanRequestProxy.getScanResults());
+        ScanTestUtil.assertScanResultsEqualsAnyOrder(
+                mTestScanDatas2[0].getResults(),
+                mScanRequestProxy.getScanResults().stream().toArray(ScanResult[]::new));
+    }
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi;
+
+import static com.android.server.wifi.ScanResultStore.SECURITY_OPEN_ONLY;
+import static com.android.server.wifi.ScanResultStore.SECURITY_OWE_ONLY;
+import static com.android.server.wifi.ScanResultStore.SECURITY_WPA2_ENTERPRISE_ONLY;
+import static com.android.server.wifi.ScanResultStore.SECURITY_WPA2_PERSONAL_ONLY;
+import static com.android.server.wifi.ScanResultStore.SECURITY_WPA2_WPA3_PERSONAL_TRANSITION;
+import static com.android.server.wifi.ScanResultStore.SECURITY_WPA3_ENTERPRISE_ONLY;
+import static com.android.server.wifi.ScanResultStore.SECURITY_WPA3_PERSONAL_ONLY;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiSsid;
+
+import androidx.test.filters.SmallTest;
+
+import org.junit.Test;
+
+import java.util.List;
+
+/**
+ * Unit tests for {@link com.android.server.wifi.ScanResultStore}.
+ */
+@SmallTest
+public class ScanResultStoreTest extends WifiBaseTest {
+    private static final String TEST_SSID_1 = "ssid1";
+    private static final String TEST_SSID_2 = "ssid2";
+    private static final String TEST_BSSID_1 = "aa:bb:cc:dd:ee:01";
+    private static final String TEST_BSSID_2 = "aa:bb:cc:dd:ee:02";
+    private static final String TEST_BSSID_3 = "aa:bb:cc:dd:ee:03";
+
+    private static ScanResult createScanResult(String ssid, String bssid, String capabilities) {
+        ScanResult scanResult = new ScanResult();
+        scanResult.SSID = ssid;
+        scanResult.setWifiSsid(WifiSsid.fromUtf8Text(ssid));
+        scanResult.BSSID = bssid;
+        scanResult.capabilities = capabilities;
+        return scanResult;
+    }
+
+    private static String quoted(String ssid) {
+        return "\"" + ssid + "\"";
+    }
+
+    /**
+     * Verify that the empty store contains nothing.
+     */
+    @Test
+    public void testEmptyStore() {
+        ScanResultStore store = ScanResultStore.empty();
+        assertEquals(0, store.size());
+        assertTrue(store.getScanResults().isEmpty());
+        assertNull(store.getScanResult(TEST_BSSID_1));
+        assertFalse(store.isNetworkInRange(quoted(TEST_SSID_1), SECURITY_OPEN_ONLY));
+    }
+
+    /**
+     * Verify lookups by BSSID, and that duplicate BSSIDs keep the last scan result.
+     */
+    @Test
+    public void testLookupByBssid() {
+        ScanResult first = createScanResult(TEST_SSID_1, TEST_BSSID_1, "[ESS]");
+        ScanResult second = createScanResult(TEST_SSID_2, TEST_BSSID_2, "[ESS]");
+        ScanResult duplicate = createScanResult(TEST_SSID_1, TEST_BSSID_1, "[WPA2-PSK-CCMP]");
+        ScanResultStore store = new ScanResultStore(
+                new ScanResult[] {first, second, duplicate});
+
+        assertEquals(2, store.size());
+        assertSame(duplicate, store.getScanResult(TEST_BSSID_1));
+        assertSame(second, store.getScanResult(TEST_BSSID_2));
+        assertNull(store.getScanResult(TEST_BSSID_3));
+        assertNull(store.getScanResult(null));
+        assertTrue(store.isNetworkInRange(quoted(TEST_SSID_1), SECURITY_WPA2_PERSONAL_ONLY));
+        assertFalse(store.isNetworkInRange(quoted(TEST_SSID_1), SECURITY_OPEN_ONLY));
+    }
+
+    /**
+     * Verify that the returned list is shared and cannot be modified.
+     */
+    @Test
+    public void testScanResultsListIsImmutable() {
+        ScanResultStore store = new ScanResultStore(new ScanResult[] {
+                createScanResult(TEST_SSID_1, TEST_BSSID_1, "[ESS]")});
+        List<ScanResult> scanResults = store.getScanResults();
+        assertSame(scanResults, store.getScanResults());
+        assertThrows(UnsupportedOperationException.class,
+                () -> scanResults.add(new ScanResult()));
+    }
+
+    /**
+     * Verify the personal security type index.
+     */
+    @Test
+    public void testPersonalNetworksInRange() {
+        ScanResultStore store = new ScanResultStore(new ScanResult[] {
+                createScanResult(TEST_SSID_1, TEST_BSSID_1, "[RSN-PSK-CCMP][ESS]"),
+                createScanResult(TEST_SSID_1, TEST_BSSID_2, "[RSN-SAE-CCMP][ESS]"),
+                createScanResult(TEST_SSID_2, TEST_BSSID_3, "[RSN-PSK+SAE-CCMP][ESS]")});
+
+        assertTrue(store.isNetworkInRange(quoted(TEST_SSID_1), SECURITY_WPA2_PERSONAL_ONLY));
+        assertTrue(store.isNetworkInRange(quoted(TEST_SSID_1), SECURITY_WPA3_PERSONAL_ONLY));
+        assertFalse(store.isNetworkInRange(quoted(TEST_SSID_1),
+                SECURITY_WPA2_WPA3_PERSONAL_TRANSITION));
+
+        assertFalse(store.isNetworkInRange(quoted(TEST_SSID_2), SECURITY_WPA2_PERSONAL_ONLY));
+        assertFalse(store.isNetworkInRange(quoted(TEST_SSID_2), SECURITY_WPA3_PERSONAL_ONLY));
+        assertTrue(store.isNetworkInRange(quoted(TEST_SSID_2),
+                SECURITY_WPA2_WPA3_PERSONAL_TRANSITION));
+
+        assertFalse(store.isNetworkInRange(null, SECURITY_WPA2_PERSONAL_ONLY));
+        assertFalse(store.isNetworkInRange(TEST_SSID_1, SECURITY_WPA2_PERSONAL_ONLY));
+    }
+
+    /**
+     * Verify the open and OWE security type index.
+     */
+    @Test
+    public void testOpenNetworksInRange() {
+        ScanResultStore store = new ScanResultStore(new ScanResult[] {
+                createScanResult(TEST_SSID_1, TEST_BSSID_1, "[ESS]"),
+                createScanResult(TEST_SSID_2, TEST_BSSID_2, "[RSN-OWE-CCMP][ESS]"),
+                createScanResult(TEST_SSID_2, TEST_BSSID_3,
+                        "[RSN-OWE_TRANSITION-CCMP][ESS]")});
+
+        assertTrue(store.isNetworkInRange(quoted(TEST_SSID_1), SECURITY_OPEN_ONLY));
+        assertFalse(store.isNetworkInRange(quoted(TEST_SSID_1), SECURITY_OWE_ONLY));
+        assertFalse(store.isNetworkInRange(quoted(TEST_SSID_2), SECURITY_OPEN_ONLY));
+        assertTrue(store.isNetworkInRange(quoted(TEST_SSID_2), SECURITY_OWE_ONLY));
+    }
+
+    /**
+     * Verify the enterprise security type index.
+     */
+    @Test
+    public void testEnterpriseNetworksInRange() {
+        ScanResultStore store = new ScanResultStore(new ScanResult[] {
+                createScanResult(TEST_SSID_1, TEST_BSSID_1, "[RSN-EAP/SHA1-CCMP][ESS]"),
+                createScanResult(TEST_SSID_2, TEST_BSSID_2,
+                        "[RSN-EAP/SHA256-CCMP][ESS][MFPR][MFPC]")});
+
+        assertTrue(store.isNetworkInRange(quoted(TEST_SSID_1), SECURITY_WPA2_ENTERPRISE_ONLY));
+        assertFalse(store.isNetworkInRange(quoted(TEST_SSID_1), SECURITY_WPA3_ENTERPRISE_ONLY));
+        assertFalse(store.isNetworkInRange(quoted(TEST_SSID_2), SECURITY_WPA2_ENTERPRISE_ONLY));
+        assertTrue(store.isNetworkInRange(quoted(TEST_SSID_2), SECURITY_WPA3_ENTERPRISE_ONLY));
+    }
+}
@@ -113,6 +113,7 @@ import com.android.server.wifi.MboOceController.BtmFrameData;
 import com.android.server.wifi.hotspot2.AnqpEvent;
 import com.android.server.wifi.hotspot2.IconEvent;
 import com.android.server.wifi.hotspot2.WnmData;
+import com.android.server.wifi.hotspot2.anqp.Constants;
 import com.android.server.wifi.util.NativeUtil;
 
 import org.junit.Before;
@@ -148,6 +149,8 @@ public class SupplicantStaIfaceHalAidlImplTest extends WifiBaseTest {
     private static final int SUPPLICANT_NETWORK_ID = 2;
     private static final String SUPPLICANT_SSID = NETWORK_ID_TO_SSID.get(SUPPLICANT_NETWORK_ID);
     private static final int ROAM_NETWORK_ID = 4;
+    private static final int PROVISIONED_NETWORK_ID = 6;
+    private static final int PROVISIONED_SUPPLICANT_NETWORK_ID = 7;
     private static final String BSSID = "fa:45:23:23:12:12";
     private static final String WLAN0_IFACE_NAME = "wlan0";
     private static final String WLAN1_IFACE_NAME = "wlan1";
@@ -186,7 +189,8 @@ public class SupplicantStaIfaceHalAidlImplTest extends WifiBaseTest {
         SupplicantStaNetworkHalAidlImpl mStaNetwork;
 
         SupplicantStaIfaceHalSpy() {
-            super(mContext, mWifiMonitor, mHandler, mClock, mWifiMetrics, mWifiGlobals);
+            super(mContext, mWifiMonitor, mHandler, mClock, mWifiMetrics, mWifiGlobals,
+                    mPmkCacheManager);
             mStaNetwork = mSupplicantStaNetworkMock;
         }
 
@@ -407,6 +411,94 @@ public class SupplicantStaIfaceHalAidlImplTest extends WifiBaseTest {
         verify(mISupplicantStaIfaceMock, never()).addNetwork();
     }
 
+    /**
+     * Tests that connectToNetwork switches to a network provisioned by provisionNetworks by
+     * selecting it, without removing and adding networks, and that the previous network stays
+     * provisioned.
+     */
+    @Test
+    public void testConnectToProvisionedNetworkDoesNotRemoveNetworks() throws Exception {
+        executeAndValidateInitializationSequence();
+        WifiConfiguration config = executeAndValidateConnectSequence(SUPPLICANT_NETWORK_ID, false);
+        SupplicantStaNetworkHalAidlImpl provisionedNetwork =
+                mock(SupplicantStaNetworkHalAidlImpl.class);
+        when(provisionedNetwork.getNetworkId()).thenReturn(PROVISIONED_SUPPLICANT_NETWORK_ID);
+        when(provisionedNetwork.saveWifiConfiguration(any())).thenReturn(true);
+        when(provisionedNetwork.select()).thenReturn(true);
+        mDut.setStaNetworkMockable(provisionedNetwork);
+        WifiConfiguration provisionedConfig = createProvisionedWifiConfiguration();
+
+        assertTrue(mDut.provisionNetworks(WLAN0_IFACE_NAME, Arrays.asList(provisionedConfig)));
+        verify(mISupplicantStaIfaceMock, times(2)).addNetwork();
+        verify(provisionedNetwork).saveWifiConfiguration(provisionedConfig);
+        verify(provisionedNetwork, never()).select();
+
+        reset(mISupplicantStaIfaceMock);
+        assertTrue(mDut.connectToNetwork(WLAN0_IFACE_NAME, provisionedConfig));
+        verify(provisionedNetwork, times(2)).saveWifiConfiguration(provisionedConfig);
+        verify(provisionedNetwork).select();
+        verify(mWifiMetrics).logSupplicantConnectSetupLatency(eq(true), anyInt());
+
+        // The previous network was kept provisioned.
+        assertTrue(mDut.connectToNetwork(WLAN0_IFACE_NAME, config));
+        verify(mSupplicantStaNetworkMock, times(2)).select();
+        verify(mWifiMetrics, times(2)).logSupplicantConnectSetupLatency(eq(true), anyInt());
+        verify(mISupplicantStaIfaceMock, never()).listNetworks();
+        verify(mISupplicantStaIfaceMock, never()).removeNetwork(anyInt());
+        verify(mISupplicantStaIfaceMock, never()).addNetwork();
+    }
+
+    /**
+     * Tests that provisionNetworks updates the networks which are already provisioned, and
+     * removes those which are no longer provided.
+     */
+    @Test
+    public void testProvisionNetworksUpdatesAndRemovesNetworks() throws Exception {
+        executeAndValidateInitializationSequence();
+        executeAndValidateConnectSequence(SUPPLICANT_NETWORK_ID, false);
+        SupplicantStaNetworkHalAidlImpl provisionedNetwork =
+                mock(SupplicantStaNetworkHalAidlImpl.class);
+        when(provisionedNetwork.getNetworkId()).thenReturn(PROVISIONED_SUPPLICANT_NETWORK_ID);
+        when(provisionedNetwork.saveWifiConfiguration(any())).thenReturn(true);
+        when(provisionedNetwork.setBssid(anyString())).thenReturn(true);
+        when(provisionedNetwork.select()).thenReturn(true);
+        mDut.setStaNetworkMockable(provisionedNetwork);
+        WifiConfiguration provisionedConfig = createProvisionedWifiConfiguration();
+        provisionedConfig.getNetworkSelectionStatus().setNetworkSelectionBSSID(BSSID);
+        assertTrue(mDut.provisionNetworks(WLAN0_IFACE_NAME, Arrays.asList(provisionedConfig)));
+
+        // The BSSID of a provisioned network is cleared when the new config has none.
+        reset(mISupplicantStaIfaceMock);
+        provisionedConfig.getNetworkSelectionStatus().setNetworkSelectionBSSID(null);
+        assertTrue(mDut.provisionNetworks(WLAN0_IFACE_NAME, Arrays.asList(provisionedConfig)));
+        verify(provisionedNetwork).setBssid(ClientModeImpl.SUPPLICANT_BSSID_ANY);
+        verify(provisionedNetwork, times(2)).saveWifiConfiguration(provisionedConfig);
+        verify(mISupplicantStaIfaceMock, never()).addNetwork();
+
+        assertTrue(mDut.provisionNetworks(WLAN0_IFACE_NAME, Collections.emptyList()));
+        verify(mISupplicantStaIfaceMock).removeNetwork(PROVISIONED_SUPPLICANT_NETWORK_ID);
+
+        // The network is no longer provisioned, so connecting to it adds it again.
+        setupMocksForConnectSequence(false);
+        assertTrue(mDut.connectToNetwork(WLAN0_IFACE_NAME, provisionedConfig));
+        verify(mISupplicantStaIfaceMock).listNetworks();
+        verify(mISupplicantStaIfaceMock).addNetwork();
+        verify(provisionedNetwork).select();
+        verify(mWifiMetrics, times(2)).logSupplicantConnectSetupLatency(eq(false), anyInt());
+    }
+
+    /**
+     * Tests that provisionNetworks skips the current network.
+     */
+    @Test
+    public void testProvisionNetworksSkipsCurrentNetwork() throws Exception {
+        executeAndValidateInitializationSequence();
+        WifiConfiguration config = executeAndValidateConnectSequence(SUPPLICANT_NETWORK_ID, false);
+        assertTrue(mDut.provisionNetworks(WLAN0_IFACE_NAME, Arrays.asList(config)));
+        verify(mISupplicantStaIfaceMock).addNetwork();
+        verify(mSupplicantStaNetworkMock).saveWifiConfiguration(any());
+    }
+
     /**
      * Tests connection to a specified network failure due to network add.
      */
@@ -840,6 +932,23 @@ public class SupplicantStaIfaceHalAidlImplTest extends WifiBaseTest {
                 anqpEventCaptor.getValue().getBssid());
     }
 
+    /**
+     * Tests that the ANQP elements received from supplicant only keep their payload when the
+     * ANQP cache is persisted.
+     */
+    @Test
+    public void testAnqpParserKeepsPayloadsOnlyWhenAnqpCacheIsPersisted() throws Exception {
+        // Domain name element with "test.com".
+        byte[] payload = new byte[] {8, 't', 'e', 's', 't', '.', 'c', 'o', 'm'};
+        assertNull(mDut.getAnqpParser().parse(Constants.ANQPElementType.ANQPDomName,
+                ByteBuffer.wrap(payload)).getPayload());
+
+        when(mWifiGlobals.isPasspointAnqpCachePersistenceEnabled()).thenReturn(true);
+        SupplicantStaIfaceHalAidlImpl dut = new SupplicantStaIfaceHalSpy();
+        assertArrayEquals(payload, dut.getAnqpParser().parse(
+                Constants.ANQPElementType.ANQPDomName, ByteBuffer.wrap(payload)).getPayload());
+    }
+
     /**
      * Tests the handling of Icon done callback.
      */
@@ -1689,7 +1798,7 @@ public class SupplicantStaIfaceHalAidlImplTest extends WifiBaseTest {
         config.getNetworkSelectionStatus().setCandidateSecurityParams(
                 SecurityParams.createSecurityParamsBySecurityType(
                         WifiConfiguration.SECURITY_TYPE_EAP));
-        ArrayList<Byte> pmkCacheData = NativeUtil.byteArrayToArrayList("deadbeef".getBytes());
+        byte[] pmkCacheData = "deadbeef".getBytes();
         setupMocksForPmkCache(pmkCacheData);
         setupMocksForConnectSequence(false);
 
@@ -1697,11 +1806,9 @@ public class SupplicantStaIfaceHalAidlImplTest extends WifiBaseTest {
         assertTrue(mDut.connectToNetwork(WLAN0_IFACE_NAME, config));
 
         verify(mPmkCacheManager).get(eq(testFrameworkNetworkId));
-        verify(mSupplicantStaNetworkMock).setPmkCache(eq(
-                NativeUtil.byteArrayFromArrayList(pmkCacheData)));
+        verify(mSupplicantStaNetworkMock).setPmkCache(eq(pmkCacheData));
         verify(mISupplicantStaIfaceCallback)
-                .onPmkCacheAdded(eq(PMK_CACHE_EXPIRATION_IN_SEC), eq(
-                        NativeUtil.byteArrayFromArrayList(pmkCacheData)));
+                .onPmkCacheAdded(eq(PMK_CACHE_EXPIRATION_IN_SEC), eq(pmkCacheData));
     }
 
     /**
@@ -1717,9 +1824,8 @@ public class SupplicantStaIfaceHalAidlImplTest extends WifiBaseTest {
                 SecurityParams.createSecurityParamsBySecurityType(
                         WifiConfiguration.SECURITY_TYPE_SAE));
 
-        ArrayList<Byte> pmkCacheData = NativeUtil.byteArrayToArrayList("deadbeef".getBytes());
-        byte[] cacheDataArr = NativeUtil.byteArrayFromArrayList(pmkCacheData);
-        setupMocksForPmkCache(pmkCacheData);
+        byte[] cacheDataArr = "deadbeef".getBytes();
+        setupMocksForPmkCache(cacheDataArr);
         setupMocksForConnectSequence(false);
 
         executeAndValidateInitializationSequence();
@@ -2279,6 +2385,16 @@ public class SupplicantStaIfaceHalAidlImplTest extends WifiBaseTest {
         return config;
     }
 
+    private WifiConfiguration createProvisionedWifiConfiguration() {
+        WifiConfiguration config = new WifiConfiguration();
+        config.SSID = "\"provisioned\"";
+        config.setSecurityParams(WifiConfiguration.SECURITY_TYPE_PSK);
+        config.networkId = PROVISIONED_NETWORK_ID;
+        config.getNetworkSelectionStatus().setCandidateSecurityParams(
+                config.getSecurityParams(WifiConfiguration.SECURITY_TYPE_PSK));
+        return config;
+    }
+
     private QosPolicyStatus createQosPolicyStatus(int policyId, int status) {
         QosPolicyStatus policyStatus = new QosPolicyStatus();
         policyStatus.policyId = (byte) policyId;
@@ -2607,17 +2723,16 @@ public class SupplicantStaIfaceHalAidlImplTest extends WifiBaseTest {
     }
 
     private void setupMocksForPmkCache() throws Exception {
-        ArrayList<Byte> pmkCacheData = NativeUtil.byteArrayToArrayList("deadbeef".getBytes());
-        setupMocksForPmkCache(pmkCacheData);
+        setupMocksForPmkCache("deadbeef".getBytes());
     }
 
-    private void setupMocksForPmkCache(ArrayList<Byte> pmkCacheData) throws Exception {
+    private void setupMocksForPmkCache(byte[] pmkCacheData) throws Exception {
         mDut.mPmkCacheManager = mPmkCacheManager;
         doAnswer(new MockAnswerUtil.AnswerWithArguments() {
-            public List<ArrayList<Byte>> answer(int networkId) {
+            public List<byte[]> answer(int networkId) {
                 if (pmkCacheData == null) return null;
 
-                List<ArrayList<Byte>> pmkDataList = new ArrayList<>();
+                List<byte[]> pmkDataList = new ArrayList<>();
                 pmkDataList.add(pmkCacheData);
                 return pmkDataList;
             }
@@ -197,7 +197,7 @@ public class SupplicantStaIfaceHalHidlImplTest extends WifiBaseTest {
 
         SupplicantStaIfaceHalSpy() {
             super(mContext, mWifiMonitor, mFrameworkFacade,
-                    mHandler, mClock, mWifiMetrics, mWifiGlobals);
+                    mHandler, mClock, mWifiMetrics, mWifiGlobals, mPmkCacheManager);
             mStaNetwork = mSupplicantStaNetworkMock;
         }
 
@@ -3247,11 +3247,11 @@ public class SupplicantStaIfaceHalHidlImplTest extends WifiBaseTest {
             throws Exception {
         mDut.mPmkCacheManager = mPmkCacheManager;
         doAnswer(new MockAnswerUtil.AnswerWithArguments() {
-            public List<ArrayList<Byte>> answer(int networkId) {
+            public List<byte[]> answer(int networkId) {
                 if (pmkCacheData == null) return null;
 
-                List<ArrayList<Byte>> pmkDataList = new ArrayList<>();
-                pmkDataList.add(pmkCacheData);
+                List<byte[]> pmkDataList = new ArrayList<>();
+                pmkDataList.add(NativeUtil.byteArrayFromArrayList(pmkCacheData));
                 return pmkDataList;
             }
         }).when(mPmkCacheManager)
@@ -24,7 +24,9 @@ import static org.junit.Assume.assumeTrue;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.anyString;
+import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doThrow;
@@ -176,6 +178,30 @@ public class SupplicantStaNetworkHalAidlImplTest extends WifiBaseTest {
                         | GroupCipherMask.CCMP);
     }
 
+    /**
+     * Tests that saving a WifiConfiguration again only sends the values which changed to
+     * wpa_supplicant.
+     */
+    @Test
+    public void testSaveWifiConfigurationAgainOnlySendsChangedValues() throws Exception {
+        WifiConfiguration config = WifiConfigurationTestUtil.createPskNetwork();
+        config.getNetworkSelectionStatus().setCandidateSecurityParams(
+                config.getDefaultSecurityParams());
+        assertTrue(mSupplicantNetwork.saveWifiConfiguration(config));
+        clearInvocations(mISupplicantStaNetworkMock);
+
+        config.preSharedKey = "\"new_passphrase\"";
+        assertTrue(mSupplicantNetwork.saveWifiConfiguration(config));
+        verify(mISupplicantStaNetworkMock).setPskPassphrase("new_passphrase");
+        verify(mISupplicantStaNetworkMock, never()).setSsid(any(byte[].class));
+        verify(mISupplicantStaNetworkMock, never()).setKeyMgmt(anyInt());
+        verify(mISupplicantStaNetworkMock, never()).setPairwiseCipher(anyInt());
+        verify(mISupplicantStaNetworkMock, never()).setGroupCipher(anyInt());
+        verify(mISupplicantStaNetworkMock, never()).setIdStr(anyString());
+        verify(mISupplicantStaNetworkMock, never())
+                .registerCallback(any(ISupplicantStaNetworkCallback.class));
+    }
+
     /**
      * Tests the saving/loading of WifiConfiguration to wpa_supplicant with raw psk.
      */
@@ -38,6 +38,7 @@ import com.android.internal.util.FastPrintWriter;
 import com.android.server.wifi.WifiConfigStore.StoreData;
 import com.android.server.wifi.WifiConfigStore.StoreFile;
 import com.android.server.wifi.util.ArrayUtils;
+import com.android.server.wifi.util.BinaryXmlPullParser;
 import com.android.server.wifi.util.EncryptedData;
 import com.android.server.wifi.util.WifiConfigStoreEncryptionUtil;
 import com.android.server.wifi.util.XmlUtil;
@@ -63,8 +64,10 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 /**
@@ -960,6 +963,11 @@ public class WifiConfigStoreTest extends WifiBaseTest {
         StoreFile userStoreFile2 = mock(StoreFile.class);
         when(userStoreFile2.getFileId())
                 .thenReturn(WifiConfigStore.STORE_FILE_USER_NETWORK_SUGGESTIONS);
+        // None of the store files has segments.
+        for (StoreFile storeFile : Arrays.asList(
+                sharedStoreFile1, sharedStoreFile2, userStoreFile1, userStoreFile2)) {
+            when(storeFile.getSegment(any())).thenReturn(mock(StoreFile.class));
+        }
         mWifiConfigStore = new WifiConfigStore(mContext, new Handler(mLooper.getLooper()), mClock,
                 mWifiMetrics, Arrays.asList(sharedStoreFile1, sharedStoreFile2));
         mWifiConfigStore.setUserStores(Arrays.asList(userStoreFile1, userStoreFile2));
@@ -1079,6 +1087,7 @@ public class WifiConfigStoreTest extends WifiBaseTest {
     private class MockStoreFile extends StoreFile {
         private byte[] mStoreBytes;
         private boolean mStoreWritten;
+        private final Map<String, MockStoreFile> mSegments = new HashMap<>();
 
         MockStoreFile(@WifiConfigStore.StoreFileId int fileId) {
             super(new File("MockStoreFile"), fileId, UserHandle.ALL, mEncryptionUtil);
@@ -1097,11 +1106,43 @@ public class WifiConfigStoreTest extends WifiBaseTest {
 
         @Override
         public void writeBufferedRawData() {
-            if (!ArrayUtils.isEmpty(mStoreBytes)) {
+            if (!ArrayUtils.isEmpty(mStoreBytes) && !mStoreWritten) {
                 mStoreWritten = true;
             }
         }
 
+        @Override
+        public void delete() {
+            mStoreBytes = null;
+            mStoreWritten = false;
+        }
+
+        @Override
+        public MockStoreFile getSegment(String name) {
+            return mSegments.computeIfAbsent(name, n -> new MockStoreFile(getFileId()));
+        }
+
+        @Override
+        public List<String> listSegments() {
+            List<String> names = new ArrayList<>();
+            for (Map.Entry<String, MockStoreFile> entry : mSegments.entrySet()) {
+                if (entry.getValue().getStoreBytes() != null) {
+                    names.add(entry.getKey());
+                }
+            }
+            return names;
+        }
+
+        @Override
+        public void deleteSegment(String name) {
+            mSegments.remove(name);
+        }
+
+        @Override
+        public void deleteSegments() {
+            mSegments.clear();
+        }
+
         public byte[] getStoreBytes() {
             return mStoreBytes;
         }
@@ -1119,11 +1160,17 @@ public class WifiConfigStoreTest extends WifiBaseTest {
         private static final String XML_TAG_TEST_DATA = "TestData";
 
         private @WifiConfigStore.StoreFileId int mFileId;
+        private final String mName;
         private String mData;
         private boolean mHasAnyNewData = true;
 
         MockStoreData(@WifiConfigStore.StoreFileId int fileId) {
+            this(fileId, XML_TAG_TEST_HEADER);
+        }
+
+        MockStoreData(@WifiConfigStore.StoreFileId int fileId, String name) {
             mFileId = fileId;
+            mName = name;
         }
 
         @Override
@@ -1154,7 +1201,7 @@ public class WifiConfigStoreTest extends WifiBaseTest {
 
         @Override
         public String getName() {
-            return XML_TAG_TEST_HEADER;
+            return mName;
         }
 
         @Override
@@ -1175,6 +1222,209 @@ public class WifiConfigStoreTest extends WifiBaseTest {
         }
     }
 
+    /**
+     * Verify that in segmented mode, each store data is written to its own segment and only the
+     * segments whose data changed are rewritten.
+     */
+    @Test
+    public void testSegmentedWriteOnlyRewritesChangedSegments() throws Exception {
+        MockStoreData otherStoreData = new MockStoreData(
+                WifiConfigStore.STORE_FILE_SHARED_GENERAL, "OtherTestHeader");
+        mWifiConfigStore.setStorageMode(WifiConfigStore.STORAGE_MODE_SEGMENTED_XML);
+        mWifiConfigStore.registerStoreData(mSharedStoreData);
+        mWifiConfigStore.registerStoreData(otherStoreData);
+        mWifiConfigStore.read();
+
+        mSharedStoreData.setData(TEST_SHARE_DATA);
+        otherStoreData.setData(TEST_USER_DATA);
+        mWifiConfigStore.write(true);
+
+        assertFalse(mSharedStore.isStoreWritten());
+        assertEquals(new HashSet<>(Arrays.asList("manifest", "TestHeader.1", "OtherTestHeader.1")),
+                new HashSet<>(mSharedStore.listSegments()));
+
+        // Both store data always report new data, but only one of them changed. The new version
+        // of the segment replaces the previous one.
+        mSharedStoreData.setData("NewData");
+        mWifiConfigStore.write(true);
+        assertEquals(new HashSet<>(Arrays.asList("manifest", "TestHeader.2", "OtherTestHeader.1")),
+                new HashSet<>(mSharedStore.listSegments()));
+
+        // Store data which don't report new data are not serialized.
+        otherStoreData.setData("NewOtherData");
+        otherStoreData.setHasAnyNewData(false);
+        mWifiConfigStore.write(true);
+        assertTrue(mSharedStore.listSegments().contains("OtherTestHeader.1"));
+
+        mWifiConfigStore.read();
+        assertEquals("NewData", mSharedStoreData.getData());
+        assertEquals(TEST_USER_DATA, otherStoreData.getData());
+    }
+
+    /**
+     * Verify that a store file written as a single file is migrated to binary segments on the
+     * first write after the storage mode changed, and deleted once migrated.
+     */
+    @Test
+    public void testMigrateSingleFileToSegmentedBinary() throws Exception {
+        mWifiConfigStore.registerStoreData(mSharedStoreData);
+        mSharedStoreData.setData(TEST_SHARE_DATA);
+        mWifiConfigStore.write(true);
+        assertTrue(mSharedStore.isStoreWritten());
+
+        mWifiConfigStore.setStorageMode(WifiConfigStore.STORAGE_MODE_SEGMENTED_BINARY);
+        mWifiConfigStore.read();
+        assertEquals(TEST_SHARE_DATA, mSharedStoreData.getData());
+
+        // The data is migrated even if no store data has new data.
+        mSharedStoreData.setHasAnyNewData(false);
+        mWifiConfigStore.write(true);
+        MockStoreFile segment = mSharedStore.getSegment("TestHeader.1");
+        assertTrue(segment.isStoreWritten());
+        assertTrue(BinaryXmlPullParser.isBinaryXml(segment.getStoreBytes()));
+        assertNull(mSharedStore.getStoreBytes());
+
+        mWifiConfigStore.read();
+        assertEquals(TEST_SHARE_DATA, mSharedStoreData.getData());
+    }
+
+    /**
+     * Verify that segments are migrated back to a single file when the segmented mode is
+     * disabled.
+     */
+    @Test
+    public void testMigrateSegmentedToSingleFile() throws Exception {
+        mWifiConfigStore.setStorageMode(WifiConfigStore.STORAGE_MODE_SEGMENTED_BINARY);
+        mWifiConfigStore.registerStoreData(mSharedStoreData);
+        mSharedStoreData.setData(TEST_SHARE_DATA);
+        mWifiConfigStore.write(true);
+        assertNull(mSharedStore.getStoreBytes());
+
+        mWifiConfigStore.setStorageMode(WifiConfigStore.STORAGE_MODE_SINGLE_FILE);
+        mWifiConfigStore.read();
+        assertEquals(TEST_SHARE_DATA, mSharedStoreData.getData());
+
+        mSharedStoreData.setHasAnyNewData(false);
+        mWifiConfigStore.write(true);
+        assertTrue(mSharedStore.isStoreWritten());
+        assertTrue(mSharedStore.listSegments().isEmpty());
+
+        mWifiConfigStore.read();
+        assertEquals(TEST_SHARE_DATA, mSharedStoreData.getData());
+    }
+
+    /**
+     * Verify that segments which were written but not committed by a manifest, e.g because the
+     * device crashed during the write, are ignored and deleted on read.
+     */
+    @Test
+    public void testOrphanedSegmentsAreIgnoredAndDeleted() throws Exception {
+        mWifiConfigStore.setStorageMode(WifiConfigStore.STORAGE_MODE_SEGMENTED_XML);
+        mWifiConfigStore.registerStoreData(mSharedStoreData);
+        mSharedStoreData.setData(TEST_SHARE_DATA);
+        mWifiConfigStore.write(true);
+
+        // Segment of the next generation, written before the manifest.
+        byte[] committedBytes = mSharedStore.getSegment("TestHeader.1").getStoreBytes();
+        MockStoreFile orphan = mSharedStore.getSegment("TestHeader.2");
+        orphan.storeRawDataToWrite(
+                new String(committedBytes, StandardCharsets.UTF_8)
+                        .replace(TEST_SHARE_DATA, "UncommittedData")
+                        .getBytes(StandardCharsets.UTF_8));
+        orphan.writeBufferedRawData();
+
+        mWifiConfigStore.read();
+        assertEquals(TEST_SHARE_DATA, mSharedStoreData.getData());
+        assertFalse(mSharedStore.listSegments().contains("TestHeader.2"));
+    }
+
+    /**
+     * Verify that if a migration to segments was interrupted after the segments were committed,
+     * the segments are read instead of the older store file, which is then deleted.
+     */
+    @Test
+    public void testInterruptedMigrationToSegmentsReadsSegments() throws Exception {
+        mWifiConfigStore.registerStoreData(mSharedStoreData);
+        mSharedStoreData.setData(TEST_SHARE_DATA);
+        mWifiConfigStore.write(true);
+
+        // Write the segments without deleting the store file.
+        mWifiConfigStore.setStorageMode(WifiConfigStore.STORAGE_MODE_SEGMENTED_XML);
+        mSharedStoreData.setData("NewData");
+        mWifiConfigStore.write(true);
+        assertNotNull(mSharedStore.getStoreBytes());
+
+        mWifiConfigStore.read();
+        assertEquals("NewData", mSharedStoreData.getData());
+
+        mSharedStoreData.setHasAnyNewData(false);
+        mWifiConfigStore.write(true);
+        assertNull(mSharedStore.getStoreBytes());
+        mWifiConfigStore.read();
+        assertEquals("NewData", mSharedStoreData.getData());
+    }
+
+    /**
+     * Verify that if a migration to a single file was interrupted after the store file was
+     * written, the store file is read instead of the older segments, which are then deleted.
+     */
+    @Test
+    public void testInterruptedMigrationToSingleFileReadsStoreFile() throws Exception {
+        mWifiConfigStore.setStorageMode(WifiConfigStore.STORAGE_MODE_SEGMENTED_XML);
+        mWifiConfigStore.registerStoreData(mSharedStoreData);
+        mSharedStoreData.setData(TEST_SHARE_DATA);
+        mWifiConfigStore.write(true);
+
+        // Write the store file without deleting the segments.
+        mWifiConfigStore.setStorageMode(WifiConfigStore.STORAGE_MODE_SINGLE_FILE);
+        mSharedStoreData.setData("NewData");
+        mWifiConfigStore.write(true);
+        assertFalse(mSharedStore.listSegments().isEmpty());
+
+        mWifiConfigStore.read();
+        assertEquals("NewData", mSharedStoreData.getData());
+
+        mSharedStoreData.setHasAnyNewData(false);
+        mWifiConfigStore.write(true);
+        assertTrue(mSharedStore.listSegments().isEmpty());
+        mWifiConfigStore.read();
+        assertEquals("NewData", mSharedStoreData.getData());
+    }
+
+    /**
+     * Verify that if a migration back to segments was interrupted after an interrupted migration
+     * to a single file, the segments are read: they are of a higher generation than the store
+     * file, even though both were written.
+     */
+    @Test
+    public void testInterruptedMigrationBackToSegmentsReadsSegments() throws Exception {
+        mWifiConfigStore.setStorageMode(WifiConfigStore.STORAGE_MODE_SEGMENTED_XML);
+        mWifiConfigStore.registerStoreData(mSharedStoreData);
+        mSharedStoreData.setData(TEST_SHARE_DATA);
+        mWifiConfigStore.write(true);
+
+        // Write the store file without deleting the segments.
+        mWifiConfigStore.setStorageMode(WifiConfigStore.STORAGE_MODE_SINGLE_FILE);
+        mSharedStoreData.setData("NewData");
+        mWifiConfigStore.write(true);
+        assertNotNull(mSharedStore.getStoreBytes());
+
+        // Read the store file back in the segmented mode, and write the segments again. The
+        // store file is restored, as if the device crashed before deleting it.
+        mWifiConfigStore.setStorageMode(WifiConfigStore.STORAGE_MODE_SEGMENTED_XML);
+        mWifiConfigStore.read();
+        assertEquals("NewData", mSharedStoreData.getData());
+        byte[] storeBytes = mSharedStore.getStoreBytes();
+        mSharedStoreData.setData("NewerData");
+        mWifiConfigStore.write(true);
+        assertNull(mSharedStore.getStoreBytes());
+        mSharedStore.storeRawDataToWrite(storeBytes);
+        mSharedStore.writeBufferedRawData();
+
+        mWifiConfigStore.read();
+        assertEquals("NewerData", mSharedStoreData.getData());
+    }
+
     /**
      * Verify dump will not crash when no UserStores set.
      */
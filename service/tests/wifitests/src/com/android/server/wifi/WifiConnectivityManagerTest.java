@@ -148,6 +148,8 @@ public class WifiConnectivityManagerTest extends WifiBaseTest {
     @Before
     public void setUp() throws Exception {
         MockitoAnnotations.initMocks(this);
+        mFrequencyIndex = new NetworkFrequencyIndex(mClock, MAX_FREQUENCIES_PER_NETWORK);
+        when(mWifiScoreCard.getFrequencyIndex()).thenReturn(mFrequencyIndex);
         mResources = new MockResources();
         setUpResources(mResources);
         mAlarmManager = new TestAlarmManager();
@@ -294,8 +296,7 @@ public class WifiConnectivityManagerTest extends WifiBaseTest {
     @Mock private PasspointManager mPasspointManager;
     @Mock private FrameworkFacade mFacade;
     @Mock private MultiInternetManager mMultiInternetManager;
-    @Mock private WifiScoreCard.PerNetwork mPerNetwork;
-    @Mock private WifiScoreCard.PerNetwork mPerNetwork1;
+    private NetworkFrequencyIndex mFrequencyIndex;
     @Mock private PasspointConfiguration mPasspointConfiguration;
     @Mock private WifiConfiguration mSuggestionConfig;
     @Mock private WifiNetworkSuggestion mWifiNetworkSuggestion;
@@ -353,6 +354,7 @@ public class WifiConnectivityManagerTest extends WifiBaseTest {
     private static final int TEST_FREQUENCY_1 = 2412;
     private static final int TEST_FREQUENCY_2 = 5180;
     private static final int TEST_FREQUENCY_3 = 5240;
+    private static final int MAX_FREQUENCIES_PER_NETWORK = 10;
     private static final int TEST_CURRENT_CONNECTED_FREQUENCY = 2427;
     private static final int HIGH_MVMT_SCAN_DELAY_MS = 10000;
     private static final int HIGH_MVMT_RSSI_DELTA = 10;
@@ -2417,13 +2419,13 @@ public class WifiConnectivityManagerTest extends WifiBaseTest {
     public void testInitialFastScanSchedulesMoreScans() {
         // Enable the fast initial scan feature
         mResources.setBoolean(R.bool.config_wifiEnablePartialInitialScan, true);
-        // return 2 available frequencies
-        when(mWifiScoreCard.lookupNetwork(anyString())).thenReturn(mPerNetwork);
-        when(mPerNetwork.getFrequencies(anyLong())).thenReturn(new ArrayList<>(
-                Arrays.asList(TEST_FREQUENCY_1, TEST_FREQUENCY_2)));
-
         long currentTimeStamp = CURRENT_SYSTEM_TIME_MS;
         when(mClock.getElapsedSinceBootMillis()).thenReturn(currentTimeStamp);
+        // return 2 available frequencies
+        for (WifiConfiguration config : mWifiConfigManager.getSavedNetworks(Process.WIFI_UID)) {
+            mFrequencyIndex.addFrequency(config.SSID, TEST_FREQUENCY_1);
+            mFrequencyIndex.addFrequency(config.SSID, TEST_FREQUENCY_2);
+        }
         mWifiConnectivityManager.setTrustedConnectionAllowed(true);
 
         // set screen off and wifi disconnected
@@ -3262,8 +3264,6 @@ public class WifiConnectivityManagerTest extends WifiBaseTest {
                 .thenReturn(configuration);
         when(mPrimaryClientModeManager.getConnectedWifiConfiguration())
                 .thenReturn(configuration);
-        when(mWifiScoreCard.lookupNetwork(configuration.SSID)).thenReturn(mPerNetwork);
-        when(mPerNetwork.getFrequencies(anyLong())).thenReturn(new ArrayList<>());
 
         doAnswer(new AnswerWithArguments() {
             public void answer(ScanSettings settings, ScanListener listener,
@@ -3660,6 +3660,20 @@ public class WifiConnectivityManagerTest extends WifiBaseTest {
         verify(mWifiConfigManager).cleanupExpiredRecentFailureReasons();
     }
 
+    /**
+     * Verify that the queued ANQP requests are dropped once per scan, before the network
+     * selection matches the new scan results.
+     */
+    @Test
+    public void verifyPasspointNotifiedOfNewScanResultsBeforeNetworkSelection() {
+        InOrder inOrder = inOrder(mPasspointManager, mWifiNS);
+        // mWifiScanner is mocked to directly return scan results when a scan is triggered.
+        mWifiConnectivityManager.forceConnectivityScan(WIFI_WORK_SOURCE);
+        inOrder.verify(mPasspointManager).onNewScanResults();
+        inOrder.verify(mWifiNS).getCandidatesFromScan(any(), any(), any(), anyBoolean(),
+                anyBoolean(), anyBoolean(), any(), anyBoolean());
+    }
+
     /**
      *  Verify that a blocklisted BSSID becomes available only after
      *  BSSID_BLOCKLIST_EXPIRE_TIME_MS.
@@ -4562,7 +4576,6 @@ public class WifiConnectivityManagerTest extends WifiBaseTest {
      */
     @Test
     public void testExternalPnoScanRequest_gatedBylocationMode() {
-        when(mWifiScoreCard.lookupNetwork(any())).thenReturn(mock(WifiScoreCard.PerNetwork.class));
         mResources.setBoolean(R.bool.config_wifiPnoFrequencyCullingEnabled, true);
         mWifiConnectivityManager.setLocationModeEnabled(false);
         // mock saved networks list to be empty
@@ -4736,12 +4749,9 @@ public class WifiConnectivityManagerTest extends WifiBaseTest {
         assertEquals("frequencies should be empty", 0, pnoNetworks.get(1).frequencies.length);
 
         //Set up wifiScoreCard to get frequency.
-        List<Integer> channelList = Arrays
-                .asList(TEST_FREQUENCY_1, TEST_FREQUENCY_2, TEST_FREQUENCY_3);
-        when(mWifiScoreCard.lookupNetwork(network1.SSID)).thenReturn(mPerNetwork);
-        when(mWifiScoreCard.lookupNetwork(network2.SSID)).thenReturn(mPerNetwork1);
-        when(mPerNetwork.getFrequencies(anyLong())).thenReturn(channelList);
-        when(mPerNetwork1.getFrequencies(anyLong())).thenReturn(new ArrayList<>());
+        mFrequencyIndex.addFrequency(network1.SSID, TEST_FREQUENCY_1);
+        mFrequencyIndex.addFrequency(network1.SSID, TEST_FREQUENCY_2);
+        mFrequencyIndex.addFrequency(network1.SSID, TEST_FREQUENCY_3);
 
         //Set config_wifiPnoFrequencyCullingEnabled false, should ignore get frequency.
         mResources.setBoolean(R.bool.config_wifiPnoFrequencyCullingEnabled, false);
@@ -4804,15 +4814,24 @@ public class WifiConnectivityManagerTest extends WifiBaseTest {
         assertEquals(network1.SSID, pnoNetworks.get(2).ssid);
     }
 
+    private static Set<Integer> toSet(int[] frequencies) {
+        Set<Integer> set = new HashSet<>();
+        for (int frequency : frequencies) {
+            set.add(frequency);
+        }
+        return set;
+    }
+
     private List<List<Integer>> linkScoreCardFreqsToNetwork(WifiConfiguration... configs) {
         List<List<Integer>> results = new ArrayList<>();
         int i = 0;
         for (WifiConfiguration config : configs) {
             List<Integer> channelList = Arrays.asList(TEST_FREQUENCY_1 + i, TEST_FREQUENCY_2 + i,
                     TEST_FREQUENCY_3 + i);
-            WifiScoreCard.PerNetwork perNetwork = mock(WifiScoreCard.PerNetwork.class);
-            when(mWifiScoreCard.lookupNetwork(config.SSID)).thenReturn(perNetwork);
-            when(perNetwork.getFrequencies(anyLong())).thenReturn(channelList);
+            // Most recent frequency first.
+            for (int j = channelList.size() - 1; j >= 0; j--) {
+                mFrequencyIndex.addFrequency(config.SSID, channelList.get(j));
+            }
             results.add(channelList);
             i++;
         }
@@ -4836,8 +4855,8 @@ public class WifiConnectivityManagerTest extends WifiBaseTest {
         mLruConnectionTracker.addNetwork(configuration2);
         mLruConnectionTracker.addNetwork(configuration1);
 
-        assertEquals(new HashSet<>(freqs.get(0)), mWifiConnectivityManager
-                .fetchChannelSetForPartialScan(3, CHANNEL_CACHE_AGE_MINS));
+        assertEquals(new HashSet<>(freqs.get(0)), toSet(mWifiConnectivityManager
+                .fetchChannelSetForPartialScan(3, CHANNEL_CACHE_AGE_MINS)));
     }
 
     /**
@@ -4852,8 +4871,8 @@ public class WifiConnectivityManagerTest extends WifiBaseTest {
                 .thenReturn(configuration);
         List<List<Integer>> freqs = linkScoreCardFreqsToNetwork(configuration);
 
-        assertEquals(new HashSet<>(freqs.get(0)), mWifiConnectivityManager
-                .fetchChannelSetForNetworkForPartialScan(configuration.networkId));
+        assertEquals(new HashSet<>(freqs.get(0)), toSet(mWifiConnectivityManager
+                .fetchChannelSetForNetworkForPartialScan(configuration.networkId)));
     }
 
     /**
@@ -4873,8 +4892,8 @@ public class WifiConnectivityManagerTest extends WifiBaseTest {
         mWifiInfo.setFrequency(TEST_CURRENT_CONNECTED_FREQUENCY);
 
         // Currently connected network frequency 2427 is not in the TEST_FREQ_LIST
-        Set<Integer> freqs = mWifiConnectivityManager.fetchChannelSetForNetworkForPartialScan(
-                configuration.networkId);
+        Set<Integer> freqs = toSet(mWifiConnectivityManager
+                .fetchChannelSetForNetworkForPartialScan(configuration.networkId));
 
         assertTrue(freqs.contains(2427));
     }
@@ -4899,8 +4918,8 @@ public class WifiConnectivityManagerTest extends WifiBaseTest {
                 .thenReturn(configuration);
         List<List<Integer>> freqs = linkScoreCardFreqsToNetwork(configuration);
         // Ensure that the fetched list size is limited.
-        Set<Integer> results = mWifiConnectivityManager.fetchChannelSetForNetworkForPartialScan(
-                configuration.networkId);
+        Set<Integer> results = toSet(mWifiConnectivityManager
+                .fetchChannelSetForNetworkForPartialScan(configuration.networkId));
         assertEquals(maxListSize, results.size());
         assertFalse(results.contains(freqs.get(0).get(2)));
     }
@@ -52,6 +52,7 @@ import org.mockito.MockitoAnnotations;
 import org.mockito.Spy;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileDescriptor;
 import java.io.PrintWriter;
 import java.io.StringWriter;
@@ -59,6 +60,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.regex.Pattern;
+import java.util.zip.InflaterInputStream;
 
 /**
  * Unit tests for {@link WifiDiagnostics}.
@@ -305,6 +307,41 @@ public class WifiDiagnosticsTest extends WifiBaseTest {
         assertArrayEquals(data, ringBufferData[0]);
     }
 
+    /**
+     * Verifies that the ring-buffer data is captured compressed when the ring buffer compression
+     * is enabled, and that more data than the ring buffer size fits once compressed.
+     */
+    @Test
+    public void canCaptureAndStoreCompressedRingBufferData() throws Exception {
+        mResources.setBoolean(R.bool.config_wifiLoggerRingBufferCompressionEnabled, true);
+        mWifiDiagnostics.enableVerboseLogging(false, false);
+        mWifiDiagnostics.startLogging(STA_IF_NAME);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 4; i++) {
+            final byte[] data = new byte[SMALL_RING_BUFFER_SIZE_KB * BYTES_PER_KBYTE];
+            Arrays.fill(data, (byte) i);
+            mWifiDiagnostics.onRingBufferData(mFakeRbs, data);
+            expected.write(data);
+        }
+        mWifiDiagnostics.triggerBugReportDataCapture(WifiDiagnostics.REPORT_REASON_NONE);
+        mTestLooper.dispatchAll();
+
+        WifiDiagnostics.BugReport report = mWifiDiagnostics.getBugReports().get(0);
+        assertFalse(report.ringBuffers.containsKey(FAKE_RING_BUFFER_NAME));
+        byte[] compressed = report.compressedRingBuffers.get(FAKE_RING_BUFFER_NAME);
+        InflaterInputStream inflater =
+                new InflaterInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BYTES_PER_KBYTE];
+        int count;
+        while ((count = inflater.read(buffer)) > 0) {
+            actual.write(buffer, 0, count);
+        }
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+        assertTrue(report.toString().contains("ring-buffer = " + FAKE_RING_BUFFER_NAME));
+    }
+
     /**
      * Verifies that we discard extraneous ring-buffer data.
      */
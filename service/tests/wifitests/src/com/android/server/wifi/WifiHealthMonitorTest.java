@@ -175,8 +175,8 @@ public class WifiHealthMonitorTest extends WifiBaseTest {
 
         mWifiConfigManager = mockConfigManager();
 
-        mWifiScoreCard = new WifiScoreCard(mClock, "some seed", mDeviceConfigFacade,
-                mContext);
+        mWifiScoreCard = new WifiScoreCard(mClock, new Handler(mLooper.getLooper()),
+                "some seed", mDeviceConfigFacade, mContext);
         mAlarmManager = new TestAlarmManager();
         when(mContext.getSystemService(Context.ALARM_SERVICE))
                 .thenReturn(mAlarmManager.getAlarmManager());
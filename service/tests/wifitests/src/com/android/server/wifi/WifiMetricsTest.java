@@ -355,6 +355,19 @@ public class WifiMetricsTest extends WifiBaseTest {
         assertStringContains(getStateDump(), "mWifiLogProto.alertReasonCounts=(1,2),(16,1)");
     }
 
+    /** Verifies that dump() includes the supplicant connect setup latencies. */
+    @Test
+    public void stateDumpIncludesSupplicantConnectSetupLatency() throws Exception {
+        mWifiMetrics.logSupplicantConnectSetupLatency(false, 15000);
+        mWifiMetrics.logSupplicantConnectSetupLatency(false, 12000);
+        mWifiMetrics.logSupplicantConnectSetupLatency(true, 700);
+        String dump = getStateDump();
+        assertStringContains(dump,
+                "mSupplicantConnectSetupLatencyUsHistogram:{[10000,20000)=2}");
+        assertStringContains(dump,
+                "mSupplicantConnectSetupLatencyUsFromPoolHistogram:{[500,1000)=1}");
+    }
+
     @Test
     public void testDumpProtoAndDeserialize() throws Exception {
         setAndIncrementMetrics();
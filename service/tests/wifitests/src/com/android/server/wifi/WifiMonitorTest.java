@@ -22,6 +22,9 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -51,6 +54,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentCaptor;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -524,6 +529,36 @@ public class WifiMonitorTest extends WifiBaseTest {
         assertEquals(newState, result.state);
     }
 
+    /**
+     * Verifies that the broadcast events are recorded to the connection event journal, with the
+     * fields of their message object.
+     */
+    @Test
+    public void testEventsAreRecordedToConnectionEventJournal() {
+        ConnectionEventJournal journal = mock(ConnectionEventJournal.class);
+        mWifiMonitor.setConnectionEventJournal(journal);
+
+        mWifiMonitor.broadcastSupplicantStateChangeEvent(WLAN_IFACE_NAME, NETWORK_ID,
+                WifiSsid.fromUtf8Text(SSID), BSSID, SupplicantState.ASSOCIATED);
+        verify(journal).recordSupplicantStateChange(
+                WLAN_IFACE_NAME, SupplicantState.ASSOCIATED, NETWORK_ID, BSSID);
+
+        // Events are recorded even if no handler is registered for them.
+        mWifiMonitor.broadcastNetworkDisconnectionEvent(WLAN_IFACE_NAME, true, 3, SSID, BSSID);
+        verify(journal).recordMonitorEvent(
+                WLAN_IFACE_NAME, WifiMonitor.NETWORK_DISCONNECTION_EVENT, 3, 1, BSSID);
+
+        mWifiMonitor.broadcastScanResultEvent(WLAN_IFACE_NAME);
+        verify(journal).recordMonitorEvent(
+                WLAN_IFACE_NAME, WifiMonitor.SCAN_RESULTS_EVENT, 0, 0, null);
+
+        // No event is recorded once the journal is removed.
+        mWifiMonitor.setConnectionEventJournal(null);
+        mWifiMonitor.broadcastScanResultEvent(WLAN_IFACE_NAME);
+        verify(journal, times(1)).recordMonitorEvent(
+                WLAN_IFACE_NAME, WifiMonitor.SCAN_RESULTS_EVENT, 0, 0, null);
+    }
+
     /**
      * Broadcast message to two handlers test.
      */
@@ -829,4 +864,56 @@ public class WifiMonitorTest extends WifiBaseTest {
         assertEquals(numPolicyRequests,
                 ((List<QosPolicyRequest>) messageCaptor.getValue().obj).size());
     }
+
+    /**
+     * Verify that registering a handler for another iface or event, and registering the same
+     * handler twice, doesn't change the handlers an event is dispatched to.
+     */
+    @Test
+    public void testRegisterHandlerKeepsOtherHandlers() {
+        mWifiMonitor.setMonitoring(SECOND_WLAN_IFACE_NAME, true);
+        mWifiMonitor.registerHandler(
+                WLAN_IFACE_NAME, WifiMonitor.SCAN_RESULTS_EVENT, mHandlerSpy);
+        mWifiMonitor.registerHandler(
+                WLAN_IFACE_NAME, WifiMonitor.SCAN_RESULTS_EVENT, mHandlerSpy);
+        mWifiMonitor.registerHandler(
+                WLAN_IFACE_NAME, WifiMonitor.SCAN_FAILED_EVENT, mSecondHandlerSpy);
+        mWifiMonitor.registerHandler(
+                SECOND_WLAN_IFACE_NAME, WifiMonitor.SCAN_RESULTS_EVENT, mSecondHandlerSpy);
+
+        mWifiMonitor.broadcastScanResultEvent(WLAN_IFACE_NAME);
+        mLooper.dispatchAll();
+        ArgumentCaptor<Message> messageCaptor = ArgumentCaptor.forClass(Message.class);
+        verify(mHandlerSpy).handleMessage(messageCaptor.capture());
+        assertEquals(WLAN_IFACE_NAME,
+                messageCaptor.getValue().getData().getString(WifiMonitor.KEY_IFACE));
+        verify(mSecondHandlerSpy, never()).handleMessage(any());
+
+        mWifiMonitor.broadcastScanResultEvent(SECOND_WLAN_IFACE_NAME);
+        mLooper.dispatchAll();
+        verify(mHandlerSpy).handleMessage(any());
+        verify(mSecondHandlerSpy).handleMessage(messageCaptor.capture());
+        assertEquals(SECOND_WLAN_IFACE_NAME,
+                messageCaptor.getValue().getData().getString(WifiMonitor.KEY_IFACE));
+    }
+
+    /**
+     * Verify that the registered handlers and the dispatched events are dumped.
+     */
+    @Test
+    public void testDump() {
+        mWifiMonitor.registerHandler(
+                WLAN_IFACE_NAME, WifiMonitor.SCAN_RESULTS_EVENT, mHandlerSpy);
+        mWifiMonitor.registerHandler(
+                WLAN_IFACE_NAME, WifiMonitor.SCAN_FAILED_EVENT, mHandlerSpy);
+        mWifiMonitor.broadcastScanResultEvent(WLAN_IFACE_NAME);
+        mWifiMonitor.broadcastScanResultEvent(WLAN_IFACE_NAME);
+
+        StringWriter sw = new StringWriter();
+        mWifiMonitor.dump(new PrintWriter(sw));
+        String dump = sw.toString();
+        assertTrue(dump.contains("Iface " + WLAN_IFACE_NAME + ": monitoring=true handlers=2"));
+        assertTrue(dump.contains("event=" + WifiMonitor.SCAN_RESULTS_EVENT + " count=2"));
+        assertFalse(dump.contains("event=" + WifiMonitor.SCAN_FAILED_EVENT + " "));
+    }
 }
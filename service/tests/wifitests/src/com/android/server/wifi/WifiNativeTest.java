@@ -24,8 +24,11 @@ import static com.android.server.wifi.WifiSettingsConfigStore.WIFI_NATIVE_SUPPOR
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeFalse;
 import static org.junit.Assume.assumeTrue;
@@ -44,6 +47,7 @@ import static org.mockito.Mockito.when;
 
 import android.net.MacAddress;
 import android.net.wifi.CoexUnsafeChannel;
+import android.net.wifi.MloLink;
 import android.net.wifi.ScanResult;
 import android.net.wifi.WifiConfiguration;
 import android.net.wifi.WifiContext;
@@ -198,6 +202,18 @@ public class WifiNativeTest extends WifiBaseTest {
     private static final byte[] TEST_BSSID =
             new byte[] {(byte) 0x12, (byte) 0xef, (byte) 0xa1,
                     (byte) 0x2c, (byte) 0x97, (byte) 0x8b};
+    // WPA2-PSK with CCMP.
+    private static final byte[] TEST_INFO_ELEMENT_RSN = {
+            0x30, 0x14, 0x01, 0x00, 0x00, 0x0F, (byte) 0xAC, 0x04, 0x01, 0x00, 0x00, 0x0F,
+            (byte) 0xAC, 0x04, 0x01, 0x00, 0x00, 0x0F, (byte) 0xAC, 0x02, 0x00, 0x00};
+    // RNR with two affiliated MLO links, and Multi-Link element of the reporting link.
+    private static final byte[] TEST_INFO_ELEMENT_MLO = {
+            (byte) ScanResult.InformationElement.EID_RNR, 20,
+            0x00, 0x04, 81, 11, 0x00, 0x00, 0x01, 0x00,
+            0x10, 0x04, 120, (byte) 149, 0x00, 0x00, 0x02, 0x00, 0x00, 0x22, 0x01, 0x00,
+            (byte) ScanResult.InformationElement.EID_EXTENSION_PRESENT, 11,
+            (byte) ScanResult.InformationElement.EID_EXT_MULTI_LINK,
+            0x10, 0x00, 0x08, 0x02, 0x34, 0x56, 0x78, (byte) 0x9A, (byte) 0xBC, 0x01};
     // This the IE buffer which is consistent with TEST_SSID.
     private static final byte[] TEST_INFO_ELEMENT_SSID =
             new byte[] {
@@ -947,6 +963,158 @@ public class WifiNativeTest extends WifiBaseTest {
         }
     }
 
+    /**
+     * Verifies that the data derived from the IEs is reused by the next scans while the IEs of
+     * the AP don't change, and that the signal level and TSF are always updated.
+     */
+    @Test
+    public void testGetScanResultsReusesUnchangedInformationElements() {
+        NativeScanResult firstResult = createMockNativeScanResult();
+        NativeScanResult secondResult = createMockNativeScanResult();
+        secondResult.infoElement = TEST_INFO_ELEMENT_SSID.clone();
+        secondResult.signalMbm = TEST_SIGNAL_MBM - 1000;
+        secondResult.tsf = TEST_TSF + 1;
+        NativeScanResult changedResult = createMockNativeScanResult();
+        changedResult.infoElement = Arrays.copyOf(TEST_INFO_ELEMENT_SSID,
+                TEST_INFO_ELEMENT_SSID.length + TEST_INFO_ELEMENT_RSN.length);
+        System.arraycopy(TEST_INFO_ELEMENT_RSN, 0, changedResult.infoElement,
+                TEST_INFO_ELEMENT_SSID.length, TEST_INFO_ELEMENT_RSN.length);
+        when(mWificondControl.getScanResults(anyString(), anyInt())).thenReturn(
+                Arrays.asList(firstResult), Arrays.asList(secondResult),
+                Arrays.asList(changedResult));
+
+        ScanDetail firstScanDetail = mWifiNative.getScanResults(WIFI_IFACE_NAME).get(0);
+        ScanDetail secondScanDetail = mWifiNative.getScanResults(WIFI_IFACE_NAME).get(0);
+        ScanDetail changedScanDetail = mWifiNative.getScanResults(WIFI_IFACE_NAME).get(0);
+
+        assertSame(firstScanDetail.getNetworkDetail(), secondScanDetail.getNetworkDetail());
+        assertSame(firstScanDetail.getScanResult().informationElements,
+                secondScanDetail.getScanResult().informationElements);
+        assertEquals(firstScanDetail.getScanResult().capabilities,
+                secondScanDetail.getScanResult().capabilities);
+        assertEquals((TEST_SIGNAL_MBM - 1000) / 100, secondScanDetail.getScanResult().level);
+        assertEquals(TEST_TSF + 1, secondScanDetail.getScanResult().timestamp);
+        assertNotSame(firstScanDetail.getScanResult(), secondScanDetail.getScanResult());
+
+        assertNotSame(firstScanDetail.getNetworkDetail(), changedScanDetail.getNetworkDetail());
+        assertNotEquals(firstScanDetail.getScanResult().capabilities,
+                changedScanDetail.getScanResult().capabilities);
+    }
+
+    /**
+     * Verifies that the scan results which reuse the data derived from the IEs of an MLO AP
+     * don't share their MLO links, which are updated once connected.
+     */
+    @Test
+    public void testGetScanResultsDoesNotShareMloLinks() {
+        NativeScanResult nativeResult = createMockNativeScanResult();
+        nativeResult.infoElement = Arrays.copyOf(TEST_INFO_ELEMENT_SSID,
+                TEST_INFO_ELEMENT_SSID.length + TEST_INFO_ELEMENT_MLO.length);
+        System.arraycopy(TEST_INFO_ELEMENT_MLO, 0, nativeResult.infoElement,
+                TEST_INFO_ELEMENT_SSID.length, TEST_INFO_ELEMENT_MLO.length);
+        when(mWificondControl.getScanResults(anyString(), anyInt()))
+                .thenReturn(Arrays.asList(nativeResult));
+
+        ScanDetail firstScanDetail = mWifiNative.getScanResults(WIFI_IFACE_NAME).get(0);
+        ScanDetail secondScanDetail = mWifiNative.getScanResults(WIFI_IFACE_NAME).get(0);
+        assertSame(firstScanDetail.getNetworkDetail(), secondScanDetail.getNetworkDetail());
+
+        List<MloLink> firstLinks = firstScanDetail.getScanResult().getAffiliatedMloLinks();
+        List<MloLink> secondLinks = secondScanDetail.getScanResult().getAffiliatedMloLinks();
+        assertFalse(firstLinks.isEmpty());
+        assertEquals(firstLinks.size(), secondLinks.size());
+        for (int i = 0; i < firstLinks.size(); i++) {
+            assertNotSame(firstLinks.get(i), secondLinks.get(i));
+        }
+
+        MacAddress staMacAddress = MacAddress.fromString("02:00:00:00:00:01");
+        firstLinks.get(0).setStaMacAddress(staMacAddress);
+        firstLinks.get(0).setState(MloLink.MLO_LINK_STATE_ACTIVE);
+        assertNull(secondLinks.get(0).getStaMacAddress());
+        assertNotEquals(MloLink.MLO_LINK_STATE_ACTIVE, secondLinks.get(0).getState());
+    }
+
+    private static List<NativeScanResult> createNativeScanResults(int numResults) {
+        List<NativeScanResult> nativeScanResults = new ArrayList<>();
+        for (int i = 0; i < numResults; i++) {
+            NativeScanResult result = createMockNativeScanResult();
+            // Every 10th result has an invalid BSSID and must be skipped.
+            result.bssid = i % 10 == 9 ? new byte[] {0x12} : new byte[] {0x12, 0x34, 0x56,
+                    0x78, (byte) (i >> 8), (byte) i};
+            result.tsf = i;
+            nativeScanResults.add(result);
+        }
+        return nativeScanResults;
+    }
+
+    private WifiNative createWifiNativeWithScanResultConversionThreads(int numThreads) {
+        mResources.setInteger(R.integer.config_wifiScanResultConversionThreads, numThreads);
+        return new WifiNative(
+                mWifiVendorHal, mStaIfaceHal, mHostapdHal, mWificondControl,
+                mWifiMonitor, mPropertyService, mWifiMetrics,
+                mHandler, mRandom, mBuildProperties, mWifiInjector);
+    }
+
+    /**
+     * Verifies that a large scan converted by several threads gives the same scan details, in
+     * the same order, as when converted serially.
+     */
+    @Test
+    public void testConvertNativeScanResultsInParallelKeepsOrder() {
+        int numResults = WifiNative.MIN_SCAN_RESULTS_FOR_PARALLEL_CONVERSION * 4 + 3;
+        List<NativeScanResult> nativeScanResults = createNativeScanResults(numResults);
+        WifiNative serialWifiNative = createWifiNativeWithScanResultConversionThreads(1);
+        WifiNative parallelWifiNative = createWifiNativeWithScanResultConversionThreads(4);
+
+        ArrayList<ScanDetail> serialScanDetails =
+                serialWifiNative.convertNativeScanResults(WIFI_IFACE_NAME, nativeScanResults);
+        ArrayList<ScanDetail> parallelScanDetails =
+                parallelWifiNative.convertNativeScanResults(WIFI_IFACE_NAME, nativeScanResults);
+
+        assertEquals(numResults - numResults / 10, serialScanDetails.size());
+        assertEquals(serialScanDetails.size(), parallelScanDetails.size());
+        int expectedIndex = 0;
+        for (int i = 0; i < parallelScanDetails.size(); i++) {
+            if (expectedIndex % 10 == 9) {
+                expectedIndex++;
+            }
+            ScanResult serialScanResult = serialScanDetails.get(i).getScanResult();
+            ScanResult parallelScanResult = parallelScanDetails.get(i).getScanResult();
+            assertEquals(MacAddress.fromBytes(nativeScanResults.get(expectedIndex).bssid)
+                    .toString(), parallelScanResult.BSSID);
+            assertEquals(expectedIndex, parallelScanResult.timestamp);
+            assertEquals(serialScanResult.BSSID, parallelScanResult.BSSID);
+            assertEquals(serialScanResult.capabilities, parallelScanResult.capabilities);
+            assertEquals(WIFI_IFACE_NAME, parallelScanResult.ifaceName);
+            expectedIndex++;
+        }
+    }
+
+    /**
+     * Verifies that scans smaller than the parallel conversion threshold, and scans on devices
+     * with a single conversion thread, are converted correctly.
+     */
+    @Test
+    public void testConvertNativeScanResultsSerially() {
+        int[] numResultsList = {0, 1, WifiNative.MIN_SCAN_RESULTS_FOR_PARALLEL_CONVERSION - 1,
+                WifiNative.MIN_SCAN_RESULTS_FOR_PARALLEL_CONVERSION * 2};
+        WifiNative[] wifiNatives = {createWifiNativeWithScanResultConversionThreads(1),
+                createWifiNativeWithScanResultConversionThreads(0),
+                createWifiNativeWithScanResultConversionThreads(4)};
+        for (WifiNative wifiNative : wifiNatives) {
+            for (int numResults : numResultsList) {
+                List<NativeScanResult> nativeScanResults = createNativeScanResults(numResults);
+                ArrayList<ScanDetail> scanDetails =
+                        wifiNative.convertNativeScanResults(WIFI_IFACE_NAME, nativeScanResults);
+                assertEquals(numResults - numResults / 10, scanDetails.size());
+                for (int i = 1; i < scanDetails.size(); i++) {
+                    assertTrue(scanDetails.get(i - 1).getScanResult().timestamp
+                            < scanDetails.get(i).getScanResult().timestamp);
+                }
+            }
+        }
+    }
+
     /**
      * Verifies that connectToNetwork() calls underlying WificondControl and SupplicantStaIfaceHal.
      */
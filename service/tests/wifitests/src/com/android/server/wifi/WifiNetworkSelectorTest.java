@@ -583,6 +583,40 @@ public class WifiNetworkSelectorTest extends WifiBaseTest {
                 chosenScanResult, candidate);
     }
 
+    /**
+     * Verify that the candidates of the last network selection are returned best scored first,
+     * and limited to the requested count.
+     */
+    @Test
+    public void testGetLastCandidateNetworkIds() {
+        String[] ssids = {"\"test1\"", "\"test2\""};
+        String[] bssids = {"6c:f3:7f:ae:8c:f3", "6c:f3:7f:ae:8c:f4"};
+        int[] freqs = {5180, 5180};
+        String[] caps = {"[WPA2-EAP/SHA1-CCMP][ESS]", "[WPA2-EAP/SHA1-CCMP][ESS]"};
+        int[] levels = {mThresholdMinimumRssi5G + RSSI_BUMP,
+                mThresholdMinimumRssi5G + RSSI_BUMP * 10};
+        int[] securities = {SECURITY_EAP, SECURITY_EAP};
+        mPlaceholderNominator.setNetworkIndexToReturn(PlaceholderNominator.RETURN_ALL_INDEX);
+        assertTrue(mWifiNetworkSelector.getLastCandidateNetworkIds(2).isEmpty());
+
+        ScanDetailsAndWifiConfigs scanDetailsAndConfigs =
+                WifiNetworkSelectorTestUtil.setupScanDetailsAndConfigStore(ssids, bssids,
+                    freqs, caps, levels, securities, mWifiConfigManager, mClock);
+        List<ScanDetail> scanDetails = scanDetailsAndConfigs.getScanDetails();
+        WifiConfiguration[] savedConfigs = scanDetailsAndConfigs.getWifiConfigs();
+        List<WifiCandidates.Candidate> candidates = mWifiNetworkSelector.getCandidatesFromScan(
+                scanDetails, new HashSet<>(),
+                Arrays.asList(new ClientModeManagerState(TEST_IFACE_NAME, false, true, mWifiInfo)),
+                false, true, true, Collections.emptySet(), false);
+        WifiConfiguration candidate = mWifiNetworkSelector.selectNetwork(candidates);
+        WifiConfigurationTestUtil.assertConfigurationEqual(savedConfigs[1], candidate);
+
+        assertEquals(Arrays.asList(savedConfigs[1].networkId, savedConfigs[0].networkId),
+                mWifiNetworkSelector.getLastCandidateNetworkIds(3));
+        assertEquals(Arrays.asList(savedConfigs[1].networkId),
+                mWifiNetworkSelector.getLastCandidateNetworkIds(1));
+    }
+
     /**
      * New network selection is performed if the currently connected network
      * has low RSSI value.
@@ -49,6 +49,8 @@ import android.net.MacAddress;
 import android.net.wifi.SupplicantState;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiSsid;
+import android.os.Handler;
+import android.os.test.TestLooper;
 import android.util.Base64;
 import android.util.Pair;
 
@@ -109,6 +111,7 @@ public class WifiScoreCardTest extends WifiBaseTest {
     @Mock Context mContext;
     @Mock Resources mResources;
 
+    private TestLooper mLooper = new TestLooper();
     private WifiLinkLayerStats mOldLlStats;
     private WifiLinkLayerStats mNewLlStats;
     private long mTotalTxBytes;
@@ -149,8 +152,8 @@ public class WifiScoreCardTest extends WifiBaseTest {
         mWifiInfo.setMaxSupportedTxLinkSpeedMbps(866);
         mWifiInfo.setMaxSupportedRxLinkSpeedMbps(866);
         millisecondsPass(0);
-        mWifiScoreCard = new WifiScoreCard(mClock, "some seed", mDeviceConfigFacade,
-                mContext);
+        mWifiScoreCard = new WifiScoreCard(mClock, new Handler(mLooper.getLooper()),
+                "some seed", mDeviceConfigFacade, mContext);
         mWifiScoreCard.mPersistentHistograms = true; // TODO - remove when ready
         when(mDeviceConfigFacade.getConnectionFailureHighThrPercent()).thenReturn(
                 DeviceConfigFacade.DEFAULT_CONNECTION_FAILURE_HIGH_THR_PERCENT);
@@ -880,6 +883,114 @@ public class WifiScoreCardTest extends WifiBaseTest {
         verify(mMemoryStore, times(3)).read(any(), any(), any()); // Assumes target size < 253
     }
 
+    /**
+     * Writes after connection events should be delayed, and coalesced into one write per entry.
+     */
+    @Test
+    public void testConnectionEventWritesAreCoalesced() throws Exception {
+        mWifiScoreCard.installMemoryStore(mMemoryStore);
+        mWifiScoreCard.noteConnectionAttempt(mWifiInfo, -53, mWifiInfo.getSSID());
+        millisecondsPass(100);
+        mWifiScoreCard.noteIpConfiguration(mWifiInfo);
+        millisecondsPass(100);
+        mWifiScoreCard.noteValidationSuccess(mWifiInfo);
+        verify(mMemoryStore, never()).write(any(), any(), any());
+
+        mLooper.moveTimeForward(WifiScoreCard.WRITE_BEHIND_DELAY_MS);
+        mLooper.dispatchAll();
+        verify(mMemoryStore).write(any(), eq(WifiScoreCard.PER_BSSID_DATA_NAME), any());
+        verify(mMemoryStore).write(any(), eq(WifiScoreCard.PER_NETWORK_DATA_NAME), any());
+
+        // Nothing changed since, so there is nothing more to write.
+        assertEquals(0, mWifiScoreCard.doWrites());
+    }
+
+    /**
+     * An explicit doWrites() should write the pending changes right away.
+     */
+    @Test
+    public void testDoWritesCancelsScheduledWrites() throws Exception {
+        mWifiScoreCard.installMemoryStore(mMemoryStore);
+        mWifiScoreCard.noteConnectionAttempt(mWifiInfo, -53, mWifiInfo.getSSID());
+        mWifiScoreCard.noteIpConfiguration(mWifiInfo);
+        assertEquals(2, mWifiScoreCard.doWrites());
+
+        mLooper.moveTimeForward(WifiScoreCard.WRITE_BEHIND_DELAY_MS);
+        mLooper.dispatchAll();
+        verify(mMemoryStore, times(2)).write(any(), any(), any());
+    }
+
+    /**
+     * The cluster of an entry should only be set with its first write.
+     */
+    @Test
+    public void testClusterIsSetOnFirstWriteOnly() throws Exception {
+        mWifiScoreCard.installMemoryStore(mMemoryStore);
+        mWifiScoreCard.noteConnectionAttempt(mWifiInfo, -53, mWifiInfo.getSSID());
+        mWifiScoreCard.noteIpConfiguration(mWifiInfo);
+        assertEquals(2, mWifiScoreCard.doWrites());
+        verify(mMemoryStore, times(2)).setCluster(any(), any());
+
+        millisecondsPass(1000);
+        mWifiScoreCard.noteValidationSuccess(mWifiInfo);
+        assertEquals(1, mWifiScoreCard.doWrites());
+        verify(mMemoryStore, times(3)).write(any(), any(), any());
+        verify(mMemoryStore, times(2)).setCluster(any(), any());
+    }
+
+    /**
+     * The least recently used entry should be evicted first, after being written if changed.
+     */
+    @Test
+    public void testLeastRecentlyUsedItemIsEvicted() throws Exception {
+        mWifiInfo.setRssi(-55);
+        mWifiInfo.setFrequency(5805);
+        mWifiScoreCard.installMemoryStore(mMemoryStore);
+        for (int i = 0; i < WifiScoreCard.TARGET_IN_MEMORY_ENTRIES; i++) {
+            noteSignalPollWithBssid(bssidFromIndex(i));
+        }
+        // Use the first BSSID again, so that the second one is the least recently used.
+        noteSignalPollWithBssid(bssidFromIndex(0));
+        verify(mMemoryStore, never()).write(any(), any(), any());
+
+        noteSignalPollWithBssid(bssidFromIndex(WifiScoreCard.TARGET_IN_MEMORY_ENTRIES));
+        verify(mMemoryStore).write(any(), eq(WifiScoreCard.PER_BSSID_DATA_NAME), any());
+        assertNull(mWifiScoreCard.fetchByBssid(bssidFromIndex(1)));
+        assertNotNull(mWifiScoreCard.fetchByBssid(bssidFromIndex(0)));
+        assertNotNull(mWifiScoreCard.fetchByBssid(bssidFromIndex(2)));
+    }
+
+    /**
+     * Changes to an entry which was replaced in the cache should not be written.
+     */
+    @Test
+    public void testReplacedItemIsNotWritten() throws Exception {
+        mWifiScoreCard.installMemoryStore(mMemoryStore);
+        WifiScoreCard.PerBssid replaced = mWifiScoreCard.lookupBssid(
+                TEST_SSID_1.toString(), TEST_BSSID_1.toString());
+        // Same BSSID, other SSID.
+        WifiScoreCard.PerBssid perBssid = mWifiScoreCard.lookupBssid(
+                TEST_SSID_2.toString(), TEST_BSSID_1.toString());
+        assertNotSame(replaced, perBssid);
+
+        replaced.markChanged();
+        assertEquals(0, mWifiScoreCard.doWrites());
+
+        perBssid.markChanged();
+        assertEquals(1, mWifiScoreCard.doWrites());
+        verify(mMemoryStore).write(eq(perBssid.getL2Key()),
+                eq(WifiScoreCard.PER_BSSID_DATA_NAME), any());
+    }
+
+    private void noteSignalPollWithBssid(MacAddress bssid) {
+        mWifiInfo.setBSSID(bssid.toString());
+        mWifiScoreCard.noteSignalPoll(mWifiInfo);
+    }
+
+    private static MacAddress bssidFromIndex(int index) {
+        return MacAddress.fromBytes(new byte[]{2, 2, 2, 2, 2, (byte) index});
+    }
+
     private void makeAssocTimeOutExample() {
         mWifiScoreCard.noteConnectionAttempt(mWifiInfo, -53, mWifiInfo.getSSID());
         millisecondsPass(1000);
@@ -1594,6 +1705,37 @@ public class WifiScoreCardTest extends WifiBaseTest {
         assertEquals(2432, (int) perNetwork.getFrequencies(Long.MAX_VALUE).get(0));
     }
 
+    /**
+     * Verify that the frequency index follows the frequencies of the networks of the score card,
+     * but not of the networks only parsed from the memory store.
+     */
+    @Test
+    public void testFrequencyIndex() throws Exception {
+        NetworkFrequencyIndex index = mWifiScoreCard.getFrequencyIndex();
+        String ssid = mWifiInfo.getSSID();
+        PerNetwork perNetwork = mWifiScoreCard.lookupNetwork(ssid);
+        millisecondsPass(100);
+        perNetwork.addFrequency(5805);
+        millisecondsPass(1000);
+        perNetwork.addFrequency(2432);
+        assertArrayEquals(new int[] {2432, 5805}, index.getFrequencies(ssid, Long.MAX_VALUE));
+        assertArrayEquals(new int[] {2432}, index.getFrequencies(ssid, 900L));
+
+        // Neither the placeholder nor a network parsed from the memory store are indexed.
+        mWifiScoreCard.lookupNetwork(null).addFrequency(2412);
+        mWifiScoreCard.perNetworkFromNetworkStats("\"other\"",
+                NetworkStats.newBuilder().addAllFrequencies(Arrays.asList(2412, 5180)).build());
+        assertEquals(1, index.size());
+
+        mWifiScoreCard.removeNetwork(ssid);
+        assertEquals(0, index.getFrequencies(ssid, Long.MAX_VALUE).length);
+
+        mWifiScoreCard.lookupNetwork(ssid).addFrequency(5805);
+        assertEquals(1, index.size());
+        mWifiScoreCard.clear();
+        assertEquals(0, index.size());
+    }
+
     private void addTotalBytes(long txBytes, long rxBytes) {
         mTotalTxBytes += txBytes;
         mTotalRxBytes += rxBytes;
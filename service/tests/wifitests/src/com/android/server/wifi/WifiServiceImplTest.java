@@ -370,6 +370,7 @@ public class WifiServiceImplTest extends WifiBaseTest {
     @Mock WifiConfigManager mWifiConfigManager;
     @Mock WifiBlocklistMonitor mWifiBlocklistMonitor;
     @Mock WifiScoreCard mWifiScoreCard;
+    @Mock ConnectionEventJournal mConnectionEventJournal;
     @Mock WifiHealthMonitor mWifiHealthMonitor;
     @Mock PasspointManager mPasspointManager;
     @Mock IDppCallback mDppCallback;
@@ -507,6 +508,7 @@ public class WifiServiceImplTest extends WifiBaseTest {
         when(mActiveModeWarden.getPrimaryClientModeManager()).thenReturn(mClientModeManager);
         when(mClientModeManager.getInterfaceName()).thenReturn(WIFI_IFACE_NAME);
         when(mWifiInjector.getWifiScoreCard()).thenReturn(mWifiScoreCard);
+        when(mWifiInjector.getConnectionEventJournal()).thenReturn(mConnectionEventJournal);
         when(mWifiInjector.getWifiHealthMonitor()).thenReturn(mWifiHealthMonitor);
 
         mWifiThreadRunner = new WifiThreadRunner(new Handler(mLooper.getLooper()));
@@ -6169,6 +6171,7 @@ public class WifiServiceImplTest extends WifiBaseTest {
         verify(mWifiNetworkSuggestionsManager).clear();
         verify(mWifiScoreCard).clear();
         verify(mWifiHealthMonitor).clear();
+        verify(mConnectionEventJournal).clear();
         verify(mPasspointManager).getProviderConfigs(anyInt(), anyBoolean());
     }
 
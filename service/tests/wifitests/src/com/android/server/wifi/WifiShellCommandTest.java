@@ -99,6 +99,7 @@ public class WifiShellCommandTest extends WifiBaseTest {
     @Mock WifiGlobals mWifiGlobals;
     @Mock WifiThreadRunner mWifiThreadRunner;
     @Mock ScanRequestProxy mScanRequestProxy;
+    @Mock ConnectionEventJournal mConnectionEventJournal;
 
     WifiShellCommand mWifiShellCommand;
 
@@ -122,6 +123,7 @@ public class WifiShellCommandTest extends WifiBaseTest {
         when(mWifiInjector.getWifiCarrierInfoManager()).thenReturn(mWifiCarrierInfoManager);
         when(mWifiInjector.getWifiNetworkFactory()).thenReturn(mWifiNetworkFactory);
         when(mWifiInjector.getScanRequestProxy()).thenReturn(mScanRequestProxy);
+        when(mWifiInjector.getConnectionEventJournal()).thenReturn(mConnectionEventJournal);
         when(mContext.getSystemService(ConnectivityManager.class)).thenReturn(mConnectivityManager);
 
         mWifiShellCommand = new WifiShellCommand(mWifiInjector, mWifiService, mContext,
@@ -175,6 +177,23 @@ public class WifiShellCommandTest extends WifiBaseTest {
                 "IPREACH_DISCONNECT state is false");
     }
 
+    @Test
+    public void testDumpConnectionEventJournal() {
+        // not allowed for unrooted shell.
+        mWifiShellCommand.exec(
+                new Binder(), new FileDescriptor(), new FileDescriptor(), new FileDescriptor(),
+                new String[]{"dump-connection-event-journal"});
+        verify(mConnectionEventJournal, never()).dump(any());
+        assertFalse(mWifiShellCommand.getErrPrintWriter().toString().isEmpty());
+
+        BinderUtil.setUid(Process.ROOT_UID);
+
+        mWifiShellCommand.exec(
+                new Binder(), new FileDescriptor(), new FileDescriptor(), new FileDescriptor(),
+                new String[]{"dump-connection-event-journal"});
+        verify(mConnectionEventJournal).dump(any());
+    }
+
     @Test
     public void testSetPollRssiIntervalMsecs() {
         // not allowed for unrooted shell.
@@ -573,6 +573,52 @@ public class WifiAwareMetricsTest extends WifiBaseTest {
         validateProtoHistBucket("Duration[1]", log.histogramNdpSessionDurationMs[1], 100, 200, 3);
     }
 
+    /**
+     * Validates that the message send latencies are reported as percentiles of the most recent
+     * samples, and that the send queue metrics are dumped and cleared.
+     */
+    @Test
+    public void testMessageSendMetrics() {
+        collector.checkThat("no samples", mDut.getMessageSendLatencyPercentileMs(50),
+                equalTo(-1L));
+
+        for (int i = 1; i <= 100; ++i) {
+            mDut.recordMessageSendLatency(i);
+        }
+        collector.checkThat("p50", mDut.getMessageSendLatencyPercentileMs(50), equalTo(50L));
+        collector.checkThat("p90", mDut.getMessageSendLatencyPercentileMs(90), equalTo(90L));
+        collector.checkThat("p99", mDut.getMessageSendLatencyPercentileMs(99), equalTo(99L));
+        collector.checkThat("p100", mDut.getMessageSendLatencyPercentileMs(100), equalTo(100L));
+
+        // only the most recent samples are kept
+        for (int i = 0; i < WifiAwareMetrics.NUM_SEND_LATENCY_SAMPLES; ++i) {
+            mDut.recordMessageSendLatency(1000);
+        }
+        collector.checkThat("p50 recent", mDut.getMessageSendLatencyPercentileMs(50),
+                equalTo(1000L));
+
+        mDut.recordSendQueueDepth(3);
+        mDut.recordSendQueueDepth(70);
+        mDut.recordSendQueueDepth(12);
+        mDut.recordMessageSendExpired();
+
+        StringWriter sw = new StringWriter();
+        mDut.dump(null, new PrintWriter(sw), null);
+        String dump = sw.toString();
+        collector.checkThat("max depth", dump.contains("mMaxSendQueueDepth:70"), equalTo(true));
+        collector.checkThat("expired", dump.contains("mNumSendMessagesExpired:1"),
+                equalTo(true));
+        collector.checkThat("latency", dump.contains("p50=1000"), equalTo(true));
+
+        mDut.clear();
+        collector.checkThat("cleared", mDut.getMessageSendLatencyPercentileMs(50),
+                equalTo(-1L));
+        sw = new StringWriter();
+        mDut.dump(null, new PrintWriter(sw), null);
+        collector.checkThat("max depth cleared",
+                sw.toString().contains("mMaxSendQueueDepth:0"), equalTo(true));
+    }
+
     /**
      * Validate that the histogram configuration is initialized correctly: bucket starting points
      * and sub-bucket widths.
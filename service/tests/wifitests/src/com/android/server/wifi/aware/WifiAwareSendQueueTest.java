@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi.aware;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.server.wifi.WifiBaseTest;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Unit tests for {@link WifiAwareSendQueue}.
+ */
+@SmallTest
+public class WifiAwareSendQueueTest extends WifiBaseTest {
+    private static final int UID_1 = 1000;
+    private static final int UID_2 = 1001;
+    private static final int SESSION_1 = 1;
+    private static final int SESSION_2 = 2;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final WifiAwareSendQueue<String> mDut = new WifiAwareSendQueue<>();
+    private int mSequence = 0;
+
+    private void add(int uid, int sessionId, String item) {
+        mDut.add(uid, sessionId, mSequence++, NO_DEADLINE, item);
+    }
+
+    private List<String> pollAll() {
+        List<String> items = new ArrayList<>();
+        String item;
+        while ((item = mDut.poll()) != null) {
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * Verifies that the messages of a single session are served in arrival order.
+     */
+    @Test
+    public void testSingleSessionIsFifo() {
+        add(UID_1, SESSION_1, "a");
+        add(UID_1, SESSION_1, "b");
+        add(UID_1, SESSION_1, "c");
+
+        assertEquals(3, mDut.size());
+        assertEquals(Arrays.asList("a", "b", "c"), pollAll());
+        assertTrue(mDut.isEmpty());
+        assertNull(mDut.poll());
+    }
+
+    /**
+     * Verifies that a UID with many queued messages doesn't starve the other UIDs.
+     */
+    @Test
+    public void testUidsAreServedInTurn() {
+        add(UID_1, SESSION_1, "1a");
+        add(UID_1, SESSION_1, "1b");
+        add(UID_1, SESSION_1, "1c");
+        add(UID_2, SESSION_2, "2a");
+
+        assertEquals(3, mDut.size(UID_1));
+        assertEquals(1, mDut.size(UID_2));
+        assertEquals(Arrays.asList("1a", "2a", "1b", "1c"), pollAll());
+        assertEquals(0, mDut.size(UID_1));
+    }
+
+    /**
+     * Verifies that the sessions of a UID are served in turn, and count as a single UID.
+     */
+    @Test
+    public void testSessionsOfUidAreServedInTurn() {
+        add(UID_1, SESSION_1, "1a");
+        add(UID_1, SESSION_1, "1b");
+        add(UID_1, SESSION_2, "2a");
+        add(UID_1, SESSION_2, "2b");
+        add(UID_2, SESSION_1, "x");
+
+        assertEquals(Arrays.asList("1a", "x", "2a", "1b", "2b"), pollAll());
+    }
+
+    /**
+     * Verifies that a message put back is served before the later messages of its session, and
+     * that its UID is served first if it has no other queued message.
+     */
+    @Test
+    public void testPutBack() {
+        add(UID_1, SESSION_1, "1a");
+        add(UID_1, SESSION_1, "1b");
+        add(UID_2, SESSION_2, "2a");
+
+        assertEquals("1a", mDut.poll());
+        assertEquals("2a", mDut.poll());
+        mDut.putBack(UID_2, SESSION_2, 2, NO_DEADLINE, "2a");
+        mDut.putBack(UID_1, SESSION_1, 0, NO_DEADLINE, "1a");
+
+        assertEquals(Arrays.asList("2a", "1a", "1b"), pollAll());
+    }
+
+    /**
+     * Verifies that messages put back out of order are still served in sequence order.
+     */
+    @Test
+    public void testPutBackKeepsSequenceOrder() {
+        add(UID_1, SESSION_1, "a");
+        add(UID_1, SESSION_1, "b");
+        add(UID_1, SESSION_1, "c");
+        assertEquals("a", mDut.poll());
+        assertEquals("b", mDut.poll());
+
+        mDut.putBack(UID_1, SESSION_1, 1, NO_DEADLINE, "b");
+        mDut.putBack(UID_1, SESSION_1, 0, NO_DEADLINE, "a");
+
+        assertEquals(Arrays.asList("a", "b", "c"), pollAll());
+    }
+
+    /**
+     * Verifies that the expired messages are removed and the others are still served in turn.
+     */
+    @Test
+    public void testRemoveExpired() {
+        mDut.add(UID_1, SESSION_1, 0, 100, "1a");
+        mDut.add(UID_1, SESSION_1, 1, 300, "1b");
+        mDut.add(UID_2, SESSION_2, 2, 100, "2a");
+        mDut.add(UID_2, SESSION_1, 3, 300, "2b");
+
+        List<String> expired = new ArrayList<>();
+        mDut.removeExpired(99, expired);
+        assertTrue(expired.isEmpty());
+
+        mDut.removeExpired(100, expired);
+        assertEquals(Arrays.asList("1a", "2a"), expired);
+        assertEquals(2, mDut.size());
+        assertEquals(1, mDut.size(UID_1));
+        assertEquals(1, mDut.size(UID_2));
+        assertEquals(Arrays.asList("1b", "2b"), pollAll());
+    }
+
+    /**
+     * Verifies that a UID whose messages all expired is no longer served.
+     */
+    @Test
+    public void testRemoveAllExpiredOfUid() {
+        mDut.add(UID_1, SESSION_1, 0, 100, "1a");
+        mDut.add(UID_2, SESSION_2, 1, 300, "2a");
+
+        List<String> expired = new ArrayList<>();
+        mDut.removeExpired(200, expired);
+        assertEquals(Arrays.asList("1a"), expired);
+        assertEquals(0, mDut.size(UID_1));
+
+        add(UID_1, SESSION_1, "1b");
+        assertEquals(Arrays.asList("2a", "1b"), pollAll());
+    }
+
+    /**
+     * Verifies forEach() and clear().
+     */
+    @Test
+    public void testForEachAndClear() {
+        add(UID_1, SESSION_1, "1a");
+        add(UID_2, SESSION_2, "2a");
+        List<String> items = new ArrayList<>();
+        mDut.forEach(items::add);
+        assertEquals(2, items.size());
+        assertTrue(items.containsAll(Arrays.asList("1a", "2a")));
+
+        mDut.clear();
+        assertTrue(mDut.isEmpty());
+        assertEquals(0, mDut.size(UID_1));
+        assertNull(mDut.poll());
+    }
+}
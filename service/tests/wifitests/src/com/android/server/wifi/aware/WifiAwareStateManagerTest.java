@@ -2464,7 +2464,8 @@ public class WifiAwareStateManagerTest extends WifiBaseTest {
     /**
      * Validate that the message queue depth per process function. Tests the case
      * with two processes both have message num larger than queue depth. And all messages get
-     * into the firmware queue are sent out and are received on first attempt.
+     * into the firmware queue are sent out and are received on first attempt, alternating between
+     * the two processes.
      */
     @Test
     public void testSendMessageQueueLimitBlock() throws Exception {
@@ -2610,16 +2611,112 @@ public class WifiAwareStateManagerTest extends WifiBaseTest {
                     (int) messageIdCaptorFail.getAllValues().get(i + numOfReject));
         }
 
+        // the two processes are served in turn
         for (int i = 0; i < messageQueueDepthPerUid; ++i) {
             assertEquals("message ID: " + i, messageIdBase1 + i,
-                    (int) messageIdCaptorSuccess.getAllValues().get(i));
+                    (int) messageIdCaptorSuccess.getAllValues().get(2 * i));
             assertEquals("message ID: " + i,  messageIdBase2 + i,
-                    (int) messageIdCaptorSuccess.getAllValues().get(i + messageQueueDepthPerUid));
+                    (int) messageIdCaptorSuccess.getAllValues().get(2 * i + 1));
         }
 
         verifyNoMoreInteractions(mockCallback, mockSessionCallback);
     }
 
+    /**
+     * Validate that the host-side message queue doesn't transmit more messages to the firmware
+     * than the capability-reported limit, even when the firmware queue could accept more.
+     */
+    @Test
+    public void testSendMessageQueueFirmwareLimit() throws Exception {
+        final int clientId = 1005;
+        final int uid = 1000;
+        final int pid = 2000;
+        final String callingPackage = "com.google.somePackage";
+        final String callingFeature = "com.google.someFeature";
+        final String serviceName = "some-service-name";
+        final byte subscribeId = 15;
+        final int requestorId = 22;
+        final byte[] peerMac = HexEncoding.decode("060708090A0B".toCharArray(), false);
+        final int messageIdBase = 6948;
+        final int numberOfMessages = 10;
+        final int queueDepth = 20;
+        final int maxQueuedTransmitMessages = getCapabilities().maxQueuedTransmitMessages;
+
+        ConfigRequest configRequest = new ConfigRequest.Builder().build();
+        SubscribeConfig subscribeConfig = new SubscribeConfig.Builder().setServiceName(serviceName)
+                .build();
+
+        IWifiAwareEventCallback mockCallback = mock(IWifiAwareEventCallback.class);
+        IWifiAwareDiscoverySessionCallback mockSessionCallback = mock(
+                IWifiAwareDiscoverySessionCallback.class);
+        ArgumentCaptor<Short> transactionId = ArgumentCaptor.forClass(Short.class);
+        ArgumentCaptor<Integer> sessionId = ArgumentCaptor.forClass(Integer.class);
+        ArgumentCaptor<Integer> peerIdCaptor = ArgumentCaptor.forClass(Integer.class);
+        InOrder inOrder = inOrder(mockCallback, mockSessionCallback, mMockNative);
+
+        mDut.enableUsage();
+        mMockLooper.dispatchAll();
+
+        // (0) connect
+        mDut.connect(clientId, uid, pid, callingPackage, callingFeature, mockCallback,
+                configRequest, false, mExtras);
+        mMockLooper.dispatchAll();
+        inOrder.verify(mMockNative).enableAndConfigure(transactionId.capture(),
+                eq(configRequest), eq(false), eq(true), eq(true), eq(false), eq(false), eq(false),
+                anyInt());
+        mDut.onConfigSuccessResponse(transactionId.getValue());
+        mMockLooper.dispatchAll();
+        inOrder.verify(mockCallback).onConnectSuccess(clientId);
+
+        // (1) subscribe
+        mDut.subscribe(clientId, subscribeConfig, mockSessionCallback);
+        mMockLooper.dispatchAll();
+        inOrder.verify(mMockNative).subscribe(transactionId.capture(), eq((byte) 0),
+                eq(subscribeConfig));
+        mDut.onSessionConfigSuccessResponse(transactionId.getValue(), false, subscribeId);
+        mMockLooper.dispatchAll();
+        inOrder.verify(mockSessionCallback).onSessionStarted(sessionId.capture());
+
+        // (2) match
+        mDut.onMatchNotification(subscribeId, requestorId, peerMac, null, null, 0, 0,
+                null, 0);
+        mMockLooper.dispatchAll();
+        inOrder.verify(mockSessionCallback).onMatch(peerIdCaptor.capture(), isNull(), isNull(),
+                anyInt(), any());
+
+        // (3) enqueue messages: only the reported limit is transmitted to the firmware
+        SendMessageQueueModelAnswer answerObj = new SendMessageQueueModelAnswer(queueDepth,
+                null, null, null);
+        when(mMockNative.sendMessage(anyShort(), anyByte(), anyInt(), any(),
+                any(), anyInt())).thenAnswer(answerObj);
+
+        for (int i = 0; i < numberOfMessages; ++i) {
+            mDut.sendMessage(uid, clientId, sessionId.getValue(), peerIdCaptor.getValue(), null,
+                    messageIdBase + i, 0);
+        }
+        mMockLooper.dispatchAll();
+        assertEquals("firmware queue", maxQueuedTransmitMessages, answerObj.queueSize());
+        verify(mAwareMetricsMock, times(numberOfMessages)).recordSendQueueDepth(anyInt());
+
+        // (4) each message sent over-the-air lets the next one in
+        assertTrue(answerObj.process());
+        mMockLooper.dispatchAll();
+        assertEquals("firmware queue", maxQueuedTransmitMessages, answerObj.queueSize());
+
+        while (answerObj.queueSize() != 0) {
+            assertTrue(answerObj.process());
+            mMockLooper.dispatchAll();
+        }
+
+        verify(mMockNative, times(numberOfMessages)).sendMessage(anyShort(), anyByte(), anyInt(),
+                any(), any(), anyInt());
+        verify(mockSessionCallback, times(numberOfMessages)).onMessageSendSuccess(anyInt());
+        verify(mAwareMetricsMock, times(numberOfMessages)).recordMessageSendLatency(anyLong());
+        verify(mAwareMetricsMock, never()).recordMessageSendExpired();
+
+        verifyNoMoreInteractions(mockCallback, mockSessionCallback);
+    }
+
     /**
      * Validate that the host-side message queue functions. A combination of imperfect conditions:
      * - Failure to queue: synchronous firmware error
@@ -4566,21 +4663,21 @@ public class WifiAwareStateManagerTest extends WifiBaseTest {
         field = WifiAwareStateManager.WifiAwareStateMachine.class.getDeclaredField(
                 "mHostQueuedSendMessages");
         field.setAccessible(true);
-        SparseArray<Message> hostQueuedSendMessages = (SparseArray<Message>) field.get(sm);
+        WifiAwareSendQueue<Message> hostQueuedSendMessages =
+                (WifiAwareSendQueue<Message>) field.get(sm);
 
         field = WifiAwareStateManager.WifiAwareStateMachine.class.getDeclaredField(
                 "mFwQueuedSendMessages");
         field.setAccessible(true);
         Map<Short, Message> fwQueuedSendMessages = (Map<Short, Message>) field.get(sm);
 
-        for (int i = 0; i < hostQueuedSendMessages.size(); ++i) {
-            Message msg = hostQueuedSendMessages.valueAt(i);
+        hostQueuedSendMessages.forEach(msg -> {
             if (msg.getData().getInt("message_id") == messageId) {
                 collector.checkThat(
                         "Message not cleared-up from host queue. Message ID=" + messageId, msg,
                         nullValue());
             }
-        }
+        });
 
         for (Message msg: fwQueuedSendMessages.values()) {
             if (msg.getData().getInt("message_id") == messageId) {
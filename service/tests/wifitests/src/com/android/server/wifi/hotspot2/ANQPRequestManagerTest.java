@@ -21,8 +21,11 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.anyObject;
+import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.mockito.MockitoAnnotations.initMocks;
@@ -35,10 +38,17 @@ import com.android.server.wifi.hotspot2.anqp.Constants;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Unit tests for {@link com.android.server.wifi.hotspot2.ANQPRequestManager}.
@@ -372,4 +382,219 @@ public class ANQPRequestManagerTest extends WifiBaseTest {
         when(mHandler.requestVenueUrlAnqp(TEST_BSSID)).thenReturn(true);
         assertTrue(mManager.requestVenueUrlAnqpElement(TEST_BSSID, TEST_ANQP_KEY));
     }
+
+    /**
+     * Fake event handler, which accepts all the requests and records them, so that the tests can
+     * answer them in order.
+     */
+    private static class FakePasspointEventHandler extends PasspointEventHandler {
+        public final List<Long> requestedBssids = new ArrayList<>();
+        public final Set<Long> inFlightBssids = new LinkedHashSet<>();
+        public int maxInFlight;
+
+        FakePasspointEventHandler() {
+            super(null, null);
+        }
+
+        @Override
+        public boolean requestANQP(long bssid, List<Constants.ANQPElementType> elements) {
+            requestedBssids.add(bssid);
+            inFlightBssids.add(bssid);
+            maxInFlight = Math.max(maxInFlight, inFlightBssids.size());
+            return true;
+        }
+
+        /**
+         * Removes and returns the BSSID of the oldest in-flight request.
+         */
+        public long answerOldestRequest() {
+            long bssid = inFlightBssids.iterator().next();
+            inFlightBssids.remove(bssid);
+            return bssid;
+        }
+    }
+
+    private ANQPNetworkKey createKey(long bssid) {
+        return new ANQPNetworkKey("TestSSID", bssid, 0, 0);
+    }
+
+    private void fillInFlightRequests() {
+        when(mHandler.requestANQP(anyLong(), anyObject())).thenReturn(true);
+        for (int i = 0; i < ANQPRequestManager.MAX_IN_FLIGHT_REQUESTS; i++) {
+            assertTrue(mManager.requestANQPElements(i + 1, createKey(i + 1), false,
+                    NetworkDetail.HSRelease.R1, -50, false));
+        }
+        verify(mHandler, times(ANQPRequestManager.MAX_IN_FLIGHT_REQUESTS))
+                .requestANQP(anyLong(), anyObject());
+        reset(mHandler);
+        when(mHandler.requestANQP(anyLong(), anyObject())).thenReturn(true);
+    }
+
+    /**
+     * Verify that the requests are queued when {@link ANQPRequestManager#MAX_IN_FLIGHT_REQUESTS}
+     * requests are in flight, and sent from the highest score as the in-flight requests complete.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void queuedRequestsSentByScore() throws Exception {
+        fillInFlightRequests();
+        long weakBssid = 0x100L;
+        long strongBssid = 0x200L;
+        long likelyBssid = 0x300L;
+        assertTrue(mManager.requestANQPElements(weakBssid, createKey(weakBssid), false,
+                NetworkDetail.HSRelease.R1, -80, false));
+        assertTrue(mManager.requestANQPElements(strongBssid, createKey(strongBssid), false,
+                NetworkDetail.HSRelease.R1, -50, false));
+        assertTrue(mManager.requestANQPElements(likelyBssid, createKey(likelyBssid), false,
+                NetworkDetail.HSRelease.R1, -65, true));
+        verify(mHandler, never()).requestANQP(anyLong(), anyObject());
+
+        InOrder inOrder = inOrder(mHandler);
+        mManager.onRequestCompleted(1, true);
+        inOrder.verify(mHandler).requestANQP(eq(likelyBssid), anyObject());
+        mManager.onRequestCompleted(2, false);
+        inOrder.verify(mHandler).requestANQP(eq(strongBssid), anyObject());
+        mManager.onRequestCompleted(likelyBssid, true);
+        inOrder.verify(mHandler).requestANQP(eq(weakBssid), anyObject());
+    }
+
+    /**
+     * Verify that a request isn't sent while a request with the same network key is in flight,
+     * and that the queued requests with the same network key are merged, keeping the AP with the
+     * highest score.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void requestsWithSameKeyMerged() throws Exception {
+        fillInFlightRequests();
+        // Same key as the first in-flight request, from another AP.
+        assertFalse(mManager.requestANQPElements(0x100L, createKey(1), false,
+                NetworkDetail.HSRelease.R1, -50, false));
+
+        ANQPNetworkKey sharedKey = new ANQPNetworkKey(null, 0, 0x1234L, 1);
+        assertTrue(mManager.requestANQPElements(0x200L, sharedKey, false,
+                NetworkDetail.HSRelease.R1, -80, false));
+        assertTrue(mManager.requestANQPElements(0x300L, sharedKey, false,
+                NetworkDetail.HSRelease.R1, -60, false));
+        mManager.onRequestCompleted(1, true);
+        mManager.onRequestCompleted(2, true);
+        verify(mHandler).requestANQP(eq(0x300L), anyObject());
+        verify(mHandler, never()).requestANQP(eq(0x200L), anyObject());
+        verify(mHandler, never()).requestANQP(eq(0x100L), anyObject());
+    }
+
+    /**
+     * Verify that the queued requests are dropped when new scan results are available.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void queuedRequestsDroppedOnNewScanResults() throws Exception {
+        fillInFlightRequests();
+        assertTrue(mManager.requestANQPElements(0x100L, createKey(0x100L), false,
+                NetworkDetail.HSRelease.R1, -50, false));
+        mManager.onNewScanResults();
+        mManager.onRequestCompleted(1, true);
+        verify(mHandler, never()).requestANQP(anyLong(), anyObject());
+    }
+
+    /**
+     * Verify that an in-flight request which doesn't complete in time no longer blocks the other
+     * requests.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void lostInFlightRequestExpires() throws Exception {
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(0L);
+        fillInFlightRequests();
+        assertTrue(mManager.requestANQPElements(0x100L, createKey(0x100L), false,
+                NetworkDetail.HSRelease.R1, -50, false));
+        verify(mHandler, never()).requestANQP(anyLong(), anyObject());
+
+        when(mClock.getElapsedSinceBootMillis())
+                .thenReturn((long) ANQPRequestManager.REQUEST_TIMEOUT_MILLISECONDS);
+        assertTrue(mManager.requestANQPElements(0x200L, createKey(0x200L), false,
+                NetworkDetail.HSRelease.R1, -60, false));
+        verify(mHandler).requestANQP(eq(0x100L), anyObject());
+        verify(mHandler).requestANQP(eq(0x200L), anyObject());
+    }
+
+    /**
+     * Simulate the ANQP queries in a dense venue: 40 APs in 20 ESSs sharing an ANQP domain, with
+     * a few APs advertising a roaming consortium OI of a provider.  The APs answer one request per
+     * second, and new scan results are available every 10 seconds.
+     *
+     * Verify that at most {@link ANQPRequestManager#MAX_IN_FLIGHT_REQUESTS} requests are in
+     * flight, that each ESS is queried once, and that, after the initial requests, the APs are
+     * queried from the highest score.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void simulateDenseVenue() throws Exception {
+        final int numAps = 40;
+        final long responseIntervalMillis = 1000;
+        final long scanIntervalMillis = 10000;
+        FakePasspointEventHandler handler = new FakePasspointEventHandler();
+        long[] currentTime = new long[1];
+        when(mClock.getElapsedSinceBootMillis()).thenAnswer(invocation -> currentTime[0]);
+        mManager = new ANQPRequestManager(handler, mClock);
+
+        Map<Long, ANQPNetworkKey> keys = new HashMap<>();
+        Map<Long, Integer> rssis = new HashMap<>();
+        Map<Long, Integer> scores = new HashMap<>();
+        Set<Long> likelyBssids = new HashSet<>();
+        for (int i = 0; i < numAps; i++) {
+            long bssid = i + 1;
+            keys.put(bssid, new ANQPNetworkKey(null, 0, 0x100 + i / 2, 1));
+            rssis.put(bssid, -90 + (i * 7) % 40);
+            if (i % 10 == 0) {
+                likelyBssids.add(bssid);
+            }
+            scores.put(bssid, rssis.get(bssid) + (likelyBssids.contains(bssid)
+                    ? ANQPRequestManager.LIKELY_MATCH_SCORE_BONUS : 0));
+        }
+
+        Set<ANQPNetworkKey> answeredKeys = new HashSet<>();
+        long nextScanTime = 0;
+        long nextResponseTime = responseIntervalMillis;
+        while (answeredKeys.size() < numAps / 2) {
+            assertTrue("Not all the ESSs were queried in time", currentTime[0] < 120000);
+            if (currentTime[0] == nextScanTime) {
+                mManager.onNewScanResults();
+                for (long bssid = 1; bssid <= numAps; bssid++) {
+                    if (!answeredKeys.contains(keys.get(bssid))) {
+                        mManager.requestANQPElements(bssid, keys.get(bssid), false,
+                                NetworkDetail.HSRelease.R2, rssis.get(bssid),
+                                likelyBssids.contains(bssid));
+                    }
+                }
+                nextScanTime += scanIntervalMillis;
+            }
+            if (currentTime[0] == nextResponseTime) {
+                if (!handler.inFlightBssids.isEmpty()) {
+                    long bssid = handler.answerOldestRequest();
+                    assertEquals(keys.get(bssid), mManager.onRequestCompleted(bssid, true));
+                    answeredKeys.add(keys.get(bssid));
+                }
+                nextResponseTime += responseIntervalMillis;
+            }
+            currentTime[0] = Math.min(nextScanTime, nextResponseTime);
+        }
+
+        assertTrue(handler.maxInFlight <= ANQPRequestManager.MAX_IN_FLIGHT_REQUESTS);
+        // Each ESS is queried once, through one of its APs.
+        assertEquals(numAps / 2, handler.requestedBssids.size());
+        // After the initial requests, sent as soon as requested, the APs are queried from the
+        // highest score, starting with the strongest AP likely to match a provider.
+        List<Long> rankedBssids = handler.requestedBssids.subList(
+                ANQPRequestManager.MAX_IN_FLIGHT_REQUESTS, handler.requestedBssids.size());
+        assertEquals(Long.valueOf(11), rankedBssids.get(0));
+        for (int i = 1; i < rankedBssids.size(); i++) {
+            assertTrue(scores.get(rankedBssids.get(i - 1)) >= scores.get(rankedBssids.get(i)));
+        }
+    }
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.hotspot2;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.util.Xml;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.internal.util.FastXmlSerializer;
+import com.android.server.wifi.Clock;
+import com.android.server.wifi.WifiBaseTest;
+import com.android.server.wifi.WifiConfigStore;
+import com.android.server.wifi.hotspot2.anqp.ANQPElement;
+import com.android.server.wifi.hotspot2.anqp.ANQPParser;
+import com.android.server.wifi.hotspot2.anqp.Constants.ANQPElementType;
+import com.android.server.wifi.hotspot2.anqp.DomainNameElement;
+import com.android.server.wifi.util.WifiConfigStoreEncryptionUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Unit tests for {@link com.android.server.wifi.hotspot2.AnqpCacheStoreData}.
+ */
+@SmallTest
+public class AnqpCacheStoreDataTest extends WifiBaseTest {
+    private static final ANQPNetworkKey TEST_KEY1 =
+            new ANQPNetworkKey("test1", 0x1234567890L, 0L, 0);
+    private static final ANQPNetworkKey TEST_KEY2 = new ANQPNetworkKey(null, 0L, 0x1122L, 3);
+    // Domain name element with "test.com".
+    private static final byte[] TEST_DOMAIN_NAME_PAYLOAD =
+            new byte[] {8, 't', 'e', 's', 't', '.', 'c', 'o', 'm'};
+    private static final long TEST_ELAPSED_TIME = 1000L;
+    private static final long TEST_WALL_CLOCK_TIME = 1_600_000_000_000L;
+
+    @Mock AnqpCacheStoreData.DataSource mDataSource;
+    @Mock Clock mClock;
+    AnqpCacheStoreData mStoreData;
+
+    /** Sets up test. */
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(TEST_ELAPSED_TIME);
+        when(mClock.getWallClockMillis()).thenReturn(TEST_WALL_CLOCK_TIME);
+        mStoreData = new AnqpCacheStoreData(mDataSource, mClock);
+    }
+
+    private byte[] serializeData() throws Exception {
+        final XmlSerializer out = new FastXmlSerializer();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        out.setOutput(outputStream, StandardCharsets.UTF_8.name());
+        mStoreData.serializeData(out, mock(WifiConfigStoreEncryptionUtil.class));
+        out.flush();
+        return outputStream.toByteArray();
+    }
+
+    private Map<ANQPNetworkKey, ANQPData> deserializeData(byte[] data) throws Exception {
+        final XmlPullParser in = Xml.newPullParser();
+        final ByteArrayInputStream inputStream = new ByteArrayInputStream(data);
+        in.setInput(inputStream, StandardCharsets.UTF_8.name());
+        mStoreData.deserializeData(in, in.getDepth(),
+                WifiConfigStore.ENCRYPT_CREDENTIALS_CONFIG_STORE_DATA_VERSION,
+                mock(WifiConfigStoreEncryptionUtil.class));
+        ArgumentCaptor<Map<ANQPNetworkKey, ANQPData>> captor = ArgumentCaptor.forClass(Map.class);
+        verify(mDataSource).restoreEntries(captor.capture());
+        return captor.getValue();
+    }
+
+    private static Map<ANQPElementType, ANQPElement> createParsedElements() throws Exception {
+        Map<ANQPElementType, ANQPElement> elements = new HashMap<>();
+        elements.put(ANQPElementType.ANQPDomName, new ANQPParser(true).parse(
+                ANQPElementType.ANQPDomName, ByteBuffer.wrap(TEST_DOMAIN_NAME_PAYLOAD)));
+        return elements;
+    }
+
+    /**
+     * Verify that the entries read from the store match the entries written, with the same
+     * remaining lifetime, and in the same order.
+     */
+    @Test
+    public void serializeAndDeserializeEntries() throws Exception {
+        Map<ANQPNetworkKey, ANQPData> entries = new LinkedHashMap<>();
+        entries.put(TEST_KEY1, new ANQPData(mClock, createParsedElements(),
+                TEST_ELAPSED_TIME + ANQPData.DATA_SHORT_LIFETIME_MILLISECONDS));
+        entries.put(TEST_KEY2, new ANQPData(mClock, createParsedElements(),
+                TEST_ELAPSED_TIME + ANQPData.DATA_LIFETIME_MILLISECONDS));
+        when(mDataSource.getEntries()).thenReturn(entries);
+        byte[] data = serializeData();
+
+        // Read the store after a reboot, 1 minute later.
+        long elapsedTimeAfterReboot = 5000L;
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(elapsedTimeAfterReboot);
+        when(mClock.getWallClockMillis()).thenReturn(TEST_WALL_CLOCK_TIME + 60_000L);
+        Map<ANQPNetworkKey, ANQPData> restored = deserializeData(data);
+
+        assertEquals(Arrays.asList(TEST_KEY1, TEST_KEY2), new ArrayList<>(restored.keySet()));
+        assertEquals(elapsedTimeAfterReboot + ANQPData.DATA_SHORT_LIFETIME_MILLISECONDS - 60_000L,
+                restored.get(TEST_KEY1).getExpiryTime());
+        assertEquals(elapsedTimeAfterReboot + ANQPData.DATA_LIFETIME_MILLISECONDS - 60_000L,
+                restored.get(TEST_KEY2).getExpiryTime());
+        assertEquals(new DomainNameElement(Arrays.asList("test.com")),
+                restored.get(TEST_KEY1).getElements().get(ANQPElementType.ANQPDomName));
+        // The restored elements can be persisted again.
+        assertArrayEquals(TEST_DOMAIN_NAME_PAYLOAD, restored.get(TEST_KEY1).getElements()
+                .get(ANQPElementType.ANQPDomName).getPayload());
+    }
+
+    /**
+     * Verify that the entries which expired while the device was off are dropped.
+     */
+    @Test
+    public void deserializeDropsExpiredEntries() throws Exception {
+        Map<ANQPNetworkKey, ANQPData> entries = new LinkedHashMap<>();
+        entries.put(TEST_KEY1, new ANQPData(mClock, createParsedElements(),
+                TEST_ELAPSED_TIME + ANQPData.DATA_SHORT_LIFETIME_MILLISECONDS));
+        when(mDataSource.getEntries()).thenReturn(entries);
+        byte[] data = serializeData();
+
+        when(mClock.getWallClockMillis()).thenReturn(
+                TEST_WALL_CLOCK_TIME + ANQPData.DATA_SHORT_LIFETIME_MILLISECONDS);
+        assertTrue(deserializeData(data).isEmpty());
+    }
+
+    /**
+     * Verify that the elements which weren't parsed from a payload aren't persisted, nor the
+     * entries without any other element.
+     */
+    @Test
+    public void serializeSkipsElementsWithoutPayload() throws Exception {
+        Map<ANQPElementType, ANQPElement> elements = new HashMap<>();
+        elements.put(ANQPElementType.ANQPDomName,
+                new DomainNameElement(Arrays.asList("test.com")));
+        Map<ANQPNetworkKey, ANQPData> entries = new LinkedHashMap<>();
+        entries.put(TEST_KEY1, new ANQPData(mClock, elements,
+                TEST_ELAPSED_TIME + ANQPData.DATA_LIFETIME_MILLISECONDS));
+        when(mDataSource.getEntries()).thenReturn(entries);
+
+        assertTrue(deserializeData(serializeData()).isEmpty());
+    }
+
+    /**
+     * Verify that the store data is only written when the cache changed.
+     */
+    @Test
+    public void hasNewDataToSerialize() throws Exception {
+        when(mDataSource.hasNewDataToSerialize()).thenReturn(false);
+        assertFalse(mStoreData.hasNewDataToSerialize());
+        when(mDataSource.hasNewDataToSerialize()).thenReturn(true);
+        assertTrue(mStoreData.hasNewDataToSerialize());
+    }
+
+    /**
+     * Verify that deserialization of a missing store data doesn't restore any entry.
+     */
+    @Test
+    public void deserializeEmptyStoreData() throws Exception {
+        mStoreData.deserializeData(null, 0,
+                WifiConfigStore.ENCRYPT_CREDENTIALS_CONFIG_STORE_DATA_VERSION,
+                mock(WifiConfigStoreEncryptionUtil.class));
+        verify(mDataSource, never()).restoreEntries(any());
+    }
+
+    /**
+     * Verify that the ANQP cache is written to the shared general store.
+     */
+    @Test
+    public void getStoreFileId() throws Exception {
+        assertEquals(WifiConfigStore.STORE_FILE_USER_GENERAL, mStoreData.getStoreFileId());
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.android.server.wifi.hotspot2;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
@@ -37,6 +38,8 @@ import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mock;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -178,4 +181,102 @@ public class AnqpCacheTest extends WifiBaseTest {
         assertTrue(data.getElements().get(Constants.ANQPElementType.ANQPVenueUrl)
                 .equals(venueUrlElement));
     }
+
+    /**
+     * Verify that an expired entry is not returned, even before the cache is swept.
+     */
+    @Test
+    public void getExpiredEntryReturnsNull() throws Exception {
+        mCache.addEntry(ENTRY_KEY, null);
+        when(mClock.getElapsedSinceBootMillis()).thenReturn(ANQPData.DATA_LIFETIME_MILLISECONDS);
+        assertNull(mCache.getEntry(ENTRY_KEY));
+    }
+
+    /**
+     * Verify that the least recently used entry is evicted when the cache is full.
+     */
+    @Test
+    public void evictLeastRecentlyUsedEntry() throws Exception {
+        mCache = new AnqpCache(mClock, 2);
+        ANQPNetworkKey key2 = new ANQPNetworkKey("test2", 0L, 0L, 1);
+        ANQPNetworkKey key3 = new ANQPNetworkKey("test3", 0L, 0L, 1);
+        mCache.addEntry(ENTRY_KEY, null);
+        mCache.addEntry(key2, null);
+        // Use ENTRY_KEY, so that key2 becomes the least recently used entry.
+        assertNotNull(mCache.getEntry(ENTRY_KEY));
+
+        mCache.addEntry(key3, null);
+        assertNotNull(mCache.getEntry(ENTRY_KEY));
+        assertNull(mCache.getEntry(key2));
+        assertNotNull(mCache.getEntry(key3));
+    }
+
+    /**
+     * Verify that only the most recently used valid entries are persisted, and that
+     * the restored entries don't replace the entries already in the cache.
+     */
+    @Test
+    public void persistAndRestoreEntries() throws Exception {
+        for (int i = 0; i < AnqpCache.MAX_PERSISTED_ENTRIES + 1; i++) {
+            mCache.addEntry(new ANQPNetworkKey("test", i, 0L, 0), null);
+        }
+
+        Map<ANQPNetworkKey, ANQPData> entries = mCache.getEntriesToPersist();
+        assertEquals(AnqpCache.MAX_PERSISTED_ENTRIES, entries.size());
+        assertFalse(entries.containsKey(new ANQPNetworkKey("test", 0L, 0L, 0)));
+
+        AnqpCache restoredCache = new AnqpCache(mClock);
+        Map<Constants.ANQPElementType, ANQPElement> elements = new HashMap<>();
+        elements.put(Constants.ANQPElementType.ANQPVenueName,
+                new VenueNameElement(new ArrayList<>()));
+        restoredCache.addEntry(ENTRY_KEY, elements);
+        Map<ANQPNetworkKey, ANQPData> restoredEntries = new HashMap<>(entries);
+        restoredEntries.put(ENTRY_KEY, new ANQPData(mClock, null));
+        restoredEntries.put(new ANQPNetworkKey("expired", 0L, 0L, 0),
+                new ANQPData(mClock, new HashMap<>(), 0L));
+        restoredCache.restoreEntries(restoredEntries);
+        assertEquals(elements, restoredCache.getEntry(ENTRY_KEY).getElements());
+        assertNull(restoredCache.getEntry(new ANQPNetworkKey("expired", 0L, 0L, 0)));
+        for (ANQPNetworkKey key : entries.keySet()) {
+            assertNotNull(restoredCache.getEntry(key));
+        }
+    }
+
+    /**
+     * Verify that only the entries which were added, updated or flushed since they were last
+     * persisted need to be persisted.
+     */
+    @Test
+    public void hasNewDataToSerialize() throws Exception {
+        assertFalse(mCache.hasNewDataToSerialize());
+        mCache.addEntry(ENTRY_KEY, null);
+        assertTrue(mCache.hasNewDataToSerialize());
+        mCache.getEntriesToPersist();
+        assertFalse(mCache.hasNewDataToSerialize());
+
+        // Lookups don't change the persisted data.
+        mCache.getEntry(ENTRY_KEY);
+        assertFalse(mCache.hasNewDataToSerialize());
+
+        mCache.addOrUpdateEntry(ENTRY_KEY, new HashMap<>());
+        assertTrue(mCache.hasNewDataToSerialize());
+        mCache.getEntriesToPersist();
+
+        mCache.flush();
+        assertTrue(mCache.hasNewDataToSerialize());
+    }
+
+    /**
+     * Verify that the dump includes the cache counters.
+     */
+    @Test
+    public void dumpCounters() throws Exception {
+        mCache.addEntry(ENTRY_KEY, null);
+        mCache.getEntry(ENTRY_KEY);
+        mCache.getEntry(new ANQPNetworkKey("test2", 0L, 0L, 1));
+        StringWriter sw = new StringWriter();
+        mCache.dump(new PrintWriter(sw));
+        assertTrue(sw.toString().contains("Entries: 1/" + AnqpCache.MAX_CACHE_SIZE
+                + ", hits: 1, misses: 1, expired: 0, evictions: 0"));
+    }
 }
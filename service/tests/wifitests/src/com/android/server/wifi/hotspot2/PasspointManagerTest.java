@@ -85,6 +85,7 @@ import com.android.server.wifi.Clock;
 import com.android.server.wifi.FakeKeys;
 import com.android.server.wifi.FrameworkFacade;
 import com.android.server.wifi.MacAddressUtil;
+import com.android.server.wifi.MockResources;
 import com.android.server.wifi.NetworkUpdateResult;
 import com.android.server.wifi.WifiBaseTest;
 import com.android.server.wifi.WifiCarrierInfoManager;
@@ -109,6 +110,7 @@ import com.android.server.wifi.proto.nano.WifiMetricsProto.UserActionEvent;
 import com.android.server.wifi.util.InformationElementUtil;
 import com.android.server.wifi.util.InformationElementUtil.RoamingConsortium;
 import com.android.server.wifi.util.WifiPermissionsUtil;
+import com.android.wifi.resources.R;
 
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -221,6 +223,7 @@ public class PasspointManagerTest extends WifiBaseTest {
     @Mock MacAddressUtil mMacAddressUtil;
     @Mock WifiPermissionsUtil mWifiPermissionsUtil;
     @Mock ActivityManager mActivityManager;
+    MockResources mResources;
 
     Handler mHandler;
     TestLooper mLooper;
@@ -260,6 +263,8 @@ public class PasspointManagerTest extends WifiBaseTest {
                 .thenReturn(mPasspointProvisioner);
         when(mContext.getSystemService(Context.APP_OPS_SERVICE)).thenReturn(mAppOpsManager);
         when(mContext.getSystemService(ActivityManager.class)).thenReturn(mActivityManager);
+        mResources = new MockResources();
+        when(mContext.getResources()).thenReturn(mResources);
         when(mWifiInjector.getWifiNetworkSuggestionsManager())
                 .thenReturn(mWifiNetworkSuggestionsManager);
         when(mWifiPermissionsUtil.doesUidBelongToCurrentUserOrDeviceOwner(anyInt()))
@@ -547,7 +552,35 @@ public class PasspointManagerTest extends WifiBaseTest {
         when(mAnqpRequestManager.onRequestCompleted(TEST_BSSID, false)).thenReturn(TEST_ANQP_KEY);
         mCallbacks.onANQPResponse(TEST_BSSID, null);
         verify(mAnqpCache, never()).addOrUpdateEntry(any(ANQPNetworkKey.class), anyMap());
+    }
+
+    /**
+     * Verify that the ANQP cache store data is only registered when the persistence of the ANQP
+     * cache is enabled, and that it reads and restores the entries of the ANQP cache.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void anqpCacheStoreDataRegisteredWhenPersistenceEnabled() throws Exception {
+        verify(mObjectFactory, never()).makeAnqpCacheStoreData(any(), any());
 
+        mResources.setBoolean(R.bool.config_wifiPasspointAnqpCachePersistenceEnabled, true);
+        new PasspointManager(mContext, mWifiInjector, mHandler, mWifiNative,
+                mWifiKeyStore, mClock, mObjectFactory, mWifiConfigManager,
+                mWifiConfigStore, mWifiSettingsStore, mWifiMetrics, mWifiCarrierInfoManager,
+                mMacAddressUtil, mWifiPermissionsUtil);
+        ArgumentCaptor<AnqpCacheStoreData.DataSource> dataSource =
+                ArgumentCaptor.forClass(AnqpCacheStoreData.DataSource.class);
+        verify(mObjectFactory).makeAnqpCacheStoreData(dataSource.capture(), eq(mClock));
+
+        Map<ANQPNetworkKey, ANQPData> entries = new HashMap<>();
+        entries.put(TEST_ANQP_KEY, new ANQPData(mClock, null));
+        when(mAnqpCache.getEntriesToPersist()).thenReturn(entries);
+        assertEquals(entries, dataSource.getValue().getEntries());
+        dataSource.getValue().restoreEntries(entries);
+        verify(mAnqpCache).restoreEntries(entries);
+        when(mAnqpCache.hasNewDataToSerialize()).thenReturn(true);
+        assertTrue(dataSource.getValue().hasNewDataToSerialize());
     }
 
     /**
@@ -1068,12 +1101,59 @@ public class PasspointManagerTest extends WifiBaseTest {
             // Verify that a request for ANQP elements is initiated.
             verify(mAnqpRequestManager).requestANQPElements(eq(TEST_BSSID),
                     any(ANQPNetworkKey.class),
-                    anyBoolean(), any(NetworkDetail.HSRelease.class));
+                    anyBoolean(), any(NetworkDetail.HSRelease.class), anyInt(), eq(false));
+        } finally {
+            session.finishMocking();
+        }
+    }
+
+    /**
+     * Verify that the ANQP request for an AP advertising a roaming consortium OI of a provider in
+     * its beacon is flagged as likely to match, with the RSSI of the AP.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void matchProviderWithAnqpCacheMissedRequestsLikelyMatch() throws Exception {
+        // static mocking
+        MockitoSession session =
+                com.android.dx.mockito.inline.extended.ExtendedMockito.mockitoSession().mockStatic(
+                        InformationElementUtil.class).startMocking();
+        try {
+            PasspointProvider provider = addTestProvider(TEST_FQDN, TEST_FRIENDLY_NAME,
+                    TEST_PACKAGE, false, null, false);
+            provider.getConfig().getHomeSp().setMatchAnyOis(new long[] {0x1234L});
+
+            when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(null);
+            InformationElementUtil.Vsa vsa = new InformationElementUtil.Vsa();
+            vsa.hsRelease = NetworkDetail.HSRelease.R1;
+            when(InformationElementUtil.getHS2VendorSpecificIE(isNull())).thenReturn(vsa);
+            InformationElementUtil.RoamingConsortium roamingConsortium =
+                    mock(InformationElementUtil.RoamingConsortium.class);
+            roamingConsortium.anqpOICount = 0;
+            when(roamingConsortium.getRoamingConsortiums()).thenReturn(new long[] {0x1234L});
+            when(InformationElementUtil.getRoamingConsortiumIE(isNull()))
+                    .thenReturn(roamingConsortium);
+            ScanResult scanResult = createTestScanResult();
+            scanResult.level = TEST_RSSI;
+            assertTrue(mManager.matchProvider(scanResult).isEmpty());
+            verify(mAnqpRequestManager).requestANQPElements(eq(TEST_BSSID),
+                    any(ANQPNetworkKey.class), eq(false), eq(NetworkDetail.HSRelease.R1),
+                    eq(TEST_RSSI), eq(true));
         } finally {
             session.finishMocking();
         }
     }
 
+    /**
+     * Verify that the queued ANQP requests are dropped when new scan results are available.
+     */
+    @Test
+    public void onNewScanResultsDropsQueuedAnqpRequests() {
+        mManager.onNewScanResults();
+        verify(mAnqpRequestManager).onNewScanResults();
+    }
+
     /**
      * Verify that the expected provider will be returned when a HomeProvider is matched.
      *
@@ -1133,6 +1213,34 @@ public class PasspointManagerTest extends WifiBaseTest {
         assertTrue(mManager.matchProvider(createTestScanResult()).isEmpty());
     }
 
+    /**
+     * Verify that with many providers installed, only the providers indexed by the ANQP elements
+     * of the AP are matched.
+     */
+    @Test
+    public void matchProviderWithMatchIndex() throws Exception {
+        List<PasspointProvider> providers = new ArrayList<>();
+        for (int i = 0; i < PasspointManager.MIN_PROVIDERS_FOR_MATCH_INDEX; i++) {
+            PasspointProvider provider = addTestProvider("provider" + i + ".test.com",
+                    TEST_FRIENDLY_NAME, TEST_PACKAGE, false, null, false);
+            when(provider.match(anyMap(), any(RoamingConsortium.class), any(ScanResult.class)))
+                    .thenReturn(PasspointMatch.HomeProvider);
+            providers.add(provider);
+        }
+        Map<ANQPElementType, ANQPElement> anqpElementMap = new HashMap<>();
+        anqpElementMap.put(ANQPElementType.ANQPDomName,
+                new DomainNameElement(Arrays.asList("ap.provider1.test.com")));
+        ANQPData entry = new ANQPData(mClock, anqpElementMap);
+        when(mAnqpCache.getEntry(TEST_ANQP_KEY)).thenReturn(entry);
+
+        List<Pair<PasspointProvider, PasspointMatch>> results =
+                mManager.matchProvider(createTestScanResult());
+        assertEquals(1, results.size());
+        assertEquals(providers.get(1), results.get(0).first);
+        assertEquals(PasspointMatch.HomeProvider, results.get(0).second);
+        verify(providers.get(0), never()).match(anyMap(), any(), any());
+    }
+
     /**
      * Verify the expectations for sweepCache.
      *
@@ -2569,7 +2677,8 @@ public class PasspointManagerTest extends WifiBaseTest {
         reset(mWifiConfigManager);
         when(mAnqpCache.getEntry(TEST_ANQP_KEY2)).thenReturn(null);
         verify(mAnqpRequestManager, never()).requestANQPElements(any(long.class),
-                any(ANQPNetworkKey.class), any(boolean.class), any(NetworkDetail.HSRelease.class));
+                any(ANQPNetworkKey.class), any(boolean.class), any(NetworkDetail.HSRelease.class),
+                anyInt(), anyBoolean());
     }
 
     /**
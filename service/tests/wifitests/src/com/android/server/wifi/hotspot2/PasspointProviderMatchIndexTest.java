@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.hotspot2;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.net.wifi.EAPConstants;
+import android.net.wifi.hotspot2.PasspointConfiguration;
+import android.net.wifi.hotspot2.pps.Credential;
+import android.net.wifi.hotspot2.pps.HomeSp;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.server.wifi.WifiBaseTest;
+import com.android.server.wifi.hotspot2.anqp.ANQPElement;
+import com.android.server.wifi.hotspot2.anqp.CellularNetwork;
+import com.android.server.wifi.hotspot2.anqp.Constants.ANQPElementType;
+import com.android.server.wifi.hotspot2.anqp.DomainNameElement;
+import com.android.server.wifi.hotspot2.anqp.NAIRealmData;
+import com.android.server.wifi.hotspot2.anqp.NAIRealmElement;
+import com.android.server.wifi.hotspot2.anqp.RoamingConsortiumElement;
+import com.android.server.wifi.hotspot2.anqp.ThreeGPPNetworkElement;
+import com.android.server.wifi.hotspot2.anqp.eap.EAPMethod;
+import com.android.server.wifi.util.InformationElementUtil.RoamingConsortium;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Unit tests for {@link PasspointProviderMatchIndex}.
+ */
+@SmallTest
+public class PasspointProviderMatchIndexTest extends WifiBaseTest {
+    private static final String TEST_FQDN = "provider.test.com";
+    private static final String TEST_OTHER_HOME_PARTNER = "partner.com";
+    private static final String TEST_REALM = "realm.test.org";
+    private static final long TEST_OI = 0x1234L;
+    private static final long TEST_OTHER_OI = 0x5678L;
+
+    private PasspointProvider mUserProvider;
+    private PasspointProvider mPrefixSimProvider;
+    private PasspointProvider mFullSimProvider;
+    private PasspointProviderMatchIndex mIndex;
+    private Map<ANQPElementType, ANQPElement> mAnqpElements;
+
+    private static PasspointProvider createProvider(String fqdn, String realm,
+            String imsi) {
+        PasspointConfiguration config = new PasspointConfiguration();
+        HomeSp homeSp = new HomeSp();
+        homeSp.setFqdn(fqdn);
+        config.setHomeSp(homeSp);
+        Credential credential = new Credential();
+        credential.setRealm(realm);
+        if (imsi != null) {
+            Credential.SimCredential simCredential = new Credential.SimCredential();
+            simCredential.setImsi(imsi);
+            simCredential.setEapType(EAPConstants.EAP_SIM);
+            credential.setSimCredential(simCredential);
+        }
+        config.setCredential(credential);
+        PasspointProvider provider = mock(PasspointProvider.class);
+        when(provider.getConfig()).thenReturn(config);
+        return provider;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        mUserProvider = createProvider(TEST_FQDN, TEST_REALM, null);
+        HomeSp homeSp = mUserProvider.getConfig().getHomeSp();
+        homeSp.setOtherHomePartners(new String[] {TEST_OTHER_HOME_PARTNER});
+        homeSp.setRoamingConsortiumOis(new long[] {TEST_OI});
+        mPrefixSimProvider = createProvider("sim1.com", "sim1.com", "123456*");
+        mFullSimProvider = createProvider("sim2.com", "sim2.com", "234567890123456");
+        mIndex = new PasspointProviderMatchIndex(
+                Arrays.asList(mUserProvider, mPrefixSimProvider, mFullSimProvider));
+        mAnqpElements = new HashMap<>();
+    }
+
+    private void addDomainNames(String... domains) {
+        mAnqpElements.put(ANQPElementType.ANQPDomName,
+                new DomainNameElement(Arrays.asList(domains)));
+    }
+
+    private void addPlmns(String... plmns) {
+        mAnqpElements.put(ANQPElementType.ANQP3GPPNetwork, new ThreeGPPNetworkElement(
+                Arrays.asList(new CellularNetwork(Arrays.asList(plmns)))));
+    }
+
+    /**
+     * Verify that there is no candidate without any ANQP element.
+     */
+    @Test
+    public void testNoAnqpElements() {
+        assertTrue(mIndex.getCandidates(mAnqpElements, null).isEmpty());
+    }
+
+    /**
+     * Verify that the providers whose FQDN or other home partner is the same or a parent domain
+     * of an ANQP domain name are candidates.
+     */
+    @Test
+    public void testDomainNameCandidates() {
+        addDomainNames("test.com", "other.org");
+        assertTrue(mIndex.getCandidates(mAnqpElements, null).isEmpty());
+
+        addDomainNames("AP.Provider.test.com");
+        assertEquals(Collections.singleton(mUserProvider),
+                mIndex.getCandidates(mAnqpElements, null));
+
+        addDomainNames(TEST_OTHER_HOME_PARTNER);
+        assertEquals(Collections.singleton(mUserProvider),
+                mIndex.getCandidates(mAnqpElements, null));
+    }
+
+    /**
+     * Verify that the providers whose realm is the same or a parent domain of an ANQP NAI realm
+     * are candidates.
+     */
+    @Test
+    public void testNaiRealmCandidates() {
+        NAIRealmData realmData = new NAIRealmData(
+                Arrays.asList("test.org", "sub." + TEST_REALM), new ArrayList<EAPMethod>());
+        mAnqpElements.put(ANQPElementType.ANQPNAIRealm,
+                new NAIRealmElement(Arrays.asList(realmData)));
+        assertEquals(Collections.singleton(mUserProvider),
+                mIndex.getCandidates(mAnqpElements, null));
+    }
+
+    /**
+     * Verify that the providers with an OI advertised in the ANQP Roaming Consortium element or
+     * in the Roaming Consortium information element are candidates.
+     */
+    @Test
+    public void testRoamingConsortiumCandidates() {
+        mAnqpElements.put(ANQPElementType.ANQPRoamingConsortium,
+                new RoamingConsortiumElement(Arrays.asList(TEST_OTHER_OI)));
+        RoamingConsortium roamingConsortium = mock(RoamingConsortium.class);
+        assertTrue(mIndex.getCandidates(mAnqpElements, roamingConsortium).isEmpty());
+
+        when(roamingConsortium.getRoamingConsortiums()).thenReturn(new long[] {TEST_OI});
+        assertEquals(Collections.singleton(mUserProvider),
+                mIndex.getCandidates(mAnqpElements, roamingConsortium));
+
+        mAnqpElements.put(ANQPElementType.ANQPRoamingConsortium,
+                new RoamingConsortiumElement(Arrays.asList(TEST_OI)));
+        assertEquals(Collections.singleton(mUserProvider),
+                mIndex.getCandidates(mAnqpElements, null));
+    }
+
+    /**
+     * Verify that the SIM providers are candidates for the MCC-MNCs accepted by their IMSI
+     * parameter, advertised either in the 3GPP Network element or as 3GPP domain names.
+     */
+    @Test
+    public void testMccMncCandidates() {
+        addPlmns("12345");
+        assertTrue(mIndex.getCandidates(mAnqpElements, null).isEmpty());
+
+        addPlmns("123456", "23456");
+        Set<PasspointProvider> candidates = mIndex.getCandidates(mAnqpElements, null);
+        assertEquals(2, candidates.size());
+        assertTrue(candidates.contains(mPrefixSimProvider));
+        assertTrue(candidates.contains(mFullSimProvider));
+
+        mAnqpElements.clear();
+        addDomainNames("wlan.mnc567.mcc234.3gppnetwork.org");
+        assertEquals(Collections.singleton(mFullSimProvider),
+                mIndex.getCandidates(mAnqpElements, null));
+    }
+
+    /**
+     * Verify that a SIM provider with a full IMSI shorter than 6 digits can be indexed, and is
+     * only a candidate for the MCC-MNC it holds.
+     */
+    @Test
+    public void testShortFullImsiCandidates() {
+        PasspointProvider shortSimProvider = createProvider("sim3.com", "sim3.com", "34567");
+        mIndex = new PasspointProviderMatchIndex(Arrays.asList(shortSimProvider));
+
+        addPlmns("345678");
+        assertTrue(mIndex.getCandidates(mAnqpElements, null).isEmpty());
+
+        addPlmns("34567");
+        assertEquals(Collections.singleton(shortSimProvider),
+                mIndex.getCandidates(mAnqpElements, null));
+    }
+}
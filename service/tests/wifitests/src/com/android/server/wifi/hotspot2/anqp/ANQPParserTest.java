@@ -16,7 +16,9 @@
 
 package com.android.server.wifi.hotspot2.anqp;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 import android.net.wifi.WifiSsid;
 
@@ -504,4 +506,40 @@ public class ANQPParserTest extends WifiBaseTest {
         assertEquals(expected,
                 ANQPParser.parseHS20Element(Constants.ANQPElementType.HSOSUProviders, buffer));
     }
+
+    /**
+     * Verify that the parsed elements only keep the payload they were parsed from when enabled.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void parseElementKeepsPayloadOnlyWhenEnabled() throws Exception {
+        byte[] data = getDomainNamePayload(new String[] {"test.com"});
+        assertNull(ANQPParser.parseElement(Constants.ANQPElementType.ANQPDomName,
+                ByteBuffer.wrap(data)).getPayload());
+        assertNull(new ANQPParser(false).parse(Constants.ANQPElementType.ANQPDomName,
+                ByteBuffer.wrap(data)).getPayload());
+        assertArrayEquals(data, new ANQPParser(true).parse(
+                Constants.ANQPElementType.ANQPDomName, ByteBuffer.wrap(data)).getPayload());
+    }
+
+    /**
+     * Verify that a parser instance parses both ANQP and Hotspot 2.0 elements.
+     *
+     * @throws Exception
+     */
+    @Test
+    public void parseAnqpAndHs20Elements() throws Exception {
+        ANQPParser parser = new ANQPParser(false);
+        assertEquals(new DomainNameElement(Arrays.asList("test.com")),
+                parser.parse(Constants.ANQPElementType.ANQPDomName,
+                        ByteBuffer.wrap(getDomainNamePayload(new String[] {"test.com"}))));
+
+        HSWanMetricsElement expected = new HSWanMetricsElement(HSWanMetricsElement.LINK_STATUS_UP,
+                false, true, 0x12453L, 0x12423L, 0x12, 0x23, 0x2321);
+        byte[] data = getHSWanMetricsPayload(HSWanMetricsElement.LINK_STATUS_UP, false, true,
+                0x12453L, 0x12423L, 0x12, 0x23, 0x2321);
+        assertEquals(expected,
+                parser.parse(Constants.ANQPElementType.HSWANMetrics, ByteBuffer.wrap(data)));
+    }
 }
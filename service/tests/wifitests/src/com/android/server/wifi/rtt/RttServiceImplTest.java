@@ -96,6 +96,7 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -310,6 +311,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         }
         verify(mockMetrics, times(numIter)).recordOverallStatus(
                 WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics, times(10)).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -393,6 +395,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordResult(eq(finalRequest), eq(results.first),
                 eq(MEASUREMENT_DURATION));
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -508,6 +511,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_HAL_FAILURE);
         verify(mockMetrics, times(numIter - 1)).recordOverallStatus(
                 WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics, times(9)).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -546,6 +550,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordRequest(eq(mDefaultWs), eq(request));
         verify(mockMetrics).recordOverallStatus(
                 WifiMetricsProto.WifiRttLog.OVERALL_LOCATION_PERMISSION_MISSING);
+        verify(mockMetrics).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -628,6 +633,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         }
         verify(mockMetrics, times(numIter / 2)).recordOverallStatus(
                 WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics, times(6)).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -668,6 +674,7 @@ public class RttServiceImplTest extends WifiBaseTest {
 
         // verify metrics
         verify(mockMetrics).recordRequest(eq(ws), eq(request));
+        verify(mockMetrics).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -719,6 +726,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         // (4) send results back from native
         mDut.onRangingResults(mIntCaptor.getValue(), results.second);
         mMockLooper.dispatchAll();
+        verify(mockMetrics).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -769,6 +777,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         // verify metrics
         verify(mockMetrics).recordResult(eq(request), eq(results.second), anyInt());
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -811,6 +820,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordRequest(eq(mDefaultWs), eq(request));
         verify(mockMetrics).recordResult(eq(request), eq(results.second), anyInt());
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -859,6 +869,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordRequest(eq(mDefaultWs), eq(request));
         verify(mockMetrics).recordResult(eq(request), eq(results.second), anyInt());
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -903,6 +914,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordRequest(eq(mDefaultWs), eq(request));
         verify(mockMetrics).recordResult(eq(request), eq(new ArrayList<>()), anyInt());
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -959,12 +971,263 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordResult(eq(request2), eq(result2.second), anyInt());
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_TIMEOUT);
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics, times(2)).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
                 mAlarmManager.getAlarmManager());
     }
 
+    /**
+     * Validate that the queued requests which range with a subset of the responders of the next
+     * request are merged into it: a single HAL ranging operation serves all of them, and each
+     * requestor only gets the results of its own responders.
+     */
+    @Test
+    public void testMergeQueuedRequestsWithSameResponders() throws Exception {
+        RangingRequest request0 = RttTestUtils.getDummyRangingRequest((byte) 0);
+        RangingRequest request1 = RttTestUtils.getDummyRangingRequest((byte) 1);
+        RangingRequest request2 = RttTestUtils.getDummyRangingRequest((byte) 2);
+        RangingRequest request3 = new RangingRequest.Builder()
+                .addResponder(request1.mRttPeers.get(0))
+                .setRttBurstSize(RangingRequest.getMaxRttBurstSize()).build();
+        RangingRequest request4 = RttTestUtils.getDummyRangingRequest((byte) 1);
+        Pair<List<RangingResult>, List<RangingResult>> result0 =
+                RttTestUtils.getDummyRangingResults(request0);
+        Pair<List<RangingResult>, List<RangingResult>> result1 =
+                RttTestUtils.getDummyRangingResults(request1);
+        Pair<List<RangingResult>, List<RangingResult>> result2 =
+                RttTestUtils.getDummyRangingResults(request2);
+
+        IRttCallback mockCallback2 = mock(IRttCallback.class);
+        IRttCallback mockCallback3 = mock(IRttCallback.class);
+        IRttCallback mockCallback4 = mock(IRttCallback.class);
+        ArgumentCaptor<int[]> latenciesCaptor = ArgumentCaptor.forClass(int[].class);
+
+        ClockAnswer clock = new ClockAnswer();
+        doAnswer(clock).when(mockClock).getElapsedSinceBootMillis();
+        clock.time = 1000;
+
+        // (1) request0 is executed, the other requests are queued
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request0,
+                mockCallback, mExtras);
+        mMockLooper.dispatchAll();
+        verify(mockNative).rangeRequest(mIntCaptor.capture(), eq(request0), eq(true));
+        verifyWakeupSet(true, clock.time);
+
+        clock.time += 100;
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request1,
+                mockCallback, mExtras);
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request2,
+                mockCallback2, mExtras);
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request3,
+                mockCallback3, mExtras);
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request4,
+                mockCallback4, mExtras);
+        mMockLooper.dispatchAll();
+
+        // (2) results of request0: request1 is executed along with request3 and request4
+        clock.time += 200;
+        mDut.onRangingResults(mIntCaptor.getValue(), result0.second);
+        mMockLooper.dispatchAll();
+
+        verify(mockCallback).onRangingResults(result0.second);
+        verifyWakeupCancelled();
+        verify(mockNative).rangeRequest(mIntCaptor.capture(), eq(request1), eq(true));
+        verifyWakeupSet(true, clock.time);
+
+        // (3) results of the merged requests are dispatched to each requestor
+        mDut.onRangingResults(mIntCaptor.getValue(), result1.second);
+        mMockLooper.dispatchAll();
+
+        verify(mockCallback).onRangingResults(result1.second);
+        verify(mockCallback3).onRangingResults(Arrays.asList(result1.second.get(0)));
+        verify(mockCallback4).onRangingResults(result1.second);
+        verifyWakeupCancelled();
+
+        // (4) request2 is executed next
+        verify(mockNative).rangeRequest(mIntCaptor.capture(), eq(request2), eq(true));
+        verifyWakeupSet(true, clock.time);
+
+        mDut.onRangingResults(mIntCaptor.getValue(), result2.second);
+        mMockLooper.dispatchAll();
+
+        verify(mockCallback2).onRangingResults(result2.second);
+        verifyWakeupCancelled();
+
+        // verify metrics
+        verify(mockMetrics).recordRequest(eq(mDefaultWs), eq(request0));
+        verify(mockMetrics, times(2)).recordRequest(eq(mDefaultWs), eq(request1));
+        verify(mockMetrics).recordRequest(eq(mDefaultWs), eq(request2));
+        verify(mockMetrics).recordRequest(eq(mDefaultWs), eq(request3));
+        verify(mockMetrics).recordResult(eq(request0), eq(result0.second), anyInt());
+        verify(mockMetrics).recordResult(eq(request1), eq(result1.second), anyInt());
+        verify(mockMetrics).recordResult(eq(request2), eq(result2.second), anyInt());
+        verify(mockMetrics, times(5)).recordOverallStatus(
+                WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics, times(3)).recordDispatch(latenciesCaptor.capture());
+        assertArrayEquals(new int[] {0}, latenciesCaptor.getAllValues().get(0));
+        assertArrayEquals(new int[] {200, 200, 200}, latenciesCaptor.getAllValues().get(1));
+        assertArrayEquals(new int[] {200}, latenciesCaptor.getAllValues().get(2));
+
+        verify(mockNative, atLeastOnce()).isReady();
+        verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback, mockCallback2,
+                mockCallback3, mockCallback4, mAlarmManager.getAlarmManager());
+    }
+
+    /**
+     * Validate that a queued request which isn't dispatched before its deadline is failed, and
+     * that the requests queued after it are still executed.
+     */
+    @Test
+    public void testQueuedRequestDeadline() throws Exception {
+        RangingRequest request0 = RttTestUtils.getDummyRangingRequest((byte) 0);
+        RangingRequest request1 = RttTestUtils.getDummyRangingRequest((byte) 1);
+        RangingRequest request2 = RttTestUtils.getDummyRangingRequest((byte) 2);
+        Pair<List<RangingResult>, List<RangingResult>> result0 =
+                RttTestUtils.getDummyRangingResults(request0);
+        Pair<List<RangingResult>, List<RangingResult>> result2 =
+                RttTestUtils.getDummyRangingResults(request2);
+
+        IRttCallback mockCallback1 = mock(IRttCallback.class);
+        IRttCallback mockCallback2 = mock(IRttCallback.class);
+
+        ClockAnswer clock = new ClockAnswer();
+        doAnswer(clock).when(mockClock).getElapsedSinceBootMillis();
+        clock.time = 1000;
+
+        // (1) request0 is executed, request1 is queued
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request0,
+                mockCallback, mExtras);
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request1,
+                mockCallback1, mExtras);
+        mMockLooper.dispatchAll();
+
+        verify(mockNative).rangeRequest(mIntCaptor.capture(), eq(request0), eq(true));
+        verifyWakeupSet(true, clock.time);
+
+        // (2) request2 is queued just before the deadline of request1
+        clock.time = 1000 + RttServiceImpl.QUEUED_REQUEST_TIMEOUT_MS - 100;
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, null, request2,
+                mockCallback2, mExtras);
+        mMockLooper.dispatchAll();
+
+        // (3) results of request0 after the deadline of request1: request1 fails and request2 is
+        //     executed
+        clock.time = 1000 + RttServiceImpl.QUEUED_REQUEST_TIMEOUT_MS;
+        mDut.onRangingResults(mIntCaptor.getValue(), result0.second);
+        mMockLooper.dispatchAll();
+
+        verify(mockCallback).onRangingResults(result0.second);
+        verifyWakeupCancelled();
+        verify(mockCallback1).onRangingFailure(RangingResultCallback.STATUS_CODE_FAIL);
+        verify(mockNative).rangeRequest(mIntCaptor.capture(), eq(request2), eq(true));
+        verifyWakeupSet(true, clock.time);
+
+        mDut.onRangingResults(mIntCaptor.getValue(), result2.second);
+        mMockLooper.dispatchAll();
+
+        verify(mockCallback2).onRangingResults(result2.second);
+        verifyWakeupCancelled();
+
+        // verify metrics
+        verify(mockMetrics).recordRequest(eq(mDefaultWs), eq(request0));
+        verify(mockMetrics).recordRequest(eq(mDefaultWs), eq(request1));
+        verify(mockMetrics).recordRequest(eq(mDefaultWs), eq(request2));
+        verify(mockMetrics).recordResult(eq(request0), eq(result0.second), anyInt());
+        verify(mockMetrics).recordResult(eq(request2), eq(result2.second), anyInt());
+        verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_TIMEOUT);
+        verify(mockMetrics, times(2)).recordOverallStatus(
+                WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics, times(2)).recordDispatch(any());
+
+        verify(mockNative, atLeastOnce()).isReady();
+        verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback, mockCallback1,
+                mockCallback2, mAlarmManager.getAlarmManager());
+    }
+
+    /**
+     * Validate that a merged request which is put back in the queue, when the request it was
+     * merged into is cancelled, isn't throttled again: its background requestor was already
+     * charged when it was merged.
+     */
+    @Test
+    public void testMergedRequestRequeuedAfterCancelIsNotThrottledAgain() throws Exception {
+        WorkSource wsX = new WorkSource(30);
+        WorkSource wsA = new WorkSource(10);
+        WorkSource wsB = new WorkSource(20);
+        RangingRequest requestX = RttTestUtils.getDummyRangingRequest((byte) 0);
+        RangingRequest requestA = RttTestUtils.getDummyRangingRequest((byte) 1);
+        RangingRequest requestB = new RangingRequest.Builder()
+                .addResponder(requestA.mRttPeers.get(0))
+                .setRttBurstSize(RangingRequest.getMaxRttBurstSize()).build();
+        Pair<List<RangingResult>, List<RangingResult>> resultX =
+                RttTestUtils.getDummyRangingResults(requestX);
+        Pair<List<RangingResult>, List<RangingResult>> resultB =
+                RttTestUtils.getDummyRangingResults(requestB);
+
+        IRttCallback mockCallbackA = mock(IRttCallback.class);
+        IRttCallback mockCallbackB = mock(IRttCallback.class);
+
+        ClockAnswer clock = new ClockAnswer();
+        doAnswer(clock).when(mockClock).getElapsedSinceBootMillis();
+        when(mockActivityManager.getUidImportance(anyInt())).thenReturn(
+                ActivityManager.RunningAppProcessInfo.IMPORTANCE_GONE); // far background
+        clock.time = 100;
+
+        // (1) requestX is executed, requestA and requestB are queued
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, wsX, requestX,
+                mockCallback, mExtras);
+        mMockLooper.dispatchAll();
+
+        verify(mockNative).rangeRequest(mIntCaptor.capture(), eq(requestX), eq(true));
+        verifyWakeupSet(true, clock.time);
+
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, wsA, requestA,
+                mockCallbackA, mExtras);
+        mDut.startRanging(mockIbinder, mPackageName, mFeatureId, wsB, requestB,
+                mockCallbackB, mExtras);
+        mMockLooper.dispatchAll();
+
+        // (2) results of requestX: requestA is executed along with requestB
+        mDut.onRangingResults(mIntCaptor.getValue(), resultX.second);
+        mMockLooper.dispatchAll();
+
+        verify(mockCallback).onRangingResults(resultX.second);
+        verifyWakeupCancelled();
+        verify(mockNative).rangeRequest(mIntCaptor.capture(), eq(requestA), eq(true));
+        verifyWakeupSet(true, clock.time);
+
+        // (3) requestA is cancelled: requestB is executed on its own, without being throttled
+        mDut.cancelRanging(wsA);
+        mMockLooper.dispatchAll();
+
+        verify(mockNative).rangeCancel(eq(mIntCaptor.getValue()), any());
+        verifyWakeupCancelled();
+        verify(mockNative).rangeRequest(mIntCaptor.capture(), eq(requestB), eq(true));
+        verifyWakeupSet(false, clock.time); // requestB has no Aware responder
+
+        mDut.onRangingResults(mIntCaptor.getValue(), resultB.second);
+        mMockLooper.dispatchAll();
+
+        verify(mockCallbackB).onRangingResults(resultB.second);
+        verifyWakeupCancelled();
+
+        // verify metrics
+        verify(mockMetrics).recordRequest(eq(wsX), eq(requestX));
+        verify(mockMetrics).recordRequest(eq(wsA), eq(requestA));
+        verify(mockMetrics).recordRequest(eq(wsB), eq(requestB));
+        verify(mockMetrics).recordResult(eq(requestX), eq(resultX.second), anyInt());
+        verify(mockMetrics).recordResult(eq(requestB), eq(resultB.second), anyInt());
+        verify(mockMetrics, times(2)).recordOverallStatus(
+                WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics, times(3)).recordDispatch(any());
+
+        verify(mockNative, atLeastOnce()).isReady();
+        verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback, mockCallbackA,
+                mockCallbackB, mAlarmManager.getAlarmManager());
+    }
+
     /**
      * Validate that ranging requests from background apps are throttled. The sequence is:
      * - Time 1: Background request -> ok
@@ -1078,6 +1341,7 @@ public class RttServiceImplTest extends WifiBaseTest {
                 WifiMetricsProto.WifiRttLog.OVERALL_THROTTLE);
         verify(mockMetrics, times(3)).recordOverallStatus(
                 WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics, times(3)).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -1181,6 +1445,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_THROTTLE);
         verify(mockMetrics, times(2)).recordOverallStatus(
                 WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics, times(2)).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -1256,6 +1521,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         }
         verify(mockMetrics, times(RttServiceImpl.MAX_QUEUED_PER_UID + 11))
                 .recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_RTT_NOT_AVAILABLE);
+        verify(mockMetrics).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -1339,6 +1605,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics, times(RttServiceImpl.MAX_QUEUED_PER_UID)).recordOverallStatus(
                 WifiMetricsProto.WifiRttLog.OVERALL_RTT_NOT_AVAILABLE);
         verify(mockMetrics).recordOverallStatus(WifiMetricsProto.WifiRttLog.OVERALL_SUCCESS);
+        verify(mockMetrics, times(2)).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback,
@@ -1448,6 +1715,7 @@ public class RttServiceImplTest extends WifiBaseTest {
         verify(mockMetrics).recordRequest(eq(mDefaultWs), eq(request2));
         verify(mockMetrics, times(3)).recordOverallStatus(
                 WifiMetricsProto.WifiRttLog.OVERALL_RTT_NOT_AVAILABLE);
+        verify(mockMetrics).recordDispatch(any());
 
         verify(mockNative, atLeastOnce()).isReady();
         verifyNoMoreInteractions(mockNative, mockMetrics, mockCallback, mockCallback2,
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import static com.android.server.wifi.WifiMetricsTestUtil.assertKeyCountsEqual;
+import static com.android.server.wifi.WifiMetricsTestUtil.buildInt32Count;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.server.wifi.WifiBaseTest;
+import com.android.server.wifi.proto.nano.WifiMetricsProto.Int32Count;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link AtomicIntCounter}.
+ */
+@SmallTest
+public class AtomicIntCounterTest extends WifiBaseTest {
+
+    private static final int[] TEST_KEYS = {
+            100, 20, 34, 5656, 3535, 6456, -1231, -4235, 20, 3535, -5, 100, 6456, 34, -4235, -4235
+    };
+
+    /**
+     * Tests when the counter is empty.
+     */
+    @Test
+    public void testEmpty() {
+        AtomicIntCounter counter = new AtomicIntCounter(-127, 0);
+        assertKeyCountsEqual(new Int32Count[0], counter.toProto());
+    }
+
+    /**
+     * Tests adding to the counter, with keys outside of the range attributed to the bounds.
+     */
+    @Test
+    public void testAddToClampedCounter() {
+        AtomicIntCounter counter = new AtomicIntCounter(-5, 100);
+
+        for (int k : TEST_KEYS) {
+            counter.increment(k);
+        }
+
+        Int32Count[] expected = {
+                buildInt32Count(-5, 5),
+                buildInt32Count(20, 2),
+                buildInt32Count(34, 2),
+                buildInt32Count(100, 7),
+        };
+        assertKeyCountsEqual(expected, counter.toProto());
+        assertEquals(7, counter.get(100));
+        assertEquals(0, counter.get(101));
+    }
+
+    /**
+     * Tests that clear() resets all the counts.
+     */
+    @Test
+    public void testClear() {
+        AtomicIntCounter counter = new AtomicIntCounter(-5, 100);
+        counter.add(20, 3);
+        counter.clear();
+        assertEquals(0, counter.get(20));
+        assertKeyCountsEqual(new Int32Count[0], counter.toProto());
+    }
+
+    /**
+     * Tests that toIntCounterAndClear() returns the counts and resets them.
+     */
+    @Test
+    public void testToIntCounterAndClear() {
+        AtomicIntCounter counter = new AtomicIntCounter(-5, 100);
+        counter.add(20, 3);
+        counter.increment(34);
+
+        IntCounter snapshot = counter.toIntCounterAndClear();
+
+        Int32Count[] expected = {
+                buildInt32Count(20, 3),
+                buildInt32Count(34, 1),
+        };
+        assertKeyCountsEqual(expected, snapshot.toProto());
+        assertEquals(0, counter.get(20));
+        assertKeyCountsEqual(new Int32Count[0], counter.toProto());
+    }
+
+    /**
+     * Tests that concurrent increments are all counted.
+     */
+    @Test
+    public void testConcurrentIncrements() throws Exception {
+        AtomicIntCounter counter = new AtomicIntCounter(-127, 0);
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    counter.increment(-j % 128);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        int total = 0;
+        for (int k = -127; k <= 0; k++) {
+            total += counter.get(k);
+        }
+        assertEquals(4000, total);
+    }
+
+    /**
+     * Tests that a range which is too large is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidRange() {
+        new AtomicIntCounter(0, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import android.net.wifi.WifiConfiguration;
+import android.net.wifi.WifiEnterpriseConfig;
+import android.util.Pair;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.internal.util.FastXmlSerializer;
+import com.android.server.wifi.WifiBaseTest;
+import com.android.server.wifi.WifiConfigurationTestUtil;
+import com.android.server.wifi.util.XmlUtil.WifiConfigurationXmlUtil;
+
+import org.junit.Test;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Unit tests for {@link com.android.server.wifi.util.BinaryXmlSerializer} and
+ * {@link com.android.server.wifi.util.BinaryXmlPullParser}.
+ */
+@SmallTest
+public class BinaryXmlSerializerTest extends WifiBaseTest {
+    private static final String TEST_DOC_HEADER = "BinaryXmlTest";
+    private static final String TEST_SECTION = "Section";
+
+    private static byte[] serializeValues(XmlSerializer out)
+            throws IOException, XmlPullParserException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        out.setOutput(outputStream, StandardCharsets.UTF_8.name());
+        XmlUtil.writeDocumentStart(out, TEST_DOC_HEADER);
+        XmlUtil.writeNextSectionStart(out, TEST_SECTION);
+        XmlUtil.writeNextValue(out, "String", "a<b>&\"c\"");
+        XmlUtil.writeNextValue(out, "EmptyString", "");
+        XmlUtil.writeNextValue(out, "Null", null);
+        XmlUtil.writeNextValue(out, "Int", 42);
+        XmlUtil.writeNextValue(out, "Boolean", true);
+        XmlUtil.writeNextValue(out, "ByteArray", new byte[] {1, 2, 3});
+        XmlUtil.writeNextValue(out, "StringArray", new String[] {"x", "y"});
+        XmlUtil.writeNextSectionEnd(out, TEST_SECTION);
+        XmlUtil.writeDocumentEnd(out, TEST_DOC_HEADER);
+        return outputStream.toByteArray();
+    }
+
+    private static byte[] serializeConfiguration(XmlSerializer out, WifiConfiguration config)
+            throws IOException, XmlPullParserException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        out.setOutput(outputStream, StandardCharsets.UTF_8.name());
+        XmlUtil.writeDocumentStart(out, TEST_DOC_HEADER);
+        WifiConfigurationXmlUtil.writeToXmlForConfigStore(out, config, null);
+        XmlUtil.writeDocumentEnd(out, TEST_DOC_HEADER);
+        return outputStream.toByteArray();
+    }
+
+    private static XmlPullParser newParser(byte[] data) throws XmlPullParserException {
+        XmlPullParser in = new BinaryXmlPullParser();
+        in.setInput(new ByteArrayInputStream(data), StandardCharsets.UTF_8.name());
+        return in;
+    }
+
+    /**
+     * Verify that values written with the binary serializer are read back the same with XmlUtil.
+     */
+    @Test
+    public void testSerializeDeserializeValues() throws Exception {
+        XmlPullParser in = newParser(serializeValues(new BinaryXmlSerializer()));
+        XmlUtil.gotoDocumentStart(in, TEST_DOC_HEADER);
+        XmlUtil.gotoNextSectionWithName(in, TEST_SECTION, in.getDepth());
+        int sectionDepth = in.getDepth();
+        assertEquals("a<b>&\"c\"", XmlUtil.readNextValueWithName(in, "String"));
+        assertEquals("", XmlUtil.readNextValueWithName(in, "EmptyString"));
+        assertNull(XmlUtil.readNextValueWithName(in, "Null"));
+        assertEquals(42, XmlUtil.readNextValueWithName(in, "Int"));
+        assertEquals(true, XmlUtil.readNextValueWithName(in, "Boolean"));
+        assertArrayEquals(new byte[] {1, 2, 3},
+                (byte[]) XmlUtil.readNextValueWithName(in, "ByteArray"));
+        assertArrayEquals(new String[] {"x", "y"},
+                (String[]) XmlUtil.readNextValueWithName(in, "StringArray"));
+        assertTrue(XmlUtil.isNextSectionEnd(in, sectionDepth));
+    }
+
+    /**
+     * Verify that a configuration written with the binary serializer is read back the same, and
+     * that the encoding is smaller than XML.
+     */
+    @Test
+    public void testSerializeDeserializeConfiguration() throws Exception {
+        WifiConfiguration config = WifiConfigurationTestUtil.createPskNetwork();
+        // Enterprise config is serialized separately.
+        config.enterpriseConfig = new WifiEnterpriseConfig();
+        byte[] data = serializeConfiguration(new BinaryXmlSerializer(), config);
+        byte[] xmlData = serializeConfiguration(new FastXmlSerializer(), config);
+        assertTrue(BinaryXmlPullParser.isBinaryXml(data));
+        assertFalse(BinaryXmlPullParser.isBinaryXml(xmlData));
+        assertTrue(data.length < xmlData.length);
+
+        XmlPullParser in = newParser(data);
+        XmlUtil.gotoDocumentStart(in, TEST_DOC_HEADER);
+        Pair<String, WifiConfiguration> retrieved = WifiConfigurationXmlUtil.parseFromXml(
+                in, in.getDepth(), false, null, false);
+        assertEquals(retrieved.first, retrieved.second.getKey());
+        WifiConfigurationTestUtil.assertConfigurationEqualForConfigStore(config,
+                retrieved.second);
+    }
+
+    /**
+     * Verify the depth and attributes reported by the parser.
+     */
+    @Test
+    public void testParserEvents() throws Exception {
+        BinaryXmlSerializer out = new BinaryXmlSerializer();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        out.setOutput(outputStream, null);
+        out.startDocument(null, true);
+        out.startTag(null, "a");
+        out.attribute(null, "name", "value");
+        out.attribute(null, "other", "");
+        out.startTag(null, "b");
+        out.text("text");
+        out.endTag(null, "b");
+        out.endTag(null, "a");
+        out.endDocument();
+
+        XmlPullParser in = newParser(outputStream.toByteArray());
+        assertEquals(XmlPullParser.START_DOCUMENT, in.getEventType());
+        assertEquals(0, in.getDepth());
+        assertEquals(XmlPullParser.START_TAG, in.next());
+        assertEquals("a", in.getName());
+        assertEquals(1, in.getDepth());
+        assertEquals(2, in.getAttributeCount());
+        assertEquals("value", in.getAttributeValue(null, "name"));
+        assertEquals("", in.getAttributeValue(null, "other"));
+        assertNull(in.getAttributeValue(null, "missing"));
+        assertEquals(XmlPullParser.START_TAG, in.next());
+        assertEquals(2, in.getDepth());
+        assertEquals(0, in.getAttributeCount());
+        assertEquals("text", in.nextText());
+        assertEquals(XmlPullParser.END_TAG, in.getEventType());
+        assertEquals(2, in.getDepth());
+        assertEquals(XmlPullParser.END_TAG, in.next());
+        assertEquals("a", in.getName());
+        assertEquals(1, in.getDepth());
+        assertEquals(XmlPullParser.END_DOCUMENT, in.next());
+        assertEquals(0, in.getDepth());
+    }
+
+    /**
+     * Verify that a truncated stream, or a stream without the magic, is reported as a parsing
+     * error.
+     */
+    @Test
+    public void testTruncatedStream() throws Exception {
+        byte[] data = serializeValues(new BinaryXmlSerializer());
+        byte[] truncated = new byte[data.length / 2];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+
+        XmlPullParser in = newParser(truncated);
+        assertThrows(Exception.class, () -> {
+            while (in.next() != XmlPullParser.END_DOCUMENT) {
+                // Read through the whole stream.
+            }
+        });
+        assertThrows(XmlPullParserException.class, () -> newParser(new byte[] {'<', '?'}));
+    }
+}
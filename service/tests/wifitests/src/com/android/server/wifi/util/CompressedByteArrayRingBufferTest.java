@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.android.server.wifi.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.server.wifi.WifiBaseTest;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Unit tests for {@link com.android.server.wifi.util.CompressedByteArrayRingBuffer}.
+ */
+@SmallTest
+public class CompressedByteArrayRingBufferTest extends WifiBaseTest {
+    private static final int MAX_BYTES = 3000;
+    private static final int FRAME_SIZE_BYTES = 1000;
+
+    private static byte[] inflate(byte[] compressed) throws IOException {
+        InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = in.read(buffer)) > 0) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /** Returns data which compresses about 2:1, like text logs. */
+    private static byte[] generateData(Random random, int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    private static byte[] tail(byte[] data, int length) {
+        return Arrays.copyOfRange(data, data.length - length, data.length);
+    }
+
+    @Test
+    public void emptyRingBufferIsValidZlibStream() throws Exception {
+        final CompressedByteArrayRingBuffer rb = new CompressedByteArrayRingBuffer(MAX_BYTES);
+        assertEquals(0, rb.getNumFrames());
+        assertEquals(0, rb.getUncompressedSize());
+        assertEquals(0, inflate(rb.getCompressedData()).length);
+    }
+
+    @Test
+    public void canAddAndRetrieveData() throws Exception {
+        final CompressedByteArrayRingBuffer rb =
+                new CompressedByteArrayRingBuffer(MAX_BYTES, FRAME_SIZE_BYTES);
+        final byte[] data1 = {1, 2, 3};
+        final byte[] data2 = {4, 5};
+        rb.appendBuffer(data1);
+        rb.appendBuffer(data2);
+        // Data is only compressed once a frame is full, or when it is read.
+        assertEquals(0, rb.getNumFrames());
+        assertEquals(5, rb.getUncompressedSize());
+
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 5}, inflate(rb.getCompressedData()));
+        assertEquals(1, rb.getNumFrames());
+        rb.appendBuffer(data1);
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 1, 2, 3}, inflate(rb.getCompressedData()));
+        assertEquals(2, rb.getNumFrames());
+    }
+
+    @Test
+    public void dropsOldestFramesToMakeRoom() throws Exception {
+        final CompressedByteArrayRingBuffer rb =
+                new CompressedByteArrayRingBuffer(MAX_BYTES, FRAME_SIZE_BYTES);
+        final Random random = new Random(1);
+        final ByteArrayOutputStream allData = new ByteArrayOutputStream();
+        for (int i = 0; i < 100; i++) {
+            byte[] data = generateData(random, random.nextInt(700));
+            rb.appendBuffer(data);
+            allData.write(data);
+            assertTrue(rb.getCompressedSize() <= MAX_BYTES);
+            byte[] uncompressed = inflate(rb.getCompressedData());
+            assertEquals(rb.getUncompressedSize(), uncompressed.length);
+            assertArrayEquals(tail(allData.toByteArray(), uncompressed.length), uncompressed);
+        }
+        // More data is held than the size of the buffer.
+        assertTrue(rb.getUncompressedSize() > MAX_BYTES);
+    }
+
+    @Test
+    public void dropsAllDataIfFrameDoesNotFit() throws Exception {
+        final CompressedByteArrayRingBuffer rb =
+                new CompressedByteArrayRingBuffer(100, FRAME_SIZE_BYTES);
+        rb.appendBuffer(new byte[] {1, 2, 3});
+        rb.getCompressedData();
+        assertEquals(1, rb.getNumFrames());
+
+        rb.appendBuffer(generateData(new Random(1), FRAME_SIZE_BYTES));
+        assertEquals(0, rb.getNumFrames());
+        assertEquals(0, inflate(rb.getCompressedData()).length);
+    }
+
+    @Test
+    public void incompressibleDataIsStored() throws Exception {
+        final CompressedByteArrayRingBuffer rb =
+                new CompressedByteArrayRingBuffer(MAX_BYTES, FRAME_SIZE_BYTES);
+        final byte[] data = new byte[2 * FRAME_SIZE_BYTES];
+        new Random(1).nextBytes(data);
+        rb.appendBuffer(data);
+        assertEquals(2, rb.getNumFrames());
+        assertArrayEquals(data, inflate(rb.getCompressedData()));
+    }
+
+    @Test
+    public void resizeKeepsMostRecentFrames() throws Exception {
+        final CompressedByteArrayRingBuffer rb =
+                new CompressedByteArrayRingBuffer(MAX_BYTES, FRAME_SIZE_BYTES);
+        final byte[] data = generateData(new Random(1), 5 * FRAME_SIZE_BYTES);
+        rb.appendBuffer(data);
+
+        rb.resize(MAX_BYTES / 2);
+        assertTrue(rb.getCompressedSize() <= MAX_BYTES / 2);
+        byte[] uncompressed = inflate(rb.getCompressedData());
+        assertTrue(uncompressed.length > 0);
+        assertArrayEquals(tail(data, uncompressed.length), uncompressed);
+
+        rb.resize(MAX_BYTES);
+        assertArrayEquals(uncompressed, inflate(rb.getCompressedData()));
+        rb.appendBuffer(data);
+        uncompressed = inflate(rb.getCompressedData());
+        assertTrue(uncompressed.length > MAX_BYTES);
+        assertArrayEquals(tail(data, MAX_BYTES), tail(uncompressed, MAX_BYTES));
+    }
+
+    @Test
+    public void clearRemovesAllData() throws Exception {
+        final CompressedByteArrayRingBuffer rb =
+                new CompressedByteArrayRingBuffer(MAX_BYTES, FRAME_SIZE_BYTES);
+        rb.appendBuffer(generateData(new Random(1), 2 * FRAME_SIZE_BYTES + 1));
+        rb.clear();
+        assertEquals(0, rb.getNumFrames());
+        assertEquals(0, rb.getUncompressedSize());
+        assertEquals(0, inflate(rb.getCompressedData()).length);
+    }
+
+    @Test
+    public void combineAdler32MatchesChecksumOfConcatenation() {
+        final byte[] data = generateData(new Random(1), 70000);
+        final int split = 66000;
+        Adler32 adler32 = new Adler32();
+        adler32.update(data, 0, split);
+        int adler1 = (int) adler32.getValue();
+        adler32.reset();
+        adler32.update(data, split, data.length - split);
+        int adler2 = (int) adler32.getValue();
+        adler32.reset();
+        adler32.update(data);
+        assertEquals((int) adler32.getValue(), CompressedByteArrayRingBuffer.combineAdler32(
+                adler1, adler2, data.length - split));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void ctorRejectsInvalidSize() {
+        new CompressedByteArrayRingBuffer(0);
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2023 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.server.wifi.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.filters.SmallTest;
+
+import com.android.server.wifi.WifiBaseTest;
+
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Unit tests for {@link EventRingBuffer}.
+ */
+@SmallTest
+public class EventRingBufferTest extends WifiBaseTest {
+    private static final int CAPACITY = 3;
+
+    private EventRingBuffer createBuffer() {
+        return new EventRingBuffer(CAPACITY, 1, 1, 1);
+    }
+
+    private static void addEvent(EventRingBuffer buffer, int i) {
+        int index = buffer.add(i * 1000L);
+        buffer.setInt(index, 0, i);
+        buffer.setLong(index, 0, i * 10L);
+        buffer.setObject(index, 0, "event" + i);
+    }
+
+    private static void assertEvent(EventRingBuffer buffer, int index, int i) {
+        assertEquals(i * 1000L, buffer.getTimestampMillis(index));
+        assertEquals(i, buffer.getInt(index, 0));
+        assertEquals(i * 10L, buffer.getLong(index, 0));
+        assertEquals("event" + i, buffer.getObject(index, 0));
+    }
+
+    /**
+     * Verifies that events are kept in order until the capacity is reached.
+     */
+    @Test
+    public void testAddBelowCapacity() {
+        EventRingBuffer buffer = createBuffer();
+        assertTrue(buffer.isEmpty());
+        addEvent(buffer, 0);
+        addEvent(buffer, 1);
+        assertEquals(2, buffer.size());
+        assertEvent(buffer, 0, 0);
+        assertEvent(buffer, 1, 1);
+    }
+
+    /**
+     * Verifies that the oldest events are dropped once the capacity is reached, and that the
+     * fields of a reused slot are reset.
+     */
+    @Test
+    public void testAddWrapsAround() {
+        EventRingBuffer buffer = createBuffer();
+        for (int i = 0; i < 5; i++) {
+            addEvent(buffer, i);
+        }
+        assertEquals(CAPACITY, buffer.size());
+        assertEvent(buffer, 0, 2);
+        assertEvent(buffer, 1, 3);
+        assertEvent(buffer, 2, 4);
+
+        int index = buffer.add(5000L);
+        assertEquals(CAPACITY - 1, index);
+        assertEquals(0, buffer.getInt(index, 0));
+        assertEquals(0L, buffer.getLong(index, 0));
+        assertNull(buffer.getObject(index, 0));
+    }
+
+    /**
+     * Verifies that removing an event moves the following events back.
+     */
+    @Test
+    public void testRemove() {
+        EventRingBuffer buffer = createBuffer();
+        for (int i = 0; i < 4; i++) {
+            addEvent(buffer, i);
+        }
+        buffer.remove(1);
+        assertEquals(2, buffer.size());
+        assertEvent(buffer, 0, 1);
+        assertEvent(buffer, 1, 3);
+
+        addEvent(buffer, 4);
+        assertEvent(buffer, 2, 4);
+    }
+
+    /**
+     * Verifies that clear() removes all the events.
+     */
+    @Test
+    public void testClear() {
+        EventRingBuffer buffer = createBuffer();
+        addEvent(buffer, 0);
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        addEvent(buffer, 1);
+        assertEquals(1, buffer.size());
+        assertEvent(buffer, 0, 1);
+    }
+
+    /**
+     * Verifies that dump() formats the events from the oldest to the most recent.
+     */
+    @Test
+    public void testDump() {
+        EventRingBuffer buffer = createBuffer();
+        for (int i = 0; i < 4; i++) {
+            addEvent(buffer, i);
+        }
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        buffer.dump(pw, (sb, b, index) -> sb.append(b.getInt(index, 0)));
+        pw.flush();
+        assertEquals(String.format("1%n2%n3%n"), sw.toString());
+    }
+
+    /**
+     * Verifies that out of bounds accesses are rejected.
+     */
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds() {
+        EventRingBuffer buffer = createBuffer();
+        addEvent(buffer, 0);
+        buffer.getInt(0, 1);
+    }
+}
@@ -759,6 +759,100 @@ public class XmlUtilTest extends WifiBaseTest {
                 status, retrievedStatus);
     }
 
+    private XmlPullParser createParserAtDocumentStart(String values)
+            throws IOException, XmlPullParserException {
+        final XmlPullParser in = Xml.newPullParser();
+        String xml = "<" + mXmlDocHeader + ">" + values + "</" + mXmlDocHeader + ">";
+        in.setInput(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)),
+                StandardCharsets.UTF_8.name());
+        XmlUtil.gotoDocumentStart(in, mXmlDocHeader);
+        return in;
+    }
+
+    /**
+     * Verify that the typed readers decode the values written by
+     * {@link XmlUtil#writeNextValue(XmlSerializer, String, Object)}, and leave the stream at the
+     * end of each value.
+     */
+    @Test
+    public void testReadTypedValues() throws Exception {
+        final XmlSerializer out = new FastXmlSerializer();
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        out.setOutput(outputStream, StandardCharsets.UTF_8.name());
+        XmlUtil.writeDocumentStart(out, mXmlDocHeader);
+        XmlUtil.writeNextValue(out, "Int", -5);
+        XmlUtil.writeNextValue(out, "Long", 1L << 40);
+        XmlUtil.writeNextValue(out, "Boolean", true);
+        XmlUtil.writeNextValue(out, "String", "a<b>&c");
+        XmlUtil.writeNextValue(out, "EmptyString", "");
+        XmlUtil.writeNextValue(out, "NullString", null);
+        XmlUtil.writeNextValue(out, "ByteArray", new byte[] {0x01, (byte) 0xff});
+        XmlUtil.writeNextValue(out, "NullByteArray", null);
+        XmlUtil.writeDocumentEnd(out, mXmlDocHeader);
+
+        final XmlPullParser in = Xml.newPullParser();
+        in.setInput(new ByteArrayInputStream(outputStream.toByteArray()),
+                StandardCharsets.UTF_8.name());
+        XmlUtil.gotoDocumentStart(in, mXmlDocHeader);
+        int depth = in.getDepth();
+        assertFalse(XmlUtil.isNextSectionEnd(in, depth));
+        assertEquals(-5, XmlUtil.readCurrentIntValue(in));
+        assertFalse(XmlUtil.isNextSectionEnd(in, depth));
+        assertEquals(1L << 40, XmlUtil.readCurrentLongValue(in));
+        assertFalse(XmlUtil.isNextSectionEnd(in, depth));
+        assertTrue(XmlUtil.readCurrentBooleanValue(in));
+        assertEquals("a<b>&c", XmlUtil.readNextStringValueWithName(in, "String"));
+        assertEquals("", XmlUtil.readNextStringValueWithName(in, "EmptyString"));
+        assertNull(XmlUtil.readNextStringValueWithName(in, "NullString"));
+        assertFalse(XmlUtil.isNextSectionEnd(in, depth));
+        assertArrayEquals(new byte[] {0x01, (byte) 0xff}, XmlUtil.readCurrentByteArrayValue(in));
+        assertFalse(XmlUtil.isNextSectionEnd(in, depth));
+        assertNull(XmlUtil.readCurrentByteArrayValue(in));
+        assertTrue(XmlUtil.isNextSectionEnd(in, depth));
+    }
+
+    /**
+     * Verify that the typed readers reject values of another type, or with a different name.
+     */
+    @Test
+    public void testReadTypedValueWithUnexpectedTypeOrName() throws Exception {
+        XmlPullParser in = createParserAtDocumentStart("<string name=\"Int\">1</string>");
+        assertThrows(XmlPullParserException.class,
+                () -> XmlUtil.readNextIntValueWithName(in, "Int"));
+
+        XmlPullParser in2 = createParserAtDocumentStart("<int name=\"Int\" value=\"one\" />");
+        assertThrows(XmlPullParserException.class,
+                () -> XmlUtil.readNextIntValueWithName(in2, "Int"));
+
+        XmlPullParser in3 = createParserAtDocumentStart("<int name=\"Int\" value=\"1\" />");
+        assertThrows(XmlPullParserException.class,
+                () -> XmlUtil.readNextIntValueWithName(in3, "Other"));
+    }
+
+    /**
+     * Verify that {@link XmlUtil.ValueParserTable} dispatches values by name and skips the
+     * unknown ones.
+     */
+    @Test
+    public void testValueParserTable() throws Exception {
+        XmlUtil.ValueParserTable<int[]> table = new XmlUtil.ValueParserTable<int[]>()
+                .add("First", (in, target) -> target[0] = XmlUtil.readCurrentIntValue(in))
+                .add("Second", (in, target) -> target[1] = XmlUtil.readCurrentIntValue(in));
+        assertThrows(IllegalArgumentException.class, () -> table.add("First", (in, target) -> {
+        }));
+
+        XmlPullParser in = createParserAtDocumentStart(
+                "<int name=\"Second\" value=\"2\" />"
+                + "<string-array name=\"Unknown\" num=\"1\"><item value=\"x\" /></string-array>"
+                + "<int name=\"First\" value=\"1\" />");
+        int depth = in.getDepth();
+        int[] target = new int[2];
+        while (!XmlUtil.isNextSectionEnd(in, depth)) {
+            table.parseCurrentValue(in, in.getAttributeValue(null, "name"), target);
+        }
+        assertArrayEquals(new int[] {1, 2}, target);
+    }
+
     private byte[] serializeWifiEnterpriseConfig(WifiEnterpriseConfig config)
             throws IOException, XmlPullParserException {
         final XmlSerializer out = new FastXmlSerializer();